@@ -26,7 +26,10 @@
             SampleModel
             SampleModel$Listener
             SampleModel$State$Value
-            SampleModelViews]
+            SampleModelViews
+            TimeSeriesRecorder
+            TimeSeriesStore
+            TimeSeriesStore$Sample]
            [net.grinder.statistics ExpressionView]))
 
 (defonce latest-test-index(atom [nil nil]))
@@ -175,3 +178,66 @@
     (.getIntervalStatisticsView statistics-view)
     (.getTotalLatestStatistics sample-model)
     #(.getLastSampleStatistics %1 %2)))
+
+(defn- to-long
+  [params k default]
+  (let [v (k params)]
+    (cond
+      (nil? v) default
+      (number? v) (long v)
+      :else
+      (try
+        (Long/parseLong (str v))
+        (catch NumberFormatException e
+          (throw (IllegalArgumentException.
+                   (str "Invalid " (name k) " parameter: " v))))))))
+
+(defn history
+  "Return the samples recorded in the time series store.
+
+   The params map may have the following keys:
+     :start The start of the time range, in milliseconds since the Epoch,
+            inclusive. Defaults to 0.
+     :end The end of the time range, exclusive. Defaults to no limit.
+     :resolution If positive, the samples are added together in buckets
+                 of this many milliseconds. Defaults to 0.
+
+   The result is a map with the following keys:
+     :columns Vector of column names, in same order as statistics vectors.
+     :tests Vector of test data maps, one per recorded test.
+
+   Each test data map has the following keys:
+     :test The test number.
+     :samples Vector of sample maps.
+
+   Each sample map has the following keys:
+     :time The sample time, in milliseconds since the Epoch.
+     :statistics Vector of statistics.
+
+   Throws IllegalStateException if time series recording is disabled,
+   and IllegalArgumentException if a parameter is not a number.
+"
+  [^TimeSeriesRecorder recorder
+   ^SampleModelViews statistics-view
+   params]
+  (let [^TimeSeriesStore store (.getStore recorder)]
+    (when-not store
+      (throw (IllegalStateException. "Time series recording is disabled.")))
+
+    (let [views (.getExpressionViews (.getIntervalStatisticsView
+                                       statistics-view))
+          start (to-long params :start 0)
+          end (to-long params :end Long/MAX_VALUE)
+          resolution (to-long params :resolution 0)]
+      {:columns (vec (for [^ExpressionView v views] (.getDisplayName v)))
+       :tests
+       (vec
+         (for [n (.getTestNumbers store)]
+           {:test n
+            :samples
+            (vec
+              (for [^TimeSeriesStore$Sample s
+                    (.query store (int n) start end resolution)]
+                {:time (.getTime s)
+                 :statistics (process-statistics views (.getStatistics s))}))
+            }))})))
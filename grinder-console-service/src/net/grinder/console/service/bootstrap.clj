@@ -34,7 +34,8 @@
                     net.grinder.console.model.SampleModelViews
                     net.grinder.console.communication.ProcessControl
                     net.grinder.console.common.ErrorQueue
-                    net.grinder.console.distribution.FileDistribution]
+                    net.grinder.console.distribution.FileDistribution
+                    net.grinder.console.model.TimeSeriesRecorder]
                    [] }
    :init init
    :implements [org.picocontainer.Startable]
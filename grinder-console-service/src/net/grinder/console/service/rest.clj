@@ -45,6 +45,18 @@
   { :status (or status 200)
     :body data })
 
+(defn- history
+  "Query the time series store. A bad parameter, or a query when time
+   series recording is disabled, is a client error; return the reason
+   rather than a server error."
+  [tsr smv params]
+  (try
+    (to-body (recording/history tsr smv params))
+    (catch IllegalArgumentException e
+      (to-body {:error (.getMessage e)} 400))
+    (catch IllegalStateException e
+      (to-body {:error (.getMessage e)} 409))))
+
 (defn- agents-routes
   "Routes related to agent and worker process control."
   [pc properties]
@@ -66,10 +78,13 @@
 
 (defn- recording-routes
   "Routes related to recording control."
-  [sm smv]
+  [sm smv tsr]
   (routes
     (GET "/status" [] (to-body (recording/status sm)))
-    (GET "/data" [] (to-body (recording/data sm smv)))
+    (GET "/data" {params :params}
+         (if (some params [:start :end :resolution])
+           (history tsr smv params)
+           (to-body (recording/data sm smv))))
     (GET "/data-latest" [] (to-body (recording/data-latest sm smv)))
     (POST "/start" [] (to-body (recording/start sm)))
     (POST "/stop" [] (to-body (recording/stop sm)))
@@ -93,14 +108,18 @@
            sample-model
            sample-model-views
            properties
-           file-distribution]}]
+           file-distribution
+           time-series-recorder]}]
   (->
     (routes
       (GET "/version" [] (to-body (GrinderBuild/getName)))
       (context "/agents" [] (agents-routes process-control properties))
       (context "/files" [] (files-routes file-distribution))
       (context "/properties" [] (properties-routes properties))
-      (context "/recording" [] (recording-routes sample-model sample-model-views))
+      (context "/recording" []
+        (recording-routes sample-model
+                          sample-model-views
+                          time-series-recorder))
       (not-found "Resource not found")
       )
     compojure.handler/api
@@ -33,12 +33,17 @@
             SampleModel$State
             SampleModel$State$Value
             SampleModelViews
-            SampleModelImplementation]
+            SampleModelImplementation
+            TimeSeriesRecorder]
            [net.grinder.statistics
             StatisticsServices
             StatisticsServicesImplementation]
+           [java.io
+            File]
            [java.util
-            Timer]))
+            Timer]
+           [net.grinder.util
+            StandardTimeAuthority]))
 
 (declare history)
 
@@ -188,3 +193,56 @@
         (is (= 2 test))
         (is (= "test two" description))
         (is (= "[0 0]" (str statistics))))))))
+
+(deftest test-history-disabled
+  (with-console-properties cp
+    (let [r (TimeSeriesRecorder. cp
+                                 (reify SampleModel)
+                                 ss
+                                 (StandardTimeAuthority.)
+                                 nil)]
+      (is (thrown? IllegalStateException (recording/history r nil {}))))))
+
+(deftest test-history
+  (with-temporary-files [d]
+    (.delete d)
+    (with-console-properties cp
+      (.setTimeSeriesDirectory cp d)
+      (let [r (TimeSeriesRecorder. cp
+                                   (reify SampleModel
+                                     (addModelListener [this l]))
+                                   ss
+                                   (StandardTimeAuthority.)
+                                   nil)
+            sv (reify SampleModelViews
+                 (getIntervalStatisticsView
+                   [this]
+                   (.getDetailStatisticsView ss)))
+            store (.getStore r)]
+        (try
+          (doseq [t [100 200 300]]
+            (.append store t 1 s1))
+          (.append store 200 3 s1)
+
+          (let [{:keys [columns tests]} (recording/history r sv {})]
+            (is (= ["Test time" "Errors"] columns))
+            (is (= [1 3] (map :test tests)))
+            (is (= [100 200 300] (map :time (:samples (first tests)))))
+            (is (= "[0 0]" (str (:statistics (first (:samples (first tests))))))))
+
+          (let [{:keys [tests]} (recording/history r sv {:start "150"
+                                                        :end "300"})]
+            (is (= [200] (map :time (:samples (first tests))))))
+
+          (let [{:keys [tests]} (recording/history r sv {:start 100
+                                                        :resolution 150})]
+            (is (= [100 250] (map :time (:samples (first tests))))))
+
+          (is (thrown-with-msg? IllegalArgumentException #"Invalid start"
+                (recording/history r sv {:start "x"})))
+          (is (thrown-with-msg? IllegalArgumentException #"Invalid resolution"
+                (recording/history r sv {:resolution "1.5"})))
+
+          (finally
+            (.shutdown r)
+            (doseq [^File f (reverse (file-seq d))] (.delete f))))))))
@@ -32,7 +32,8 @@
                 :sample-model
                 :sample-model-views
                 :properties
-                :file-distribution]]
+                :file-distribution
+                :time-series-recorder]]
 
        (let [app# (rest/create-app (zipmap ks# ks#))]
          (app# (assoc ~req :scheme :http)))))
@@ -47,6 +48,11 @@
   (is (= 200 (:status res)))
   res)
 
+(defn- has-status
+  [res status]
+  (is (= status (:status res)))
+  res)
+
 (defn- is-json
   [res]
   (is (re-find #"^application/json" (get-in res [:headers "Content-Type"])))
@@ -97,6 +103,30 @@
     {:foo :bah} {:foo :bah}
     {"foo" :bah} {:foo :bah}))
 
+(deftest recording-history
+  (are [input params]
+       (-> (check-route {:request-method :get
+                         :uri "/recording/data"
+                         :params input}
+                        [net.grinder.console.model.recording/history
+                         [:time-series-recorder :sample-model-views params]])
+         ok-status
+         is-json)
+    {:start "10"} {:start "10"}
+    {:end "20" :resolution "5"} {:end "20" :resolution "5"}))
+
+(deftest recording-history-errors
+  (are [e status]
+       (with-redefs [net.grinder.console.model.recording/history
+                     (fn [& _] (throw e))]
+         (-> (check-route {:request-method :get
+                           :uri "/recording/data"
+                           :params {:start "x"}})
+           (has-status status)
+           is-json))
+    (IllegalArgumentException. "Invalid start parameter: x") 400
+    (IllegalStateException. "Time series recording is disabled.") 409))
+
 (deftest put-properties
   (are [input params]
        (-> (check-route {:request-method :put
@@ -72,20 +72,25 @@ abstract class AbstractFanOutSender extends AbstractSender {
    * @param message The message.
    * @exception IOException If an error occurs.
    */
-  protected final void writeAddressedMessage(Address address, Message message)
+  protected final void writeAddressedMessage(final Address address,
+                                            Message message)
     throws CommunicationException {
 
-    // We reserve all the resources here and hand off the
+    // We reserve the addressed resources here and hand off the
     // reservations to WriteMessageToStream instances. This
     // guarantees order of messages to a given resource for this
-    // AbstractFanOutSender.
-    for (ResourcePool.Reservation reservation : m_resourcePool.reserveAll()) {
-      final Resource resource = reservation.getResource();
+    // AbstractFanOutSender. We don't wait for resources that are not
+    // addressed, so a slow receiver doesn't hold up messages sent to others.
+    final ResourcePool.Filter addressFilter = new ResourcePool.Filter() {
+        public boolean accept(Resource resource) {
+          return address.includes(getAddress(resource));
+        }
+      };
 
-      if (!address.includes(getAddress(resource))) {
-        reservation.free();
-        continue;
-      }
+    for (ResourcePool.Reservation reservation :
+         m_resourcePool.reserveAll(addressFilter)) {
+
+      final Resource resource = reservation.getResource();
 
       // We don't need to synchronise access to the stream; access is
       // protected through the socket set and only we hold the reservation.
@@ -1,4 +1,4 @@
-// Copyright (C) 2000 - 2008 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,7 +22,6 @@
 package net.grinder.communication;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 import net.grinder.common.UncheckedInterruptedException;
@@ -69,25 +68,11 @@ abstract class AbstractSender implements Sender {
                                                    OutputStream stream)
     throws IOException {
 
-    // I tried the model of using a single ObjectOutputStream for the
-    // lifetime of the Sender and a single ObjectInputStream for each
-    // Reader. However, the corresponding ObjectInputStream would get
-    // occasional EOF's during readObject. Seems like voodoo to me,
-    // but creating a new ObjectOutputStream for every message fixes
-    // this.
-
-    // Dr Heinz M. Kabutz's Java Specialists 2004-05-19 newsletter
-    // (http://www.javaspecialists.co.za) may hold the answer.
-    // ObjectOutputStream's cache based on object identity. The EOF
-    // might be due to this, or at least ObjectOutputStream.reset()
-    // may help. I can't get excited enough about the cost of creating
-    // a new ObjectOutputStream() to try this as the bulk of what we
-    // send are long[]'s so aren't cacheable, and it would break sends
-    // that reuse Messages.
-
-    final ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-    objectStream.writeObject(message);
-    objectStream.flush();
+    // WireFormat passes each message to the stream with a single write.
+    // Streams that write to a channel (see ChannelOutputStream) make each
+    // write atomic, so messages sent through a socket by different senders
+    // are not interleaved.
+    WireFormat.write(message, stream);
   }
 
   /**
@@ -23,8 +23,10 @@ package net.grinder.communication;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -42,6 +44,12 @@ import net.grinder.util.thread.InterruptibleRunnableAdapter;
 /**
  * Active object that accepts connections on a ServerSocket.
  *
+ * <p>
+ * The server socket is bound through a {@link ServerSocketChannel}, so each
+ * accepted socket has a channel that a {@link ServerReceiver} can multiplex
+ * with a selector.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class Acceptor {
@@ -91,7 +99,8 @@ public final class Acceptor {
     if (addressString.length() > 0) {
       try {
         m_serverSocket =
-          new ServerSocket(port, 50, InetAddress.getByName(addressString));
+          bind(new InetSocketAddress(InetAddress.getByName(addressString),
+                                     port));
       }
       catch (IOException e) {
         UncheckedInterruptedException.ioException(e);
@@ -101,7 +110,7 @@ public final class Acceptor {
     }
     else {
       try {
-        m_serverSocket = new ServerSocket(port, 50);
+        m_serverSocket = bind(new InetSocketAddress(port));
       }
       catch (IOException e) {
         UncheckedInterruptedException.ioException(e);
@@ -118,6 +127,22 @@ public final class Acceptor {
     }
   }
 
+  private static ServerSocket bind(InetSocketAddress address)
+    throws IOException {
+
+    final ServerSocket serverSocket = ServerSocketChannel.open().socket();
+
+    try {
+      serverSocket.bind(address, 50);
+    }
+    catch (IOException e) {
+      serverSocket.close();
+      throw e;
+    }
+
+    return serverSocket;
+  }
+
   /**
    * Shut down this acceptor.
    *
@@ -392,7 +417,8 @@ public final class Acceptor {
     public void interruptibleRun() {
       try {
         while (true) {
-          final Socket localSocket = m_serverSocket.accept();
+          final Socket localSocket =
+            m_serverSocket.getChannel().accept().socket();
           discriminateConnection(localSocket);
         }
       }
@@ -0,0 +1,120 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * {@link OutputStream} that writes to a {@link SocketChannel}, whether or not
+ * the channel is in blocking mode.
+ *
+ * <p>
+ * Each call to {@link #write(byte[], int, int)} writes all of the data before
+ * returning, and is atomic with respect to other writes. If the channel is
+ * non-blocking and its send buffer is full, the caller waits until the channel
+ * becomes writable.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class ChannelOutputStream extends OutputStream {
+
+  /** How often to check whether the channel has been closed. */
+  private static final long WRITE_WAIT_TIMEOUT = 1000;
+
+  private final SocketChannel m_channel;
+
+  /** Created on demand. Guarded by this. */
+  private Selector m_selector;
+
+  /**
+   * Constructor.
+   *
+   * @param channel The channel.
+   */
+  public ChannelOutputStream(SocketChannel channel) {
+    m_channel = channel;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public synchronized void write(byte[] b, int off, int len)
+    throws IOException {
+
+    final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+
+    while (buffer.hasRemaining()) {
+      if (m_channel.write(buffer) == 0) {
+        awaitWritable();
+      }
+    }
+  }
+
+  private void awaitWritable() throws IOException {
+    if (m_selector == null) {
+      m_selector = Selector.open();
+      m_channel.register(m_selector, SelectionKey.OP_WRITE);
+    }
+
+    // A close by another thread does not reliably wake up the selector, so
+    // we wait with a timeout.
+    m_selector.select(WRITE_WAIT_TIMEOUT);
+    m_selector.selectedKeys().clear();
+
+    if (!m_channel.isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  /**
+   * Close the stream and the underlying channel.
+   *
+   * @throws IOException If an I/O error occurs.
+   */
+  @Override public synchronized void close() throws IOException {
+    try {
+      if (m_selector != null) {
+        m_selector.close();
+      }
+    }
+    finally {
+      m_channel.close();
+    }
+  }
+}
@@ -109,9 +109,8 @@ public final class FanOutServerSender extends AbstractFanOutSender {
    */
   @Override protected Address getAddress(Resource resource) {
 
-    // We don't need to synchronise access to the SocketWrapper;
-    // access is protected through the socket set and only we hold
-    // the reservation.
+    // This is called before the socket is reserved, so relies on
+    // SocketWrapper.getAddress() being safe to call from any thread.
     return ((SocketWrapper)resource).getAddress();
   }
 }
@@ -21,8 +21,6 @@
 
 package net.grinder.communication;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.Socket;
 
 import net.grinder.util.TimeAuthority;
@@ -30,16 +28,23 @@ import net.grinder.util.TimeAuthority;
 /**
  * A socket wrapper that tracks how long it has been idle.
  *
+ * <p>
+ * The idle state and the ownership claim are only used by the
+ * {@link ServerReceiver} event loop that reads from the socket.
+ * </p>
+ *
  * @author Philip Aston
  */
 final class IdleAwareSocketWrapper extends SocketWrapper {
 
   private final TimeAuthority m_timeAuthority;
 
-  // Guarded by parent's inputStream. The time at which a socket was first found
-  // to be idle, or -1.
+  // Guarded by this. The time at which a socket was first found to be
+  // idle, or -1.
   private long m_idleStart;
 
+  // Guarded by this.
+  private boolean m_claimed;
 
   /**
    * Constructor.
@@ -50,10 +55,6 @@ final class IdleAwareSocketWrapper extends SocketWrapper {
    *          described in {@link SocketWrapper}.
    * @param timeAuthority
    *          Something that knows the time.
-   * @param idlePollTimeout
-   *          The duration in milliseconds after which a socket with no
-   *          available input data is closed. This is checked in
-   *          {@link #hasData()}.
    * @throws CommunicationException
    *           If an error occurred.
    */
@@ -65,52 +66,61 @@ final class IdleAwareSocketWrapper extends SocketWrapper {
 
     m_timeAuthority = timeAuthority;
     m_idleStart = -1;
+  }
 
+  /**
+   * Claim the socket for a reader. Only the first call succeeds.
+   *
+   * @return {@code true} If the caller now owns the socket input.
+   */
+  public synchronized boolean claim() {
+    if (m_claimed) {
+      return false;
+    }
+
+    m_claimed = true;
+    return true;
+  }
+
+  /**
+   * Record that data has been read from the socket.
+   */
+  public synchronized void dataReceived() {
+    m_idleStart = -1;
   }
 
   /**
-   * Check whether the socket's input stream has any data.
+   * Check whether the socket has been idle for too long.
    *
    * <p>
-   * Java only detects that a peer has closed a connection if we do a blocking
-   * read, or attempt to send data. To avoid zombie sockets in a
-   * {@code CLOSE_WAIT} state, if repeated calls this method detect that the
-   * socket has had no input data for more than inactiveClientTimeOut, the
-   * socket will be closed. We expect the caller to clean up using a
-   * {@link ClosedListener}.
+   * Java only detects that a peer has closed a connection if we do a read, or
+   * attempt to send data. To avoid zombie sockets in a {@code CLOSE_WAIT}
+   * state, if repeated calls this method detect that the socket has had no
+   * input data for more than inactiveClientTimeOut, the socket will be
+   * closed. We expect the caller to clean up using a {@link ClosedListener}.
    * </p>
    *
    * @param inactiveClientTimeOut
    *          Time out in milliseconds for connections that present no data.
-   * @return {@code true} If there is data available to be read from the input
-   *         stream.
-   * @throws IOException
-   *           If the socket was closed at the start of the call.
+   * @return {@code true} If the socket is closed.
    */
-  public boolean hasData(long inactiveClientTimeOut) throws IOException {
-
-    if (isClosed()) {
-      throw new IOException("Socket is closed");
-    }
-
-    final InputStream inputStream = getInputStream();
-
-    synchronized (inputStream) {
-      if (inputStream.available() > 0) {
-        m_idleStart = -1;
-        return true;
-      }
+  public boolean closeIfIdle(long inactiveClientTimeOut) {
 
+    synchronized (this) {
       final long now = m_timeAuthority.getTimeInMilliseconds();
 
       if (m_idleStart == -1) {
         m_idleStart = now;
+        return isClosed();
       }
-      else if (m_idleStart + inactiveClientTimeOut < now) {
-        close();
+      else if (m_idleStart + inactiveClientTimeOut >= now) {
+        return isClosed();
       }
-
-      return false;
     }
+
+    // Don't hold our lock whilst informing listeners.
+    close();
+
+    return true;
   }
 }
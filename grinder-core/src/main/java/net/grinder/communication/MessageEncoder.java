@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -19,41 +19,37 @@
 // ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
 // OF THE POSSIBILITY OF SUCH DAMAGE.
 
-package net.grinder.synchronisation.messages;
+package net.grinder.communication;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 
 /**
- * Barrier group message requesting that a waiter be removed.
+ * Hand-written binary encoding for a particular type of {@link Message}.
  *
+ * @param <T> The message type.
  * @author Philip Aston
+ * @see WireFormat#register
  */
-public class CancelWaiterMessage extends AbstractBarrierGroupMessage {
-
-  private static final long serialVersionUID = 1L;
-
-  private final BarrierIdentity m_barrierIdentity;
+public interface MessageEncoder<T extends Message> {
 
   /**
-   * Constructor.
+   * Write a message.
    *
-   * @param name
-   *          Barrier name.
-   * @param barrierIdentity
-   *          The identity of the waiter.
+   * @param message The message.
+   * @param out Where to write the message.
+   * @throws IOException If the message could not be written.
    */
-  public CancelWaiterMessage(String name,
-                             BarrierIdentity barrierIdentity) {
-    super(name);
-    m_barrierIdentity = barrierIdentity;
-  }
+  void write(T message, DataOutput out) throws IOException;
 
   /**
-   * Identifies the waiter.
+   * Read a message written by {@link #write}.
    *
-   * @return The identity of the waiter.
+   * @param in Where to read the message from.
+   * @return The message.
+   * @throws IOException If the message could not be read.
    */
-  public BarrierIdentity getBarrierIdentity() {
-    return m_barrierIdentity;
-  }
+  T read(DataInput in) throws IOException;
 }
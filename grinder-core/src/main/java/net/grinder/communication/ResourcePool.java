@@ -1,4 +1,4 @@
-// Copyright (C) 2006 - 2009 Philip Aston
+// Copyright (C) 2006 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -65,6 +65,19 @@ interface ResourcePool {
    */
   List<? extends Reservation> reserveAll();
 
+  /**
+   * Returns a list of reservations for the current resources that are
+   * accepted by a filter. Blocks until all of these Reservations can be
+   * reserved, but does not wait for other resources. The Sentinel is not
+   * included in the list.
+   *
+   * @param filter
+   *          Selects the resources to reserve.
+   * @return The resources. It is up to the caller to free or close each
+   *         resource.
+   */
+  List<? extends Reservation> reserveAll(Filter filter);
+
   /**
    * Close the resources currently in the pool. Resources can be closed
    * while reserved.
@@ -99,6 +112,13 @@ interface ResourcePool {
     void close();
   }
 
+  /**
+   * Selects resources.
+   */
+  public interface Filter {
+    boolean accept(Resource resource);
+  }
+
   /**
    * Listener interface.
    */
@@ -23,7 +23,6 @@ package net.grinder.communication;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
 
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.util.ListenerSupport;
@@ -37,12 +36,15 @@ import net.grinder.util.ListenerSupport;
 final class ResourcePoolImplementation implements ResourcePool {
   private static final int PURGE_FREQUENCY = 1000;
 
+  private static final Filter ACCEPT_ALL = new Filter() {
+      public boolean accept(Resource resource) {
+        return true;
+      }
+    };
+
   // Used to signal when a Reservable has been freed.
   private final Object m_reservableFreedMutex = new Object();
 
-  // Guards reserveAll().
-  private final Object m_reserveAllMutex = new Object();
-
   // Guards m_reservables.
   private final Object m_reservablesMutex = new Object();
 
@@ -120,58 +122,68 @@ final class ResourcePoolImplementation implements ResourcePool {
    * each resource.
    */
   public List<Reservable> reserveAll() {
+    return reserveAll(ACCEPT_ALL);
+  }
 
-    // Only one thread gets to reserveAll at a time. Otherwise two threads
-    // calling this can deadlock each other. See bug #1199086.
-    synchronized (m_reserveAllMutex) {
-
-      final List<Reservable> result;
-      final List<Reservable> reserveList;
+  /**
+   * Returns a list of reservations for the current resources that are
+   * accepted by a filter. Blocks until all of these Reservations can be
+   * reserved, but does not wait for other resources. The Sentinel is not
+   * included in the list.
+   *
+   * @param filter
+   *          Selects the resources to reserve.
+   * @return The resources. It is up to the caller to free or close each
+   *         resource.
+   */
+  public List<Reservable> reserveAll(Filter filter) {
 
-      synchronized (m_reservablesMutex) {
-        purgeZombieResources();
+    final List<Reservable> candidates;
 
-        result = new ArrayList<Reservable>(m_reservables.size());
-        reserveList = new ArrayList<Reservable>(m_reservables);
-      }
+    synchronized (m_reservablesMutex) {
+      purgeZombieResources();
 
-      while (reserveList.size() > 0) {
-        // Iterate backwards so remove is cheap.
-        final ListIterator<Reservable> iterator =
-          reserveList.listIterator(reserveList.size());
+      candidates = new ArrayList<Reservable>(m_reservables);
+    }
 
-        while (iterator.hasPrevious()) {
-          final Reservable reservable = iterator.previous();
+    final List<Reservable> result =
+      new ArrayList<Reservable>(candidates.size());
+
+    // Every caller waits for the resources in the same order. This prevents
+    // two threads calling this from deadlocking each other (see bug
+    // #1199086), without making callers that want different resources wait
+    // for each other.
+    try {
+      for (Reservable reservable : candidates) {
+        if (reservable.isSentinel() ||
+            !filter.accept(reservable.getResource())) {
+          continue;
+        }
 
-          if (reservable.isSentinel()) {
-            iterator.remove();
-          }
-          else if (reservable.reserve()) {
+        while (!reservable.isClosed()) {
+          if (reservable.reserve()) {
             result.add(reservable);
-            iterator.remove();
-          }
-          else if (reservable.isClosed()) {
-            iterator.remove();
+            break;
           }
-        }
 
-        if (reserveList.size() > 0) {
           // Block until more resources are freed.
           synchronized (m_reservableFreedMutex) {
-            try {
-              // Don't block for ever because the outstanding
-              // resources might have already been freed.
-              m_reservableFreedMutex.wait(1000);
-            }
-            catch (InterruptedException e) {
-              throw new UncheckedInterruptedException(e);
-            }
+            // Don't block for ever because the resource might have already
+            // been freed.
+            m_reservableFreedMutex.wait(1000);
           }
         }
       }
+    }
+    catch (InterruptedException e) {
+      for (Reservable reservable : result) {
+        reservable.free();
+      }
 
-      return result;
+      throw new UncheckedInterruptedException(e);
     }
+
+    return result;
   }
 
   /**
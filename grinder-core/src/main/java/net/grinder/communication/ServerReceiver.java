@@ -22,11 +22,18 @@
 package net.grinder.communication;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.communication.ResourcePool.Reservation;
+import net.grinder.communication.ResourcePool.Resource;
 import net.grinder.util.thread.ExecutorFactory;
 import net.grinder.util.thread.InterruptibleRunnable;
 import net.grinder.util.thread.InterruptibleRunnableAdapter;
@@ -35,6 +42,13 @@ import net.grinder.util.thread.InterruptibleRunnableAdapter;
 /**
  * Manages the receipt of messages from many clients.
  *
+ * <p>
+ * Connections are multiplexed over a small number of event loops, each of
+ * which owns a {@link Selector}. An event loop reads whatever data is
+ * available from its connections without blocking, and queues each message
+ * once it has been completely received.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class ServerReceiver implements Receiver {
@@ -45,16 +59,17 @@ public final class ServerReceiver implements Receiver {
 
   /**
    * Registers a new {@link Acceptor} from which the <code>ServerReceiver</code>
-   * should process messages. Actively polls connections of the given types for
-   * messages, de-serialises them, and queues them for retrieval using
-   * {@link #waitForMessage()}.
+   * should process messages. Connections of the given types are registered
+   * with a set of event loops that read and de-serialise messages, and queue
+   * them for retrieval using {@link #waitForMessage()}.
    *
    * <p>
    * A single {@code ServerReceiver} can listen to messages from multiple
    * {@link Acceptor}s. You can register the same {@link Acceptor} with
    * multiple {@code ServerReceiver}s, but then there is no way of
    * controlling which receiver will receive messages from a given
-   * {@link Acceptor}.
+   * {@link Acceptor}. All messages from a particular connection are received
+   * by the same {@code ServerReceiver}.
    * </p>
    *
    * @param acceptor
@@ -62,13 +77,13 @@ public final class ServerReceiver implements Receiver {
    * @param connectionTypes
    *          Type of connections to listen for.
    * @param numberOfThreads
-   *          How many threads to dedicate to processing the Acceptor. The
-   *          threads this method spawns just read, deserialise, and queue. Set
-   *          {@code numberOfThreads} to the number of concurrent streams
-   *          you expect to be able to read.
+   *          How many event loop threads to dedicate to processing the
+   *          Acceptor. The threads this method spawns just read, deserialise,
+   *          and queue. Connections are shared between the threads; a single
+   *          thread can handle many connections.
    * @param idleThreadPollDelay
-   *          Time in milliseconds that an idle thread should sleep if there are
-   *          no sockets to process.
+   *          The maximum time in milliseconds that an event loop waits for
+   *          data before checking for inactive connections.
    * @param inactiveClientTimeOut
    *          How long before we consider a client connection that presents no
    *          data to be inactive.
@@ -95,16 +110,40 @@ public final class ServerReceiver implements Receiver {
       acceptedSocketSets[i] = acceptor.getSocketSet(connectionTypes[i]);
     }
 
+    final EventLoop[] eventLoops = new EventLoop[Math.max(numberOfThreads, 1)];
+
     synchronized (this) {
       m_messageQueue.checkIfShutdown();
 
-      for (int i = 0; i < numberOfThreads; ++i) {
-        m_executor.submit(
-          new InterruptibleRunnableAdapter(
-            new ServerReceiverRunnable(
-              new CombinedResourcePool(acceptedSocketSets),
-              idleThreadPollDelay,
-              inactiveClientTimeOut)));
+      for (int i = 0; i < eventLoops.length; ++i) {
+        try {
+          eventLoops[i] =
+            new EventLoop(idleThreadPollDelay, inactiveClientTimeOut);
+        }
+        catch (IOException e) {
+          UncheckedInterruptedException.ioException(e);
+          throw new CommunicationException("Could not open selector", e);
+        }
+
+        m_executor.submit(new InterruptibleRunnableAdapter(eventLoops[i]));
+      }
+    }
+
+    final ConnectionDistributor distributor =
+      new ConnectionDistributor(eventLoops);
+
+    for (ResourcePool socketSet : acceptedSocketSets) {
+      socketSet.addListener(distributor);
+
+      // Pick up any connections that were accepted before we started
+      // listening. The distributor ignores sockets it has already seen.
+      for (Reservation reservation : socketSet.reserveAll()) {
+        try {
+          distributor.resourceAdded(reservation.getResource());
+        }
+        finally {
+          reservation.free();
+        }
       }
     }
   }
@@ -140,195 +179,293 @@ public final class ServerReceiver implements Receiver {
   }
 
   /**
-   * Obtain reservations from multiple ResourcePools. Delegates reserveNext()
-   * to the next resource pool.
-   *
-   * @author Philip Aston
+   * Hands out newly accepted connections to event loops in turn.
    */
-  private static final class CombinedResourcePool {
-    private final ResourcePool[] m_resourcePools;
+  private static final class ConnectionDistributor
+    implements ResourcePool.Listener {
+
+    private final EventLoop[] m_eventLoops;
 
-    // Guarded by m_resourcePools.
+    // Guarded by this.
     private int m_next;
 
-    CombinedResourcePool(ResourcePool[] resourcePools) {
-      assert resourcePools.length > 0;
-      m_resourcePools = resourcePools;
+    ConnectionDistributor(EventLoop[] eventLoops) {
+      m_eventLoops = eventLoops;
     }
 
-    public Reservation reserveNext() {
-      int i = 0;
-      int start;
+    public void resourceAdded(Resource resource) {
+      final IdleAwareSocketWrapper socketWrapper =
+        (IdleAwareSocketWrapper)resource;
 
-      synchronized (m_resourcePools) {
-        start = ++m_next;
+      if (!socketWrapper.claim()) {
+        return;
       }
 
-      while (true) {
-        final Reservation reservation =
-          m_resourcePools[(start + i) % m_resourcePools.length].reserveNext();
-
-        if (!reservation.isSentinel() ||
-            i == m_resourcePools.length - 1) {
-          return reservation;
-        }
+      final EventLoop eventLoop;
 
-        ++i;
+      synchronized (this) {
+        eventLoop = m_eventLoops[m_next++ % m_eventLoops.length];
       }
+
+      eventLoop.register(socketWrapper);
+    }
+
+    public void resourceClosed(Resource resource) {
+      // The event loop notices that the channel is closed.
     }
   }
 
-  private final class ServerReceiverRunnable
-    implements InterruptibleRunnable {
+  /**
+   * An event loop that reads from a set of connections.
+   */
+  private final class EventLoop implements InterruptibleRunnable {
 
-    private final CombinedResourcePool m_sockets;
-    private final long m_delay;
+    private final Selector m_selector;
+    private final long m_pollDelay;
     private final long m_inactiveClientTimeOut;
 
-    private ServerReceiverRunnable(CombinedResourcePool sockets,
-                                   long delay,
-                                   long inactiveClientTimeOut) {
-      m_sockets = sockets;
-      m_delay = delay;
+    private final Queue<IdleAwareSocketWrapper> m_newConnections =
+      new ConcurrentLinkedQueue<IdleAwareSocketWrapper>();
+
+    private EventLoop(long pollDelay, long inactiveClientTimeOut)
+      throws IOException {
+      m_selector = Selector.open();
+      m_pollDelay = pollDelay;
       m_inactiveClientTimeOut = inactiveClientTimeOut;
     }
 
+    /**
+     * Add a connection. Can be called by any thread.
+     */
+    void register(IdleAwareSocketWrapper socketWrapper) {
+      m_newConnections.add(socketWrapper);
+      m_selector.wakeup();
+    }
+
     public void interruptibleRun() {
       try {
-        // Did we do some work on the last pass?
-        boolean idle = false;
-
-        while (true) {
-          final Reservation reservation = m_sockets.reserveNext();
-          boolean holdReservation = false;
-
-          try {
-            if (reservation.isSentinel()) {
-              if (idle) {
-                Thread.sleep(m_delay);
-              }
-
-              idle = true;
+        try {
+          while (!Thread.currentThread().isInterrupted()) {
+            if (m_pollDelay > 0) {
+              m_selector.select(m_pollDelay);
             }
             else {
-              final IdleAwareSocketWrapper socketWrapper =
-                (IdleAwareSocketWrapper)reservation.getResource();
-
-              // We don't need to synchronise access to the SocketWrapper
-              // stream; access is protected through the socket set and only we
-              // hold the reservation.
+              m_selector.selectNow();
+            }
 
-              if (socketWrapper.hasData(m_inactiveClientTimeOut)) {
-                idle = false;
+            registerNewConnections();
 
-                final ObjectInputStream objectStream =
-                  new ObjectInputStream(socketWrapper.getInputStream());
+            final Iterator<SelectionKey> selectedKeys =
+              m_selector.selectedKeys().iterator();
 
-                final Message message = (Message)objectStream.readObject();
+            while (selectedKeys.hasNext()) {
+              final SelectionKey key = selectedKeys.next();
+              selectedKeys.remove();
 
-                if (message instanceof CloseCommunicationMessage) {
-                  reservation.close();
-                  continue;
-                }
+              if (key.isValid()) {
+                ((Connection)key.attachment()).read();
+              }
+            }
 
-                if (message instanceof AddressAwareMessage) {
-                  final AddressAwareMessage addressAware =
-                    (AddressAwareMessage)message;
+            closeInactiveConnections();
+          }
+        }
+        catch (IOException e) {
+          // A selector failure. We can't carry on.
+          UncheckedInterruptedException.ioException(e);
+          m_messageQueue.queue(e);
+        }
+      }
+      catch (MessageQueue.ShutdownException e) {
+        // We've been shutdown, exit this thread.
+      }
+      finally {
+        try {
+          m_selector.close();
+        }
+        catch (IOException e) {
+          // Ignore.
+        }
 
-                  addressAware.setAddress(socketWrapper.getAddress());
-                }
+        // Ensure we're shutdown.
+        shutdown();
+      }
+    }
 
-                if (message instanceof MessageRequiringResponse) {
+    private void registerNewConnections()
+      throws MessageQueue.ShutdownException {
 
-                  final MessageRequiringResponse messageRequiringResponse =
-                    (MessageRequiringResponse)message;
+      while (true) {
+        final IdleAwareSocketWrapper socketWrapper = m_newConnections.poll();
 
-                  messageRequiringResponse.setResponder(
-                    new SenderWithReservation(
-                      new StreamSender(socketWrapper.getOutputStream()),
-                      reservation));
+        if (socketWrapper == null) {
+          break;
+        }
 
-                  m_messageQueue.queue(message);
+        final SocketChannel channel = socketWrapper.getChannel();
 
-                  // Whatever handles the MessageExpectingResponse takes
-                  // responsibility for the reservation.
-                  holdReservation = true;
-                }
-                else {
-                  m_messageQueue.queue(message);
-                }
-              }
-            }
-          }
-          catch (CommunicationException e) {
-            reservation.close();
-            m_messageQueue.queue(e);
-          }
-          catch (IOException e) {
-            reservation.close();
+        try {
+          channel.configureBlocking(false);
+          channel.register(m_selector,
+                           SelectionKey.OP_READ,
+                           new Connection(socketWrapper, channel));
+        }
+        catch (IOException e) {
+          // Includes ClosedChannelException, which we expect if the
+          // connection was closed before we got to it.
+          if (!socketWrapper.isClosed()) {
+            socketWrapper.close();
             UncheckedInterruptedException.ioException(e);
             m_messageQueue.queue(e);
           }
-          catch (ClassNotFoundException e) {
-            reservation.close();
-            m_messageQueue.queue(e);
-          }
-          catch (InterruptedException e) {
-            reservation.close();
-            throw new UncheckedInterruptedException(e);
-          }
-          finally {
-            if (!holdReservation) {
-              reservation.free();
-            }
-          }
         }
       }
-      catch (MessageQueue.ShutdownException e) {
-        // We've been shutdown, exit this thread.
-      }
-      finally {
-        // Ensure we're shutdown.
-        shutdown();
+    }
+
+    private void closeInactiveConnections() {
+      for (SelectionKey key : m_selector.keys()) {
+        if (key.isValid()) {
+          final Connection connection = (Connection)key.attachment();
+
+          if (connection.closeIfIdle(m_inactiveClientTimeOut)) {
+            key.cancel();
+          }
+        }
       }
     }
   }
 
   /**
-   * SenderWithReservation. A one-shot use Sender, only accessed through a
-   * {@link MessageRequiringResponse} wrapper which ensures send() is called at
-   * most once.
-   *
-   * <p>
-   * If no {@link MessageRequiringResponse#sendResponse(Message)} is not called,
-   * the reservation will not be freed. No way to avoid this - we're handing off
-   * responsibility to respond to a stream.
-   * </p>
-   *
+   * Per-connection state held by an {@link EventLoop}. Data is accumulated in
+   * a buffer until a complete frame has arrived.
    */
-  private static final class SenderWithReservation implements Sender {
-    private final Sender m_delegateSender;
-    private final Reservation m_reservation;
-
-    private SenderWithReservation(Sender delegateSender,
-                                  Reservation reservation) {
-      m_delegateSender = delegateSender;
-      m_reservation = reservation;
+  private final class Connection {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final IdleAwareSocketWrapper m_socketWrapper;
+    private final SocketChannel m_channel;
+
+    private byte[] m_buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int m_length = 0;
+
+    Connection(IdleAwareSocketWrapper socketWrapper, SocketChannel channel) {
+      m_socketWrapper = socketWrapper;
+      m_channel = channel;
+    }
+
+    boolean closeIfIdle(long inactiveClientTimeOut) {
+      return m_socketWrapper.closeIfIdle(inactiveClientTimeOut);
     }
 
-    public void send(Message message) throws CommunicationException {
+    void read() throws MessageQueue.ShutdownException {
       try {
-        m_delegateSender.send(message);
+        final int n = m_channel.read(
+          ByteBuffer.wrap(m_buffer, m_length, m_buffer.length - m_length));
+
+        if (n < 0) {
+          // Peer has closed the connection.
+          m_socketWrapper.close();
+          return;
+        }
+
+        if (n > 0) {
+          m_socketWrapper.dataReceived();
+          m_length += n;
+          processMessages();
+        }
       }
-      finally {
-        shutdown();
+      catch (CommunicationException e) {
+        m_socketWrapper.close();
+        m_messageQueue.queue(e);
+      }
+      catch (IOException e) {
+        m_socketWrapper.close();
+        UncheckedInterruptedException.ioException(e);
+        m_messageQueue.queue(e);
+      }
+      catch (ClassNotFoundException e) {
+        m_socketWrapper.close();
+        m_messageQueue.queue(e);
+      }
+    }
+
+    private void processMessages()
+      throws IOException,
+             ClassNotFoundException,
+             CommunicationException,
+             MessageQueue.ShutdownException {
+
+      int start = 0;
+
+      while (true) {
+        final int frameLength =
+          WireFormat.frameLength(m_buffer, start, m_length - start);
+
+        if (frameLength < 0 || frameLength > m_length - start) {
+          // Wait for more data.
+          break;
+        }
+
+        final Message message =
+          WireFormat.decode(m_buffer, start, frameLength);
+
+        start += frameLength;
+
+        if (message instanceof CloseCommunicationMessage) {
+          m_socketWrapper.close();
+          return;
+        }
+
+        if (message instanceof AddressAwareMessage) {
+          final AddressAwareMessage addressAware =
+            (AddressAwareMessage)message;
+
+          addressAware.setAddress(m_socketWrapper.getAddress());
+        }
+
+        if (message instanceof MessageRequiringResponse) {
+          final MessageRequiringResponse messageRequiringResponse =
+            (MessageRequiringResponse)message;
+
+          // The output stream is safe to share with other senders; each
+          // message is written atomically.
+          messageRequiringResponse.setResponder(
+            new StreamSender(m_socketWrapper.getOutputStream()));
+        }
+
+        m_messageQueue.queue(message);
       }
+
+      compact(start);
     }
 
-    public void shutdown() {
-      // We rely on our ResponseSender's single call to send to ensure we don't
-      // free the reservation multiple times.
-      m_reservation.free();
+    /**
+     * Discard consumed data, and make sure there is space for the rest of a
+     * partial frame. The length of the partial frame has been checked by
+     * {@link WireFormat#frameLength}, so the buffer never grows beyond the
+     * maximum frame length.
+     */
+    private void compact(int start) throws IOException {
+      final int remaining = m_length - start;
+
+      final int required =
+        Math.max(WireFormat.frameLength(m_buffer, start, remaining),
+                 INITIAL_BUFFER_SIZE);
+
+      if (required > m_buffer.length ||
+          remaining == 0 && m_buffer.length > INITIAL_BUFFER_SIZE) {
+        // Grow to fit a large frame, or release a large buffer that is no
+        // longer needed.
+        final byte[] newBuffer = new byte[required];
+        System.arraycopy(m_buffer, start, newBuffer, 0, remaining);
+        m_buffer = newBuffer;
+      }
+      else if (start > 0) {
+        System.arraycopy(m_buffer, start, m_buffer, 0, remaining);
+      }
+
+      m_length = remaining;
     }
   }
 }
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 import net.grinder.common.Closer;
 import net.grinder.util.ListenerSupport;
@@ -41,6 +42,14 @@ import net.grinder.util.ListenerSupport;
  * particular stream object while they use it.
  * </p>
  *
+ * <p>
+ * If the socket was created from a {@link SocketChannel}, writes to the
+ * output stream go directly to the channel, and work whether or not the
+ * channel is in blocking mode. The input stream can only be used while the
+ * channel is in blocking mode; once a {@link ServerReceiver} has taken
+ * over the channel, it is the only reader.
+ * </p>
+ *
  * @author Philip Aston
  */
 class SocketWrapper implements ResourcePool.Resource {
@@ -58,7 +67,8 @@ class SocketWrapper implements ResourcePool.Resource {
       public void inform(ClosedListener l) { l.socketClosed(); }
     };
 
-  private Address m_address;
+  // Read by senders without holding a reservation.
+  private volatile Address m_address;
 
   /**
    * Constructor.
@@ -75,7 +85,15 @@ class SocketWrapper implements ResourcePool.Resource {
 
     try {
       m_inputStream = m_socket.getInputStream();
-      m_outputStream = m_socket.getOutputStream();
+
+      final SocketChannel channel = m_socket.getChannel();
+
+      if (channel != null) {
+        m_outputStream = new ChannelOutputStream(channel);
+      }
+      else {
+        m_outputStream = m_socket.getOutputStream();
+      }
 
       m_connectionIdentity =
         new ConnectionIdentity(m_socket.getInetAddress(),
@@ -106,6 +124,7 @@ class SocketWrapper implements ResourcePool.Resource {
       }
 
       Closer.close(m_socket);
+      Closer.close(m_outputStream);
 
       // Close before informing listeners to prevent recursion.
       m_closedListeners.apply(m_closedInformer);
@@ -145,6 +164,16 @@ class SocketWrapper implements ResourcePool.Resource {
     return m_outputStream;
   }
 
+  /**
+   * Return the channel associated with the socket.
+   *
+   * @return The channel, or {@code null} if the socket was not created
+   *         from a channel.
+   */
+  SocketChannel getChannel() {
+    return m_socket.getChannel();
+  }
+
   /**
    * Socket event notification interface.
    */
@@ -1,4 +1,4 @@
-// Copyright (C) 2003 - 2011 Philip Aston
+// Copyright (C) 2003 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,8 +22,8 @@
 package net.grinder.communication;
 
 import java.io.InputStream;
+import java.io.StreamCorruptedException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 import net.grinder.common.Closer;
 import net.grinder.common.UncheckedInterruptedException;
@@ -80,10 +80,7 @@ public class StreamReceiver implements Receiver {
           return null;
         }
 
-        final ObjectInputStream objectStream =
-          new ObjectInputStream(m_inputStream);
-
-        message = (Message)objectStream.readObject();
+        message = WireFormat.read(m_inputStream);
 
         if (message instanceof CloseCommunicationMessage) {
           shutdown();
@@ -93,6 +90,11 @@ public class StreamReceiver implements Receiver {
 
       return message;
     }
+    catch (StreamCorruptedException e) {
+      // We can't find the start of the next frame.
+      shutdown();
+      throw new CommunicationException("Failed to read message", e);
+    }
     catch (IOException e) {
       UncheckedInterruptedException.ioException(e);
       throw new CommunicationException("Failed to read message", e);
@@ -0,0 +1,414 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The binary format used to send {@link Message}s over a stream.
+ *
+ * <p>
+ * Each message is sent as a frame:
+ * </p>
+ *
+ * <pre>
+ *   int    length     Number of bytes that follow.
+ *   byte   version    {@link #VERSION}.
+ *   byte   type       Message type identifier.
+ *   byte[] body
+ * </pre>
+ *
+ * <p>
+ * Message types that are sent frequently have a registered type identifier
+ * and a hand-written {@link MessageEncoder}. Other messages are sent with
+ * type {@code 0}, and a body that contains the message in Java serialisation
+ * format.
+ * </p>
+ *
+ * <p>
+ * The length prefix allows a reader to tell when it has a complete message
+ * without attempting to parse it. Frames longer than
+ * {@link #MAXIMUM_LENGTH} are rejected, so a corrupt or hostile length
+ * prefix cannot cause a reader to allocate an arbitrarily large buffer. Both
+ * ends of a connection must have
+ * registered the same encoders; a frame with an unknown type identifier
+ * cannot be read.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class WireFormat {
+
+  /** The wire format version. */
+  public static final int VERSION = 1;
+
+  /**
+   * The lowest type identifier that can be passed to {@link #register}.
+   * Lower values are reserved for this package.
+   */
+  public static final int MINIMUM_REGISTERED_TYPE = 16;
+
+  /** The highest type identifier. */
+  public static final int MAXIMUM_TYPE = 255;
+
+  /** The largest permitted value of the length prefix. */
+  public static final int MAXIMUM_LENGTH = 16 * 1024 * 1024;
+
+  /** Size of the length prefix. */
+  static final int LENGTH_SIZE = 4;
+
+  private static final int HEADER_SIZE = 2;
+
+  private static final int SERIALISED_TYPE = 0;
+
+  /** Guarded by WireFormat.class. Copy on write. */
+  private static volatile Registration<?>[] s_byType =
+    new Registration<?>[MAXIMUM_TYPE + 1];
+
+  /** Guarded by WireFormat.class. Copy on write. */
+  private static volatile Map<Class<?>, Registration<?>> s_byClass =
+    new HashMap<Class<?>, Registration<?>>();
+
+  static {
+    add(new Registration<CloseCommunicationMessage>(
+      1,
+      CloseCommunicationMessage.class,
+      new MessageEncoder<CloseCommunicationMessage>() {
+        public void write(CloseCommunicationMessage message, DataOutput out) {
+        }
+
+        public CloseCommunicationMessage read(DataInput in) {
+          return new CloseCommunicationMessage();
+        }
+      }));
+
+    add(new Registration<KeepAliveMessage>(
+      2,
+      KeepAliveMessage.class,
+      new MessageEncoder<KeepAliveMessage>() {
+        public void write(KeepAliveMessage message, DataOutput out) {
+        }
+
+        public KeepAliveMessage read(DataInput in) {
+          return new KeepAliveMessage();
+        }
+      }));
+  }
+
+  private WireFormat() {
+  }
+
+  /**
+   * Register an encoder for a type of message. Registering the same type
+   * with the same identifier more than once has no effect.
+   *
+   * @param <T>
+   *          The message type.
+   * @param typeID
+   *          The type identifier. Must be between
+   *          {@link #MINIMUM_REGISTERED_TYPE} and {@link #MAXIMUM_TYPE}.
+   * @param type
+   *          The message class. Instances of sub-classes are not encoded with
+   *          the encoder.
+   * @param encoder
+   *          The encoder.
+   * @throws IllegalArgumentException
+   *           If the type identifier is invalid, or it or the message type is
+   *           already registered differently.
+   */
+  public static <T extends Message> void register(int typeID,
+                                                  Class<T> type,
+                                                  MessageEncoder<T> encoder) {
+    if (typeID < MINIMUM_REGISTERED_TYPE || typeID > MAXIMUM_TYPE) {
+      throw new IllegalArgumentException("Invalid type ID " + typeID);
+    }
+
+    add(new Registration<T>(typeID, type, encoder));
+  }
+
+  private static synchronized void add(Registration<?> registration) {
+    final Registration<?> existing = s_byType[registration.getTypeID()];
+
+    if (existing != null) {
+      if (existing.getType() == registration.getType()) {
+        return;
+      }
+
+      throw new IllegalArgumentException(
+        "Type ID " + registration.getTypeID() + " is already registered for " +
+        existing.getType().getName());
+    }
+
+    if (s_byClass.containsKey(registration.getType())) {
+      throw new IllegalArgumentException(
+        registration.getType().getName() + " is already registered");
+    }
+
+    final Registration<?>[] byType = s_byType.clone();
+    byType[registration.getTypeID()] = registration;
+
+    final Map<Class<?>, Registration<?>> byClass =
+      new HashMap<Class<?>, Registration<?>>(s_byClass);
+    byClass.put(registration.getType(), registration);
+
+    s_byType = byType;
+    s_byClass = byClass;
+  }
+
+  /**
+   * Write a message to a stream as a single frame.
+   *
+   * <p>
+   * The complete frame is passed to the stream with one call to
+   * {@link OutputStream#write(byte[], int, int)}, and the stream is flushed.
+   * </p>
+   *
+   * @param message The message.
+   * @param stream The stream.
+   * @throws IOException If an I/O error occurs, or the encoded message is
+   *  longer than {@link #MAXIMUM_LENGTH}.
+   */
+  public static void write(Message message, OutputStream stream)
+    throws IOException {
+
+    final FrameOutputStream frame = new FrameOutputStream();
+    final DataOutputStream out = new DataOutputStream(frame);
+
+    out.writeInt(0); // Length place holder.
+    out.writeByte(VERSION);
+
+    // Null messages are legal, and are serialised.
+    final Registration<?> registration =
+      message != null ? s_byClass.get(message.getClass()) : null;
+
+    if (registration != null) {
+      out.writeByte(registration.getTypeID());
+      registration.write(message, out);
+    }
+    else {
+      out.writeByte(SERIALISED_TYPE);
+
+      final ObjectOutputStream objectStream = new ObjectOutputStream(out);
+      objectStream.writeObject(message);
+      objectStream.flush();
+    }
+
+    out.flush();
+
+    frame.writeTo(stream);
+    stream.flush();
+  }
+
+  /**
+   * Read a frame from a stream. Blocks until the complete frame has been
+   * read.
+   *
+   * @param stream The stream.
+   * @return The message.
+   * @throws IOException If an I/O error occurs, or the frame is invalid. If
+   *  the length prefix is invalid, the stream is left part way through the
+   *  frame and should be closed.
+   * @throws ClassNotFoundException If a serialised message refers to an
+   *  unknown class.
+   */
+  public static Message read(InputStream stream)
+    throws IOException, ClassNotFoundException {
+
+    final DataInputStream in = new DataInputStream(stream);
+
+    final int length = in.readInt();
+    checkLength(length);
+
+    final byte[] payload = new byte[length];
+    in.readFully(payload);
+
+    return readPayload(payload, 0, length);
+  }
+
+  /**
+   * Check whether a buffer contains a complete frame.
+   *
+   * @param buffer The buffer.
+   * @param offset The offset of the start of the frame in the buffer.
+   * @param available The number of bytes available from {@code offset}.
+   * @return The total length of the frame, including the length prefix, or
+   *         {@code -1} if we don't yet have the length prefix. The frame is
+   *         complete if the result is no more than {@code available}.
+   * @throws IOException If the length prefix is invalid.
+   */
+  static int frameLength(byte[] buffer, int offset, int available)
+    throws IOException {
+
+    if (available < LENGTH_SIZE) {
+      return -1;
+    }
+
+    final int length = (buffer[offset] & 0xFF) << 24 |
+                       (buffer[offset + 1] & 0xFF) << 16 |
+                       (buffer[offset + 2] & 0xFF) << 8 |
+                       (buffer[offset + 3] & 0xFF);
+
+    checkLength(length);
+
+    return LENGTH_SIZE + length;
+  }
+
+  /**
+   * Read a complete frame from a buffer.
+   *
+   * @param buffer The buffer.
+   * @param offset The offset of the start of the frame in the buffer.
+   * @param frameLength The length of the frame, as returned by
+   *  {@link #frameLength}.
+   * @return The message.
+   * @throws IOException If the frame is invalid.
+   * @throws ClassNotFoundException If a serialised message refers to an
+   *  unknown class.
+   */
+  static Message decode(byte[] buffer, int offset, int frameLength)
+    throws IOException, ClassNotFoundException {
+
+    return readPayload(buffer,
+                       offset + LENGTH_SIZE,
+                       frameLength - LENGTH_SIZE);
+  }
+
+  private static void checkLength(int length) throws IOException {
+    if (length < HEADER_SIZE) {
+      // Java serialisation streams start with 0xACED, so an older peer will
+      // likely take this path.
+      throw new StreamCorruptedException(
+        "Invalid message length (" + length +
+        "), is the peer running a different version of The Grinder?");
+    }
+
+    if (length > MAXIMUM_LENGTH) {
+      throw new StreamCorruptedException(
+        "Message length (" + length + ") exceeds the maximum of " +
+        MAXIMUM_LENGTH);
+    }
+  }
+
+  private static Message readPayload(byte[] buffer, int offset, int length)
+    throws IOException, ClassNotFoundException {
+
+    final int version = buffer[offset];
+
+    if (version != VERSION) {
+      throw new StreamCorruptedException(
+        "Unsupported wire format version " + version);
+    }
+
+    final int typeID = buffer[offset + 1] & 0xFF;
+
+    final DataInputStream in =
+      new DataInputStream(
+        new ByteArrayInputStream(buffer,
+                                 offset + HEADER_SIZE,
+                                 length - HEADER_SIZE));
+
+    if (typeID == SERIALISED_TYPE) {
+      return (Message) new ObjectInputStream(in).readObject();
+    }
+
+    final Registration<?> registration = s_byType[typeID];
+
+    if (registration == null) {
+      throw new StreamCorruptedException("Unknown message type " + typeID);
+    }
+
+    final Message result = registration.read(in);
+
+    if (in.available() != 0) {
+      throw new StreamCorruptedException(
+        "Message of type " + typeID + " has " + in.available() +
+        " unread bytes");
+    }
+
+    return result;
+  }
+
+  private static final class Registration<T extends Message> {
+    private final int m_typeID;
+    private final Class<T> m_type;
+    private final MessageEncoder<T> m_encoder;
+
+    Registration(int typeID, Class<T> type, MessageEncoder<T> encoder) {
+      m_typeID = typeID;
+      m_type = type;
+      m_encoder = encoder;
+    }
+
+    int getTypeID() {
+      return m_typeID;
+    }
+
+    Class<T> getType() {
+      return m_type;
+    }
+
+    void write(Message message, DataOutput out) throws IOException {
+      m_encoder.write(m_type.cast(message), out);
+    }
+
+    T read(DataInput in) throws IOException {
+      return m_encoder.read(in);
+    }
+  }
+
+  /**
+   * Allows the length prefix to be filled in without copying the frame.
+   */
+  private static final class FrameOutputStream extends ByteArrayOutputStream {
+
+    @Override public void writeTo(OutputStream out) throws IOException {
+      final int length = count - LENGTH_SIZE;
+
+      if (length > MAXIMUM_LENGTH) {
+        throw new IOException(
+          "Message length (" + length + ") exceeds the maximum of " +
+          MAXIMUM_LENGTH);
+      }
+
+      buf[0] = (byte) (length >>> 24);
+      buf[1] = (byte) (length >>> 16);
+      buf[2] = (byte) (length >>> 8);
+      buf[3] = (byte) length;
+
+      out.write(buf, 0, count);
+    }
+  }
+}
@@ -46,6 +46,7 @@ import net.grinder.console.model.SampleModel;
 import net.grinder.console.model.SampleModelImplementation;
 import net.grinder.console.model.SampleModelViews;
 import net.grinder.console.model.SampleModelViewsImplementation;
+import net.grinder.console.model.TimeSeriesRecorder;
 import net.grinder.console.synchronisation.WireDistributedBarriers;
 import net.grinder.console.textui.TextUI;
 import net.grinder.messages.console.RegisterExpressionViewMessage;
@@ -152,6 +153,7 @@ public final class ConsoleFoundation {
 
     m_container.addComponent(SampleModelImplementation.class);
     m_container.addComponent(SampleModelViewsImplementation.class);
+    m_container.addComponent(TimeSeriesRecorder.class);
     m_container.addComponent(ConsoleCommunicationImplementation.class);
     m_container.addComponent(DistributionControlImplementation.class);
     m_container.addComponent(ProcessControlImplementation.class);
@@ -219,6 +221,7 @@ public final class ConsoleFoundation {
     m_container.getComponent(WireMessageDispatch.class);
     m_container.getComponent(WireFileDistribution.class);
     m_container.getComponent(WireDistributedBarriers.class);
+    m_container.getComponent(TimeSeriesRecorder.class);
 
     final ConsoleCommunication communication =
       m_container.getComponent(ConsoleCommunication.class);
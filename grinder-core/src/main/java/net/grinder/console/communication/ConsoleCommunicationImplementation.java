@@ -39,6 +39,7 @@ import net.grinder.console.common.DisplayMessageConsoleException;
 import net.grinder.console.common.ErrorHandler;
 import net.grinder.console.common.Resources;
 import net.grinder.console.model.ConsoleProperties;
+import net.grinder.messages.console.ConsoleMessageEncoders;
 import net.grinder.util.TimeAuthority;
 import net.grinder.util.thread.BooleanCondition;
 
@@ -102,8 +103,9 @@ public final class ConsoleCommunicationImplementation
    * @param timeAuthority
    *          Knows the time
    * @param idlePollDelay
-   *          Time in milliseconds that our ServerReceiver threads should sleep
-   *          for if there's no incoming messages.
+   *          Time in milliseconds that our ServerReceiver event loops wait
+   *          for incoming messages before checking for inactive
+   *          connections.
    * @param inactiveClientTimeOut
    *          How long before we consider a client connection that presents no
    *          data to be inactive.
@@ -125,6 +127,8 @@ public final class ConsoleCommunicationImplementation
     m_idlePollDelay = idlePollDelay;
     m_inactiveClientTimeOut = inactiveClientTimeOut;
 
+    ConsoleMessageEncoders.register();
+
     properties.addPropertyChangeListener(
       new PropertyChangeListener() {
         public void propertyChange(PropertyChangeEvent event) {
@@ -214,7 +218,7 @@ public final class ConsoleCommunicationImplementation
                               ConnectionType.CONSOLE_CLIENT,
                               ConnectionType.WORKER,
                              },
-                             5,
+                             2,
                              m_idlePollDelay,
                              m_inactiveClientTimeOut);
     }
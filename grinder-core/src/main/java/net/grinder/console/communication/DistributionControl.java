@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2008 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -24,6 +24,7 @@ package net.grinder.console.communication;
 
 import net.grinder.communication.Address;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.util.FileChunk;
 import net.grinder.util.FileContents;
 
 
@@ -43,14 +44,26 @@ public interface DistributionControl {
   void clearFileCaches(Address address);
 
   /**
-   * Send a file to the agents matching the given address.
+   * Send a file to the agents matching the given address. Agents will
+   * assemble the file from the chunks they already have, and those
+   * subsequently sent with {@link #sendFileChunk}.
    *
    * @param address
    *            The address of the agents.
-   * @param fileContents The file contents.
+   * @param fileContents Description of the file contents.
    */
   void sendFile(Address address, FileContents fileContents);
 
+  /**
+   * Send a chunk of the file most recently sent with {@link #sendFile} to the
+   * agents matching the given address.
+   *
+   * @param address
+   *            The address of the agents.
+   * @param fileChunk The chunk.
+   */
+  void sendFileChunk(Address address, FileChunk fileChunk);
+
   /**
    * Inform agent processes of a checkpoint of the cache state. Each agent
    * should maintain this (perhaps persistently), and report it in status
@@ -1,4 +1,4 @@
-// Copyright (C) 2007 - 2008 Philip Aston
+// Copyright (C) 2007 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -24,8 +24,10 @@ package net.grinder.console.communication;
 import net.grinder.communication.Address;
 import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.messages.agent.ClearCacheMessage;
+import net.grinder.messages.agent.DistributeFileChunkMessage;
 import net.grinder.messages.agent.DistributeFileMessage;
 import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
+import net.grinder.util.FileChunk;
 import net.grinder.util.FileContents;
 
 
@@ -66,13 +68,26 @@ public class DistributionControlImplementation
    *
    * @param address
    *            The address of the agents.
-   * @param fileContents The file contents.
+   * @param fileContents Description of the file contents.
    */
   public void sendFile(Address address, FileContents fileContents) {
     m_consoleCommunication.sendToAddressedAgents(
       address, new DistributeFileMessage(fileContents));
   }
 
+  /**
+   * Send a chunk of the file most recently sent with {@link #sendFile} to the
+   * agents matching the given address.
+   *
+   * @param address
+   *            The address of the agents.
+   * @param fileChunk The chunk.
+   */
+  public void sendFileChunk(Address address, FileChunk fileChunk) {
+    m_consoleCommunication.sendToAddressedAgents(
+      address, new DistributeFileChunkMessage(fileChunk));
+  }
+
   /**
    * Inform agent processes of a checkpoint of the cache state. Each agent
    * should maintain this (perhaps persistently), and report it in status
@@ -37,6 +37,7 @@ import net.grinder.messages.agent.StopGrinderMessage;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.AgentProcessReportMessage;
 import net.grinder.messages.console.WorkerProcessReportMessage;
+import net.grinder.messages.console.WorkerProcessReportsMessage;
 import net.grinder.util.AllocateLowestNumber;
 import net.grinder.util.AllocateLowestNumberImplementation;
 import net.grinder.util.Directory;
@@ -100,6 +101,18 @@ public class ProcessControlImplementation implements ProcessControl {
         }
       }
     );
+
+    messageDispatchRegistry.set(
+      WorkerProcessReportsMessage.class,
+      new AbstractHandler<WorkerProcessReportsMessage>() {
+        @Override
+        public void handle(final WorkerProcessReportsMessage message) {
+          for (WorkerProcessReportMessage report : message.getReports()) {
+            m_processStatusSet.addWorkerStatusReport(report);
+          }
+        }
+      }
+    );
   }
 
   /**
@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2008 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,6 +22,9 @@
 package net.grinder.console.distribution;
 
 import java.beans.PropertyChangeListener;
+import java.util.Map;
+
+import net.grinder.common.processidentity.AgentIdentity;
 
 
 /**
@@ -54,6 +57,15 @@ public interface AgentCacheState {
    */
   void setNewFileTime(long time);
 
+  /**
+   * Return the progress of the current, or most recent, file distribution to
+   * each agent. Listeners are notified of changes with a
+   * {@code distributionProgress} property change event.
+   *
+   * @return Progress in cents, keyed by agent.
+   */
+  Map<AgentIdentity, Integer> getDistributionProgress();
+
   /**
    * Allow other parties to register their interest in changes to our state.
    *
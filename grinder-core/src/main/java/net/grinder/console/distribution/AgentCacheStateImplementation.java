@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2011 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -24,10 +24,13 @@ package net.grinder.console.distribution;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.communication.Address;
 import net.grinder.console.communication.ProcessControl;
 import net.grinder.console.communication.ProcessControl.ProcessReports;
@@ -55,6 +58,8 @@ final class AgentCacheStateImplementation implements UpdateableAgentCacheState {
   private Set<AgentAndCacheReport> m_lastAgentReportSet =
     new HashSet<AgentAndCacheReport>();
   private long m_earliestAgentTime = -1;
+  private Map<AgentIdentity, Integer> m_distributionProgress =
+    Collections.emptyMap();
 
   public AgentCacheStateImplementation(ProcessControl processControl,
                                        Directory directory,
@@ -82,6 +87,42 @@ final class AgentCacheStateImplementation implements UpdateableAgentCacheState {
     m_latestNewFileTime = Math.max(m_latestNewFileTime, time);
   }
 
+  public synchronized Map<AgentIdentity, Integer> getDistributionProgress() {
+    return m_distributionProgress;
+  }
+
+  public void clearDistributionProgress() {
+    synchronized (this) {
+      m_distributionProgress = Collections.emptyMap();
+    }
+
+    m_propertyChangeSupport.firePropertyChange(
+      "distributionProgress", null, Collections.emptyMap());
+  }
+
+  public void setDistributionProgress(AgentIdentity agent,
+                                      int progressInCents) {
+    final Map<AgentIdentity, Integer> newProgress;
+
+    synchronized (this) {
+      final Integer oldValue = m_distributionProgress.get(agent);
+
+      if (oldValue != null && oldValue == progressInCents) {
+        return;
+      }
+
+      final Map<AgentIdentity, Integer> progress =
+        new HashMap<AgentIdentity, Integer>(m_distributionProgress);
+      progress.put(agent, progressInCents);
+
+      newProgress = Collections.unmodifiableMap(progress);
+      m_distributionProgress = newProgress;
+    }
+
+    m_propertyChangeSupport.firePropertyChange(
+      "distributionProgress", null, newProgress);
+  }
+
   public void addListener(PropertyChangeListener listener) {
     m_propertyChangeSupport.addPropertyChangeListener(listener);
   }
@@ -173,6 +214,27 @@ final class AgentCacheStateImplementation implements UpdateableAgentCacheState {
     public long getEarliestAgentTime() {
       return m_earliestAgentTime;
     }
+
+    public Map<AgentIdentity, Long> getAgentTimes() throws OutOfDateException {
+      checkValidity();
+
+      final CacheHighWaterMark cacheState =
+        m_validCacheParameters.createHighWaterMark(-1);
+
+      final Map<AgentIdentity, Long> result =
+        new HashMap<AgentIdentity, Long>();
+
+      for (AgentAndCacheReport agentReport : m_agentReports) {
+        final CacheHighWaterMark agentCache =
+          agentReport.getCacheHighWaterMark();
+
+        result.put(agentReport.getAgentIdentity(),
+                   cacheState.isForSameCache(agentCache) ?
+                     agentCache.getTime() : -1);
+      }
+
+      return result;
+    }
   }
 
   private final class ProcessReportListener implements ProcessControl.Listener {
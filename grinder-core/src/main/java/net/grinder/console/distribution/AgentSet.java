@@ -1,4 +1,4 @@
-// Copyright (C) 2008 Philip Aston
+// Copyright (C) 2008 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,6 +21,9 @@
 
 package net.grinder.console.distribution;
 
+import java.util.Map;
+
+import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.communication.Address;
 
 
@@ -38,6 +41,16 @@ interface AgentSet {
 
   long getEarliestAgentTime();
 
+  /**
+   * The cache high water mark time of each agent.
+   *
+   * @return The times, keyed by agent. The time is {@code -1} for agents
+   *         whose caches are for different cache parameters, and so must be
+   *         cleared.
+   * @throws OutOfDateException If the agent set has been invalidated.
+   */
+  Map<AgentIdentity, Long> getAgentTimes() throws OutOfDateException;
+
   /**
    * Exception indicating that the agent set has been invalidated.
    */
@@ -0,0 +1,99 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.console.distribution;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.grinder.util.FileChunk;
+import net.grinder.util.FileContents;
+
+
+/**
+ * Records when each chunk of the distributed files was first seen.
+ *
+ * <p>For each file, we track the earliest modification time since which
+ * every version of the file that we have read has contained a given chunk. An
+ * agent whose cache high water mark is at or after that time must hold a
+ * version of the file that contains the chunk, so needn't be sent it again.
+ * This allows us to avoid resending data when files are touched, or when
+ * only part of a large file changes.</p>
+ *
+ * <p>The history is only valid for a particular set of cache parameters, and
+ * is discarded if they change.</p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class ContentHistory {
+
+  // Guarded by this.
+  private CacheParameters m_cacheParameters;
+
+  // Guarded by this.
+  private final Map<File, Map<FileChunk.Digest, Long>> m_chunkTimes =
+    new HashMap<File, Map<FileChunk.Digest, Long>>();
+
+  /**
+   * Record a newly read version of a file.
+   *
+   * @param cacheParameters
+   *          The cache parameters used to read the file.
+   * @param contents
+   *          Description of the file contents.
+   * @param fileTime
+   *          The file modification time.
+   * @return The time each chunk of {@code contents} was first seen.
+   */
+  public synchronized Map<FileChunk.Digest, Long> update(
+    CacheParameters cacheParameters,
+    FileContents contents,
+    long fileTime) {
+
+    if (!cacheParameters.equals(m_cacheParameters)) {
+      m_cacheParameters = cacheParameters;
+      m_chunkTimes.clear();
+    }
+
+    final Map<FileChunk.Digest, Long> previous =
+      m_chunkTimes.get(contents.getFilename());
+
+    final Map<FileChunk.Digest, Long> result =
+      new HashMap<FileChunk.Digest, Long>();
+
+    for (FileChunk.Digest digest : contents.getChunkDigests()) {
+      final Long previousTime = previous != null ? previous.get(digest) : null;
+
+      result.put(digest,
+                 previousTime != null ?
+                   Math.min(previousTime, fileTime) : fileTime);
+    }
+
+    m_chunkTimes.put(contents.getFilename(), result);
+
+    return Collections.unmodifiableMap(result);
+  }
+}
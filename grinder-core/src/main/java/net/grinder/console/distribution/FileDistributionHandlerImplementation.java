@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2008 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,29 +22,80 @@
 package net.grinder.console.distribution;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
+import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.communication.Address;
 import net.grinder.console.communication.DistributionControl;
 import net.grinder.console.distribution.AgentSet.OutOfDateException;
+import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.console.AgentAddress;
+import net.grinder.util.FileChunk;
 import net.grinder.util.FileContents;
+import net.grinder.util.FileContents.FileContentsException;
+import net.grinder.util.thread.Condition;
 
 
 /**
  * File Distribution Handler implementation.
  *
- * <p>Not thread safe.</p>
+ * <p>Each call to {@link #sendNextFile} calculates the digests of the next
+ * file's chunks, and queues the file for delivery to each agent. Each agent
+ * has its own pipeline that runs on the supplied {@link Executor}, and works
+ * through its queue at its own pace, so a slow agent doesn't hold up the
+ * others. Only the final call to {@link #sendNextFile} waits, until every
+ * agent has received everything. Queued files hold chunk digests, not
+ * data; recently read chunks are cached for agents that are close
+ * behind.</p>
+ *
+ * <p>The progress of each agent is reported through the
+ * {@link UpdateableAgentCacheState}.</p>
+ *
+ * <p>{@link #sendNextFile} should only be called by one thread at a time.</p>
  *
  * @author Philip Aston
  */
 final class FileDistributionHandlerImplementation
   implements FileDistributionHandler {
 
+  private static final int CHUNK_CACHE_SIZE = 64;
+
   private final CacheParameters m_cacheParameters;
   private final File m_directory;
   private final File[] m_files;
   private final long m_latestFileTime;
   private final DistributionControl m_distributionControl;
   private final AgentSet m_agents;
+  private final ContentHistory m_contentHistory;
+  private final Executor m_executor;
+  private final UpdateableAgentCacheState m_agentCacheState;
+
+  private final Map<FileChunk.Digest, FileChunk> m_chunkCache =
+    new LinkedHashMap<FileChunk.Digest, FileChunk>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override protected boolean removeEldestEntry(
+        Map.Entry<FileChunk.Digest, FileChunk> eldest) {
+        return size() > CHUNK_CACHE_SIZE;
+      }
+    };
+
+  // Guards m_pipelines, the state of each pipeline, m_cancelled, and
+  // m_pendingException.
+  private final Condition m_condition = new Condition();
+
+  private List<AgentPipeline> m_pipelines;
+  private boolean m_cancelled;
+  private FileContentsException m_pendingException;
+  private boolean m_checkpointScheduled;
 
   private int m_fileIndex = 0;
 
@@ -53,13 +104,19 @@ final class FileDistributionHandlerImplementation
     File directory,
     File[] files,
     DistributionControl distributionControl,
-    AgentSet agents) {
+    AgentSet agents,
+    ContentHistory contentHistory,
+    Executor executor,
+    UpdateableAgentCacheState agentCacheState) {
 
     m_cacheParameters = cacheParameters;
     m_directory = directory;
     m_files = files;
     m_distributionControl = distributionControl;
     m_agents = agents;
+    m_contentHistory = contentHistory;
+    m_executor = executor;
+    m_agentCacheState = agentCacheState;
 
     long latestFileTime = -1;
 
@@ -73,53 +130,329 @@ final class FileDistributionHandlerImplementation
     m_latestFileTime = latestFileTime;
   }
 
-  public Result sendNextFile() throws FileContents.FileContentsException {
+  public Result sendNextFile() throws FileContentsException {
+    final Map<AgentIdentity, Long> agentTimes;
+
     try {
-      if (m_fileIndex < m_files.length) {
-        if (m_fileIndex == 0) {
-          // Clear any cache that has out of date cache parameters.
-          // We currently we do nothing about cached copies of deleted files.
-          final Address addressAgentsWithInvalidCaches =
-            m_agents.getAddressOfOutOfDateAgents(0);
-
-          m_distributionControl.clearFileCaches(addressAgentsWithInvalidCaches);
-        }
+      agentTimes = m_agents.getAgentTimes();
+    }
+    catch (OutOfDateException e) {
+      cancel();
+      return null;
+    }
 
-        try {
-          final int index = m_fileIndex;
-          final File file = m_files[index];
+    synchronized (m_condition) {
+      if (m_pipelines == null) {
+        startPipelines(agentTimes);
+      }
 
-          final Address addressAgentsWithoutFile =
-            m_agents.getAddressOfOutOfDateAgents(
-              new File(m_directory, file.getPath()).lastModified());
+      checkPendingException();
+    }
 
-          m_distributionControl.sendFile(addressAgentsWithoutFile,
-                                         new FileContents(m_directory, file));
+    if (m_fileIndex < m_files.length) {
+      try {
+        final int index = m_fileIndex;
+        final File file = m_files[index];
 
-          return new Result() {
-              public int getProgressInCents() {
-                return ((index + 1) * 100) / m_files.length;
-              }
+        final long fileTime =
+          new File(m_directory, file.getPath()).lastModified();
 
-              public String getFileName() {
-                return file.getPath();
-              }
-            };
+        final FileContents contents = new FileContents(m_directory, file);
+
+        final Map<FileChunk.Digest, Long> chunkTimes =
+          m_contentHistory.update(m_cacheParameters, contents, fileTime);
+
+        schedule(new FileDelivery(contents, fileTime, chunkTimes));
+
+        return new Result() {
+            public int getProgressInCents() {
+              return ((index + 1) * 100) / m_files.length;
+            }
+
+            public String getFileName() {
+              return file.getPath();
+            }
+          };
+      }
+      finally {
+        ++m_fileIndex;
+      }
+    }
+
+    if (!m_checkpointScheduled) {
+      m_checkpointScheduled = true;
+
+      schedule(
+        new CheckpointDelivery(
+          m_cacheParameters.createHighWaterMark(m_latestFileTime)));
+    }
+
+    waitForPipelines();
+
+    synchronized (m_condition) {
+      checkPendingException();
+    }
+
+    return null;
+  }
+
+  private void startPipelines(Map<AgentIdentity, Long> agentTimes) {
+    m_pipelines = new ArrayList<AgentPipeline>(agentTimes.size());
+
+    m_agentCacheState.clearDistributionProgress();
+
+    for (Map.Entry<AgentIdentity, Long> entry : agentTimes.entrySet()) {
+      final AgentPipeline pipeline =
+        new AgentPipeline(entry.getKey(), entry.getValue());
+
+      m_pipelines.add(pipeline);
+
+      // Clear any cache that has out of date cache parameters.
+      // We currently we do nothing about cached copies of deleted files.
+      if (entry.getValue() < 0) {
+        pipeline.enqueue(new ClearCacheDelivery());
+      }
+    }
+  }
+
+  private void checkPendingException() throws FileContentsException {
+    final FileContentsException e = m_pendingException;
+
+    if (e != null) {
+      m_pendingException = null;
+      throw e;
+    }
+  }
+
+  private void schedule(Delivery delivery) {
+    synchronized (m_condition) {
+      for (AgentPipeline pipeline : m_pipelines) {
+        pipeline.enqueue(delivery);
+      }
+    }
+  }
+
+  /**
+   * Wait until every pipeline has made all of its deliveries.
+   */
+  private void waitForPipelines() {
+    synchronized (m_condition) {
+      while (!m_cancelled) {
+        boolean ready = true;
+
+        for (AgentPipeline pipeline : m_pipelines) {
+          if (pipeline.getBacklog() > 0) {
+            ready = false;
+            break;
+          }
         }
-        finally {
-          ++m_fileIndex;
+
+        if (ready) {
+          break;
         }
+
+        m_condition.waitNoInterrruptException();
       }
-      else {
-        m_distributionControl.setHighWaterMark(
-          m_agents.getAddressOfAllAgents(),
-          m_cacheParameters.createHighWaterMark(m_latestFileTime));
+    }
+  }
 
-        return null;
+  private void cancel() {
+    synchronized (m_condition) {
+      m_cancelled = true;
+      m_condition.notifyAll();
+    }
+  }
+
+  private FileChunk readChunk(FileContents contents, int index)
+    throws FileContentsException {
+
+    final FileChunk.Digest digest = contents.getChunkDigests().get(index);
+
+    synchronized (m_chunkCache) {
+      final FileChunk cached = m_chunkCache.get(digest);
+
+      if (cached != null) {
+        return cached;
       }
     }
-    catch (OutOfDateException e) {
-      return null;
+
+    // Pipelines that miss the cache at the same time will each read the
+    // chunk. This is rare enough not to matter.
+    final FileChunk chunk = FileChunk.read(m_directory, contents, index);
+
+    synchronized (m_chunkCache) {
+      m_chunkCache.put(digest, chunk);
+    }
+
+    return chunk;
+  }
+
+  /**
+   * Something to send to an agent.
+   */
+  private interface Delivery {
+    void deliver(Address address, long agentTime)
+      throws FileContentsException;
+  }
+
+  private final class ClearCacheDelivery implements Delivery {
+    public void deliver(Address address, long agentTime) {
+      m_distributionControl.clearFileCaches(address);
+    }
+  }
+
+  private final class FileDelivery implements Delivery {
+    private final FileContents m_contents;
+    private final long m_fileTime;
+    private final Map<FileChunk.Digest, Long> m_chunkTimes;
+
+    public FileDelivery(FileContents contents,
+                        long fileTime,
+                        Map<FileChunk.Digest, Long> chunkTimes) {
+      m_contents = contents;
+      m_fileTime = fileTime;
+      m_chunkTimes = chunkTimes;
+    }
+
+    public void deliver(Address address, long agentTime)
+      throws FileContentsException {
+
+      if (agentTime >= m_fileTime) {
+        return;
+      }
+
+      m_distributionControl.sendFile(address, m_contents);
+
+      final List<FileChunk.Digest> digests = m_contents.getChunkDigests();
+      final Set<FileChunk.Digest> sent = new HashSet<FileChunk.Digest>();
+
+      for (int i = 0; i < digests.size(); ++i) {
+        final FileChunk.Digest digest = digests.get(i);
+
+        // The agent assembles the file from the chunks it already has, so we
+        // need only send each chunk once, and only if the agent can't have it.
+        if (m_chunkTimes.get(digest) > agentTime && sent.add(digest)) {
+          m_distributionControl.sendFileChunk(address,
+                                              readChunk(m_contents, i));
+        }
+      }
+    }
+  }
+
+  private final class CheckpointDelivery implements Delivery {
+    private final CacheHighWaterMark m_highWaterMark;
+
+    public CheckpointDelivery(CacheHighWaterMark highWaterMark) {
+      m_highWaterMark = highWaterMark;
+    }
+
+    public void deliver(Address address, long agentTime) {
+      m_distributionControl.setHighWaterMark(address, m_highWaterMark);
+    }
+  }
+
+  /**
+   * Sends deliveries to a single agent, in order. Each run makes one
+   * delivery, then resubmits the pipeline to the executor so that agents
+   * share the executor's threads fairly. Sends to an agent block only
+   * whilst earlier messages to the same agent are being written.
+   */
+  private final class AgentPipeline implements Runnable {
+    private final AgentIdentity m_agent;
+    private final Address m_address;
+    private final long m_agentTime;
+    private final int m_expected;
+
+    // Guarded by m_condition.
+    private final Queue<Delivery> m_deliveries = new LinkedList<Delivery>();
+    private int m_scheduled;
+    private int m_completed;
+    private boolean m_running;
+
+    public AgentPipeline(AgentIdentity agent, long agentTime) {
+      m_agent = agent;
+      m_address = new AgentAddress(agent);
+      m_agentTime = agentTime;
+
+      // Each file, the checkpoint, and perhaps an initial cache clear.
+      m_expected = m_files.length + (agentTime < 0 ? 2 : 1);
+    }
+
+    /**
+     * <p>Caller must hold m_condition.</p>
+     */
+    public void enqueue(Delivery delivery) {
+      m_deliveries.add(delivery);
+      ++m_scheduled;
+
+      if (!m_running) {
+        m_running = true;
+        m_executor.execute(this);
+      }
+    }
+
+    /**
+     * <p>Caller must hold m_condition.</p>
+     */
+    public int getBacklog() {
+      return m_scheduled - m_completed;
+    }
+
+    public void run() {
+      final Delivery delivery;
+      final boolean cancelled;
+
+      synchronized (m_condition) {
+        // Only this pipeline removes deliveries.
+        delivery = m_deliveries.peek();
+        cancelled = m_cancelled;
+      }
+
+      try {
+        if (!cancelled) {
+          delivery.deliver(m_address, m_agentTime);
+        }
+      }
+      catch (FileContentsException e) {
+        synchronized (m_condition) {
+          if (m_pendingException == null) {
+            m_pendingException = e;
+          }
+        }
+      }
+      finally {
+        completed(delivery instanceof CheckpointDelivery);
+      }
+    }
+
+    private void completed(boolean checkpoint) {
+      final int completed;
+
+      synchronized (m_condition) {
+        // Only this pipeline updates m_completed.
+        completed = m_completed + 1;
+      }
+
+      // Report progress before releasing sendNextFile(), so the final
+      // progress is known when the distribution is complete. Only the
+      // checkpoint brings an agent to 100%.
+      m_agentCacheState.setDistributionProgress(
+        m_agent,
+        checkpoint ? 100 : Math.min(99, completed * 100 / m_expected));
+
+      final boolean more;
+
+      synchronized (m_condition) {
+        m_deliveries.remove();
+        m_completed = completed;
+        more = !m_deliveries.isEmpty();
+        m_running = more;
+        m_condition.notifyAll();
+      }
+
+      if (more) {
+        m_executor.execute(this);
+      }
     }
   }
 }
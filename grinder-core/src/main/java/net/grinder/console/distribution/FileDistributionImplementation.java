@@ -26,6 +26,7 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import net.grinder.console.communication.DistributionControl;
@@ -33,6 +34,7 @@ import net.grinder.console.communication.ProcessControl;
 import net.grinder.util.Directory;
 import net.grinder.util.ListenerSupport;
 import net.grinder.util.ListenerSupport.Informer;
+import net.grinder.util.thread.ExecutorFactory;
 
 
 /**
@@ -51,6 +53,13 @@ public final class FileDistributionImplementation implements FileDistribution {
 
   private final DistributionControl m_distributionControl;
   private final UpdateableAgentCacheState m_cacheState;
+  private final ContentHistory m_contentHistory = new ContentHistory();
+
+  // Sends to a slow agent block, so a fixed pool could be starved by a
+  // few slow agents. Each agent has at most one task in flight, so the
+  // number of threads is bounded by the number of agents.
+  private final Executor m_executor =
+    ExecutorFactory.createCachedThreadPool("file-distribution");
 
   private volatile long m_lastScanTime;
 
@@ -149,7 +158,10 @@ public final class FileDistributionImplementation implements FileDistribution {
         new FixedPatternFileFilter(agents.getEarliestAgentTime(),
                                    cacheParameters.getFileFilterPattern())),
       m_distributionControl,
-      agents);
+      agents,
+      m_contentHistory,
+      m_executor,
+      m_cacheState);
   }
 
   /**
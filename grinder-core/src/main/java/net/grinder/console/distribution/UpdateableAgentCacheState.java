@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2008 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -23,6 +23,7 @@ package net.grinder.console.distribution;
 
 import java.util.regex.Pattern;
 
+import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.util.Directory;
 
 
@@ -40,4 +41,8 @@ interface UpdateableAgentCacheState extends AgentCacheState {
   CacheParameters getCacheParameters();
 
   AgentSet getAgentSet();
+
+  void clearDistributionProgress();
+
+  void setDistributionProgress(AgentIdentity agent, int progressInCents);
 }
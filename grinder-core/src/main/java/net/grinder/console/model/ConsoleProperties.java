@@ -153,6 +153,14 @@ public final class ConsoleProperties {
   public static final String SAVE_TOTALS_WITH_RESULTS_PROPERTY =
     "grinder.console.saveTotalsWithResults";
 
+  /** Property name. */
+  public static final String TIME_SERIES_DIRECTORY_PROPERTY =
+    "grinder.console.timeSeriesDirectory";
+
+  /** Property name. */
+  public static final String TIME_SERIES_MAXIMUM_SAMPLES_PROPERTY =
+    "grinder.console.timeSeriesMaximumSamples";
+
   private final PropertyChangeSupport m_changeSupport =
     new PropertyChangeSupport(this);
 
@@ -229,6 +237,12 @@ public final class ConsoleProperties {
   private final BooleanProperty m_saveTotalsWithResults =
     new BooleanProperty(SAVE_TOTALS_WITH_RESULTS_PROPERTY, false);
 
+  private final FileProperty m_timeSeriesDirectory =
+    new FileProperty(TIME_SERIES_DIRECTORY_PROPERTY);
+
+  private final IntProperty m_timeSeriesMaximumSamples =
+    new IntProperty(TIME_SERIES_MAXIMUM_SAMPLES_PROPERTY, 262144);
+
   private final Resources m_resources;
 
   /**
@@ -937,6 +951,54 @@ public final class ConsoleProperties {
     m_saveTotalsWithResults.save();
   }
 
+  /**
+   * Get the directory in which sample statistics are recorded.
+   *
+   * @return The directory. {@code null} => don't record samples.
+   * @see TimeSeriesRecorder
+   */
+  public File getTimeSeriesDirectory() {
+    return m_timeSeriesDirectory.get();
+  }
+
+  /**
+   * Set the directory in which sample statistics are recorded.
+   *
+   * @param directory The directory. {@code null} => don't record samples.
+   * @see TimeSeriesRecorder
+   */
+  public void setTimeSeriesDirectory(final File directory) {
+    m_timeSeriesDirectory.set(directory);
+  }
+
+  /**
+   * Get the number of samples to record for each test. Older samples are
+   * discarded.
+   *
+   * @return The number of samples. {@code 0} => keep every sample.
+   * @see TimeSeriesRecorder
+   */
+  public int getTimeSeriesMaximumSamples() {
+    return m_timeSeriesMaximumSamples.get();
+  }
+
+  /**
+   * Set the number of samples to record for each test.
+   *
+   * @param n The number of samples. {@code 0} => keep every sample.
+   * @throws ConsoleException If the number is negative.
+   * @see TimeSeriesRecorder
+   */
+  public void setTimeSeriesMaximumSamples(final int n)
+    throws ConsoleException {
+    if (n < 0) {
+      throw new DisplayMessageConsoleException(
+        m_resources, "timeSeriesMaximumSamplesNegativeError.text");
+    }
+
+    m_timeSeriesMaximumSamples.set(n);
+  }
+
   private abstract class Property<T> {
     private final String m_propertyName;
     private final T m_defaultValue;
@@ -27,6 +27,7 @@ import java.text.NumberFormat;
 
 import net.grinder.statistics.ExpressionView;
 import net.grinder.statistics.StatisticExpressionFactory;
+import net.grinder.statistics.StatisticsException;
 import net.grinder.statistics.StatisticsServices;
 import net.grinder.statistics.StatisticsView;
 import net.grinder.statistics.TestStatisticsQueries;
@@ -45,6 +46,7 @@ public class SampleModelViewsImplementation implements SampleModelViews {
     new ListenerSupport<Listener>();
   private final StatisticsServices m_statisticsServices;
   private final ExpressionView m_peakTPSExpressionView;
+  private final ExpressionView[] m_percentileExpressionViews;
 
   // Guarded by this.
   private NumberFormat m_numberFormat;
@@ -78,6 +80,30 @@ public class SampleModelViewsImplementation implements SampleModelViews {
       statisticExpressionFactory
         .createExpressionView("Peak TPS", model.getPeakTPSExpression());
 
+    try {
+      m_percentileExpressionViews = new ExpressionView[] {
+        statisticExpressionFactory.createExpressionView(
+          "Test Time 50th Percentile (ms)",
+          "(/ (percentile timedTestsMicros 50) 1000)",
+          false),
+        statisticExpressionFactory.createExpressionView(
+          "Test Time 95th Percentile (ms)",
+          "(/ (percentile timedTestsMicros 95) 1000)",
+          false),
+        statisticExpressionFactory.createExpressionView(
+          "Test Time 99th Percentile (ms)",
+          "(/ (percentile timedTestsMicros 99) 1000)",
+          false),
+        statisticExpressionFactory.createExpressionView(
+          "Test Time 99.9th Percentile (ms)",
+          "(/ (percentile timedTestsMicros 99.9) 1000)",
+          false),
+      };
+    }
+    catch (StatisticsException e) {
+      throw new AssertionError(e);
+    }
+
     resetStatisticsViews();
 
     properties.addPropertyChangeListener(
@@ -108,6 +134,11 @@ public class SampleModelViewsImplementation implements SampleModelViews {
 
       m_cumulativeStatisticsView.add(summaryStatisticsView);
       m_cumulativeStatisticsView.add(m_peakTPSExpressionView);
+
+      for (ExpressionView percentileExpressionView :
+           m_percentileExpressionViews) {
+        m_cumulativeStatisticsView.add(percentileExpressionView);
+      }
     }
 
     m_listeners.apply(
@@ -0,0 +1,173 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import javax.annotation.PreDestroy;
+
+import net.grinder.common.Test;
+import net.grinder.console.common.ErrorHandler;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.util.TimeAuthority;
+
+
+/**
+ * Records the statistics for each sample interval in a
+ * {@link TimeSeriesStore}.
+ *
+ * <p>
+ * Recording is enabled by setting
+ * {@link ConsoleProperties#TIME_SERIES_DIRECTORY_PROPERTY}. The number of
+ * samples kept for each test is limited by
+ * {@link ConsoleProperties#TIME_SERIES_MAXIMUM_SAMPLES_PROPERTY}. The
+ * properties are read when the console starts.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class TimeSeriesRecorder {
+
+  private final ErrorHandler m_errorHandler;
+  private final TimeAuthority m_timeAuthority;
+
+  /** {@code null} if recording is disabled. Guarded by this. */
+  private TimeSeriesStore m_store;
+
+  /** Guarded by this. */
+  private boolean m_rejectingSamples;
+
+  private volatile ModelTestIndex m_modelTestIndex = new ModelTestIndex();
+
+  /**
+   * Constructor.
+   *
+   * @param properties The console properties.
+   * @param sampleModel The sample model.
+   * @param statisticsServices Statistics services.
+   * @param timeAuthority Knows the time.
+   * @param errorHandler Where to report problems.
+   */
+  public TimeSeriesRecorder(final ConsoleProperties properties,
+                            final SampleModel sampleModel,
+                            final StatisticsServices statisticsServices,
+                            final TimeAuthority timeAuthority,
+                            final ErrorHandler errorHandler) {
+
+    m_timeAuthority = timeAuthority;
+    m_errorHandler = errorHandler;
+
+    final File directory = properties.getTimeSeriesDirectory();
+
+    if (directory != null) {
+      try {
+        m_store =
+          new TimeSeriesStore(directory,
+                              statisticsServices.getStatisticsSetFactory(),
+                              properties.getTimeSeriesMaximumSamples());
+      }
+      catch (final IOException e) {
+        m_errorHandler.handleException(e);
+        return;
+      }
+
+      sampleModel.addModelListener(new SampleModel.AbstractListener() {
+          @Override
+          public void newTests(final Set<Test> newTests,
+                               final ModelTestIndex modelTestIndex) {
+            m_modelTestIndex = modelTestIndex;
+          }
+
+          @Override
+          public void resetTests() {
+            m_modelTestIndex = new ModelTestIndex();
+          }
+
+          @Override
+          public void newSample() {
+            record(m_modelTestIndex);
+          }
+        });
+    }
+  }
+
+  private synchronized void record(final ModelTestIndex modelTestIndex) {
+    if (m_store == null) {
+      return;
+    }
+
+    final long time = m_timeAuthority.getTimeInMilliseconds();
+
+    boolean rejected = false;
+
+    try {
+      for (int i = 0; i < modelTestIndex.getNumberOfTests(); ++i) {
+        rejected |= !m_store.append(time,
+                                    modelTestIndex.getTest(i).getNumber(),
+                                    modelTestIndex.getLastSampleStatistics(i));
+      }
+    }
+    catch (final IOException e) {
+      // Don't report the same problem every sample interval.
+      shutdown();
+      m_errorHandler.handleException(e);
+      return;
+    }
+
+    // The clock has gone backwards. Report once until it recovers.
+    if (rejected && !m_rejectingSamples) {
+      m_errorHandler.handleErrorMessage(
+        "Discarding samples earlier than those already recorded in " +
+        "the time series store");
+    }
+
+    m_rejectingSamples = rejected;
+  }
+
+  /**
+   * Return the store.
+   *
+   * @return The store, or {@code null} if recording is disabled.
+   */
+  public synchronized TimeSeriesStore getStore() {
+    return m_store;
+  }
+
+  /**
+   * Stop recording, and close the store.
+   */
+  @PreDestroy
+  public synchronized void shutdown() {
+    if (m_store != null) {
+      try {
+        m_store.close();
+      }
+      catch (final IOException e) {
+        m_errorHandler.handleException(e);
+      }
+
+      m_store = null;
+    }
+  }
+}
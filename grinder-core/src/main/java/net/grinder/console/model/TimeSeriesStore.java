@@ -0,0 +1,854 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.StatisticsSetFactory;
+
+
+/**
+ * Append-only, on-disk store of per-test sample statistics.
+ *
+ * <p>
+ * Each test has a directory of fixed size segment files. A segment holds a
+ * number of samples in columnar form; the first column contains the sample
+ * times, the second the end offset of each sample's histograms in the
+ * segment's histogram file, and there is a further column for each raw
+ * statistics value (see {@link StatisticsSetFactory#getRawValues}).
+ * Histograms vary in size, so are appended to a separate histogram file
+ * (see {@link StatisticsSetFactory#writeHistograms}).
+ * </p>
+ *
+ * <p>
+ * Only the latest segment for each test is memory mapped. When a segment
+ * is full it is flushed and released, and queries read it from disk.
+ * </p>
+ *
+ * <p>
+ * Segment layout:
+ * </p>
+ *
+ * <pre>
+ *   int    magic
+ *   int    number of columns
+ *   int    capacity          Maximum number of samples.
+ *   int    number of samples
+ *   long[capacity] x number of columns
+ * </pre>
+ *
+ * @author Philip Aston
+ */
+public final class TimeSeriesStore {
+
+  /** Number of samples per segment. */
+  public static final int DEFAULT_SEGMENT_CAPACITY = 4096;
+
+  private static final int MAGIC = 0x47545332;
+  private static final int HEADER_SIZE = 16;
+  private static final int ROW_COUNT_OFFSET = 12;
+
+  private static final int TIME_COLUMN = 0;
+  private static final int HISTOGRAM_COLUMN = 1;
+  private static final int FIRST_VALUE_COLUMN = 2;
+
+  private static final String TEST_DIRECTORY_PREFIX = "test-";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String HISTOGRAMS_PREFIX = "histograms-";
+
+  private final File m_directory;
+  private final StatisticsSetFactory m_statisticsSetFactory;
+  private final long m_maximumSamples;
+  private final int m_segmentCapacity;
+  private final int m_numberOfColumns;
+
+  /** Scratch space for raw values. Guarded by this. */
+  private final long[] m_values;
+
+  /** Scratch space for histograms. Guarded by this. */
+  private final ByteArrayOutputStream m_histogramBytes =
+    new ByteArrayOutputStream();
+
+  /** Guarded by this. */
+  private final Map<Integer, Series> m_series =
+    new TreeMap<Integer, Series>();
+
+  /** Guarded by this. */
+  private boolean m_closed;
+
+  /**
+   * Constructor. Samples previously written to {@code directory} are
+   * available to {@link #query}.
+   *
+   * @param directory
+   *          Where to store the samples. Created if it doesn't exist.
+   * @param statisticsSetFactory
+   *          Statistics set factory.
+   * @param maximumSamples
+   *          The number of samples to retain for each test. Older samples
+   *          are discarded a segment at a time, so up to a segment's worth
+   *          of additional samples may be retained. {@code 0} => retain
+   *          all samples.
+   * @throws IOException
+   *           If the directory could not be created, or holds segments that
+   *           can't be read.
+   */
+  public TimeSeriesStore(File directory,
+                         StatisticsSetFactory statisticsSetFactory,
+                         long maximumSamples)
+    throws IOException {
+    this(directory,
+         statisticsSetFactory,
+         maximumSamples,
+         DEFAULT_SEGMENT_CAPACITY);
+  }
+
+  /**
+   * Constructor that allows the segment capacity to be specified.
+   *
+   * @param directory
+   *          Where to store the samples. Created if it doesn't exist.
+   * @param statisticsSetFactory
+   *          Statistics set factory.
+   * @param maximumSamples
+   *          The number of samples to retain for each test. {@code 0} =>
+   *          retain all samples.
+   * @param segmentCapacity
+   *          Number of samples per new segment.
+   * @throws IOException
+   *           If the directory could not be created, or holds segments that
+   *           can't be read.
+   */
+  TimeSeriesStore(File directory,
+                  StatisticsSetFactory statisticsSetFactory,
+                  long maximumSamples,
+                  int segmentCapacity)
+    throws IOException {
+
+    m_directory = directory;
+    m_statisticsSetFactory = statisticsSetFactory;
+    m_maximumSamples = maximumSamples;
+    m_segmentCapacity = segmentCapacity;
+    m_numberOfColumns =
+      FIRST_VALUE_COLUMN + statisticsSetFactory.getNumberOfRawValues();
+    m_values = new long[m_numberOfColumns - FIRST_VALUE_COLUMN];
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory '" + directory + "'");
+    }
+
+    final File[] testDirectories = directory.listFiles(new FileFilter() {
+        public boolean accept(File file) {
+          return file.isDirectory() &&
+                 file.getName().startsWith(TEST_DIRECTORY_PREFIX);
+        }
+      });
+
+    for (File testDirectory : testDirectories) {
+      final int testNumber;
+
+      try {
+        testNumber = Integer.parseInt(
+          testDirectory.getName().substring(TEST_DIRECTORY_PREFIX.length()));
+      }
+      catch (NumberFormatException e) {
+        continue;
+      }
+
+      m_series.put(testNumber, new Series(testDirectory));
+    }
+  }
+
+  /**
+   * Append a sample.
+   *
+   * <p>
+   * Samples for each test must be appended in time order. A sample that is
+   * earlier than the last sample stored for the test is rejected.
+   * </p>
+   *
+   * @param time
+   *          The sample time.
+   * @param testNumber
+   *          The test number.
+   * @param statistics
+   *          The statistics for the sample interval.
+   * @return {@code true} if the sample was stored, {@code false} if it was
+   *         rejected because it is out of order.
+   * @throws IOException
+   *           If the sample could not be stored.
+   */
+  public synchronized boolean append(long time,
+                                     int testNumber,
+                                     StatisticsSet statistics)
+    throws IOException {
+
+    checkOpen();
+
+    Series series = m_series.get(testNumber);
+
+    if (series == null) {
+      series = new Series(
+        new File(m_directory, TEST_DIRECTORY_PREFIX + testNumber));
+      m_series.put(testNumber, series);
+    }
+
+    if (time < series.getLastTime()) {
+      return false;
+    }
+
+    m_statisticsSetFactory.getRawValues(statistics, m_values);
+
+    m_histogramBytes.reset();
+    m_statisticsSetFactory.writeHistograms(
+      statistics, new DataOutputStream(m_histogramBytes));
+
+    series.append(time, m_values, m_histogramBytes.toByteArray());
+
+    return true;
+  }
+
+  /**
+   * Return the numbers of the tests that have samples.
+   *
+   * @return The test numbers, in ascending order.
+   */
+  public synchronized SortedSet<Integer> getTestNumbers() {
+    return new TreeSet<Integer>(m_series.keySet());
+  }
+
+  /**
+   * Return the number of samples stored for a test.
+   *
+   * @param testNumber The test number.
+   * @return The number of samples.
+   */
+  public synchronized long getNumberOfSamples(int testNumber) {
+    final Series series = m_series.get(testNumber);
+
+    return series != null ? series.getNumberOfSamples() : 0;
+  }
+
+  /**
+   * Return the samples for a test within a time range.
+   *
+   * <p>
+   * If {@code resolution} is positive, the samples are downsampled. The
+   * range is split into consecutive buckets of {@code resolution}
+   * milliseconds, starting at {@code startTime}, and the statistics for the
+   * samples in each bucket are added together. Each resulting sample has the
+   * start time of its bucket. Empty buckets are omitted.
+   * </p>
+   *
+   * @param testNumber
+   *          The test number.
+   * @param startTime
+   *          Start of the range, inclusive.
+   * @param endTime
+   *          End of the range, exclusive.
+   * @param resolution
+   *          Bucket size in milliseconds, or {@code 0} to return every
+   *          sample.
+   * @return The samples, in time order.
+   * @throws IOException
+   *           If the store has been closed, or the samples could not be
+   *           read.
+   */
+  public synchronized List<Sample> query(int testNumber,
+                                         long startTime,
+                                         long endTime,
+                                         long resolution)
+    throws IOException {
+
+    checkOpen();
+
+    final Series series = m_series.get(testNumber);
+
+    if (series == null || startTime >= endTime) {
+      return Collections.emptyList();
+    }
+
+    final List<Sample> result = new ArrayList<Sample>();
+
+    Sample bucket = null;
+
+    for (Segment segment : series.getSegments()) {
+      if (segment.getRowCount() == 0 ||
+          segment.getFirstTime() >= endTime ||
+          segment.getLastTime() < startTime) {
+        continue;
+      }
+
+      final ByteBuffer data = segment.getData();
+      final int firstRow = segment.findRow(data, startTime);
+      final int endRow = segment.findRow(data, endTime);
+
+      if (firstRow == endRow) {
+        continue;
+      }
+
+      final long histogramStart =
+        firstRow > 0 ?
+        segment.getLong(data, HISTOGRAM_COLUMN, firstRow - 1) : 0;
+
+      final DataInputStream histograms =
+        new DataInputStream(
+          new ByteArrayInputStream(
+            segment.readHistograms(
+              histogramStart,
+              segment.getLong(data, HISTOGRAM_COLUMN, endRow - 1))));
+
+      for (int row = firstRow; row < endRow; ++row) {
+        final long time = segment.getLong(data, TIME_COLUMN, row);
+
+        for (int i = 0; i < m_values.length; ++i) {
+          m_values[i] = segment.getLong(data, FIRST_VALUE_COLUMN + i, row);
+        }
+
+        final StatisticsSet statistics =
+          m_statisticsSetFactory.createFromRawValues(m_values);
+
+        m_statisticsSetFactory.readHistograms(histograms, statistics);
+
+        if (resolution <= 0) {
+          result.add(new Sample(time, statistics));
+        }
+        else {
+          final long bucketTime =
+            startTime + (time - startTime) / resolution * resolution;
+
+          if (bucket != null && bucket.getTime() == bucketTime) {
+            bucket.getStatistics().add(statistics);
+          }
+          else {
+            bucket = new Sample(bucketTime, statistics);
+            result.add(bucket);
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Flush the stored samples to disk, and close the store.
+   *
+   * @throws IOException If the samples could not be flushed.
+   */
+  public synchronized void close() throws IOException {
+    if (!m_closed) {
+      m_closed = true;
+
+      IOException firstException = null;
+
+      for (Series series : m_series.values()) {
+        try {
+          series.close();
+        }
+        catch (IOException e) {
+          if (firstException == null) {
+            firstException = e;
+          }
+        }
+      }
+
+      if (firstException != null) {
+        throw firstException;
+      }
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (m_closed) {
+      throw new IOException("Store has been closed");
+    }
+  }
+
+  /**
+   * A sample returned from {@link TimeSeriesStore#query}.
+   */
+  public static final class Sample {
+    private final long m_time;
+    private final StatisticsSet m_statistics;
+
+    Sample(long time, StatisticsSet statistics) {
+      m_time = time;
+      m_statistics = statistics;
+    }
+
+    /**
+     * The sample time.
+     *
+     * @return The time, in milliseconds since the Epoch.
+     */
+    public long getTime() {
+      return m_time;
+    }
+
+    /**
+     * The sample statistics.
+     *
+     * @return The statistics.
+     */
+    public StatisticsSet getStatistics() {
+      return m_statistics;
+    }
+  }
+
+  /**
+   * The segments for a test.
+   */
+  private final class Series {
+    private final File m_seriesDirectory;
+    private final List<Segment> m_segments = new ArrayList<Segment>();
+    private long m_numberOfSamples;
+    private int m_nextSegment;
+    private long m_lastTime = Long.MIN_VALUE;
+
+    public Series(File directory) throws IOException {
+      m_seriesDirectory = directory;
+
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Could not create directory '" + directory + "'");
+      }
+
+      final File[] files = directory.listFiles(new FileFilter() {
+          public boolean accept(File file) {
+            return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX);
+          }
+        });
+
+      // Segment names have a fixed width index.
+      Arrays.sort(files);
+
+      for (File file : files) {
+        final int index;
+
+        try {
+          index = Integer.parseInt(
+            file.getName().substring(SEGMENT_PREFIX.length()));
+        }
+        catch (NumberFormatException e) {
+          throw new IOException("'" + file + "' is not a time series segment");
+        }
+
+        final Segment segment =
+          Segment.open(file, histogramFile(index), m_numberOfColumns);
+
+        if (segment.getRowCount() > 0) {
+          m_lastTime = segment.getLastTime();
+        }
+
+        m_segments.add(segment);
+        m_numberOfSamples += segment.getRowCount();
+        m_nextSegment = index + 1;
+      }
+
+      discardOldSegments();
+    }
+
+    private File histogramFile(int index) {
+      return new File(m_seriesDirectory,
+                      String.format("%s%08d", HISTOGRAMS_PREFIX, index));
+    }
+
+    public void append(long time, long[] values, byte[] histograms)
+      throws IOException {
+
+      Segment segment =
+        m_segments.isEmpty() ? null : m_segments.get(m_segments.size() - 1);
+
+      if (segment == null || segment.isFull()) {
+        if (segment != null) {
+          segment.close();
+        }
+
+        segment = Segment.create(
+          new File(m_seriesDirectory,
+                   String.format("%s%08d", SEGMENT_PREFIX, m_nextSegment)),
+          histogramFile(m_nextSegment),
+          m_numberOfColumns,
+          m_segmentCapacity);
+
+        ++m_nextSegment;
+        m_segments.add(segment);
+      }
+
+      segment.append(time, values, histograms);
+
+      ++m_numberOfSamples;
+      m_lastTime = time;
+
+      discardOldSegments();
+    }
+
+    private void discardOldSegments() throws IOException {
+      if (m_maximumSamples <= 0) {
+        return;
+      }
+
+      while (m_segments.size() > 1 &&
+             m_numberOfSamples - m_segments.get(0).getRowCount() >=
+             m_maximumSamples) {
+        final Segment oldest = m_segments.remove(0);
+        m_numberOfSamples -= oldest.getRowCount();
+        oldest.delete();
+      }
+    }
+
+    public List<Segment> getSegments() {
+      return m_segments;
+    }
+
+    public long getNumberOfSamples() {
+      return m_numberOfSamples;
+    }
+
+    public long getLastTime() {
+      return m_lastTime;
+    }
+
+    public void close() throws IOException {
+      for (Segment segment : m_segments) {
+        segment.close();
+      }
+    }
+  }
+
+  /**
+   * A segment file, and its histogram file.
+   */
+  private static final class Segment {
+    private final File m_file;
+    private final File m_histogramFile;
+    private final int m_numberOfColumns;
+    private final int m_capacity;
+    private int m_rowCount;
+    private long m_firstTime;
+    private long m_lastTime;
+    private long m_histogramLength;
+
+    /**
+     * Non-null while the segment is being appended to. There's no portable
+     * way to unmap a buffer; it is released when it is garbage collected.
+     */
+    private MappedByteBuffer m_buffer;
+    private RandomAccessFile m_histograms;
+
+    public static Segment create(File file,
+                                 File histogramFile,
+                                 int numberOfColumns,
+                                 int capacity)
+      throws IOException {
+
+      final Segment result =
+        new Segment(file, histogramFile, numberOfColumns, capacity);
+
+      result.openForAppend();
+
+      result.m_buffer.putInt(0, MAGIC);
+      result.m_buffer.putInt(4, numberOfColumns);
+      result.m_buffer.putInt(8, capacity);
+      result.m_buffer.putInt(ROW_COUNT_OFFSET, 0);
+
+      return result;
+    }
+
+    public static Segment open(File file,
+                               File histogramFile,
+                               int numberOfColumns)
+      throws IOException {
+
+      final RandomAccessFile randomAccessFile =
+        new RandomAccessFile(file, "r");
+
+      try {
+        final FileChannel channel = randomAccessFile.getChannel();
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        if (channel.size() < HEADER_SIZE ||
+            read(channel, header, 0).getInt(0) != MAGIC) {
+          throw new IOException("'" + file + "' is not a time series segment");
+        }
+
+        if (header.getInt(4) != numberOfColumns) {
+          throw new IOException(
+            "'" + file + "' has " + header.getInt(4) + " columns, expected " +
+            numberOfColumns);
+        }
+
+        final int capacity = header.getInt(8);
+        final int rowCount = header.getInt(ROW_COUNT_OFFSET);
+
+        if (capacity < 0 ||
+            rowCount < 0 ||
+            rowCount > capacity ||
+            channel.size() < size(numberOfColumns, capacity)) {
+          throw new IOException("'" + file + "' is corrupt");
+        }
+
+        final Segment result =
+          new Segment(file, histogramFile, numberOfColumns, capacity);
+
+        result.m_rowCount = rowCount;
+
+        if (rowCount > 0) {
+          final ByteBuffer value = ByteBuffer.allocate(8);
+
+          result.m_firstTime =
+            read(channel, value, result.offset(TIME_COLUMN, 0)).getLong(0);
+          result.m_lastTime =
+            read(channel, value, result.offset(TIME_COLUMN, rowCount - 1))
+            .getLong(0);
+          result.m_histogramLength =
+            read(channel, value, result.offset(HISTOGRAM_COLUMN, rowCount - 1))
+            .getLong(0);
+
+          if (histogramFile.length() < result.m_histogramLength) {
+            throw new IOException("'" + histogramFile + "' is corrupt");
+          }
+        }
+
+        return result;
+      }
+      finally {
+        randomAccessFile.close();
+      }
+    }
+
+    private static long size(int numberOfColumns, int capacity) {
+      return HEADER_SIZE + (long)numberOfColumns * capacity * 8;
+    }
+
+    private static ByteBuffer read(FileChannel channel,
+                                   ByteBuffer buffer,
+                                   long position)
+      throws IOException {
+
+      buffer.clear();
+
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of file");
+        }
+      }
+
+      return buffer;
+    }
+
+    private Segment(File file,
+                    File histogramFile,
+                    int numberOfColumns,
+                    int capacity) {
+      m_file = file;
+      m_histogramFile = histogramFile;
+      m_numberOfColumns = numberOfColumns;
+      m_capacity = capacity;
+    }
+
+    private void openForAppend() throws IOException {
+      final RandomAccessFile randomAccessFile =
+        new RandomAccessFile(m_file, "rw");
+
+      // The mapping remains valid after the file is closed.
+      try {
+        m_buffer = randomAccessFile.getChannel()
+                   .map(FileChannel.MapMode.READ_WRITE,
+                        0,
+                        size(m_numberOfColumns, m_capacity));
+      }
+      finally {
+        randomAccessFile.close();
+      }
+
+      m_histograms = new RandomAccessFile(m_histogramFile, "rw");
+    }
+
+    public int getRowCount() {
+      return m_rowCount;
+    }
+
+    public long getFirstTime() {
+      return m_firstTime;
+    }
+
+    public long getLastTime() {
+      return m_lastTime;
+    }
+
+    public boolean isFull() {
+      return m_rowCount >= m_capacity;
+    }
+
+    private int offset(int column, int row) {
+      return HEADER_SIZE + (column * m_capacity + row) * 8;
+    }
+
+    public void append(long time, long[] values, byte[] histograms)
+      throws IOException {
+
+      if (m_buffer == null) {
+        openForAppend();
+      }
+
+      // Overwrite anything left by a partially written row.
+      m_histograms.seek(m_histogramLength);
+      m_histograms.write(histograms);
+      m_histogramLength += histograms.length;
+
+      m_buffer.putLong(offset(TIME_COLUMN, m_rowCount), time);
+      m_buffer.putLong(offset(HISTOGRAM_COLUMN, m_rowCount),
+                       m_histogramLength);
+
+      for (int i = 0; i < values.length; ++i) {
+        m_buffer.putLong(offset(FIRST_VALUE_COLUMN + i, m_rowCount),
+                         values[i]);
+      }
+
+      // Write the count last, so a partially written row is ignored.
+      m_buffer.putInt(ROW_COUNT_OFFSET, ++m_rowCount);
+
+      if (m_rowCount == 1) {
+        m_firstTime = time;
+      }
+
+      m_lastTime = time;
+    }
+
+    /**
+     * Return the segment data. If the segment is not mapped, it is read
+     * from disk.
+     */
+    public ByteBuffer getData() throws IOException {
+      if (m_buffer != null) {
+        return m_buffer;
+      }
+
+      final RandomAccessFile randomAccessFile =
+        new RandomAccessFile(m_file, "r");
+
+      try {
+        return read(randomAccessFile.getChannel(),
+                    ByteBuffer.allocate(
+                      (int)size(m_numberOfColumns, m_capacity)),
+                    0);
+      }
+      finally {
+        randomAccessFile.close();
+      }
+    }
+
+    public long getLong(ByteBuffer data, int column, int row) {
+      return data.getLong(offset(column, row));
+    }
+
+    public byte[] readHistograms(long start, long end) throws IOException {
+      final ByteBuffer result = ByteBuffer.allocate((int)(end - start));
+
+      if (m_histograms != null) {
+        read(m_histograms.getChannel(), result, start);
+      }
+      else {
+        final RandomAccessFile randomAccessFile =
+          new RandomAccessFile(m_histogramFile, "r");
+
+        try {
+          read(randomAccessFile.getChannel(), result, start);
+        }
+        finally {
+          randomAccessFile.close();
+        }
+      }
+
+      return result.array();
+    }
+
+    /**
+     * Binary search of the time column.
+     *
+     * @return The first row with a time no earlier than {@code time}, or the
+     *  row count if there is no such row.
+     */
+    public int findRow(ByteBuffer data, long time) {
+      int low = 0;
+      int high = m_rowCount;
+
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+
+        if (getLong(data, TIME_COLUMN, middle) < time) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+
+      return low;
+    }
+
+    public void close() throws IOException {
+      if (m_buffer != null) {
+        m_buffer.force();
+        m_buffer = null;
+
+        try {
+          m_histograms.getChannel().force(false);
+        }
+        finally {
+          m_histograms.close();
+          m_histograms = null;
+        }
+      }
+    }
+
+    public void delete() throws IOException {
+      close();
+
+      if (!m_file.delete() ||
+          m_histogramFile.exists() && !m_histogramFile.delete()) {
+        throw new IOException("Could not delete '" + m_file + "'");
+      }
+    }
+  }
+}
@@ -1,23 +1,55 @@
 package net.grinder.console.synchronisation;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import net.grinder.common.processidentity.ProcessIdentity;
 import net.grinder.console.communication.ConsoleCommunication;
-import net.grinder.synchronisation.LocalBarrierGroups;
-import net.grinder.synchronisation.BarrierGroup.Listener;
-import net.grinder.synchronisation.messages.BarrierIdentity;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
 import net.grinder.synchronisation.messages.OpenBarrierMessage;
 
 
 /**
  * Centralised record of distributed barriers.
  *
+ * <p>
+ * Each process reports the number of barriers and waiters it has for each
+ * barrier group. A process is either a worker process, or an agent that
+ * reports the totals for its worker processes. When the total number of
+ * waiters equals the total number of barriers, a single
+ * {@link OpenBarrierMessage} is sent to the agents, telling each process how
+ * many of its waiters to release.
+ * </p>
+ *
+ * <p>
+ * Once a barrier has been opened, reports from a process that it sent before
+ * it released its waiters are stale. The waiters in a stale report are not
+ * counted, so the barrier might open later than it could have, but never
+ * earlier.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
  * @author Philip Aston
  */
-final class ConsoleBarrierGroups extends LocalBarrierGroups {
+final class ConsoleBarrierGroups {
 
   private final ConsoleCommunication m_communication;
 
+  // Guarded by self.
+  private final Map<String, Group> m_groups = new HashMap<String, Group>();
+
+  // The processes reported live by the last call to retainProcesses().
+  // Guarded by m_groups.
+  private Set<ProcessIdentity> m_liveProcesses =
+    new HashSet<ProcessIdentity>();
+
   /**
    * Constructor.
    *
@@ -28,18 +60,204 @@ final class ConsoleBarrierGroups extends LocalBarrierGroups {
   }
 
   /**
-   * {@inheritDoc}
+   * Record a process report.
+   *
+   * @param state
+   *          The report. {@link BarrierStateMessage#getProcessIdentity()}
+   *          identifies the process.
    */
-  @Override
-  protected BarrierGroupImplementation createBarrierGroup(final String name) {
-    final BarrierGroupImplementation group = super.createBarrierGroup(name);
+  public void update(BarrierStateMessage state) {
+    final OpenBarrierMessage open;
+
+    synchronized (m_groups) {
+      final String name = state.getName();
+
+      Group group = m_groups.get(name);
 
-    group.addListener(new Listener() {
-        public void awaken(Set<BarrierIdentity> waiters) {
-          m_communication.sendToAgents(new OpenBarrierMessage(name, waiters));
+      if (group == null) {
+        group = new Group(name);
+        m_groups.put(name, group);
+      }
+
+      group.update(state.getProcessIdentity(), state);
+
+      open = group.checkCondition(state.getProcessIdentity(), state.getTime());
+
+      if (group.isEmpty()) {
+        m_groups.remove(name);
+      }
+    }
+
+    if (open != null) {
+      m_communication.sendToAgents(open);
+    }
+  }
+
+  /**
+   * Forget processes that have stopped. Their barriers and waiters are
+   * discarded, which might open other barriers.
+   *
+   * <p>
+   * A process's barrier reports can arrive before the console hears that the
+   * process has started. Only processes that were live at the previous call,
+   * and are no longer, are treated as stopped.
+   * </p>
+   *
+   * @param liveProcesses The agents and worker processes that are still
+   *        running.
+   */
+  public void retainProcesses(Set<ProcessIdentity> liveProcesses) {
+    final List<OpenBarrierMessage> opened = new ArrayList<OpenBarrierMessage>();
+
+    synchronized (m_groups) {
+      final Set<ProcessIdentity> stoppedProcesses = m_liveProcesses;
+      stoppedProcesses.removeAll(liveProcesses);
+      m_liveProcesses = new HashSet<ProcessIdentity>(liveProcesses);
+
+      final Iterator<Group> iterator = m_groups.values().iterator();
+
+      while (iterator.hasNext()) {
+        final Group group = iterator.next();
+
+        if (group.removeProcesses(stoppedProcesses)) {
+          final OpenBarrierMessage open = group.checkCondition(null, 0);
+
+          if (open != null) {
+            opened.add(open);
+          }
+        }
+
+        if (group.isEmpty()) {
+          iterator.remove();
         }
-      });
+      }
+    }
 
-    return group;
+    for (OpenBarrierMessage open : opened) {
+      m_communication.sendToAgents(open);
+    }
+  }
+
+  /**
+   * The state of a barrier group. Guarded by {@code m_groups}.
+   */
+  private static final class Group {
+    private final String m_name;
+
+    private final Map<ProcessIdentity, ProcessState> m_processes =
+      new HashMap<ProcessIdentity, ProcessState>();
+
+    private long m_barriers;
+    private long m_waiters;
+
+    public Group(String name) {
+      m_name = name;
+    }
+
+    public void update(ProcessIdentity process, BarrierStateMessage state) {
+      ProcessState processState = m_processes.get(process);
+
+      if (processState == null) {
+        processState = new ProcessState();
+        m_processes.put(process, processState);
+      }
+
+      m_barriers -= processState.m_barriers;
+      m_waiters -= processState.m_waiters;
+
+      processState.m_barriers = state.getBarriers();
+      processState.m_lastWaiter = state.getLastWaiter();
+
+      if (state.getReleased() < processState.m_released) {
+        // Stale - the process has yet to release the waiters we last opened.
+        processState.m_waiters = 0;
+      }
+      else {
+        processState.m_waiters = state.getWaiters();
+      }
+
+      m_barriers += processState.m_barriers;
+      m_waiters += processState.m_waiters;
+
+      if (processState.m_barriers == 0) {
+        // The process has discarded its barriers. Any further reports will
+        // be from a new group with the same name.
+        m_processes.remove(process);
+      }
+    }
+
+    public boolean removeProcesses(Set<ProcessIdentity> processes) {
+      boolean changed = false;
+
+      final Iterator<Entry<ProcessIdentity, ProcessState>> iterator =
+        m_processes.entrySet().iterator();
+
+      while (iterator.hasNext()) {
+        final Entry<ProcessIdentity, ProcessState> entry = iterator.next();
+
+        if (processes.contains(entry.getKey())) {
+          m_barriers -= entry.getValue().m_barriers;
+          m_waiters -= entry.getValue().m_waiters;
+          iterator.remove();
+          changed = true;
+        }
+      }
+
+      return changed;
+    }
+
+    public boolean isEmpty() {
+      return m_processes.isEmpty();
+    }
+
+    /**
+     * Check whether the barrier condition is satisfied. If so, clear the
+     * counted waiters.
+     *
+     * @param lastArrival
+     *          The process whose report triggered the check, or
+     *          {@code null}.
+     * @param lastArrivalTime
+     *          The time of the report, in the process's clock.
+     * @return The message to send, or {@code null} if the barrier condition
+     *         was not satisfied.
+     */
+    public OpenBarrierMessage checkCondition(ProcessIdentity lastArrival,
+                                            long lastArrivalTime) {
+      if (m_barriers == 0 || m_waiters != m_barriers) {
+        return null;
+      }
+
+      final Map<ProcessIdentity, Long> released =
+        new HashMap<ProcessIdentity, Long>();
+
+      for (Entry<ProcessIdentity, ProcessState> entry :
+           m_processes.entrySet()) {
+        final ProcessState processState = entry.getValue();
+
+        if (processState.m_waiters > 0) {
+          processState.m_released = processState.m_lastWaiter;
+          processState.m_waiters = 0;
+          released.put(entry.getKey(), processState.m_released);
+        }
+      }
+
+      m_waiters = 0;
+
+      return new OpenBarrierMessage(m_name,
+                                    released,
+                                    lastArrival,
+                                    lastArrivalTime);
+    }
+  }
+
+  /**
+   * A process's partition of a barrier group.
+   */
+  private static final class ProcessState {
+    private long m_barriers;
+    private long m_waiters;
+    private long m_lastWaiter;
+    private long m_released;
   }
 }
@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2011 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -44,6 +44,7 @@ abstract class AbstractWorkerFactory implements WorkerFactory {
   private final AgentIdentityImplementation m_agentIdentity;
   private final FanOutStreamSender m_fanOutStreamSender;
   private final boolean m_reportToConsole;
+  private final int m_agentReportPort;
   private final ScriptLocation m_script;
   private final GrinderProperties m_properties;
   private WorkerIdentity m_firstWorkerIdentity;
@@ -51,11 +52,13 @@ abstract class AbstractWorkerFactory implements WorkerFactory {
   protected AbstractWorkerFactory(AgentIdentityImplementation agentIdentity,
                                   FanOutStreamSender fanOutStreamSender,
                                   boolean reportToConsole,
+                                  int agentReportPort,
                                   ScriptLocation script,
                                   GrinderProperties properties) {
     m_agentIdentity = agentIdentity;
     m_fanOutStreamSender = fanOutStreamSender;
     m_reportToConsole = reportToConsole;
+    m_agentReportPort = agentReportPort;
     m_script = script;
     m_properties = properties;
   }
@@ -82,6 +85,7 @@ abstract class AbstractWorkerFactory implements WorkerFactory {
         new InitialiseGrinderMessage(workerIdentity,
                                      m_firstWorkerIdentity,
                                      m_reportToConsole,
+                                     m_agentReportPort,
                                      m_script,
                                      m_properties);
 
@@ -29,6 +29,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
 
 import net.grinder.common.GrinderBuild;
 import net.grinder.common.GrinderException;
@@ -45,6 +46,7 @@ import net.grinder.communication.IgnoreShutdownSender;
 import net.grinder.communication.MessageDispatchSender;
 import net.grinder.communication.MessagePump;
 import net.grinder.communication.TeeSender;
+import net.grinder.communication.MessageDispatchRegistry.AbstractHandler;
 import net.grinder.engine.common.ConnectorFactory;
 import net.grinder.engine.common.EngineException;
 import net.grinder.engine.common.ScriptLocation;
@@ -52,8 +54,12 @@ import net.grinder.engine.communication.ConsoleListener;
 import net.grinder.messages.agent.StartGrinderMessage;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.AgentProcessReportMessage;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.synchronisation.messages.OpenBarrierMessage;
 import net.grinder.util.Directory;
+import net.grinder.util.StandardTimeAuthority;
 import net.grinder.util.thread.Condition;
+import net.grinder.util.thread.ExecutorFactory;
 
 import org.slf4j.Logger;
 
@@ -236,6 +242,16 @@ public final class AgentImplementation implements Agent {
         while (script == null);
 
         if (script != null) {
+          final WorkerReportAggregator reportAggregator =
+            consoleCommunication != null &&
+            properties.getBoolean("grinder.reportToAgent", false) ?
+            consoleCommunication.createReportAggregator(
+              properties.getInt("grinder.reportToConsole.interval", 500)) :
+            null;
+
+          final int agentReportPort =
+            reportAggregator != null ? reportAggregator.getPort() : 0;
+
           final String jvmArguments =
             properties.getProperty("grinder.jvm.arguments");
 
@@ -254,7 +270,8 @@ public final class AgentImplementation implements Agent {
             workerFactory =
               new ProcessWorkerFactory(
                 workerCommandLine, m_agentIdentity, m_fanOutStreamSender,
-                consoleCommunication != null, script, properties);
+                consoleCommunication != null, agentReportPort, script,
+                properties);
           }
           else {
             m_logger.info(
@@ -269,7 +286,8 @@ public final class AgentImplementation implements Agent {
             workerFactory =
               new DebugThreadWorkerFactory(
                 m_agentIdentity, m_fanOutStreamSender,
-                consoleCommunication != null, script, properties);
+                consoleCommunication != null, agentReportPort, script,
+                properties);
           }
 
           final WorkerLauncher workerLauncher =
@@ -330,6 +348,10 @@ public final class AgentImplementation implements Agent {
           }
 
           workerLauncher.shutdown();
+
+          if (reportAggregator != null) {
+            reportAggregator.shutdown();
+          }
         }
 
         if (consoleCommunication == null) {
@@ -456,6 +478,8 @@ public final class AgentImplementation implements Agent {
     private final Connector m_connector;
     private final TimerTask m_reportRunningTask;
     private final MessagePump m_messagePump;
+    private final ExecutorService m_barrierExecutor;
+    private final WorkerBarrierAggregator m_barrierAggregator;
 
     public ConsoleCommunication(Connector connector)
         throws CommunicationException, FileStore.FileStoreException {
@@ -485,6 +509,30 @@ public final class AgentImplementation implements Agent {
         new MessageDispatchSender();
       m_consoleListener.registerMessageHandlers(messageDispatcher);
 
+      m_barrierExecutor =
+        ExecutorFactory.createThreadPool("barrier-aggregator", 1);
+
+      // Used by the workers of runs that report through the agent. It lasts
+      // as long as the connection, so the console sees our barrier reports
+      // in order.
+      m_barrierAggregator =
+        new WorkerBarrierAggregator(m_sender,
+                                    m_agentIdentity,
+                                    m_barrierExecutor,
+                                    new StandardTimeAuthority(),
+                                    m_logger);
+
+      fileStoreMessageDispatcher.set(
+        OpenBarrierMessage.class,
+        new AbstractHandler<OpenBarrierMessage>() {
+          public void handle(OpenBarrierMessage message)
+            throws CommunicationException {
+            // If we combine the barrier reports of our workers, tell them
+            // which of their waiters to release.
+            m_fanOutStreamSender.send(m_barrierAggregator.open(message));
+          }
+        });
+
       // Everything that the file store doesn't handle is tee'd to the
       // worker processes and our message handlers.
       fileStoreMessageDispatcher.addFallback(
@@ -520,6 +568,34 @@ public final class AgentImplementation implements Agent {
       return m_connector;
     }
 
+    /**
+     * Listen for statistics reports from the worker processes, and send
+     * the console a combined report every {@code reportInterval}
+     * milliseconds.
+     *
+     * @param reportInterval How often to report.
+     * @return The aggregator, or {@code null} if we could not listen for
+     * worker connections.
+     */
+    public WorkerReportAggregator createReportAggregator(long reportInterval) {
+      try {
+        return new WorkerReportAggregator(
+          m_sender,
+          m_timer,
+          reportInterval,
+          StatisticsServicesImplementation.getInstance()
+            .getStatisticsSetFactory(),
+          new StandardTimeAuthority(),
+          m_barrierAggregator,
+          m_logger);
+      }
+      catch (final CommunicationException e) {
+        m_logger.warn("{}, workers will report directly to the console",
+                      e.getMessage());
+        return null;
+      }
+    }
+
     public void shutdown() {
       m_reportRunningTask.cancel();
 
@@ -534,6 +610,7 @@ public final class AgentImplementation implements Agent {
       }
       finally {
         m_messagePump.shutdown();
+        m_barrierExecutor.shutdown();
       }
     }
   }
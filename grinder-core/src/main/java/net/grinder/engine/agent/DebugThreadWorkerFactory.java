@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2011 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -68,12 +68,14 @@ final class DebugThreadWorkerFactory extends AbstractWorkerFactory {
   public DebugThreadWorkerFactory(AgentIdentityImplementation agentIdentity,
                                   FanOutStreamSender fanOutStreamSender,
                                   boolean reportToConsole,
+                                  int agentReportPort,
                                   ScriptLocation script,
                                   GrinderProperties properties)
     throws EngineException {
     super(agentIdentity,
           fanOutStreamSender,
           reportToConsole,
+          agentReportPort,
           script,
           properties);
 
@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2011 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -34,16 +34,24 @@ import net.grinder.communication.MessageDispatchRegistry.AbstractHandler;
 import net.grinder.engine.common.EngineException;
 import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.messages.agent.ClearCacheMessage;
+import net.grinder.messages.agent.DistributeFileChunkMessage;
 import net.grinder.messages.agent.DistributeFileMessage;
 import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
 import net.grinder.util.Directory;
+import net.grinder.util.FileChunk;
 import net.grinder.util.FileContents;
 import net.grinder.util.StreamCopier;
 
 
 /**
- * Process {@link ClearCacheMessage}s and {@link DistributeFileMessage}s
- * received from the console.
+ * Process {@link ClearCacheMessage}s, {@link DistributeFileMessage}s, and
+ * {@link DistributeFileChunkMessage}s received from the console.
+ *
+ * <p>Each file is assembled from the chunks of the existing version of the
+ * file and those sent by the console. The console only sends the chunks it
+ * believes we don't have, based on our cache high water mark. If a file can't
+ * be completed, we discard our high water mark so that the console will clear
+ * the cache and send everything again.</p>
  *
  * @author Philip Aston
  */
@@ -52,6 +60,8 @@ final class FileStore {
 
   private final File m_readmeFile;
 
+  private final File m_partialFile;
+
   // Access guarded by self.
   private final Directory m_incomingDirectory;
 
@@ -60,6 +70,12 @@ final class FileStore {
   // Guarded by m_incomingDirectory
   private boolean m_incremental;
 
+  // Guarded by m_incomingDirectory
+  private IncomingFile m_incomingFile;
+
+  // Guarded by m_incomingDirectory
+  private boolean m_distributionFailed;
+
   private volatile CacheHighWaterMark m_cacheHighWaterMark =
     new OutOfDateCacheHighWaterMark();
 
@@ -82,6 +98,7 @@ final class FileStore {
     }
 
     m_readmeFile = new File(rootDirectory, "README.txt");
+    m_partialFile = new File(rootDirectory, "partial");
 
     try {
       m_incomingDirectory = new Directory(new File(rootDirectory, "incoming"));
@@ -135,6 +152,9 @@ final class FileStore {
 
           try {
             synchronized (m_incomingDirectory) {
+              discardIncomingFile();
+              m_distributionFailed = false;
+
               m_incomingDirectory.deleteContents();
               m_incremental = false;
             }
@@ -151,8 +171,10 @@ final class FileStore {
       new AbstractHandler<DistributeFileMessage>() {
         public void handle(DistributeFileMessage message)
           throws CommunicationException {
-          try {
-            synchronized (m_incomingDirectory) {
+          synchronized (m_incomingDirectory) {
+            checkIncomingFileComplete();
+
+            try {
               m_incomingDirectory.create();
 
               createReadmeFile();
@@ -160,16 +182,49 @@ final class FileStore {
               final FileContents fileContents = message.getFileContents();
 
               m_logger.info("Updating file store: {}", fileContents);
-              fileContents.create(m_incomingDirectory);
+
+              m_incomingFile =
+                new IncomingFile(
+                  fileContents,
+                  m_incomingDirectory.getFile(fileContents.getFilename()),
+                  m_partialFile);
+
+              completeIncomingFile();
+            }
+            catch (Directory.DirectoryException e) {
+              distributionFailed(e.getMessage(), e);
+            }
+            catch (IOException e) {
+              UncheckedInterruptedException.ioException(e);
+              distributionFailed("Failed to create file: " + e.getMessage(), e);
             }
           }
-          catch (FileContents.FileContentsException e) {
-            m_logger.error(e.getMessage());
-            throw new CommunicationException(e.getMessage(), e);
-          }
-          catch (Directory.DirectoryException e) {
-            m_logger.error(e.getMessage());
-            throw new CommunicationException(e.getMessage(), e);
+        }
+      });
+
+    messageDispatcher.set(
+      DistributeFileChunkMessage.class,
+      new AbstractHandler<DistributeFileChunkMessage>() {
+        public void handle(DistributeFileChunkMessage message)
+          throws CommunicationException {
+          synchronized (m_incomingDirectory) {
+            final FileChunk chunk = message.getFileChunk();
+
+            try {
+              if (m_incomingFile == null || !m_incomingFile.add(chunk)) {
+                m_logger.warn("Ignoring unexpected file chunk {}", chunk);
+                return;
+              }
+
+              completeIncomingFile();
+            }
+            catch (FileContents.FileContentsException e) {
+              distributionFailed(e.getMessage(), e);
+            }
+            catch (IOException e) {
+              UncheckedInterruptedException.ioException(e);
+              distributionFailed("Failed to create file: " + e.getMessage(), e);
+            }
           }
         }
       });
@@ -177,12 +232,53 @@ final class FileStore {
     messageDispatcher.set(
       DistributionCacheCheckpointMessage.class,
       new AbstractHandler<DistributionCacheCheckpointMessage>() {
-        public void handle(DistributionCacheCheckpointMessage message) {
-          m_cacheHighWaterMark = message.getCacheHighWaterMark();
+        public void handle(DistributionCacheCheckpointMessage message)
+          throws CommunicationException {
+          synchronized (m_incomingDirectory) {
+            checkIncomingFileComplete();
+
+            if (!m_distributionFailed) {
+              m_cacheHighWaterMark = message.getCacheHighWaterMark();
+            }
+          }
         }
       });
   }
 
+  private void completeIncomingFile() throws IOException {
+    if (m_incomingFile.isComplete()) {
+      final IncomingFile incomingFile = m_incomingFile;
+      m_incomingFile = null;
+      incomingFile.complete();
+    }
+  }
+
+  private void checkIncomingFileComplete() throws CommunicationException {
+    if (m_incomingFile != null) {
+      distributionFailed("Incomplete file " + m_incomingFile, null);
+    }
+  }
+
+  private void discardIncomingFile() {
+    if (m_incomingFile != null) {
+      m_incomingFile.discard();
+      m_incomingFile = null;
+    }
+  }
+
+  private void distributionFailed(String message, Exception e)
+    throws CommunicationException {
+
+    discardIncomingFile();
+
+    // Ignore further updates until the console clears the cache.
+    m_distributionFailed = true;
+    m_cacheHighWaterMark = new OutOfDateCacheHighWaterMark();
+
+    m_logger.error(message);
+    throw new CommunicationException(message, e);
+  }
+
   private void createReadmeFile() throws CommunicationException {
     if (!m_readmeFile.exists()) {
       try {
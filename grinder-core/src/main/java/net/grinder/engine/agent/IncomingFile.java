@@ -0,0 +1,214 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.agent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.util.FileChunk;
+import net.grinder.util.FileContents;
+import net.grinder.util.FileContents.FileContentsException;
+
+
+/**
+ * A file being assembled in the file store.
+ *
+ * <p>Chunks that are present in the existing version of the file are copied
+ * from it; the console will send the others.</p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class IncomingFile {
+
+  private final FileContents m_contents;
+  private final File m_targetFile;
+  private final File m_partialFile;
+  private final RandomAccessFile m_partial;
+
+  /** The indices of the chunks we're still waiting for, keyed by digest. */
+  private final Map<FileChunk.Digest, List<Integer>> m_missing =
+    new HashMap<FileChunk.Digest, List<Integer>>();
+
+  /**
+   * Constructor.
+   *
+   * @param contents Description of the file.
+   * @param targetFile Where the file should be created.
+   * @param partialFile File to use to assemble the chunks.
+   * @throws IOException If an I/O error occurs.
+   */
+  public IncomingFile(FileContents contents,
+                      File targetFile,
+                      File partialFile) throws IOException {
+    m_contents = contents;
+    m_targetFile = targetFile;
+    m_partialFile = partialFile;
+
+    final List<FileChunk.Digest> digests = contents.getChunkDigests();
+
+    for (int i = 0; i < digests.size(); ++i) {
+      List<Integer> indices = m_missing.get(digests.get(i));
+
+      if (indices == null) {
+        indices = new ArrayList<Integer>(1);
+        m_missing.put(digests.get(i), indices);
+      }
+
+      indices.add(i);
+    }
+
+    m_partial = new RandomAccessFile(partialFile, "rw");
+
+    try {
+      m_partial.setLength(contents.getLength());
+
+      if (targetFile.isFile()) {
+        copyExistingChunks();
+      }
+    }
+    catch (IOException e) {
+      discard();
+      throw e;
+    }
+  }
+
+  private void copyExistingChunks() throws IOException {
+    final RandomAccessFile existing = new RandomAccessFile(m_targetFile, "r");
+
+    try {
+      final byte[] buffer = new byte[FileContents.CHUNK_SIZE];
+      long remaining = existing.length();
+
+      while (remaining > 0 && !m_missing.isEmpty()) {
+        final int length = (int)Math.min(buffer.length, remaining);
+        existing.readFully(buffer, 0, length);
+        remaining -= length;
+
+        write(FileChunk.Digest.create(buffer, length), buffer, length);
+      }
+    }
+    finally {
+      existing.close();
+    }
+  }
+
+  private boolean write(FileChunk.Digest digest, byte[] data, int length)
+    throws IOException {
+
+    final List<Integer> indices = m_missing.remove(digest);
+
+    if (indices == null) {
+      return false;
+    }
+
+    for (int index : indices) {
+      m_partial.seek((long)index * FileContents.CHUNK_SIZE);
+      m_partial.write(data, 0, length);
+    }
+
+    return true;
+  }
+
+  /**
+   * Add a chunk sent by the console.
+   *
+   * @param chunk The chunk.
+   * @return {@code true} if the chunk was part of this file and hadn't
+   *  already been received.
+   * @throws FileContentsException If the chunk is corrupt.
+   * @throws IOException If an I/O error occurs.
+   */
+  public boolean add(FileChunk chunk)
+    throws FileContentsException, IOException {
+
+    if (!m_missing.containsKey(chunk.getDigest())) {
+      return false;
+    }
+
+    final byte[] data = chunk.getData();
+
+    return write(chunk.getDigest(), data, data.length);
+  }
+
+  /**
+   * Whether all the chunks are present.
+   *
+   * @return {@code true} if and only if the file is complete.
+   */
+  public boolean isComplete() {
+    return m_missing.isEmpty();
+  }
+
+  /**
+   * Replace the target file with the assembled file.
+   *
+   * @throws IOException If the target file could not be replaced.
+   */
+  public void complete() throws IOException {
+    m_partial.close();
+
+    if (m_targetFile.exists() &&
+        !(m_targetFile.canWrite() && m_targetFile.delete())) {
+      discard();
+      throw new IOException("Could not replace '" + m_targetFile + "'");
+    }
+
+    m_targetFile.getParentFile().mkdirs();
+
+    if (!m_partialFile.renameTo(m_targetFile)) {
+      discard();
+      throw new IOException("Could not create '" + m_targetFile + "'");
+    }
+  }
+
+  /**
+   * Abandon the assembly.
+   */
+  public void discard() {
+    try {
+      m_partial.close();
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+    }
+
+    m_partialFile.delete();
+  }
+
+  /**
+   * Return a description of the file.
+   *
+   * @return The description.
+   */
+  @Override public String toString() {
+    return m_contents.toString();
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2011 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -43,11 +43,13 @@ final class ProcessWorkerFactory extends AbstractWorkerFactory {
                               AgentIdentityImplementation agentIdentity,
                               FanOutStreamSender fanOutStreamSender,
                               boolean reportToConsole,
+                              int agentReportPort,
                               ScriptLocation script,
                               GrinderProperties properties) {
     super(agentIdentity,
           fanOutStreamSender,
           reportToConsole,
+          agentReportPort,
           script,
           properties);
 
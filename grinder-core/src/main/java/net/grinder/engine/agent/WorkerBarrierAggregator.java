@@ -0,0 +1,445 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+import net.grinder.common.processidentity.ProcessIdentity;
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.Sender;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
+import net.grinder.synchronisation.messages.OpenBarrierMessage;
+import net.grinder.util.TimeAuthority;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Combines the barrier state reported by the worker processes into a single
+ * report per barrier group for the console.
+ *
+ * <p>
+ * The agent takes part in each barrier group on behalf of its workers. It
+ * keeps the latest report from each worker, and sends the console a
+ * {@link BarrierStateMessage} with the total number of barriers and waiters.
+ * Worker reports that arrive whilst a report is being sent to the console
+ * are combined into the next report.
+ * </p>
+ *
+ * <p>
+ * The agent numbers its reports, and remembers which waiters of each worker
+ * were counted in each report. When the console opens a barrier, it tells
+ * the agent the number of the report to release. The agent translates this
+ * into an {@link OpenBarrierMessage} for its own workers. Reports from a
+ * worker that it sent before it released its waiters are stale, and their
+ * waiters are not counted, as for the console.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class WorkerBarrierAggregator {
+
+  private final Sender m_consoleSender;
+  private final ProcessIdentity m_agentIdentity;
+  private final Executor m_executor;
+  private final TimeAuthority m_timeAuthority;
+  private final Logger m_logger;
+
+  // Guarded by this. Groups are kept once created, so that the report
+  // numbers of successive groups with the same name keep increasing.
+  private final Map<String, Group> m_groups = new HashMap<String, Group>();
+
+  // Guarded by this.
+  private final Set<Group> m_changed = new LinkedHashSet<Group>();
+
+  private final Runnable m_flushTask = new Runnable() {
+      public void run() {
+        try {
+          flush();
+        }
+        catch (CommunicationException e) {
+          m_logger.error("Failed to report barrier state to the console", e);
+        }
+      }
+    };
+
+  /**
+   * Constructor.
+   *
+   * @param consoleSender Where to send the combined reports.
+   * @param agentIdentity The identity of this agent, as known to the console.
+   * @param executor Used to send the combined reports. Must run one task
+   * at a time, in order, so the console receives the reports in order.
+   * @param timeAuthority Knows the time.
+   * @param logger Logger.
+   */
+  public WorkerBarrierAggregator(Sender consoleSender,
+                                 ProcessIdentity agentIdentity,
+                                 Executor executor,
+                                 TimeAuthority timeAuthority,
+                                 Logger logger) {
+    m_consoleSender = consoleSender;
+    m_agentIdentity = agentIdentity;
+    m_executor = executor;
+    m_timeAuthority = timeAuthority;
+    m_logger = logger;
+  }
+
+  /**
+   * Record a report from a worker process, and arrange for the new totals
+   * to be sent to the console.
+   *
+   * @param state The report.
+   */
+  public void add(BarrierStateMessage state) {
+    final boolean schedule;
+
+    synchronized (this) {
+      Group group = m_groups.get(state.getName());
+
+      if (group == null) {
+        group = new Group(state.getName());
+        m_groups.put(state.getName(), group);
+      }
+
+      group.update(state.getProcessIdentity(), state);
+
+      schedule = changed(group);
+    }
+
+    if (schedule) {
+      m_executor.execute(m_flushTask);
+    }
+  }
+
+  /**
+   * Forget a worker process that has finished. Its barriers and waiters are
+   * discarded.
+   *
+   * @param worker The worker process.
+   */
+  public void removeWorker(ProcessIdentity worker) {
+    boolean schedule = false;
+
+    synchronized (this) {
+      for (Group group : m_groups.values()) {
+        if (group.removeWorker(worker)) {
+          schedule |= changed(group);
+        }
+      }
+    }
+
+    if (schedule) {
+      m_executor.execute(m_flushTask);
+    }
+  }
+
+  /**
+   * Forget all of the worker processes.
+   */
+  public void removeAllWorkers() {
+    boolean schedule = false;
+
+    synchronized (this) {
+      for (Group group : m_groups.values()) {
+        if (group.removeAllWorkers()) {
+          schedule |= changed(group);
+        }
+      }
+    }
+
+    if (schedule) {
+      m_executor.execute(m_flushTask);
+    }
+  }
+
+  private boolean changed(Group group) {
+    final boolean schedule = m_changed.isEmpty();
+    m_changed.add(group);
+    return schedule;
+  }
+
+  /**
+   * Process an {@link OpenBarrierMessage} from the console.
+   *
+   * @param message
+   *          The message.
+   * @return The message to pass on to the worker processes. If the message
+   *         releases waiters reported by this agent, a message that releases
+   *         the corresponding waiters of each worker process, otherwise
+   *         {@code message}.
+   */
+  public OpenBarrierMessage open(OpenBarrierMessage message) {
+    final OpenBarrierMessage result;
+    final boolean schedule;
+
+    synchronized (this) {
+      final Group group = m_groups.get(message.getName());
+      final long released = message.getReleased(m_agentIdentity);
+
+      if (group == null || released == 0) {
+        return message;
+      }
+
+      result =
+        group.open(released, m_agentIdentity.equals(message.getLastArrival()));
+
+      if (result == null) {
+        return message;
+      }
+
+      // Tell the console that we have released the waiters.
+      schedule = changed(group);
+    }
+
+    if (schedule) {
+      m_executor.execute(m_flushTask);
+    }
+
+    return result;
+  }
+
+  /**
+   * Send the console a report for each barrier group that has changed since
+   * the last flush. Does nothing if there are no changes.
+   *
+   * @throws CommunicationException If the reports could not be sent.
+   */
+  public void flush() throws CommunicationException {
+    final List<BarrierStateMessage> reports =
+      new ArrayList<BarrierStateMessage>();
+
+    synchronized (this) {
+      for (Group group : m_changed) {
+        reports.add(group.report(m_timeAuthority.getTimeInNanoseconds()));
+      }
+
+      m_changed.clear();
+    }
+
+    for (BarrierStateMessage report : reports) {
+      m_consoleSender.send(report);
+    }
+  }
+
+  /**
+   * This agent's partition of a barrier group. Guarded by the
+   * {@link WorkerBarrierAggregator}.
+   */
+  private static final class Group {
+    private final String m_name;
+
+    private final Map<ProcessIdentity, WorkerState> m_workers =
+      new HashMap<ProcessIdentity, WorkerState>();
+
+    // The reports we have sent that counted waiters, by report number.
+    private final SortedMap<Long, Report> m_reports =
+      new TreeMap<Long, Report>();
+
+    private long m_barriers;
+    private long m_waiters;
+    private long m_lastReport;
+    private long m_released;
+
+    private ProcessIdentity m_lastArrival;
+    private long m_lastArrivalTime;
+
+    public Group(String name) {
+      m_name = name;
+    }
+
+    public void update(ProcessIdentity worker, BarrierStateMessage state) {
+      WorkerState workerState = m_workers.get(worker);
+
+      if (workerState == null) {
+        workerState = new WorkerState();
+        m_workers.put(worker, workerState);
+      }
+
+      m_barriers -= workerState.m_barriers;
+      m_waiters -= workerState.m_waiters;
+
+      workerState.m_barriers = state.getBarriers();
+      workerState.m_lastWaiter = state.getLastWaiter();
+
+      if (state.getReleased() < workerState.m_released) {
+        // Stale - the worker has yet to release the waiters we last opened.
+        workerState.m_waiters = 0;
+      }
+      else {
+        workerState.m_waiters = state.getWaiters();
+      }
+
+      m_barriers += workerState.m_barriers;
+      m_waiters += workerState.m_waiters;
+
+      m_lastArrival = worker;
+      m_lastArrivalTime = state.getTime();
+
+      if (workerState.m_barriers == 0) {
+        // The worker process has discarded its barriers. Any further reports
+        // will be from a new group with the same name.
+        removeWorker(worker);
+      }
+    }
+
+    public boolean removeWorker(ProcessIdentity worker) {
+      final WorkerState workerState = m_workers.remove(worker);
+
+      if (workerState == null) {
+        return false;
+      }
+
+      m_barriers -= workerState.m_barriers;
+      m_waiters -= workerState.m_waiters;
+
+      if (m_workers.isEmpty()) {
+        m_reports.clear();
+      }
+
+      return true;
+    }
+
+    public boolean removeAllWorkers() {
+      if (m_workers.isEmpty()) {
+        return false;
+      }
+
+      m_workers.clear();
+      m_reports.clear();
+      m_barriers = 0;
+      m_waiters = 0;
+
+      return true;
+    }
+
+    public BarrierStateMessage report(long time) {
+      ++m_lastReport;
+
+      if (m_waiters > 0) {
+        final Map<ProcessIdentity, Long> lastWaiters =
+          new HashMap<ProcessIdentity, Long>();
+
+        for (Entry<ProcessIdentity, WorkerState> entry :
+             m_workers.entrySet()) {
+          if (entry.getValue().m_waiters > 0) {
+            lastWaiters.put(entry.getKey(), entry.getValue().m_lastWaiter);
+          }
+        }
+
+        m_reports.put(m_lastReport,
+                      new Report(lastWaiters,
+                                 m_lastArrival,
+                                 m_lastArrivalTime));
+      }
+
+      return new BarrierStateMessage(m_name,
+                                     m_barriers,
+                                     m_waiters,
+                                     m_lastReport,
+                                     m_released,
+                                     time);
+    }
+
+    /**
+     * Release the waiters counted in one of our reports.
+     *
+     * @param released
+     *          The report number.
+     * @param lastArrival
+     *          Whether the report opened the barrier.
+     * @return The message to send to the worker processes, or {@code null}
+     *         if there is nothing to release.
+     */
+    public OpenBarrierMessage open(long released, boolean lastArrival) {
+      if (released <= m_released) {
+        return null;
+      }
+
+      final Report report = m_reports.get(released);
+
+      // The console will not refer to earlier reports again.
+      m_reports.headMap(released + 1).clear();
+      m_released = released;
+
+      if (report == null) {
+        return null;
+      }
+
+      for (Entry<ProcessIdentity, Long> entry :
+           report.m_lastWaiters.entrySet()) {
+        final WorkerState workerState = m_workers.get(entry.getKey());
+
+        if (workerState != null) {
+          m_waiters -= workerState.m_waiters;
+          workerState.m_waiters = 0;
+          workerState.m_released = entry.getValue();
+        }
+      }
+
+      // Only the worker whose report opened the barrier can measure the
+      // release latency.
+      return new OpenBarrierMessage(m_name,
+                                    report.m_lastWaiters,
+                                    lastArrival ? report.m_lastArrival : null,
+                                    report.m_lastArrivalTime);
+    }
+  }
+
+  /**
+   * A worker process's partition of a barrier group.
+   */
+  private static final class WorkerState {
+    private long m_barriers;
+    private long m_waiters;
+    private long m_lastWaiter;
+    private long m_released;
+  }
+
+  /**
+   * The waiters counted in a report.
+   */
+  private static final class Report {
+    private final Map<ProcessIdentity, Long> m_lastWaiters;
+    private final ProcessIdentity m_lastArrival;
+    private final long m_lastArrivalTime;
+
+    public Report(Map<ProcessIdentity, Long> lastWaiters,
+                  ProcessIdentity lastArrival,
+                  long lastArrivalTime) {
+      m_lastWaiters = lastWaiters;
+      m_lastArrival = lastArrival;
+      m_lastArrivalTime = lastArrivalTime;
+    }
+  }
+}
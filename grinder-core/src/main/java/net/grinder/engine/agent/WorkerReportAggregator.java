@@ -0,0 +1,427 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.common.processidentity.ProcessReport;
+import net.grinder.common.processidentity.WorkerIdentity;
+import net.grinder.communication.Acceptor;
+import net.grinder.communication.ClientSender;
+import net.grinder.communication.CommunicationException;
+import net.grinder.communication.ConnectionIdentity;
+import net.grinder.communication.ConnectionType;
+import net.grinder.communication.Connector;
+import net.grinder.communication.Message;
+import net.grinder.communication.MessageDispatchSender;
+import net.grinder.communication.MessagePump;
+import net.grinder.communication.Sender;
+import net.grinder.communication.ServerReceiver;
+import net.grinder.communication.MessageDispatchRegistry.AbstractHandler;
+import net.grinder.messages.console.ConsoleMessageEncoders;
+import net.grinder.messages.console.RegisterTestsMessage;
+import net.grinder.messages.console.ReportStatisticsMessage;
+import net.grinder.messages.console.WorkerProcessReportMessage;
+import net.grinder.messages.console.WorkerProcessReportsMessage;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
+import net.grinder.util.TimeAuthority;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Receives statistics reports from the worker processes, and combines them
+ * into a single report for the console.
+ *
+ * <p>
+ * The aggregator listens on an ephemeral port on the loopback interface.
+ * Worker processes are told the port in their initialisation message, and
+ * send their {@link ReportStatisticsMessage}s, {@link RegisterTestsMessage}s
+ * and {@link WorkerProcessReportMessage}s to the agent rather than to the
+ * console.
+ * </p>
+ *
+ * <p>
+ * New tests are forwarded as they arrive, before any statistics that refer
+ * to them. The statistics are combined and sent periodically. The latest
+ * process report from each worker is sent with the statistics, unless the
+ * worker's state has changed, in which case the reports are sent straight
+ * away.
+ * </p>
+ *
+ * <p>
+ * Workers also send their {@link BarrierStateMessage}s to the agent, which
+ * are combined by a {@link WorkerBarrierAggregator}. All other worker
+ * messages go directly to the console.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class WorkerReportAggregator {
+
+  /** The address the workers should connect to. */
+  static final String LOOPBACK_ADDRESS = "127.0.0.1";
+
+  private static final long IDLE_POLL_DELAY = 500;
+  private static final long INACTIVE_CLIENT_TIME_OUT = 30000;
+  private static final long DISCONNECT_TIME_OUT = 5000;
+
+  private final Sender m_consoleSender;
+  private final Logger m_logger;
+  private final TimeAuthority m_timeAuthority;
+  private final TestStatisticsMap m_statistics;
+  private final Acceptor m_acceptor;
+  private final MessagePump m_messagePump;
+  private final TimerTask m_reportTask;
+  private final WorkerBarrierAggregator m_barrierAggregator;
+
+  /** Guarded by itself. */
+  private final Map<WorkerIdentity, WorkerProcessReportMessage>
+    m_processReports =
+      new LinkedHashMap<WorkerIdentity, WorkerProcessReportMessage>();
+
+  /** Guarded by m_processReports. */
+  private boolean m_processReportsChanged;
+
+  /** Guarded by itself. */
+  private final int[] m_numberOfConnections = { 0 };
+
+  private final CountDownLatch m_drained = new CountDownLatch(1);
+
+  /**
+   * Constructor.
+   *
+   * @param consoleSender Where to send the combined reports.
+   * @param timer Timer used to schedule the reports.
+   * @param reportInterval How often to report, in milliseconds.
+   * @param statisticsSetFactory Statistics set factory.
+   * @param timeAuthority Knows the time.
+   * @param barrierAggregator Combines the workers' barrier reports.
+   * @param logger Logger.
+   * @throws CommunicationException If the aggregator could not listen for
+   * worker connections.
+   */
+  public WorkerReportAggregator(Sender consoleSender,
+                                Timer timer,
+                                long reportInterval,
+                                StatisticsSetFactory statisticsSetFactory,
+                                TimeAuthority timeAuthority,
+                                WorkerBarrierAggregator barrierAggregator,
+                                Logger logger)
+    throws CommunicationException {
+
+    m_consoleSender = consoleSender;
+    m_barrierAggregator = barrierAggregator;
+    m_timeAuthority = timeAuthority;
+    m_logger = logger;
+    m_statistics = new TestStatisticsMap(statisticsSetFactory);
+
+    // The workers encode their reports in the binary wire format.
+    ConsoleMessageEncoders.register();
+
+    m_acceptor = new Acceptor(LOOPBACK_ADDRESS, 0, 1, timeAuthority);
+
+    m_acceptor.addListener(ConnectionType.WORKER, new Acceptor.Listener() {
+        public void connectionAccepted(ConnectionType connectionType,
+                                       ConnectionIdentity connection) {
+          synchronized (m_numberOfConnections) {
+            ++m_numberOfConnections[0];
+          }
+        }
+
+        public void connectionClosed(ConnectionType connectionType,
+                                     ConnectionIdentity connection) {
+          synchronized (m_numberOfConnections) {
+            --m_numberOfConnections[0];
+            m_numberOfConnections.notifyAll();
+          }
+        }
+      });
+
+    final Thread acceptorProblemListener =
+      new Thread("Worker report acceptor problem listener") {
+        @Override
+        public void run() {
+          while (true) {
+            final Exception exception = m_acceptor.getPendingException();
+
+            if (exception == null) {
+              // Acceptor is shutting down.
+              break;
+            }
+
+            m_logger.warn("Worker report connection failed", exception);
+          }
+        }
+      };
+
+    acceptorProblemListener.setDaemon(true);
+    acceptorProblemListener.start();
+
+    final ServerReceiver receiver = new ServerReceiver();
+
+    receiver.receiveFrom(m_acceptor,
+                         new ConnectionType[] { ConnectionType.WORKER },
+                         1,
+                         IDLE_POLL_DELAY,
+                         INACTIVE_CLIENT_TIME_OUT);
+
+    final MessageDispatchSender messageDispatcher =
+      new MessageDispatchSender();
+
+    messageDispatcher.set(
+      ReportStatisticsMessage.class,
+      new AbstractHandler<ReportStatisticsMessage>() {
+        public void handle(ReportStatisticsMessage message) {
+          m_statistics.add(message.getStatisticsDelta());
+        }
+      });
+
+    messageDispatcher.set(
+      RegisterTestsMessage.class,
+      new AbstractHandler<RegisterTestsMessage>() {
+        public void handle(RegisterTestsMessage message)
+          throws CommunicationException {
+          // The worker's statistics for the new tests follow this message,
+          // so the console receives the tests first.
+          m_consoleSender.send(message);
+        }
+      });
+
+    messageDispatcher.set(
+      WorkerProcessReportMessage.class,
+      new AbstractHandler<WorkerProcessReportMessage>() {
+        public void handle(WorkerProcessReportMessage message)
+          throws CommunicationException {
+          if (addProcessReport(message)) {
+            // Let the console know promptly when a worker starts or
+            // finishes, sending any statistics it reported first.
+            report();
+          }
+        }
+      });
+
+    messageDispatcher.set(
+      DrainedMessage.class,
+      new AbstractHandler<DrainedMessage>() {
+        public void handle(DrainedMessage message) {
+          m_drained.countDown();
+        }
+      });
+
+    messageDispatcher.set(
+      BarrierStateMessage.class,
+      new AbstractHandler<BarrierStateMessage>() {
+        public void handle(BarrierStateMessage message) {
+          m_barrierAggregator.add(message);
+        }
+      });
+
+    m_messagePump = new MessagePump(receiver, messageDispatcher, 1);
+    m_messagePump.start();
+
+    m_reportTask = new TimerTask() {
+      @Override
+      public void run() {
+        try {
+          report();
+        }
+        catch (CommunicationException e) {
+          cancel();
+          m_logger.error("Failed to report statistics to the console", e);
+        }
+      }
+    };
+
+    timer.schedule(m_reportTask, reportInterval, reportInterval);
+  }
+
+  /**
+   * The port on which we are listening for worker connections.
+   *
+   * @return The port.
+   */
+  public int getPort() {
+    return m_acceptor.getPort();
+  }
+
+  /**
+   * Record the latest process report for a worker.
+   *
+   * @return {@code true} if the worker's state has changed.
+   */
+  private boolean addProcessReport(WorkerProcessReportMessage message) {
+    synchronized (m_processReports) {
+      final WorkerProcessReportMessage previous =
+        m_processReports.put(message.getWorkerIdentity(), message);
+
+      if (message.getState() == ProcessReport.State.FINISHED) {
+        m_barrierAggregator.removeWorker(message.getWorkerIdentity());
+      }
+
+      m_processReportsChanged = true;
+
+      return previous == null || previous.getState() != message.getState();
+    }
+  }
+
+  /**
+   * Send the statistics received since the last report to the console,
+   * followed by the latest process reports. Does nothing if there are no
+   * new statistics or reports.
+   *
+   * @throws CommunicationException If the report could not be sent.
+   */
+  public synchronized void report() throws CommunicationException {
+    final TestStatisticsMap sample = m_statistics.reset();
+
+    if (sample.size() > 0) {
+      m_consoleSender.send(new ReportStatisticsMessage(sample));
+    }
+
+    final WorkerProcessReportsMessage processReports;
+
+    synchronized (m_processReports) {
+      if (!m_processReportsChanged) {
+        return;
+      }
+
+      processReports =
+        new WorkerProcessReportsMessage(
+          new ArrayList<WorkerProcessReportMessage>(
+            m_processReports.values()));
+
+      m_processReportsChanged = false;
+
+      // Finished workers won't report again.
+      final Iterator<WorkerProcessReportMessage> iterator =
+        m_processReports.values().iterator();
+
+      while (iterator.hasNext()) {
+        if (iterator.next().getState() == ProcessReport.State.FINISHED) {
+          iterator.remove();
+        }
+      }
+    }
+
+    m_consoleSender.send(processReports);
+  }
+
+  /**
+   * Wait for the workers to disconnect, send a final report to the console,
+   * and shut down.
+   */
+  public void shutdown() {
+    m_reportTask.cancel();
+
+    try {
+      awaitDisconnection();
+      report();
+    }
+    catch (CommunicationException e) {
+      // Ignore - peer has probably shut down.
+    }
+    finally {
+      m_messagePump.shutdown();
+
+      // Discard the barriers of any workers that did not finish cleanly.
+      m_barrierAggregator.removeAllWorkers();
+
+      try {
+        m_acceptor.shutdown();
+      }
+      catch (CommunicationException e) {
+        m_logger.warn("Failed to shut down worker report acceptor", e);
+      }
+    }
+  }
+
+  private void awaitDisconnection() {
+    // The workers disconnect after sending their final reports.
+    final long giveUpTime =
+      m_timeAuthority.getTimeInMilliseconds() + DISCONNECT_TIME_OUT;
+
+    synchronized (m_numberOfConnections) {
+      while (m_numberOfConnections[0] > 0) {
+        final long remaining =
+          giveUpTime - m_timeAuthority.getTimeInMilliseconds();
+
+        if (remaining <= 0) {
+          break;
+        }
+
+        try {
+          m_numberOfConnections.wait(remaining);
+        }
+        catch (InterruptedException e) {
+          throw new UncheckedInterruptedException(e);
+        }
+      }
+    }
+
+    // The last messages from a worker might not have been dispatched when
+    // its connection closes. Send ourselves a message that will be
+    // dispatched after them.
+    try {
+      final ClientSender sender =
+        ClientSender.connect(
+          new Connector(LOOPBACK_ADDRESS, getPort(), ConnectionType.WORKER),
+          null);
+
+      try {
+        sender.send(new DrainedMessage());
+      }
+      finally {
+        sender.shutdown();
+      }
+
+      m_drained.await(
+        Math.max(giveUpTime - m_timeAuthority.getTimeInMilliseconds(), 0),
+        TimeUnit.MILLISECONDS);
+    }
+    catch (CommunicationException e) {
+      m_logger.warn("Failed to wait for worker reports", e);
+    }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+  }
+
+  /**
+   * Marks the end of the worker messages.
+   */
+  private static final class DrainedMessage implements Message {
+    private static final long serialVersionUID = 1L;
+  }
+}
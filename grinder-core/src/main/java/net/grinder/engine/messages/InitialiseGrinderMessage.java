@@ -1,4 +1,4 @@
-// Copyright (C) 2000 - 2008 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -34,11 +34,12 @@ import net.grinder.engine.common.ScriptLocation;
  */
 public final class InitialiseGrinderMessage implements Message {
 
-  private static final long serialVersionUID = 5L;
+  private static final long serialVersionUID = 6L;
 
   private final WorkerIdentity m_workerIdentity;
   private final WorkerIdentity m_firstWorkerIdentity;
   private final boolean m_reportToConsole;
+  private final int m_agentReportPort;
   private final ScriptLocation m_script;
   private final GrinderProperties m_properties;
 
@@ -50,17 +51,22 @@ public final class InitialiseGrinderMessage implements Message {
    *  generation.
    * @param reportToConsole Whether or not the worker process should
    * report to the console.
+   * @param agentReportPort Port on which the agent is listening for
+   * statistics reports on the loopback interface, or <code>0</code> if the
+   * worker process should send its statistics directly to the console.
    * @param script The script to run.
    * @param properties Properties from the agent.
    */
   public InitialiseGrinderMessage(WorkerIdentity workerIdentity,
                                   WorkerIdentity firstWorkerIdentity,
                                   boolean reportToConsole,
+                                  int agentReportPort,
                                   ScriptLocation script,
                                   GrinderProperties properties) {
     m_workerIdentity = workerIdentity;
     m_firstWorkerIdentity = firstWorkerIdentity;
     m_reportToConsole = reportToConsole;
+    m_agentReportPort = agentReportPort;
     m_script = script;
     m_properties = properties;
   }
@@ -93,6 +99,17 @@ public final class InitialiseGrinderMessage implements Message {
     return m_reportToConsole;
   }
 
+  /**
+   * Accessor.
+   *
+   * @return The port on which the agent is listening for statistics
+   * reports on the loopback interface, or <code>0</code> if the worker
+   * process should send its statistics directly to the console.
+   */
+  public int getAgentReportPort() {
+    return m_agentReportPort;
+  }
+
   /**
    * Accessor.
    *
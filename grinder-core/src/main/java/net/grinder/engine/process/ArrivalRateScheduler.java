@@ -0,0 +1,388 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import java.util.Random;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.engine.common.EngineException;
+import net.grinder.util.Sleeper;
+import net.grinder.util.TimeAuthority;
+
+
+/**
+ * {@link RunScheduler} that issues tickets at a configured arrival rate.
+ *
+ * <p>
+ * The scheduled start time of each ticket depends only on the arrival
+ * pattern, not on when earlier runs complete. If all worker threads are busy
+ * when a ticket falls due, the ticket waits. The wait is recorded, so that
+ * saturation of the system under test is visible rather than being hidden
+ * by the worker threads backing off.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class ArrivalRateScheduler implements RunScheduler {
+
+  /**
+   * Property that enables the open workload model. The initial number of
+   * tickets issued per second.
+   */
+  public static final String ARRIVAL_RATE_PROPERTY = "grinder.arrivalRate";
+
+  private static final String PATTERN_PROPERTY =
+    ARRIVAL_RATE_PROPERTY + ".pattern";
+  private static final String TICKETS_PROPERTY =
+    ARRIVAL_RATE_PROPERTY + ".tickets";
+  private static final String STEP_INCREMENT_PROPERTY =
+    ARRIVAL_RATE_PROPERTY + ".stepIncrement";
+  private static final String STEP_INTERVAL_PROPERTY =
+    ARRIVAL_RATE_PROPERTY + ".stepInterval";
+  private static final String TARGET_PROPERTY =
+    ARRIVAL_RATE_PROPERTY + ".target";
+  private static final String RAMP_TIME_PROPERTY =
+    ARRIVAL_RATE_PROPERTY + ".rampTime";
+
+  private final ArrivalPattern m_pattern;
+  private final long m_maximumTickets;
+  private final TimeAuthority m_timeAuthority;
+  private final Sleeper m_sleeper;
+  private final Random m_random;
+
+  // Guarded by this.
+  private long m_startTime = -1;
+  private double m_nextOffset = 0;
+  private long m_ticketsIssued = 0;
+  private long m_ticketsStarted = 0;
+  private long m_totalWaitTime = 0;
+  private long m_maximumWaitTime = 0;
+
+  /**
+   * Factory method.
+   *
+   * @param properties
+   *          The worker process properties.
+   * @param timeAuthority
+   *          Time authority.
+   * @param sleeper
+   *          Used to wait for each ticket's scheduled start time. Sleep
+   *          factors and variation should not be applied.
+   * @return The scheduler, or {@code null} if the properties do not specify
+   *         an arrival rate.
+   * @throws EngineException
+   *           If the properties are invalid.
+   */
+  public static ArrivalRateScheduler create(GrinderProperties properties,
+                                            TimeAuthority timeAuthority,
+                                            Sleeper sleeper)
+    throws EngineException {
+
+    final double rate = properties.getDouble(ARRIVAL_RATE_PROPERTY, 0);
+
+    if (rate <= 0) {
+      return null;
+    }
+
+    final String patternName =
+      properties.getProperty(PATTERN_PROPERTY, "constant").trim();
+
+    final ArrivalPattern pattern;
+
+    if ("constant".equals(patternName)) {
+      pattern = new ConstantPattern(rate);
+    }
+    else if ("poisson".equals(patternName)) {
+      pattern = new PoissonPattern(rate);
+    }
+    else if ("step".equals(patternName)) {
+      final double increment =
+        properties.getDouble(STEP_INCREMENT_PROPERTY, 0);
+      final long interval = properties.getLong(STEP_INTERVAL_PROPERTY, 0);
+
+      if (increment < 0 || interval <= 0) {
+        throw new EngineException(
+          "The step pattern requires " + STEP_INCREMENT_PROPERTY +
+          " >= 0 and " + STEP_INTERVAL_PROPERTY + " > 0");
+      }
+
+      pattern = new StepPattern(rate, increment, interval);
+    }
+    else if ("ramp".equals(patternName)) {
+      final double target = properties.getDouble(TARGET_PROPERTY, rate);
+      final long rampTime = properties.getLong(RAMP_TIME_PROPERTY, 0);
+
+      if (target <= 0 || rampTime <= 0) {
+        throw new EngineException(
+          "The ramp pattern requires " + TARGET_PROPERTY + " > 0 and " +
+          RAMP_TIME_PROPERTY + " > 0");
+      }
+
+      pattern = new RampPattern(rate, target, rampTime);
+    }
+    else {
+      throw new EngineException(
+        "Unknown " + PATTERN_PROPERTY + " '" + patternName +
+        "', should be one of constant, poisson, step, ramp");
+    }
+
+    return new ArrivalRateScheduler(pattern,
+                                    properties.getLong(TICKETS_PROPERTY, 0),
+                                    timeAuthority,
+                                    sleeper,
+                                    new Random());
+  }
+
+  /**
+   * Constructor.
+   *
+   * <p>Package scope for unit tests.</p>
+   *
+   * @param pattern
+   *          The arrival pattern.
+   * @param maximumTickets
+   *          The total number of tickets to issue. 0 means no limit.
+   * @param timeAuthority
+   *          Time authority.
+   * @param sleeper
+   *          Used to wait for the scheduled start time.
+   * @param random
+   *          Source of randomness.
+   */
+  ArrivalRateScheduler(ArrivalPattern pattern,
+                       long maximumTickets,
+                       TimeAuthority timeAuthority,
+                       Sleeper sleeper,
+                       Random random) {
+    m_pattern = pattern;
+    m_maximumTickets = maximumTickets;
+    m_timeAuthority = timeAuthority;
+    m_sleeper = sleeper;
+    m_random = random;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public Ticket nextTicket() throws Sleeper.ShutdownException {
+
+    final long number;
+    final long scheduledTime;
+
+    synchronized (this) {
+      if (m_maximumTickets > 0 && m_ticketsIssued >= m_maximumTickets) {
+        return null;
+      }
+
+      if (m_startTime < 0) {
+        // The schedule starts when the first ticket is requested, which
+        // is when the worker threads are released.
+        m_startTime = m_timeAuthority.getTimeInMilliseconds();
+      }
+
+      number = m_ticketsIssued++;
+      scheduledTime = m_startTime + (long)m_nextOffset;
+      m_nextOffset += m_pattern.getInterval(m_nextOffset, m_random);
+    }
+
+    final long delay = scheduledTime - m_timeAuthority.getTimeInMilliseconds();
+
+    if (delay > 0) {
+      m_sleeper.sleepNormal(delay, 0);
+    }
+
+    final Ticket ticket =
+      new Ticket(number, scheduledTime, m_timeAuthority.getTimeInMilliseconds());
+
+    final long waitTime = ticket.getWaitTime();
+
+    synchronized (this) {
+      ++m_ticketsStarted;
+      m_totalWaitTime += waitTime;
+      m_maximumWaitTime = Math.max(m_maximumWaitTime, waitTime);
+    }
+
+    return ticket;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public String getDescription() {
+    final StringBuilder result = new StringBuilder();
+
+    result.append(m_pattern);
+
+    if (m_maximumTickets > 0) {
+      result.append(", ").append(m_maximumTickets).append(" tickets");
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * The number of tickets that have been handed to worker threads.
+   *
+   * @return The number of tickets.
+   */
+  public synchronized long getTicketsStarted() {
+    return m_ticketsStarted;
+  }
+
+  /**
+   * The total time tickets have spent waiting for a free worker thread.
+   *
+   * @return The time in milliseconds.
+   */
+  public synchronized long getTotalWaitTime() {
+    return m_totalWaitTime;
+  }
+
+  /**
+   * The longest time a ticket has spent waiting for a free worker thread.
+   *
+   * @return The time in milliseconds.
+   */
+  public synchronized long getMaximumWaitTime() {
+    return m_maximumWaitTime;
+  }
+
+  /**
+   * Strategy that determines the time between arrivals.
+   *
+   * <p>Package scope for unit tests.</p>
+   */
+  interface ArrivalPattern {
+
+    /**
+     * Calculate the interval to the next arrival.
+     *
+     * @param offset
+     *          Time of the current arrival, in milliseconds since the start
+     *          of the schedule.
+     * @param random
+     *          Source of randomness.
+     * @return The interval in milliseconds.
+     */
+    double getInterval(double offset, Random random);
+  }
+
+  /**
+   * Arrivals are evenly spaced.
+   */
+  static final class ConstantPattern implements ArrivalPattern {
+    private final double m_rate;
+
+    ConstantPattern(double rate) {
+      m_rate = rate;
+    }
+
+    @Override public double getInterval(double offset, Random random) {
+      return 1000d / m_rate;
+    }
+
+    @Override public String toString() {
+      return m_rate + " tickets/s";
+    }
+  }
+
+  /**
+   * Arrivals form a Poisson process, so intervals are exponentially
+   * distributed.
+   */
+  static final class PoissonPattern implements ArrivalPattern {
+    private final double m_rate;
+
+    PoissonPattern(double rate) {
+      m_rate = rate;
+    }
+
+    @Override public double getInterval(double offset, Random random) {
+      return -Math.log(1d - random.nextDouble()) * 1000d / m_rate;
+    }
+
+    @Override public String toString() {
+      return "Poisson arrivals, mean " + m_rate + " tickets/s";
+    }
+  }
+
+  /**
+   * The rate increases by a fixed increment at regular intervals.
+   */
+  static final class StepPattern implements ArrivalPattern {
+    private final double m_rate;
+    private final double m_increment;
+    private final long m_interval;
+
+    StepPattern(double rate, double increment, long interval) {
+      m_rate = rate;
+      m_increment = increment;
+      m_interval = interval;
+    }
+
+    @Override public double getInterval(double offset, Random random) {
+      final long steps = (long)(offset / m_interval);
+
+      return 1000d / (m_rate + steps * m_increment);
+    }
+
+    @Override public String toString() {
+      return m_rate + " tickets/s, increasing by " + m_increment +
+             " every " + m_interval + " ms";
+    }
+  }
+
+  /**
+   * The rate changes linearly to a target rate, then remains constant.
+   */
+  static final class RampPattern implements ArrivalPattern {
+    private final double m_rate;
+    private final double m_target;
+    private final long m_rampTime;
+
+    RampPattern(double rate, double target, long rampTime) {
+      m_rate = rate;
+      m_target = target;
+      m_rampTime = rampTime;
+    }
+
+    @Override public double getInterval(double offset, Random random) {
+      final double rate;
+
+      if (offset >= m_rampTime) {
+        rate = m_target;
+      }
+      else {
+        rate = m_rate + (m_target - m_rate) * offset / m_rampTime;
+      }
+
+      return 1000d / rate;
+    }
+
+    @Override public String toString() {
+      return m_rate + " tickets/s, ramping to " + m_target + " tickets/s over " +
+             m_rampTime + " ms";
+    }
+  }
+}
@@ -0,0 +1,431 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.grinder.common.Test;
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.statistics.ExpressionView;
+import net.grinder.statistics.StatisticExpression;
+import net.grinder.statistics.StatisticsSet;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Data log that writes fixed width binary records to a memory mapped file.
+ *
+ * <p>
+ * Each worker thread has its own ring buffer. {@link ThreadLog#report}
+ * evaluates the detail expression views and copies the results to the
+ * buffer without taking a lock. A background thread drains the buffers to
+ * the file. Each buffer starts small, and grows when full up to a
+ * configured maximum capacity. A worker thread only waits if its buffer is
+ * full and at its maximum capacity.
+ * </p>
+ *
+ * <p>
+ * File format:
+ * </p>
+ *
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   long    data length          Number of bytes of records.
+ *   int     number of expression views
+ *     boolean  is double
+ *     UTF      display name
+ *   records
+ *     int      thread number
+ *     int      run number
+ *     int      test number
+ *     long     start time
+ *     long[]   expression view values, doubles as raw long bits
+ * </pre>
+ *
+ * <p>
+ * Records from different threads are interleaved. Use
+ * {@link BinaryDataLogConverter} to convert a file to the CSV format used by
+ * the text data log.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class BinaryDataLog {
+
+  static final int MAGIC = 0x47444C31;
+  static final int VERSION = 1;
+  static final int DATA_LENGTH_OFFSET = 8;
+
+  /** Size of the fixed part of a record. */
+  static final int RECORD_HEADER_SIZE = 20;
+
+  /** Default maximum number of records buffered for each thread. */
+  static final int DEFAULT_BUFFER_SIZE = 1 << 12;
+
+  private static final int REGION_SIZE = 1 << 23;
+  private static final int INITIAL_RING_CAPACITY = 1 << 6;
+  private static final long DRAIN_INTERVAL = 10;
+
+  private final ExpressionView[] m_expressionViews;
+  private final int m_recordSize;
+  private final int m_maximumRingCapacity;
+  private final RandomAccessFile m_file;
+  private final Logger m_logger;
+
+  private final List<ThreadLog> m_threadLogs =
+    new CopyOnWriteArrayList<ThreadLog>();
+
+  private final Thread m_writerThread;
+
+  private volatile boolean m_closed;
+  private volatile boolean m_failed;
+
+  /** Accessed only by the writer thread once started. */
+  private final MappedByteBuffer m_headerRegion;
+  private final long m_dataStart;
+  private MappedByteBuffer m_region;
+  private long m_regionStart;
+
+  /**
+   * Constructor.
+   *
+   * @param file The file to write.
+   * @param expressionViews The expression views to record.
+   * @param bufferSize
+   *          The maximum number of records buffered for each thread. Rounded
+   *          up to a power of two.
+   * @param logger Logger.
+   * @throws IOException If the file could not be created.
+   */
+  public BinaryDataLog(File file,
+                       ExpressionView[] expressionViews,
+                       int bufferSize,
+                       Logger logger)
+    throws IOException {
+
+    if (bufferSize < 1 || bufferSize > 1 << 30) {
+      throw new IllegalArgumentException(
+        "Invalid buffer size " + bufferSize);
+    }
+
+    m_expressionViews = expressionViews;
+    m_recordSize = RECORD_HEADER_SIZE + expressionViews.length * 8;
+    m_maximumRingCapacity = Integer.highestOneBit((bufferSize << 1) - 1);
+    m_logger = logger;
+
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    final DataOutputStream header = new DataOutputStream(byteStream);
+
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.writeLong(0);
+    header.writeInt(expressionViews.length);
+
+    for (ExpressionView expressionView : expressionViews) {
+      header.writeBoolean(expressionView.getExpression().isDouble());
+      header.writeUTF(expressionView.getDisplayName());
+    }
+
+    header.close();
+
+    m_file = new RandomAccessFile(file, "rw");
+
+    try {
+      m_file.setLength(0);
+      m_headerRegion = map(0);
+    }
+    catch (IOException e) {
+      m_file.close();
+      throw e;
+    }
+
+    m_headerRegion.put(byteStream.toByteArray());
+    m_region = m_headerRegion;
+    m_regionStart = 0;
+    m_dataStart = m_headerRegion.position();
+
+    m_writerThread = new Thread("Binary data log writer") {
+        public void run() { writerLoop(); }
+      };
+
+    m_writerThread.setDaemon(true);
+    m_writerThread.start();
+  }
+
+  private MappedByteBuffer map(long position) throws IOException {
+    return m_file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                                   position,
+                                   REGION_SIZE);
+  }
+
+  /**
+   * Create a log for a worker thread. The result should only be used by a
+   * single thread.
+   *
+   * @param threadNumber The worker thread number.
+   * @return The thread log.
+   */
+  public ThreadLog createThreadLog(int threadNumber) {
+    final ThreadLog result = new ThreadLog(threadNumber);
+    m_threadLogs.add(result);
+    return result;
+  }
+
+  /**
+   * Write out any outstanding records and close the file. Records reported
+   * after this has been called are discarded.
+   *
+   * @throws IOException If the file could not be closed.
+   */
+  public void close() throws IOException {
+    m_closed = true;
+
+    LockSupport.unpark(m_writerThread);
+
+    try {
+      m_writerThread.join();
+    }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+
+    m_headerRegion.force();
+    m_region.force();
+
+    final long length = m_regionStart + m_region.position();
+
+    try {
+      m_file.setLength(length);
+    }
+    catch (IOException e) {
+      // Some platforms do not allow a mapped file to be truncated. The file
+      // will be padded with zeros; readers use the data length.
+      m_logger.warn("Failed to truncate binary data log to " + length +
+                    " bytes", e);
+    }
+    finally {
+      m_file.close();
+    }
+  }
+
+  private void writerLoop() {
+    try {
+      while (true) {
+        // Read m_closed before draining so we don't miss late records.
+        final boolean closed = m_closed;
+
+        boolean drained = false;
+
+        for (ThreadLog threadLog : m_threadLogs) {
+          drained |= threadLog.drain();
+        }
+
+        if (drained) {
+          m_headerRegion.putLong(DATA_LENGTH_OFFSET,
+                                 m_regionStart + m_region.position() -
+                                 m_dataStart);
+        }
+        else if (closed) {
+          break;
+        }
+        else {
+          LockSupport.parkNanos(
+            TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL));
+        }
+      }
+    }
+    catch (IOException e) {
+      m_logger.error("Failed to write binary data log, discarding records", e);
+      m_failed = true;
+    }
+  }
+
+  private MappedByteBuffer regionFor(int size) throws IOException {
+    if (m_region.remaining() < size) {
+      m_regionStart += m_region.position();
+      m_region = map(m_regionStart);
+    }
+
+    return m_region;
+  }
+
+  /**
+   * Per-thread ring buffer. Single producer, single consumer.
+   *
+   * <p>
+   * The producer grows the ring by copying the live entries to a larger
+   * array before publishing further entries. The consumer reads the head
+   * before the ring, so the ring it reads holds every entry up to that
+   * head.
+   * </p>
+   */
+  final class ThreadLog {
+    private final int m_threadNumber;
+
+    /** Each entry: run number, test number, start time, values. */
+    private final int m_entrySize = 3 + m_expressionViews.length;
+
+    /** Only written by the producer. */
+    private volatile long[] m_ring =
+      new long[Math.min(INITIAL_RING_CAPACITY, m_maximumRingCapacity) *
+               m_entrySize];
+
+    /** Next entry to write. Only written by the producer. */
+    private final AtomicLong m_head = new AtomicLong();
+
+    /** Next entry to read. Only written by the consumer. */
+    private final AtomicLong m_tail = new AtomicLong();
+
+    private ThreadLog(int threadNumber) {
+      m_threadNumber = threadNumber;
+    }
+
+    /**
+     * Record a test result. Only waits if the ring buffer is full.
+     *
+     * @param runNumber The run number.
+     * @param test The test.
+     * @param startTime The start time.
+     * @param statistics The test statistics.
+     */
+    public void report(int runNumber,
+                       Test test,
+                       long startTime,
+                       StatisticsSet statistics) {
+
+      if (m_closed || m_failed) {
+        return;
+      }
+
+      final long head = m_head.get();
+
+      long[] ring = m_ring;
+
+      while (head - m_tail.get() >= ring.length / m_entrySize) {
+        if (ring.length / m_entrySize < m_maximumRingCapacity) {
+          ring = grow(ring, head);
+          break;
+        }
+
+        if (m_closed || m_failed) {
+          return;
+        }
+
+        LockSupport.unpark(m_writerThread);
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+
+      final int capacity = ring.length / m_entrySize;
+
+      int i = (int)(head & (capacity - 1)) * m_entrySize;
+
+      ring[i++] = runNumber;
+      ring[i++] = test.getNumber();
+      ring[i++] = startTime;
+
+      for (ExpressionView expressionView : m_expressionViews) {
+        final StatisticExpression expression = expressionView.getExpression();
+
+        if (expression.isDouble()) {
+          ring[i++] =
+            Double.doubleToRawLongBits(expression.getDoubleValue(statistics));
+        }
+        else {
+          ring[i++] = expression.getLongValue(statistics);
+        }
+      }
+
+      // Publish the entry.
+      m_head.lazySet(head + 1);
+    }
+
+    /**
+     * Called by the producer when the ring is full.
+     */
+    private long[] grow(long[] ring, long head) {
+      final int capacity = ring.length / m_entrySize;
+      final long[] result = new long[ring.length * 2];
+
+      // The consumer may free entries concurrently; copying them is
+      // harmless.
+      for (long n = m_tail.get(); n < head; ++n) {
+        System.arraycopy(ring,
+                         (int)(n & (capacity - 1)) * m_entrySize,
+                         result,
+                         (int)(n & (capacity * 2 - 1)) * m_entrySize,
+                         m_entrySize);
+      }
+
+      m_ring = result;
+
+      return result;
+    }
+
+    /**
+     * Called by the writer thread.
+     *
+     * @return {@code true} if any records were written.
+     */
+    private boolean drain() throws IOException {
+      final long tail = m_tail.get();
+      final long head = m_head.get();
+
+      // Read after the head; see the class comment.
+      final long[] ring = m_ring;
+      final int capacity = ring.length / m_entrySize;
+
+      for (long n = tail; n < head; ++n) {
+        final MappedByteBuffer region = regionFor(m_recordSize);
+
+        int i = (int)(n & (capacity - 1)) * m_entrySize;
+
+        region.putInt(m_threadNumber);
+        region.putInt((int) ring[i++]);
+        region.putInt((int) ring[i++]);
+
+        for (int j = 2; j < m_entrySize; ++j) {
+          region.putLong(ring[i++]);
+        }
+
+        // Free the entry.
+        m_tail.lazySet(n + 1);
+      }
+
+      return head != tail;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StreamCorruptedException;
+import java.io.Writer;
+
+import net.grinder.common.GrinderException;
+import net.grinder.util.AbstractMainClass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Converts a binary data log written with {@code grinder.binaryDataLog} to
+ * the CSV format of the text data log.
+ *
+ * @author Philip Aston
+ * @see BinaryDataLog
+ */
+public final class BinaryDataLogConverter extends AbstractMainClass {
+
+  private static final String USAGE =
+    "  java " + BinaryDataLogConverter.class.getName() + " binary-data-log" +
+    "\n\n" +
+    "The CSV data is written to the standard output stream." +
+    "\n\n";
+
+  private static final String SEPARATOR = ", ";
+
+  private static final String LINE_SEPARATOR =
+    System.getProperty("line.separator");
+
+  /**
+   * Entry point.
+   *
+   * @param args Command line arguments.
+   */
+  public static void main(String[] args) {
+    final Logger logger = LoggerFactory.getLogger("BinaryDataLogConverter");
+
+    try {
+      final BinaryDataLogConverter converter =
+        new BinaryDataLogConverter(args, logger);
+      converter.run();
+    }
+    catch (LoggedInitialisationException e) {
+      System.exit(1);
+    }
+    catch (Throwable e) {
+      logger.error("Could not convert data log", e);
+      System.exit(2);
+    }
+
+    System.exit(0);
+  }
+
+  private final InputStream m_in;
+
+  private BinaryDataLogConverter(String[] arguments, Logger logger)
+    throws GrinderException {
+
+    super(logger, USAGE);
+
+    if (arguments.length != 1) {
+      throw barfUsage();
+    }
+
+    try {
+      m_in = new FileInputStream(arguments[0]);
+    }
+    catch (FileNotFoundException e) {
+      throw barfError(e.getMessage());
+    }
+  }
+
+  private void run() throws IOException {
+    final Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+
+    try {
+      convert(m_in, out);
+    }
+    finally {
+      m_in.close();
+      out.flush();
+    }
+  }
+
+  /**
+   * Convert a binary data log.
+   *
+   * @param binaryDataLog Stream containing the binary data log.
+   * @param out Where to write the CSV.
+   * @throws IOException If an I/O error occurred, or the data log is
+   *  invalid.
+   */
+  public static void convert(InputStream binaryDataLog, Writer out)
+    throws IOException {
+
+    final DataInputStream in =
+      new DataInputStream(new BufferedInputStream(binaryDataLog));
+
+    if (in.readInt() != BinaryDataLog.MAGIC) {
+      throw new StreamCorruptedException("Not a binary data log");
+    }
+
+    final int version = in.readInt();
+
+    if (version != BinaryDataLog.VERSION) {
+      throw new StreamCorruptedException(
+        "Unsupported binary data log version " + version);
+    }
+
+    final long dataLength = in.readLong();
+    final int numberOfViews = in.readInt();
+
+    final boolean[] isDouble = new boolean[numberOfViews];
+
+    final StringBuilder line =
+      new StringBuilder("Thread, Run, Test, Start time (ms since Epoch)");
+
+    for (int i = 0; i < numberOfViews; ++i) {
+      isDouble[i] = in.readBoolean();
+      line.append(SEPARATOR);
+      line.append(in.readUTF());
+    }
+
+    line.append(LINE_SEPARATOR);
+    out.write(line.toString());
+
+    final int recordSize = BinaryDataLog.RECORD_HEADER_SIZE + numberOfViews * 8;
+
+    for (long n = dataLength / recordSize; n > 0; --n) {
+      line.setLength(0);
+
+      line.append(in.readInt());
+      line.append(SEPARATOR);
+      line.append(in.readInt());
+      line.append(SEPARATOR);
+      line.append(in.readInt());
+      line.append(SEPARATOR);
+      line.append(in.readLong());
+
+      for (int i = 0; i < numberOfViews; ++i) {
+        line.append(SEPARATOR);
+
+        final long value = in.readLong();
+
+        if (isDouble[i]) {
+          line.append(Double.longBitsToDouble(value));
+        }
+        else {
+          line.append(value);
+        }
+      }
+
+      line.append(LINE_SEPARATOR);
+      out.write(line.toString());
+    }
+  }
+}
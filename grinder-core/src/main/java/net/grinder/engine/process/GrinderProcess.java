@@ -24,6 +24,8 @@
 
 package net.grinder.engine.process;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.UnknownHostException;
@@ -46,6 +48,7 @@ import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.communication.ClientSender;
 import net.grinder.communication.CommunicationException;
 import net.grinder.communication.ConnectionType;
+import net.grinder.communication.Connector;
 import net.grinder.communication.Message;
 import net.grinder.communication.MessageDispatchSender;
 import net.grinder.communication.MessagePump;
@@ -57,6 +60,7 @@ import net.grinder.engine.common.EngineException;
 import net.grinder.engine.communication.ConsoleListener;
 import net.grinder.engine.messages.InitialiseGrinderMessage;
 import net.grinder.engine.process.dcr.DCRContextImplementation;
+import net.grinder.messages.console.ConsoleMessageEncoders;
 import net.grinder.messages.console.RegisterTestsMessage;
 import net.grinder.messages.console.ReportStatisticsMessage;
 import net.grinder.messages.console.WorkerAddress;
@@ -115,6 +119,8 @@ final class GrinderProcess {
   private final LoggerContext m_logbackLoggerContext;
   private final boolean m_reportTimesToConsole;
   private final QueuedSender m_consoleSender;
+  private final ClientSender m_agentReportSender;
+  private final ClientBarrierGroups m_clientBarrierGroups;
   private final Sleeper m_sleeper;
   private final InitialiseGrinderMessage m_initialisationMessage;
   private final ConsoleListener m_consoleListener;
@@ -122,6 +128,7 @@ final class GrinderProcess {
   private final TestStatisticsMap m_accumulatedStatistics;
   private final TestStatisticsHelperImplementation m_testStatisticsHelper;
   private final TestRegistryImplementation m_testRegistryImplementation;
+  private final Statistics m_scriptStatistics;
   private final Condition m_eventSynchronisation = new Condition();
   private final MessagePump m_messagePump;
 
@@ -140,6 +147,7 @@ final class GrinderProcess {
   private ThreadStarter m_threadStarter = m_invalidThreadStarter;
 
   private boolean m_shutdownTriggered;
+  private volatile BinaryDataLog m_binaryDataLog;
   private boolean m_communicationShutdown;
 
   /**
@@ -190,18 +198,43 @@ final class GrinderProcess {
     final BarrierGroups barrierGroups;
 
     if (m_initialisationMessage.getReportToConsole()) {
-      m_consoleSender =
-        new QueuedSenderDecorator(
+      ConsoleMessageEncoders.register();
+
+      final ClientSender consoleSender =
+        ClientSender.connect(
+          new ConnectorFactory(ConnectionType.WORKER).create(properties),
+          new WorkerAddress(workerIdentity));
+
+      m_consoleSender = new QueuedSenderDecorator(consoleSender);
+
+      final int agentReportPort = m_initialisationMessage.getAgentReportPort();
+
+      if (agentReportPort > 0) {
+        // The agent combines our statistics with those of its other workers.
+        m_agentReportSender =
           ClientSender.connect(
-            new ConnectorFactory(ConnectionType.WORKER).create(properties),
-            new WorkerAddress(workerIdentity)));
+            new Connector("127.0.0.1", agentReportPort, ConnectionType.WORKER),
+            new WorkerAddress(workerIdentity));
+      }
+      else {
+        m_agentReportSender = null;
+      }
 
-      barrierGroups =
-        new ClientBarrierGroups(m_consoleSender,
-                                messageDispatcher);
+      // Barrier state is sent immediately, bypassing the queue. If the agent
+      // is combining our reports, it also combines our barrier state.
+      m_clientBarrierGroups =
+        new ClientBarrierGroups(
+          m_agentReportSender != null ? m_agentReportSender : consoleSender,
+          messageDispatcher,
+          workerIdentity,
+          m_times.getTimeAuthority());
+
+      barrierGroups = m_clientBarrierGroups;
     }
     else {
       m_consoleSender = new NullQueuedSender();
+      m_agentReportSender = null;
+      m_clientBarrierGroups = null;
       barrierGroups = new LocalBarrierGroups();
     }
 
@@ -225,6 +258,14 @@ final class GrinderProcess {
 
     m_statisticsServices = StatisticsServicesImplementation.getInstance();
 
+    if (properties.getBoolean("grinder.logTestTimeMicros", false)) {
+      m_statisticsServices.getDetailStatisticsView().add(
+        m_statisticsServices.getStatisticExpressionFactory()
+        .createExpressionView("Test time (microseconds)",
+                              "(sum timedTestsMicros)",
+                              false));
+    }
+
     m_accumulatedStatistics =
       new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
     m_testStatisticsHelper =
@@ -236,7 +277,8 @@ final class GrinderProcess {
                        m_threadContexts,
                        m_statisticsServices.getStatisticsSetFactory(),
                        m_testStatisticsHelper,
-                       m_times.getTimeAuthority());
+                       m_times.getTimeAuthority(),
+                       properties.getBoolean("grinder.yieldBeforeTest", true));
 
     final Logger externalLogger =
       new ExternalLogger(m_logger, m_threadContexts);
@@ -247,7 +289,7 @@ final class GrinderProcess {
       properties.getDouble("grinder.sleepTimeFactor", 1.0d),
       properties.getDouble("grinder.sleepTimeVariation", 0.2d));
 
-    final Statistics scriptStatistics =
+    m_scriptStatistics =
       new ScriptStatisticsImplementation(m_threadContexts,
                                          m_statisticsServices,
                                          m_consoleSender);
@@ -268,7 +310,7 @@ final class GrinderProcess {
         externalLogger,
         m_sleeper,
         new SSLControlImplementation(m_threadContexts),
-        scriptStatistics,
+        m_scriptStatistics,
         m_testRegistryImplementation,
         delegatingThreadStarter,
         threadStopper,
@@ -386,6 +428,37 @@ final class GrinderProcess {
         properties.getInt("grinder.reportToConsole.interval", 500);
       final int duration = properties.getInt("grinder.duration", 0);
 
+      // Sleep factors and variation apply to scripts, not to the arrival
+      // schedule.
+      final ArrivalRateScheduler runScheduler =
+        ArrivalRateScheduler.create(
+          properties,
+          m_times.getTimeAuthority(),
+          new SleeperImplementation(m_times.getTimeAuthority(), null, 1, 0));
+
+      if (runScheduler != null) {
+        m_scriptStatistics.registerDataLogExpression("Ticket wait",
+                                                     "(sum ticketWait)");
+        m_scriptStatistics.registerSummaryExpression(
+          "Mean ticket wait (ms)",
+          "(/ (sum ticketWait) (count ticketWait))");
+        m_scriptStatistics.registerSummaryExpression(
+          "Ticket wait 95th percentile (ms)",
+          "(percentile ticketWait 95)");
+      }
+
+      if (m_clientBarrierGroups != null) {
+        m_scriptStatistics.registerDataLogExpression(
+          "Barrier release latency",
+          "(sum barrierReleaseLatency)");
+        m_scriptStatistics.registerSummaryExpression(
+          "Mean barrier release latency (microseconds)",
+          "(/ (sum barrierReleaseLatency) (count barrierReleaseLatency))");
+        m_scriptStatistics.registerSummaryExpression(
+          "Barrier release latency 95th percentile (microseconds)",
+          "(percentile barrierReleaseLatency 95)");
+      }
+
       final Instrumenter instrumenter =
         scriptEngineContainer.createInstrumenter();
 
@@ -414,18 +487,50 @@ final class GrinderProcess {
       // Don't write out the data log header until now as the script may
       // declare new statistics.
 
-      final StringBuilder dataLogHeader =
-        new StringBuilder("Thread, Run, Test, Start time (ms since Epoch)");
-
       final ExpressionView[] detailExpressionViews =
         m_statisticsServices.getDetailStatisticsView().getExpressionViews();
 
-      for (final ExpressionView detailExpressionView : detailExpressionViews) {
-        dataLogHeader.append(", ");
-        dataLogHeader.append(detailExpressionView.getDisplayName());
+      if (properties.getBoolean("grinder.logData", true) &&
+          properties.getBoolean("grinder.binaryDataLog", false)) {
+        final File binaryDataLogFile =
+          new File(properties.getProperty(GrinderProperties.LOG_DIRECTORY,
+                                          "."),
+                   workerIdentity.getName() + "-data.bin");
+
+        final int bufferSize =
+          properties.getInt("grinder.binaryDataLogBufferSize",
+                            BinaryDataLog.DEFAULT_BUFFER_SIZE);
+
+        if (bufferSize < 1) {
+          throw new EngineException(
+            "grinder.binaryDataLogBufferSize must be positive");
+        }
+
+        try {
+          m_binaryDataLog = new BinaryDataLog(binaryDataLogFile,
+                                              detailExpressionViews,
+                                              bufferSize,
+                                              m_logger);
+        }
+        catch (final IOException e) {
+          throw new EngineException(
+            "Failed to create binary data log " + binaryDataLogFile, e);
+        }
+
+        m_logger.info("writing binary data log to {}", binaryDataLogFile);
       }
+      else {
+        final StringBuilder dataLogHeader =
+          new StringBuilder("Thread, Run, Test, Start time (ms since Epoch)");
 
-      m_dataLogger.info(dataLogHeader.toString());
+        for (final ExpressionView detailExpressionView :
+             detailExpressionViews) {
+          dataLogHeader.append(", ");
+          dataLogHeader.append(detailExpressionView.getDisplayName());
+        }
+
+        m_dataLogger.info(dataLogHeader.toString());
+      }
 
       sendStatusMessage(ProcessReport.State.STARTED,
                         (short)0,
@@ -438,7 +543,9 @@ final class GrinderProcess {
 
       synchronized (m_eventSynchronisation) {
         m_threadStarter =
-          new ThreadStarterImplementation(threadSynchronisation, scriptEngine);
+          new ThreadStarterImplementation(threadSynchronisation,
+                                          scriptEngine,
+                                          runScheduler);
 
         for (int i = 0; i < numberOfThreads; i++) {
           m_threadStarter.startThread(null);
@@ -537,11 +644,40 @@ final class GrinderProcess {
                           (short)0);
       }
 
+      if (m_agentReportSender != null) {
+        m_agentReportSender.shutdown();
+      }
+
       m_consoleSender.shutdown();
 
       final long elapsedTime = m_times.getElapsedTime();
       m_logger.info("elapsed time is {} ms", elapsedTime);
 
+      if (runScheduler != null) {
+        final long tickets = runScheduler.getTicketsStarted();
+
+        final long meanWait =
+          tickets > 0 ? runScheduler.getTotalWaitTime() / tickets : 0;
+
+        m_logger.info(
+          "started {} run tickets, mean wait {} ms, maximum wait {} ms",
+          new Object[] { tickets, meanWait, runScheduler.getMaximumWaitTime() });
+      }
+
+      if (m_clientBarrierGroups != null) {
+        final long releases = m_clientBarrierGroups.getReleases();
+
+        if (releases > 0) {
+          m_logger.info(
+            "{} barrier releases, mean release latency {} us, " +
+            "maximum {} us",
+            new Object[] {
+              releases,
+              m_clientBarrierGroups.getTotalReleaseLatency() / releases,
+              m_clientBarrierGroups.getMaximumReleaseLatency() });
+        }
+      }
+
       m_logger.info("Final statistics for this process:");
 
       final StatisticsTable statisticsTable =
@@ -573,6 +709,15 @@ final class GrinderProcess {
       m_messagePump.shutdown();
     }
 
+    if (m_binaryDataLog != null) {
+      try {
+        m_binaryDataLog.close();
+      }
+      catch (final IOException e) {
+        m_logger.error("Failed to close binary data log", e);
+      }
+    }
+
     // Logback doesn't stop its loggers on exit (see LBCORE-202). We do
     // so explicitly to flush our BufferedEchoMessageEncoder.
     if (m_logbackLoggerContext != null) {
@@ -592,7 +737,7 @@ final class GrinderProcess {
       if (!m_communicationShutdown) {
         try {
           final TestStatisticsMap sample =
-            m_testRegistryImplementation.getTestStatisticsMap().reset();
+            m_testRegistryImplementation.sampleTestStatistics();
           m_accumulatedStatistics.add(sample);
 
           // We look up the new tests after we've taken the sample to
@@ -601,7 +746,7 @@ final class GrinderProcess {
             m_testRegistryImplementation.getNewTests();
 
           if (newTests != null) {
-            m_consoleSender.send(new RegisterTestsMessage(newTests));
+            sendReport(new RegisterTestsMessage(newTests));
           }
 
           if (sample.size() > 0) {
@@ -609,7 +754,11 @@ final class GrinderProcess {
               m_testStatisticsHelper.removeTestTimeFromSample(sample);
             }
 
-            m_consoleSender.send(new ReportStatisticsMessage(sample));
+            sendReport(new ReportStatisticsMessage(sample));
+          }
+          else if (m_agentReportSender != null) {
+            // Stop the agent timing out the connection.
+            m_agentReportSender.sendKeepAlive();
           }
 
           sendStatusMessage(ProcessReport.State.RUNNING,
@@ -630,14 +779,29 @@ final class GrinderProcess {
                                  final short totalNumberOfThreads)
     throws CommunicationException {
 
-    m_consoleSender.send(new WorkerProcessReportMessage(
-                           finished,
-                           numberOfThreads,
-                           totalNumberOfThreads));
+    sendReport(new WorkerProcessReportMessage(finished,
+                                              numberOfThreads,
+                                              totalNumberOfThreads));
 
     m_consoleSender.flush();
   }
 
+  /**
+   * Send a report to the agent if it is combining our reports, otherwise
+   * queue it for the console. New tests, statistics, and process status must
+   * take the same route so that they arrive in order.
+   */
+  private void sendReport(final Message message)
+    throws CommunicationException {
+
+    if (m_agentReportSender != null) {
+      m_agentReportSender.send(message);
+    }
+    else {
+      m_consoleSender.send(message);
+    }
+  }
+
   private class ShutdownTimerTask extends TimerTask {
     @Override
     public void run() {
@@ -744,6 +908,7 @@ final class GrinderProcess {
     private final ThreadSynchronisation m_threadSynchronisation;
     private final ScriptEngine m_scriptEngine;
     private final WorkerRunnableFactory m_defaultWorkerRunnableFactory;
+    private final RunScheduler m_runScheduler;
 
     private final ProcessLifeCycleListener m_threadLifeCycleCallbacks =
       new ProcessLifeCycleListener() {
@@ -774,9 +939,11 @@ final class GrinderProcess {
 
     private ThreadStarterImplementation(
       final ThreadSynchronisation threadSynchronisation,
-      final ScriptEngine scriptEngine) {
+      final ScriptEngine scriptEngine,
+      final RunScheduler runScheduler) {
       m_threadSynchronisation = threadSynchronisation;
       m_scriptEngine = scriptEngine;
+      m_runScheduler = runScheduler;
 
       m_defaultWorkerRunnableFactory = new WorkerRunnableFactory() {
         @Override
@@ -798,7 +965,8 @@ final class GrinderProcess {
           m_initialisationMessage.getProperties(),
           m_statisticsServices,
           threadNumber,
-          m_dataLogger);
+          m_dataLogger,
+          m_binaryDataLog);
 
 
       final WorkerRunnableFactory workerRunnableFactory;
@@ -823,7 +991,8 @@ final class GrinderProcess {
                             m_threadLifeCycleCallbacks,
                             m_initialisationMessage.getProperties(),
                             m_sleeper,
-                            workerRunnableFactory);
+                            workerRunnableFactory,
+                            m_runScheduler);
 
       final Thread t = new Thread(runnable, "thread " + threadNumber);
       t.setDaemon(true);
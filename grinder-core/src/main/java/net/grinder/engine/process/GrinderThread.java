@@ -46,9 +46,11 @@ class GrinderThread implements Runnable {
   private final Sleeper m_sleeper;
   private final ThreadContext m_context;
   private final WorkerRunnableFactory m_workerRunnableFactory;
+  private final RunScheduler m_runScheduler;
 
   /**
-   * The constructor.
+   * Constructor for a thread that performs {@code grinder.runs} runs
+   * back-to-back.
    */
   public GrinderThread(final Logger logger,
                        final ThreadContext context,
@@ -58,6 +60,33 @@ class GrinderThread implements Runnable {
                        final Sleeper sleeper,
                        final WorkerRunnableFactory workerRunnableFactory)
     throws EngineException {
+    this(logger,
+         context,
+         threadSynchronisation,
+         processLifeCycle,
+         properties,
+         sleeper,
+         workerRunnableFactory,
+         null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param runScheduler
+   *          If not {@code null}, the thread performs a run for each ticket
+   *          it takes from the scheduler, rather than performing
+   *          {@code grinder.runs} runs back-to-back.
+   */
+  public GrinderThread(final Logger logger,
+                       final ThreadContext context,
+                       final WorkerThreadSynchronisation threadSynchronisation,
+                       final ProcessLifeCycleListener processLifeCycle,
+                       final GrinderProperties properties,
+                       final Sleeper sleeper,
+                       final WorkerRunnableFactory workerRunnableFactory,
+                       final RunScheduler runScheduler)
+    throws EngineException {
 
     m_logger = logger;
     m_context = context;
@@ -66,6 +95,7 @@ class GrinderThread implements Runnable {
     m_properties = properties;
     m_sleeper = sleeper;
     m_workerRunnableFactory = workerRunnableFactory;
+    m_runScheduler = runScheduler;
 
     // Dispatch the process context callback in the main thread.
     m_processLifeCycle.threadCreated(m_context);
@@ -91,7 +121,12 @@ class GrinderThread implements Runnable {
 
       final int numberOfRuns = m_properties.getInt("grinder.runs", 1);
 
-      if (numberOfRuns == 0) {
+      if (m_runScheduler != null) {
+        m_logger.info(m_context.getLogMarker(),
+                      "starting, will take run tickets at {}",
+                      m_runScheduler.getDescription());
+      }
+      else if (numberOfRuns == 0) {
         m_logger.info(m_context.getLogMarker(), "starting, will run forever");
       }
       else {
@@ -103,14 +138,23 @@ class GrinderThread implements Runnable {
 
       m_threadSynchronisation.awaitStart();
 
-      m_sleeper.sleepFlat(m_properties.getLong("grinder.initialSleepTime", 0));
+      if (m_runScheduler == null) {
+        m_sleeper.sleepFlat(
+          m_properties.getLong("grinder.initialSleepTime", 0));
+      }
 
       int currentRun;
 
       for (currentRun = 0;
-           numberOfRuns == 0 || currentRun < numberOfRuns;
+           m_runScheduler != null ||
+           numberOfRuns == 0 ||
+           currentRun < numberOfRuns;
            currentRun++) {
 
+        if (m_runScheduler != null && !takeTicket()) {
+          break;
+        }
+
         m_context.setCurrentRunNumber(currentRun);
 
         m_context.fireBeginRunEvent();
@@ -169,4 +213,37 @@ class GrinderThread implements Runnable {
       m_threadSynchronisation.threadFinished();
     }
   }
+
+  /**
+   * Wait for the next ticket from the run scheduler.
+   *
+   * @return {@code true} if a run should be performed, {@code false} if
+   *         there are no more tickets or the process is shutting down.
+   */
+  private boolean takeTicket() {
+    final RunScheduler.Ticket ticket;
+
+    try {
+      ticket = m_runScheduler.nextTicket();
+    }
+    catch (final Sleeper.ShutdownException e) {
+      m_logger.info(m_context.getLogMarker(), "shut down");
+      return false;
+    }
+
+    if (ticket == null) {
+      return false;
+    }
+
+    m_context.setTicketWait(ticket.getWaitTime());
+
+    if (m_logger.isDebugEnabled()) {
+      m_logger.debug(m_context.getLogMarker(),
+                     "took ticket {}, waited {} ms",
+                     ticket.getNumber(),
+                     ticket.getWaitTime());
+    }
+
+    return true;
+  }
 }
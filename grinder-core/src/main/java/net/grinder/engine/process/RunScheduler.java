@@ -0,0 +1,123 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import net.grinder.util.Sleeper;
+
+
+/**
+ * Issues run tickets to worker threads.
+ *
+ * <p>
+ * Used to implement an <em>open</em> workload model, where runs are started
+ * at a rate independent of how quickly previous runs complete. Each worker
+ * thread that is free takes the next ticket and performs a single run.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+interface RunScheduler {
+
+  /**
+   * Take the next ticket. Blocks until the ticket's scheduled start time.
+   *
+   * @return The ticket, or {@code null} if no further runs should be
+   *         started.
+   * @throws Sleeper.ShutdownException
+   *           If the process is shutting down.
+   */
+  Ticket nextTicket() throws Sleeper.ShutdownException;
+
+  /**
+   * Describe the schedule.
+   *
+   * @return A description, suitable for logging.
+   */
+  String getDescription();
+
+  /**
+   * A permission to start a run.
+   */
+  final class Ticket {
+    private final long m_number;
+    private final long m_scheduledTime;
+    private final long m_startTime;
+
+    /**
+     * Constructor.
+     *
+     * @param number
+     *          The ticket number.
+     * @param scheduledTime
+     *          When the run was scheduled to start, in milliseconds since
+     *          the Epoch.
+     * @param startTime
+     *          When the ticket was handed to a worker thread, in
+     *          milliseconds since the Epoch.
+     */
+    public Ticket(long number, long scheduledTime, long startTime) {
+      m_number = number;
+      m_scheduledTime = scheduledTime;
+      m_startTime = startTime;
+    }
+
+    /**
+     * The ticket number. Tickets are numbered from 0 in the order they were
+     * issued.
+     *
+     * @return The number.
+     */
+    public long getNumber() {
+      return m_number;
+    }
+
+    /**
+     * When the run was scheduled to start.
+     *
+     * @return The time in milliseconds since the Epoch.
+     */
+    public long getScheduledTime() {
+      return m_scheduledTime;
+    }
+
+    /**
+     * When the run actually started.
+     *
+     * @return The time in milliseconds since the Epoch.
+     */
+    public long getStartTime() {
+      return m_startTime;
+    }
+
+    /**
+     * How long the ticket waited for a free worker thread after its
+     * scheduled start time.
+     *
+     * @return The time in milliseconds.
+     */
+    public long getWaitTime() {
+      return Math.max(0, m_startTime - m_scheduledTime);
+    }
+  }
+}
@@ -178,7 +178,17 @@ final class ScriptContextImplementation implements InternalScriptContext {
   }
 
   public Barrier barrier(String name) throws CommunicationException {
-    return new BarrierImplementation(m_barrierGroups.getGroup(name),
-                                     m_barrierIdentityFactory);
+    return new BarrierImplementation(
+      m_barrierGroups.getGroup(name),
+      m_barrierIdentityFactory,
+      new BarrierImplementation.ReleaseListener() {
+        public void released(long latency) {
+          final ThreadContext threadContext = m_threadContextLocator.get();
+
+          if (threadContext != null) {
+            threadContext.setBarrierReleaseLatency(latency);
+          }
+        }
+      });
   }
 }
@@ -1,4 +1,4 @@
-// Copyright (C) 2006 - 2008 Philip Aston
+// Copyright (C) 2006 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,6 +22,7 @@
 package net.grinder.engine.process;
 
 import net.grinder.common.Test;
+import net.grinder.common.UncheckedGrinderException;
 import net.grinder.script.InvalidContextException;
 import net.grinder.script.NoSuchStatisticException;
 import net.grinder.script.Statistics.StatisticsForTest;
@@ -38,6 +39,15 @@ import net.grinder.statistics.StatisticsIndexMap.LongIndex;
  * statistics set, until freeze is called after which it is a wrapper around
  * a read-only statistics set.
  *
+ * <p>To avoid allocating a new instance and statistics set for every
+ * dispatch, the dispatch context recycles frozen instances by calling {@link
+ * #reset}. An instance that has been handed to a script that might keep a
+ * reference to it is marked as retained, and is never recycled. Where the
+ * caller is not expected to keep the reference, it is given a {@link
+ * #createHandle() handle} instead. Each reset increments a generation number,
+ * and a handle from an earlier generation fails rather than silently
+ * referring to a later dispatch.
+ *
  * @author Philip Aston
  */
 final class StatisticsForTestImplementation implements StatisticsForTest {
@@ -53,10 +63,13 @@ final class StatisticsForTestImplementation implements StatisticsForTest {
    *        m_mutableStatistics == null
    *        m_immutableStatistics != null
    */
-  private final ImmutableStatisticsSet m_immutableStatistics;
+  private final StatisticsSet m_immutableStatistics;
   private DispatchContext m_dispatchContext;
   private StatisticsSet m_statistics;
 
+  private boolean m_retained;
+  private int m_generation;
+
   public StatisticsForTestImplementation(
     DispatchContext dispatchContext,
     TestStatisticsHelper testStatisticsHelper,
@@ -75,6 +88,45 @@ final class StatisticsForTestImplementation implements StatisticsForTest {
     m_statistics = null;
   }
 
+  /**
+   * Re-associate a frozen instance with a dispatch context for the same
+   * test, and zero the statistics.
+   *
+   * @param dispatchContext The dispatch context.
+   */
+  public void reset(DispatchContext dispatchContext) {
+    if (m_retained) {
+      throw new AssertionError("Retained statistics cannot be reset");
+    }
+
+    m_immutableStatistics.reset();
+    ++m_generation;
+    m_dispatchContext = dispatchContext;
+    m_statistics = m_immutableStatistics;
+  }
+
+  /**
+   * Prevent this instance from being recycled by {@link #reset}. Called
+   * when a reference escapes to a script.
+   */
+  public void retain() {
+    m_retained = true;
+  }
+
+  public boolean isRetained() {
+    return m_retained;
+  }
+
+  /**
+   * Create a handle that refers to this instance until it is next
+   * {@link #reset}, after which every method of the handle fails.
+   *
+   * @return The handle.
+   */
+  public StatisticsForTest createHandle() {
+    return new Handle(m_generation);
+  }
+
   private StatisticsSet getStatisticsChecked() throws InvalidContextException {
     if (m_statistics == null) {
       throw new InvalidContextException(
@@ -177,4 +229,80 @@ final class StatisticsForTestImplementation implements StatisticsForTest {
 
     return index;
   }
+
+  /**
+   * Thrown when a handle is used after the statistics it refers to have
+   * been recycled for a later dispatch.
+   */
+  static final class StaleStatisticsException
+    extends UncheckedGrinderException {
+
+    public StaleStatisticsException(Test test) {
+      super("Statistics for an earlier invocation of " + test +
+            " are no longer available. Use " +
+            "grinder.statistics.getForLastTest() to keep them.");
+    }
+  }
+
+  private final class Handle implements StatisticsForTest {
+    private final int m_handleGeneration;
+
+    public Handle(int generation) {
+      m_handleGeneration = generation;
+    }
+
+    private StatisticsForTestImplementation get() {
+      if (m_handleGeneration != m_generation) {
+        throw new StaleStatisticsException(m_test);
+      }
+
+      return StatisticsForTestImplementation.this;
+    }
+
+    public Test getTest() {
+      return get().getTest();
+    }
+
+    public void setLong(String statisticName, long value)
+      throws InvalidContextException, NoSuchStatisticException {
+      get().setLong(statisticName, value);
+    }
+
+    public void setDouble(String statisticName, double value)
+      throws InvalidContextException, NoSuchStatisticException {
+      get().setDouble(statisticName, value);
+    }
+
+    public void addLong(String statisticName, long value)
+      throws InvalidContextException, NoSuchStatisticException {
+      get().addLong(statisticName, value);
+    }
+
+    public void addDouble(String statisticName, double value)
+      throws InvalidContextException, NoSuchStatisticException {
+      get().addDouble(statisticName, value);
+    }
+
+    public long getLong(String statisticName)
+      throws NoSuchStatisticException {
+      return get().getLong(statisticName);
+    }
+
+    public double getDouble(String statisticName)
+      throws NoSuchStatisticException {
+      return get().getDouble(statisticName);
+    }
+
+    public void setSuccess(boolean success) throws InvalidContextException {
+      get().setSuccess(success);
+    }
+
+    public boolean getSuccess() {
+      return get().getSuccess();
+    }
+
+    public long getTime() {
+      return get().getTime();
+    }
+  }
 }
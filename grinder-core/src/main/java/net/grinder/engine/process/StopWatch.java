@@ -50,6 +50,12 @@ interface StopWatch {
 
   void reset() throws StopWatchRunningException;
 
+  /**
+   * Return the accumulated time.
+   *
+   * @return The time, in nanoseconds.
+   * @throws StopWatchRunningException If the stop watch is running.
+   */
   long getTime() throws StopWatchRunningException;
 
   boolean isRunning();
@@ -27,6 +27,9 @@ import net.grinder.util.TimeAuthority;
 /**
  * Implementation of {@link StopWatch}.
  *
+ * <p>Uses the high resolution timer of the {@link TimeAuthority}, so times are
+ * in nanoseconds.</p>
+ *
  * @author Philip Aston
  */
 final class StopWatchImplementation implements StopWatch {
@@ -34,7 +37,8 @@ final class StopWatchImplementation implements StopWatch {
   private final TimeAuthority m_timeAuthority;
 
   private long m_time;
-  private long m_startTime = -1;
+  private long m_startTime;
+  private boolean m_running;
 
   public StopWatchImplementation(TimeAuthority timeAuthority) {
     m_timeAuthority = timeAuthority;
@@ -45,7 +49,8 @@ final class StopWatchImplementation implements StopWatch {
       throw new StopWatchRunningException("Already running");
     }
 
-    m_startTime = m_timeAuthority.getTimeInMilliseconds();
+    m_startTime = m_timeAuthority.getTimeInNanoseconds();
+    m_running = true;
   }
 
   public void stop() {
@@ -53,8 +58,8 @@ final class StopWatchImplementation implements StopWatch {
       throw new StopWatchNotRunningException("Not running");
     }
 
-    m_time = m_time + m_timeAuthority.getTimeInMilliseconds() - m_startTime;
-    m_startTime = -1;
+    m_time = m_time + m_timeAuthority.getTimeInNanoseconds() - m_startTime;
+    m_running = false;
   }
 
   public void reset() throws StopWatchRunningException {
@@ -74,7 +79,7 @@ final class StopWatchImplementation implements StopWatch {
   }
 
   public boolean isRunning() {
-    return m_startTime != -1;
+    return m_running;
   }
 
   public void add(StopWatch watch) {
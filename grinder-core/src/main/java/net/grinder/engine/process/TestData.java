@@ -22,6 +22,9 @@
 
 package net.grinder.engine.process;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import net.grinder.common.Test;
 import net.grinder.common.UncheckedGrinderException;
 import net.grinder.engine.common.EngineException;
@@ -33,6 +36,7 @@ import net.grinder.script.Test.InstrumentationFilter;
 import net.grinder.script.TestRegistry.RegisteredTest;
 import net.grinder.scriptengine.Instrumenter;
 import net.grinder.scriptengine.Recorder;
+import net.grinder.statistics.StatisticsAccumulator;
 import net.grinder.statistics.StatisticsSet;
 import net.grinder.statistics.StatisticsSetFactory;
 import net.grinder.util.TimeAuthority;
@@ -58,6 +62,7 @@ final class TestData implements RegisteredTest, Recorder {
   private final ThreadContextLocator m_threadContextLocator;
   private final Test m_test;
   private final Marker m_logMarker;
+  private final boolean m_yieldBeforeTest;
 
   /**
    * Cumulative statistics for our test that haven't yet been set to
@@ -65,6 +70,15 @@ final class TestData implements RegisteredTest, Recorder {
    */
   private final StatisticsSet m_testStatistics;
 
+  /**
+   * Statistics accumulated by each worker thread that haven't yet been
+   * merged into {@link #m_testStatistics}. Each accumulator is only updated
+   * by its thread, and is drained without blocking it, so recording a test
+   * doesn't contend with other threads or the reporter.
+   */
+  private final List<StatisticsAccumulator> m_threadStatistics =
+    new CopyOnWriteArrayList<StatisticsAccumulator>();
+
   private final RecorderHolderThreadLocal m_recorderHolderTL =
     new RecorderHolderThreadLocal();
 
@@ -73,13 +87,15 @@ final class TestData implements RegisteredTest, Recorder {
            TestStatisticsHelper testStatisticsHelper,
            TimeAuthority timeAuthority,
            Instrumenter instrumenter,
-           Test testDefinition) {
+           Test testDefinition,
+           boolean yieldBeforeTest) {
     m_statisticsSetFactory = statisticsSetFactory;
     m_testStatisticsHelper = testStatisticsHelper;
     m_timeAuthority = timeAuthority;
     m_instrumenter = instrumenter;
     m_threadContextLocator = threadContextLocator;
     m_test = testDefinition;
+    m_yieldBeforeTest = yieldBeforeTest;
     m_testStatistics = m_statisticsSetFactory.create();
 
     m_logMarker = MarkerFactory.getMarker("test-" + testDefinition.getNumber());
@@ -97,6 +113,17 @@ final class TestData implements RegisteredTest, Recorder {
     return m_testStatistics;
   }
 
+  /**
+   * Add the statistics accumulated by each worker thread to the test
+   * statistics, and reset them. Called periodically by the thread that
+   * reports to the console.
+   */
+  void mergeThreadStatistics() {
+    for (StatisticsAccumulator threadStatistics : m_threadStatistics) {
+      threadStatistics.drainTo(m_testStatistics);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -145,9 +172,14 @@ final class TestData implements RegisteredTest, Recorder {
           throw new UncheckedException("Only Worker Threads can invoke tests");
         }
 
+        final StatisticsAccumulator threadStatistics =
+          m_statisticsSetFactory.createAccumulator();
+        m_threadStatistics.add(threadStatistics);
+
         final TestRecorder recorder =
           new TestRecorder(threadContext.getDispatchResultReporter(),
-                           new StopWatchImplementation(m_timeAuthority));
+                           new StopWatchImplementation(m_timeAuthority),
+                           threadStatistics);
 
         return new RecorderHolder(threadContext, recorder);
       }
@@ -218,25 +250,50 @@ final class TestData implements RegisteredTest, Recorder {
    * time is valid. m_statisticsForTest is null.</li>
    * </ul>
    *
+   * <p>
+   * The start time is the wall clock time in milliseconds, and is reported to
+   * the data log. The test is timed using the high resolution timer; the
+   * dispatch time is in nanoseconds.
+   * </p>
+   *
    * {@link ThreadContextImplementation#getDispatchContext()} takes care to only
    * return references to Dispatchers that are <em>dispatching</em> or
    * <em>complete</em>.
+   *
+   * <p>
+   * Rather than allocate a new {@link StatisticsForTestImplementation} for
+   * each dispatch, the recorder recycles them. The instance for the last
+   * report is left alone, so that
+   * {@link ThreadContext#getStatisticsForLastTest} remains valid until the
+   * following dispatch completes, and the instance before that is reset and
+   * reused. Instances that have been
+   * {@link StatisticsForTestImplementation#retain() retained} are dropped
+   * from the cycle. Scripts that ask for the current test statistics are
+   * given a {@link StatisticsForTestImplementation#createHandle() handle},
+   * which fails once the instance is reused.
+   * </p>
    */
   private final class TestRecorder
     implements DispatchContext, Recorder {
 
     private final DispatchResultReporter m_resultReporter;
     private final StopWatch m_pauseTimer;
+    private final StatisticsAccumulator m_threadStatistics;
 
     private long m_startTime = -1;
+    private long m_startNanoTime;
     private long m_dispatchTime = -1;
     private StatisticsForTestImplementation m_statisticsForTest;
+    private StatisticsForTestImplementation m_lastStatisticsForTest;
+    private StatisticsForTestImplementation m_spareStatisticsForTest;
 
     public TestRecorder(DispatchResultReporter resultReporter,
-                           StopWatch pauseTimer) {
+                        StopWatch pauseTimer,
+                        StatisticsAccumulator threadStatistics) {
 
       m_resultReporter = resultReporter;
       m_pauseTimer = pauseTimer;
+      m_threadStatistics = threadStatistics;
     }
 
     public void start() throws DispatchStateException {
@@ -246,20 +303,33 @@ final class TestData implements RegisteredTest, Recorder {
 
       m_pauseTimer.reset();
 
-      m_statisticsForTest = new StatisticsForTestImplementation(
-        this,
-        m_testStatisticsHelper,
-        m_statisticsSetFactory.create());
+      final StatisticsForTestImplementation spare = m_spareStatisticsForTest;
+
+      if (spare != null && !spare.isRetained()) {
+        spare.reset(this);
+        m_statisticsForTest = spare;
+      }
+      else {
+        m_statisticsForTest = new StatisticsForTestImplementation(
+          this,
+          m_testStatisticsHelper,
+          m_statisticsSetFactory.create());
+      }
+
+      m_spareStatisticsForTest = null;
 
-      // Make it more likely that the timed section has a "clear run".
-      Thread.yield();
+      if (m_yieldBeforeTest) {
+        // Make it more likely that the timed section has a "clear run".
+        Thread.yield();
+      }
 
       m_startTime = m_timeAuthority.getTimeInMilliseconds();
+      m_startNanoTime = m_timeAuthority.getTimeInNanoseconds();
     }
 
     public void end(boolean success) {
       m_dispatchTime =
-        Math.max(m_timeAuthority.getTimeInMilliseconds() - m_startTime, 0);
+        Math.max(m_timeAuthority.getTimeInNanoseconds() - m_startNanoTime, 0);
 
       if (m_pauseTimer.isRunning()) {
         m_pauseTimer.stop();
@@ -284,21 +354,23 @@ final class TestData implements RegisteredTest, Recorder {
 
       final StatisticsSet statistics =  m_statisticsForTest.getStatistics();
 
-      m_testStatisticsHelper.recordTest(statistics, getElapsedTime());
+      m_testStatisticsHelper.recordTest(statistics, getElapsedNanoTime());
 
       m_resultReporter.report(getTest(), m_startTime, statistics);
 
       if (m_testStatisticsHelper.getSuccess(statistics)) {
-        getTestStatistics().add(statistics);
+        m_threadStatistics.add(statistics);
       }
       else {
         // If an error, we consider other information to be unreliable,
         // so do not aggregate it.
-        m_testStatisticsHelper.incrementErrors(getTestStatistics());
+        m_testStatisticsHelper.incrementErrors(m_threadStatistics);
       }
 
       // Disassociate ourselves from m_statisticsForTest;
       m_statisticsForTest.freeze();
+      m_spareStatisticsForTest = m_lastStatisticsForTest;
+      m_lastStatisticsForTest = m_statisticsForTest;
       m_statisticsForTest = null;
 
       m_startTime = -1;
@@ -322,10 +394,15 @@ final class TestData implements RegisteredTest, Recorder {
         return -1;
       }
 
+      return getElapsedNanoTime() / 1000000;
+    }
+
+    private long getElapsedNanoTime() {
       final long unadjustedTime;
 
       if (m_dispatchTime == -1) {
-        unadjustedTime = m_timeAuthority.getTimeInMilliseconds() - m_startTime;
+        unadjustedTime =
+          m_timeAuthority.getTimeInNanoseconds() - m_startNanoTime;
       }
       else {
         unadjustedTime = m_dispatchTime;
@@ -339,7 +416,7 @@ final class TestData implements RegisteredTest, Recorder {
     }
 
     public void setHasNestedContexts() {
-      m_testStatistics.setIsComposite();
+      m_threadStatistics.setIsComposite();
     }
   }
 
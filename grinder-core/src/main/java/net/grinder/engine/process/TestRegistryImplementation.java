@@ -1,4 +1,4 @@
-// Copyright (C) 2001 - 2011 Philip Aston
+// Copyright (C) 2001 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -45,6 +45,7 @@ final class TestRegistryImplementation implements TestRegistry {
   private final StatisticsSetFactory m_statisticsSetFactory;
   private final TestStatisticsHelper m_testStatisticsHelper;
   private final TimeAuthority m_timeAuthority;
+  private final boolean m_yieldBeforeTest;
 
   /**
    * A map of Tests to Statistics for passing elsewhere.
@@ -72,11 +73,13 @@ final class TestRegistryImplementation implements TestRegistry {
   TestRegistryImplementation(ThreadContextLocator threadContextLocator,
                              StatisticsSetFactory statisticsSetFactory,
                              TestStatisticsHelper testStatisticsHelper,
-                             TimeAuthority timeAuthority) {
+                             TimeAuthority timeAuthority,
+                             boolean yieldBeforeTest) {
     m_threadContextLocator = threadContextLocator;
     m_statisticsSetFactory = statisticsSetFactory;
     m_testStatisticsHelper = testStatisticsHelper;
     m_timeAuthority = timeAuthority;
+    m_yieldBeforeTest = yieldBeforeTest;
     m_testStatisticsMap = new TestStatisticsMap(m_statisticsSetFactory);
   }
 
@@ -108,7 +111,8 @@ final class TestRegistryImplementation implements TestRegistry {
                                  m_testStatisticsHelper,
                                  m_timeAuthority,
                                  m_instrumenter,
-                                 test);
+                                 test,
+                                 m_yieldBeforeTest);
 
       m_testMap.put(test, newTestData);
       m_testStatisticsMap.put(test, newTestData.getTestStatistics());
@@ -134,6 +138,23 @@ final class TestRegistryImplementation implements TestRegistry {
     return m_testStatisticsMap;
   }
 
+  /**
+   * Merge the statistics accumulated by the worker threads into the test
+   * statistics map, then reset the map.
+   *
+   * @return A snapshot of the map. Only tests with non-zero statistics are
+   * included.
+   */
+  TestStatisticsMap sampleTestStatistics() {
+    synchronized (this) {
+      for (TestData testData : m_testMap.values()) {
+        testData.mergeThreadStatistics();
+      }
+    }
+
+    return m_testStatisticsMap.reset();
+  }
+
   /**
    * Return any tests registered since the last time
    * <code>getNewTests</code> was called.
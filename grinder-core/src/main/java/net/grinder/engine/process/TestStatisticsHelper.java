@@ -1,4 +1,4 @@
-// Copyright (C) 2006 Philip Aston
+// Copyright (C) 2006 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,6 +22,7 @@
 package net.grinder.engine.process;
 
 import net.grinder.statistics.ImmutableStatisticsSet;
+import net.grinder.statistics.StatisticsAccumulator;
 import net.grinder.statistics.StatisticsIndexMap;
 import net.grinder.statistics.StatisticsSet;
 import net.grinder.statistics.TestStatisticsMap;
@@ -38,6 +39,12 @@ interface TestStatisticsHelper {
 
   boolean getSuccess(ImmutableStatisticsSet statistics);
 
+  /**
+   * Set the elapsed time for the test and normalise statistics.
+   *
+   * @param statistics The statistics.
+   * @param elapsedTime The elapsed time, in nanoseconds.
+   */
   void recordTest(StatisticsSet statistics, long elapsedTime);
 
   long getTestTime(ImmutableStatisticsSet statistics);
@@ -47,4 +54,6 @@ interface TestStatisticsHelper {
   StatisticsIndexMap getStatisticsIndexMap();
 
   void incrementErrors(StatisticsSet testStatistics);
+
+  void incrementErrors(StatisticsAccumulator testStatistics);
 }
@@ -1,4 +1,4 @@
-// Copyright (C) 2006 Philip Aston
+// Copyright (C) 2006 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -23,6 +23,7 @@ package net.grinder.engine.process;
 
 import net.grinder.common.Test;
 import net.grinder.statistics.ImmutableStatisticsSet;
+import net.grinder.statistics.StatisticsAccumulator;
 import net.grinder.statistics.StatisticsIndexMap;
 import net.grinder.statistics.StatisticsSet;
 import net.grinder.statistics.TestStatisticsMap;
@@ -40,6 +41,7 @@ final class TestStatisticsHelperImplementation
   private final StatisticsIndexMap.LongIndex m_errorsIndex;
   private final StatisticsIndexMap.LongIndex m_untimedTestsIndex;
   private final StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
+  private final StatisticsIndexMap.LongSampleIndex m_timedTestsMicrosIndex;
 
   public TestStatisticsHelperImplementation(StatisticsIndexMap indexMap) {
 
@@ -47,6 +49,7 @@ final class TestStatisticsHelperImplementation
     m_errorsIndex = indexMap.getLongIndex("errors");
     m_untimedTestsIndex = indexMap.getLongIndex("untimedTests");
     m_timedTestsIndex = indexMap.getLongSampleIndex("timedTests");
+    m_timedTestsMicrosIndex = indexMap.getLongSampleIndex("timedTestsMicros");
   }
 
   public boolean getSuccess(ImmutableStatisticsSet statistics) {
@@ -59,10 +62,16 @@ final class TestStatisticsHelperImplementation
 
   /**
    * Set the elapsed time for the test and normalise statistics.
+   *
+   * <p>The time is recorded in milliseconds in <em>timedTests</em>, and in
+   * microseconds in <em>timedTestsMicros</em>.</p>
    */
   public void recordTest(StatisticsSet statistics, long elapsedTime) {
     statistics.reset(m_timedTestsIndex);
-    statistics.addSample(m_timedTestsIndex, elapsedTime);
+    statistics.addSample(m_timedTestsIndex, elapsedTime / 1000000);
+
+    statistics.reset(m_timedTestsMicrosIndex);
+    statistics.addSample(m_timedTestsMicrosIndex, elapsedTime / 1000);
 
     setSuccess(statistics, getSuccess(statistics));
 
@@ -80,6 +89,7 @@ final class TestStatisticsHelperImplementation
         statistics.addValue(m_untimedTestsIndex,
                             statistics.getCount(m_timedTestsIndex));
         statistics.reset(m_timedTestsIndex);
+        statistics.reset(m_timedTestsMicrosIndex);
       }
     }
     .iterate();
@@ -92,4 +102,8 @@ final class TestStatisticsHelperImplementation
   public void incrementErrors(StatisticsSet testStatistics) {
     testStatistics.addValue(m_errorsIndex, 1);
   }
+
+  public void incrementErrors(StatisticsAccumulator testStatistics) {
+    testStatistics.addValue(m_errorsIndex, 1);
+  }
 }
@@ -77,6 +77,19 @@ interface ThreadContext extends PluginThreadContext {
    */
   void setCurrentRunNumber(int run);
 
+  /**
+   * @param waitTime How long the current run waited for its ticket, in
+   * milliseconds. Recorded against the next test that the run reports.
+   */
+  void setTicketWait(long waitTime);
+
+  /**
+   * @param latency How long a barrier that this thread was waiting at took
+   * to open after the last waiter arrived, in microseconds. Recorded against
+   * the next test that the thread reports.
+   */
+  void setBarrierReleaseLatency(long latency);
+
   Marker getLogMarker();
 }
 
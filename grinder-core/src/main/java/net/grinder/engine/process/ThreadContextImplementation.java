@@ -33,6 +33,7 @@ import net.grinder.common.ThreadLifeCycleListener;
 import net.grinder.engine.common.EngineException;
 import net.grinder.engine.process.DispatchContext.DispatchStateException;
 import net.grinder.script.Statistics.StatisticsForTest;
+import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
 import net.grinder.statistics.StatisticsServices;
 import net.grinder.statistics.StatisticsSet;
 import net.grinder.util.ListenerSupport;
@@ -71,6 +72,8 @@ final class ThreadContextImplementation implements ThreadContext {
 
   private Marker m_runMarker;
   private int m_runNumber = -1;
+  private long m_ticketWait = -1;
+  private long m_barrierReleaseLatency = -1;
 
   private Marker m_testMarker;
 
@@ -82,20 +85,43 @@ final class ThreadContextImplementation implements ThreadContext {
                                      int threadNumber,
                                      Logger dataLogger)
     throws EngineException {
+    this(properties, statisticsServices, threadNumber, dataLogger, null);
+  }
+
+  public ThreadContextImplementation(GrinderProperties properties,
+                                     StatisticsServices statisticsServices,
+                                     int threadNumber,
+                                     Logger dataLogger,
+                                     BinaryDataLog binaryDataLog)
+    throws EngineException {
 
     m_threadNumber = threadNumber;
     m_threadMarker = MarkerFactory.getMarker("thread-" + threadNumber);
 
+    final DispatchResultReporter logReporter;
+
+    if (binaryDataLog != null) {
+      final BinaryDataLog.ThreadLog threadLog =
+        binaryDataLog.createThreadLog(threadNumber);
+
+      logReporter = new DispatchResultReporter() {
+        public void report(Test test,
+                           long startTime,
+                           StatisticsSet statistics) {
+          threadLog.report(getRunNumber(), test, startTime, statistics);
+        }
+      };
+    }
     // Undocumented property. Added so Tom Barnes can investigate overhead
     // of data logging.
-    if (properties.getBoolean("grinder.logData", true)) {
+    else if (properties.getBoolean("grinder.logData", true)) {
       final ThreadDataLogger threadDataLogger =
         new ThreadDataLogger(
           dataLogger,
           statisticsServices.getDetailStatisticsView().getExpressionViews(),
           m_threadNumber);
 
-      m_dispatchResultReporter = new DispatchResultReporter() {
+      logReporter = new DispatchResultReporter() {
         public void report(Test test,
                            long startTime,
                            StatisticsSet statistics) {
@@ -107,7 +133,7 @@ final class ThreadContextImplementation implements ThreadContext {
       };
     }
     else {
-      m_dispatchResultReporter = new DispatchResultReporter() {
+      logReporter = new DispatchResultReporter() {
         public void report(Test test,
                            long startTime,
                            StatisticsSet statistics) {
@@ -116,6 +142,33 @@ final class ThreadContextImplementation implements ThreadContext {
       };
     }
 
+    final LongSampleIndex ticketWaitIndex =
+      statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("ticketWait");
+
+    final LongSampleIndex barrierReleaseLatencyIndex =
+      statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("barrierReleaseLatency");
+
+    m_dispatchResultReporter = new DispatchResultReporter() {
+      public void report(Test test,
+                         long startTime,
+                         StatisticsSet statistics) {
+        if (m_ticketWait >= 0) {
+          statistics.addSample(ticketWaitIndex, m_ticketWait);
+          m_ticketWait = -1;
+        }
+
+        if (m_barrierReleaseLatency >= 0) {
+          statistics.addSample(barrierReleaseLatencyIndex,
+                               m_barrierReleaseLatency);
+          m_barrierReleaseLatency = -1;
+        }
+
+        logReporter.report(test, startTime, statistics);
+      }
+    };
+
     registerThreadLifeCycleListener(
       new SkeletonThreadLifeCycleListener() {
         public void endRun() { reportPendingDispatchContext(); }
@@ -141,10 +194,24 @@ final class ThreadContextImplementation implements ThreadContext {
       m_runMarker = MarkerFactory.getMarker("run-" + run);
       m_threadMarker.add(m_runMarker);
     }
+    else {
+      // Don't charge a wait to tests that are not part of a run.
+      m_ticketWait = -1;
+    }
 
     m_runNumber = run;
   }
 
+  @Override
+  public void setTicketWait(long waitTime) {
+    m_ticketWait = waitTime;
+  }
+
+  @Override
+  public void setBarrierReleaseLatency(long latency) {
+    m_barrierReleaseLatency = latency;
+  }
+
   /** Package scope for unit tests. */
   void setTestLogMarker(Marker marker) {
     if (m_testMarker != null) {
@@ -283,10 +350,26 @@ final class ThreadContextImplementation implements ThreadContext {
        return null;
      }
 
-     return dispatchContext.getStatisticsForTest();
+     final StatisticsForTest statisticsForTest =
+       dispatchContext.getStatisticsForTest();
+
+     if (statisticsForTest instanceof StatisticsForTestImplementation) {
+       // The dispatch context will recycle the statistics, so hand out a
+       // reference that fails if it is used after that.
+       return ((StatisticsForTestImplementation) statisticsForTest)
+         .createHandle();
+     }
+
+     return statisticsForTest;
   }
 
   public StatisticsForTest getStatisticsForLastTest() {
+    if (m_statisticsForLastTest instanceof StatisticsForTestImplementation) {
+      // The caller might keep the reference, so stop the dispatch context
+      // from recycling it.
+      ((StatisticsForTestImplementation) m_statisticsForLastTest).retain();
+    }
+
     return m_statisticsForLastTest;
   }
 
@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -19,42 +19,41 @@
 // ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
 // OF THE POSSIBILITY OF SUCH DAMAGE.
 
-package net.grinder.synchronisation.messages;
+
+package net.grinder.messages.agent;
+
+import net.grinder.communication.Message;
+import net.grinder.util.FileChunk;
 
 
 /**
- * Barrier group message requesting that a number of barriers be removed.
+ * Message used to distribute a chunk of file data from the console to the
+ * agent processes. Chunks follow the {@link DistributeFileMessage} that
+ * describes the file to which they belong.
  *
  * @author Philip Aston
  */
-public class RemoveBarriersMessage extends AbstractBarrierGroupMessage {
+public final class DistributeFileChunkMessage implements Message {
 
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = -2893740126354476512L;
 
-  private final long m_numberOfBarriers;
+  private final FileChunk m_fileChunk;
 
   /**
    * Constructor.
    *
-   * @param name
-   *          Barrier name.
-   * @param numberOfBarriers
-   *          Number of barriers to remove.
+   * @param fileChunk The chunk to distribute.
    */
-  public RemoveBarriersMessage(String name,
-                               long numberOfBarriers) {
-    super(name);
-
-    m_numberOfBarriers = numberOfBarriers;
+  public DistributeFileChunkMessage(FileChunk fileChunk) {
+    m_fileChunk = fileChunk;
   }
 
   /**
-   * The number of barriers.
-   *
+   * Return the file chunk.
    *
-   * @return The number of barriers.
+   * @return The file chunk.
    */
-  public long getNumberOfBarriers() {
-    return m_numberOfBarriers;
+  public FileChunk getFileChunk() {
+    return m_fileChunk;
   }
 }
@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2008 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -27,20 +27,22 @@ import net.grinder.util.FileContents;
 
 /**
  * Message used to distribute a file from the console to the agent
- * processes.
+ * processes. The message describes the file; the agent assembles it from
+ * the chunks it already holds and those that follow in
+ * {@link DistributeFileChunkMessage}s.
  *
  * @author Philip Aston
  */
 public final class DistributeFileMessage implements Message {
 
-  private static final long serialVersionUID = -4338519775293350257L;
+  private static final long serialVersionUID = 6094773841256930215L;
 
   private final FileContents m_fileContents;
 
   /**
    * Constructor.
    *
-   * @param fileContents The file contents to distribute.
+   * @param fileContents Description of the file to distribute.
    */
   public DistributeFileMessage(FileContents fileContents) {
     m_fileContents = fileContents;
@@ -0,0 +1,120 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.messages.console;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import net.grinder.common.processidentity.ProcessReport;
+import net.grinder.communication.MessageEncoder;
+import net.grinder.communication.WireFormat;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.TestStatisticsMap;
+
+
+/**
+ * Binary encoders for the messages that worker processes send to the console
+ * most frequently.
+ *
+ * <p>
+ * Both the worker processes and the console must call {@link #register}
+ * before they communicate.
+ * </p>
+ *
+ * @author Philip Aston
+ * @see WireFormat
+ */
+public final class ConsoleMessageEncoders {
+
+  private static final int REPORT_STATISTICS = 16;
+  private static final int WORKER_PROCESS_REPORT = 17;
+
+  private static final ProcessReport.State[] STATES =
+    ProcessReport.State.values();
+
+  private ConsoleMessageEncoders() {
+  }
+
+  /**
+   * Register the encoders with {@link WireFormat}. It is safe to call this
+   * more than once.
+   */
+  public static void register() {
+    WireFormat.register(REPORT_STATISTICS,
+                        ReportStatisticsMessage.class,
+                        new ReportStatisticsEncoder());
+
+    WireFormat.register(WORKER_PROCESS_REPORT,
+                        WorkerProcessReportMessage.class,
+                        new WorkerProcessReportEncoder());
+  }
+
+  private static final class ReportStatisticsEncoder
+    implements MessageEncoder<ReportStatisticsMessage> {
+
+    public void write(ReportStatisticsMessage message, DataOutput out)
+      throws IOException {
+      message.getStatisticsDelta().write(out);
+    }
+
+    public ReportStatisticsMessage read(DataInput in) throws IOException {
+      // As for TestStatisticsMap's Externalizable support, we have no choice
+      // but to use the singleton StatisticsSetFactory.
+      final TestStatisticsMap statistics =
+        new TestStatisticsMap(
+          StatisticsServicesImplementation.getInstance()
+          .getStatisticsSetFactory());
+
+      statistics.read(in);
+
+      return new ReportStatisticsMessage(statistics);
+    }
+  }
+
+  private static final class WorkerProcessReportEncoder
+    implements MessageEncoder<WorkerProcessReportMessage> {
+
+    public void write(WorkerProcessReportMessage message, DataOutput out)
+      throws IOException {
+      out.writeByte(message.getState().ordinal());
+      out.writeShort(message.getNumberOfRunningThreads());
+      out.writeShort(message.getMaximumNumberOfThreads());
+    }
+
+    public WorkerProcessReportMessage read(DataInput in) throws IOException {
+      final int state = in.readUnsignedByte();
+
+      if (state >= STATES.length) {
+        throw new StreamCorruptedException("Invalid process state " + state);
+      }
+
+      final short runningThreads = in.readShort();
+      final short totalThreads = in.readShort();
+
+      return new WorkerProcessReportMessage(STATES[state],
+                                            runningThreads,
+                                            totalThreads);
+    }
+  }
+}
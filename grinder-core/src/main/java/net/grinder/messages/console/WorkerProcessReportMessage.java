@@ -38,13 +38,15 @@ import net.grinder.communication.CommunicationException;
 public final class WorkerProcessReportMessage
   implements AddressAwareMessage, WorkerProcessReport {
 
-  private static final long serialVersionUID = 3L;
+  private static final long serialVersionUID = 4L;
 
   private final State m_state;
   private final short m_totalNumberOfThreads;
   private final short m_numberOfRunningThreads;
 
-  private transient WorkerAddress m_processAddress;
+  // Serialised, so that an agent can forward reports from its workers. See
+  // WorkerProcessReportsMessage.
+  private WorkerAddress m_processAddress;
 
   /**
    * Creates a new <code>WorkerProcessReportMessage</code> instance.
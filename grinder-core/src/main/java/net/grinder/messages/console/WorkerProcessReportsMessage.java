@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -19,41 +19,44 @@
 // ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
 // OF THE POSSIBILITY OF SUCH DAMAGE.
 
-package net.grinder.synchronisation.messages;
 
+package net.grinder.messages.console;
+
+import java.util.List;
+
+import net.grinder.communication.Message;
 
 
 /**
- * Barrier group message requesting that a waiter be added.
+ * Message sent by an agent to the console, combining the
+ * {@link WorkerProcessReportMessage}s of its worker processes.
  *
  * @author Philip Aston
  */
-public class AddWaiterMessage extends AbstractBarrierGroupMessage {
+public final class WorkerProcessReportsMessage implements Message {
 
   private static final long serialVersionUID = 1L;
 
-  private final BarrierIdentity m_barrierIdentity;
+  private final List<WorkerProcessReportMessage> m_reports;
 
   /**
    * Constructor.
    *
-   * @param name
-   *          Barrier name.
-   * @param barrierIdentity
-   *          The identity of the waiter.
+   * @param reports
+   *          The latest reports. Each must have been received from a worker
+   *          process, so that
+   *          {@link WorkerProcessReportMessage#getProcessAddress()} is set.
    */
-  public AddWaiterMessage(String name,
-                          BarrierIdentity barrierIdentity) {
-    super(name);
-    m_barrierIdentity = barrierIdentity;
+  public WorkerProcessReportsMessage(List<WorkerProcessReportMessage> reports) {
+    m_reports = reports;
   }
 
   /**
-   * Identifies the waiter.
+   * The worker process reports.
    *
-   * @return The identity of the waiter.
+   * @return The reports.
    */
-  public BarrierIdentity getBarrierIdentity() {
-    return m_barrierIdentity;
+  public List<WorkerProcessReportMessage> getReports() {
+    return m_reports;
   }
 }
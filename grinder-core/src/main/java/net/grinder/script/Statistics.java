@@ -1,4 +1,4 @@
-// Copyright (C) 2003 - 2008 Philip Aston
+// Copyright (C) 2003 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -62,7 +62,38 @@ import net.grinder.common.GrinderException;
  * <td><em>timedTests</em></td>
  * <td>sample&nbsp;long</td>
  * <td>Sample statistic that records successful tests.
- * A test is considered successful if it is not marked as an error.</td>
+ * A test is considered successful if it is not marked as an error. A
+ * histogram of the test times is also recorded, so percentiles can be
+ * calculated.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>timedTestsMicros</em></td>
+ * <td>sample&nbsp;long</td>
+ * <td>Sample statistic that records the same tests as <em>timedTests</em>,
+ * but with the test times in microseconds. Tests are timed with a high
+ * resolution timer, so this is the statistic to use for tests that take less
+ * than a few milliseconds. A histogram of the test times is also
+ * recorded.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>ticketWait</em></td>
+ * <td>sample&nbsp;long</td>
+ * <td>Sample statistic that records how long each run waited for a free
+ * worker thread after its scheduled start time, in milliseconds. Only
+ * recorded if <code>grinder.arrivalRate</code> is set. A histogram of the
+ * waits is also recorded.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>barrierReleaseLatency</em></td>
+ * <td>sample&nbsp;long</td>
+ * <td>Sample statistic that records how long each barrier took to open
+ * after its last waiter arrived, in microseconds. Only recorded by the worker
+ * process whose waiter arrived last, and only if the worker process is
+ * connected to the console. A histogram of the latencies is also
+ * recorded.</td>
  * </tr>
  *
  * <tr>
@@ -141,6 +172,34 @@ import net.grinder.common.GrinderException;
  * </tr>
  *
  * <tr>
+ * <td><em>timedTestsMicros</em></td>
+ * <td>sample&nbsp;long</td>
+ * <td>As for <em>timedTests</em>, but the sum is the test time in
+ * microseconds.
+ * </td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>ticketWait</em></td>
+ * <td>sample&nbsp;long</td>
+ * <td>For the first test reported by a run that was scheduled by
+ * <code>grinder.arrivalRate</code>, the count is <code>1</code> and the sum
+ * is the time the run waited for a free worker thread, in milliseconds.
+ * Otherwise the sum and the count are zero.
+ * </td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>barrierReleaseLatency</em></td>
+ * <td>sample&nbsp;long</td>
+ * <td>For the first test reported by a thread after its wait at a barrier
+ * was the last to arrive, the count is <code>1</code> and the sum is the time
+ * the barrier took to open, in microseconds. Otherwise the sum and the count
+ * are zero.
+ * </td>
+ * </tr>
+ *
+ * <tr>
  * <td><em>userLong0</em>, <em>userLong1</em>, <em>userLong2</em>,
  * <em>userLong3</em>, <em>userLong4</em></td>
  * <td>basic&nbsp;long</td>
@@ -183,17 +242,19 @@ import net.grinder.common.GrinderException;
  *
  * <ul>
  * <li>If <em>errors</em> is <code>0</code>, the elapsed time of the test is
- * added to the <em>timedTests</em> sample statistic.</li>
- * <li>If <em>errors</em> is not <code>0</code>, the <em>timedTests</em>
- * and <em>untimedTests</em> statistics are reset to zero, and <em>errors</em>
- * is set to <code>1</code>.
+ * added to the <em>timedTests</em> and <em>timedTestsMicros</em> sample
+ * statistics.</li>
+ * <li>If <em>errors</em> is not <code>0</code>, the <em>timedTests</em>,
+ * <em>timedTestsMicros</em>, and <em>untimedTests</em> statistics are reset to
+ * zero, and <em>errors</em> is set to <code>1</code>.
  * </ul>
  *
  * <p>If the <code>grinder.reportTimesToConsole</code> property (see <a
  * href="http://grinder.sourceforge.net/g3/properties.html">The Grinder manual
  * </a>) is <code>false</code>, the statistics sent to the console are further
  * modified by setting <em>untimedTests</em> to the count of the
- * <em>timedTests</em> statistic, and resetting <em>timedTests</em>.</p>
+ * <em>timedTests</em> statistic, and resetting <em>timedTests</em> and
+ * <em>timedTestsMicros</em>.</p>
  *
  * <h4>HTTP Plug-in Statistics</h4>
  *
@@ -221,7 +282,15 @@ import net.grinder.common.GrinderException;
  * <tr>
  * <td><em>httpplugin.responseLength</em></td>
  * <td>basic&nbsp;long</td>
- * <td>The length of the HTTP response in bytes.</td>
+ * <td>The length of the HTTP response body in bytes, as received. If
+ * the body was compressed, this is the compressed length.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>httpplugin.decodedResponseLength</em></td>
+ * <td>basic&nbsp;long</td>
+ * <td>The length of the HTTP response body in bytes, after any
+ * <code>Content-Encoding</code> has been decoded.</td>
  * </tr>
  *
  * <tr>
@@ -251,6 +320,33 @@ import net.grinder.common.GrinderException;
  * includes time to resolve the host name and establish the connection).</td>
  * </tr>
  *
+ * <tr>
+ * <td><em>httpplugin.connectionsEstablished</em></td>
+ * <td>basic&nbsp;long</td>
+ * <td>The number of new connections established.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>httpplugin.connectionsReused</em></td>
+ * <td>basic&nbsp;long</td>
+ * <td>The number of connections kept from an earlier run that were used
+ * without reconnecting. See the <code>grinder.http.connectionReuse</code>
+ * property.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>httpplugin.tlsFullHandshakes</em></td>
+ * <td>basic&nbsp;long</td>
+ * <td>The number of full SSL handshakes.</td>
+ * </tr>
+ *
+ * <tr>
+ * <td><em>httpplugin.tlsResumedHandshakes</em></td>
+ * <td>basic&nbsp;long</td>
+ * <td>The number of abbreviated SSL handshakes that resumed an earlier
+ * session.</td>
+ * </tr>
+ *
  * </table> </blockquote>
  *
  *
@@ -396,6 +492,13 @@ public interface Statistics  {
    * statistics.getForCurrentTest() # Will throw exception, no current test.
    * </pre>
    *
+   * <p>
+   * The engine reuses the underlying statistics for later calls of the same
+   * test. The returned object remains usable at least until the following
+   * call of the test completes; after that, its methods throw an exception. Use {@link #getForLastTest()} to keep the statistics for a
+   * completed test.
+   * </p>
+   *
    * @return The statistics for the current test.
    * @throws InvalidContextException
    *           If not called from a worker thread.
@@ -501,6 +604,13 @@ public interface Statistics  {
    * represents the mean test time in milliseconds.
    * </p>
    *
+   * <p>
+   * <code>(percentile timedTests 99.9)</code> gives an approximation of the
+   * 99.9th percentile test time, calculated from a histogram of the test
+   * times. Percentiles are only available for <em>timedTests</em> and
+   * <em>timedTestsMicros</em>.
+   * </p>
+   *
    * @param displayName
    *          A display name. In the console, this is converted to a key for an
    *          internationalised resource bundle look up by prefixing the string
@@ -64,13 +64,15 @@ final class CommonStatisticsViews {
           "Errors",
           "errors",
           true),
+        // The test times are calculated from timedTestsMicros, so they are
+        // accurate for tests that take less than a millisecond.
         expressionFactory.createExpressionView(
           "Mean Test Time (ms)",
-          "(/ (sum timedTests) (count timedTests))",
+          "(/ (sum timedTestsMicros) (* 1000 (count timedTestsMicros)))",
           false),
         expressionFactory.createExpressionView(
           "Test Time Standard Deviation (ms)",
-          "(sqrt (variance timedTests))",
+          "(/ (sqrt (variance timedTestsMicros)) 1000)",
           false),
         expressionFactory.createExpressionView("TPS", m_tpsExpression),
       };
@@ -88,6 +88,19 @@ public interface ImmutableStatisticsSet {
    */
   double getVariance(StatisticsIndexMap.SampleIndex index);
 
+  /**
+   * Get a percentile of the sample values for the sample statistic specified
+   * by <code>index</code>. The value is approximate, being calculated from
+   * the statistic's histogram.
+   *
+   * @param index The index.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The highest value equivalent to the percentile value, or 0 if
+   * there are no samples or the statistic does not record a histogram.
+   */
+  long getPercentile(StatisticsIndexMap.LongSampleIndex index,
+                     double percentile);
+
   /**
    * Return whether all the statistics are zero. This allows us to optimise
    * cases where there's no information to be processed.
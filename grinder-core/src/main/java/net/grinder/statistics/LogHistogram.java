@@ -0,0 +1,368 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.statistics;
+
+import java.util.Arrays;
+
+
+/**
+ * Bucket arithmetic for the fixed size, log-linear histograms used by
+ * histogram sample statistics.
+ *
+ * <p>
+ * Values less than 2<sup>{@value #SUB_BUCKET_BITS}</sup> have a bucket each.
+ * Larger values share buckets; each power of two range is split into 2<sup>
+ * {@value #SUB_BUCKET_BITS} - 1</sup> equal-sized buckets, so the relative
+ * error of a value reconstructed from a bucket is bounded, similar to an
+ * HDR histogram. Values of 2<sup>{@value #MAXIMUM_VALUE_BITS}</sup> or more
+ * are counted in the last bucket.
+ * </p>
+ *
+ * <p>
+ * Samples for a test usually fall into a narrow range of buckets, so an
+ * instance only stores counts for the range of buckets that it has used. The
+ * storage is allocated on first use, and grows as new buckets are needed.
+ * Histograms are merged by adding the occupied ranges.
+ * </p>
+ *
+ * <p>
+ * Not thread safe. The owning {@link StatisticsSetImplementation} is
+ * responsible for synchronisation.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class LogHistogram {
+
+  /**
+   * Number of bits of precision.
+   */
+  static final int SUB_BUCKET_BITS = 5;
+
+  /**
+   * Values of 2^MAXIMUM_VALUE_BITS or more share the last bucket.
+   */
+  static final int MAXIMUM_VALUE_BITS = 40;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+  /**
+   * The number of buckets in a histogram.
+   */
+  static final int NUMBER_OF_BUCKETS =
+    SUB_BUCKET_COUNT +
+    (MAXIMUM_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+  // Buckets are allocated in runs of at least this size.
+  private static final int MINIMUM_ALLOCATION = SUB_BUCKET_HALF_COUNT;
+
+  // Counts for the buckets m_first to m_first + m_counts.length - 1. null =>
+  // no samples have been recorded.
+  private long[] m_counts;
+  private int m_first;
+
+  /**
+   * Find the bucket for a value.
+   *
+   * @param value The value. Negative values are counted as zero.
+   * @return The bucket number.
+   */
+  static int getBucket(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return value < 0 ? 0 : (int)value;
+    }
+
+    final int highestBit = 63 - Long.numberOfLeadingZeros(value);
+
+    if (highestBit >= MAXIMUM_VALUE_BITS) {
+      return NUMBER_OF_BUCKETS - 1;
+    }
+
+    final int shift = highestBit - SUB_BUCKET_BITS + 1;
+
+    return SUB_BUCKET_COUNT +
+           (shift - 1) * SUB_BUCKET_HALF_COUNT +
+           (int)((value >>> shift) - SUB_BUCKET_HALF_COUNT);
+  }
+
+  /**
+   * The largest value that is counted by a bucket.
+   *
+   * @param bucket The bucket number.
+   * @return The value.
+   */
+  static long getHighestEquivalentValue(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+
+    final int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+    final long subBucket =
+      (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT +
+      SUB_BUCKET_HALF_COUNT;
+
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * Record a sample.
+   *
+   * @param value The sample value.
+   */
+  void record(long value) {
+    increment(getBucket(value), 1);
+  }
+
+  /**
+   * Add to the count of a bucket.
+   *
+   * @param bucket The bucket number.
+   * @param count The amount to add.
+   */
+  void increment(int bucket, long count) {
+    ensureRange(bucket, bucket);
+    m_counts[bucket - m_first] += count;
+  }
+
+  /**
+   * The number of samples counted by a bucket.
+   *
+   * @param bucket The bucket number.
+   * @return The count.
+   */
+  long getCount(int bucket) {
+    if (m_counts == null ||
+        bucket < m_first ||
+        bucket >= m_first + m_counts.length) {
+      return 0;
+    }
+
+    return m_counts[bucket - m_first];
+  }
+
+  /**
+   * Find the next bucket with a non-zero count.
+   *
+   * @param bucket The bucket number to start from.
+   * @return The bucket number, or {@code -1} if there are no more non-zero
+   *  buckets.
+   */
+  int nextNonZeroBucket(int bucket) {
+    if (m_counts != null) {
+      for (int i = Math.max(bucket - m_first, 0); i < m_counts.length; ++i) {
+        if (m_counts[i] != 0) {
+          return m_first + i;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Add the counts of another histogram to ours.
+   *
+   * @param other The other histogram.
+   */
+  void add(LogHistogram other) {
+    final int low = other.nextNonZeroBucket(0);
+
+    if (low == -1) {
+      return;
+    }
+
+    int high = other.m_first + other.m_counts.length - 1;
+
+    while (other.m_counts[high - other.m_first] == 0) {
+      --high;
+    }
+
+    ensureRange(low, high);
+
+    for (int i = low; i <= high; ++i) {
+      m_counts[i - m_first] += other.m_counts[i - other.m_first];
+    }
+  }
+
+  /**
+   * Set all counts to zero. The storage is kept for reuse.
+   */
+  void reset() {
+    if (m_counts != null) {
+      Arrays.fill(m_counts, 0);
+    }
+  }
+
+  /**
+   * Whether all counts are zero.
+   *
+   * @return {@code true} if and only if no samples are counted.
+   */
+  boolean isZero() {
+    return nextNonZeroBucket(0) == -1;
+  }
+
+  /**
+   * Copy this histogram.
+   *
+   * @return The copy.
+   */
+  LogHistogram copy() {
+    final LogHistogram result = new LogHistogram();
+
+    if (m_counts != null) {
+      result.m_counts = m_counts.clone();
+      result.m_first = m_first;
+    }
+
+    return result;
+  }
+
+  private void ensureRange(int low, int high) {
+    if (m_counts == null) {
+      m_first = Math.max(0, low - MINIMUM_ALLOCATION / 2);
+
+      final int last =
+        Math.min(NUMBER_OF_BUCKETS - 1,
+                 Math.max(high, m_first + MINIMUM_ALLOCATION - 1));
+
+      m_counts = new long[last - m_first + 1];
+      return;
+    }
+
+    final int last = m_first + m_counts.length - 1;
+
+    if (low >= m_first && high <= last) {
+      return;
+    }
+
+    // Grow by at least half again to amortise the copying.
+    final int slack = Math.max(m_counts.length / 2, MINIMUM_ALLOCATION);
+
+    final int newFirst =
+      low < m_first ? Math.max(0, Math.min(low, m_first - slack)) : m_first;
+
+    final int newLast =
+      high > last ?
+        Math.min(NUMBER_OF_BUCKETS - 1, Math.max(high, last + slack)) : last;
+
+    final long[] counts = new long[newLast - newFirst + 1];
+    System.arraycopy(m_counts, 0, counts, m_first - newFirst, m_counts.length);
+
+    m_counts = counts;
+    m_first = newFirst;
+  }
+
+  /**
+   * Calculate a percentile.
+   *
+   * @param percentile The percentile, between 0 and 100.
+   * @return The highest value equivalent to the value at the given
+   *  percentile, or 0 if the histogram is empty.
+   */
+  long getPercentile(double percentile) {
+    if (m_counts == null) {
+      return 0;
+    }
+
+    long total = 0;
+
+    for (long count : m_counts) {
+      total += count;
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    final double boundedPercentile = Math.min(Math.max(percentile, 0), 100);
+    final long rank =
+      Math.max(1, (long)Math.ceil(boundedPercentile * total / 100));
+
+    long cumulative = 0;
+
+    for (int i = 0; i < m_counts.length; ++i) {
+      cumulative += m_counts[i];
+
+      if (cumulative >= rank) {
+        return getHighestEquivalentValue(m_first + i);
+      }
+    }
+
+    return getHighestEquivalentValue(m_first + m_counts.length - 1);
+  }
+
+  /**
+   * Value based equality. The storage used does not matter.
+   *
+   * @param o <code>Object</code> to compare to.
+   * @return <code>true</code> if and only if the two objects are equal.
+   */
+  @Override public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o == null || o.getClass() != LogHistogram.class) {
+      return false;
+    }
+
+    final LogHistogram other = (LogHistogram)o;
+
+    int bucket = nextNonZeroBucket(0);
+    int otherBucket = other.nextNonZeroBucket(0);
+
+    while (bucket == otherBucket) {
+      if (bucket == -1) {
+        return true;
+      }
+
+      if (getCount(bucket) != other.getCount(bucket)) {
+        return false;
+      }
+
+      final int next = bucket + 1;
+      bucket = nextNonZeroBucket(next);
+      otherBucket = other.nextNonZeroBucket(next);
+    }
+
+    return false;
+  }
+
+  /**
+   * Hash code consistent with {@link #equals}.
+   *
+   * @return The hash code.
+   */
+  @Override public int hashCode() {
+    long result = 0;
+
+    for (int bucket = nextNonZeroBucket(0);
+         bucket != -1;
+         bucket = nextNonZeroBucket(bucket + 1)) {
+      result = result * 31 + bucket * 17 + getCount(bucket);
+    }
+
+    return (int)(result ^ (result >> 32));
+  }
+}
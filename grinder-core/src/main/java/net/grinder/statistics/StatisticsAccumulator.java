@@ -0,0 +1,134 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.statistics;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.grinder.statistics.StatisticsIndexMap.LongIndex;
+
+
+/**
+ * Accumulates statistics written by a single thread, allowing another thread
+ * to periodically drain them without either thread blocking the other.
+ *
+ * <p>The writer and the reader exchange ownership of the underlying
+ * statistics set through an atomic reference, so neither needs to take a
+ * monitor. If the writer finds that the reader has the set, it starts a new
+ * one. The reader only merges state that is non-zero.</p>
+ *
+ * @author Philip Aston
+ * @see StatisticsSetFactory#createAccumulator()
+ */
+public final class StatisticsAccumulator {
+
+  private final StatisticsIndexMap m_statisticsIndexMap;
+
+  // null => the writer or the reader owns the set.
+  private final AtomicReference<StatisticsSetImplementation> m_statistics;
+
+  StatisticsAccumulator(StatisticsIndexMap statisticsIndexMap) {
+    m_statisticsIndexMap = statisticsIndexMap;
+    m_statistics =
+      new AtomicReference<StatisticsSetImplementation>(
+        new StatisticsSetImplementation(statisticsIndexMap));
+  }
+
+  private StatisticsSetImplementation acquire() {
+    final StatisticsSetImplementation statistics = m_statistics.getAndSet(null);
+
+    if (statistics == null) {
+      // The reader is draining our set.
+      return new StatisticsSetImplementation(m_statisticsIndexMap);
+    }
+
+    return statistics;
+  }
+
+  private void release(StatisticsSetImplementation statistics) {
+    // Only the writer stores a set that is not empty, so it can overwrite
+    // anything the reader has put back.
+    m_statistics.lazySet(statistics);
+  }
+
+  /**
+   * Add statistics. Should only be called by the writing thread.
+   *
+   * @param operand The statistics to add.
+   */
+  public void add(ImmutableStatisticsSet operand) {
+    final StatisticsSetImplementation statistics = acquire();
+    statistics.addUnsynchronised((StatisticsSetImplementation) operand);
+    release(statistics);
+  }
+
+  /**
+   * Add to a long statistic. Should only be called by the writing thread.
+   *
+   * @param index The index.
+   * @param value The value to add.
+   */
+  public void addValue(LongIndex index, long value) {
+    final StatisticsSetImplementation statistics = acquire();
+    statistics.addValueUnsynchronised(index, value);
+    release(statistics);
+  }
+
+  /**
+   * Mark the statistics as composite. Should only be called by the writing
+   * thread.
+   */
+  public void setIsComposite() {
+    final StatisticsSetImplementation statistics = acquire();
+    statistics.setIsCompositeUnsynchronised();
+    release(statistics);
+  }
+
+  /**
+   * Add the accumulated statistics to {@code target}, and reset them. Should
+   * only be called by the reading thread.
+   *
+   * <p>If the writer is part way through an update, nothing is drained; the
+   * statistics will be collected by the next call.</p>
+   *
+   * @param target The statistics set to update.
+   */
+  public void drainTo(StatisticsSet target) {
+    final StatisticsSetImplementation statistics = m_statistics.getAndSet(null);
+
+    if (statistics == null) {
+      return;
+    }
+
+    if (statistics.isComposite()) {
+      target.setIsComposite();
+    }
+
+    if (!statistics.isZero()) {
+      target.add(statistics);
+      statistics.reset();
+    }
+
+    // Fails harmlessly if the writer has started a new set.
+    m_statistics.compareAndSet(null, statistics);
+  }
+}
@@ -27,6 +27,7 @@ import static java.util.Arrays.asList;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,11 +59,19 @@ import java.util.Map;
  * (e.g. <em>count()</em>), see {@link ExpressionView}.
  * </p>
  *
+ * <p>
+ * Some long sample statistics also record a <em>histogram</em> of the sample
+ * values, allowing percentiles to be queried with the <em>percentile()</em>
+ * expression function. The standard <em>timedTests</em>,
+ * <em>timedTestsMicros</em>, <em>ticketWait</em>, and
+ * <em>barrierReleaseLatency</em> statistics record histograms.
+ * </p>
+ *
  * @author Philip Aston
  */
 public final class StatisticsIndexMap implements Serializable {
 
-  private static final long serialVersionUID = 1;
+  private static final long serialVersionUID = 2;
 
   private final Map<String, DoubleIndex> m_doubleMap =
     new HashMap<String, DoubleIndex>();
@@ -79,6 +88,7 @@ public final class StatisticsIndexMap implements Serializable {
   // as the sample indicies also use slots.
   private final int m_numberOfDoubles;
   private final int m_numberOfLongs;
+  private final int m_numberOfHistograms;
 
   /**
    * Special slot for the HTTP plugin so it doesn't steal "user"
@@ -129,6 +139,34 @@ public final class StatisticsIndexMap implements Serializable {
   public static final String HTTP_PLUGIN_CONNECTIONS_ESTABLISHED =
     "httpplugin.connectionsEstablished";
 
+  /**
+   * Special slot for the HTTP plugin so it doesn't steal "user"
+   * indices. Use with {@link #getLongIndex(String)}.
+   */
+  public static final String HTTP_PLUGIN_CONNECTIONS_REUSED =
+    "httpplugin.connectionsReused";
+
+  /**
+   * Special slot for the HTTP plugin so it doesn't steal "user"
+   * indices. Use with {@link #getLongIndex(String)}.
+   */
+  public static final String HTTP_PLUGIN_TLS_FULL_HANDSHAKES =
+    "httpplugin.tlsFullHandshakes";
+
+  /**
+   * Special slot for the HTTP plugin so it doesn't steal "user"
+   * indices. Use with {@link #getLongIndex(String)}.
+   */
+  public static final String HTTP_PLUGIN_TLS_RESUMED_HANDSHAKES =
+    "httpplugin.tlsResumedHandshakes";
+
+  /**
+   * Special slot for the HTTP plugin so it doesn't steal "user"
+   * indices. Use with {@link #getLongIndex(String)}.
+   */
+  public static final String HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY =
+    "httpplugin.decodedResponseLength";
+
   /**
    * Constructor.
    */
@@ -145,6 +183,10 @@ public final class StatisticsIndexMap implements Serializable {
                 HTTP_PLUGIN_CONNECT_TIME_KEY,
                 HTTP_PLUGIN_FIRST_BYTE_TIME_KEY,
                 HTTP_PLUGIN_CONNECTIONS_ESTABLISHED,
+                HTTP_PLUGIN_CONNECTIONS_REUSED,
+                HTTP_PLUGIN_TLS_FULL_HANDSHAKES,
+                HTTP_PLUGIN_TLS_RESUMED_HANDSHAKES,
+                HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
                 "userLong0",
                 "userLong1",
                 "userLong2",
@@ -157,7 +199,14 @@ public final class StatisticsIndexMap implements Serializable {
                 "userDouble3",
                 "userDouble4"),
          asList("period"),
-         asList("timedTests"));
+         asList("timedTests",
+                "timedTestsMicros",
+                "ticketWait",
+                "barrierReleaseLatency"),
+         asList("timedTests",
+                "timedTestsMicros",
+                "ticketWait",
+                "barrierReleaseLatency"));
   }
 
   /**
@@ -176,6 +225,33 @@ public final class StatisticsIndexMap implements Serializable {
                      List<String> doubleNames,
                      List<String> transientLongNames,
                      List<String> longSampleNames) {
+    this(longNames,
+         doubleNames,
+         transientLongNames,
+         longSampleNames,
+         Collections.<String>emptyList());
+  }
+
+  /**
+   * Open constructor for use by unit tests.
+   *
+   * @param longNames
+   *          Names of long statistics.
+   * @param doubleNames
+   *          Names of double statistics.
+   * @param transientLongNames
+   *          Names of transient long statistics.
+   * @param longSampleNames
+   *          Names of long sample statistics.
+   * @param histogramNames
+   *          Names of the long sample statistics that also record a
+   *          histogram.
+   */
+  StatisticsIndexMap(List<String> longNames,
+                     List<String> doubleNames,
+                     List<String> transientLongNames,
+                     List<String> longSampleNames,
+                     List<String> histogramNames) {
     int nextLongIndex = 0;
     int nextTransientLongIndex = 0;
 
@@ -189,11 +265,23 @@ public final class StatisticsIndexMap implements Serializable {
       m_doubleMap.put(doubleName, new DoubleIndex(nextDoubleIndex++));
     }
 
+    int nextHistogramIndex = 0;
+
     for (String longSampleName : longSampleNames) {
+      final HistogramIndex histogramIndex;
+
+      if (histogramNames.contains(longSampleName)) {
+        histogramIndex = new HistogramIndex(nextHistogramIndex++);
+      }
+      else {
+        histogramIndex = null;
+      }
+
       createLongSampleIndex(longSampleName,
                             new LongIndex(nextLongIndex++),
                             new LongIndex(nextLongIndex++),
-                            new DoubleIndex(nextDoubleIndex++));
+                            new DoubleIndex(nextDoubleIndex++),
+                            histogramIndex);
     }
 
     for (String transientLongName : transientLongNames) {
@@ -203,6 +291,7 @@ public final class StatisticsIndexMap implements Serializable {
 
     m_numberOfDoubles = nextDoubleIndex;
     m_numberOfLongs = nextLongIndex;
+    m_numberOfHistograms = nextHistogramIndex;
   }
 
   int getNumberOfDoubles() {
@@ -217,6 +306,10 @@ public final class StatisticsIndexMap implements Serializable {
     return m_transientLongMap.size();
   }
 
+  int getNumberOfHistograms() {
+    return m_numberOfHistograms;
+  }
+
   Collection<DoubleSampleIndex> getDoubleSampleIndicies() {
     return m_doubleSampleMap.values();
   }
@@ -286,14 +379,16 @@ public final class StatisticsIndexMap implements Serializable {
    * @param sumIndex Index to hold sum.
    * @param countIndex Index to hold count.
    * @param varianceIndex Index to hold variance.
+   * @param histogramIndex Index to hold histogram, or {@code null}.
    * @return The new index.
    */
   private LongSampleIndex createLongSampleIndex(String statisticName,
                                                 LongIndex sumIndex,
                                                 LongIndex countIndex,
-                                                DoubleIndex varianceIndex) {
+                                                DoubleIndex varianceIndex,
+                                                HistogramIndex histogramIndex) {
     final LongSampleIndex result =
-      new LongSampleIndex(sumIndex, countIndex, varianceIndex);
+      new LongSampleIndex(sumIndex, countIndex, varianceIndex, histogramIndex);
 
     m_longSampleMap.put(statisticName, result);
 
@@ -385,6 +480,29 @@ public final class StatisticsIndexMap implements Serializable {
     }
   }
 
+  /**
+   * Class of opaque objects that represent histograms.
+   *
+   * <p>Package scope. External clients use the owning {@link LongSampleIndex}.
+   * </p>
+   */
+  static final class HistogramIndex {
+    private final int m_value;
+
+    private HistogramIndex(int value) {
+      m_value = value;
+    }
+
+    /**
+     * The index of the histogram within a statistics set.
+     *
+     * @return The index value.
+     */
+    int getValue() {
+      return m_value;
+    }
+  }
+
   /**
    * Base class for sample statistic indices.
    */
@@ -458,12 +576,15 @@ public final class StatisticsIndexMap implements Serializable {
    */
   public static final class LongSampleIndex extends SampleIndex {
     private final LongIndex m_sumIndex;
+    private final HistogramIndex m_histogramIndex;
 
     private LongSampleIndex(LongIndex sumIndex,
                             LongIndex countIndex,
-                            DoubleIndex varianceIndex) {
+                            DoubleIndex varianceIndex,
+                            HistogramIndex histogramIndex) {
       super(countIndex, varianceIndex);
       m_sumIndex = sumIndex;
+      m_histogramIndex = histogramIndex;
     }
 
     /**
@@ -478,5 +599,19 @@ public final class StatisticsIndexMap implements Serializable {
     LongIndex getSumIndex() {
       return m_sumIndex;
     }
+
+    /**
+     * Get the index object for our histogram.
+     *
+     * <p>Package scope to prevent direct write access. External clients should
+     * use the {@link StatisticsSet} or {@link StatisticExpression} interfaces.
+     * </p>
+     *
+     * @return The index object, or {@code null} if this sample statistic
+     * does not record a histogram.
+     */
+    HistogramIndex getHistogramIndex() {
+      return m_histogramIndex;
+    }
   }
 }
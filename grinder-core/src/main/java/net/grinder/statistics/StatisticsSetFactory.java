@@ -1,4 +1,4 @@
-// Copyright (C) 2000, 2001, 2002, 2003, 2004, 2005 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,8 +22,8 @@
 package net.grinder.statistics;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
+import java.io.DataInput;
+import java.io.DataOutput;
 
 import net.grinder.util.Serialiser;
 
@@ -51,13 +51,96 @@ public final class StatisticsSetFactory {
     return new StatisticsSetImplementation(m_statisticsIndexMap);
   }
 
-  void writeStatisticsExternal(ObjectOutput out,
+  /**
+   * Factory method.
+   *
+   * @return A new <code>StatisticsAccumulator</code>.
+   */
+  public StatisticsAccumulator createAccumulator() {
+    return new StatisticsAccumulator(m_statisticsIndexMap);
+  }
+
+  /**
+   * The number of raw values used to represent a statistics set, not
+   * counting histogram buckets.
+   *
+   * @return The number of raw values.
+   * @see #getRawValues
+   */
+  public int getNumberOfRawValues() {
+    return m_statisticsIndexMap.getNumberOfLongs() +
+           m_statisticsIndexMap.getNumberOfDoubles() +
+           1;
+  }
+
+  /**
+   * Copy the values of a statistics set to an array of longs. This
+   * allows statistics to be stored in a fixed width, columnar form.
+   *
+   * <p>Transient values are not included. Histogram buckets are not
+   * included; use {@link #writeHistograms}.</p>
+   *
+   * @param statistics The statistics.
+   * @param values
+   *          The array to fill. Must have at least
+   *          {@link #getNumberOfRawValues()} elements.
+   * @see #createFromRawValues
+   */
+  public void getRawValues(StatisticsSet statistics, long[] values) {
+    ((StatisticsSetImplementation)statistics).getRawValues(values);
+  }
+
+  /**
+   * Create a statistics set from raw values obtained from
+   * {@link #getRawValues}.
+   *
+   * @param values The raw values.
+   * @return The statistics set.
+   */
+  public StatisticsSet createFromRawValues(long[] values) {
+    final StatisticsSetImplementation result =
+      new StatisticsSetImplementation(m_statisticsIndexMap);
+
+    result.setRawValues(values);
+
+    return result;
+  }
+
+  /**
+   * Write the histograms of a statistics set. Together with
+   * {@link #getRawValues}, this records the complete statistics set.
+   *
+   * @param statistics The statistics.
+   * @param out Where to write the histograms.
+   * @throws IOException If the histograms could not be written.
+   * @see #readHistograms
+   */
+  public void writeHistograms(StatisticsSet statistics, DataOutput out)
+    throws IOException {
+    ((StatisticsSetImplementation)statistics)
+      .writeHistogramsExternal(out, m_serialiser);
+  }
+
+  /**
+   * Add histograms written by {@link #writeHistograms} to a statistics set.
+   *
+   * @param in Where to read the histograms.
+   * @param statistics The statistics.
+   * @throws IOException If the histograms could not be read.
+   */
+  public void readHistograms(DataInput in, StatisticsSet statistics)
+    throws IOException {
+    ((StatisticsSetImplementation)statistics)
+      .readHistogramsExternal(in, m_serialiser);
+  }
+
+  void writeStatisticsExternal(DataOutput out,
                                StatisticsSetImplementation statistics)
     throws IOException {
     statistics.writeExternal(out, m_serialiser);
   }
 
-  StatisticsSet readStatisticsExternal(ObjectInput in) throws IOException {
+  StatisticsSet readStatisticsExternal(DataInput in) throws IOException {
     return new StatisticsSetImplementation(m_statisticsIndexMap,
                                            in,
                                            m_serialiser);
@@ -1,4 +1,4 @@
-// Copyright (C) 2000 - 2011 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -22,12 +22,13 @@
 package net.grinder.statistics;
 
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.util.Arrays;
 
 import net.grinder.statistics.StatisticsIndexMap.DoubleIndex;
 import net.grinder.statistics.StatisticsIndexMap.DoubleSampleIndex;
+import net.grinder.statistics.StatisticsIndexMap.HistogramIndex;
 import net.grinder.statistics.StatisticsIndexMap.LongIndex;
 import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
 import net.grinder.statistics.StatisticsIndexMap.SampleIndex;
@@ -51,6 +52,10 @@ final class StatisticsSetImplementation implements StatisticsSet {
   // they added to other statistics sets. E.g. the "period" field.
   private transient long[] m_transientLongData;
 
+  // Histograms, indexed by HistogramIndex. The array and each histogram are
+  // allocated on first use; null => all buckets are zero.
+  private LogHistogram[] m_histograms;
+
   // true => all statistics are zero; false => they might be.
   private boolean m_zero = true;
 
@@ -78,6 +83,15 @@ final class StatisticsSetImplementation implements StatisticsSet {
       Arrays.fill(m_longData, 0);
       Arrays.fill(m_doubleData, 0);
       Arrays.fill(m_transientLongData, 0);
+
+      if (m_histograms != null) {
+        for (LogHistogram histogram : m_histograms) {
+          if (histogram != null) {
+            histogram.reset();
+          }
+        }
+      }
+
       m_zero = true;
       m_composite = false;
     }
@@ -116,6 +130,16 @@ final class StatisticsSetImplementation implements StatisticsSet {
                          result.m_transientLongData,
                          0, result.m_transientLongData.length);
 
+        if (m_histograms != null) {
+          result.m_histograms = new LogHistogram[m_histograms.length];
+
+          for (int i = 0; i < m_histograms.length; ++i) {
+            if (m_histograms[i] != null && !m_histograms[i].isZero()) {
+              result.m_histograms[i] = m_histograms[i].copy();
+            }
+          }
+        }
+
         result.m_zero = false;
         result.m_composite = m_composite;
       }
@@ -236,9 +260,33 @@ final class StatisticsSetImplementation implements StatisticsSet {
 
     m_longData[index.getSumIndex().getValue()] += value;
     ++m_longData[index.getCountIndex().getValue()];
+
+    final HistogramIndex histogramIndex = index.getHistogramIndex();
+
+    if (histogramIndex != null) {
+      getHistogram(histogramIndex.getValue()).record(value);
+    }
+
     m_zero = false;
   }
 
+  private LogHistogram getHistogram(int index) {
+    if (m_histograms == null) {
+      m_histograms =
+        new LogHistogram[m_statisticsIndexMap.getNumberOfHistograms()];
+    }
+
+    if (m_histograms[index] == null) {
+      m_histograms[index] = new LogHistogram();
+    }
+
+    return m_histograms[index];
+  }
+
+  private LogHistogram getExistingHistogram(int index) {
+    return m_histograms != null ? m_histograms[index] : null;
+  }
+
   /**
    * Add sample <code>value</code> to the sample statistic specified by
    * <code>index</code>.
@@ -268,6 +316,17 @@ final class StatisticsSetImplementation implements StatisticsSet {
     setValue(index.getSumIndex(), 0);
     setValue(index.getCountIndex(), 0);
     setValue(index.getVarianceIndex(), 0);
+
+    final HistogramIndex histogramIndex = index.getHistogramIndex();
+
+    if (histogramIndex != null) {
+      final LogHistogram histogram =
+        getExistingHistogram(histogramIndex.getValue());
+
+      if (histogram != null) {
+        histogram.reset();
+      }
+    }
   }
 
   /**
@@ -381,6 +440,28 @@ final class StatisticsSetImplementation implements StatisticsSet {
     return getValue(index.getVarianceIndex());
   }
 
+  /**
+   * Get a percentile of the sample values for the sample statistic specified
+   * by <code>index</code>.
+   *
+   * @param index The index.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The percentile value.
+   */
+  public synchronized long getPercentile(LongSampleIndex index,
+                                         double percentile) {
+    final HistogramIndex histogramIndex = index.getHistogramIndex();
+
+    if (histogramIndex == null) {
+      return 0;
+    }
+
+    final LogHistogram histogram =
+      getExistingHistogram(histogramIndex.getValue());
+
+    return histogram != null ? histogram.getPercentile(percentile) : 0;
+  }
+
   /**
    * Add the values of another <code>StatisticsSet</code> to ours. Assumes we
    * don't need to synchronise access to operand.
@@ -398,67 +479,102 @@ final class StatisticsSetImplementation implements StatisticsSet {
    *          The statistics set value to add.
    */
   public synchronized void add(ImmutableStatisticsSet operand) {
+    addUnsynchronised((StatisticsSetImplementation)operand);
+  }
 
-    final StatisticsSetImplementation operandImplementation =
-      (StatisticsSetImplementation)operand;
+  /**
+   * Unsynchronised implementation of {@link #add}, for use by an owner that
+   * doesn't share this set with other threads.
+   *
+   * @param operand The statistics set value to add.
+   */
+  void addUnsynchronised(StatisticsSetImplementation operand) {
 
+    final long[] longData = operand.m_longData;
+    final double[] doubleData = operand.m_doubleData;
     final boolean[] isVarianceIndex = new boolean[m_doubleData.length];
 
     for (LongSampleIndex index : m_statisticsIndexMap.getLongSampleIndicies()) {
-      final LongIndex sumIndex = index.getSumIndex();
-      final LongIndex countIndex = index.getCountIndex();
-      final DoubleIndex varianceIndex = index.getVarianceIndex();
-
-      setValue(varianceIndex,
-        calculateVariance(getValue(sumIndex),
-                          getValue(countIndex),
-                          getValue(varianceIndex),
-                          operand.getValue(sumIndex),
-                          operand.getValue(countIndex),
-                          operand.getValue(varianceIndex)));
-
-      isVarianceIndex[varianceIndex.getValue()] = true;
+      final int sumIndex = index.getSumIndex().getValue();
+      final int countIndex = index.getCountIndex().getValue();
+      final int varianceIndex = index.getVarianceIndex().getValue();
+
+      m_doubleData[varianceIndex] =
+        calculateVariance(m_longData[sumIndex],
+                          m_longData[countIndex],
+                          m_doubleData[varianceIndex],
+                          longData[sumIndex],
+                          longData[countIndex],
+                          doubleData[varianceIndex]);
+
+      isVarianceIndex[varianceIndex] = true;
     }
 
     for (DoubleSampleIndex index :
          m_statisticsIndexMap.getDoubleSampleIndicies()) {
 
-      final DoubleIndex sumIndex = index.getSumIndex();
-      final LongIndex countIndex = index.getCountIndex();
-      final DoubleIndex varianceIndex = index.getVarianceIndex();
+      final int sumIndex = index.getSumIndex().getValue();
+      final int countIndex = index.getCountIndex().getValue();
+      final int varianceIndex = index.getVarianceIndex().getValue();
 
-      setValue(varianceIndex,
-               calculateVariance(getValue(sumIndex),
-                                 getValue(countIndex),
-                                 getValue(varianceIndex),
-                                 operand.getValue(sumIndex),
-                                 operand.getValue(countIndex),
-                                 operand.getValue(varianceIndex)));
+      m_doubleData[varianceIndex] =
+        calculateVariance(m_doubleData[sumIndex],
+                          m_longData[countIndex],
+                          m_doubleData[varianceIndex],
+                          doubleData[sumIndex],
+                          longData[countIndex],
+                          doubleData[varianceIndex]);
 
-      isVarianceIndex[varianceIndex.getValue()] = true;
+      isVarianceIndex[varianceIndex] = true;
     }
 
-    final long[] longData = operandImplementation.m_longData;
-
     for (int i = 0; i < longData.length; i++) {
       m_longData[i] += longData[i];
     }
 
-    final double[] doubleData = operandImplementation.m_doubleData;
-
     for (int i = 0; i < doubleData.length; i++) {
       if (!isVarianceIndex[i]) {
         m_doubleData[i] += doubleData[i];
       }
     }
 
+    final LogHistogram[] histograms = operand.m_histograms;
+
+    if (histograms != null) {
+      for (int i = 0; i < histograms.length; i++) {
+        if (histograms[i] != null && !histograms[i].isZero()) {
+          getHistogram(i).add(histograms[i]);
+        }
+      }
+    }
+
     m_zero = false;
 
-    if (operand.isComposite()) {
-      setIsComposite();
+    if (operand.m_composite) {
+      m_composite = true;
     }
   }
 
+  /**
+   * Unsynchronised implementation of {@link #addValue(LongIndex, long)}.
+   *
+   * @param index The process specific index.
+   * @param value The value.
+   */
+  void addValueUnsynchronised(LongIndex index, long value) {
+    if (!index.isTransient()) {
+      m_longData[index.getValue()] += value;
+      m_zero &= value == 0;
+    }
+  }
+
+  /**
+   * Unsynchronised implementation of {@link #setIsComposite()}.
+   */
+  void setIsCompositeUnsynchronised() {
+    m_composite = true;
+  }
+
   public synchronized boolean isZero() {
     return m_zero;
   }
@@ -516,6 +632,40 @@ final class StatisticsSetImplementation implements StatisticsSet {
           return false;
         }
       }
+
+      final int numberOfHistograms =
+        m_statisticsIndexMap.getNumberOfHistograms();
+
+      for (int i = 0; i < numberOfHistograms; i++) {
+        final LogHistogram histogram = getExistingHistogram(i);
+        final LogHistogram otherHistogram =
+          otherStatistics.getExistingHistogram(i);
+
+        if (histogram == null || otherHistogram == null) {
+          if (!isZero(histogram) || !isZero(otherHistogram)) {
+            return false;
+          }
+        }
+        else if (!histogram.equals(otherHistogram)) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isZero(LogHistogram histogram) {
+    return histogram == null || histogram.isZero();
+  }
+
+  private boolean histogramsAreZero() {
+    if (m_histograms != null) {
+      for (LogHistogram histogram : m_histograms) {
+        if (!isZero(histogram)) {
+          return false;
+        }
+      }
     }
 
     return true;
@@ -544,6 +694,14 @@ final class StatisticsSetImplementation implements StatisticsSet {
       result ^= m_transientLongData[i];
     }
 
+    if (m_histograms != null) {
+      for (LogHistogram histogram : m_histograms) {
+        if (histogram != null) {
+          result ^= histogram.hashCode();
+        }
+      }
+    }
+
     return (int)(result ^ (result >> 32));
   }
 
@@ -586,6 +744,32 @@ final class StatisticsSetImplementation implements StatisticsSet {
       result.append(m_transientLongData[i]);
     }
 
+    if (m_histograms != null) {
+      result.append("}, {");
+
+      boolean first = true;
+
+      for (int i = 0; i < m_histograms.length; i++) {
+        final LogHistogram histogram = m_histograms[i];
+
+        if (histogram == null) {
+          continue;
+        }
+
+        for (int bucket = histogram.nextNonZeroBucket(0);
+             bucket != -1;
+             bucket = histogram.nextNonZeroBucket(bucket + 1)) {
+          if (!first) {
+            result.append(", ");
+          }
+
+          result.append(i * LogHistogram.NUMBER_OF_BUCKETS + bucket)
+            .append('=').append(histogram.getCount(bucket));
+          first = false;
+        }
+      }
+    }
+
     result.append("}, composite = ");
     result.append(m_composite ? "true" : "false");
     result.append("}");
@@ -593,6 +777,49 @@ final class StatisticsSetImplementation implements StatisticsSet {
     return result.toString();
   }
 
+  /**
+   * Copy the raw values to an array. Used by
+   * {@link StatisticsSetFactory#getRawValues}.
+   *
+   * @param values The array. Must have at least
+   * {@link StatisticsSetFactory#getNumberOfRawValues} elements.
+   */
+  synchronized void getRawValues(long[] values) {
+    System.arraycopy(m_longData, 0, values, 0, m_longData.length);
+
+    for (int i = 0; i < m_doubleData.length; i++) {
+      values[m_longData.length + i] =
+        Double.doubleToRawLongBits(m_doubleData[i]);
+    }
+
+    values[m_longData.length + m_doubleData.length] = m_composite ? 1 : 0;
+  }
+
+  /**
+   * Replace the non-histogram values with raw values obtained from
+   * {@link #getRawValues}.
+   *
+   * @param values The raw values.
+   */
+  synchronized void setRawValues(long[] values) {
+    boolean zero = histogramsAreZero();
+
+    System.arraycopy(values, 0, m_longData, 0, m_longData.length);
+
+    for (int i = 0; i < m_longData.length; i++) {
+      zero &= m_longData[i] == 0;
+    }
+
+    for (int i = 0; i < m_doubleData.length; i++) {
+      m_doubleData[i] =
+        Double.longBitsToDouble(values[m_longData.length + i]);
+      zero &= m_doubleData[i] == 0;
+    }
+
+    m_zero = zero;
+    m_composite = values[m_longData.length + m_doubleData.length] != 0;
+  }
+
   /**
    * Efficient externalisation method used by {@link
    * StatisticsSetFactory#writeStatisticsExternal}.
@@ -615,20 +842,103 @@ final class StatisticsSetImplementation implements StatisticsSet {
    * @param out Handle to the output stream.
    * @param serialiser <code>Serialiser</code> helper object.
    * @exception IOException If an error occurs.
-   * @see #StatisticsSetImplementation(StatisticsIndexMap, ObjectInput,
+   * @see #StatisticsSetImplementation(StatisticsIndexMap, DataInput,
    * Serialiser)
    */
-  synchronized void writeExternal(ObjectOutput out, Serialiser serialiser)
+  synchronized void writeExternal(DataOutput out, Serialiser serialiser)
     throws IOException {
+
+    // Most slots of a report are zero, so we write a bitmap of the non-zero
+    // slots followed by their values.
+    final byte[] longBitmap = new byte[bitmapSize(m_longData.length)];
+
     for (int i = 0; i < m_longData.length; i++) {
-      serialiser.writeLong(out, m_longData[i]);
+      if (m_longData[i] != 0) {
+        longBitmap[i >> 3] |= 1 << (i & 7);
+      }
+    }
+
+    out.write(longBitmap);
+
+    for (int i = 0; i < m_longData.length; i++) {
+      if (m_longData[i] != 0) {
+        serialiser.writeLong(out, m_longData[i]);
+      }
     }
 
+    final byte[] doubleBitmap = new byte[bitmapSize(m_doubleData.length)];
+
     for (int i = 0; i < m_doubleData.length; i++) {
-      serialiser.writeDouble(out, m_doubleData[i]);
+      if (m_doubleData[i] != 0) {
+        doubleBitmap[i >> 3] |= 1 << (i & 7);
+      }
+    }
+
+    out.write(doubleBitmap);
+
+    for (int i = 0; i < m_doubleData.length; i++) {
+      if (m_doubleData[i] != 0) {
+        serialiser.writeDouble(out, m_doubleData[i]);
+      }
     }
 
     out.writeBoolean(m_composite);
+
+    writeHistogramsExternal(out, serialiser);
+  }
+
+  /**
+   * Write the histograms. Used by {@link #writeExternal} and
+   * {@link StatisticsSetFactory#writeHistograms}.
+   *
+   * @param out Handle to the output stream.
+   * @param serialiser <code>Serialiser</code> helper object.
+   * @exception IOException If an error occurs.
+   * @see #readHistogramsExternal
+   */
+  synchronized void writeHistogramsExternal(DataOutput out,
+                                            Serialiser serialiser)
+    throws IOException {
+
+    // Histograms are sparse, so we write the number of non-zero buckets,
+    // followed by a (gap, count) pair for each. Buckets are numbered
+    // consecutively across all of the histograms.
+    int nonZeroBuckets = 0;
+
+    if (m_histograms != null) {
+      for (LogHistogram histogram : m_histograms) {
+        if (histogram != null) {
+          for (int bucket = histogram.nextNonZeroBucket(0);
+               bucket != -1;
+               bucket = histogram.nextNonZeroBucket(bucket + 1)) {
+            ++nonZeroBuckets;
+          }
+        }
+      }
+    }
+
+    serialiser.writeLong(out, nonZeroBuckets);
+
+    if (nonZeroBuckets > 0) {
+      int last = -1;
+
+      for (int i = 0; i < m_histograms.length; i++) {
+        final LogHistogram histogram = m_histograms[i];
+
+        if (histogram == null) {
+          continue;
+        }
+
+        for (int bucket = histogram.nextNonZeroBucket(0);
+             bucket != -1;
+             bucket = histogram.nextNonZeroBucket(bucket + 1)) {
+          final int n = i * LogHistogram.NUMBER_OF_BUCKETS + bucket;
+          serialiser.writeLong(out, n - last);
+          serialiser.writeLong(out, histogram.getCount(bucket));
+          last = n;
+        }
+      }
+    }
   }
 
   /**
@@ -641,23 +951,77 @@ final class StatisticsSetImplementation implements StatisticsSet {
    * @param in Handle to the input stream.
    * @param serialiser <code>Serialiser</code> helper object.
    * @exception IOException If an error occurs.
-   * @see #writeExternal(ObjectOutput, Serialiser)
+   * @see #writeExternal(DataOutput, Serialiser)
    */
   StatisticsSetImplementation(StatisticsIndexMap statisticsIndexMap,
-                              ObjectInput in, Serialiser serialiser)
+                              DataInput in, Serialiser serialiser)
     throws IOException {
     this(statisticsIndexMap);
 
+    final byte[] longBitmap = new byte[bitmapSize(m_longData.length)];
+    in.readFully(longBitmap);
+
     for (int i = 0; i < m_longData.length; i++) {
-      m_longData[i] = serialiser.readLong(in);
-      m_zero &= m_longData[i] == 0;
+      if ((longBitmap[i >> 3] & 1 << (i & 7)) != 0) {
+        m_longData[i] = serialiser.readLong(in);
+        m_zero &= m_longData[i] == 0;
+      }
     }
 
+    final byte[] doubleBitmap = new byte[bitmapSize(m_doubleData.length)];
+    in.readFully(doubleBitmap);
+
     for (int i = 0; i < m_doubleData.length; i++) {
-      m_doubleData[i] = serialiser.readDouble(in);
-      m_zero &= m_doubleData[i] == 0;
+      if ((doubleBitmap[i >> 3] & 1 << (i & 7)) != 0) {
+        m_doubleData[i] = serialiser.readDouble(in);
+        m_zero &= m_doubleData[i] == 0;
+      }
     }
 
     m_composite = in.readBoolean();
+
+    readHistogramsExternal(in, serialiser);
+  }
+
+  /**
+   * Add histograms written by {@link #writeHistogramsExternal}. Used by the
+   * externalisation constructor and {@link
+   * StatisticsSetFactory#readHistograms}.
+   *
+   * @param in Handle to the input stream.
+   * @param serialiser <code>Serialiser</code> helper object.
+   * @exception IOException If an error occurs.
+   */
+  synchronized void readHistogramsExternal(DataInput in,
+                                           Serialiser serialiser)
+    throws IOException {
+
+    final long nonZeroBuckets = serialiser.readLong(in);
+
+    if (nonZeroBuckets > 0) {
+      final int numberOfBuckets =
+        m_statisticsIndexMap.getNumberOfHistograms() *
+        LogHistogram.NUMBER_OF_BUCKETS;
+
+      int n = -1;
+
+      for (long i = 0; i < nonZeroBuckets; ++i) {
+        n += (int)serialiser.readLong(in);
+
+        if (n < 0 || n >= numberOfBuckets) {
+          throw new IOException("Invalid histogram bucket " + n);
+        }
+
+        getHistogram(n / LogHistogram.NUMBER_OF_BUCKETS)
+          .increment(n % LogHistogram.NUMBER_OF_BUCKETS,
+                     serialiser.readLong(in));
+      }
+
+      m_zero = false;
+    }
+  }
+
+  private static int bitmapSize(int slots) {
+    return (slots + 7) >> 3;
   }
 }
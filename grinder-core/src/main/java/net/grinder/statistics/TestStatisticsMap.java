@@ -21,10 +21,14 @@
 
 package net.grinder.statistics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Map.Entry;
@@ -47,7 +51,7 @@ public final class TestStatisticsMap implements java.io.Externalizable {
   // The serialVersionUID should be incremented whenever the default
   // statistic indices are changed in StatisticsIndexMap, or
   // when the StatisticsSet externalisation methods are changed.
-  private static final long serialVersionUID = 5L;
+  private static final long serialVersionUID = 12L;
 
   private final transient StatisticsSetFactory m_statisticsSetFactory;
 
@@ -289,11 +293,45 @@ public final class TestStatisticsMap implements java.io.Externalizable {
    * @exception IOException If an I/O error occurs.
    */
   public void writeExternal(ObjectOutput out) throws IOException {
+    write(out);
+  }
+
+  /**
+   * Efficient externalisation method. No synchronisation, assume that
+   * we're being read into a new instance.
+   *
+   * @param in Handle to the input stream.
+   * @exception IOException If an I/O error occurs.
+   */
+  public void readExternal(ObjectInput in) throws IOException {
+    read(in);
+  }
+
+  /**
+   * Write the map to a stream, in a form that can be read by
+   * {@link #read(DataInput)}. Used both for serialisation and by the
+   * binary wire format.
+   *
+   * <p>Tests with zero statistics are omitted.</p>
+   *
+   * @param out Handle to the output stream.
+   * @exception IOException If an I/O error occurs.
+   */
+  public void write(DataOutput out) throws IOException {
 
     synchronized (this) {
-      out.writeInt(m_data.size());
+      final List<Entry<Test, StatisticsSet>> active =
+        new ArrayList<Entry<Test, StatisticsSet>>(m_data.size());
 
       for (Entry<Test, StatisticsSet> entry : m_data.entrySet()) {
+        if (!entry.getValue().isZero()) {
+          active.add(entry);
+        }
+      }
+
+      out.writeInt(active.size());
+
+      for (Entry<Test, StatisticsSet> entry : active) {
         out.writeInt(entry.getKey().getNumber());
 
         // Its a class invariant that our StatisticsSets are all
@@ -305,13 +343,14 @@ public final class TestStatisticsMap implements java.io.Externalizable {
   }
 
   /**
-   * Efficient externalisation method. No synchronisation, assume that
-   * we're being read into a new instance.
+   * Replace the contents of the map with data written by
+   * {@link #write(DataOutput)}. No synchronisation, assume that we're being
+   * read into a new instance.
    *
    * @param in Handle to the input stream.
    * @exception IOException If an I/O error occurs.
    */
-  public void readExternal(ObjectInput in) throws IOException {
+  public void read(DataInput in) throws IOException {
 
     final int n = in.readInt();
 
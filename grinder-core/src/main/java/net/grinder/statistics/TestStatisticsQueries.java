@@ -32,6 +32,7 @@ public final class TestStatisticsQueries {
   private final StatisticsIndexMap.LongIndex m_errorsIndex;
   private final StatisticsIndexMap.LongIndex m_untimedTestsIndex;
   private final StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
+  private final StatisticsIndexMap.LongSampleIndex m_timedTestsMicrosIndex;
 
   /**
    * Constructor.
@@ -42,6 +43,8 @@ public final class TestStatisticsQueries {
     m_errorsIndex = statisticsIndexMap.getLongIndex("errors");
     m_untimedTestsIndex = statisticsIndexMap.getLongIndex("untimedTests");
     m_timedTestsIndex = statisticsIndexMap.getLongSampleIndex("timedTests");
+    m_timedTestsMicrosIndex =
+      statisticsIndexMap.getLongSampleIndex("timedTestsMicros");
   }
 
   /**
@@ -69,17 +72,19 @@ public final class TestStatisticsQueries {
   }
 
   /**
-   * Return the value obtained by dividing the <em>timedTests</em> sample
-   * statistics <em>total</em> attribute by its <em>count</em> attribute.
+   * Return the mean test time in milliseconds. This is the value obtained by
+   * dividing the <em>timedTestsMicros</em> sample statistics <em>total</em>
+   * attribute by its <em>count</em> attribute, scaled to milliseconds.
    *
    * @param statistics The statistics to query.
    * @return a <code>double</code> value
    */
   public double getAverageTestTime(StatisticsSet statistics) {
-    final long count = statistics.getCount(m_timedTestsIndex);
+    final long count = statistics.getCount(m_timedTestsMicrosIndex);
 
     return
       count == 0 ?
-      Double.NaN : statistics.getSum(m_timedTestsIndex) / (double)count;
+      Double.NaN :
+      statistics.getSum(m_timedTestsMicrosIndex) / (count * 1000d);
   }
 }
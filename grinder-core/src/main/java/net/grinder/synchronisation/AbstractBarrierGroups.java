@@ -252,6 +252,13 @@ public abstract class AbstractBarrierGroups implements BarrierGroups  {
       }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override public long takeReleaseLatency(BarrierIdentity barrierIdentity) {
+      return -1;
+    }
+
     /**
      * Call the {@link BarrierGroup$Listener#awaken} method for all of the
      * listeners.
@@ -156,6 +156,21 @@ public interface BarrierGroup {
    */
   void cancelAll() throws CommunicationException;
 
+  /**
+   * Return the release latency recorded for a waiter that has been woken,
+   * and forget it.
+   *
+   * <p>
+   * Implementations that can't measure release latency return {@code -1}.
+   * </p>
+   *
+   * @param barrierIdentity Identifies the barrier.
+   * @return The time in microseconds between the arrival of the last waiter
+   *         and the release of the barrier, or {@code -1} if no latency was
+   *         recorded for the waiter.
+   */
+  long takeReleaseLatency(BarrierIdentity barrierIdentity);
+
   /**
    * Return the name of the barrier group.
    *
@@ -40,8 +40,31 @@ import net.grinder.util.thread.Condition;
 public final class BarrierImplementation
   implements Barrier, BarrierGroup.Listener {
 
+  /**
+   * Callback used to report the release latency measured for a wait.
+   */
+  public interface ReleaseListener {
+
+    /**
+     * Called by the waiting thread after it has been released.
+     *
+     * @param latency
+     *          The time in microseconds between the arrival of the last
+     *          waiter and the release of the barrier.
+     */
+    void released(long latency);
+  }
+
+  private static final ReleaseListener NULL_RELEASE_LISTENER =
+    new ReleaseListener() {
+      public void released(long latency) {
+        // No-op.
+      }
+    };
+
   private final BarrierGroup m_barrierGroup;
   private final BarrierIdentity.Factory m_identityFactory;
+  private final ReleaseListener m_releaseListener;
   private final Condition m_condition = new Condition();
 
   private enum State {
@@ -123,9 +146,31 @@ public final class BarrierImplementation
   public BarrierImplementation(BarrierGroup group,
                                BarrierIdentity.Factory identityFactory)
     throws CommunicationException {
+    this(group, identityFactory, NULL_RELEASE_LISTENER);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param group
+   *          Barrier group.
+   * @param identityFactory
+   *          Identity generator.
+   * @param releaseListener
+   *          Notified when a wait is released, if the barrier group
+   *          recorded a release latency for it.
+   * @throws CommunicationException
+   *           If the barrier group could not be created due to a
+   *           network communication problem.
+   */
+  public BarrierImplementation(BarrierGroup group,
+                               BarrierIdentity.Factory identityFactory,
+                               ReleaseListener releaseListener)
+    throws CommunicationException {
 
     m_barrierGroup = group;
     m_identityFactory = identityFactory;
+    m_releaseListener = releaseListener;
     m_identity = identityFactory.next();
 
     m_barrierGroup.addListener(this);
@@ -155,7 +200,17 @@ public final class BarrierImplementation
           }
         }
 
-        return m_state.awoken(BarrierImplementation.this);
+        final boolean result = m_state.awoken(BarrierImplementation.this);
+
+        if (result) {
+          final long latency = m_barrierGroup.takeReleaseLatency(m_identity);
+
+          if (latency >= 0) {
+            m_releaseListener.released(latency);
+          }
+        }
+
+        return result;
       }
     }
 
@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2011 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,55 +21,202 @@
 
 package net.grinder.synchronisation;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.communication.CommunicationException;
 import net.grinder.communication.MessageDispatchRegistry;
 import net.grinder.communication.Sender;
 import net.grinder.communication.MessageDispatchRegistry.AbstractHandler;
-import net.grinder.synchronisation.messages.AddBarrierMessage;
-import net.grinder.synchronisation.messages.AddWaiterMessage;
 import net.grinder.synchronisation.messages.BarrierIdentity;
-import net.grinder.synchronisation.messages.CancelWaiterMessage;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
 import net.grinder.synchronisation.messages.OpenBarrierMessage;
-import net.grinder.synchronisation.messages.RemoveBarriersMessage;
+import net.grinder.util.TimeAuthority;
 
 
 /**
  * {@link BarrierGroups} implementation which delegates to a remote instance.
  *
+ * <p>
+ * The waiters of this process are aggregated locally. The remote instance
+ * is sent a {@link BarrierStateMessage} with the number of barriers and
+ * waiters whenever they change. Changes made whilst a report is being sent
+ * are combined into the next report, so threads that wait at about the same
+ * time share a message.
+ * </p>
+ *
  * @author Philip Aston
  */
 public class ClientBarrierGroups extends AbstractBarrierGroups {
 
   private final Sender m_sender;
+  private final WorkerIdentity m_workerIdentity;
+  private final TimeAuthority m_timeAuthority;
+
+  // Guarded by self. Successive groups with the same name share state, so
+  // that their reports are sent in order.
+  private final Map<String, BarrierState> m_states =
+    new HashMap<String, BarrierState>();
+
+  // Guarded by this.
+  private long m_releases;
+  private long m_totalReleaseLatency;
+  private long m_maximumReleaseLatency;
+  private final Map<BarrierIdentity, Long> m_releaseLatencies =
+    new HashMap<BarrierIdentity, Long>();
 
   /**
    * Constructor.
    *
    * @param sender Used to send messages to the remote instance (the console).
    * @param messageDispatch Used to receive messages from the remote instance.
+   * @param workerIdentity The identity of this worker process.
+   * @param timeAuthority Used to measure release latency.
    */
   public ClientBarrierGroups(Sender sender,
-                             MessageDispatchRegistry messageDispatch) {
+                             MessageDispatchRegistry messageDispatch,
+                             WorkerIdentity workerIdentity,
+                             TimeAuthority timeAuthority) {
     m_sender = sender;
+    m_workerIdentity = workerIdentity;
+    m_timeAuthority = timeAuthority;
 
     messageDispatch.set(
       OpenBarrierMessage.class,
       new AbstractHandler<OpenBarrierMessage>() {
-        public void handle(OpenBarrierMessage message) {
-          final BarrierGroupImplementation existingGroup =
-            getExistingGroup(message.getName());
-
-          if (existingGroup != null) {
-            final Set<BarrierIdentity> removedWaiters =
-              existingGroup.clearWaiters(message.getWaiters());
-            existingGroup.fireAwaken(removedWaiters);
+        public void handle(OpenBarrierMessage message)
+          throws CommunicationException {
+
+          final long latency;
+
+          if (m_workerIdentity.equals(message.getLastArrival())) {
+            latency = recordReleaseLatency(
+              m_timeAuthority.getTimeInNanoseconds() -
+              message.getLastArrivalTime());
+          }
+          else {
+            latency = -1;
+          }
+
+          final long released = message.getReleased(m_workerIdentity);
+
+          final BarrierState state;
+
+          synchronized (m_states) {
+            state = m_states.get(message.getName());
+          }
+
+          if (state != null && released > 0) {
+            final Map<BarrierIdentity, Long> waiters = state.open(released);
+
+            final BarrierGroupImplementation existingGroup =
+              getExistingGroup(message.getName());
+
+            if (existingGroup != null) {
+              final Set<BarrierIdentity> awoken =
+                existingGroup.clearWaiters(waiters.keySet());
+
+              if (awoken.size() > 0) {
+                if (latency >= 0) {
+                  // Credit the latency to our waiter that arrived last.
+                  BarrierIdentity lastArrival = null;
+
+                  for (BarrierIdentity waiter : awoken) {
+                    if (lastArrival == null ||
+                        waiters.get(waiter) > waiters.get(lastArrival)) {
+                      lastArrival = waiter;
+                    }
+                  }
+
+                  setReleaseLatency(lastArrival, latency);
+                }
+
+                existingGroup.fireAwaken(awoken);
+              }
+            }
+
+            // Tell the remote instance which of our waiters are new.
+            state.send();
           }
         }
       });
   }
 
+  private BarrierState getState(String name) {
+    synchronized (m_states) {
+      final BarrierState existing = m_states.get(name);
+
+      if (existing != null) {
+        return existing;
+      }
+
+      final BarrierState newState = new BarrierState(name);
+      m_states.put(name, newState);
+
+      return newState;
+    }
+  }
+
+  private synchronized long recordReleaseLatency(long nanoseconds) {
+    final long microseconds = nanoseconds / 1000;
+
+    ++m_releases;
+    m_totalReleaseLatency += microseconds;
+    m_maximumReleaseLatency = Math.max(m_maximumReleaseLatency, microseconds);
+
+    return microseconds;
+  }
+
+  private synchronized void setReleaseLatency(BarrierIdentity barrierIdentity,
+                                              long microseconds) {
+    m_releaseLatencies.put(barrierIdentity, microseconds);
+  }
+
+  private synchronized long takeReleaseLatency(
+    BarrierIdentity barrierIdentity) {
+
+    final Long result = m_releaseLatencies.remove(barrierIdentity);
+
+    return result != null ? result : -1;
+  }
+
+  /**
+   * The number of barrier releases triggered by this process.
+   *
+   * <p>
+   * A release is triggered by the process whose waiter arrives last. Release
+   * latency is only measured by that process.
+   * </p>
+   *
+   * @return The number of releases.
+   */
+  public synchronized long getReleases() {
+    return m_releases;
+  }
+
+  /**
+   * The total latency of the releases triggered by this process. The latency
+   * is the time between the report of the last waiter and the arrival of the
+   * {@link OpenBarrierMessage}.
+   *
+   * @return The time in microseconds.
+   */
+  public synchronized long getTotalReleaseLatency() {
+    return m_totalReleaseLatency;
+  }
+
+  /**
+   * The longest latency of the releases triggered by this process.
+   *
+   * @return The time in microseconds.
+   */
+  public synchronized long getMaximumReleaseLatency() {
+    return m_maximumReleaseLatency;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -80,42 +227,193 @@ public class ClientBarrierGroups extends AbstractBarrierGroups {
      * Extending {@link AbstractBarrierGroups} verifies the consistency of the
      * local partition of the barrier group.
      */
-    return new BarrierGroupImplementation(name) {
+    return new ClientBarrierGroup(name);
+  }
 
-      @Override
-      public void addBarrier()
-        throws CommunicationException {
+  private final class ClientBarrierGroup extends BarrierGroupImplementation {
 
-        super.addBarrier();
+    private final BarrierState m_state;
 
-        m_sender.send(new AddBarrierMessage(getName()));
+    public ClientBarrierGroup(String name) {
+      super(name);
+      m_state = getState(name);
+    }
+
+    @Override public void addBarrier() throws CommunicationException {
+      synchronized (this) {
+        super.addBarrier();
+        m_state.changeBarriers(1);
       }
 
-      @Override
-      public void removeBarriers(long n) throws CommunicationException {
+      m_state.send();
+    }
 
-        super.removeBarriers(n);
+    @Override public void removeBarriers(long n)
+      throws CommunicationException {
 
-        m_sender.send(new RemoveBarriersMessage(getName(), n));
+      synchronized (this) {
+        super.removeBarriers(n);
+        m_state.changeBarriers(-n);
       }
 
-      @Override
-      public void addWaiter(BarrierIdentity barrierIdentity)
-        throws CommunicationException {
+      m_state.send();
+    }
 
-        super.addWaiter(barrierIdentity);
+    @Override public void addWaiter(BarrierIdentity barrierIdentity)
+      throws CommunicationException {
 
-        m_sender.send(new AddWaiterMessage(getName(), barrierIdentity));
+      synchronized (this) {
+        super.addWaiter(barrierIdentity);
+        m_state.addWaiter(barrierIdentity);
       }
 
-      @Override
-      public void cancelWaiter(BarrierIdentity barrierIdentity)
-        throws CommunicationException {
+      m_state.send();
+    }
+
+    @Override public void cancelWaiter(BarrierIdentity barrierIdentity)
+      throws CommunicationException {
 
+      synchronized (this) {
         super.cancelWaiter(barrierIdentity);
+        m_state.cancelWaiter(barrierIdentity);
+      }
+
+      ClientBarrierGroups.this.takeReleaseLatency(barrierIdentity);
+
+      m_state.send();
+    }
+
+    /**
+     * Release latency is only recorded for the waiter that arrived last in
+     * the process that triggered the release.
+     */
+    @Override public long takeReleaseLatency(BarrierIdentity barrierIdentity) {
+      return ClientBarrierGroups.this.takeReleaseLatency(barrierIdentity);
+    }
+  }
+
+  /**
+   * The state of this process's partition of a barrier group, as reported to
+   * the remote instance.
+   */
+  private final class BarrierState {
+
+    private final String m_name;
+
+    // Guarded by this.
+    private final Map<BarrierIdentity, Long> m_waiterSequence =
+      new HashMap<BarrierIdentity, Long>();
+    private long m_barriers = 0;
+    private long m_lastWaiter = 0;
+    private long m_released = 0;
+    private boolean m_changed = false;
+    private boolean m_sending = false;
+
+    public BarrierState(String name) {
+      m_name = name;
+    }
+
+    public synchronized void changeBarriers(long n) {
+      m_barriers += n;
+      m_changed = true;
+    }
+
+    public synchronized void addWaiter(BarrierIdentity barrierIdentity) {
+      m_waiterSequence.put(barrierIdentity, ++m_lastWaiter);
+      m_changed = true;
+    }
+
+    public synchronized void cancelWaiter(BarrierIdentity barrierIdentity) {
+      if (m_waiterSequence.remove(barrierIdentity) != null) {
+        m_changed = true;
+      }
+    }
+
+    /**
+     * Release the waiters that were counted when the barrier was opened.
+     * Later waiters continue to wait.
+     *
+     * @param released
+     *          The sequence number of the last waiter to release.
+     * @return The waiters to wake, with their sequence numbers.
+     */
+    public Map<BarrierIdentity, Long> open(long released) {
+
+      final Map<BarrierIdentity, Long> waiters =
+        new HashMap<BarrierIdentity, Long>();
+
+      synchronized (this) {
+        if (released <= m_released) {
+          return waiters;
+        }
+
+        for (Entry<BarrierIdentity, Long> entry :
+             m_waiterSequence.entrySet()) {
+          if (entry.getValue() <= released) {
+            waiters.put(entry.getKey(), entry.getValue());
+          }
+        }
+
+        m_waiterSequence.keySet().removeAll(waiters.keySet());
+        m_released = released;
+        m_changed = true;
+      }
+
+      return waiters;
+    }
+
+    /**
+     * Report our state, if it has changed. If another thread is already
+     * reporting, it will send our change for us.
+     *
+     * @throws CommunicationException
+     *           If the report could not be sent.
+     */
+    public void send() throws CommunicationException {
+      synchronized (this) {
+        if (m_sending) {
+          return;
+        }
+
+        m_sending = true;
+      }
+
+      while (true) {
+        final BarrierStateMessage message;
+
+        synchronized (this) {
+          if (!m_changed) {
+            m_sending = false;
+            return;
+          }
+
+          m_changed = false;
 
-        m_sender.send(new CancelWaiterMessage(getName(), barrierIdentity));
+          message =
+            new BarrierStateMessage(m_name,
+                                    m_barriers,
+                                    m_waiterSequence.size(),
+                                    m_lastWaiter,
+                                    m_released,
+                                    m_timeAuthority.getTimeInNanoseconds());
+        }
+
+        boolean sent = false;
+
+        try {
+          m_sender.send(message);
+          sent = true;
+        }
+        finally {
+          if (!sent) {
+            synchronized (this) {
+              // Leave the change for the next report.
+              m_changed = true;
+              m_sending = false;
+            }
+          }
+        }
       }
-    };
+    }
   }
 }
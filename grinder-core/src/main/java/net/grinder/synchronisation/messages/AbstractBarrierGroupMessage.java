@@ -21,11 +21,11 @@
 
 package net.grinder.synchronisation.messages;
 
-import net.grinder.common.processidentity.WorkerIdentity;
+import net.grinder.common.processidentity.ProcessAddress;
+import net.grinder.common.processidentity.ProcessIdentity;
 import net.grinder.communication.Address;
 import net.grinder.communication.AddressAwareMessage;
 import net.grinder.communication.CommunicationException;
-import net.grinder.messages.console.WorkerAddress;
 
 
 /**
@@ -40,7 +40,7 @@ public abstract class AbstractBarrierGroupMessage
 
   private final String m_name;
 
-  private WorkerIdentity m_processIdentity;
+  private ProcessIdentity m_processIdentity;
 
   /**
    * Constructor.
@@ -58,19 +58,20 @@ public abstract class AbstractBarrierGroupMessage
     throws CommunicationException {
 
     try {
-      m_processIdentity = ((WorkerAddress)address).getIdentity();
+      m_processIdentity = ((ProcessAddress<?>)address).getIdentity();
     }
     catch (ClassCastException e) {
-      throw new CommunicationException("Not a worker process address", e);
+      throw new CommunicationException("Not a process address", e);
     }
   }
 
   /**
-   * Worker process identity.
+   * The identity of the sending process. This is a worker process, or an
+   * agent reporting for its worker processes.
    *
    * @return The process identity.
    */
-  public WorkerIdentity getProcessIdentity() {
+  public ProcessIdentity getProcessIdentity() {
     return m_processIdentity;
   }
 
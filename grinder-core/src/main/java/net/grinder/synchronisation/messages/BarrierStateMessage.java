@@ -0,0 +1,129 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.synchronisation.messages;
+
+
+/**
+ * Barrier group message reporting the state of a worker process's partition
+ * of a barrier group.
+ *
+ * <p>
+ * Rather than reporting each barrier and waiter, a worker process reports
+ * counts. Each report supersedes the previous report for the same group.
+ * </p>
+ *
+ * <p>
+ * An agent that combines the reports of its worker processes sends the same
+ * message with their totals. The agent numbers its reports, and uses the
+ * report number as the sequence number of the last waiter.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public class BarrierStateMessage extends AbstractBarrierGroupMessage {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long m_barriers;
+  private final long m_waiters;
+  private final long m_lastWaiter;
+  private final long m_released;
+  private final long m_time;
+
+  /**
+   * Constructor.
+   *
+   * @param name
+   *          Barrier name.
+   * @param barriers
+   *          The number of barriers in the worker process.
+   * @param waiters
+   *          The number of waiters in the worker process.
+   * @param lastWaiter
+   *          The sequence number of the most recent waiter. Waiters are
+   *          numbered from {@code 1} in the order they are added.
+   * @param released
+   *          The sequence number up to which the worker process has released
+   *          waiters in response to {@link OpenBarrierMessage}s.
+   * @param time
+   *          The worker process time, in nanoseconds, when the report was
+   *          made.
+   */
+  public BarrierStateMessage(String name,
+                             long barriers,
+                             long waiters,
+                             long lastWaiter,
+                             long released,
+                             long time) {
+    super(name);
+    m_barriers = barriers;
+    m_waiters = waiters;
+    m_lastWaiter = lastWaiter;
+    m_released = released;
+    m_time = time;
+  }
+
+  /**
+   * The number of barriers.
+   *
+   * @return The number of barriers.
+   */
+  public long getBarriers() {
+    return m_barriers;
+  }
+
+  /**
+   * The number of waiters.
+   *
+   * @return The number of waiters.
+   */
+  public long getWaiters() {
+    return m_waiters;
+  }
+
+  /**
+   * The sequence number of the most recent waiter.
+   *
+   * @return The sequence number, or {@code 0} if there have been no waiters.
+   */
+  public long getLastWaiter() {
+    return m_lastWaiter;
+  }
+
+  /**
+   * The sequence number up to which waiters have been released.
+   *
+   * @return The sequence number.
+   */
+  public long getReleased() {
+    return m_released;
+  }
+
+  /**
+   * The worker process time when the report was made.
+   *
+   * @return The time in nanoseconds. Only meaningful to the worker process.
+   */
+  public long getTime() {
+    return m_time;
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2011 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,34 +21,55 @@
 
 package net.grinder.synchronisation.messages;
 
-import java.util.Set;
+import java.util.Map;
 
+import net.grinder.common.processidentity.ProcessIdentity;
 import net.grinder.communication.Message;
 
 
 /**
  * Barrier group message sent to agents when a barrier is opened.
  *
+ * <p>
+ * A single message is broadcast to every agent. Each worker process that
+ * reports to the console wakes its waiters up to the sequence number given
+ * for it. An agent that combines the reports of its worker processes
+ * translates the number given for it into a message for its own workers.
+ * </p>
+ *
  * @author Philip Aston
  */
 public class OpenBarrierMessage implements Message {
 
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 3L;
 
   private final String m_name;
-  private final Set<BarrierIdentity> m_waiters;
+  private final Map<ProcessIdentity, Long> m_released;
+  private final ProcessIdentity m_lastArrival;
+  private final long m_lastArrivalTime;
 
   /**
    * Constructor.
    *
    * @param name
    *          Barrier name.
-   * @param waiters
-   *          Waiters to wake.
+   * @param released
+   *          For each process, the sequence number of the last waiter to
+   *          release.
+   * @param lastArrival
+   *          The process whose report opened the barrier.
+   * @param lastArrivalTime
+   *          The time of that report, as given by
+   *          {@link BarrierStateMessage#getTime()}.
    */
-  public OpenBarrierMessage(String name, Set<BarrierIdentity> waiters) {
+  public OpenBarrierMessage(String name,
+                            Map<ProcessIdentity, Long> released,
+                            ProcessIdentity lastArrival,
+                            long lastArrivalTime) {
     m_name = name;
-    m_waiters = waiters;
+    m_released = released;
+    m_lastArrival = lastArrival;
+    m_lastArrivalTime = lastArrivalTime;
   }
 
   /**
@@ -61,11 +82,36 @@ public class OpenBarrierMessage implements Message {
   }
 
   /**
-   * Waiters to wake.
+   * The sequence number of the last waiter to release for a process.
+   *
+   * @param process
+   *          The worker process or agent.
+   * @return The sequence number, or {@code 0} if no waiters should be
+   *         released.
+   */
+  public long getReleased(ProcessIdentity process) {
+    final Long released = m_released.get(process);
+
+    return released != null ? released : 0;
+  }
+
+  /**
+   * The process whose report opened the barrier.
+   *
+   * @return The process identity, or {@code null} if the barrier was opened
+   *         because a process stopped.
+   */
+  public ProcessIdentity getLastArrival() {
+    return m_lastArrival;
+  }
+
+  /**
+   * The time of the report that opened the barrier.
    *
-   * @return The waiters.
+   * @return The time, in nanoseconds. Only meaningful to the process
+   *         identified by {@link #getLastArrival()}.
    */
-  public Set<BarrierIdentity> getWaiters() {
-    return m_waiters;
+  public long getLastArrivalTime() {
+    return m_lastArrivalTime;
   }
 }
@@ -0,0 +1,294 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.util.FileContents.FileContentsException;
+
+
+/**
+ * A chunk of a file's contents, identified by its digest.
+ *
+ * <p>The data is deflated for transfer if that makes it smaller.</p>
+ *
+ * @author Philip Aston
+ * @see FileContents
+ */
+public final class FileChunk implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** @serial The digest of the uncompressed data. */
+  private final Digest m_digest;
+
+  /** @serial The length of the uncompressed data. */
+  private final int m_length;
+
+  /** @serial Whether {@link #m_data} is deflated. */
+  private final boolean m_compressed;
+
+  /** @serial The data. */
+  private final byte[] m_data;
+
+  /**
+   * Constructor.
+   *
+   * @param data Buffer containing the data. This is copied.
+   * @param length Number of bytes of {@code data} to use.
+   */
+  public FileChunk(byte[] data, int length) {
+    m_digest = Digest.create(data, length);
+    m_length = length;
+
+    final byte[] compressed = compress(data, length);
+
+    if (compressed != null) {
+      m_compressed = true;
+      m_data = compressed;
+    }
+    else {
+      m_compressed = false;
+      m_data = Arrays.copyOf(data, length);
+    }
+  }
+
+  /**
+   * Read a chunk from the local file system.
+   *
+   * @param baseDirectory Base directory used to resolve relative filenames.
+   * @param contents Description of the file.
+   * @param index Index of the chunk to read.
+   * @return The chunk.
+   * @throws FileContentsException If the chunk could not be read, or the file
+   *  no longer matches {@code contents}.
+   */
+  public static FileChunk read(File baseDirectory,
+                               FileContents contents,
+                               int index)
+    throws FileContentsException {
+
+    final File localFile =
+      new File(baseDirectory, contents.getFilename().getPath());
+
+    final byte[] buffer = new byte[contents.getChunkLength(index)];
+
+    try {
+      final RandomAccessFile file = new RandomAccessFile(localFile, "r");
+
+      try {
+        file.seek((long)index * FileContents.CHUNK_SIZE);
+        file.readFully(buffer);
+      }
+      finally {
+        file.close();
+      }
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      throw new FileContentsException(
+        "Failed to read file: " + e.getMessage(), e);
+    }
+
+    final FileChunk result = new FileChunk(buffer, buffer.length);
+
+    if (!result.getDigest().equals(contents.getChunkDigests().get(index))) {
+      throw new FileContentsException(
+        "File " + contents.getFilename() + " changed whilst being read");
+    }
+
+    return result;
+  }
+
+  private static byte[] compress(byte[] data, int length) {
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    try {
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2);
+      final byte[] buffer = new byte[4096];
+
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+
+        if (out.size() >= length) {
+          return null;
+        }
+      }
+
+      return out.toByteArray();
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * The digest of the chunk data.
+   *
+   * @return The digest.
+   */
+  public Digest getDigest() {
+    return m_digest;
+  }
+
+  /**
+   * The chunk data.
+   *
+   * @return The uncompressed data.
+   * @throws FileContentsException If the data does not match the digest.
+   */
+  public byte[] getData() throws FileContentsException {
+    final byte[] result;
+
+    if (m_compressed) {
+      result = new byte[m_length];
+
+      final Inflater inflater = new Inflater();
+
+      try {
+        inflater.setInput(m_data);
+
+        if (inflater.inflate(result) != m_length || !inflater.finished()) {
+          throw new FileContentsException("Corrupt chunk " + m_digest);
+        }
+      }
+      catch (DataFormatException e) {
+        throw new FileContentsException("Corrupt chunk " + m_digest, e);
+      }
+      finally {
+        inflater.end();
+      }
+    }
+    else {
+      result = m_data;
+    }
+
+    if (!m_digest.equals(Digest.create(result, m_length))) {
+      throw new FileContentsException("Corrupt chunk " + m_digest);
+    }
+
+    return result;
+  }
+
+  /**
+   * Return a description of the <code>FileChunk</code>.
+   *
+   * @return The description.
+   */
+  public String toString() {
+    return m_digest + " (" + m_length + " bytes, " + m_data.length +
+      " transferred)";
+  }
+
+  /**
+   * A SHA-1 digest of chunk data.
+   */
+  public static final class Digest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ALGORITHM = "SHA-1";
+
+    /** @serial The digest. */
+    private final byte[] m_bytes;
+
+    private Digest(byte[] bytes) {
+      m_bytes = bytes;
+    }
+
+    /**
+     * Calculate the digest of some data.
+     *
+     * @param data Buffer containing the data.
+     * @param length Number of bytes of {@code data} to use.
+     * @return The digest.
+     */
+    public static Digest create(byte[] data, int length) {
+      final MessageDigest messageDigest;
+
+      try {
+        messageDigest = MessageDigest.getInstance(ALGORITHM);
+      }
+      catch (NoSuchAlgorithmException e) {
+        // Every Java platform is required to support SHA-1.
+        throw new AssertionError(e);
+      }
+
+      messageDigest.update(data, 0, length);
+
+      return new Digest(messageDigest.digest());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public int hashCode() {
+      return Arrays.hashCode(m_bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (o == null || o.getClass() != Digest.class) {
+        return false;
+      }
+
+      return Arrays.equals(m_bytes, ((Digest)o).m_bytes);
+    }
+
+    /**
+     * Return the digest as a hexadecimal string.
+     *
+     * @return The description.
+     */
+    @Override public String toString() {
+      final StringBuilder result = new StringBuilder(m_bytes.length * 2);
+
+      for (byte b : m_bytes) {
+        result.append(Character.forDigit((b >> 4) & 0xF, 16));
+        result.append(Character.forDigit(b & 0xF, 16));
+      }
+
+      return result.toString();
+    }
+  }
+}
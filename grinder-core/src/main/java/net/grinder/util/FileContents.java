@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2008 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,13 +21,15 @@
 
 package net.grinder.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import net.grinder.common.Closer;
 import net.grinder.common.GrinderException;
@@ -35,23 +37,38 @@ import net.grinder.common.UncheckedInterruptedException;
 
 
 /**
- * Pairing of relative filename and file contents.
+ * Pairing of relative filename and a description of the file contents.
+ *
+ * <p>The contents are described as a sequence of fixed size chunks, each
+ * identified by its {@link FileChunk.Digest}. The data itself is transferred
+ * separately as {@link FileChunk}s, so a receiver that already holds some of
+ * the chunks need only be sent the remainder, and the sender never needs to
+ * hold more than a single chunk in memory.</p>
  *
  * @author Philip Aston
  */
 public final class FileContents implements Serializable {
 
-  private static final long serialVersionUID = -3140708892260600117L;
+  private static final long serialVersionUID = 3276931627400851298L;
+
+  /** Size of each chunk, in bytes. Only the last chunk may be shorter. */
+  public static final int CHUNK_SIZE = 64 * 1024;
 
   /** @serial The file name. */
   private final File m_filename;
 
-  /** @serial The file data. */
-  private final byte[] m_contents;
+  /** @serial The file length. */
+  private final long m_length;
+
+  /** @serial The chunk digests. */
+  private final FileChunk.Digest[] m_chunkDigests;
 
   /**
    * Constructor. Builds a FileContents from local file system.
    *
+   * <p>The file is read once to calculate the chunk digests. It is not held
+   * in memory.</p>
+   *
    * @param baseDirectory Base directory used to resolve relative filenames.
    * @param file Relative filename.
    * @exception FileContentsException If an error occurs.
@@ -68,67 +85,99 @@ public final class FileContents implements Serializable {
 
     final File localFile = new File(baseDirectory, file.getPath());
 
-    final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+    final List<FileChunk.Digest> digests = new ArrayList<FileChunk.Digest>();
+    final byte[] buffer = new byte[CHUNK_SIZE];
+    long length = 0;
+
+    InputStream in = null;
 
     try {
-      new StreamCopier(4096, true).copy(new FileInputStream(localFile),
-                                        byteOutputStream);
+      in = new FileInputStream(localFile);
+
+      while (true) {
+        final int n = readChunk(in, buffer);
+
+        if (n == 0) {
+          break;
+        }
+
+        digests.add(FileChunk.Digest.create(buffer, n));
+        length += n;
+      }
     }
     catch (IOException e) {
       UncheckedInterruptedException.ioException(e);
       throw new FileContentsException(
         "Failed to read file: " + e.getMessage(), e);
     }
+    finally {
+      Closer.close(in);
+    }
 
-    m_contents = byteOutputStream.toByteArray();
+    m_length = length;
+    m_chunkDigests = digests.toArray(new FileChunk.Digest[digests.size()]);
   }
 
+  /**
+   * Fill a buffer from a stream.
+   *
+   * @param in The stream.
+   * @param buffer The buffer.
+   * @return The number of bytes read. Less than the buffer length only if the
+   *  end of the stream has been reached.
+   * @throws IOException If an I/O error occurs.
+   */
+  static int readChunk(InputStream in, byte[] buffer) throws IOException {
+    int n = 0;
+
+    while (n < buffer.length) {
+      final int bytesRead = in.read(buffer, n, buffer.length - n);
+
+      if (bytesRead == -1) {
+        break;
+      }
+
+      n += bytesRead;
+    }
+
+    return n;
+  }
 
   /**
-   * Allow unit tests access to the relative file name.
+   * The relative file name.
    *
    * @return The file name.
    */
-  File getFilename() {
+  public File getFilename() {
     return m_filename;
   }
 
   /**
-   * Allow unit tests access to the file contents.
+   * The file length.
    *
-   * @return a <code>byte[]</code> value
+   * @return The length, in bytes.
    */
-  byte[] getContents() {
-    return m_contents;
+  public long getLength() {
+    return m_length;
   }
 
   /**
-   * Write the <code>FileContents</code> to the given directory,
-   * overwriting any existing content.
+   * The digests of each of the file's chunks, in order.
    *
-   * @param baseDirectory The base directory.
-   * @exception FileContentsException If an error occurs.
+   * @return The digests.
    */
-  public void create(Directory baseDirectory) throws FileContentsException {
-
-    final File localFile = baseDirectory.getFile(getFilename());
-
-    localFile.getParentFile().mkdirs();
-
-    OutputStream outputStream = null;
+  public List<FileChunk.Digest> getChunkDigests() {
+    return Collections.unmodifiableList(Arrays.asList(m_chunkDigests));
+  }
 
-    try {
-      outputStream = new FileOutputStream(localFile);
-      outputStream.write(getContents());
-    }
-    catch (IOException e) {
-      UncheckedInterruptedException.ioException(e);
-      throw new FileContentsException(
-        "Failed to create file: " + e.getMessage(), e);
-    }
-    finally {
-      Closer.close(outputStream);
-    }
+  /**
+   * The length of a particular chunk.
+   *
+   * @param index The chunk index.
+   * @return The length, in bytes.
+   */
+  public int getChunkLength(int index) {
+    return (int)Math.min(CHUNK_SIZE, m_length - (long)index * CHUNK_SIZE);
   }
 
   /**
@@ -137,7 +186,7 @@ public final class FileContents implements Serializable {
    * @return The description.
    */
   public String toString() {
-    return "\"" + getFilename() + "\" (" + getContents().length + " bytes)";
+    return "\"" + getFilename() + "\" (" + getLength() + " bytes)";
   }
 
   /**
@@ -114,6 +114,13 @@ public final class SleeperImplementation implements Sleeper {
     return m_timeAuthority.getTimeInMilliseconds();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override public long getTimeInNanoseconds() {
+    return m_timeAuthority.getTimeInNanoseconds();
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -28,6 +28,7 @@ package net.grinder.util;
  * <p>
  * The implementation uses J2SE 5's {@link System#nanoTime()} method, since it
  * it typically more precise than {@link System#currentTimeMillis()}.
+ * {@link #getTimeInNanoseconds()} exposes the full resolution of the timer.
  * </p>
  *
  * @author Philip Aston
@@ -45,5 +46,14 @@ public final class StandardTimeAuthority implements TimeAuthority {
   public long getTimeInMilliseconds() {
     return System.nanoTime() / 1000000 + m_epochOffset;
   }
+
+  /**
+   * Return the current value of the high resolution timer.
+   *
+   * @return The time, in nanoseconds. The base time is arbitrary.
+   */
+  public long getTimeInNanoseconds() {
+    return System.nanoTime();
+  }
 }
 
@@ -41,4 +41,17 @@ public interface TimeAuthority {
    * uses <code>System.nanoTime()</code>.
    */
   long getTimeInMilliseconds();
+
+  /**
+   * Return the current value of a high resolution timer, in nanoseconds.
+   *
+   * <p>
+   * This is an abstraction over <code>System.nanoTime()</code>. It should be
+   * used to measure elapsed times that may be shorter than a millisecond.
+   * </p>
+   *
+   * @return The time. The base time is arbitrary, so the value is only
+   * meaningful when compared to another value from the same authority.
+   */
+  long getTimeInNanoseconds();
 }
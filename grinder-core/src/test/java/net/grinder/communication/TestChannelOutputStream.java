@@ -0,0 +1,134 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ChannelOutputStream}.
+ *
+ * @author Philip Aston
+ */
+public class TestChannelOutputStream {
+
+  private ServerSocketChannel m_serverChannel;
+  private SocketChannel m_channel;
+  private Socket m_peer;
+
+  @Before public void setUp() throws Exception {
+    m_serverChannel = ServerSocketChannel.open();
+    m_serverChannel.socket().bind(
+      new InetSocketAddress(InetAddress.getByName(null), 0));
+
+    m_peer = new Socket(InetAddress.getByName(null),
+                        m_serverChannel.socket().getLocalPort());
+
+    m_channel = m_serverChannel.accept();
+  }
+
+  @After public void tearDown() throws Exception {
+    m_peer.close();
+    m_channel.close();
+    m_serverChannel.close();
+  }
+
+  @Test public void testBlockingWrite() throws Exception {
+    final ChannelOutputStream out = new ChannelOutputStream(m_channel);
+
+    out.write(99);
+    out.write(new byte[] { 1, 2, 3, 4 }, 1, 2);
+
+    final DataInputStream in = new DataInputStream(m_peer.getInputStream());
+    final byte[] bytes = new byte[3];
+    in.readFully(bytes);
+
+    assertArrayEquals(new byte[] { 99, 2, 3 }, bytes);
+  }
+
+  @Test public void testNonBlockingWrite() throws Exception {
+    m_channel.configureBlocking(false);
+
+    final ChannelOutputStream out = new ChannelOutputStream(m_channel);
+
+    // Larger than the socket buffers, so the writer has to wait for the
+    // reader.
+    final byte[] data = new byte[4 * 1024 * 1024];
+    new Random().nextBytes(data);
+
+    final byte[] received = new byte[data.length];
+
+    final Thread reader = new Thread() {
+      @Override public void run() {
+        try {
+          Thread.sleep(50);
+          new DataInputStream(m_peer.getInputStream()).readFully(received);
+        }
+        catch (Exception e) {
+          // Reported by the assertion below.
+        }
+      }
+    };
+
+    reader.start();
+
+    out.write(data, 0, data.length);
+
+    reader.join();
+
+    assertArrayEquals(data, received);
+  }
+
+  @Test public void testClose() throws Exception {
+    m_channel.configureBlocking(false);
+
+    final ChannelOutputStream out = new ChannelOutputStream(m_channel);
+    out.close();
+
+    assertFalse(m_channel.isOpen());
+
+    try {
+      out.write(1);
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+
+    assertEquals(-1, m_peer.getInputStream().read());
+  }
+}
@@ -27,7 +27,6 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.io.InputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 
@@ -66,17 +65,11 @@ public class TestClientReceiver {
 
     final SimpleMessage message1 = new SimpleMessage();
 
-    final ObjectOutputStream objectStream1 =
-      new ObjectOutputStream(socketOutput);
-    objectStream1.writeObject(message1);
-    objectStream1.flush();
+    WireFormat.write(message1, socketOutput);
 
     final SimpleMessage message2 = new SimpleMessage();
 
-    final ObjectOutputStream objectStream2 =
-      new ObjectOutputStream(socketOutput);
-    objectStream2.writeObject(message2);
-    objectStream2.flush();
+    WireFormat.write(message2, socketOutput);
 
     final Message receivedMessage1 = clientReceiver.waitForMessage();
     final Message receivedMessage2 = clientReceiver.waitForMessage();
@@ -124,10 +117,7 @@ public class TestClientReceiver {
 
     final SimpleMessage message1 = new SimpleMessage();
 
-    final ObjectOutputStream objectStream1 =
-      new ObjectOutputStream(socketOutput);
-    objectStream1.writeObject(message1);
-    objectStream1.flush();
+    WireFormat.write(message1, socketOutput);
 
     final Message receivedMessage = clientReceiver.waitForMessage();
     assertNotNull(receivedMessage);
@@ -162,20 +152,14 @@ public class TestClientReceiver {
 
     final SimpleMessage message1 = new SimpleMessage();
 
-    final ObjectOutputStream objectStream1 =
-      new ObjectOutputStream(socketOutput);
-    objectStream1.writeObject(message1);
-    objectStream1.flush();
+    WireFormat.write(message1, socketOutput);
 
     final Message receivedMessage = clientReceiver.waitForMessage();
     assertNotNull(receivedMessage);
 
     final Message closeCommunicationMessage = new CloseCommunicationMessage();
 
-    final ObjectOutputStream objectStream2 =
-      new ObjectOutputStream(socketOutput);
-    objectStream2.writeObject(closeCommunicationMessage);
-    objectStream2.flush();
+    WireFormat.write(closeCommunicationMessage, socketOutput);
 
     assertNull(clientReceiver.waitForMessage());
 
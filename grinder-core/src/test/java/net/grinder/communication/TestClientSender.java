@@ -28,8 +28,6 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 
@@ -70,13 +68,9 @@ public class TestClientSender {
     assertEquals(ConnectionType.AGENT,
                  Connector.read(socketInput).getConnectionType());
 
-    // Need an ObjectInputStream for every message. See note in
-    // ClientSender.writeMessage.
-    final ObjectInputStream inputStream1 = new ObjectInputStream(socketInput);
-    final Object o1 = inputStream1.readObject();
+    final Object o1 = WireFormat.read(socketInput);
 
-    final ObjectInputStream inputStream2 = new ObjectInputStream(socketInput);
-    final Object o2 = inputStream2.readObject();
+    final Object o2 = WireFormat.read(socketInput);
 
     assertEquals(message1, o1);
     assertEquals(message2, o2);
@@ -124,12 +118,10 @@ public class TestClientSender {
     assertEquals(ConnectionType.AGENT,
                  Connector.read(socketInput).getConnectionType());
 
-    final ObjectInputStream inputStream1 = new ObjectInputStream(socketInput);
-    final Object o1 = inputStream1.readObject();
+    final Object o1 = WireFormat.read(socketInput);
     assertNotNull(o1);
 
-    final ObjectInputStream inputStream2 = new ObjectInputStream(socketInput);
-    final Object o2 = inputStream2.readObject();
+    final Object o2 = WireFormat.read(socketInput);
 
     assertTrue(o2 instanceof CloseCommunicationMessage);
 
@@ -277,20 +269,12 @@ public class TestClientSender {
     }
 
     public void run() {
-      // Need an ObjectInputStream for every message. See note in
-      // ClientSender.writeMessage.
       try {
-        final ObjectInputStream inputStream =
-          new ObjectInputStream(m_inputStream);
-        final MessageRequiringResponse responseSender =
-          (MessageRequiringResponse)inputStream.readObject();
+        final MessageRequiringResponse responseSender = (MessageRequiringResponse) WireFormat.read(m_inputStream);
 
         assert m_inputStream.available() == 0;
 
-        final ObjectOutputStream outputStream =
-          new ObjectOutputStream(m_outputStream);
-        outputStream.writeObject(responseSender.getMessage());
-        outputStream.flush();
+        WireFormat.write(responseSender.getMessage(), m_outputStream);
       }
       catch (Exception e) {
         m_exception = e;
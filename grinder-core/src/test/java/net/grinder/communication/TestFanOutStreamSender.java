@@ -21,7 +21,6 @@
 
 package net.grinder.communication;
 
-import java.io.ObjectInputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.StreamCorruptedException;
@@ -61,13 +60,9 @@ public class TestFanOutStreamSender extends TestCase {
     serverSender.send(message2);
 
     for (int i=0; i<outputStreams.length; ++i) {
-      final ObjectInputStream inputStream1 =
-        new ObjectInputStream(inputStreams[i]);
-      final Object o1 = inputStream1.readObject();
+      final Object o1 = WireFormat.read(inputStreams[i]);
 
-      final ObjectInputStream inputStream2 =
-        new ObjectInputStream(inputStreams[i]);
-      final Object o2 = inputStream2.readObject();
+      final Object o2 = WireFormat.read(inputStreams[i]);
 
       assertEquals(message1, o1);
       assertEquals(message2, o2);
@@ -89,9 +84,7 @@ public class TestFanOutStreamSender extends TestCase {
     final Message message = new SimpleMessage();
     serverSender.send(message);
 
-    final ObjectInputStream inputStream1 =
-      new ObjectInputStream(inputStream);
-    final Object o1 = inputStream1.readObject();
+    final Object o1 = WireFormat.read(inputStream);
     assertNotNull(o1);
 
     serverSender.shutdown();
@@ -104,9 +97,7 @@ public class TestFanOutStreamSender extends TestCase {
     }
 
     try {
-      final ObjectInputStream inputStream2 =
-        new ObjectInputStream(inputStream);
-      final Object o2 = inputStream2.readObject();
+      final Object o2 = WireFormat.read(inputStream);
 
       assertTrue(o2 instanceof CloseCommunicationMessage);
     }
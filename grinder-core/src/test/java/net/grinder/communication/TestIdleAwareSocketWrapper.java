@@ -25,7 +25,6 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 
@@ -71,23 +70,23 @@ public class TestIdleAwareSocketWrapper {
     new IdleAwareSocketWrapper(m_socket, m_timeAuthority);
   }
 
-  @Test public void testHasDataNoData() throws Exception {
+  @Test public void testNotIdle() throws Exception {
     final IdleAwareSocketWrapper socketWrapper =
         new IdleAwareSocketWrapper(m_socket, m_timeAuthority);
 
-    assertFalse(socketWrapper.hasData(99));
+    assertFalse(socketWrapper.closeIfIdle(99));
+    assertFalse(m_socket.isClosed());
   }
 
-  @Test(expected = IOException.class)
-  public void testHasDataSocketClosed() throws Exception {
+  @Test public void testClosedSocket() throws Exception {
     final IdleAwareSocketWrapper socketWrapper =
         new IdleAwareSocketWrapper(m_socket, m_timeAuthority);
     socketWrapper.close();
 
-    socketWrapper.hasData(99);
+    assertTrue(socketWrapper.closeIfIdle(99));
   }
 
-  @Test public void testHasDataTimeOut() throws Exception {
+  @Test public void testIdleTimeOut() throws Exception {
 
     final IdleAwareSocketWrapper socketWrapper =
         new IdleAwareSocketWrapper(m_socket,
@@ -97,10 +96,37 @@ public class TestIdleAwareSocketWrapper {
       .thenReturn(1000L)
       .thenReturn(2000L);
 
-    assertFalse(socketWrapper.hasData(123));
+    assertFalse(socketWrapper.closeIfIdle(123));
     assertFalse(m_socket.isClosed());
 
-    assertFalse(socketWrapper.hasData(123));
+    assertTrue(socketWrapper.closeIfIdle(123));
     assertTrue(m_socket.isClosed());
   }
+
+  @Test public void testDataReceived() throws Exception {
+
+    final IdleAwareSocketWrapper socketWrapper =
+        new IdleAwareSocketWrapper(m_socket,
+                                   m_timeAuthority);
+
+    when(m_timeAuthority.getTimeInMilliseconds())
+      .thenReturn(1000L)
+      .thenReturn(2000L)
+      .thenReturn(3000L);
+
+    assertFalse(socketWrapper.closeIfIdle(123));
+    socketWrapper.dataReceived();
+    assertFalse(socketWrapper.closeIfIdle(123));
+    assertFalse(m_socket.isClosed());
+
+    assertTrue(socketWrapper.closeIfIdle(123));
+  }
+
+  @Test public void testClaim() throws Exception {
+    final IdleAwareSocketWrapper socketWrapper =
+        new IdleAwareSocketWrapper(m_socket, m_timeAuthority);
+
+    assertTrue(socketWrapper.claim());
+    assertFalse(socketWrapper.claim());
+  }
 }
@@ -1,4 +1,4 @@
-// Copyright (C) 2003 - 2011 Philip Aston
+// Copyright (C) 2003 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -245,6 +245,42 @@ public class TestResourcePool {
     }
   }
 
+  @Test public void testReserveAllWithFilter() throws Exception {
+    final ResourcePool resourcePool = new ResourcePoolImplementation();
+
+    final MyResource resource1 = new MyResource();
+    final MyResource resource2 = new MyResource();
+
+    resourcePool.add(resource1);
+    resourcePool.add(resource2);
+
+    final ResourcePool.Filter onlyResource2 = new ResourcePool.Filter() {
+        public boolean accept(ResourcePool.Resource resource) {
+          return resource == resource2;
+        }
+      };
+
+    // Hold resource1; a filtered reservation shouldn't wait for it.
+    final List<? extends ResourcePool.Reservation> reservations =
+      resourcePool.reserveAll(new ResourcePool.Filter() {
+          public boolean accept(ResourcePool.Resource resource) {
+            return resource == resource1;
+          }
+        });
+    assertEquals(1, reservations.size());
+    assertSame(resource1, reservations.get(0).getResource());
+
+    final List<? extends ResourcePool.Reservation> reservations2 =
+      resourcePool.reserveAll(onlyResource2);
+    assertEquals(1, reservations2.size());
+    assertSame(resource2, reservations2.get(0).getResource());
+
+    reservations2.get(0).close();
+    reservations.get(0).free();
+
+    assertEquals(0, resourcePool.reserveAll(onlyResource2).size());
+  }
+
   @Test public void testClose() throws Exception {
 
     final ResourcePool resourcePool = new ResourcePoolImplementation();
@@ -27,7 +27,10 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
-import java.io.ObjectOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 
@@ -95,20 +98,11 @@ public class TestServerReceiver {
     final SimpleMessage message2 = new SimpleMessage();
     final SimpleMessage message3 = new SimpleMessage();
 
-    final ObjectOutputStream objectStream1 =
-      new ObjectOutputStream(socket[0].getOutputStream());
-    objectStream1.writeObject(message1);
-    objectStream1.flush();
+    WireFormat.write(message1, socket[0].getOutputStream());
 
-    final ObjectOutputStream objectStream2 =
-      new ObjectOutputStream(socket[1].getOutputStream());
-    objectStream2.writeObject(message2);
-    objectStream2.flush();
+    WireFormat.write(message2, socket[1].getOutputStream());
 
-    final ObjectOutputStream objectStream3 =
-      new ObjectOutputStream(socket[0].getOutputStream());
-    objectStream3.writeObject(message3);
-    objectStream3.flush();
+    WireFormat.write(message3, socket[0].getOutputStream());
 
     Message receivedMessage1 = serverReceiver.waitForMessage();
     Message receivedMessage2 = serverReceiver.waitForMessage();
@@ -170,10 +164,7 @@ public class TestServerReceiver {
     final SimpleMessage message = new SimpleMessage();
     message.setPayload(IsolatedObjectFactory.getIsolatedObject());
 
-    final ObjectOutputStream objectStream =
-      new ObjectOutputStream(socket.getOutputStream());
-    objectStream.writeObject(message);
-    objectStream.flush();
+    WireFormat.write(message, socket.getOutputStream());
 
     try {
       serverReceiver.waitForMessage();
@@ -186,6 +177,42 @@ public class TestServerReceiver {
     acceptor.shutdown();
   }
 
+  @Test public void testOversizedFrame() throws Exception {
+
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final ServerReceiver serverReceiver = new ServerReceiver();
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.AGENT }, 3, 10, 123);
+
+    final Socket socket =
+      new Connector(InetAddress.getByName(null).getHostName(),
+                    acceptor.getPort(),
+                    ConnectionType.AGENT)
+      .connect();
+
+    // A length prefix for a frame that is too large.
+    final DataOutputStream out =
+      new DataOutputStream(socket.getOutputStream());
+    out.writeInt(WireFormat.MAXIMUM_LENGTH + 1);
+    out.flush();
+
+    try {
+      serverReceiver.waitForMessage();
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+
+    // The receiver has closed the connection.
+    socket.setSoTimeout(5000);
+    final InputStream in = socket.getInputStream();
+    while (in.read() != -1) { }
+
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+  }
+
   @Test public void testShutdown() throws Exception {
 
     final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
@@ -211,10 +238,7 @@ public class TestServerReceiver {
 
     final SimpleMessage message = new SimpleMessage();
 
-    final ObjectOutputStream objectStream =
-      new ObjectOutputStream(socket.getOutputStream());
-    objectStream.writeObject(message);
-    objectStream.flush();
+    WireFormat.write(message, socket.getOutputStream());
 
     final Message receivedMessage = serverReceiver.waitForMessage();
     assertNotNull(receivedMessage);
@@ -259,20 +283,14 @@ public class TestServerReceiver {
 
     final SimpleMessage message = new SimpleMessage();
 
-    final ObjectOutputStream objectStream1 =
-      new ObjectOutputStream(socket.getOutputStream());
-    objectStream1.writeObject(message);
-    objectStream1.flush();
+    WireFormat.write(message, socket.getOutputStream());
 
     final Message receivedMessage = serverReceiver.waitForMessage();
     assertNotNull(receivedMessage);
 
     final Message closeCommunicationMessage = new CloseCommunicationMessage();
 
-    final ObjectOutputStream objectStream2 =
-      new ObjectOutputStream(socket.getOutputStream());
-    objectStream2.writeObject(closeCommunicationMessage);
-    objectStream2.flush();
+    WireFormat.write(closeCommunicationMessage, socket.getOutputStream());
 
     // For a ServerReceiver, a CloseCommunicationMessage only closes
     // the individual connection.
@@ -315,10 +333,7 @@ public class TestServerReceiver {
     final SimpleMessage message = new SimpleMessage();
     final MessageRequiringResponse responseSender = new MessageRequiringResponse(message);
 
-    final ObjectOutputStream objectStream =
-      new ObjectOutputStream(socket.getOutputStream());
-    objectStream.writeObject(responseSender);
-    objectStream.flush();
+    WireFormat.write(responseSender, socket.getOutputStream());
 
     // The server side app code can get hold of the original message...
     final Message received = serverReceiver.waitForMessage();
@@ -339,4 +354,121 @@ public class TestServerReceiver {
     acceptor.shutdown();
     receiver.shutdown();
   }
+
+  @Test public void testPartialAndMultipleMessages() throws Exception {
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final ServerReceiver serverReceiver = new ServerReceiver();
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.AGENT }, 1, 10, 10000);
+
+    final Socket socket =
+      new Connector(InetAddress.getByName(null).getHostName(),
+                    acceptor.getPort(),
+                    ConnectionType.AGENT)
+      .connect();
+
+    final SimpleMessage message1 = new SimpleMessage(10000);
+    final SimpleMessage message2 = new SimpleMessage();
+    final SimpleMessage message3 = new SimpleMessage();
+
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+
+    for (SimpleMessage message : new SimpleMessage[] { message1,
+                                                       message2,
+                                                       message3, }) {
+      WireFormat.write(message, byteStream);
+    }
+
+    final byte[] bytes = byteStream.toByteArray();
+
+    // Split the first message, including its length prefix, and send the
+    // rest together.
+    final OutputStream out = socket.getOutputStream();
+    out.write(bytes, 0, 2);
+    out.flush();
+    Thread.sleep(50);
+    out.write(bytes, 2, 98);
+    out.flush();
+    Thread.sleep(50);
+    out.write(bytes, 100, bytes.length - 100);
+    out.flush();
+
+    assertEquals(message1, serverReceiver.waitForMessage());
+    assertEquals(message2, serverReceiver.waitForMessage());
+    assertEquals(message3, serverReceiver.waitForMessage());
+
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+  }
+
+  @Test public void testManyConnections() throws Exception {
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final ServerReceiver serverReceiver = new ServerReceiver();
+
+    // Two event loops for all the connections.
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.AGENT }, 2, 10, 10000);
+
+    final Socket[] sockets = new Socket[50];
+
+    for (int i = 0; i < sockets.length; ++i) {
+      sockets[i] =
+        new Connector(InetAddress.getByName(null).getHostName(),
+                      acceptor.getPort(),
+                      ConnectionType.AGENT)
+        .connect();
+    }
+
+    for (int i = 0; i < sockets.length; ++i) {
+      new StreamSender(sockets[i].getOutputStream())
+        .send(new SimpleMessage());
+    }
+
+    for (int i = 0; i < sockets.length; ++i) {
+      assertNotNull(serverReceiver.waitForMessage());
+    }
+
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+  }
+
+  @Test public void testInactiveClientTimeOut() throws Exception {
+    final Acceptor acceptor = new Acceptor("localhost", 0, 1, m_timeAuthority);
+
+    final ServerReceiver serverReceiver = new ServerReceiver();
+    serverReceiver.receiveFrom(
+      acceptor, new ConnectionType[] { ConnectionType.AGENT }, 1, 10, 50);
+
+    final Socket socket =
+      new Connector(InetAddress.getByName(null).getHostName(),
+                    acceptor.getPort(),
+                    ConnectionType.AGENT)
+      .connect();
+
+    final ResourcePool socketSet = acceptor.getSocketSet(ConnectionType.AGENT);
+
+    for (int i=0; socketSet.countActive() != 1 && i<10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    assertEquals(1, socketSet.countActive());
+
+    // Sleep until the idle connection has been closed. Give up after a few
+    // seconds.
+    for (int i=0; socketSet.countActive() != 0 && i<10; ++i) {
+      Thread.sleep(i * i * 10);
+    }
+
+    assertEquals(0, socketSet.countActive());
+
+    // The server sends a CloseCommunicationMessage as it closes.
+    final StreamReceiver receiver = new StreamReceiver(socket.getInputStream());
+    assertNull(receiver.waitForMessage());
+
+    serverReceiver.shutdown();
+    acceptor.shutdown();
+    receiver.shutdown();
+  }
 }
@@ -21,8 +21,8 @@
 
 package net.grinder.communication;
 
+import java.io.DataOutputStream;
 import java.io.InputStream;
-import java.io.ObjectOutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 
@@ -52,26 +52,17 @@ public class TestStreamReceiver extends TestCase {
 
     final SimpleMessage message1 = new SimpleMessage();
 
-    final ObjectOutputStream objectStream1 =
-      new ObjectOutputStream(outputStream);
-    objectStream1.writeObject(message1);
-    objectStream1.flush();
+    WireFormat.write(message1, outputStream);
 
     // Message that we can't read using the standard class loaders.
     final SimpleMessage message2 = new SimpleMessage();
     message2.setPayload(IsolatedObjectFactory.getIsolatedObject());
 
-    final ObjectOutputStream objectStream2 =
-      new ObjectOutputStream(outputStream);
-    objectStream2.writeObject(message2);
-    objectStream2.flush();
+    WireFormat.write(message2, outputStream);
 
     final SimpleMessage message3 = new SimpleMessage();
 
-    final ObjectOutputStream objectStream3 =
-      new ObjectOutputStream(outputStream);
-    objectStream3.writeObject(message3);
-    objectStream3.flush();
+    WireFormat.write(message3, outputStream);
 
     final Message receivedMessage1 = streamReceiver.waitForMessage();
 
@@ -115,10 +106,7 @@ public class TestStreamReceiver extends TestCase {
 
     final SimpleMessage message = new SimpleMessage();
 
-    final ObjectOutputStream objectStream =
-      new ObjectOutputStream(outputStream);
-    objectStream.writeObject(message);
-    objectStream.flush();
+    WireFormat.write(message, outputStream);
 
     final Message receivedMessage = streamReceiver.waitForMessage();
     assertNotNull(receivedMessage);
@@ -128,6 +116,27 @@ public class TestStreamReceiver extends TestCase {
     assertNull(streamReceiver.waitForMessage());
   }
 
+  public void testOversizedFrame() throws Exception {
+
+    final PipedOutputStream outputStream = new PipedOutputStream();
+    final InputStream inputStream = new PipedInputStream(outputStream);
+
+    final StreamReceiver streamReceiver = new StreamReceiver(inputStream);
+
+    new DataOutputStream(outputStream).writeInt(WireFormat.MAXIMUM_LENGTH + 1);
+    WireFormat.write(new SimpleMessage(), outputStream);
+
+    try {
+      streamReceiver.waitForMessage();
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+
+    // The receiver has been shut down.
+    assertNull(streamReceiver.waitForMessage());
+  }
+
   public void testCloseCommunicationMessage() throws Exception {
 
     final PipedOutputStream outputStream = new PipedOutputStream();
@@ -137,20 +146,14 @@ public class TestStreamReceiver extends TestCase {
 
     final SimpleMessage message = new SimpleMessage();
 
-    final ObjectOutputStream objectStream1 =
-      new ObjectOutputStream(outputStream);
-    objectStream1.writeObject(message);
-    objectStream1.flush();
+    WireFormat.write(message, outputStream);
 
     final Message receivedMessage = streamReceiver.waitForMessage();
     assertNotNull(receivedMessage);
 
     final Message closeCommunicationMessage = new CloseCommunicationMessage();
 
-    final ObjectOutputStream objectStream2 =
-      new ObjectOutputStream(outputStream);
-    objectStream2.writeObject(closeCommunicationMessage);
-    objectStream2.flush();
+    WireFormat.write(closeCommunicationMessage, outputStream);
 
     assertNull(streamReceiver.waitForMessage());
   }
@@ -23,7 +23,6 @@ package net.grinder.communication;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
 
 import junit.framework.TestCase;
 
@@ -54,15 +53,9 @@ public class TestStreamSender extends TestCase {
     final ByteArrayInputStream byteInputStream =
       new ByteArrayInputStream(byteOutputStream.toByteArray());
 
-    // Need an ObjectInputStream for every message. See note in
-    // StreamSender.writeMessage.
-    final ObjectInputStream inputStream1 =
-      new ObjectInputStream(byteInputStream);
-    final Object o1 = inputStream1.readObject();
+    final Object o1 = WireFormat.read(byteInputStream);
 
-    final ObjectInputStream inputStream2 =
-      new ObjectInputStream(byteInputStream);
-    final Object o2 = inputStream2.readObject();
+    final Object o2 = WireFormat.read(byteInputStream);
 
     assertEquals(message1, o1);
     assertEquals(message2, o2);
@@ -92,14 +85,10 @@ public class TestStreamSender extends TestCase {
     final ByteArrayInputStream byteInputStream =
       new ByteArrayInputStream(byteOutputStream.toByteArray());
 
-    final ObjectInputStream inputStream1 =
-      new ObjectInputStream(byteInputStream);
-    final Object o1 = inputStream1.readObject();
+    final Object o1 = WireFormat.read(byteInputStream);
     assertNotNull(o1);
 
-    final ObjectInputStream inputStream2 =
-      new ObjectInputStream(byteInputStream);
-    final Object o2 = inputStream2.readObject();
+    final Object o2 = WireFormat.read(byteInputStream);
 
     assertTrue(o2 instanceof CloseCommunicationMessage);
   }
@@ -0,0 +1,305 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link WireFormat}.
+ *
+ * @author Philip Aston
+ */
+public class TestWireFormat {
+
+  private static final int TEST_TYPE = 250;
+
+  static {
+    WireFormat.register(TEST_TYPE, IntMessage.class, new IntMessageEncoder());
+  }
+
+  private static byte[] write(Message message) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WireFormat.write(message, out);
+    return out.toByteArray();
+  }
+
+  private static Message read(byte[] bytes) throws Exception {
+    return WireFormat.read(new ByteArrayInputStream(bytes));
+  }
+
+  @Test public void testSerialisedMessage() throws Exception {
+    final SimpleMessage message = new SimpleMessage();
+
+    final byte[] bytes = write(message);
+
+    assertEquals(WireFormat.VERSION, bytes[4]);
+    assertEquals(0, bytes[5]);
+    assertEquals(message, read(bytes));
+  }
+
+  @Test public void testNullMessage() throws Exception {
+    assertNull(read(write(null)));
+  }
+
+  @Test public void testBuiltInMessages() throws Exception {
+    final byte[] keepAlive = write(new KeepAliveMessage());
+    assertEquals(6, keepAlive.length);
+    assertTrue(read(keepAlive) instanceof KeepAliveMessage);
+
+    final byte[] close = write(new CloseCommunicationMessage());
+    assertEquals(6, close.length);
+    assertTrue(read(close) instanceof CloseCommunicationMessage);
+  }
+
+  @Test public void testRegisteredMessage() throws Exception {
+    final byte[] bytes = write(new IntMessage(0x12345678));
+
+    assertEquals(10, bytes.length);
+    assertEquals(6, WireFormat.frameLength(bytes, 0, 4) - 4);
+    assertEquals(TEST_TYPE, bytes[5] & 0xFF);
+
+    assertEquals(0x12345678, ((IntMessage) read(bytes)).getValue());
+
+    // Registering again is harmless.
+    WireFormat.register(TEST_TYPE, IntMessage.class, new IntMessageEncoder());
+    assertEquals(0x12345678, ((IntMessage) read(bytes)).getValue());
+  }
+
+  @Test public void testBadRegistrations() throws Exception {
+    final int[] badTypes = { -1, 0, 1, 15, 256 };
+
+    for (int i = 0; i < badTypes.length; ++i) {
+      try {
+        WireFormat.register(badTypes[i],
+                            IntMessage.class,
+                            new IntMessageEncoder());
+        fail("Expected IllegalArgumentException");
+      }
+      catch (IllegalArgumentException e) {
+      }
+    }
+
+    try {
+      WireFormat.register(TEST_TYPE + 1,
+                          IntMessage.class,
+                          new IntMessageEncoder());
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+
+    try {
+      WireFormat.register(TEST_TYPE,
+                          SimpleMessage.class,
+                          new MessageEncoder<SimpleMessage>() {
+                            public void write(SimpleMessage message,
+                                              DataOutput out) { }
+
+                            public SimpleMessage read(DataInput in) {
+                              return null;
+                            }
+                          });
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test public void testMultipleFrames() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    WireFormat.write(new IntMessage(1), out);
+    WireFormat.write(new SimpleMessage(), out);
+    WireFormat.write(new IntMessage(3), out);
+
+    final byte[] bytes = out.toByteArray();
+
+    int offset = 0;
+    int n = 0;
+
+    while (offset < bytes.length) {
+      final int length =
+        WireFormat.frameLength(bytes, offset, bytes.length - offset);
+
+      final Message message = WireFormat.decode(bytes, offset, length);
+
+      if (n == 1) {
+        assertTrue(message instanceof SimpleMessage);
+      }
+      else {
+        assertEquals(n + 1, ((IntMessage) message).getValue());
+      }
+
+      offset += length;
+      ++n;
+    }
+
+    assertEquals(3, n);
+    assertEquals(-1, WireFormat.frameLength(bytes, 0, 3));
+  }
+
+  @Test public void testTruncatedFrame() throws Exception {
+    final byte[] bytes = write(new SimpleMessage());
+    final byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+    try {
+      read(truncated);
+      fail("Expected EOFException");
+    }
+    catch (EOFException e) {
+    }
+  }
+
+  @Test public void testOversizedFrame() throws Exception {
+    final int length = WireFormat.MAXIMUM_LENGTH + 1;
+
+    final byte[] bytes = {
+      (byte) (length >>> 24),
+      (byte) (length >>> 16),
+      (byte) (length >>> 8),
+      (byte) length,
+      WireFormat.VERSION,
+      0,
+    };
+
+    try {
+      read(bytes);
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    try {
+      WireFormat.frameLength(bytes, 0, bytes.length);
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    // Each int of padding takes four bytes.
+    final Message tooBig = new SimpleMessage(WireFormat.MAXIMUM_LENGTH / 4);
+
+    try {
+      write(tooBig);
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+  }
+
+  @Test public void testSerialisationStream() throws Exception {
+    // What an older peer would send.
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ObjectOutputStream objectStream = new ObjectOutputStream(out);
+    objectStream.writeObject(new SimpleMessage());
+    objectStream.close();
+
+    try {
+      read(out.toByteArray());
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+  }
+
+  @Test public void testBadVersion() throws Exception {
+    final byte[] bytes = write(new KeepAliveMessage());
+    bytes[4] = (byte) (WireFormat.VERSION + 1);
+
+    try {
+      read(bytes);
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+  }
+
+  @Test public void testUnknownType() throws Exception {
+    final byte[] bytes = write(new KeepAliveMessage());
+    bytes[5] = (byte) 249;
+
+    try {
+      read(bytes);
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+  }
+
+  @Test public void testUnreadBytes() throws Exception {
+    final byte[] bytes = write(new IntMessage(1));
+
+    // Extend the frame with an extra byte.
+    final byte[] longer = new byte[bytes.length + 1];
+    System.arraycopy(bytes, 0, longer, 0, bytes.length);
+    longer[3]++;
+
+    try {
+      read(longer);
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+  }
+
+  private static final class IntMessage implements Message {
+    private static final long serialVersionUID = 1L;
+
+    private final int m_value;
+
+    public IntMessage(int value) {
+      m_value = value;
+    }
+
+    public int getValue() {
+      return m_value;
+    }
+  }
+
+  private static final class IntMessageEncoder
+    implements MessageEncoder<IntMessage> {
+
+    public void write(IntMessage message, DataOutput out) throws IOException {
+      out.writeInt(message.getValue());
+    }
+
+    public IntMessage read(DataInput in) throws IOException {
+      return new IntMessage(in.readInt());
+    }
+  }
+}
@@ -38,6 +38,7 @@ import net.grinder.communication.CommunicationException;
 import net.grinder.communication.ConnectionType;
 import net.grinder.communication.KeepAliveMessage;
 import net.grinder.communication.SocketAcceptorThread;
+import net.grinder.communication.WireFormat;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -130,10 +131,7 @@ public class TestConsoleConnectionFactory {
 
     keepAlive.run();
 
-    final ObjectInputStream objectInputStream2 =
-        new ObjectInputStream(socketInput);
-
-    assertTrue(objectInputStream2.readObject() instanceof KeepAliveMessage);
+    assertTrue(WireFormat.read(socketInput) instanceof KeepAliveMessage);
 
     socketAcceptor.getAcceptedSocket().close();
 
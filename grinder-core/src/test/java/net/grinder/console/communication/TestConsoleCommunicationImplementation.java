@@ -34,8 +34,6 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import java.io.File;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -56,6 +54,7 @@ import net.grinder.communication.MessageDispatchRegistry.Handler;
 import net.grinder.communication.SendToEveryoneAddress;
 import net.grinder.communication.StreamSender;
 import net.grinder.communication.StubConnector;
+import net.grinder.communication.WireFormat;
 import net.grinder.console.common.DisplayMessageConsoleException;
 import net.grinder.console.common.ErrorHandler;
 import net.grinder.console.common.Resources;
@@ -195,18 +194,11 @@ public class TestConsoleCommunicationImplementation
   }
 
   private Message readMessage(Socket socket) throws Exception {
-    final ObjectInputStream objectStream =
-      new ObjectInputStream(socket.getInputStream());
-
-    return (Message)objectStream.readObject();
+    return WireFormat.read(socket.getInputStream());
   }
 
   private void sendMessage(Socket socket, Message message) throws Exception {
-    final ObjectOutputStream objectStream =
-      new ObjectOutputStream(socket.getOutputStream());
-
-    objectStream.writeObject(message);
-    objectStream.flush();
+    WireFormat.write(message, socket.getOutputStream());
   }
 
   @Test public void testWithProcessControl() throws Exception {
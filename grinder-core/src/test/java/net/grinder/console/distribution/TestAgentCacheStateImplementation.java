@@ -24,8 +24,10 @@ package net.grinder.console.distribution;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.Map;
 import java.util.regex.Pattern;
 
+import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.common.processidentity.ProcessReport;
 import net.grinder.console.common.processidentity.StubAgentProcessReport;
 import net.grinder.console.communication.ProcessControl;
@@ -279,4 +281,95 @@ public class TestAgentCacheStateImplementation extends AbstractFileTestCase {
       cacheState.getAgentSet().getAddressOfOutOfDateAgents(1000).includes(
         new AgentAddress(agentIdentity1)));
   }
+
+  public void testAgentSetGetAgentTimes() throws Exception {
+    final UpdateableAgentCacheState cacheState =
+      new AgentCacheStateImplementation(
+        m_processControl, m_directory, m_pattern);
+
+    final Listener processListener =
+      (Listener) m_processControlStubFactory.assertSuccess(
+        "addProcessStatusListener", Listener.class).getParameters()[0];
+
+    assertEquals(0, cacheState.getAgentSet().getAgentTimes().size());
+
+    final StubAgentIdentity agentIdentity1 = new StubAgentIdentity("agent1");
+    final StubAgentProcessReport agentReport1 =
+      new StubAgentProcessReport(agentIdentity1, ProcessReport.State.RUNNING);
+    agentReport1.setCacheHighWaterMark(
+      cacheState.getCacheParameters().createHighWaterMark(1000));
+
+    final StubAgentIdentity agentIdentity2 = new StubAgentIdentity("agent2");
+    final StubAgentProcessReport agentReport2 =
+      new StubAgentProcessReport(agentIdentity2, ProcessReport.State.RUNNING);
+    agentReport2.setCacheHighWaterMark(
+      new CacheParametersImplementation(m_directory, Pattern.compile("x"))
+      .createHighWaterMark(2000));
+
+    processListener.update(new ProcessReports[] {
+      new StubProcessReports(agentReport1, null),
+      new StubProcessReports(agentReport2, null),
+    });
+
+    final Map<AgentIdentity, Long> agentTimes =
+      cacheState.getAgentSet().getAgentTimes();
+
+    assertEquals(2, agentTimes.size());
+    assertEquals(new Long(1000), agentTimes.get(agentIdentity1));
+    assertEquals(new Long(-1), agentTimes.get(agentIdentity2));
+
+    final AgentSet agentSet = cacheState.getAgentSet();
+    cacheState.setFileFilterPattern(Pattern.compile("y"));
+
+    try {
+      agentSet.getAgentTimes();
+      fail("Expected OutOfDateException");
+    }
+    catch (OutOfDateException e) {
+    }
+  }
+
+  public void testDistributionProgress() throws Exception {
+    final UpdateableAgentCacheState cacheState =
+      new AgentCacheStateImplementation(
+        m_processControl, m_directory, m_pattern);
+
+    final RandomStubFactory<PropertyChangeListener> listenerStubFactory =
+      RandomStubFactory.create(PropertyChangeListener.class);
+    cacheState.addListener(listenerStubFactory.getStub());
+
+    assertEquals(0, cacheState.getDistributionProgress().size());
+
+    final StubAgentIdentity agentIdentity1 = new StubAgentIdentity("agent1");
+
+    cacheState.setDistributionProgress(agentIdentity1, 50);
+
+    final PropertyChangeEvent event =
+      (PropertyChangeEvent) listenerStubFactory.assertSuccess(
+        "propertyChange", PropertyChangeEvent.class).getParameters()[0];
+    assertEquals("distributionProgress", event.getPropertyName());
+
+    final Map<AgentIdentity, Integer> progress =
+      cacheState.getDistributionProgress();
+    assertEquals(1, progress.size());
+    assertEquals(new Integer(50), progress.get(agentIdentity1));
+
+    // No change, no event.
+    cacheState.setDistributionProgress(agentIdentity1, 50);
+    listenerStubFactory.assertNoMoreCalls();
+
+    cacheState.setDistributionProgress(agentIdentity1, 100);
+    listenerStubFactory.assertSuccess("propertyChange",
+                                      PropertyChangeEvent.class);
+
+    // Callers are given snapshots.
+    assertEquals(new Integer(50), progress.get(agentIdentity1));
+    assertEquals(new Integer(100),
+                 cacheState.getDistributionProgress().get(agentIdentity1));
+
+    cacheState.clearDistributionProgress();
+    listenerStubFactory.assertSuccess("propertyChange",
+                                      PropertyChangeEvent.class);
+    assertEquals(0, cacheState.getDistributionProgress().size());
+  }
 }
@@ -0,0 +1,125 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.console.distribution;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+import net.grinder.util.Directory;
+import net.grinder.util.FileChunk;
+import net.grinder.util.FileContents;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ContentHistory}.
+ *
+ * @author Philip Aston
+ */
+public class TestContentHistory extends AbstractJUnit4FileTestCase {
+
+  private static final Random s_random = new Random();
+
+  private final byte[] m_chunk0 = new byte[FileContents.CHUNK_SIZE];
+  private final byte[] m_chunk1 = new byte[FileContents.CHUNK_SIZE];
+  private final byte[] m_chunk2 = new byte[FileContents.CHUNK_SIZE];
+
+  @Before public void setUp() {
+    s_random.nextBytes(m_chunk0);
+    s_random.nextBytes(m_chunk1);
+    s_random.nextBytes(m_chunk2);
+  }
+
+  private FileContents createFile(byte[]... chunks) throws Exception {
+    final OutputStream out =
+      new FileOutputStream(new File(getDirectory(), "file"));
+
+    for (byte[] chunk : chunks) {
+      out.write(chunk);
+    }
+
+    out.close();
+
+    return new FileContents(getDirectory(), new File("file"));
+  }
+
+  private static FileChunk.Digest digest(byte[] chunk) {
+    return FileChunk.Digest.create(chunk, chunk.length);
+  }
+
+  @Test public void testUpdate() throws Exception {
+    final CacheParameters cacheParameters =
+      new CacheParametersImplementation(new Directory(getDirectory()),
+                                        Pattern.compile(""));
+
+    final ContentHistory history = new ContentHistory();
+
+    final Map<FileChunk.Digest, Long> times1 =
+      history.update(cacheParameters, createFile(m_chunk0, m_chunk1), 100);
+
+    assertEquals(2, times1.size());
+    assertEquals(100L, times1.get(digest(m_chunk0)).longValue());
+    assertEquals(100L, times1.get(digest(m_chunk1)).longValue());
+
+    // Touched.
+    final Map<FileChunk.Digest, Long> times2 =
+      history.update(cacheParameters, createFile(m_chunk0, m_chunk1), 200);
+
+    assertEquals(times1, times2);
+
+    // Changed, with a chunk moved.
+    final Map<FileChunk.Digest, Long> times3 =
+      history.update(cacheParameters, createFile(m_chunk2, m_chunk0), 300);
+
+    assertEquals(2, times3.size());
+    assertEquals(300L, times3.get(digest(m_chunk2)).longValue());
+    assertEquals(100L, times3.get(digest(m_chunk0)).longValue());
+
+    // Chunk 1 was absent from the last version, so is new again.
+    final Map<FileChunk.Digest, Long> times4 =
+      history.update(cacheParameters, createFile(m_chunk1, m_chunk0), 400);
+
+    assertEquals(400L, times4.get(digest(m_chunk1)).longValue());
+    assertEquals(100L, times4.get(digest(m_chunk0)).longValue());
+
+    // History is discarded when the cache parameters change.
+    final CacheParameters cacheParameters2 =
+      new CacheParametersImplementation(new Directory(getDirectory()),
+                                        Pattern.compile("x"));
+
+    final Map<FileChunk.Digest, Long> times5 =
+      history.update(cacheParameters2, createFile(m_chunk1, m_chunk0), 500);
+
+    assertEquals(500L, times5.get(digest(m_chunk1)).longValue());
+    assertEquals(500L, times5.get(digest(m_chunk0)).longValue());
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2011 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,15 +21,28 @@
 
 package net.grinder.console.distribution;
 
-import static net.grinder.testutility.FileUtilities.createRandomFile;
-
 import java.io.File;
-
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.communication.Address;
 import net.grinder.console.communication.DistributionControl;
+import net.grinder.engine.agent.StubAgentIdentity;
 import net.grinder.messages.agent.CacheHighWaterMark;
+import net.grinder.messages.console.AgentAddress;
 import net.grinder.testutility.AbstractFileTestCase;
 import net.grinder.testutility.RandomStubFactory;
+import net.grinder.util.FileChunk;
 import net.grinder.util.FileContents;
 
 /**
@@ -50,9 +63,21 @@ public class TestFileDistributionHandlerImplementation
     RandomStubFactory.create(AgentSet.class);
   private final AgentSet m_agentSet = m_agentSetStubFactory.getStub();
 
+  private final AgentCacheStateStubFactory m_agentCacheStateStubFactory =
+    new AgentCacheStateStubFactory();
+  private final UpdateableAgentCacheState m_agentCacheState =
+    m_agentCacheStateStubFactory.getStub();
+
   private final CacheParameters m_cacheParameters =
     new CacheParametersImplementation(null, null);
 
+  private final ContentHistory m_contentHistory = new ContentHistory();
+
+  private final AgentIdentity m_agent = new StubAgentIdentity("agent");
+  private final Address m_agentAddress = new AgentAddress(m_agent);
+
+  private final DeferredExecutor m_executor = new DeferredExecutor();
+
   final File[] m_files = {
     new File("a"),
     new File("b"),
@@ -62,20 +87,55 @@ public class TestFileDistributionHandlerImplementation
     super.setUp();
 
     for (int i = 0; i < m_files.length; ++i) {
-      createRandomFile(new File(getDirectory(), m_files[i].getPath()));
+      createFile(m_files[i]);
     }
+
+    setAgentTimes(m_agent, -1);
+  }
+
+  private void setAgentTimes(Object... agentsAndTimes) {
+    final Map<AgentIdentity, Long> agentTimes =
+      new HashMap<AgentIdentity, Long>();
+
+    for (int i = 0; i < agentsAndTimes.length; i += 2) {
+      agentTimes.put((AgentIdentity) agentsAndTimes[i],
+                     ((Number) agentsAndTimes[i + 1]).longValue());
+    }
+
+    m_agentSetStubFactory.setResult("getAgentTimes", agentTimes);
+  }
+
+  private File createFile(File file) throws Exception {
+    final File result = new File(getDirectory(), file.getPath());
+    final byte[] bytes = new byte[1000];
+    s_random.nextBytes(bytes);
+
+    final OutputStream out = new FileOutputStream(result);
+    out.write(bytes);
+    out.close();
+
+    return result;
+  }
+
+  private FileDistributionHandlerImplementation createHandler(
+    Executor executor) throws Exception {
+    return new FileDistributionHandlerImplementation(
+      m_cacheParameters,
+      getDirectory(),
+      m_files,
+      m_distributionControl,
+      m_agentSet,
+      m_contentHistory,
+      executor,
+      m_agentCacheState);
   }
 
   public void testFileDistributionHandlerImplementation() throws Exception {
     final FileDistributionHandlerImplementation fileDistributionHandler =
-      new FileDistributionHandlerImplementation(
-        m_cacheParameters,
-        getDirectory(),
-        m_files,
-        m_distributionControl,
-        m_agentSet);
+      createHandler(m_executor);
 
     m_distributionControlStubFactory.assertNoMoreCalls();
+    m_agentSetStubFactory.assertNoMoreCalls();
 
     final FileDistributionHandler.Result result0 =
       fileDistributionHandler.sendNextFile();
@@ -83,21 +143,29 @@ public class TestFileDistributionHandlerImplementation
     assertEquals(50, result0.getProgressInCents());
     assertEquals("a", result0.getFileName());
 
-    m_distributionControlStubFactory.assertSuccess(
-      "clearFileCaches", Address.class);
+    m_agentSetStubFactory.assertSuccess("getAgentTimes");
+    m_agentCacheStateStubFactory.assertSuccess("clearDistributionProgress");
 
-    m_agentSetStubFactory.assertSuccess(
-      "getAddressOfOutOfDateAgents", new Long(0));
+    // Nothing is sent until the pipeline runs.
+    m_distributionControlStubFactory.assertNoMoreCalls();
 
-    m_distributionControlStubFactory.assertSuccess("sendFile",
-                                                 Address.class,
-                                                 FileContents.class);
+    m_executor.runAll();
 
-    m_agentSetStubFactory.assertSuccess(
-      "getAddressOfOutOfDateAgents",
-      new Long(new File(getDirectory(), m_files[0].getPath()).lastModified()));
+    m_distributionControlStubFactory.assertSuccess(
+      "clearFileCaches", m_agentAddress);
+    m_distributionControlStubFactory.assertSuccess("sendFile",
+                                                   Address.class,
+                                                   FileContents.class);
+    m_distributionControlStubFactory.assertSuccess("sendFileChunk",
+                                                   Address.class,
+                                                   FileChunk.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
 
-    m_agentSetStubFactory.assertNoMoreCalls();
+    m_agentCacheStateStubFactory.assertSuccess(
+      "setDistributionProgress", m_agent, 25);
+    m_agentCacheStateStubFactory.assertSuccess(
+      "setDistributionProgress", m_agent, 50);
+    m_agentCacheStateStubFactory.assertNoMoreCalls();
 
     final FileDistributionHandler.Result result1 =
       fileDistributionHandler.sendNextFile();
@@ -105,16 +173,26 @@ public class TestFileDistributionHandlerImplementation
     assertEquals(100, result1.getProgressInCents());
     assertEquals("b", result1.getFileName());
 
+    m_executor.runAll();
+
     m_distributionControlStubFactory.assertSuccess("sendFile",
-                                                 Address.class,
-                                                 FileContents.class);
+                                                   Address.class,
+                                                   FileContents.class);
+    m_distributionControlStubFactory.assertSuccess("sendFileChunk",
+                                                   Address.class,
+                                                   FileChunk.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
 
-    m_agentSetStubFactory.assertSuccess(
-      "getAddressOfOutOfDateAgents",
-      new Long(new File(getDirectory(), m_files[1].getPath()).lastModified()));
+    m_agentCacheStateStubFactory.assertSuccess(
+      "setDistributionProgress", m_agent, 75);
 
+    m_agentSetStubFactory.assertSuccess("getAgentTimes");
     m_agentSetStubFactory.assertNoMoreCalls();
 
+    // The final call waits for the checkpoint to be delivered.
+    final DirectExecutor directExecutor = new DirectExecutor();
+    m_executor.setDelegate(directExecutor);
+
     final FileDistributionHandler.Result result2 =
       fileDistributionHandler.sendNextFile();
 
@@ -124,26 +202,283 @@ public class TestFileDistributionHandlerImplementation
       "setHighWaterMark", Address.class, CacheHighWaterMark.class);
     m_distributionControlStubFactory.assertNoMoreCalls();
 
-    m_agentSetStubFactory.assertSuccess("getAddressOfAllAgents");
+    m_agentCacheStateStubFactory.assertSuccess(
+      "setDistributionProgress", m_agent, 100);
+    m_agentCacheStateStubFactory.assertNoMoreCalls();
 
+    m_agentSetStubFactory.assertSuccess("getAgentTimes");
     m_agentSetStubFactory.assertNoMoreCalls();
   }
 
+  public void testNoAgents() throws Exception {
+    setAgentTimes();
+
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      createHandler(m_executor);
+
+    while (fileDistributionHandler.sendNextFile() != null) { }
+
+    assertEquals(0, m_executor.size());
+    m_distributionControlStubFactory.assertNoMoreCalls();
+  }
+
   public void testOutOfDateHandler() throws Exception {
 
     final FileDistributionHandlerImplementation fileDistributionHandler =
-      new FileDistributionHandlerImplementation(
-        m_cacheParameters,
-        getDirectory(),
-        m_files,
-        m_distributionControl,
-        m_agentSet);
+      createHandler(m_executor);
 
     assertNotNull(fileDistributionHandler.sendNextFile());
 
-    m_agentSetStubFactory.setThrows("getAddressOfOutOfDateAgents",
+    m_agentSetStubFactory.setThrows("getAgentTimes",
                                     new AgentSet.OutOfDateException());
 
     assertNull(fileDistributionHandler.sendNextFile());
+
+    // Queued deliveries are abandoned.
+    m_executor.runAll();
+    m_distributionControlStubFactory.assertNoMoreCalls();
+  }
+
+  public void testOnlyChangedContentIsSent() throws Exception {
+    final File file0 = new File(getDirectory(), m_files[0].getPath());
+    final File file1 = new File(getDirectory(), m_files[1].getPath());
+
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      createHandler(new DirectExecutor());
+
+    while (fileDistributionHandler.sendNextFile() != null) { }
+
+    // The agent is now up to date.
+    final long highWaterMark =
+      Math.max(file0.lastModified(), file1.lastModified());
+    setAgentTimes(m_agent, highWaterMark);
+
+    // Touch one file, and change the other.
+    assertTrue(file0.setLastModified(highWaterMark + 10000));
+    createFile(m_files[1]);
+    assertTrue(file1.setLastModified(highWaterMark + 10000));
+
+    m_distributionControlStubFactory.resetCallHistory();
+
+    final FileDistributionHandlerImplementation fileDistributionHandler2 =
+      createHandler(new DirectExecutor());
+
+    fileDistributionHandler2.sendNextFile();
+
+    m_distributionControlStubFactory.assertSuccess("sendFile",
+                                                   Address.class,
+                                                   FileContents.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
+
+    fileDistributionHandler2.sendNextFile();
+
+    m_distributionControlStubFactory.assertSuccess("sendFile",
+                                                   Address.class,
+                                                   FileContents.class);
+    m_distributionControlStubFactory.assertSuccess("sendFileChunk",
+                                                   Address.class,
+                                                   FileChunk.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
+  }
+
+  public void testChunkReadFailure() throws Exception {
+    final FileDistributionHandlerImplementation fileDistributionHandler =
+      createHandler(m_executor);
+
+    assertEquals("a", fileDistributionHandler.sendNextFile().getFileName());
+
+    // Change the file before its chunks are read.
+    createFile(m_files[0]);
+
+    m_executor.runAll();
+
+    m_distributionControlStubFactory.assertSuccess(
+      "clearFileCaches", m_agentAddress);
+    m_distributionControlStubFactory.assertSuccess("sendFile",
+                                                   Address.class,
+                                                   FileContents.class);
+    m_distributionControlStubFactory.assertNoMoreCalls();
+
+    try {
+      fileDistributionHandler.sendNextFile();
+      fail("Expected FileContentsException");
+    }
+    catch (FileContents.FileContentsException e) {
+    }
+
+    // Distribution continues with the next file.
+    assertEquals("b", fileDistributionHandler.sendNextFile().getFileName());
+
+    m_executor.setDelegate(new DirectExecutor());
+    m_executor.runAll();
+    assertNull(fileDistributionHandler.sendNextFile());
+  }
+
+  public void testSlowAgentDoesNotBlockOthers() throws Exception {
+    final AgentIdentity slowAgent = new StubAgentIdentity("slow");
+    setAgentTimes(m_agent, -1, slowAgent, -1);
+
+    final CountDownLatch slowAgentLatch = new CountDownLatch(1);
+
+    final RandomStubFactory<DistributionControl>
+      distributionControlStubFactory =
+        new DistributionControlStubFactory(new AgentAddress(slowAgent),
+                                           slowAgentLatch);
+    distributionControlStubFactory.setIgnoreCallOrder(true);
+    m_agentCacheStateStubFactory.setIgnoreCallOrder(true);
+
+    // More files than the slow agent will have received when the fast
+    // agent finishes them.
+    final File[] files = new File[6];
+
+    for (int i = 0; i < files.length; ++i) {
+      files[i] = new File("file" + i);
+      createFile(files[i]);
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      final FileDistributionHandlerImplementation fileDistributionHandler =
+        new FileDistributionHandlerImplementation(
+          m_cacheParameters,
+          getDirectory(),
+          files,
+          distributionControlStubFactory.getStub(),
+          m_agentSet,
+          m_contentHistory,
+          executor,
+          m_agentCacheState);
+
+      // Only the final call waits for the agents.
+      for (int i = 0; i < files.length; ++i) {
+        assertNotNull(fileDistributionHandler.sendNextFile());
+      }
+
+      // The cache clear and every file, out of 8 deliveries.
+      m_agentCacheStateStubFactory.waitForProgress(m_agent, 87);
+      assertNull(m_agentCacheStateStubFactory.getProgress(slowAgent));
+
+      slowAgentLatch.countDown();
+
+      assertNull(fileDistributionHandler.sendNextFile());
+
+      assertEquals(new Integer(100), m_agentCacheStateStubFactory.getProgress(m_agent));
+      assertEquals(new Integer(100), m_agentCacheStateStubFactory.getProgress(slowAgent));
+
+      for (int i = 0; i < 2; ++i) {
+        distributionControlStubFactory.assertSuccess("clearFileCaches",
+                                                     Address.class);
+        distributionControlStubFactory.assertSuccess(
+          "setHighWaterMark", Address.class, CacheHighWaterMark.class);
+
+        for (int j = 0; j < files.length; ++j) {
+          distributionControlStubFactory.assertSuccess("sendFile",
+                                                       Address.class,
+                                                       FileContents.class);
+          distributionControlStubFactory.assertSuccess("sendFileChunk",
+                                                       Address.class,
+                                                       FileChunk.class);
+        }
+      }
+
+      distributionControlStubFactory.assertNoMoreCalls();
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static final class DirectExecutor implements Executor {
+    public void execute(Runnable command) {
+      command.run();
+    }
+  }
+
+  private static final class DeferredExecutor implements Executor {
+    private final List<Runnable> m_queue = new ArrayList<Runnable>();
+    private Executor m_delegate;
+
+    public void execute(Runnable command) {
+      if (m_delegate != null) {
+        m_delegate.execute(command);
+      }
+      else {
+        m_queue.add(command);
+      }
+    }
+
+    public void setDelegate(Executor delegate) {
+      m_delegate = delegate;
+    }
+
+    public int size() {
+      return m_queue.size();
+    }
+
+    public void runAll() {
+      while (m_queue.size() > 0) {
+        m_queue.remove(0).run();
+      }
+    }
+  }
+
+  public static final class DistributionControlStubFactory
+    extends RandomStubFactory<DistributionControl> {
+
+    private final Address m_slowAddress;
+    private final CountDownLatch m_latch;
+
+    public DistributionControlStubFactory(Address slowAddress,
+                                          CountDownLatch latch) {
+      super(DistributionControl.class);
+      m_slowAddress = slowAddress;
+      m_latch = latch;
+    }
+
+    public void override_clearFileCaches(Object proxy, Address address) {
+      if (address.equals(m_slowAddress)) {
+        try {
+          m_latch.await();
+        }
+        catch (InterruptedException e) {
+          throw new UncheckedInterruptedException(e);
+        }
+      }
+    }
+  }
+
+  public static final class AgentCacheStateStubFactory
+    extends RandomStubFactory<UpdateableAgentCacheState> {
+
+    private final Map<AgentIdentity, Integer> m_progress =
+      new HashMap<AgentIdentity, Integer>();
+
+    public AgentCacheStateStubFactory() {
+      super(UpdateableAgentCacheState.class);
+    }
+
+    public synchronized void override_setDistributionProgress(
+      Object proxy, AgentIdentity agent, int progressInCents) {
+      m_progress.put(agent, progressInCents);
+      notifyAll();
+    }
+
+    public synchronized Integer getProgress(AgentIdentity agent) {
+      return m_progress.get(agent);
+    }
+
+    public synchronized void waitForProgress(AgentIdentity agent,
+                                             int progressInCents)
+      throws InterruptedException {
+
+      final long expires = System.currentTimeMillis() + 10000;
+
+      while (!Integer.valueOf(progressInCents).equals(m_progress.get(agent))) {
+        final long remaining = expires - System.currentTimeMillis();
+        assertTrue("Timed out waiting for progress", remaining > 0);
+        wait(remaining);
+      }
+    }
   }
 }
@@ -1,4 +1,4 @@
-// Copyright (C) 2007 - 2009 Philip Aston
+// Copyright (C) 2007 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -23,7 +23,10 @@ package net.grinder.console.editor;
 
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.Collections;
+import java.util.Map;
 
+import net.grinder.common.processidentity.AgentIdentity;
 import net.grinder.console.common.Resources;
 import net.grinder.console.common.ResourcesImplementation;
 import net.grinder.console.distribution.AgentCacheState;
@@ -100,6 +103,10 @@ public class TestExternalEditor extends AbstractFileTestCase {
 
         public void setNewFileTime(long invalidAfter) {
           lastInvalidAfter[0] = invalidAfter;
+        }
+
+        public Map<AgentIdentity, Integer> getDistributionProgress() {
+          return Collections.emptyMap();
         }};
 
 
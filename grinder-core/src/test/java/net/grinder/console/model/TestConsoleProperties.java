@@ -638,6 +638,38 @@ public class TestConsoleProperties extends AbstractJUnit4FileTestCase {
     }.doTest();
   }
 
+  @Test public void testTimeSeriesDirectory() throws Exception {
+
+    new TestFileTemplate(
+      ConsoleProperties.TIME_SERIES_DIRECTORY_PROPERTY) {
+
+      protected File get(ConsoleProperties properties) {
+        return properties.getTimeSeriesDirectory();
+      }
+
+      protected void set(ConsoleProperties properties, File file) {
+        properties.setTimeSeriesDirectory(file);
+      }
+    }.doTest();
+  }
+
+  @Test public void testTimeSeriesMaximumSamples() throws Exception {
+
+    new TestIntTemplate(
+      ConsoleProperties.TIME_SERIES_MAXIMUM_SAMPLES_PROPERTY, 0,
+      Integer.MAX_VALUE) {
+
+      protected int get(ConsoleProperties properties) {
+        return properties.getTimeSeriesMaximumSamples();
+      }
+
+      protected void set(ConsoleProperties properties, int i)
+        throws ConsoleException {
+        properties.setTimeSeriesMaximumSamples(i);
+      }
+    }.doTest();
+  }
+
   @Test public void testCopyConstructor() throws Exception {
     final ConsoleProperties p1 = new ConsoleProperties(s_resources, m_file);
     final ConsoleProperties p2 = new ConsoleProperties(p1);
@@ -0,0 +1,242 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.model;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimerTask;
+
+import net.grinder.common.StubTest;
+import net.grinder.common.Test;
+import net.grinder.console.common.ErrorHandler;
+import net.grinder.console.common.Resources;
+import net.grinder.console.common.StubResources;
+import net.grinder.statistics.StatisticsIndexMap.LongIndex;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.TestStatisticsMap;
+import net.grinder.testutility.AbstractFileTestCase;
+import net.grinder.testutility.RandomStubFactory;
+import net.grinder.testutility.StubTimer;
+import net.grinder.util.StandardTimeAuthority;
+import net.grinder.util.TimeAuthorityStubFactory;
+
+
+/**
+ * Unit tests for {@link TimeSeriesRecorder}.
+ *
+ * @author Philip Aston
+ */
+public class TestTimeSeriesRecorder extends AbstractFileTestCase {
+
+  private final Resources m_resources = new StubResources<String>(
+    new HashMap<String, String>() {{
+      put("state.ignoring.label", "");
+      put("state.waiting.label", "");
+      put("state.stopped.label", "");
+      put("state.capturing.label", "");
+    }}
+  );
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private final RandomStubFactory<ErrorHandler> m_errorHandlerStubFactory =
+    RandomStubFactory.create(ErrorHandler.class);
+  private final ErrorHandler m_errorHandler =
+    m_errorHandlerStubFactory.getStub();
+
+  private StubTimer m_timer;
+  private ConsoleProperties m_consoleProperties;
+  private SampleModelImplementation m_sampleModel;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m_timer = new StubTimer();
+    m_consoleProperties =
+      new ConsoleProperties(null, new File(getDirectory(), "props"));
+    m_sampleModel = new SampleModelImplementation(m_consoleProperties,
+                                                  m_statisticsServices,
+                                                  m_timer,
+                                                  m_resources,
+                                                  m_errorHandler);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    super.tearDown();
+    m_timer.cancel();
+  }
+
+  private TimeSeriesRecorder createRecorder() {
+    return new TimeSeriesRecorder(m_consoleProperties,
+                                  m_sampleModel,
+                                  m_statisticsServices,
+                                  new StandardTimeAuthority(),
+                                  m_errorHandler);
+  }
+
+  public void testDisabled() throws Exception {
+    final TimeSeriesRecorder recorder = createRecorder();
+
+    assertNull(recorder.getStore());
+
+    recorder.shutdown();
+
+    m_errorHandlerStubFactory.assertNoMoreCalls();
+  }
+
+  public void testRecording() throws Exception {
+    m_consoleProperties.setTimeSeriesDirectory(
+      new File(getDirectory(), "samples"));
+
+    final TimeSeriesRecorder recorder = createRecorder();
+    final TimeSeriesStore store = recorder.getStore();
+    assertNotNull(store);
+
+    final Test test1 = new StubTest(1, "test 1");
+    final Test test2 = new StubTest(2, "test 2");
+
+    m_sampleModel.registerTests(Arrays.asList(test1, test2));
+
+    final LongIndex index =
+      m_statisticsServices.getStatisticsIndexMap().getLongIndex("untimedTests");
+
+    final StatisticsSet statistics =
+      m_statisticsServices.getStatisticsSetFactory().create();
+    statistics.setValue(index, 3);
+
+    final TestStatisticsMap report = new TestStatisticsMap();
+    report.put(test1, statistics);
+
+    m_sampleModel.addTestReport(report);
+
+    final TimerTask sampleTask = m_timer.getLastScheduledTimerTask();
+    sampleTask.run();
+
+    m_sampleModel.addTestReport(report);
+    m_sampleModel.addTestReport(report);
+    sampleTask.run();
+
+    final List<TimeSeriesStore.Sample> samples1 =
+      store.query(1, 0, Long.MAX_VALUE, 0);
+
+    assertEquals(2, samples1.size());
+    assertEquals(3, samples1.get(0).getStatistics().getValue(index));
+    assertEquals(6, samples1.get(1).getStatistics().getValue(index));
+
+    final List<TimeSeriesStore.Sample> samples2 =
+      store.query(2, 0, Long.MAX_VALUE, 0);
+
+    assertEquals(2, samples2.size());
+    assertTrue(samples2.get(1).getStatistics().isZero());
+
+    // Samples for one interval share a time.
+    assertEquals(samples1.get(1).getTime(), samples2.get(1).getTime());
+
+    recorder.shutdown();
+    assertNull(recorder.getStore());
+
+    // Further samples are ignored.
+    sampleTask.run();
+
+    m_errorHandlerStubFactory.assertNoMoreCalls();
+  }
+
+  public void testOutOfOrderSamples() throws Exception {
+    m_consoleProperties.setTimeSeriesDirectory(
+      new File(getDirectory(), "samples"));
+
+    final TimeAuthorityStubFactory timeAuthorityStubFactory =
+      new TimeAuthorityStubFactory();
+
+    final TimeSeriesRecorder recorder =
+      new TimeSeriesRecorder(m_consoleProperties,
+                             m_sampleModel,
+                             m_statisticsServices,
+                             timeAuthorityStubFactory.getStub(),
+                             m_errorHandler);
+
+    m_sampleModel.registerTests(Arrays.<Test>asList(new StubTest(1, "")));
+    m_sampleModel.addTestReport(new TestStatisticsMap());
+
+    final TimerTask sampleTask = m_timer.getLastScheduledTimerTask();
+
+    timeAuthorityStubFactory.nextTime(1000);
+    sampleTask.run();
+    m_errorHandlerStubFactory.assertNoMoreCalls();
+
+    timeAuthorityStubFactory.nextTime(500);
+    sampleTask.run();
+    m_errorHandlerStubFactory.assertSuccess("handleErrorMessage",
+                                            String.class);
+
+    // Reported once.
+    timeAuthorityStubFactory.nextTime(600);
+    sampleTask.run();
+    m_errorHandlerStubFactory.assertNoMoreCalls();
+
+    timeAuthorityStubFactory.nextTime(2000);
+    sampleTask.run();
+
+    timeAuthorityStubFactory.nextTime(100);
+    sampleTask.run();
+    m_errorHandlerStubFactory.assertSuccess("handleErrorMessage",
+                                            String.class);
+
+    final List<TimeSeriesStore.Sample> samples =
+      recorder.getStore().query(1, 0, Long.MAX_VALUE, 0);
+
+    assertEquals(2, samples.size());
+    assertEquals(1000, samples.get(0).getTime());
+    assertEquals(2000, samples.get(1).getTime());
+
+    recorder.shutdown();
+    m_errorHandlerStubFactory.assertNoMoreCalls();
+  }
+
+  public void testMaximumSamples() throws Exception {
+    m_consoleProperties.setTimeSeriesDirectory(
+      new File(getDirectory(), "samples"));
+    m_consoleProperties.setTimeSeriesMaximumSamples(1);
+
+    final TimeSeriesRecorder recorder = createRecorder();
+
+    m_sampleModel.registerTests(Arrays.<Test>asList(new StubTest(1, "")));
+    m_sampleModel.addTestReport(new TestStatisticsMap());
+
+    final TimerTask sampleTask = m_timer.getLastScheduledTimerTask();
+
+    for (int i = 0; i < TimeSeriesStore.DEFAULT_SEGMENT_CAPACITY + 1; ++i) {
+      sampleTask.run();
+    }
+
+    assertEquals(1, recorder.getStore().getNumberOfSamples(1));
+
+    recorder.shutdown();
+    m_errorHandlerStubFactory.assertNoMoreCalls();
+  }
+}
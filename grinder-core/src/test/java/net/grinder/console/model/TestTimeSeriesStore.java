@@ -0,0 +1,342 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.console.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link TimeSeriesStore}.
+ *
+ * @author Philip Aston
+ */
+public class TestTimeSeriesStore extends AbstractJUnit4FileTestCase {
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private final StatisticsSetFactory m_factory =
+    m_statisticsServices.getStatisticsSetFactory();
+
+  private final StatisticsIndexMap.LongIndex m_index =
+    m_statisticsServices.getStatisticsIndexMap().getLongIndex("userLong0");
+
+  private final StatisticsIndexMap.LongSampleIndex m_timedTests =
+    m_statisticsServices.getStatisticsIndexMap()
+    .getLongSampleIndex("timedTests");
+
+  private StatisticsSet statistics(long value) {
+    final StatisticsSet result = m_factory.create();
+    result.setValue(m_index, value);
+    return result;
+  }
+
+  private long value(TimeSeriesStore.Sample sample) {
+    return sample.getStatistics().getValue(m_index);
+  }
+
+  @Test public void testEmptyStore() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(new File(getDirectory(), "new"), m_factory, 0);
+
+    assertEquals(0, store.getTestNumbers().size());
+    assertEquals(0, store.getNumberOfSamples(1));
+    assertEquals(0, store.query(1, 0, Long.MAX_VALUE, 0).size());
+
+    store.close();
+  }
+
+  @Test public void testAppendAndQuery() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(getDirectory(), m_factory, 0);
+
+    for (int i = 0; i < 10; ++i) {
+      store.append(1000 + i * 100, 1, statistics(i));
+    }
+
+    store.append(1000, 3, statistics(99));
+
+    assertEquals(Arrays.asList(1, 3),
+                 new ArrayList<Integer>(store.getTestNumbers()));
+    assertEquals(10, store.getNumberOfSamples(1));
+    assertEquals(1, store.getNumberOfSamples(3));
+
+    final List<TimeSeriesStore.Sample> all =
+      store.query(1, Long.MIN_VALUE, Long.MAX_VALUE, 0);
+    assertEquals(10, all.size());
+
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(1000 + i * 100, all.get(i).getTime());
+      assertEquals(i, value(all.get(i)));
+    }
+
+    final List<TimeSeriesStore.Sample> range = store.query(1, 1150, 1500, 0);
+    assertEquals(3, range.size());
+    assertEquals(1200, range.get(0).getTime());
+    assertEquals(1400, range.get(2).getTime());
+
+    assertEquals(0, store.query(1, 2000, 3000, 0).size());
+    assertEquals(0, store.query(1, 1500, 1500, 0).size());
+    assertEquals(0, store.query(2, 0, 3000, 0).size());
+
+    store.close();
+
+    try {
+      store.append(2000, 1, statistics(1));
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+  }
+
+  @Test public void testDownsampling() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(getDirectory(), m_factory, 0, 3);
+
+    for (int i = 0; i < 10; ++i) {
+      store.append(1000 + i * 100, 1, statistics(i + 1));
+    }
+
+    final List<TimeSeriesStore.Sample> samples =
+      store.query(1, 1050, 2000, 400);
+
+    // Buckets start at 1050, 1450, 1850.
+    assertEquals(3, samples.size());
+    assertEquals(1050, samples.get(0).getTime());
+    assertEquals(2 + 3 + 4 + 5, value(samples.get(0)));
+    assertEquals(1450, samples.get(1).getTime());
+    assertEquals(6 + 7 + 8 + 9, value(samples.get(1)));
+    assertEquals(1850, samples.get(2).getTime());
+    assertEquals(10, value(samples.get(2)));
+
+    store.close();
+  }
+
+  @Test public void testOutOfOrderSamples() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(getDirectory(), m_factory, 0);
+
+    assertTrue(store.append(10, 1, statistics(1)));
+    assertTrue(store.append(10, 1, statistics(2)));
+    assertFalse(store.append(9, 1, statistics(3)));
+    assertTrue(store.append(9, 2, statistics(4)));
+    assertTrue(store.append(11, 1, statistics(5)));
+
+    final List<TimeSeriesStore.Sample> samples =
+      store.query(1, 0, Long.MAX_VALUE, 0);
+    assertEquals(3, samples.size());
+    assertEquals(1, value(samples.get(0)));
+    assertEquals(2, value(samples.get(1)));
+    assertEquals(5, value(samples.get(2)));
+
+    store.close();
+  }
+
+  @Test public void testHistograms() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(getDirectory(), m_factory, 0, 2);
+
+    final List<StatisticsSet> expected = new ArrayList<StatisticsSet>();
+
+    for (int i = 0; i < 5; ++i) {
+      final StatisticsSet statistics = statistics(i);
+
+      for (int j = 0; j < i * 10; ++j) {
+        statistics.addSample(m_timedTests, 100 * j);
+      }
+
+      store.append(i, 1, statistics);
+      expected.add(statistics);
+    }
+
+    final List<TimeSeriesStore.Sample> samples =
+      store.query(1, 0, Long.MAX_VALUE, 0);
+    assertEquals(5, samples.size());
+
+    for (int i = 0; i < 5; ++i) {
+      assertEquals(expected.get(i), samples.get(i).getStatistics());
+    }
+
+    final List<TimeSeriesStore.Sample> downsampled =
+      store.query(1, 1, Long.MAX_VALUE, 2);
+    assertEquals(2, downsampled.size());
+
+    final StatisticsSet sum = m_factory.create();
+    sum.add(expected.get(1));
+    sum.add(expected.get(2));
+    assertEquals(sum, downsampled.get(0).getStatistics());
+
+    store.close();
+
+    final TimeSeriesStore reopened =
+      new TimeSeriesStore(getDirectory(), m_factory, 0);
+
+    assertEquals(expected.get(4),
+                 reopened.query(1, 4, 5, 0).get(0).getStatistics());
+
+    reopened.close();
+  }
+
+  @Test public void testSegmentsAndReopen() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(getDirectory(), m_factory, 0, 4);
+
+    for (int i = 0; i < 11; ++i) {
+      store.append(i, 7, statistics(i));
+    }
+
+    // Full segments are read from disk.
+    final List<TimeSeriesStore.Sample> before = store.query(7, 0, 100, 0);
+    assertEquals(11, before.size());
+    assertEquals(2, value(before.get(2)));
+
+    store.close();
+
+    final File testDirectory = new File(getDirectory(), "test-7");
+
+    // Segment and histogram files.
+    assertEquals(6, testDirectory.listFiles().length);
+
+    final TimeSeriesStore reopened =
+      new TimeSeriesStore(getDirectory(), m_factory, 0);
+
+    assertEquals(Arrays.asList(7),
+                 new ArrayList<Integer>(reopened.getTestNumbers()));
+    assertEquals(11, reopened.getNumberOfSamples(7));
+
+    final List<TimeSeriesStore.Sample> samples = reopened.query(7, 3, 100, 0);
+    assertEquals(8, samples.size());
+    assertEquals(3, samples.get(0).getTime());
+    assertEquals(10, samples.get(7).getTime());
+    assertEquals(10, value(samples.get(7)));
+
+    assertFalse(reopened.append(9, 7, statistics(0)));
+
+    // Existing segments retain their capacity.
+    reopened.append(20, 7, statistics(20));
+    assertEquals(6, testDirectory.listFiles().length);
+    reopened.append(21, 7, statistics(21));
+    assertEquals(8, testDirectory.listFiles().length);
+
+    assertEquals(21, value(reopened.query(7, 21, 22, 0).get(0)));
+    assertEquals(20, value(reopened.query(7, 20, 21, 0).get(0)));
+
+    reopened.close();
+  }
+
+  @Test public void testRetention() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(getDirectory(), m_factory, 6, 4);
+
+    for (int i = 0; i < 10; ++i) {
+      store.append(i, 1, statistics(i));
+    }
+
+    // The first segment is discarded once the others hold six samples.
+    assertEquals(6, store.getNumberOfSamples(1));
+
+    store.append(10, 1, statistics(10));
+    store.append(11, 1, statistics(11));
+    store.append(12, 1, statistics(12));
+
+    // A whole segment is discarded at a time.
+    assertEquals(9, store.getNumberOfSamples(1));
+
+    final List<TimeSeriesStore.Sample> samples =
+      store.query(1, 0, Long.MAX_VALUE, 0);
+    assertEquals(9, samples.size());
+    assertEquals(4, samples.get(0).getTime());
+    assertEquals(12, samples.get(8).getTime());
+
+    final File testDirectory = new File(getDirectory(), "test-1");
+    assertEquals(6, testDirectory.listFiles().length);
+
+    store.close();
+
+    final TimeSeriesStore reopened =
+      new TimeSeriesStore(getDirectory(), m_factory, 5, 4);
+
+    assertEquals(5, reopened.getNumberOfSamples(1));
+    assertEquals(8, reopened.query(1, 0, Long.MAX_VALUE, 0).get(0).getTime());
+    assertEquals(4, testDirectory.listFiles().length);
+
+    reopened.close();
+  }
+
+  @Test public void testBadSegment() throws Exception {
+    final TimeSeriesStore store =
+      new TimeSeriesStore(getDirectory(), m_factory, 0);
+    store.append(0, 1, statistics(1));
+    store.close();
+
+    final File segment = new File(getDirectory(), "test-1/segment-00000000");
+
+    final RandomAccessFile file = new RandomAccessFile(segment, "rw");
+
+    try {
+      file.seek(4);
+      file.writeInt(m_factory.getNumberOfRawValues() + 3);
+    }
+    finally {
+      file.close();
+    }
+
+    try {
+      new TimeSeriesStore(getDirectory(), m_factory, 0);
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+      assertTrue(e.getMessage().contains("columns"));
+    }
+
+    final File junk = new File(getDirectory(), "test-2/segment-00000000");
+    junk.getParentFile().mkdir();
+    junk.createNewFile();
+    segment.delete();
+
+    try {
+      new TimeSeriesStore(getDirectory(), m_factory, 0);
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2008 - 2011 Philip Aston
+// Copyright (C) 2008 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,16 +21,23 @@
 
 package net.grinder.console.synchronisation;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
-import static org.mockito.Mockito.when;
+
+import java.util.HashSet;
+
+import net.grinder.common.processidentity.ProcessIdentity;
+import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.communication.Message;
-import net.grinder.communication.MessageDispatchRegistry;
 import net.grinder.console.communication.ConsoleCommunication;
-import net.grinder.synchronisation.BarrierGroup;
-import net.grinder.synchronisation.messages.BarrierIdentity;
+import net.grinder.engine.agent.StubAgentIdentity;
+import net.grinder.messages.console.AgentAddress;
+import net.grinder.messages.console.WorkerAddress;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
 import net.grinder.synchronisation.messages.OpenBarrierMessage;
 
 import org.junit.Before;
@@ -48,32 +55,192 @@ import org.mockito.MockitoAnnotations;
  */
 public class TestConsoleBarrierGroups {
 
-  @Mock private MessageDispatchRegistry m_messageDispatchRegistry;
   @Mock private ConsoleCommunication m_consoleCommunication;
 
   @Captor private ArgumentCaptor<Message> m_messageCaptor;
 
+  private final StubAgentIdentity m_agent = new StubAgentIdentity("agent");
+  private final WorkerIdentity m_worker1 = m_agent.createWorkerIdentity();
+  private final WorkerIdentity m_worker2 = m_agent.createWorkerIdentity();
+
+  private ConsoleBarrierGroups m_barrierGroups;
+
   @Before public void setUp() {
     MockitoAnnotations.initMocks(this);
 
-    when(m_consoleCommunication.getMessageDispatchRegistry())
-      .thenReturn(m_messageDispatchRegistry);
+    m_barrierGroups = new ConsoleBarrierGroups(m_consoleCommunication);
+  }
+
+  private void update(ProcessIdentity process,
+                      long barriers,
+                      long waiters,
+                      long lastWaiter,
+                      long released) throws Exception {
+
+    final BarrierStateMessage message =
+      new BarrierStateMessage("foo",
+                              barriers,
+                              waiters,
+                              lastWaiter,
+                              released,
+                              lastWaiter * 10);
+
+    if (process instanceof WorkerIdentity) {
+      message.setAddress(new WorkerAddress((WorkerIdentity) process));
+    }
+    else {
+      message.setAddress(new AgentAddress((StubAgentIdentity) process));
+    }
+
+
+    m_barrierGroups.update(message);
+  }
+
+  private OpenBarrierMessage lastOpen(int expectedCount) {
+    verify(m_consoleCommunication, times(expectedCount))
+      .sendToAgents(m_messageCaptor.capture());
+
+    return (OpenBarrierMessage)m_messageCaptor.getValue();
   }
 
   @Test public void testConsoleBarrierGroups() throws Exception {
 
-    final ConsoleBarrierGroups barrierGroups =
-      new ConsoleBarrierGroups(m_consoleCommunication);
+    update(m_worker1, 1, 0, 0, 0);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_worker1, 1, 1, 1, 0);
+
+    final OpenBarrierMessage open = lastOpen(1);
+    assertEquals("foo", open.getName());
+    assertEquals(1, open.getReleased(m_worker1));
+    assertEquals(m_worker1, open.getLastArrival());
+    assertEquals(10, open.getLastArrivalTime());
+  }
+
+  @Test public void testMultipleWorkers() throws Exception {
+
+    update(m_worker2, 1, 0, 0, 0);
+    update(m_worker1, 2, 2, 2, 0);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_worker2, 1, 1, 1, 0);
+
+    final OpenBarrierMessage open = lastOpen(1);
+    assertEquals(2, open.getReleased(m_worker1));
+    assertEquals(1, open.getReleased(m_worker2));
+    assertEquals(m_worker2, open.getLastArrival());
+
+    // Worker 2 removes its barrier.
+    update(m_worker2, 0, 0, 1, 1);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    // Worker 1 has released its waiters, and has new ones.
+    update(m_worker1, 2, 2, 4, 2);
+
+    assertEquals(4, lastOpen(2).getReleased(m_worker1));
+  }
+
+  @Test public void testStaleReports() throws Exception {
+
+    update(m_worker1, 2, 1, 1, 0);
+    update(m_worker2, 1, 1, 1, 0);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_worker1, 2, 2, 2, 0);
+    lastOpen(1);
+
+    // Reports sent before worker 2 saw the open message. Its waiter
+    // has already been counted, so these must not open the barrier.
+    update(m_worker1, 2, 1, 3, 2);
+    update(m_worker2, 1, 1, 1, 0);
+    update(m_worker1, 2, 2, 4, 2);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_worker2, 1, 0, 1, 1);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_worker2, 1, 1, 2, 1);
+
+    final OpenBarrierMessage open = lastOpen(2);
+    assertEquals(4, open.getReleased(m_worker1));
+    assertEquals(2, open.getReleased(m_worker2));
+  }
+
+  @Test public void testAgentReports() throws Exception {
+
+    // The agent reports the totals for its workers, numbering its reports.
+    update(m_agent, 3, 1, 1, 0);
+    update(m_worker1, 1, 0, 0, 0);
+    update(m_agent, 3, 2, 2, 0);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_worker1, 1, 1, 1, 0);
+    update(m_agent, 3, 3, 3, 0);
+
+    final OpenBarrierMessage open = lastOpen(1);
+    assertEquals(3, open.getReleased(m_agent));
+    assertEquals(1, open.getReleased(m_worker1));
+    assertEquals(m_agent, open.getLastArrival());
+    assertEquals(30, open.getLastArrivalTime());
+
+    // Sent before the agent saw the open message.
+    update(m_agent, 3, 3, 4, 0);
+    update(m_worker1, 1, 1, 2, 1);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_agent, 3, 2, 5, 3);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_agent, 3, 3, 6, 3);
+    assertEquals(6, lastOpen(2).getReleased(m_agent));
+  }
+
+  @Test public void testRetainProcesses() throws Exception {
+
+    update(m_worker2, 2, 1, 1, 0);
+    update(m_worker1, 1, 1, 1, 0);
+    m_barrierGroups.retainProcesses(
+      new HashSet<ProcessIdentity>(asList(m_worker1, m_worker2)));
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    m_barrierGroups.retainProcesses(
+      singleton((ProcessIdentity) m_worker2));
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    update(m_worker2, 1, 1, 1, 0);
+
+    final OpenBarrierMessage open = lastOpen(1);
+    assertEquals(0, open.getReleased(m_worker1));
+    assertEquals(1, open.getReleased(m_worker2));
 
-    final BarrierGroup bg = barrierGroups.createBarrierGroup("foo");
+    update(m_worker1, 1, 1, 1, 0);
+    update(m_worker2, 2, 1, 2, 1);
+    verifyNoMoreInteractions(m_consoleCommunication);
+
+    m_barrierGroups.retainProcesses(singleton((ProcessIdentity) m_worker1));
+
+    assertEquals(1, lastOpen(2).getReleased(m_worker1));
+  }
+
+  @Test public void testBarrierReportBeforeProcessReport() throws Exception {
+
+    // The console hears of worker 1's barrier before it hears that worker 1
+    // has started.
+    update(m_worker2, 2, 1, 1, 0);
+    update(m_worker1, 1, 1, 1, 0);
+
+    m_barrierGroups.retainProcesses(singleton((ProcessIdentity) m_worker2));
+    verifyNoMoreInteractions(m_consoleCommunication);
 
-    bg.addBarrier();
+    m_barrierGroups.retainProcesses(
+      new HashSet<ProcessIdentity>(asList(m_worker1, m_worker2)));
     verifyNoMoreInteractions(m_consoleCommunication);
 
-    bg.addWaiter(mock(BarrierIdentity.class));
-    verify(m_consoleCommunication).sendToAgents(m_messageCaptor.capture());
+    update(m_worker2, 2, 2, 2, 0);
 
-    assertEquals("foo",
-                 ((OpenBarrierMessage)m_messageCaptor.getValue()).getName());
+    // Worker 1's waiter was still counted.
+    final OpenBarrierMessage open = lastOpen(1);
+    assertEquals(1, open.getReleased(m_worker1));
+    assertEquals(2, open.getReleased(m_worker2));
   }
 }
@@ -209,7 +209,10 @@ public class TestDistributedBarriers {
                             workerAddress);
 
       m_barrierGroups =
-        new ClientBarrierGroups(workerSender, m_messageDispatcher);
+        new ClientBarrierGroups(workerSender,
+                                m_messageDispatcher,
+                                workerAddress.getIdentity(),
+                                new StandardTimeAuthority());
 
       m_identityFactory =
         new BarrierIdentityGenerator(workerAddress.getIdentity());
@@ -21,21 +21,19 @@
 
 package net.grinder.console.synchronisation;
 
-import static org.junit.Assert.assertSame;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.doThrow;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import net.grinder.common.processidentity.ProcessReport;
 import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.common.processidentity.WorkerProcessReport;
-import net.grinder.communication.CommunicationException;
 import net.grinder.communication.Message;
 import net.grinder.communication.MessageDispatchRegistry;
 import net.grinder.communication.MessageDispatchRegistry.Handler;
+import net.grinder.console.common.processidentity.StubAgentProcessReport;
 import net.grinder.console.common.processidentity.StubWorkerProcessReport;
 import net.grinder.console.communication.ConsoleCommunication;
 import net.grinder.console.communication.ProcessControl;
@@ -43,14 +41,10 @@ import net.grinder.console.communication.StubProcessReports;
 import net.grinder.console.communication.ProcessControl.Listener;
 import net.grinder.console.communication.ProcessControl.ProcessReports;
 import net.grinder.engine.agent.StubAgentIdentity;
+import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.WorkerAddress;
-import net.grinder.synchronisation.BarrierGroup;
-import net.grinder.synchronisation.BarrierGroups;
-import net.grinder.synchronisation.messages.AddBarrierMessage;
-import net.grinder.synchronisation.messages.AddWaiterMessage;
-import net.grinder.synchronisation.messages.BarrierIdentity;
-import net.grinder.synchronisation.messages.CancelWaiterMessage;
-import net.grinder.synchronisation.messages.RemoveBarriersMessage;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
+import net.grinder.synchronisation.messages.OpenBarrierMessage;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -70,11 +64,16 @@ public class TestWireDistributedBarriers {
   @Mock private MessageDispatchRegistry m_messageDispatchRegistry;
   @Mock private ConsoleCommunication m_consoleCommunication;
   @Mock private ProcessControl m_processControl;
-  @Mock private BarrierGroups m_barrierGroups;
-  @Mock private BarrierIdentity m_barrierIdentity;
 
   @Captor private ArgumentCaptor<Handler<Message>> m_handlerCaptor;
   @Captor private ArgumentCaptor<Listener> m_processStatusListenerCaptor;
+  @Captor private ArgumentCaptor<Message> m_messageCaptor;
+
+  private final StubAgentIdentity m_agent = new StubAgentIdentity("agent");
+  private final WorkerIdentity m_worker1 = m_agent.createWorkerIdentity();
+  private final WorkerIdentity m_worker2 = m_agent.createWorkerIdentity();
+
+  private final StubAgentIdentity m_agent2 = new StubAgentIdentity("agent2");
 
   @Before public void setUp() {
     MockitoAnnotations.initMocks(this);
@@ -83,161 +82,130 @@ public class TestWireDistributedBarriers {
       .thenReturn(m_messageDispatchRegistry);
   }
 
-  @Test public void testBarrierMessageHandlers() throws Exception {
+  private BarrierStateMessage state(WorkerIdentity worker,
+                                    String name,
+                                    long barriers,
+                                    long waiters,
+                                    long lastWaiter)
+    throws Exception {
+
+    final BarrierStateMessage result =
+      new BarrierStateMessage(name, barriers, waiters, lastWaiter, 0, 99);
+    result.setAddress(new WorkerAddress(worker));
+    return result;
+  }
 
-    final BarrierGroup barrierGroup = mock(BarrierGroup.class);
+  private BarrierStateMessage agentState(StubAgentIdentity agent,
+                                         String name,
+                                         long barriers,
+                                         long waiters,
+                                         long lastReport)
+    throws Exception {
+
+    final BarrierStateMessage result =
+      new BarrierStateMessage(name, barriers, waiters, lastReport, 0, 99);
+    result.setAddress(new AgentAddress(agent));
+    return result;
+  }
 
-    when(m_barrierGroups.getGroup("hello")).thenReturn(barrierGroup);
+  @Test public void testBarrierMessageHandlers() throws Exception {
 
     new WireDistributedBarriers(m_consoleCommunication,
                                 m_processControl,
-                                m_barrierGroups);
+                                new ConsoleBarrierGroups(
+                                  m_consoleCommunication));
 
-    // Add barrier.
-    verify(m_messageDispatchRegistry).set(eq(AddBarrierMessage.class),
+    verify(m_messageDispatchRegistry).set(eq(BarrierStateMessage.class),
                                           m_handlerCaptor.capture());
 
-    m_handlerCaptor.getValue().handle(new AddBarrierMessage("hello"));
+    final Handler<Message> stateHandler = m_handlerCaptor.getValue();
 
-    verify(barrierGroup).addBarrier();
+    stateHandler.handle(state(m_worker1, "hello", 2, 1, 1));
+    stateHandler.handle(agentState(m_agent2, "hello", 3, 3, 1));
 
-    // Add waiter.
-    verify(m_messageDispatchRegistry).set(eq(AddWaiterMessage.class),
-                                          m_handlerCaptor.capture());
+    verify(m_consoleCommunication).getMessageDispatchRegistry();
+    verifyNoMoreInteractions(m_consoleCommunication);
 
-    m_handlerCaptor.getValue().handle(new AddWaiterMessage("hello",
-                                                           m_barrierIdentity));
-    verify(barrierGroup).addWaiter(m_barrierIdentity);
+    stateHandler.handle(state(m_worker1, "hello", 2, 2, 2));
 
-    // Cancel waiter.
-    verify(m_messageDispatchRegistry).set(eq(CancelWaiterMessage.class),
-                                          m_handlerCaptor.capture());
-
-    m_handlerCaptor.getValue().handle(
-      new CancelWaiterMessage("hello", m_barrierIdentity));
-
-    verify(barrierGroup).cancelWaiter(m_barrierIdentity);
+    verify(m_consoleCommunication).sendToAgents(m_messageCaptor.capture());
 
-    // Remove barriers.
-    verify(m_messageDispatchRegistry).set(eq(RemoveBarriersMessage.class),
-                                          m_handlerCaptor.capture());
-
-    m_handlerCaptor.getValue().handle(new RemoveBarriersMessage("hello", 1));
+    final OpenBarrierMessage open =
+      (OpenBarrierMessage) m_messageCaptor.getValue();
 
-    verify(barrierGroup).removeBarriers(1);
+    assertEquals("hello", open.getName());
+    assertEquals(2, open.getReleased(m_worker1));
+    assertEquals(1, open.getReleased(m_agent2));
+    assertEquals(m_worker1, open.getLastArrival());
+    assertEquals(99, open.getLastArrivalTime());
   }
 
   @Test public void testBarriersCleanUp() throws Exception {
-    final BarrierGroup group1 = mock(BarrierGroup.class);
-    final BarrierGroup group2 = mock(BarrierGroup.class);
-
-    when(m_barrierGroups.getGroup("g1")).thenReturn(group1);
-    when(m_barrierGroups.getGroup("g2")).thenReturn(group2);
 
     new WireDistributedBarriers(m_consoleCommunication,
                                 m_processControl,
-                                m_barrierGroups);
+                                new ConsoleBarrierGroups(
+                                  m_consoleCommunication));
 
-    verify(m_messageDispatchRegistry).set(eq(AddBarrierMessage.class),
+    verify(m_messageDispatchRegistry).set(eq(BarrierStateMessage.class),
                                           m_handlerCaptor.capture());
 
-    final Handler<Message> addBarrierHandler = m_handlerCaptor.getValue();
+    final Handler<Message> stateHandler = m_handlerCaptor.getValue();
 
-    verify(m_messageDispatchRegistry).set(eq(AddWaiterMessage.class),
-                                          m_handlerCaptor.capture());
-
-    final Handler<Message> addWaiterHandler = m_handlerCaptor.getValue();
-
-
-    // Create a couple of barrier groups.
-    final StubAgentIdentity agent = new StubAgentIdentity("agent");
-    final WorkerIdentity worker1 = agent.createWorkerIdentity();
-    final WorkerIdentity worker2 = agent.createWorkerIdentity();
-
-    final AddBarrierMessage message1 = new AddBarrierMessage("g1");
-    message1.setAddress(new WorkerAddress(worker1));
-    addBarrierHandler.handle(message1);
-    addBarrierHandler.handle(message1);
-
-    final AddBarrierMessage message2 = new AddBarrierMessage("g2");
-    message2.setAddress(new WorkerAddress(worker2));
-    addBarrierHandler.handle(message2);
-
-    final AddBarrierMessage message3 = new AddBarrierMessage("g1");
-    message3.setAddress(new WorkerAddress(worker2));
-    addBarrierHandler.handle(message3);
-
-    final AddWaiterMessage message4 = new AddWaiterMessage("g1",
-                                                           m_barrierIdentity);
-    message4.setAddress(new WorkerAddress(worker2));
-    addWaiterHandler.handle(message4);
-
-    verify(group1, times(3)).addBarrier();
-    verify(group1).addWaiter(m_barrierIdentity);
-
-    verify(group2).addBarrier();
+    stateHandler.handle(state(m_worker1, "g1", 2, 0, 0));
+    stateHandler.handle(state(m_worker2, "g2", 1, 0, 0));
+    stateHandler.handle(state(m_worker2, "g1", 1, 1, 1));
+    stateHandler.handle(agentState(m_agent2, "g2", 1, 0, 1));
+    stateHandler.handle(agentState(m_agent2, "g1", 1, 1, 1));
 
     verify(m_processControl).addProcessStatusListener(
       m_processStatusListenerCaptor.capture());
 
     final Listener listener = m_processStatusListenerCaptor.getValue();
 
-    // Worker 1 has gone away.
+    final ProcessReports agent2Reports =
+      new StubProcessReports(
+        new StubAgentProcessReport(m_agent2, ProcessReport.State.RUNNING),
+        new WorkerProcessReport[0]);
+
     listener.update(new ProcessReports[] {
-      new StubProcessReports(null,
+      new StubProcessReports(
+        new StubAgentProcessReport(m_agent, ProcessReport.State.RUNNING),
         new WorkerProcessReport[] {
-          new StubWorkerProcessReport(worker2,
+          new StubWorkerProcessReport(m_worker1,
+                                      ProcessReport.State.RUNNING, 1, 1),
+          new StubWorkerProcessReport(m_worker2,
                                       ProcessReport.State.RUNNING, 1, 1)
         }),
+      agent2Reports,
     });
 
-    verify(group1).removeBarriers(2);
-
-    // All workers have gone away.
-    listener.update(new ProcessReports[0]);
-
-    verify(group1).cancelWaiter(m_barrierIdentity);
-    verify(group1).removeBarriers(1);
-
-    verify(group2).removeBarriers(1);
-  }
-
-  @Test public void testBarriersCleanUpAssertion() throws Exception {
-
-    final CommunicationException exception = new CommunicationException("");
-
-    final BarrierGroup group1 = mock(BarrierGroup.class);
-    doThrow(exception).when(group1).removeBarriers(1);
-
-    when(m_barrierGroups.getGroup("g1")).thenReturn(group1);
-
-    new WireDistributedBarriers(m_consoleCommunication,
-                                m_processControl,
-                                m_barrierGroups);
-
-    verify(m_messageDispatchRegistry).set(eq(AddBarrierMessage.class),
-                                          m_handlerCaptor.capture());
-
-    final Handler<Message> addBarrierHandler = m_handlerCaptor.getValue();
-
-    verify(m_messageDispatchRegistry).set(eq(AddWaiterMessage.class),
-                                          m_handlerCaptor.capture());
+    // Worker 1 has gone away.
+    listener.update(new ProcessReports[] {
+      new StubProcessReports(
+        new StubAgentProcessReport(m_agent, ProcessReport.State.RUNNING),
+        new WorkerProcessReport[] {
+          new StubWorkerProcessReport(m_worker2,
+                                      ProcessReport.State.RUNNING, 1, 1)
+        }),
+      agent2Reports,
+    });
 
+    verify(m_consoleCommunication).sendToAgents(m_messageCaptor.capture());
 
-    final AddBarrierMessage message1 = new AddBarrierMessage("g1");
-    addBarrierHandler.handle(message1);
+    final OpenBarrierMessage open =
+      (OpenBarrierMessage) m_messageCaptor.getValue();
 
-    verify(m_processControl)
-      .addProcessStatusListener(m_processStatusListenerCaptor.capture());
+    assertEquals("g1", open.getName());
+    assertEquals(0, open.getReleased(m_worker1));
+    assertEquals(1, open.getReleased(m_worker2));
+    assertEquals(1, open.getReleased(m_agent2));
+    assertNull(open.getLastArrival());
 
-    final Listener listener = m_processStatusListenerCaptor.getValue();
+    // All workers have gone away.
+    listener.update(new ProcessReports[0]);
 
-    try {
-      listener.update(new ProcessReports[0]);
-      fail("Expected AssertionError");
-    }
-    catch (AssertionError e) {
-      assertSame(exception, e.getCause());
-    }
+    verify(m_consoleCommunication).getMessageDispatchRegistry();
+    verifyNoMoreInteractions(m_consoleCommunication);
   }
 }
@@ -21,10 +21,8 @@
 
 package net.grinder.engine.agent;
 
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-
 import net.grinder.communication.StreamReceiver;
+import net.grinder.communication.WireFormat;
 import net.grinder.engine.messages.InitialiseGrinderMessage;
 
 
@@ -44,8 +42,7 @@ public class ReadMessageEchoClass {
       (InitialiseGrinderMessage)receiver.waitForMessage();
 
     // Echo the initialisation message, followed by the arguments.
-    final ObjectOutput objectOutput = new ObjectOutputStream(System.out);
-    objectOutput.writeObject(message);
+    WireFormat.write(message, System.out);
 
     for (int i=0; i<arguments.length; ++i) {
       System.out.print(arguments[i]);
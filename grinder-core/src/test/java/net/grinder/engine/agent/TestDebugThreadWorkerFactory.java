@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2011 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -72,6 +72,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
       new DebugThreadWorkerFactory(m_agentIdentity,
                                    m_fanOutStreamSender,
                                    false,
+                                   0,
                                    new ScriptLocation(new File("missing.py")),
                                    m_properties);
 
@@ -101,6 +102,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
         new DebugThreadWorkerFactory(m_agentIdentity,
                                      m_fanOutStreamSender,
                                      false,
+                                     0,
                                      new ScriptLocation(new File(".")),
                                      m_properties);
 
@@ -125,6 +127,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
         new DebugThreadWorkerFactory(m_agentIdentity,
                                      m_fanOutStreamSender,
                                      false,
+                                     0,
                                      new ScriptLocation(new File(".")),
                                      m_properties);
 
@@ -149,6 +152,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
         new DebugThreadWorkerFactory(m_agentIdentity,
                                      m_fanOutStreamSender,
                                      false,
+                                     0,
                                      new ScriptLocation(new File(".")),
                                      m_properties);
 
@@ -172,6 +176,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
         new DebugThreadWorkerFactory(m_agentIdentity,
                                      m_fanOutStreamSender,
                                      false,
+                                     0,
                                      new ScriptLocation(new File(".")),
                                      m_properties);
 
@@ -196,6 +201,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
         new DebugThreadWorkerFactory(m_agentIdentity,
                                      m_fanOutStreamSender,
                                      false,
+                                     0,
                                      new ScriptLocation(new File(".")),
                                      m_properties);
 
@@ -240,6 +246,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
         new DebugThreadWorkerFactory(m_agentIdentity,
                                      m_fanOutStreamSender,
                                      false,
+                                     0,
                                      new ScriptLocation(new File(".")),
                                      m_properties);
 
@@ -290,6 +297,7 @@ public class TestDebugThreadWorkerFactory extends AbstractJUnit4FileTestCase {
         new DebugThreadWorkerFactory(m_agentIdentity,
                                      m_fanOutStreamSender,
                                      false,
+                                     0,
                                      new ScriptLocation(new File(".")),
                                      m_properties);
 
@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2011 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,6 +21,7 @@
 
 package net.grinder.engine.agent;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -29,11 +30,14 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.util.Random;
@@ -44,13 +48,16 @@ import net.grinder.communication.MessageDispatchSender;
 import net.grinder.communication.SimpleMessage;
 import net.grinder.messages.agent.CacheHighWaterMark;
 import net.grinder.messages.agent.ClearCacheMessage;
+import net.grinder.messages.agent.DistributeFileChunkMessage;
 import net.grinder.messages.agent.DistributeFileMessage;
 import net.grinder.messages.agent.DistributionCacheCheckpointMessage;
 import net.grinder.messages.agent.StubCacheHighWaterMark;
 import net.grinder.testutility.AbstractJUnit4FileTestCase;
 import net.grinder.testutility.FileUtilities;
 import net.grinder.util.Directory;
+import net.grinder.util.FileChunk;
 import net.grinder.util.FileContents;
+import net.grinder.util.StreamCopier;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -194,8 +201,16 @@ public class TestFileStore extends AbstractJUnit4FileTestCase {
     assertTrue(incomingDirectoryFile.exists());
     assertTrue(!currentDirectoryFile.exists());
 
+    // The file is created when the data arrives.
     final File targetFile = new File(incomingDirectoryFile, "dir/file0");
+    assertFalse(targetFile.exists());
+
+    messageDispatcher.send(
+      new DistributeFileChunkMessage(
+        FileChunk.read(sourceDirectory, fileContents0, 0)));
+
     assertTrue(targetFile.canRead());
+    assertArrayEquals(bytes, fileBytes(targetFile));
 
     assertEquals(currentDirectoryFile, fileStore.getDirectory().getFile());
 
@@ -220,7 +235,8 @@ public class TestFileStore extends AbstractJUnit4FileTestCase {
     assertTrue(currentDirectoryFile.delete());
     fileStore.getDirectory();
 
-    // Test with a bad message.
+    // Test with a bad message. We already have the data, so the file is
+    // replaced immediately.
     assertTrue(targetFile.setReadOnly());
 
     try {
@@ -292,4 +308,129 @@ public class TestFileStore extends AbstractJUnit4FileTestCase {
 
     assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
   }
+
+  @Test public void testIncrementalUpdate() throws Exception {
+    final Logger logger = mock(Logger.class);
+    final FileStore fileStore = new FileStore(getDirectory(), logger);
+    final MessageDispatchSender messageDispatcher = new MessageDispatchSender();
+    fileStore.registerMessageHandlers(messageDispatcher);
+
+    final File sourceDirectory = new File(getDirectory(), "source");
+    final File targetFile = new File(getDirectory(), "incoming/file");
+
+    final byte[] chunk0 = new byte[FileContents.CHUNK_SIZE];
+    final byte[] chunk1 = new byte[FileContents.CHUNK_SIZE];
+    final byte[] chunk2 = new byte[100];
+    s_random.nextBytes(chunk0);
+    s_random.nextBytes(chunk1);
+    s_random.nextBytes(chunk2);
+
+    final FileContents contents1 =
+      createFile(sourceDirectory, "file", chunk0, chunk1);
+
+    messageDispatcher.send(new DistributeFileMessage(contents1));
+    messageDispatcher.send(
+      new DistributeFileChunkMessage(
+        FileChunk.read(sourceDirectory, contents1, 0)));
+    assertFalse(targetFile.exists());
+    messageDispatcher.send(
+      new DistributeFileChunkMessage(
+        FileChunk.read(sourceDirectory, contents1, 1)));
+
+    assertArrayEquals(fileBytes(new File(sourceDirectory, "file")),
+                      fileBytes(targetFile));
+
+    // Reorder the chunks, and add another. We only need to send the new one.
+    final FileContents contents2 =
+      createFile(sourceDirectory, "file", chunk1, chunk0, chunk1, chunk2);
+
+    messageDispatcher.send(new DistributeFileMessage(contents2));
+    messageDispatcher.send(
+      new DistributeFileChunkMessage(
+        FileChunk.read(sourceDirectory, contents2, 3)));
+
+    assertArrayEquals(fileBytes(new File(sourceDirectory, "file")),
+                      fileBytes(targetFile));
+
+    // Unexpected chunks are ignored.
+    messageDispatcher.send(
+      new DistributeFileChunkMessage(
+        FileChunk.read(sourceDirectory, contents2, 0)));
+
+    verify(logger).warn(contains("unexpected"), isA(FileChunk.class));
+    verify(logger, never()).error(isA(String.class));
+
+    final CacheHighWaterMark cacheHighWaterMark =
+      new StubCacheHighWaterMark("", 123);
+
+    messageDispatcher.send(
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark));
+
+    assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+  }
+
+  @Test public void testIncompleteFile() throws Exception {
+    final Logger logger = mock(Logger.class);
+    final FileStore fileStore = new FileStore(getDirectory(), logger);
+    final MessageDispatchSender messageDispatcher = new MessageDispatchSender();
+    fileStore.registerMessageHandlers(messageDispatcher);
+
+    final File sourceDirectory = new File(getDirectory(), "source");
+
+    final byte[] chunk = new byte[100];
+    s_random.nextBytes(chunk);
+
+    final FileContents contents = createFile(sourceDirectory, "file", chunk);
+
+    messageDispatcher.send(new DistributeFileMessage(contents));
+
+    final CacheHighWaterMark cacheHighWaterMark =
+      new StubCacheHighWaterMark("", 123);
+
+    final Message checkpoint =
+      new DistributionCacheCheckpointMessage(cacheHighWaterMark);
+
+    try {
+      messageDispatcher.send(checkpoint);
+      fail("Expected CommunicationException");
+    }
+    catch (CommunicationException e) {
+    }
+
+    verify(logger).error(contains("Incomplete file"));
+    assertFalse(new File(getDirectory(), "incoming/file").exists());
+    assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+
+    // Further checkpoints are ignored until the cache is cleared.
+    messageDispatcher.send(checkpoint);
+    assertEquals(-1, fileStore.getCacheHighWaterMark().getTime());
+
+    messageDispatcher.send(new ClearCacheMessage());
+    messageDispatcher.send(checkpoint);
+    assertEquals(cacheHighWaterMark, fileStore.getCacheHighWaterMark());
+  }
+
+  private static FileContents createFile(File directory,
+                                         String name,
+                                         byte[]... chunks)
+    throws Exception {
+
+    directory.mkdirs();
+
+    final OutputStream out = new FileOutputStream(new File(directory, name));
+
+    for (byte[] chunk : chunks) {
+      out.write(chunk);
+    }
+
+    out.close();
+
+    return new FileContents(directory, new File(name));
+  }
+
+  private static byte[] fileBytes(File file) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new StreamCopier(4096, true).copy(new FileInputStream(file), out);
+    return out.toByteArray();
+  }
 }
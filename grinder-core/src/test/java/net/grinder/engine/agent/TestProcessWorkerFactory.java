@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2011 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -30,7 +30,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Properties;
@@ -38,6 +37,7 @@ import java.util.Properties;
 import net.grinder.common.GrinderProperties;
 import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.communication.FanOutStreamSender;
+import net.grinder.communication.WireFormat;
 import net.grinder.engine.agent.AgentIdentityImplementation.WorkerIdentityImplementation;
 import net.grinder.engine.common.EngineException;
 import net.grinder.engine.common.ScriptLocation;
@@ -88,6 +88,7 @@ public class TestProcessWorkerFactory {
                                agentIdentityImplementation,
                                fanOutStreamSender,
                                reportToConsole,
+                               0,
                                script,
                                grinderProperties);
 
@@ -105,10 +106,8 @@ public class TestProcessWorkerFactory {
 
     final InputStream output =
       new ByteArrayInputStream(outputStream.toByteArray());
-    final ObjectInputStream objectInputStream = new ObjectInputStream(output);
-
     final InitialiseGrinderMessage echoedInitialiseGrinderMessage =
-      (InitialiseGrinderMessage)objectInputStream.readObject();
+      (InitialiseGrinderMessage) WireFormat.read(output);
 
     assertEquals(reportToConsole,
                  echoedInitialiseGrinderMessage.getReportToConsole());
@@ -135,6 +134,7 @@ public class TestProcessWorkerFactory {
       new AbstractWorkerFactory(agentIdentityImplementation,
                                 null,
                                 false,
+                                0,
                                 new ScriptLocation(new File(".")),
                                 null) {
 
@@ -0,0 +1,227 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.engine.agent;
+
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.concurrent.Executor;
+
+import net.grinder.common.processidentity.ProcessIdentity;
+import net.grinder.common.processidentity.WorkerIdentity;
+import net.grinder.communication.Message;
+import net.grinder.communication.Sender;
+import net.grinder.messages.console.WorkerAddress;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
+import net.grinder.synchronisation.messages.OpenBarrierMessage;
+import net.grinder.util.TimeAuthority;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link WorkerBarrierAggregator}.
+ *
+ * @author Philip Aston
+ */
+public class TestWorkerBarrierAggregator {
+
+  @Mock private Sender m_consoleSender;
+  @Mock private TimeAuthority m_timeAuthority;
+  @Mock private Logger m_logger;
+
+  @Captor private ArgumentCaptor<Message> m_messageCaptor;
+
+  private final StubAgentIdentity m_agent = new StubAgentIdentity("agent");
+  private final WorkerIdentity m_worker1 = m_agent.createWorkerIdentity();
+  private final WorkerIdentity m_worker2 = m_agent.createWorkerIdentity();
+
+  private final Executor m_executor = new Executor() {
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+
+  private WorkerBarrierAggregator m_aggregator;
+
+  @Before public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    m_aggregator =
+      new WorkerBarrierAggregator(m_consoleSender,
+                                  m_agent,
+                                  m_executor,
+                                  m_timeAuthority,
+                                  m_logger);
+  }
+
+  private void add(WorkerIdentity worker,
+                   long barriers,
+                   long waiters,
+                   long lastWaiter,
+                   long released) throws Exception {
+
+    final BarrierStateMessage message =
+      new BarrierStateMessage("foo",
+                              barriers,
+                              waiters,
+                              lastWaiter,
+                              released,
+                              lastWaiter * 10);
+    message.setAddress(new WorkerAddress(worker));
+
+    m_aggregator.add(message);
+  }
+
+  private BarrierStateMessage lastReport(int expectedCount) throws Exception {
+    verify(m_consoleSender, times(expectedCount))
+      .send(m_messageCaptor.capture());
+
+    return (BarrierStateMessage) m_messageCaptor.getValue();
+  }
+
+  private OpenBarrierMessage consoleOpen(long released,
+                                         ProcessIdentity lastArrival) {
+    return new OpenBarrierMessage("foo",
+                                  singletonMap((ProcessIdentity) m_agent,
+                                               released),
+                                  lastArrival,
+                                  99);
+  }
+
+  @Test public void testCombinesWorkerReports() throws Exception {
+    add(m_worker1, 2, 1, 1, 0);
+
+    final BarrierStateMessage report1 = lastReport(1);
+    assertEquals("foo", report1.getName());
+    assertEquals(2, report1.getBarriers());
+    assertEquals(1, report1.getWaiters());
+    assertEquals(1, report1.getLastWaiter());
+    assertEquals(0, report1.getReleased());
+
+    add(m_worker2, 1, 1, 3, 0);
+
+    final BarrierStateMessage report2 = lastReport(2);
+    assertEquals(3, report2.getBarriers());
+    assertEquals(2, report2.getWaiters());
+    assertEquals(2, report2.getLastWaiter());
+
+    // Worker 1 discards its barriers.
+    add(m_worker1, 0, 0, 1, 0);
+
+    final BarrierStateMessage report3 = lastReport(3);
+    assertEquals(1, report3.getBarriers());
+    assertEquals(1, report3.getWaiters());
+    assertEquals(3, report3.getLastWaiter());
+  }
+
+  @Test public void testOpen() throws Exception {
+    add(m_worker1, 2, 1, 1, 0);
+    add(m_worker2, 1, 1, 3, 0);
+    add(m_worker1, 2, 2, 2, 0);
+
+    // The console releases the waiters counted in our second report.
+    final OpenBarrierMessage open =
+      m_aggregator.open(consoleOpen(2, m_agent));
+
+    assertEquals("foo", open.getName());
+    assertEquals(1, open.getReleased(m_worker1));
+    assertEquals(3, open.getReleased(m_worker2));
+    assertEquals(0, open.getReleased(m_agent));
+    assertEquals(m_worker2, open.getLastArrival());
+    assertEquals(30, open.getLastArrivalTime());
+
+    // The released waiters are no longer counted.
+    final BarrierStateMessage report4 = lastReport(4);
+    assertEquals(3, report4.getBarriers());
+    assertEquals(0, report4.getWaiters());
+    assertEquals(4, report4.getLastWaiter());
+    assertEquals(2, report4.getReleased());
+
+    // Sent before worker 1 saw the open message.
+    add(m_worker1, 2, 2, 3, 0);
+    assertEquals(0, lastReport(5).getWaiters());
+
+    add(m_worker1, 2, 1, 3, 1);
+    assertEquals(1, lastReport(6).getWaiters());
+
+    final OpenBarrierMessage open2 =
+      m_aggregator.open(consoleOpen(6, null));
+    assertEquals(3, open2.getReleased(m_worker1));
+    assertEquals(0, open2.getReleased(m_worker2));
+    assertNull(open2.getLastArrival());
+    assertEquals(0, lastReport(7).getWaiters());
+  }
+
+  @Test public void testOpenForOthers() throws Exception {
+    final OpenBarrierMessage noGroup = consoleOpen(1, m_agent);
+    assertSame(noGroup, m_aggregator.open(noGroup));
+
+    add(m_worker1, 2, 1, 1, 0);
+
+    final OpenBarrierMessage notUs =
+      new OpenBarrierMessage("foo",
+                             singletonMap((ProcessIdentity) m_worker2, 1L),
+                             m_worker2,
+                             0);
+    assertSame(notUs, m_aggregator.open(notUs));
+
+    m_aggregator.open(consoleOpen(1, null));
+
+    final OpenBarrierMessage again = consoleOpen(1, null);
+    assertSame(again, m_aggregator.open(again));
+
+    lastReport(2);
+  }
+
+  @Test public void testRemoveWorkers() throws Exception {
+    add(m_worker1, 2, 1, 1, 0);
+    add(m_worker2, 1, 0, 0, 0);
+
+    m_aggregator.removeWorker(m_worker1);
+
+    final BarrierStateMessage report3 = lastReport(3);
+    assertEquals(1, report3.getBarriers());
+    assertEquals(0, report3.getWaiters());
+
+    m_aggregator.removeWorker(m_worker1);
+    verifyNoMoreInteractions(m_consoleSender);
+
+    m_aggregator.removeAllWorkers();
+    assertEquals(0, lastReport(4).getBarriers());
+
+    m_aggregator.removeAllWorkers();
+    verifyNoMoreInteractions(m_consoleSender);
+  }
+}
@@ -0,0 +1,317 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.Executor;
+
+import net.grinder.common.StubTest;
+import net.grinder.common.processidentity.ProcessReport.State;
+import net.grinder.communication.ClientSender;
+import net.grinder.communication.ConnectionType;
+import net.grinder.communication.Connector;
+import net.grinder.communication.Message;
+import net.grinder.communication.Sender;
+import net.grinder.messages.console.RegisterTestsMessage;
+import net.grinder.messages.console.ReportStatisticsMessage;
+import net.grinder.messages.console.WorkerAddress;
+import net.grinder.messages.console.WorkerProcessReportMessage;
+import net.grinder.messages.console.WorkerProcessReportsMessage;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
+import net.grinder.testutility.RandomStubFactory;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link WorkerReportAggregator}.
+ *
+ * @author Philip Aston
+ */
+public class TestWorkerReportAggregator {
+
+  private final RandomStubFactory<Sender> m_consoleSenderStubFactory =
+    RandomStubFactory.create(Sender.class);
+
+  private final RandomStubFactory<Logger> m_loggerStubFactory =
+    RandomStubFactory.create(Logger.class);
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private final StatisticsSetFactory m_statisticsSetFactory =
+    m_statisticsServices.getStatisticsSetFactory();
+
+  private final StatisticsIndexMap.LongIndex m_errors =
+    m_statisticsServices.getStatisticsIndexMap().getLongIndex("errors");
+
+  private final StubAgentIdentity m_agentIdentity =
+    new StubAgentIdentity("agent");
+
+  private final Timer m_timer = new Timer(true);
+
+  private final Executor m_executor = new Executor() {
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+
+  @Before public void setUp() {
+    m_consoleSenderStubFactory.setIgnoreObjectMethods();
+  }
+
+  @After public void tearDown() {
+    m_timer.cancel();
+  }
+
+  private WorkerReportAggregator createAggregator(long reportInterval)
+    throws Exception {
+    return new WorkerReportAggregator(m_consoleSenderStubFactory.getStub(),
+                                      m_timer,
+                                      reportInterval,
+                                      m_statisticsSetFactory,
+                                      new StandardTimeAuthority(),
+                                      new WorkerBarrierAggregator(
+                                        m_consoleSenderStubFactory.getStub(),
+                                        m_agentIdentity,
+                                        m_executor,
+                                        new StandardTimeAuthority(),
+                                        m_loggerStubFactory.getStub()),
+                                      m_loggerStubFactory.getStub());
+  }
+
+  private ClientSender connectWorker(WorkerReportAggregator aggregator)
+    throws Exception {
+    return ClientSender.connect(
+      new Connector(WorkerReportAggregator.LOOPBACK_ADDRESS,
+                    aggregator.getPort(),
+                    ConnectionType.WORKER),
+      new WorkerAddress(m_agentIdentity.createWorkerIdentity()));
+  }
+
+  private TestStatisticsMap createReport(int testNumber, long errors) {
+    final StatisticsSet statistics = m_statisticsSetFactory.create();
+    statistics.setValue(m_errors, errors);
+
+    final TestStatisticsMap result =
+      new TestStatisticsMap(m_statisticsSetFactory);
+    result.put(new StubTest(testNumber, ""), statistics);
+
+    return result;
+  }
+
+  @Test public void testCombinesWorkerReports() throws Exception {
+    final WorkerReportAggregator aggregator = createAggregator(60000);
+
+    final ClientSender worker1 = connectWorker(aggregator);
+    final ClientSender worker2 = connectWorker(aggregator);
+
+    worker1.send(new ReportStatisticsMessage(createReport(1, 2)));
+    worker2.send(new ReportStatisticsMessage(createReport(1, 3)));
+    worker2.sendKeepAlive();
+    worker2.send(new ReportStatisticsMessage(createReport(2, 1)));
+
+    worker1.shutdown();
+    worker2.shutdown();
+
+    aggregator.shutdown();
+
+    final Message message =
+      (Message) m_consoleSenderStubFactory.assertSuccess(
+        "send", ReportStatisticsMessage.class).getParameters()[0];
+
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+
+    final TestStatisticsMap expected = createReport(1, 5);
+    expected.add(createReport(2, 1));
+
+    assertEquals(expected,
+                 ((ReportStatisticsMessage) message).getStatisticsDelta());
+  }
+
+  @Test public void testNothingToReport() throws Exception {
+    final WorkerReportAggregator aggregator = createAggregator(60000);
+
+    aggregator.report();
+
+    final ClientSender worker = connectWorker(aggregator);
+    worker.sendKeepAlive();
+    worker.shutdown();
+
+    aggregator.shutdown();
+
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testPeriodicReports() throws Exception {
+    final WorkerReportAggregator aggregator = createAggregator(10);
+
+    final ClientSender worker = connectWorker(aggregator);
+
+    worker.send(new ReportStatisticsMessage(createReport(1, 1)));
+
+    m_consoleSenderStubFactory.waitUntilCalled(5000);
+    m_consoleSenderStubFactory.assertSuccess("send",
+                                             ReportStatisticsMessage.class);
+
+    worker.shutdown();
+    aggregator.shutdown();
+
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testCombinesBarrierState() throws Exception {
+    final WorkerReportAggregator aggregator = createAggregator(60000);
+
+    final ClientSender worker = connectWorker(aggregator);
+
+    worker.send(new BarrierStateMessage("b", 2, 1, 7, 0, 0));
+
+    m_consoleSenderStubFactory.waitUntilCalled(5000);
+
+    final BarrierStateMessage state =
+      (BarrierStateMessage) m_consoleSenderStubFactory.assertSuccess(
+        "send", BarrierStateMessage.class).getParameters()[0];
+
+    assertEquals("b", state.getName());
+    assertEquals(2, state.getBarriers());
+    assertEquals(1, state.getWaiters());
+    assertEquals(1, state.getLastWaiter());
+
+    worker.shutdown();
+    aggregator.shutdown();
+
+    // The worker did not remove its barriers.
+    final BarrierStateMessage removed =
+      (BarrierStateMessage) m_consoleSenderStubFactory.assertSuccess(
+        "send", BarrierStateMessage.class).getParameters()[0];
+
+    assertEquals(0, removed.getBarriers());
+    assertEquals(2, removed.getLastWaiter());
+
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testForwardsNewTestsFirst() throws Exception {
+    final WorkerReportAggregator aggregator = createAggregator(60000);
+
+    final ClientSender worker = connectWorker(aggregator);
+
+    // StubTest isn't serialisable.
+    final List<net.grinder.common.Test> tests =
+      new ArrayList<net.grinder.common.Test>();
+
+    worker.send(new RegisterTestsMessage(tests));
+    worker.send(new ReportStatisticsMessage(createReport(1, 1)));
+
+    worker.shutdown();
+    aggregator.shutdown();
+
+    final RegisterTestsMessage message =
+      (RegisterTestsMessage) m_consoleSenderStubFactory.assertSuccess(
+        "send", RegisterTestsMessage.class).getParameters()[0];
+    assertEquals(tests, message.getTests());
+
+    m_consoleSenderStubFactory.assertSuccess("send",
+                                             ReportStatisticsMessage.class);
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testForwardsProcessReports() throws Exception {
+    final WorkerReportAggregator aggregator = createAggregator(60000);
+
+    final ClientSender worker = connectWorker(aggregator);
+
+    // A change of state is forwarded immediately.
+    worker.send(new WorkerProcessReportMessage(State.STARTED,
+                                               (short) 0,
+                                               (short) 2));
+
+    m_consoleSenderStubFactory.waitUntilCalled(5000);
+
+    final WorkerProcessReportsMessage started =
+      (WorkerProcessReportsMessage) m_consoleSenderStubFactory.assertSuccess(
+        "send", WorkerProcessReportsMessage.class).getParameters()[0];
+
+    assertEquals(1, started.getReports().size());
+    final WorkerProcessReportMessage report = started.getReports().get(0);
+    assertEquals(State.STARTED, report.getState());
+    assertNotNull(report.getWorkerIdentity());
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+
+    // Other reports are sent with the statistics.
+    worker.send(new ReportStatisticsMessage(createReport(1, 1)));
+    worker.send(new WorkerProcessReportMessage(State.RUNNING,
+                                               (short) 2,
+                                               (short) 2));
+
+    m_consoleSenderStubFactory.waitUntilCalled(5000);
+    m_consoleSenderStubFactory.assertSuccess("send",
+                                             ReportStatisticsMessage.class);
+    m_consoleSenderStubFactory.assertSuccess("send",
+                                             WorkerProcessReportsMessage.class);
+
+    worker.send(new WorkerProcessReportMessage(State.RUNNING,
+                                               (short) 1,
+                                               (short) 2));
+    worker.sendKeepAlive();
+    Thread.sleep(50);
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+
+    aggregator.report();
+
+    final WorkerProcessReportsMessage running =
+      (WorkerProcessReportsMessage) m_consoleSenderStubFactory.assertSuccess(
+        "send", WorkerProcessReportsMessage.class).getParameters()[0];
+    assertEquals(1, running.getReports().get(0).getNumberOfRunningThreads());
+
+    aggregator.report();
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+
+    worker.send(new WorkerProcessReportMessage(State.FINISHED,
+                                               (short) 0,
+                                               (short) 0));
+    worker.shutdown();
+    aggregator.shutdown();
+
+    final WorkerProcessReportsMessage finished =
+      (WorkerProcessReportsMessage) m_consoleSenderStubFactory.assertSuccess(
+        "send", WorkerProcessReportsMessage.class).getParameters()[0];
+    assertEquals(State.FINISHED, finished.getReports().get(0).getState());
+    m_consoleSenderStubFactory.assertNoMoreCalls();
+  }
+}
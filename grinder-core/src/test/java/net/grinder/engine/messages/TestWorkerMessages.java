@@ -1,4 +1,4 @@
-// Copyright (C) 2000 - 2009 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -54,23 +54,25 @@ public class TestWorkerMessages extends AbstractFileTestCase {
 
     final InitialiseGrinderMessage original =
       new InitialiseGrinderMessage(
-        workerIdentity, workerIdentity2, false, script, properties);
+        workerIdentity, workerIdentity2, false, 0, script, properties);
 
     final InitialiseGrinderMessage received = Serializer.serialize(original);
 
     assertEquals(workerIdentity, received.getWorkerIdentity());
     assertEquals(workerIdentity2, received.getFirstWorkerIdentity());
     assertTrue(!received.getReportToConsole());
+    assertEquals(0, received.getAgentReportPort());
     assertEquals(script, received.getScript());
     assertEquals(properties, received.getProperties());
 
     final InitialiseGrinderMessage another =
       new InitialiseGrinderMessage(
-        workerIdentity, workerIdentity2, true, script, properties);
+        workerIdentity, workerIdentity2, true, 1234, script, properties);
 
     assertEquals(workerIdentity, another.getWorkerIdentity());
     assertEquals(workerIdentity2, another.getFirstWorkerIdentity());
     assertTrue(another.getReportToConsole());
+    assertEquals(1234, another.getAgentReportPort());
     assertEquals(script, another.getScript());
   }
 }
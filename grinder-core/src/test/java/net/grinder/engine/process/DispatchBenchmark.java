@@ -0,0 +1,128 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.common.StubTest;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * JMH micro-benchmark of the per-dispatch overhead of {@link TestData}.
+ *
+ * <p>
+ * {@link #dispatch} measures an empty test with the statistics recycled
+ * by the test recorder. {@link #dispatchRetainingLastTest} also asks for
+ * the last test statistics after each dispatch, which stops them being
+ * recycled, so each dispatch allocates a new statistics set as it did
+ * before recycling was introduced. Run with <code>-prof gc</code> to
+ * compare the allocation rates. {@link #dispatchUpdatingCurrentTest} updates
+ * a statistic through the handle returned for the current test, as the HTTP
+ * plugin does for every request. The <code>yieldBeforeTest</code> parameter
+ * shows the cost of <code>grinder.yieldBeforeTest</code>.
+ * </p>
+ *
+ * <p>
+ * This is not a unit test. After <code>mvn test-compile</code>, run it
+ * with:
+ * </p>
+ *
+ * <pre>
+ * java -cp <em>test classpath</em> org.openjdk.jmh.Main DispatchBenchmark
+ * </pre>
+ *
+ * @author Philip Aston
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+  @Param({ "false", "true" })
+  public boolean yieldBeforeTest;
+
+  private ThreadContext m_threadContext;
+  private TestData m_testData;
+
+  @Setup
+  public void setUp() throws Exception {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+
+    final GrinderProperties properties = new GrinderProperties();
+    properties.setBoolean("grinder.logData", false);
+
+    m_threadContext =
+      new ThreadContextImplementation(properties,
+                                      statisticsServices,
+                                      0,
+                                      null);
+
+    final StubThreadContextLocator threadContextLocator =
+      new StubThreadContextLocator();
+    threadContextLocator.set(m_threadContext);
+
+    m_testData =
+      new TestData(threadContextLocator,
+                   statisticsServices.getStatisticsSetFactory(),
+                   new TestStatisticsHelperImplementation(
+                     statisticsServices.getStatisticsIndexMap()),
+                   new StandardTimeAuthority(),
+                   null,
+                   new StubTest(1, "benchmark"),
+                   yieldBeforeTest);
+  }
+
+  @Benchmark
+  public void dispatch() throws Exception {
+    m_testData.start();
+    m_testData.end(true);
+  }
+
+  @Benchmark
+  public void dispatchUpdatingCurrentTest() throws Exception {
+    m_testData.start();
+    m_threadContext.getStatisticsForCurrentTest().addLong("userLong0", 1);
+    m_testData.end(true);
+  }
+
+  @Benchmark
+  public Object dispatchRetainingLastTest() throws Exception {
+    m_testData.start();
+    m_testData.end(true);
+
+    return m_threadContext.getStatisticsForLastTest();
+  }
+}
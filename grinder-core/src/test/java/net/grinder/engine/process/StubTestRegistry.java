@@ -47,7 +47,8 @@ public class StubTestRegistry {
       new TestRegistryImplementation(null,
                                      statisticsSetFactory,
                                      testStatisticsHelper,
-                                     null);
+                                     null,
+                                     false);
 
     testRegistry.setInstrumenter(instrumenter);
 
@@ -0,0 +1,245 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Random;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.engine.common.EngineException;
+import net.grinder.engine.process.ArrivalRateScheduler.ArrivalPattern;
+import net.grinder.engine.process.ArrivalRateScheduler.ConstantPattern;
+import net.grinder.engine.process.ArrivalRateScheduler.PoissonPattern;
+import net.grinder.engine.process.ArrivalRateScheduler.RampPattern;
+import net.grinder.engine.process.ArrivalRateScheduler.StepPattern;
+import net.grinder.engine.process.RunScheduler.Ticket;
+import net.grinder.util.Sleeper;
+import net.grinder.util.TimeAuthority;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+
+/**
+ * Unit tests for {@link ArrivalRateScheduler}.
+ *
+ * @author Philip Aston
+ */
+public class TestArrivalRateScheduler {
+
+  @Mock private TimeAuthority m_timeAuthority;
+  @Mock private Sleeper m_sleeper;
+
+  private final GrinderProperties m_properties = new GrinderProperties();
+
+  @Before public void setUp() {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @Test public void testCreateDisabled() throws Exception {
+    assertNull(
+      ArrivalRateScheduler.create(m_properties, m_timeAuthority, m_sleeper));
+
+    m_properties.setDouble("grinder.arrivalRate", 0);
+
+    assertNull(
+      ArrivalRateScheduler.create(m_properties, m_timeAuthority, m_sleeper));
+  }
+
+  @Test public void testCreatePatterns() throws Exception {
+    m_properties.setDouble("grinder.arrivalRate", 10);
+
+    final ArrivalRateScheduler constant =
+      ArrivalRateScheduler.create(m_properties, m_timeAuthority, m_sleeper);
+    assertEquals("10.0 tickets/s", constant.getDescription());
+
+    m_properties.setProperty("grinder.arrivalRate.pattern", "poisson");
+    m_properties.setLong("grinder.arrivalRate.tickets", 100);
+
+    final ArrivalRateScheduler poisson =
+      ArrivalRateScheduler.create(m_properties, m_timeAuthority, m_sleeper);
+    assertEquals("Poisson arrivals, mean 10.0 tickets/s, 100 tickets",
+                 poisson.getDescription());
+
+    m_properties.setProperty("grinder.arrivalRate.pattern", "step");
+    m_properties.setDouble("grinder.arrivalRate.stepIncrement", 5);
+    m_properties.setLong("grinder.arrivalRate.stepInterval", 1000);
+
+    assertNotNull(
+      ArrivalRateScheduler.create(m_properties, m_timeAuthority, m_sleeper));
+
+    m_properties.setProperty("grinder.arrivalRate.pattern", "ramp");
+    m_properties.setDouble("grinder.arrivalRate.target", 50);
+    m_properties.setLong("grinder.arrivalRate.rampTime", 60000);
+
+    assertNotNull(
+      ArrivalRateScheduler.create(m_properties, m_timeAuthority, m_sleeper));
+  }
+
+  @Test public void testCreateBadProperties() throws Exception {
+    m_properties.setDouble("grinder.arrivalRate", 10);
+
+    m_properties.setProperty("grinder.arrivalRate.pattern", "foo");
+    assertCreateFails();
+
+    m_properties.setProperty("grinder.arrivalRate.pattern", "step");
+    assertCreateFails();
+
+    m_properties.setProperty("grinder.arrivalRate.pattern", "ramp");
+    assertCreateFails();
+  }
+
+  private void assertCreateFails() {
+    try {
+      ArrivalRateScheduler.create(m_properties, m_timeAuthority, m_sleeper);
+      fail("Expected EngineException");
+    }
+    catch (EngineException e) {
+    }
+  }
+
+  @Test public void testPatterns() throws Exception {
+    final Random random = new Random(1);
+
+    final ArrivalPattern constant = new ConstantPattern(4);
+    assertEquals(250d, constant.getInterval(0, random), 0.001);
+    assertEquals(250d, constant.getInterval(1e6, random), 0.001);
+
+    final ArrivalPattern step = new StepPattern(4, 6, 1000);
+    assertEquals(250d, step.getInterval(999, random), 0.001);
+    assertEquals(100d, step.getInterval(1000, random), 0.001);
+    assertEquals(1000d / 16, step.getInterval(2500, random), 0.001);
+
+    final ArrivalPattern ramp = new RampPattern(10, 20, 1000);
+    assertEquals(100d, ramp.getInterval(0, random), 0.001);
+    assertEquals(1000d / 15, ramp.getInterval(500, random), 0.001);
+    assertEquals(50d, ramp.getInterval(1000, random), 0.001);
+    assertEquals(50d, ramp.getInterval(5000, random), 0.001);
+
+    final ArrivalPattern poisson = new PoissonPattern(100);
+    double total = 0;
+    final int n = 10000;
+
+    for (int i = 0; i < n; ++i) {
+      final double interval = poisson.getInterval(0, random);
+      assertTrue(interval >= 0);
+      total += interval;
+    }
+
+    assertEquals(10d, total / n, 0.5);
+  }
+
+  @Test public void testTicketsWaitForScheduledTime() throws Exception {
+    final ArrivalRateScheduler scheduler =
+      new ArrivalRateScheduler(new ConstantPattern(10),
+                               2,
+                               m_timeAuthority,
+                               m_sleeper,
+                               new Random());
+
+    when(m_timeAuthority.getTimeInMilliseconds())
+      .thenReturn(1000L, 1000L, 1000L, 1020L, 1100L);
+
+    final Ticket ticket1 = scheduler.nextTicket();
+    assertEquals(0, ticket1.getNumber());
+    assertEquals(1000, ticket1.getScheduledTime());
+    assertEquals(0, ticket1.getWaitTime());
+
+    final Ticket ticket2 = scheduler.nextTicket();
+    assertEquals(1, ticket2.getNumber());
+    assertEquals(1100, ticket2.getScheduledTime());
+    assertEquals(0, ticket2.getWaitTime());
+    verify(m_sleeper).sleepNormal(80, 0);
+
+    assertNull(scheduler.nextTicket());
+
+    assertEquals(2, scheduler.getTicketsStarted());
+    assertEquals(0, scheduler.getTotalWaitTime());
+
+    verifyNoMoreInteractions(m_sleeper);
+  }
+
+  @Test public void testLateTicketsRecordWait() throws Exception {
+    final ArrivalRateScheduler scheduler =
+      new ArrivalRateScheduler(new ConstantPattern(10),
+                               0,
+                               m_timeAuthority,
+                               m_sleeper,
+                               new Random());
+
+    when(m_timeAuthority.getTimeInMilliseconds())
+      .thenReturn(1000L, 1000L, 1000L, 1350L, 1350L, 1350L, 1350L);
+
+    scheduler.nextTicket();
+
+    final Ticket late = scheduler.nextTicket();
+    assertEquals(1100, late.getScheduledTime());
+    assertEquals(1350, late.getStartTime());
+    assertEquals(250, late.getWaitTime());
+
+    final Ticket later = scheduler.nextTicket();
+    assertEquals(1200, later.getScheduledTime());
+    assertEquals(150, later.getWaitTime());
+
+    assertEquals(3, scheduler.getTicketsStarted());
+    assertEquals(400, scheduler.getTotalWaitTime());
+    assertEquals(250, scheduler.getMaximumWaitTime());
+
+    verifyNoMoreInteractions(m_sleeper);
+  }
+
+  @Test public void testShutdown() throws Exception {
+    final ArrivalRateScheduler scheduler =
+      new ArrivalRateScheduler(new ConstantPattern(1),
+                               0,
+                               m_timeAuthority,
+                               m_sleeper,
+                               new Random());
+
+    when(m_timeAuthority.getTimeInMilliseconds()).thenReturn(0L);
+
+    scheduler.nextTicket();
+
+    doThrow(new Sleeper.ShutdownException("bye"))
+      .when(m_sleeper).sleepNormal(1000, 0);
+
+    try {
+      scheduler.nextTicket();
+      fail("Expected ShutdownException");
+    }
+    catch (Sleeper.ShutdownException e) {
+    }
+
+    assertEquals(1, scheduler.getTicketsStarted());
+  }
+}
@@ -0,0 +1,274 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.engine.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.grinder.common.StubTest;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesTestFactory;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+import net.grinder.testutility.RandomStubFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link BinaryDataLog} and {@link BinaryDataLogConverter}.
+ *
+ * @author Philip Aston
+ */
+public class TestBinaryDataLog extends AbstractJUnit4FileTestCase {
+
+  private final net.grinder.common.Test m_test1 = new StubTest(1, "T1");
+  private final net.grinder.common.Test m_test3 = new StubTest(3, "T3");
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesTestFactory.createTestInstance();
+
+  private final Logger m_logger =
+    RandomStubFactory.create(Logger.class).getStub();
+
+  private StatisticsIndexMap.LongIndex m_errorsIndex;
+  private StatisticsIndexMap.LongSampleIndex m_timedTestsIndex;
+  private StatisticsIndexMap.DoubleIndex m_userDouble0Index;
+
+  @Before public void setUp() throws Exception {
+    final StatisticsIndexMap indexMap =
+      m_statisticsServices.getStatisticsIndexMap();
+
+    m_errorsIndex = indexMap.getLongIndex("errors");
+    m_timedTestsIndex = indexMap.getLongSampleIndex("timedTests");
+    m_userDouble0Index = indexMap.getDoubleIndex("userDouble0");
+
+    m_statisticsServices.getDetailStatisticsView().add(
+      m_statisticsServices.getStatisticExpressionFactory()
+      .createExpressionView("foo", "userDouble0", false));
+  }
+
+  private List<String> convert(File file) throws IOException {
+    final StringWriter out = new StringWriter();
+    final InputStream in = new FileInputStream(file);
+
+    try {
+      BinaryDataLogConverter.convert(in, out);
+    }
+    finally {
+      in.close();
+    }
+
+    final List<String> result = new ArrayList<String>();
+    final BufferedReader reader =
+      new BufferedReader(new StringReader(out.toString()));
+
+    String line;
+
+    while ((line = reader.readLine()) != null) {
+      result.add(line);
+    }
+
+    return result;
+  }
+
+  @Test public void testReport() throws Exception {
+    final File file = new File(getDirectory(), "data.bin");
+
+    final BinaryDataLog dataLog =
+      new BinaryDataLog(
+        file,
+        m_statisticsServices.getDetailStatisticsView().getExpressionViews(),
+        BinaryDataLog.DEFAULT_BUFFER_SIZE,
+        m_logger);
+
+    final BinaryDataLog.ThreadLog threadLog = dataLog.createThreadLog(33);
+
+    final StatisticsSet statistics =
+      m_statisticsServices.getStatisticsSetFactory().create();
+
+    statistics.addSample(m_timedTestsIndex, 99);
+
+    threadLog.report(10, m_test1, 123L, statistics);
+    threadLog.report(11, m_test3, 300L, statistics);
+
+    statistics.reset();
+    statistics.setValue(m_errorsIndex, 1);
+    statistics.addValue(m_userDouble0Index, 1.5);
+
+    threadLog.report(11, m_test3, 301L, statistics);
+
+    dataLog.close();
+
+    final List<String> lines = convert(file);
+
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(0).startsWith("Thread, Run, Test, Start time"));
+    assertTrue(lines.get(0).endsWith(", foo"));
+
+    // Same format as ThreadDataLogger.
+    assertEquals("33, 10, 1, 123, 99, 0, 0.0", lines.get(1));
+    assertEquals("33, 11, 3, 300, 99, 0, 0.0", lines.get(2));
+    assertEquals("33, 11, 3, 301, 0, 1, 1.5", lines.get(3));
+
+    // Late reports are discarded, and don't block.
+    for (int i = 0; i < BinaryDataLog.DEFAULT_BUFFER_SIZE * 2; ++i) {
+      threadLog.report(12, m_test1, 400L, statistics);
+    }
+
+    assertEquals(lines, convert(file));
+  }
+
+  @Test public void testSmallBuffer() throws Exception {
+    final File file = new File(getDirectory(), "data.bin");
+
+    final BinaryDataLog dataLog =
+      new BinaryDataLog(
+        file,
+        m_statisticsServices.getDetailStatisticsView().getExpressionViews(),
+        3,
+        m_logger);
+
+    final BinaryDataLog.ThreadLog threadLog = dataLog.createThreadLog(1);
+
+    final StatisticsSet statistics =
+      m_statisticsServices.getStatisticsSetFactory().create();
+
+    for (int i = 0; i < 1000; ++i) {
+      statistics.setValue(m_errorsIndex, i);
+      threadLog.report(i, m_test1, i, statistics);
+    }
+
+    dataLog.close();
+
+    final List<String> lines = convert(file);
+
+    assertEquals(1001, lines.size());
+
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals("1, " + i + ", 1, " + i + ", 0, " + i + ", 0.0",
+                   lines.get(i + 1));
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testBadBufferSize() throws Exception {
+    new BinaryDataLog(
+      new File(getDirectory(), "data.bin"),
+      m_statisticsServices.getDetailStatisticsView().getExpressionViews(),
+      0,
+      m_logger);
+  }
+
+  @Test public void testManyThreads() throws Exception {
+    final File file = new File(getDirectory(), "data.bin");
+
+    final BinaryDataLog dataLog =
+      new BinaryDataLog(
+        file,
+        m_statisticsServices.getDetailStatisticsView().getExpressionViews(),
+        BinaryDataLog.DEFAULT_BUFFER_SIZE,
+        m_logger);
+
+    final int numberOfThreads = 4;
+    final int numberOfReports = 20000;
+
+    final Thread[] threads = new Thread[numberOfThreads];
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      final BinaryDataLog.ThreadLog threadLog = dataLog.createThreadLog(i);
+
+      threads[i] = new Thread() {
+          public void run() {
+            final StatisticsSet statistics =
+              m_statisticsServices.getStatisticsSetFactory().create();
+
+            for (int j = 0; j < numberOfReports; ++j) {
+              statistics.setValue(m_errorsIndex, j);
+              threadLog.report(j, m_test1, j, statistics);
+            }
+          }
+        };
+
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    dataLog.close();
+
+    final List<String> lines = convert(file);
+
+    assertEquals(1 + numberOfThreads * numberOfReports, lines.size());
+
+    final Set<String> unique = new HashSet<String>(lines);
+    assertEquals(lines.size(), unique.size());
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      assertTrue(unique.contains(i + ", 0, 1, 0, 0, 0, 0.0"));
+      assertTrue(unique.contains(i + ", 19999, 1, 19999, 0, 19999, 0.0"));
+    }
+  }
+
+  @Test public void testConvertBadData() throws Exception {
+    try {
+      BinaryDataLogConverter.convert(
+        new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, }),
+        new StringWriter());
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+
+    final byte[] badVersion = {
+      0x47, 0x44, 0x4C, 0x31, 0, 0, 0, 9,
+    };
+
+    try {
+      BinaryDataLogConverter.convert(new ByteArrayInputStream(badVersion),
+                                     new StringWriter());
+      fail("Expected StreamCorruptedException");
+    }
+    catch (StreamCorruptedException e) {
+    }
+  }
+}
@@ -29,6 +29,7 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import net.grinder.common.GrinderProperties;
 import net.grinder.engine.common.EngineException;
+import net.grinder.engine.process.RunScheduler.Ticket;
 import net.grinder.scriptengine.ScriptEngineService.WorkerRunnable;
 import net.grinder.scriptengine.ScriptExecutionException;
 import net.grinder.testutility.AbstractJUnit4FileTestCase;
@@ -55,6 +56,7 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
   @Mock private Sleeper m_sleeper;
   @Mock private WorkerRunnableFactory m_workerRunnableFactory;
   @Mock private WorkerRunnable m_workerRunnable;
+  @Mock private RunScheduler m_runScheduler;
 
   private final GrinderProperties m_properties = new GrinderProperties();
 
@@ -149,6 +151,76 @@ public class TestGrinderThread extends AbstractJUnit4FileTestCase {
     verifyNoMoreInteractions(m_sleeper);
   }
 
+  @Test public void testRunScheduler() throws Exception {
+
+    final GrinderThread grinderThread =
+      new GrinderThread(m_logger,
+                        m_threadContext,
+                        m_workerThreadSynchronisation,
+                        m_processLifeCycleListener,
+                        m_properties,
+                        m_sleeper,
+                        m_workerRunnableFactory,
+                        m_runScheduler);
+
+    m_properties.setInt("grinder.runs", 1);
+    m_properties.setLong("grinder.initialSleepTime", 100);
+
+    when(m_runScheduler.nextTicket())
+      .thenReturn(new Ticket(0, 10, 10),
+                  new Ticket(1, 20, 25),
+                  new Ticket(2, 30, 30),
+                  null);
+
+    grinderThread.run();
+
+    verify(m_threadContext, times(3)).fireBeginRunEvent();
+    verify(m_threadContext, times(3)).fireEndRunEvent();
+    verify(m_threadContext).fireEndThreadEvent();
+
+    verify(m_workerRunnable, times(3)).run();
+    verify(m_workerRunnable).shutdown();
+
+    verify(m_runScheduler, times(4)).nextTicket();
+
+    verify(m_threadContext, times(2)).setTicketWait(0);
+    verify(m_threadContext).setTicketWait(5);
+
+    verify(m_workerThreadSynchronisation).awaitStart();
+    verify(m_workerThreadSynchronisation).threadFinished();
+
+    verifyNoMoreInteractions(m_sleeper);
+  }
+
+  @Test public void testRunSchedulerShutdown() throws Exception {
+
+    final GrinderThread grinderThread =
+      new GrinderThread(m_logger,
+                        m_threadContext,
+                        m_workerThreadSynchronisation,
+                        m_processLifeCycleListener,
+                        m_properties,
+                        m_sleeper,
+                        m_workerRunnableFactory,
+                        m_runScheduler);
+
+    when(m_runScheduler.nextTicket())
+      .thenReturn(new Ticket(0, 10, 10))
+      .thenThrow(new Sleeper.ShutdownException("bye"));
+
+    grinderThread.run();
+
+    verify(m_threadContext).fireBeginRunEvent();
+    verify(m_threadContext).fireEndRunEvent();
+    verify(m_threadContext).fireBeginShutdownEvent();
+    verify(m_threadContext).fireEndThreadEvent();
+
+    verify(m_workerRunnable).run();
+    verify(m_workerRunnable).shutdown();
+
+    verify(m_workerThreadSynchronisation).threadFinished();
+  }
+
   @Test public void testRunForeverShutdownException() throws Exception {
 
     final GrinderThread grinderThread =
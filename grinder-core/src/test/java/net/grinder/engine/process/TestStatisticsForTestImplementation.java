@@ -25,8 +25,10 @@ import junit.framework.TestCase;
 
 import net.grinder.common.StubTest;
 import net.grinder.common.Test;
+import net.grinder.engine.process.StatisticsForTestImplementation.StaleStatisticsException;
 import net.grinder.script.InvalidContextException;
 import net.grinder.script.NoSuchStatisticException;
+import net.grinder.script.Statistics.StatisticsForTest;
 import net.grinder.statistics.StatisticsIndexMap;
 import net.grinder.statistics.StatisticsServices;
 import net.grinder.statistics.StatisticsServicesImplementation;
@@ -112,7 +114,7 @@ public class TestStatisticsForTestImplementation extends TestCase {
     assertEquals(123, statisticsForTest.getTime());
 
     statisticsForTest.setSuccess(true);
-    testStatisticsHelper.recordTest(statisticsSet, 5555);
+    testStatisticsHelper.recordTest(statisticsSet, 5555000000L);
 
     statisticsForTest.freeze();
 
@@ -128,4 +130,117 @@ public class TestStatisticsForTestImplementation extends TestCase {
 
     assertEquals(10, statisticsForTest.getLong("userLong0"));
   }
+
+  public void testReset() throws Exception {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+    final TestStatisticsHelper testStatisticsHelper =
+      new TestStatisticsHelperImplementation(
+        statisticsServices.getStatisticsIndexMap());
+
+    final Test test = new StubTest(1, "Hello");
+    m_dispatchContextStubFactory.setResult("getTest", test);
+
+    final StatisticsSet statisticsSet =
+      statisticsServices.getStatisticsSetFactory().create();
+
+    final StatisticsForTestImplementation statisticsForTest =
+      new StatisticsForTestImplementation(
+        m_dispatchContext,
+        testStatisticsHelper,
+        statisticsSet);
+
+    statisticsForTest.setLong("userLong0", 10);
+    statisticsForTest.freeze();
+    assertEquals(10, statisticsForTest.getLong("userLong0"));
+
+    statisticsForTest.reset(m_dispatchContext);
+
+    assertSame(statisticsSet, statisticsForTest.getStatistics());
+    assertEquals(test, statisticsForTest.getTest());
+    assertEquals(0, statisticsForTest.getLong("userLong0"));
+    statisticsForTest.setLong("userLong0", 5);
+    assertEquals(5, statisticsForTest.getLong("userLong0"));
+
+    m_dispatchContextStubFactory.setResult("getElapsedTime", new Long(99));
+    assertEquals(99, statisticsForTest.getTime());
+
+    statisticsForTest.freeze();
+
+    assertFalse(statisticsForTest.isRetained());
+    statisticsForTest.retain();
+    assertTrue(statisticsForTest.isRetained());
+
+    try {
+      statisticsForTest.reset(m_dispatchContext);
+      fail("Expected AssertionError");
+    }
+    catch (AssertionError e) {
+    }
+
+    assertEquals(5, statisticsForTest.getLong("userLong0"));
+  }
+
+  public void testHandle() throws Exception {
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+    final TestStatisticsHelper testStatisticsHelper =
+      new TestStatisticsHelperImplementation(
+        statisticsServices.getStatisticsIndexMap());
+
+    final Test test = new StubTest(1, "Hello");
+    m_dispatchContextStubFactory.setResult("getTest", test);
+
+    final StatisticsForTestImplementation statisticsForTest =
+      new StatisticsForTestImplementation(
+        m_dispatchContext,
+        testStatisticsHelper,
+        statisticsServices.getStatisticsSetFactory().create());
+
+    final StatisticsForTest handle = statisticsForTest.createHandle();
+    assertEquals(test, handle.getTest());
+    handle.setLong("userLong0", 10);
+    handle.addLong("userLong0", 1);
+    assertEquals(11, statisticsForTest.getLong("userLong0"));
+
+    statisticsForTest.freeze();
+    assertEquals(11, handle.getLong("userLong0"));
+
+    try {
+      handle.setLong("userLong0", 1);
+      fail("Expected InvalidContextException");
+    }
+    catch (InvalidContextException e) {
+    }
+
+    statisticsForTest.reset(m_dispatchContext);
+    statisticsForTest.setLong("userLong0", 3);
+
+    // The handle fails rather than refer to the next dispatch.
+    try {
+      handle.getLong("userLong0");
+      fail("Expected StaleStatisticsException");
+    }
+    catch (StaleStatisticsException e) {
+    }
+
+    try {
+      handle.setLong("userLong0", 1);
+      fail("Expected StaleStatisticsException");
+    }
+    catch (StaleStatisticsException e) {
+    }
+
+    try {
+      handle.getSuccess();
+      fail("Expected StaleStatisticsException");
+    }
+    catch (StaleStatisticsException e) {
+    }
+
+    assertEquals(3, statisticsForTest.getLong("userLong0"));
+
+    final StatisticsForTest handle2 = statisticsForTest.createHandle();
+    assertEquals(3, handle2.getLong("userLong0"));
+  }
 }
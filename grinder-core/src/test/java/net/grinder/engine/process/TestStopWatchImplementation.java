@@ -55,7 +55,7 @@ public class TestStopWatchImplementation extends TestCase {
 
     stopWatch.start();
 
-    timeAuthorityStubFactory.assertSuccess("getTimeInMilliseconds");
+    timeAuthorityStubFactory.assertSuccess("getTimeInNanoseconds");
     timeAuthorityStubFactory.assertNoMoreCalls();
 
     try {
@@ -97,7 +97,7 @@ public class TestStopWatchImplementation extends TestCase {
 
     assertEquals(1000, stopWatch.getTime());
 
-    timeAuthorityStubFactory.assertSuccess("getTimeInMilliseconds");
+    timeAuthorityStubFactory.assertSuccess("getTimeInNanoseconds");
     timeAuthorityStubFactory.assertNoMoreCalls();
 
     stopWatch.reset();
@@ -30,6 +30,7 @@ import net.grinder.engine.process.DispatchContext.DispatchStateException;
 import net.grinder.script.InvalidContextException;
 import net.grinder.script.Statistics.StatisticsForTest;
 import net.grinder.scriptengine.Instrumenter;
+import net.grinder.statistics.StatisticsAccumulator;
 import net.grinder.statistics.StatisticsIndexMap;
 import net.grinder.statistics.StatisticsServicesImplementation;
 import net.grinder.statistics.StatisticsSet;
@@ -88,7 +89,7 @@ public class TestTestData extends TestCase {
 
     final TestData testData =
       new TestData(null, m_statisticsSetFactory, null,
-                   m_timeAuthority, m_instrumenter, test1);
+                   m_timeAuthority, m_instrumenter, test1, false);
 
     final Object original = new Object();
 
@@ -108,7 +109,8 @@ public class TestTestData extends TestCase {
                    m_testStatisticsHelper,
                    m_timeAuthority,
                    m_instrumenter,
-                   test1);
+                   test1,
+                   false);
 
     assertSame(test1, testData.getTest());
     final StatisticsSet statistics = testData.getTestStatistics();
@@ -235,7 +237,7 @@ public class TestTestData extends TestCase {
       "getSuccess", dispatcherStatistics);
 
     m_testStatisticsHelperStubFactory.assertSuccess(
-      "incrementErrors", statistics);
+      "incrementErrors", StatisticsAccumulator.class);
 
     m_testStatisticsHelperStubFactory.assertNoMoreCalls();
   }
@@ -254,7 +256,8 @@ public class TestTestData extends TestCase {
                    testStatisticsHelper,
                    m_timeAuthority,
                    m_instrumenter,
-                   test1);
+                   test1,
+                   true);
 
     assertSame(test1, testData.getTest());
     final StatisticsSet statistics = testData.getTestStatistics();
@@ -304,7 +307,7 @@ public class TestTestData extends TestCase {
       public void add(StopWatch watch) { }
 
       public long getTime() throws StopWatchRunningException {
-        return 1000;
+        return 1000000000;
       }
       public boolean isRunning() {
         return false;
@@ -328,6 +331,10 @@ public class TestTestData extends TestCase {
     catch (DispatchStateException e) {
     }
 
+    // Test statistics not updated until we merge.
+    assertEquals(0, statistics.getCount(s_timedTestsIndex));
+    testData.mergeThreadStatistics();
+
     // report() will have updated the statistics with a single,
     // successful, timed test.
     assertEquals(1, statistics.getCount(s_timedTestsIndex));
@@ -364,9 +371,172 @@ public class TestTestData extends TestCase {
 
     assertFalse(statistics.isComposite());
     dispatchContext.setHasNestedContexts();
+    assertFalse(statistics.isComposite());
+    testData.mergeThreadStatistics();
     assertTrue(statistics.isComposite());
   }
 
+  public void testStatisticsForTestRecycling() throws Exception {
+    final TestStatisticsHelper testStatisticsHelper =
+      new TestStatisticsHelperImplementation(
+        StatisticsServicesImplementation.getInstance().getStatisticsIndexMap());
+
+    final TestData testData =
+      new TestData(m_threadContextLocator,
+                   m_statisticsSetFactory,
+                   testStatisticsHelper,
+                   m_timeAuthority,
+                   m_instrumenter,
+                   new StubTest(1, "test1"),
+                   false);
+
+    m_threadContextLocator.set(m_threadContext);
+
+    testData.start();
+
+    m_threadContextStubFactory.assertSuccess("getDispatchResultReporter");
+    final DispatchContext dispatchContext =
+      (DispatchContext) m_threadContextStubFactory.assertSuccess(
+      "pushDispatchContext", DispatchContext.class).getParameters()[0];
+
+    final StatisticsForTest statistics1 =
+      dispatchContext.getStatisticsForTest();
+    statistics1.setLong("userLong0", 1);
+    testData.end(true);
+    dispatchContext.report();
+
+    testData.start();
+    final StatisticsForTest statistics2 =
+      dispatchContext.getStatisticsForTest();
+    assertNotSame(statistics1, statistics2);
+    statistics2.setLong("userLong0", 2);
+    testData.end(true);
+    dispatchContext.report();
+
+    // The statistics for the last report are still available.
+    assertEquals(2, statistics2.getLong("userLong0"));
+
+    // The statistics from the report before are reused.
+    testData.start();
+    final StatisticsForTest statistics3 =
+      dispatchContext.getStatisticsForTest();
+    assertSame(statistics1, statistics3);
+    assertEquals(0, statistics3.getLong("userLong0"));
+    assertEquals(2, statistics2.getLong("userLong0"));
+    statistics3.setLong("userLong0", 3);
+    testData.end(true);
+    dispatchContext.report();
+
+    // Retained statistics are not reused.
+    ((StatisticsForTestImplementation) statistics2).retain();
+
+    testData.start();
+    final StatisticsForTest statistics4 =
+      dispatchContext.getStatisticsForTest();
+    assertNotSame(statistics2, statistics4);
+    assertNotSame(statistics3, statistics4);
+    testData.end(true);
+    dispatchContext.report();
+
+    testData.start();
+    assertSame(statistics3, dispatchContext.getStatisticsForTest());
+    testData.end(true);
+    dispatchContext.report();
+
+    testData.start();
+    assertSame(statistics4, dispatchContext.getStatisticsForTest());
+    testData.end(true);
+    dispatchContext.report();
+
+    assertEquals(2, statistics2.getLong("userLong0"));
+
+    try {
+      statistics2.setLong("userLong0", 2);
+      fail("Expected InvalidContextException");
+    }
+    catch (InvalidContextException e) {
+    }
+
+    testData.mergeThreadStatistics();
+    assertEquals(6,
+      testData.getTestStatistics().getCount(s_timedTestsIndex));
+  }
+
+  public void testThreadStatistics() throws Exception {
+    final TestStatisticsHelper testStatisticsHelper =
+      new TestStatisticsHelperImplementation(
+        StatisticsServicesImplementation.getInstance().getStatisticsIndexMap());
+
+    final TestData testData =
+      new TestData(m_threadContextLocator,
+                   m_statisticsSetFactory,
+                   testStatisticsHelper,
+                   m_timeAuthority,
+                   m_instrumenter,
+                   new StubTest(1, "test1"),
+                   false);
+
+    final int numberOfThreads = 5;
+    final int numberOfTests = 100;
+
+    final Thread[] threads = new Thread[numberOfThreads];
+    final Throwable[] failures = new Throwable[numberOfThreads];
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      final int threadNumber = i;
+
+      threads[i] = new Thread() {
+        public void run() {
+          final RandomStubFactory<ThreadContext> threadContextStubFactory =
+            RandomStubFactory.create(ThreadContext.class);
+          m_threadContextLocator.set(threadContextStubFactory.getStub());
+
+          try {
+            testData.start();
+
+            threadContextStubFactory.assertSuccess(
+              "getDispatchResultReporter");
+            final DispatchContext dispatchContext =
+              (DispatchContext) threadContextStubFactory.assertSuccess(
+                "pushDispatchContext", DispatchContext.class)
+                .getParameters()[0];
+
+            testData.end(true);
+            dispatchContext.report();
+
+            for (int j = 1; j < numberOfTests; ++j) {
+              testData.start();
+              testData.end(true);
+              dispatchContext.report();
+            }
+          }
+          catch (Throwable t) {
+            failures[threadNumber] = t;
+          }
+        }
+      };
+
+      threads[i].start();
+    }
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      threads[i].join();
+      assertNull(failures[i]);
+    }
+
+    final StatisticsSet statistics = testData.getTestStatistics();
+    assertTrue(statistics.isZero());
+
+    testData.mergeThreadStatistics();
+    assertEquals(numberOfThreads * numberOfTests,
+                 statistics.getCount(s_timedTestsIndex));
+
+    // The thread statistics have been reset.
+    statistics.reset();
+    testData.mergeThreadStatistics();
+    assertTrue(statistics.isZero());
+  }
+
   public void testDispatchForBug1593169() throws Exception {
     final TestData testData =
       new TestData(m_threadContextLocator,
@@ -374,7 +544,8 @@ public class TestTestData extends TestCase {
                    m_testStatisticsHelper,
                    m_timeAuthority,
                    m_instrumenter,
-                   new StubTest(1, "test1"));
+                   new StubTest(1, "test1"),
+                   false);
 
 
     m_threadContextLocator.set(m_threadContext);
@@ -28,6 +28,8 @@ import net.grinder.common.Test;
 import net.grinder.scriptengine.Instrumenter;
 import net.grinder.statistics.StatisticsServicesImplementation;
 import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+import net.grinder.statistics.StatisticsIndexMap.LongIndex;
 import net.grinder.testutility.RandomStubFactory;
 import net.grinder.util.TimeAuthority;
 import net.grinder.util.TimeAuthorityStubFactory;
@@ -63,7 +65,7 @@ public class TestTestRegistry extends TestCase {
     final TestRegistryImplementation testRegistryImplementation =
       new TestRegistryImplementation(
         threadContextLocator, statisticsSetFactory, m_testStatisticsHelper,
-        m_timeAuthority);
+        m_timeAuthority, false);
 
     assertNotNull(testRegistryImplementation.getTestStatisticsMap());
 
@@ -80,7 +82,7 @@ public class TestTestRegistry extends TestCase {
     final TestRegistryImplementation testRegistryImplementation =
       new TestRegistryImplementation(
         threadContextLocator, statisticsSetFactory, m_testStatisticsHelper,
-        m_timeAuthority);
+        m_timeAuthority, false);
 
     assertNull(testRegistryImplementation.getNewTests());
 
@@ -117,4 +119,41 @@ public class TestTestRegistry extends TestCase {
     m_testStatisticsHelperStubFactory.assertNoMoreCalls();
     m_timeAuthorityStubFactory.assertNoMoreCalls();
   }
+
+  public void testSampleTestStatistics() throws Exception {
+    final StatisticsSetFactory statisticsSetFactory =
+      StatisticsServicesImplementation.getInstance().getStatisticsSetFactory();
+
+    final TestRegistryImplementation testRegistryImplementation =
+      new TestRegistryImplementation(
+        new StubThreadContextLocator(), statisticsSetFactory,
+        m_testStatisticsHelper, m_timeAuthority, false);
+
+    testRegistryImplementation.setInstrumenter(
+      RandomStubFactory.create(Instrumenter.class).getStub());
+
+    assertEquals(0, testRegistryImplementation.sampleTestStatistics().size());
+
+    final Test test1 = new StubTest(1, "Test 1");
+    final Test test2 = new StubTest(2, "Test 2");
+
+    final TestData testData1 =
+      (TestData) testRegistryImplementation.register(test1);
+    testRegistryImplementation.register(test2);
+
+    final LongIndex userLong0 =
+      StatisticsServicesImplementation.getInstance().getStatisticsIndexMap()
+      .getLongIndex("userLong0");
+
+    testData1.getTestStatistics().setValue(userLong0, 10);
+
+    final TestStatisticsMap sample =
+      testRegistryImplementation.sampleTestStatistics();
+
+    assertEquals(1, sample.size());
+    assertTrue(testData1.getTestStatistics().isZero());
+    assertEquals(10, sample.nonCompositeStatisticsTotals().getValue(userLong0));
+
+    assertEquals(0, testRegistryImplementation.sampleTestStatistics().size());
+  }
 }
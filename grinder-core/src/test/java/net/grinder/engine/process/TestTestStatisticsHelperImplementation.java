@@ -49,6 +49,9 @@ public class TestTestStatisticsHelperImplementation extends TestCase {
   private final StatisticsIndexMap.LongSampleIndex m_timedTestsIndex =
     m_indexMap.getLongSampleIndex("timedTests");
 
+  private final StatisticsIndexMap.LongSampleIndex m_timedTestsMicrosIndex =
+    m_indexMap.getLongSampleIndex("timedTestsMicros");
+
   private final StatisticsIndexMap.LongIndex m_untimedTestsIndex =
     m_indexMap.getLongIndex("untimedTests");
 
@@ -90,21 +93,32 @@ public class TestTestStatisticsHelperImplementation extends TestCase {
     final TestStatisticsHelper helper =
       new TestStatisticsHelperImplementation(m_indexMap);
 
-    helper.recordTest(statistics, 1234);
+    helper.recordTest(statistics, 1234567890);
     assertEquals(0, statistics.getValue(m_errorsIndex));
     assertEquals(1234, statistics.getSum(m_timedTestsIndex));
+    assertEquals(1, statistics.getCount(m_timedTestsIndex));
+    assertEquals(1234567, statistics.getSum(m_timedTestsMicrosIndex));
+    assertEquals(1, statistics.getCount(m_timedTestsMicrosIndex));
 
     statistics.setValue(m_untimedTestsIndex, 1);
-    helper.recordTest(statistics, 999);
+    helper.recordTest(statistics, 999000000);
     assertEquals(0, statistics.getValue(m_errorsIndex));
     assertEquals(999, statistics.getSum(m_timedTestsIndex));
+    assertEquals(999000, statistics.getSum(m_timedTestsMicrosIndex));
     assertEquals(0, statistics.getValue(m_untimedTestsIndex));
 
     statistics.setValue(m_errorsIndex, 2);
-    helper.recordTest(statistics, 1234);
+    helper.recordTest(statistics, 1234000000);
     assertEquals(1, statistics.getValue(m_errorsIndex));
     assertEquals(1234, statistics.getSum(m_timedTestsIndex));
     assertEquals(0, statistics.getValue(m_untimedTestsIndex));
+
+    // Sub-millisecond times are only visible in timedTestsMicros.
+    helper.recordTest(statistics, 456789);
+    assertEquals(0, statistics.getSum(m_timedTestsIndex));
+    assertEquals(1, statistics.getCount(m_timedTestsIndex));
+    assertEquals(456, statistics.getSum(m_timedTestsMicrosIndex));
+    assertEquals(1, statistics.getCount(m_timedTestsMicrosIndex));
   }
 
   public void testRemoveTestTimeFromSample() throws Exception {
@@ -116,6 +130,8 @@ public class TestTestStatisticsHelperImplementation extends TestCase {
       m_statisticsServices.getStatisticsSetFactory().create();
     statistics1.addSample(m_timedTestsIndex, 21321);
     statistics1.addSample(m_timedTestsIndex, 1231);
+    statistics1.addSample(m_timedTestsMicrosIndex, 21321000);
+    statistics1.addSample(m_timedTestsMicrosIndex, 1231000);
 
     assertEquals(21321 + 1231, helper.getTestTime(statistics1));
 
@@ -137,6 +153,8 @@ public class TestTestStatisticsHelperImplementation extends TestCase {
     assertEquals(2, statistics1.getValue(m_untimedTestsIndex));
     assertEquals(0, statistics1.getCount(m_timedTestsIndex));
     assertEquals(0, statistics1.getSum(m_timedTestsIndex));
+    assertEquals(0, statistics1.getCount(m_timedTestsMicrosIndex));
+    assertEquals(0, statistics1.getSum(m_timedTestsMicrosIndex));
     assertEquals(0, helper.getTestTime(statistics1));
 
     assertEquals(1, statistics2.getValue(m_errorsIndex));
@@ -24,6 +24,7 @@ package net.grinder.engine.process;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -42,6 +43,7 @@ import net.grinder.common.SSLContextFactory;
 import net.grinder.common.StubTest;
 import net.grinder.common.ThreadLifeCycleListener;
 import net.grinder.script.Statistics.StatisticsForTest;
+import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
 import net.grinder.statistics.StatisticsServices;
 import net.grinder.statistics.StatisticsServicesImplementation;
 import net.grinder.statistics.StatisticsSet;
@@ -113,6 +115,80 @@ public class TestThreadContextImplementation {
                               isA(DataLogArguments.class));
   }
 
+  @Test public void testTicketWait() throws Exception {
+
+    final ThreadContext threadContext =
+      new ThreadContextImplementation(m_properties,
+                                      m_statisticsServices,
+                                      1,
+                                      m_dataLogger);
+
+    final DispatchResultReporter dispatchResultReporter =
+      threadContext.getDispatchResultReporter();
+
+    final net.grinder.common.Test test = new StubTest(22, "test");
+
+    final LongSampleIndex ticketWaitIndex =
+      m_statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("ticketWait");
+
+    threadContext.setCurrentRunNumber(0);
+    threadContext.setTicketWait(7);
+
+    final StatisticsSet statistics1 =
+      m_statisticsServices.getStatisticsSetFactory().create();
+    dispatchResultReporter.report(test, 123456, statistics1);
+    assertEquals(1, statistics1.getCount(ticketWaitIndex));
+    assertEquals(7, statistics1.getSum(ticketWaitIndex));
+
+    // Only the first test reported by the run is charged.
+    final StatisticsSet statistics2 =
+      m_statisticsServices.getStatisticsSetFactory().create();
+    dispatchResultReporter.report(test, 123456, statistics2);
+    assertEquals(0, statistics2.getCount(ticketWaitIndex));
+
+    // A wait left over when the run ends is discarded.
+    threadContext.setTicketWait(3);
+    threadContext.setCurrentRunNumber(-1);
+
+    final StatisticsSet statistics3 =
+      m_statisticsServices.getStatisticsSetFactory().create();
+    dispatchResultReporter.report(test, 123456, statistics3);
+    assertEquals(0, statistics3.getCount(ticketWaitIndex));
+  }
+
+  @Test public void testBarrierReleaseLatency() throws Exception {
+
+    final ThreadContext threadContext =
+      new ThreadContextImplementation(m_properties,
+                                      m_statisticsServices,
+                                      1,
+                                      m_dataLogger);
+
+    final DispatchResultReporter dispatchResultReporter =
+      threadContext.getDispatchResultReporter();
+
+    final net.grinder.common.Test test = new StubTest(22, "test");
+
+    final LongSampleIndex barrierReleaseLatencyIndex =
+      m_statisticsServices.getStatisticsIndexMap()
+      .getLongSampleIndex("barrierReleaseLatency");
+
+    threadContext.setBarrierReleaseLatency(1500);
+
+    final StatisticsSet statistics1 =
+      m_statisticsServices.getStatisticsSetFactory().create();
+    dispatchResultReporter.report(test, 123456, statistics1);
+    assertEquals(1, statistics1.getCount(barrierReleaseLatencyIndex));
+    assertEquals(1500, statistics1.getSum(barrierReleaseLatencyIndex));
+
+    // Only the next test reported by the thread is charged.
+    final StatisticsSet statistics2 =
+      m_statisticsServices.getStatisticsSetFactory().create();
+    dispatchResultReporter.report(test, 123456, statistics2);
+    assertEquals(0, statistics2.getCount(barrierReleaseLatencyIndex));
+  }
+
   @Test public void testNullDispatchResultReporter() throws Exception {
 
     when(m_properties.getProperty("grinder.logData")).thenReturn("false");
@@ -233,6 +309,41 @@ public class TestThreadContextImplementation {
     }
   }
 
+  @Test public void testStatisticsForCurrentTestHandle() throws Exception {
+    final ThreadContext threadContext =
+      new ThreadContextImplementation(m_properties,
+                                      m_statisticsServices,
+                                      1,
+                                      null);
+
+    when(m_dispatchContext.getTest()).thenReturn(new StubTest(14, "test"));
+
+    final StatisticsForTestImplementation statisticsForTest =
+      new StatisticsForTestImplementation(
+        m_dispatchContext,
+        new TestStatisticsHelperImplementation(
+          m_statisticsServices.getStatisticsIndexMap()),
+        m_statisticsServices.getStatisticsSetFactory().create());
+
+    when(m_dispatchContext.getStatisticsForTest())
+      .thenReturn(statisticsForTest);
+
+    threadContext.pushDispatchContext(m_dispatchContext);
+
+    final StatisticsForTest handle =
+      threadContext.getStatisticsForCurrentTest();
+    assertNotSame(statisticsForTest, handle);
+
+    handle.setLong("userLong0", 7);
+    assertEquals(7, statisticsForTest.getLong("userLong0"));
+
+    threadContext.popDispatchContext();
+
+    // The handle doesn't stop the statistics being recycled.
+    assertFalse(statisticsForTest.isRetained());
+    assertEquals(7, handle.getLong("userLong0"));
+  }
+
   @Test public void testEvents() throws Exception {
     final ThreadLifeCycleListener threadLifeCycleListener =
       mock(ThreadLifeCycleListener.class);
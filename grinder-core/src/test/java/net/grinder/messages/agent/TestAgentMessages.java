@@ -1,4 +1,4 @@
-// Copyright (C) 2000 - 2011 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -26,6 +26,7 @@ import java.io.File;
 import net.grinder.common.GrinderProperties;
 import net.grinder.testutility.AbstractFileTestCase;
 import net.grinder.testutility.Serializer;
+import net.grinder.util.FileChunk;
 import net.grinder.util.FileContents;
 
 import org.junit.Test;
@@ -70,6 +71,17 @@ public class TestAgentMessages extends AbstractFileTestCase {
                  received.getFileContents().toString());
   }
 
+  @Test public void testDistributeFileChunkMessage() throws Exception {
+    final byte[] data = new byte[100];
+
+    final FileChunk chunk = new FileChunk(data, data.length);
+
+    final DistributeFileChunkMessage received =
+      Serializer.serialize(new DistributeFileChunkMessage(chunk));
+
+    assertEquals(chunk.getDigest(), received.getFileChunk().getDigest());
+  }
+
   @Test public void testClearCacheMessage() throws Exception {
     Serializer.serialize(new ClearCacheMessage());
   }
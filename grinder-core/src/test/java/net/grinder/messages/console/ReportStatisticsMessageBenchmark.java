@@ -0,0 +1,126 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.messages.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.StubTest;
+import net.grinder.communication.WireFormat;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServices;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * JMH micro-benchmark comparing the cost of sending a
+ * {@link ReportStatisticsMessage} using Java serialisation, and using
+ * {@link WireFormat} with the {@link ConsoleMessageEncoders}.
+ *
+ * <p>
+ * Each benchmark writes the message and reads it back. Run with
+ * <code>-prof gc</code> to compare the allocation rates.
+ * </p>
+ *
+ * <p>
+ * This is not a unit test. After <code>mvn test-compile</code>, run it
+ * with:
+ * </p>
+ *
+ * <pre>
+ * java -cp <em>test classpath</em> org.openjdk.jmh.Main \
+ *   ReportStatisticsMessageBenchmark
+ * </pre>
+ *
+ * @author Philip Aston
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReportStatisticsMessageBenchmark {
+
+  @Param({ "1", "20", "200" })
+  public int numberOfTests;
+
+  private ReportStatisticsMessage m_message;
+
+  @Setup
+  public void setUp() throws Exception {
+    ConsoleMessageEncoders.register();
+
+    final StatisticsServices statisticsServices =
+      StatisticsServicesImplementation.getInstance();
+    final StatisticsSetFactory statisticsSetFactory =
+      statisticsServices.getStatisticsSetFactory();
+    final StatisticsIndexMap indexMap =
+      statisticsServices.getStatisticsIndexMap();
+
+    final TestStatisticsMap statistics =
+      new TestStatisticsMap(statisticsSetFactory);
+
+    for (int i = 0; i < numberOfTests; ++i) {
+      final StatisticsSet set = statisticsSetFactory.create();
+      set.addSample(indexMap.getLongSampleIndex("timedTests"), 100 + i);
+      set.addSample(indexMap.getLongSampleIndex("timedTests"), 200 + i);
+      set.addValue(indexMap.getLongIndex("errors"), i % 2);
+
+      statistics.put(new StubTest(i, "test " + i), set);
+    }
+
+    m_message = new ReportStatisticsMessage(statistics);
+  }
+
+  @Benchmark
+  public Object serialisation() throws Exception {
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(byteStream);
+    out.writeObject(m_message);
+    out.close();
+
+    return new ObjectInputStream(
+      new ByteArrayInputStream(byteStream.toByteArray())).readObject();
+  }
+
+  @Benchmark
+  public Object wireFormat() throws Exception {
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    WireFormat.write(m_message, byteStream);
+
+    return WireFormat.read(
+      new ByteArrayInputStream(byteStream.toByteArray()));
+  }
+}
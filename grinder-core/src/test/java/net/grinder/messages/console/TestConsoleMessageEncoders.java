@@ -0,0 +1,136 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.messages.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+
+import net.grinder.common.StubTest;
+import net.grinder.common.processidentity.ProcessReport.State;
+import net.grinder.communication.Message;
+import net.grinder.communication.WireFormat;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.statistics.StatisticsServicesImplementation;
+import net.grinder.statistics.StatisticsSet;
+import net.grinder.statistics.StatisticsSetFactory;
+import net.grinder.statistics.TestStatisticsMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ConsoleMessageEncoders}.
+ *
+ * @author Philip Aston
+ */
+public class TestConsoleMessageEncoders {
+
+  @Before public void setUp() {
+    ConsoleMessageEncoders.register();
+  }
+
+  private static byte[] write(Message message) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WireFormat.write(message, out);
+    return out.toByteArray();
+  }
+
+  private static int serialisedSize(Message message) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ObjectOutputStream objectStream = new ObjectOutputStream(out);
+    objectStream.writeObject(message);
+    objectStream.close();
+    return out.size();
+  }
+
+  private static Message read(byte[] bytes) throws Exception {
+    return WireFormat.read(new ByteArrayInputStream(bytes));
+  }
+
+  @Test public void testRegisterTwice() throws Exception {
+    ConsoleMessageEncoders.register();
+  }
+
+  @Test public void testReportStatisticsMessage() throws Exception {
+    final StatisticsSetFactory statisticsSetFactory =
+      StatisticsServicesImplementation.getInstance().getStatisticsSetFactory();
+    final StatisticsIndexMap indexMap =
+      StatisticsServicesImplementation.getInstance().getStatisticsIndexMap();
+
+    final TestStatisticsMap statisticsDelta =
+      new TestStatisticsMap(statisticsSetFactory);
+
+    for (int i = 0; i < 10; ++i) {
+      final StatisticsSet statistics = statisticsSetFactory.create();
+      statistics.setValue(indexMap.getLongIndex("errors"), i);
+      statistics.addSample(indexMap.getLongSampleIndex("timedTests"),
+                           1000 + i);
+      statistics.addSample(indexMap.getLongSampleIndex("timedTests"), 10 * i);
+
+      statisticsDelta.put(new StubTest(i, "test " + i), statistics);
+    }
+
+    final ReportStatisticsMessage original =
+      new ReportStatisticsMessage(statisticsDelta);
+
+    final byte[] bytes = write(original);
+
+    final ReportStatisticsMessage received =
+      (ReportStatisticsMessage) read(bytes);
+
+    assertEquals(statisticsDelta, received.getStatisticsDelta());
+    assertTrue(bytes.length < serialisedSize(original));
+
+    final ReportStatisticsMessage empty =
+      new ReportStatisticsMessage(new TestStatisticsMap(statisticsSetFactory));
+
+    assertEquals(empty.getStatisticsDelta(),
+                 ((ReportStatisticsMessage) read(write(empty)))
+                 .getStatisticsDelta());
+  }
+
+  @Test public void testWorkerProcessReportMessage() throws Exception {
+    final State[] states = State.values();
+
+    for (int i = 0; i < states.length; ++i) {
+      final WorkerProcessReportMessage original =
+        new WorkerProcessReportMessage(states[i], (short)i, (short)300);
+
+      final byte[] bytes = write(original);
+
+      // Header, state and two thread counts.
+      assertEquals(11, bytes.length);
+
+      final WorkerProcessReportMessage received =
+        (WorkerProcessReportMessage) read(bytes);
+
+      assertEquals(states[i], received.getState());
+      assertEquals(i, received.getNumberOfRunningThreads());
+      assertEquals(300, received.getMaximumNumberOfThreads());
+    }
+  }
+}
@@ -0,0 +1,182 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link LogHistogram}.
+ *
+ * @author Philip Aston
+ */
+public class TestLogHistogram {
+
+  @Test public void testSmallValuesAreExact() {
+    for (int i = 0; i < 32; ++i) {
+      assertEquals(i, LogHistogram.getBucket(i));
+      assertEquals(i, LogHistogram.getHighestEquivalentValue(i));
+    }
+
+    assertEquals(0, LogHistogram.getBucket(-10));
+  }
+
+  @Test public void testBucketsAreContiguous() {
+    int lastBucket = LogHistogram.getBucket(31);
+
+    for (long v = 32; v < 100000; ++v) {
+      final int bucket = LogHistogram.getBucket(v);
+
+      assertTrue(bucket == lastBucket || bucket == lastBucket + 1);
+
+      if (bucket != lastBucket) {
+        assertEquals(v - 1, LogHistogram.getHighestEquivalentValue(lastBucket));
+      }
+
+      lastBucket = bucket;
+    }
+  }
+
+  @Test public void testPrecision() {
+    final Random random = new Random(99);
+
+    for (int i = 0; i < 10000; ++i) {
+      final long v =
+        Math.abs(random.nextLong()) >>> (64 - LogHistogram.MAXIMUM_VALUE_BITS);
+
+      final int bucket = LogHistogram.getBucket(v);
+      assertTrue(bucket < LogHistogram.NUMBER_OF_BUCKETS);
+
+      final long highest = LogHistogram.getHighestEquivalentValue(bucket);
+      assertTrue(highest >= v);
+      assertTrue(v + " -> " + highest, highest - v <= v / 16);
+    }
+  }
+
+  @Test public void testLargeValues() {
+    assertEquals(LogHistogram.NUMBER_OF_BUCKETS - 1,
+                 LogHistogram.getBucket(Long.MAX_VALUE));
+
+    assertEquals(LogHistogram.NUMBER_OF_BUCKETS - 1,
+                 LogHistogram.getBucket(
+                   (1L << LogHistogram.MAXIMUM_VALUE_BITS) - 1));
+
+    assertEquals((1L << LogHistogram.MAXIMUM_VALUE_BITS) - 1,
+                 LogHistogram.getHighestEquivalentValue(
+                   LogHistogram.NUMBER_OF_BUCKETS - 1));
+  }
+
+  @Test public void testPercentile() {
+    final LogHistogram histogram = new LogHistogram();
+
+    assertEquals(0, histogram.getPercentile(50));
+
+    histogram.increment(10, 90);
+    histogram.record(1000);
+    histogram.increment(LogHistogram.getBucket(1000), 8);
+    histogram.record(50000);
+
+    assertEquals(10, histogram.getPercentile(0));
+    assertEquals(10, histogram.getPercentile(90));
+    assertEquals(1023, histogram.getPercentile(90.1));
+    assertEquals(1023, histogram.getPercentile(99));
+    assertEquals(51199, histogram.getPercentile(99.5));
+    assertEquals(51199, histogram.getPercentile(100));
+    assertEquals(51199, histogram.getPercentile(200));
+  }
+
+  @Test public void testCompactStorage() {
+    final LogHistogram histogram = new LogHistogram();
+
+    assertTrue(histogram.isZero());
+    assertEquals(-1, histogram.nextNonZeroBucket(0));
+    assertEquals(0, histogram.getCount(100));
+
+    histogram.record(100000);
+    histogram.record(100000);
+    histogram.record(3);
+    histogram.record(Long.MAX_VALUE);
+
+    assertFalse(histogram.isZero());
+    assertEquals(3, histogram.nextNonZeroBucket(0));
+    assertEquals(1, histogram.getCount(3));
+
+    final int bucket = LogHistogram.getBucket(100000);
+    assertEquals(bucket, histogram.nextNonZeroBucket(4));
+    assertEquals(2, histogram.getCount(bucket));
+    assertEquals(LogHistogram.NUMBER_OF_BUCKETS - 1,
+                 histogram.nextNonZeroBucket(bucket + 1));
+    assertEquals(-1,
+                 histogram.nextNonZeroBucket(LogHistogram.NUMBER_OF_BUCKETS));
+
+    histogram.reset();
+    assertTrue(histogram.isZero());
+  }
+
+  @Test public void testAddAndEquals() {
+    final LogHistogram h1 = new LogHistogram();
+    final LogHistogram h2 = new LogHistogram();
+
+    assertEquals(h1, h2);
+    assertEquals(h1.hashCode(), h2.hashCode());
+
+    h1.record(5);
+    h2.record(1000000);
+    assertFalse(h1.equals(h2));
+
+    final LogHistogram sum = new LogHistogram();
+    sum.add(h2);
+    sum.add(h1);
+
+    // First allocation covers a wide range.
+    final LogHistogram wide = new LogHistogram();
+    final LogHistogram h3 = new LogHistogram();
+    h3.record(5);
+    h3.record(1000000);
+    wide.add(h3);
+    assertEquals(h3, wide);
+    sum.add(new LogHistogram());
+
+    final LogHistogram expected = new LogHistogram();
+    expected.record(1000000);
+    expected.record(5);
+
+    assertEquals(expected, sum);
+    assertEquals(expected.hashCode(), sum.hashCode());
+    assertEquals(sum, sum.copy());
+
+    // Equality does not depend on storage.
+    final LogHistogram reset = new LogHistogram();
+    reset.record(999);
+    reset.reset();
+    assertEquals(new LogHistogram(), reset);
+    assertEquals(new LogHistogram().hashCode(), reset.hashCode());
+    assertFalse(sum.equals(reset));
+    assertFalse(sum.equals(null));
+  }
+}
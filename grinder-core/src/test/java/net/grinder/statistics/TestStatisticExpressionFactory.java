@@ -435,6 +435,47 @@ public class TestStatisticExpressionFactory {
     }
   }
 
+  @Test public void testPercentile() throws Exception {
+    final StatisticExpression p50 =
+      m_factory.createExpression("(percentile timedTests 50)");
+    final StatisticExpression p99 =
+      m_factory.createExpression("(percentile timedTests 99.0)");
+
+    assertTrue(!p50.isDouble());
+    myAssertEquals(0, p50);
+    myAssertEquals(0, p99);
+
+    for (int i = 1; i <= 100; ++i) {
+      m_statistics.addSample(m_indexMap.getLongSampleIndex("timedTests"), i);
+    }
+
+    // Values below 32 have a bucket each.
+    myAssertEquals(31,
+                   m_factory.createExpression("(percentile timedTests 31)"));
+    myAssertEquals(51, p50);
+    myAssertEquals(99, p99);
+    myAssertEquals(103,
+                   m_factory.createExpression("(percentile timedTests 100)"));
+
+    final String[] invalid = {
+      "(percentile userLong0 50)",
+      "(percentile timedTests)",
+      "(percentile timedTests foo)",
+      "(percentile timedTests 101)",
+      "(percentile timedTests -1)",
+      "(percentile timedTests 50 50)",
+    };
+
+    for (String expression : invalid) {
+      try {
+        m_factory.createExpression(expression);
+        fail("Expected ParseException for " + expression);
+      }
+      catch (ParseException e) {
+      }
+    }
+  }
+
   @Test public void testDoubleSample() throws Exception {
     try {
       final StatisticsIndexMap.DoubleIndex sumIndex =
@@ -0,0 +1,124 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.statistics;
+
+import junit.framework.TestCase;
+
+import net.grinder.statistics.StatisticsIndexMap.LongIndex;
+import net.grinder.statistics.StatisticsIndexMap.LongSampleIndex;
+
+
+/**
+ * Unit tests for {@link StatisticsAccumulator}.
+ *
+ * @author Philip Aston
+ */
+public class TestStatisticsAccumulator extends TestCase {
+
+  private final StatisticsServices m_statisticsServices =
+    StatisticsServicesImplementation.getInstance();
+
+  private final StatisticsSetFactory m_factory =
+    m_statisticsServices.getStatisticsSetFactory();
+
+  private final StatisticsIndexMap m_indexMap =
+    m_statisticsServices.getStatisticsIndexMap();
+
+  public void testAddAndDrain() throws Exception {
+    final LongIndex errorsIndex = m_indexMap.getLongIndex("errors");
+    final LongSampleIndex timedTestsIndex =
+      m_indexMap.getLongSampleIndex("timedTests");
+
+    final StatisticsAccumulator accumulator = m_factory.createAccumulator();
+
+    final StatisticsSet target = m_factory.create();
+    accumulator.drainTo(target);
+    assertTrue(target.isZero());
+    assertFalse(target.isComposite());
+
+    final StatisticsSet expected = m_factory.create();
+
+    for (int i = 0; i < 10; ++i) {
+      final StatisticsSet statistics = m_factory.create();
+      statistics.addSample(timedTestsIndex, i * 10);
+      accumulator.add(statistics);
+      expected.add(statistics);
+    }
+
+    accumulator.add(m_factory.create());
+    accumulator.addValue(errorsIndex, 2);
+    expected.addValue(errorsIndex, 2);
+
+    assertTrue(target.isZero());
+
+    accumulator.drainTo(target);
+    assertEquals(expected, target);
+    assertEquals(10, target.getCount(timedTestsIndex));
+    assertEquals(450, target.getSum(timedTestsIndex));
+    assertEquals(2, target.getValue(errorsIndex));
+    assertEquals(expected.getPercentile(timedTestsIndex, 0.9),
+                 target.getPercentile(timedTestsIndex, 0.9));
+
+    // Drained statistics are reset.
+    accumulator.drainTo(target);
+    assertEquals(expected, target);
+
+    accumulator.setIsComposite();
+    accumulator.drainTo(target);
+    assertTrue(target.isComposite());
+    assertEquals(10, target.getCount(timedTestsIndex));
+  }
+
+  public void testConcurrentDrain() throws Exception {
+    final LongSampleIndex timedTestsIndex =
+      m_indexMap.getLongSampleIndex("timedTests");
+
+    final StatisticsAccumulator accumulator = m_factory.createAccumulator();
+    final StatisticsSet target = m_factory.create();
+
+    final StatisticsSet statistics = m_factory.create();
+    statistics.addSample(timedTestsIndex, 123);
+
+    final int n = 100000;
+
+    final Thread writer = new Thread() {
+      public void run() {
+        for (int i = 0; i < n; ++i) {
+          accumulator.add(statistics);
+        }
+      }
+    };
+
+    writer.start();
+
+    while (writer.isAlive()) {
+      accumulator.drainTo(target);
+    }
+
+    writer.join();
+    accumulator.drainTo(target);
+
+    assertEquals(n, target.getCount(timedTestsIndex));
+    assertEquals(n * 123L, target.getSum(timedTestsIndex));
+  }
+}
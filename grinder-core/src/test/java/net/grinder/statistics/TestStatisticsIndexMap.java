@@ -144,4 +144,44 @@ public class TestStatisticsIndexMap extends TestCase {
     expectedDoubles.assertEmpty();
     expectedTransientLongs.assertEmpty();
   }
+
+  public void testHistograms() throws Exception {
+    final LongSampleIndex timedTests =
+      m_indexMap.getLongSampleIndex("timedTests");
+    assertNotNull(timedTests.getHistogramIndex());
+    assertEquals(0, timedTests.getHistogramIndex().getValue());
+    final LongSampleIndex timedTestsMicros =
+      m_indexMap.getLongSampleIndex("timedTestsMicros");
+    assertEquals(1, timedTestsMicros.getHistogramIndex().getValue());
+    final LongSampleIndex ticketWait =
+      m_indexMap.getLongSampleIndex("ticketWait");
+    assertEquals(2, ticketWait.getHistogramIndex().getValue());
+    final LongSampleIndex barrierReleaseLatency =
+      m_indexMap.getLongSampleIndex("barrierReleaseLatency");
+    assertEquals(3, barrierReleaseLatency.getHistogramIndex().getValue());
+    assertEquals(4, m_indexMap.getNumberOfHistograms());
+
+    final StatisticsIndexMap map =
+        new StatisticsIndexMap(asList("l1"),
+                               asList("d1"),
+                               asList("t1"),
+                               asList("ls1", "ls2", "ls3"),
+                               asList("ls1", "ls3"));
+
+    assertEquals(2, map.getNumberOfHistograms());
+    assertEquals(0,
+                 map.getLongSampleIndex("ls1").getHistogramIndex().getValue());
+    assertNull(map.getLongSampleIndex("ls2").getHistogramIndex());
+    assertEquals(1,
+                 map.getLongSampleIndex("ls3").getHistogramIndex().getValue());
+
+    final StatisticsIndexMap noHistograms =
+        new StatisticsIndexMap(asList("l1"),
+                               asList("d1"),
+                               asList("t1"),
+                               asList("ls1"));
+
+    assertEquals(0, noHistograms.getNumberOfHistograms());
+    assertNull(noHistograms.getLongSampleIndex("ls1").getHistogramIndex());
+  }
 }
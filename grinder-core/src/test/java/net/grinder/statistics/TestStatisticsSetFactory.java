@@ -108,4 +108,36 @@ public class TestStatisticsSetFactory extends TestCase {
     assertEquals(original0, received0);
     assertEquals(original1, received1);
   }
+
+  public void testRawValues() throws Exception {
+    final StatisticsSetFactory factory =
+      m_statisticsServices.getStatisticsSetFactory();
+
+    final StatisticsIndexMap indexMap =
+      m_statisticsServices.getStatisticsIndexMap();
+
+    final long[] values = new long[factory.getNumberOfRawValues()];
+
+    final StatisticsSet zero = factory.create();
+    factory.getRawValues(zero, values);
+    final StatisticsSet zeroCopy = factory.createFromRawValues(values);
+    assertEquals(zero, zeroCopy);
+    assertTrue(zeroCopy.isZero());
+    assertFalse(zeroCopy.isComposite());
+
+    final StatisticsSet original = factory.create();
+    original.addValue(indexMap.getLongIndex("userLong0"), 123);
+    original.addValue(indexMap.getDoubleIndex("userDouble2"), -0.5);
+    original.setIsComposite();
+
+    factory.getRawValues(original, values);
+    final StatisticsSet copy = factory.createFromRawValues(values);
+
+    assertEquals(original, copy);
+    assertFalse(copy.isZero());
+    assertTrue(copy.isComposite());
+    assertEquals(-0.5,
+                 copy.getValue(indexMap.getDoubleIndex("userDouble2")),
+                 0);
+  }
 }
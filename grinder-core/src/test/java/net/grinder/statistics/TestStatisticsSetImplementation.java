@@ -1,5 +1,5 @@
 // Copyright (C) 2000 Paco Gomez
-// Copyright (C) 2000 - 2011 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -30,6 +30,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Random;
@@ -335,6 +337,44 @@ public class TestStatisticsSetImplementation {
     assertDoublesEqual(0, rawStatistics1.getVariance(longSampleIndex));
   }
 
+  @Test public void testHistogram() throws Exception {
+    final StatisticsIndexMap.LongSampleIndex timedTests =
+      m_indexMap.getLongSampleIndex("timedTests");
+
+    final StatisticsSetImplementation statistics0 =
+      new StatisticsSetImplementation(m_indexMap);
+
+    assertEquals(0, statistics0.getPercentile(timedTests, 50));
+
+    for (int i = 1; i <= 10; ++i) {
+      statistics0.addSample(timedTests, i);
+    }
+
+    assertEquals(5, statistics0.getPercentile(timedTests, 50));
+    assertEquals(10, statistics0.getPercentile(timedTests, 100));
+
+    final StatisticsSetImplementation statistics1 =
+      new StatisticsSetImplementation(m_indexMap);
+    statistics1.addSample(timedTests, 10);
+    assertNotEquals(statistics0, statistics1);
+
+    final StatisticsSet snapshot = statistics0.snapshot();
+    assertEquals(statistics0, snapshot);
+
+    statistics1.add(statistics0);
+    assertEquals(11, statistics1.getCount(timedTests));
+    assertEquals(10, statistics1.getPercentile(timedTests, 90));
+
+    statistics0.reset(timedTests);
+    assertEquals(0, statistics0.getPercentile(timedTests, 100));
+    assertEquals(new StatisticsSetImplementation(m_indexMap), statistics0);
+    assertEquals(5, snapshot.getPercentile(timedTests, 50));
+
+    statistics1.reset();
+    assertEquals(0, statistics1.getPercentile(timedTests, 100));
+    assertTrue(statistics1.isZero());
+  }
+
   @Test public void testDoubleSampleReadAndWrite() throws Exception {
     try {
       final StatisticsIndexMap.DoubleIndex sumIndex = m_indexMap
@@ -451,6 +491,83 @@ public class TestStatisticsSetImplementation {
     assertEquals(original1, received1);
   }
 
+  @Test public void testSparseSerialisation() throws Exception {
+    final Serialiser serialiser = new Serialiser();
+
+    final ByteArrayOutputStream zeroBytes = new ByteArrayOutputStream();
+    final DataOutputStream zeroStream = new DataOutputStream(zeroBytes);
+    new StatisticsSetImplementation(m_indexMap)
+      .writeExternal(zeroStream, serialiser);
+    zeroStream.close();
+
+    final StatisticsSetImplementation original =
+      new StatisticsSetImplementation(m_indexMap);
+    original.addValue(m_longIndex2, 5);
+
+    final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(byteOutputStream);
+    original.writeExternal(out, serialiser);
+    out.close();
+
+    // Bitmaps, composite flag, and an empty histogram.
+    final int expectedZeroSize =
+      (m_indexMap.getNumberOfLongs() + 7) / 8 +
+      (m_indexMap.getNumberOfDoubles() + 7) / 8 +
+      2;
+
+    assertEquals(expectedZeroSize, zeroBytes.size());
+
+    // One more byte for the single small value.
+    assertEquals(expectedZeroSize + 1, byteOutputStream.size());
+
+    final StatisticsSetImplementation received =
+      new StatisticsSetImplementation(
+        m_indexMap,
+        new DataInputStream(
+          new ByteArrayInputStream(byteOutputStream.toByteArray())),
+        serialiser);
+
+    assertEquals(original, received);
+    assertEquals(5, received.getValue(m_longIndex2));
+    assertEquals(0, received.getValue(m_longIndex0));
+  }
+
+  @Test public void testHistogramSerialisation() throws Exception {
+    final StatisticsIndexMap.LongSampleIndex timedTests =
+      m_indexMap.getLongSampleIndex("timedTests");
+
+    final StatisticsSetImplementation original =
+      new StatisticsSetImplementation(m_indexMap);
+    original.addSample(timedTests, 3);
+    original.addSample(timedTests, 3);
+    original.addSample(timedTests, 12345);
+    original.addSample(timedTests, 999999);
+
+    final ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
+
+    final ObjectOutputStream objectOutputStream =
+      new ObjectOutputStream(byteOutputStream);
+
+    final Serialiser serialiser = new Serialiser();
+
+    original.writeExternal(objectOutputStream, serialiser);
+
+    objectOutputStream.close();
+
+    final ObjectInputStream objectInputStream = new ObjectInputStream(
+      new ByteArrayInputStream(byteOutputStream.toByteArray()));
+
+    final StatisticsSetImplementation received =
+      new StatisticsSetImplementation(m_indexMap,
+                                      objectInputStream,
+                                      serialiser);
+
+    assertEquals(original, received);
+    assertEquals(3, received.getPercentile(timedTests, 50));
+    assertEquals(original.getPercentile(timedTests, 75),
+                 received.getPercentile(timedTests, 75));
+  }
+
   @Test public void testEqualsMiscellanea() throws Exception {
     final StatisticsSet rawStatistics0 =
       new StatisticsSetImplementation(m_indexMap);
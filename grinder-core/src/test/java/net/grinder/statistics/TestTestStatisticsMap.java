@@ -1,4 +1,4 @@
-// Copyright (C) 2001 - 2009 Philip Aston
+// Copyright (C) 2001 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -23,6 +23,8 @@ package net.grinder.statistics;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
@@ -234,6 +236,35 @@ public class TestTestStatisticsMap extends TestCase {
     }
   }
 
+  public void testSerialisationOmitsZeroStatistics() throws Exception {
+
+    final TestStatisticsMap original =
+      new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
+    original.put(m_test0, m_statistics1);
+    original.put(m_test1, m_statistics0);
+    original.put(m_test2, m_statistics1);
+
+    final ByteArrayOutputStream byteOutputStream =
+      new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(byteOutputStream);
+
+    original.write(out);
+    out.close();
+
+    final TestStatisticsMap received =
+      new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
+
+    received.read(
+      new DataInputStream(
+        new ByteArrayInputStream(byteOutputStream.toByteArray())));
+
+    assertEquals(1, received.size());
+
+    final Pair pair = extract(received).get(0);
+    assertEquals(m_test1.getNumber(), pair.getTest().getNumber());
+    assertEquals(m_statistics0, pair.getStatisticsSet());
+  }
+
   public void testTotalsMethods() throws Exception {
     final TestStatisticsMap map =
       new TestStatisticsMap(m_statisticsServices.getStatisticsSetFactory());
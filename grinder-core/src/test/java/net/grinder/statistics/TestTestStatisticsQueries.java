@@ -50,6 +50,8 @@ public class TestTestStatisticsQueries extends TestCase {
       statisticsIndexMap.getLongIndex("untimedTests");
     final StatisticsIndexMap.LongSampleIndex timedTestsIndex =
       statisticsIndexMap.getLongSampleIndex("timedTests");
+    final StatisticsIndexMap.LongSampleIndex timedTestsMicrosIndex =
+      statisticsIndexMap.getLongSampleIndex("timedTestsMicros");
 
     final StatisticsSet statistics0 =
       new StatisticsSetImplementation(
@@ -91,6 +93,12 @@ public class TestTestStatisticsQueries extends TestCase {
     statistics0.addSample(timedTestsIndex, 10);
     statistics1.addSample(timedTestsIndex, 5);
     assertEquals(statistics0, statistics1);
+
+    statistics1.addSample(timedTestsMicrosIndex, 5250);
+    statistics1.addSample(timedTestsMicrosIndex, 9750);
     assertEquals(7.5d, queries.getAverageTestTime(statistics1), 0.01);
+
+    statistics1.addSample(timedTestsMicrosIndex, 3);
+    assertEquals(5.001d, queries.getAverageTestTime(statistics1), 0.00001);
   }
 }
@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2011 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,6 +21,8 @@
 
 package net.grinder.synchronisation;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
@@ -29,25 +31,28 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
+import net.grinder.common.processidentity.ProcessIdentity;
+import net.grinder.common.processidentity.WorkerIdentity;
 import net.grinder.communication.MessageDispatchRegistry;
 import net.grinder.communication.Sender;
 import net.grinder.communication.MessageDispatchRegistry.AbstractHandler;
 import net.grinder.synchronisation.BarrierGroup.Listener;
-import net.grinder.synchronisation.messages.AddBarrierMessage;
-import net.grinder.synchronisation.messages.AddWaiterMessage;
+import net.grinder.engine.agent.StubAgentIdentity;
 import net.grinder.synchronisation.messages.BarrierIdentity;
-import net.grinder.synchronisation.messages.CancelWaiterMessage;
+import net.grinder.synchronisation.messages.BarrierStateMessage;
 import net.grinder.synchronisation.messages.OpenBarrierMessage;
-import net.grinder.synchronisation.messages.RemoveBarriersMessage;
 import net.grinder.testutility.MockingUtilities.TypedArgumentMatcher;
+import net.grinder.util.TimeAuthority;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -67,20 +72,52 @@ public class TestClientBarrierGroups {
 
   private static final BarrierIdentity ID1 = new BarrierIdentity() {};
   private static final BarrierIdentity ID2 = new BarrierIdentity() {};
+  private static final BarrierIdentity ID3 = new BarrierIdentity() {};
 
   @Mock private Sender m_sender;
   @Mock private MessageDispatchRegistry m_messageDispatch;
+  @Mock private TimeAuthority m_timeAuthority;
   @Captor
   private ArgumentCaptor<AbstractHandler<OpenBarrierMessage>> m_handlerCaptor;
 
+  private final StubAgentIdentity m_agent = new StubAgentIdentity("agent");
+  private final WorkerIdentity m_worker = m_agent.createWorkerIdentity();
+  private final WorkerIdentity m_otherWorker = m_agent.createWorkerIdentity();
+
   private int m_awakenCount = 0;
+  private Set<BarrierIdentity> m_lastAwoken;
 
   private ClientBarrierGroups m_groups;
 
   @Before public void setUp() {
     MockitoAnnotations.initMocks(this);
 
-    m_groups = new ClientBarrierGroups(m_sender, m_messageDispatch);
+    m_groups = new ClientBarrierGroups(m_sender,
+                                       m_messageDispatch,
+                                       m_worker,
+                                       m_timeAuthority);
+  }
+
+  private OpenBarrierMessage open(String name,
+                                  long released,
+                                  WorkerIdentity lastArrival,
+                                  long lastArrivalTime) {
+    final Map<ProcessIdentity, Long> releasedMap =
+      new HashMap<ProcessIdentity, Long>();
+    releasedMap.put(m_worker, released);
+    releasedMap.put(m_otherWorker, 10L);
+
+    return new OpenBarrierMessage(name,
+                                  releasedMap,
+                                  lastArrival,
+                                  lastArrivalTime);
+  }
+
+  private AbstractHandler<OpenBarrierMessage> getHandler() {
+    verify(m_messageDispatch).set(eq(OpenBarrierMessage.class),
+                                  m_handlerCaptor.capture());
+
+    return m_handlerCaptor.getValue();
   }
 
   @Test public void testCreateAndRetrieve() throws Exception {
@@ -97,8 +134,8 @@ public class TestClientBarrierGroups {
 
     a.removeBarriers(1); // Invalidate a.
 
-    verify(m_sender).send(isA(AddBarrierMessage.class));
-    verify(m_sender).send(isA(RemoveBarriersMessage.class));
+    verify(m_sender).send(argThat(new StateMatcher(1, 0, 0, 0)));
+    verify(m_sender).send(argThat(new StateMatcher(0, 0, 0, 0)));
 
     assertNotSame(a, m_groups.getGroup("A"));
 
@@ -107,33 +144,123 @@ public class TestClientBarrierGroups {
 
   @Test public void testMessageHandler() throws Exception {
 
-    verify(m_messageDispatch).set(eq(OpenBarrierMessage.class),
-                                  m_handlerCaptor.capture());
-
-    final AbstractHandler<OpenBarrierMessage> handler =
-      m_handlerCaptor.getValue();
+    final AbstractHandler<OpenBarrierMessage> handler = getHandler();
 
-    final OpenBarrierMessage message = mock(OpenBarrierMessage.class);
-    when(message.getName()).thenReturn("A");
+    final OpenBarrierMessage message = open("A", 1, null, 0);
 
     handler.handle(message);
     assertNull(m_groups.getExistingGroup("A"));
     assertEquals(0, m_awakenCount);
 
-    createBarrierGroup("A");
+    final BarrierGroup bg = createBarrierGroup("A");
+    bg.addBarrier();
+    bg.addBarrier();
+    bg.addWaiter(ID1);
     assertEquals(0, m_awakenCount);
     handler.handle(message);
     assertEquals(1, m_awakenCount);
+    assertEquals(singleton(ID1), m_lastAwoken);
+
+    verify(m_sender).send(argThat(new StateMatcher(2, 0, 1, 1)));
+
+    // Duplicate.
+    handler.handle(message);
+    assertEquals(1, m_awakenCount);
 
     verifyNoMoreInteractions(m_messageDispatch);
   }
 
+  @Test public void testOpenReleasesCountedWaiters() throws Exception {
+
+    final AbstractHandler<OpenBarrierMessage> handler = getHandler();
+
+    final BarrierGroup bg = createBarrierGroup("A");
+    bg.addBarrier();
+    bg.addBarrier();
+    bg.addBarrier();
+
+    bg.addWaiter(ID1);
+    bg.addWaiter(ID2);
+    bg.cancelWaiter(ID1);
+    bg.addWaiter(ID3);
+
+    verify(m_sender).send(argThat(new StateMatcher(3, 2, 3, 0)));
+
+    // The console only counted ID1 and ID2.
+    handler.handle(open("A", 2, null, 0));
+    assertEquals(1, m_awakenCount);
+    assertEquals(singleton(ID2), m_lastAwoken);
+
+    verify(m_sender).send(argThat(new StateMatcher(3, 1, 3, 2)));
+
+    handler.handle(open("A", 3, null, 0));
+    assertEquals(2, m_awakenCount);
+    assertEquals(singleton(ID3), m_lastAwoken);
+
+    // A new group with the same name continues the sequence.
+    bg.removeBarriers(3);
+    final BarrierGroup bg2 = createBarrierGroup("A");
+    bg2.addBarrier();
+    bg2.addWaiter(ID1);
+
+    verify(m_sender).send(argThat(new StateMatcher(1, 1, 4, 3)));
+  }
+
+  @Test public void testReleaseLatency() throws Exception {
+
+    final AbstractHandler<OpenBarrierMessage> handler = getHandler();
+
+    assertEquals(0, m_groups.getReleases());
+
+    when(m_timeAuthority.getTimeInNanoseconds()).thenReturn(5000000L);
+
+    handler.handle(open("A", 0, m_otherWorker, 1000000L));
+    assertEquals(0, m_groups.getReleases());
+
+    handler.handle(open("A", 0, m_worker, 1000000L));
+    handler.handle(open("A", 0, m_worker, 3000000L));
+
+    assertEquals(2, m_groups.getReleases());
+    assertEquals(6000, m_groups.getTotalReleaseLatency());
+    assertEquals(4000, m_groups.getMaximumReleaseLatency());
+  }
+
+  @Test public void testTakeReleaseLatency() throws Exception {
+
+    final AbstractHandler<OpenBarrierMessage> handler = getHandler();
+
+    when(m_timeAuthority.getTimeInNanoseconds()).thenReturn(5000000L);
+
+    final BarrierGroup bg = createBarrierGroup("A");
+    bg.addBarrier();
+    bg.addBarrier();
+    bg.addBarrier();
+    bg.addWaiter(ID1);
+    bg.addWaiter(ID2);
+
+    // Released by another worker, so we have no latency.
+    handler.handle(open("A", 1, m_otherWorker, 1000000L));
+    assertEquals(singleton(ID1), m_lastAwoken);
+    assertEquals(-1, bg.takeReleaseLatency(ID1));
+
+    bg.addWaiter(ID3);
+
+    // The latency is credited to our waiter that arrived last.
+    handler.handle(open("A", 3, m_worker, 2000000L));
+    assertEquals(new HashSet<BarrierIdentity>(asList(ID2, ID3)),
+                 m_lastAwoken);
+    assertEquals(-1, bg.takeReleaseLatency(ID2));
+    assertEquals(3000, bg.takeReleaseLatency(ID3));
+    assertEquals(-1, bg.takeReleaseLatency(ID3));
+  }
+
   private BarrierGroup createBarrierGroup(String groupName) {
     final BarrierGroup bg = m_groups.getGroup(groupName);
 
     bg.addListener(new Listener() {
         public void awaken(Set<BarrierIdentity> waiters) {
           ++m_awakenCount;
+          m_lastAwoken = waiters;
         }
       });
 
@@ -153,14 +280,15 @@ public class TestClientBarrierGroups {
     bg.addBarrier();
     bg.addBarrier();
 
-    verify(m_sender, times(2)).send(isA(AddBarrierMessage.class));
+    verify(m_sender).send(argThat(new StateMatcher(1, 0, 0, 0)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 0, 0, 0)));
 
     bg.addWaiter(ID1);
 
     bg.addWaiter(ID2);
 
-    verify(m_sender).send(argThat(new AddWaiterMessageMatcher(ID1)));
-    verify(m_sender).send(argThat(new AddWaiterMessageMatcher(ID2)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 1, 1, 0)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 2, 2, 0)));
 
     assertEquals(0, m_awakenCount);
 
@@ -188,17 +316,17 @@ public class TestClientBarrierGroups {
     bg.addBarrier();
     bg.addBarrier();
 
-    verify(m_sender, times(3)).send(isA(AddBarrierMessage.class));
+    verify(m_sender, times(3)).send(isA(BarrierStateMessage.class));
 
     bg.addWaiter(ID1);
     bg.addWaiter(ID2);
 
-    verify(m_sender).send(argThat(new AddWaiterMessageMatcher(ID1)));
-    verify(m_sender).send(argThat(new AddWaiterMessageMatcher(ID2)));
+    verify(m_sender).send(argThat(new StateMatcher(3, 1, 1, 0)));
+    verify(m_sender).send(argThat(new StateMatcher(3, 2, 2, 0)));
 
     bg.removeBarriers(1);
 
-    verify(m_sender).send(argThat(new RemoveBarriersMessageMatcher(1)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 2, 2, 0)));
 
     assertEquals(0, m_awakenCount);
 
@@ -272,67 +400,47 @@ public class TestClientBarrierGroups {
     bg.addBarrier();
     bg.addBarrier();
 
-    verify(m_sender, times(2)).send(isA(AddBarrierMessage.class));
+    verify(m_sender, times(2)).send(isA(BarrierStateMessage.class));
 
     bg.addWaiter(ID1);
-    verify(m_sender).send(argThat(new AddWaiterMessageMatcher(ID1)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 1, 1, 0)));
 
     bg.cancelWaiter(ID2); // noop
-    verify(m_sender).send(argThat(new CancelWaiterMessageMatcher(ID2)));
 
     bg.cancelWaiter(ID1);
-    verify(m_sender).send(argThat(new CancelWaiterMessageMatcher(ID1)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 0, 1, 0)));
 
     bg.addWaiter(ID2);
-    verify(m_sender).send(argThat(new AddWaiterMessageMatcher(ID2)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 1, 2, 0)));
 
     bg.addWaiter(ID1);
-    verify(m_sender, times(2)).send(argThat(new AddWaiterMessageMatcher(ID1)));
+    verify(m_sender).send(argThat(new StateMatcher(2, 2, 3, 0)));
 
     assertEquals(0, m_awakenCount);
 
     verifyNoMoreInteractions(m_sender);
   }
 
-  private static class RemoveBarriersMessageMatcher
-    extends TypedArgumentMatcher<RemoveBarriersMessage> {
-
-    private final int m_numberOfBarriers;
-
-    RemoveBarriersMessageMatcher(int numberOfBarriers) {
-      m_numberOfBarriers = numberOfBarriers;
-    }
-
-    @Override protected boolean argumentMatches(RemoveBarriersMessage t) {
-      return t.getNumberOfBarriers() == m_numberOfBarriers;
-    }
-  }
-
-  private static class AddWaiterMessageMatcher
-    extends TypedArgumentMatcher<AddWaiterMessage> {
-
-    private final BarrierIdentity m_barrierIdentity;
-
-    AddWaiterMessageMatcher(BarrierIdentity barrierIdentity) {
-      m_barrierIdentity = barrierIdentity;
-    }
-
-    @Override protected boolean argumentMatches(AddWaiterMessage t) {
-      return t.getBarrierIdentity().equals(m_barrierIdentity);
-    }
-  }
-
-  private static class CancelWaiterMessageMatcher
-    extends TypedArgumentMatcher<CancelWaiterMessage> {
+  private static class StateMatcher
+    extends TypedArgumentMatcher<BarrierStateMessage> {
 
-    private final BarrierIdentity m_barrierIdentity;
+    private final long m_barriers;
+    private final long m_waiters;
+    private final long m_lastWaiter;
+    private final long m_released;
 
-    CancelWaiterMessageMatcher(BarrierIdentity barrierIdentity) {
-      m_barrierIdentity = barrierIdentity;
+    StateMatcher(long barriers, long waiters, long lastWaiter, long released) {
+      m_barriers = barriers;
+      m_waiters = waiters;
+      m_lastWaiter = lastWaiter;
+      m_released = released;
     }
 
-    @Override protected boolean argumentMatches(CancelWaiterMessage t) {
-      return t.getBarrierIdentity().equals(m_barrierIdentity);
+    @Override protected boolean argumentMatches(BarrierStateMessage t) {
+      return t.getBarriers() == m_barriers &&
+             t.getWaiters() == m_waiters &&
+             t.getLastWaiter() == m_lastWaiter &&
+             t.getReleased() == m_released;
     }
   }
 }
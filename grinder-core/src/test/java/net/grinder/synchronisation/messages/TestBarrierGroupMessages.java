@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2011 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,22 +21,23 @@
 
 package net.grinder.synchronisation.messages;
 
-import static java.util.Arrays.asList;
 import static net.grinder.testutility.Serializer.serialize;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 
 import net.grinder.common.processidentity.AgentIdentity;
+import net.grinder.common.processidentity.ProcessIdentity;
 import net.grinder.common.processidentity.WorkerIdentity;
+import net.grinder.communication.Address;
 import net.grinder.communication.CommunicationException;
+import net.grinder.engine.agent.StubAgentIdentity;
 import net.grinder.messages.console.AgentAddress;
 import net.grinder.messages.console.WorkerAddress;
-import net.grinder.synchronisation.BarrierIdentityGenerator;
 
 import org.junit.Test;
 
@@ -48,54 +49,71 @@ import org.junit.Test;
  */
 public class TestBarrierGroupMessages {
 
-  private final BarrierIdentity.Factory m_identityFactory =
-    new BarrierIdentityGenerator(new Integer(1));
+  private final StubAgentIdentity m_agent = new StubAgentIdentity("agent");
 
   @Test public void testOpenBarrierMessage() throws Exception {
 
-    final Set<BarrierIdentity> waiters =
-      new HashSet<BarrierIdentity>(asList(m_identityFactory.next(),
-                                          m_identityFactory.next()));
+    final WorkerIdentity worker1 = m_agent.createWorkerIdentity();
+    final WorkerIdentity worker2 = m_agent.createWorkerIdentity();
 
-    final OpenBarrierMessage message = new OpenBarrierMessage("abc",
-                                                              waiters);
+    final Map<ProcessIdentity, Long> released =
+      new HashMap<ProcessIdentity, Long>();
+    released.put(worker1, 3L);
+    released.put(m_agent, 5L);
+
+    final OpenBarrierMessage message =
+      new OpenBarrierMessage("abc", released, worker1, 123);
 
     final OpenBarrierMessage serialized = serialize(message);
 
     assertEquals("abc", serialized.getName());
-    assertEquals(waiters, message.getWaiters());
+    assertEquals(3, serialized.getReleased(worker1));
+    assertEquals(0, serialized.getReleased(worker2));
+    assertEquals(5, serialized.getReleased(m_agent));
+    assertEquals(worker1, serialized.getLastArrival());
+    assertEquals(123, serialized.getLastArrivalTime());
   }
 
-  @Test public void testAddWaiterMessage() throws Exception {
-    final BarrierIdentity identity = m_identityFactory.next();
+  @Test public void testBarrierStateMessage() throws Exception {
 
-    final AddWaiterMessage message = new AddWaiterMessage("abc", identity);
+    final BarrierStateMessage message =
+      new BarrierStateMessage("abc", 5, 4, 3, 2, 1);
 
-    final AddWaiterMessage serialized = serialize(message);
+    final BarrierStateMessage serialized = serialize(message);
 
     assertEquals("abc", serialized.getName());
-    assertEquals(identity, serialized.getBarrierIdentity());
+    assertEquals(5, serialized.getBarriers());
+    assertEquals(4, serialized.getWaiters());
+    assertEquals(3, serialized.getLastWaiter());
+    assertEquals(2, serialized.getReleased());
+    assertEquals(1, serialized.getTime());
   }
 
   @Test public void testAddressAwareMessage() throws Exception {
 
     final WorkerIdentity identity = mock(WorkerIdentity.class);
 
-    final AddWaiterMessage message =
-      new AddWaiterMessage("abc", m_identityFactory.next());
+    final BarrierStateMessage message =
+      new BarrierStateMessage("abc", 1, 0, 0, 0, 0);
 
     message.setAddress(new WorkerAddress(identity));
 
     assertSame(identity, message.getProcessIdentity());
+
+    final AgentIdentity agentIdentity = mock(AgentIdentity.class);
+
+    message.setAddress(new AgentAddress(agentIdentity));
+
+    assertSame(agentIdentity, message.getProcessIdentity());
   }
 
   @Test public void testAddressAwareMessageBadAddress() throws Exception {
 
-    final AddWaiterMessage message =
-      new AddWaiterMessage("abc", m_identityFactory.next());
+    final BarrierStateMessage message =
+      new BarrierStateMessage("abc", 1, 0, 0, 0, 0);
 
     try {
-      message.setAddress(new AgentAddress(mock(AgentIdentity.class)));
+      message.setAddress(mock(Address.class));
       fail("Expected CommunicationException");
     }
     catch (CommunicationException e) {
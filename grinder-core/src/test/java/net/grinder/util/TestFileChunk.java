@@ -0,0 +1,144 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+import net.grinder.testutility.Serializer;
+import net.grinder.util.FileContents.FileContentsException;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link FileChunk}.
+ *
+ * @author Philip Aston
+ */
+public class TestFileChunk extends AbstractJUnit4FileTestCase {
+
+  private static final Random s_random = new Random();
+
+  @Test public void testCompressibleData() throws Exception {
+    final byte[] data = new byte[1000];
+
+    final FileChunk chunk = new FileChunk(data, 500);
+    assertEquals(FileChunk.Digest.create(data, 500), chunk.getDigest());
+    assertArrayEquals(new byte[500], chunk.getData());
+
+    final FileChunk chunk2 = Serializer.serialize(chunk);
+    assertEquals(chunk.getDigest(), chunk2.getDigest());
+    assertArrayEquals(new byte[500], chunk2.getData());
+
+    assertTrue(chunk.toString().contains("500 bytes"));
+    assertFalse(chunk.toString().contains("500 transferred"));
+  }
+
+  @Test public void testIncompressibleData() throws Exception {
+    final byte[] data = new byte[500];
+    s_random.nextBytes(data);
+
+    final FileChunk chunk = new FileChunk(data, data.length);
+    assertArrayEquals(data, chunk.getData());
+    assertTrue(chunk.toString().contains("500 transferred"));
+
+    final FileChunk chunk2 = Serializer.serialize(chunk);
+    assertArrayEquals(data, chunk2.getData());
+  }
+
+  @Test public void testRead() throws Exception {
+    final byte[] data = new byte[FileContents.CHUNK_SIZE + 100];
+    s_random.nextBytes(data);
+
+    final File file = new File(getDirectory(), "file");
+    final OutputStream out = new FileOutputStream(file);
+    out.write(data);
+    out.close();
+
+    final FileContents contents =
+      new FileContents(getDirectory(), new File("file"));
+
+    final FileChunk chunk0 = FileChunk.read(getDirectory(), contents, 0);
+    assertEquals(contents.getChunkDigests().get(0), chunk0.getDigest());
+    assertEquals(FileContents.CHUNK_SIZE, chunk0.getData().length);
+
+    final FileChunk chunk1 = FileChunk.read(getDirectory(), contents, 1);
+    assertEquals(contents.getChunkDigests().get(1), chunk1.getDigest());
+    assertEquals(100, chunk1.getData().length);
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(FileContents.CHUNK_SIZE);
+    raf.write(~data[FileContents.CHUNK_SIZE]);
+    raf.close();
+
+    assertNotNull(FileChunk.read(getDirectory(), contents, 0));
+
+    try {
+      FileChunk.read(getDirectory(), contents, 1);
+      fail("Expected FileContentsException");
+    }
+    catch (FileContentsException e) {
+    }
+
+    assertTrue(file.delete());
+
+    try {
+      FileChunk.read(getDirectory(), contents, 0);
+      fail("Expected FileContentsException");
+    }
+    catch (FileContentsException e) {
+    }
+  }
+
+  @Test public void testDigest() throws Exception {
+    final byte[] data = new byte[100];
+    s_random.nextBytes(data);
+
+    final FileChunk.Digest digest = FileChunk.Digest.create(data, 100);
+    final FileChunk.Digest digest2 = FileChunk.Digest.create(data, 100);
+    final FileChunk.Digest digest3 = FileChunk.Digest.create(data, 99);
+
+    assertEquals(digest, digest);
+    assertEquals(digest, digest2);
+    assertEquals(digest.hashCode(), digest2.hashCode());
+    assertFalse(digest.equals(digest3));
+    assertFalse(digest.equals(null));
+    assertFalse(digest.equals(this));
+
+    assertEquals(digest, Serializer.serialize(digest));
+
+    assertTrue(digest.toString().matches("[0-9a-f]{40}"));
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2011 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -21,14 +21,12 @@
 
 package net.grinder.util;
 
-import static net.grinder.testutility.FileUtilities.createRandomFile;
-
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 import net.grinder.testutility.AbstractFileTestCase;
-import net.grinder.testutility.AssertUtilities;
 import net.grinder.testutility.Serializer;
 
 
@@ -61,12 +59,18 @@ public class TestFileContents extends AbstractFileTestCase {
         new FileContents(getDirectory(), relativePath);
 
       assertEquals(relativePath, fileContents.getFilename());
-      AssertUtilities.assertArraysEqual(bytes, fileContents.getContents());
+      assertEquals(bytes.length, fileContents.getLength());
+      assertEquals(1, fileContents.getChunkDigests().size());
+      assertEquals(FileChunk.Digest.create(bytes, bytes.length),
+                   fileContents.getChunkDigests().get(0));
+      assertEquals(bytes.length, fileContents.getChunkLength(0));
 
       final FileContents fileContents2 = Serializer.serialize(fileContents);
 
       assertEquals(relativePath, fileContents2.getFilename());
-      AssertUtilities.assertArraysEqual(bytes, fileContents2.getContents());
+      assertEquals(bytes.length, fileContents2.getLength());
+      assertEquals(fileContents.getChunkDigests(),
+                   fileContents2.getChunkDigests());
 
       final String s = fileContents.toString();
       assertTrue(s.indexOf(relativePath.getPath()) >= 0);
@@ -74,6 +78,45 @@ public class TestFileContents extends AbstractFileTestCase {
     }
   }
 
+  public void testChunks() throws Exception {
+    final int chunkSize = FileContents.CHUNK_SIZE;
+
+    final byte[] chunk = new byte[chunkSize];
+    s_random.nextBytes(chunk);
+
+    final byte[] tail = new byte[10];
+    s_random.nextBytes(tail);
+
+    final File file = new File(getDirectory(), "file");
+    final OutputStream outputStream = new FileOutputStream(file);
+    outputStream.write(chunk);
+    outputStream.write(chunk);
+    outputStream.write(tail);
+    outputStream.close();
+
+    final FileContents fileContents =
+      new FileContents(getDirectory(), new File("file"));
+
+    assertEquals(2 * chunkSize + tail.length, fileContents.getLength());
+
+    final List<FileChunk.Digest> digests = fileContents.getChunkDigests();
+    assertEquals(3, digests.size());
+    assertEquals(digests.get(0), digests.get(1));
+    assertEquals(FileChunk.Digest.create(tail, tail.length), digests.get(2));
+
+    assertEquals(chunkSize, fileContents.getChunkLength(0));
+    assertEquals(chunkSize, fileContents.getChunkLength(1));
+    assertEquals(tail.length, fileContents.getChunkLength(2));
+
+    assertTrue(new File(getDirectory(), "empty").createNewFile());
+
+    final FileContents empty =
+      new FileContents(getDirectory(), new File("empty"));
+
+    assertEquals(0, empty.getLength());
+    assertEquals(0, empty.getChunkDigests().size());
+  }
+
   public void testBadConstruction() throws Exception {
 
     try {
@@ -90,34 +133,4 @@ public class TestFileContents extends AbstractFileTestCase {
     catch (FileContents.FileContentsException e) {
     }
   }
-
-  public void testCreate() throws Exception {
-
-    final String[] files = {
-      "file1",
-      "another/file",
-    };
-
-    for (int i=0; i<files.length; ++i ) {
-      final File relativePath = new File(files[i]);
-      final File fullPath = new File(getDirectory(), relativePath.getPath());
-
-      createRandomFile(fullPath);
-
-      final FileContents fileContents =
-        new FileContents(getDirectory(), relativePath);
-
-      final File outputDirectory = new File(getDirectory(), "output");
-      outputDirectory.mkdir();
-
-      fileContents.create(new Directory(outputDirectory));
-
-      final FileContents fileContents2 =
-        new FileContents(outputDirectory, relativePath);
-
-      assertEquals(fileContents.getFilename(), fileContents2.getFilename());
-      AssertUtilities.assertArraysEqual(fileContents.getContents(),
-                                        fileContents2.getContents());
-    }
-  }
 }
@@ -0,0 +1,574 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+
+import net.grinder.common.GrinderException;
+import net.grinder.plugin.http.dns.Resolver;
+import net.grinder.plugin.http.dns.SystemResolver;
+import net.grinder.plugin.http.nio.Exchange;
+import net.grinder.plugin.http.nio.NIOHTTPEngine;
+import net.grinder.plugininterface.PluginException;
+import net.grinder.plugininterface.PluginThreadContext;
+import net.grinder.script.Grinder.ScriptContext;
+import net.grinder.script.InvalidContextException;
+import net.grinder.script.Statistics;
+import net.grinder.script.Statistics.StatisticsForTest;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.util.TimeAuthority;
+import HTTPClient.NVPair;
+import HTTPClient.ParseException;
+import HTTPClient.URI;
+
+
+/**
+ * Asynchronous HTTP client that allows a worker thread to have many requests
+ * in flight.
+ *
+ * <p>
+ * Requests are executed by a process-wide {@link NIOHTTPEngine}. A small
+ * number of engine threads (set by the {@code grinder.http.nio.threads}
+ * property) service the connections for all worker threads, so each simulated
+ * user costs an {@link Exchange} rather than a thread. A script typically
+ * issues a request for each of its users, and then waits for the responses:
+ * </p>
+ *
+ * <pre>
+ * client = HTTPPluginControl.getThreadAsyncHTTPClient()
+ *
+ * def users():
+ *   for url in urls: client.GET(url)
+ *   return client.awaitAll()
+ *
+ * Test(1, "Users").record(users)
+ * </pre>
+ *
+ * <p>
+ * Statistics are recorded against the current test when {@link #await} or
+ * {@link #awaitAll} is called, so a test should wrap the call that waits for
+ * the responses. The statistics are the same as those recorded by
+ * {@link HTTPRequest}. The clock is paused whilst they are recorded.
+ * </p>
+ *
+ * <p>
+ * {@link #awaitAll} records a single sample for all of the exchanges it
+ * waits for: the response lengths, times to first byte, DNS times, connect
+ * times, errors and connections are added together, and the response
+ * status is the highest status code. To record a sample for each exchange,
+ * wrap {@link #await} in a test instead.
+ * </p>
+ *
+ * <p>
+ * Alternatively, an {@link Exchange.Listener} can be supplied to process each
+ * response on an engine thread. Listeners must not block, and cannot record
+ * statistics.
+ * </p>
+ *
+ * <p>
+ * Instances are obtained from
+ * {@link HTTPPluginControl#getThreadAsyncHTTPClient()} and should only be
+ * used by the worker thread that obtained them. Only the {@code http} scheme
+ * is supported, and the HTTPClient modules (cookies, redirects,
+ * authorization, content and transfer encoding), proxies, bandwidth
+ * limiting, and HTTP/2 are not available. For this reason, this is not an
+ * {@link HTTPPluginConnection}.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class AsyncHTTPClient {
+
+  private final ScriptContext m_scriptContext;
+  private final PluginThreadContext m_threadContext;
+  private final NIOHTTPEngine m_engine;
+  private final TimeAuthority m_timeAuthority;
+
+  private final List<Exchange> m_outstanding = new ArrayList<Exchange>();
+
+  private NVPair[] m_defaultHeaders;
+  private int m_timeout;
+  private InetAddress m_localAddress;
+  private Resolver m_resolver = new SystemResolver();
+
+  AsyncHTTPClient(ScriptContext scriptContext,
+                  PluginThreadContext threadContext,
+                  NIOHTTPEngine engine,
+                  TimeAuthority timeAuthority,
+                  HTTPPluginConnectionDefaults defaults) {
+    m_scriptContext = scriptContext;
+    m_threadContext = threadContext;
+    m_engine = engine;
+    m_timeAuthority = timeAuthority;
+    m_defaultHeaders = defaults.getDefaultHeaders();
+    m_timeout = defaults.getTimeout();
+    m_localAddress = defaults.getLocalAddress();
+  }
+
+  /**
+   * Set the resolver used to look up hosts.
+   *
+   * @param resolver The resolver.
+   */
+  void setResolver(Resolver resolver) {
+    m_resolver = resolver;
+  }
+
+  /**
+   * Start an HTTP {@code GET} request.
+   *
+   * @param url An absolute {@code http} URL.
+   * @return The exchange.
+   * @throws GrinderException If the URL is not supported.
+   * @throws IOException If the host could not be resolved.
+   * @throws ParseException If the URL could not be parsed.
+   */
+  public Exchange GET(String url)
+    throws GrinderException, IOException, ParseException {
+    return request("GET", url, null, new NVPair[0], null);
+  }
+
+  /**
+   * Start an HTTP {@code GET} request.
+   *
+   * @param url An absolute {@code http} URL.
+   * @param headers Request headers. Override default headers with the same
+   *  name.
+   * @return The exchange.
+   * @throws GrinderException If the URL is not supported.
+   * @throws IOException If the host could not be resolved.
+   * @throws ParseException If the URL could not be parsed.
+   */
+  public Exchange GET(String url, NVPair[] headers)
+    throws GrinderException, IOException, ParseException {
+    return request("GET", url, null, headers, null);
+  }
+
+  /**
+   * Start an HTTP {@code POST} request.
+   *
+   * @param url An absolute {@code http} URL.
+   * @param data The request body.
+   * @return The exchange.
+   * @throws GrinderException If the URL is not supported.
+   * @throws IOException If the host could not be resolved.
+   * @throws ParseException If the URL could not be parsed.
+   */
+  public Exchange POST(String url, byte[] data)
+    throws GrinderException, IOException, ParseException {
+    return request("POST", url, data, new NVPair[0], null);
+  }
+
+  /**
+   * Start an HTTP {@code POST} request.
+   *
+   * @param url An absolute {@code http} URL.
+   * @param data The request body.
+   * @param headers Request headers. Override default headers with the same
+   *  name.
+   * @return The exchange.
+   * @throws GrinderException If the URL is not supported.
+   * @throws IOException If the host could not be resolved.
+   * @throws ParseException If the URL could not be parsed.
+   */
+  public Exchange POST(String url, byte[] data, NVPair[] headers)
+    throws GrinderException, IOException, ParseException {
+    return request("POST", url, data, headers, null);
+  }
+
+  /**
+   * Start an HTTP request.
+   *
+   * <p>
+   * The host name is resolved by the calling thread; the rest of the request
+   * is executed asynchronously.
+   * </p>
+   *
+   * @param method The request method.
+   * @param url An absolute {@code http} URL.
+   * @param data The request body, or {@code null}.
+   * @param headers Request headers. Override default headers with the same
+   *  name.
+   * @param listener Notified on an engine thread when the exchange is
+   *  complete. May be {@code null}.
+   * @return The exchange.
+   * @throws GrinderException If the URL is not supported.
+   * @throws IOException If the host could not be resolved.
+   * @throws ParseException If the URL could not be parsed.
+   */
+  public Exchange request(String method,
+                          String url,
+                          byte[] data,
+                          NVPair[] headers,
+                          Exchange.Listener listener)
+    throws GrinderException, IOException, ParseException {
+
+    final URI uri = new URI(url);
+
+    if (!"http".equals(uri.getScheme())) {
+      throw new URLException(
+        "Only http URLs are supported by the asynchronous client: " + url);
+    }
+
+    final String pathAndQuery = uri.getPathAndQuery();
+    final String host = uri.getHost();
+    final int port = uri.getPort();
+    final int defaultPort = URI.defaultPort(uri.getScheme());
+
+    final long startTime = m_timeAuthority.getTimeInMilliseconds();
+
+    // The first address is used; asynchronous requests do not fall back to
+    // the others.
+    final InetAddress address = m_resolver.resolve(host)[0];
+
+    final long dnsTime =
+      Math.max(m_timeAuthority.getTimeInMilliseconds() - startTime, 0);
+
+    final Exchange exchange =
+      new Exchange(method,
+                   new InetSocketAddress(address,
+                                         port == -1 ? defaultPort : port),
+                   port == -1 || port == defaultPort ? host : host + ":" + port,
+                   pathAndQuery.length() == 0 ? "/" : pathAndQuery,
+                   mergeHeaders(m_defaultHeaders, headers),
+                   data);
+
+    exchange.setDNSTime(dnsTime);
+    exchange.setTimeout(m_timeout);
+    exchange.setLocalAddress(m_localAddress);
+    exchange.setListener(listener);
+
+    m_outstanding.add(exchange);
+    m_engine.submit(exchange);
+
+    return exchange;
+  }
+
+  private static NVPair[] mergeHeaders(NVPair[] defaultHeaders,
+                                       NVPair[] headers) {
+    final List<NVPair> result =
+      new ArrayList<NVPair>(defaultHeaders.length + headers.length);
+
+    final Set<String> seen = new HashSet<String>();
+
+    for (NVPair p : headers) {
+      result.add(p);
+      seen.add(p.getName());
+    }
+
+    for (NVPair p : defaultHeaders) {
+      if (!seen.contains(p.getName())) {
+        result.add(p);
+      }
+    }
+
+    return result.toArray(new NVPair[result.size()]);
+  }
+
+  /**
+   * Wait for an exchange to complete, and record its statistics against the
+   * current test.
+   *
+   * @param exchange The exchange.
+   * @return The exchange.
+   * @throws GrinderException If the statistics could not be recorded.
+   * @throws TimeoutException If the exchange timed out.
+   * @throws IOException If the exchange failed.
+   */
+  public Exchange await(Exchange exchange)
+    throws GrinderException, IOException {
+
+    complete(exchange);
+
+    // Stop the clock whilst we do potentially expensive result processing.
+    m_threadContext.pauseClock();
+
+    try {
+      final ExchangeStatistics statistics = new ExchangeStatistics();
+      statistics.add(exchange);
+      statistics.record();
+    }
+    finally {
+      m_threadContext.resumeClock();
+    }
+
+    return exchange;
+  }
+
+  /**
+   * Wait for all of the outstanding exchanges started by this client, and
+   * record their combined statistics against the current test as a single
+   * sample.
+   *
+   * <p>
+   * If an exchange failed, its exception is thrown after the statistics for
+   * the other exchanges have been recorded.
+   * </p>
+   *
+   * @return The exchanges, in the order they were started.
+   * @throws GrinderException If the statistics could not be recorded.
+   * @throws TimeoutException If an exchange timed out.
+   * @throws IOException If an exchange failed.
+   */
+  public List<Exchange> awaitAll() throws GrinderException, IOException {
+    final List<Exchange> result = new ArrayList<Exchange>(m_outstanding);
+
+    final List<Exchange> completed = new ArrayList<Exchange>(result.size());
+    GrinderException grinderException = null;
+    IOException ioException = null;
+
+    for (Exchange exchange : result) {
+      try {
+        complete(exchange);
+        completed.add(exchange);
+      }
+      catch (GrinderException e) {
+        if (grinderException == null) {
+          grinderException = e;
+        }
+      }
+      catch (IOException e) {
+        if (ioException == null) {
+          ioException = e;
+        }
+      }
+    }
+
+    m_threadContext.pauseClock();
+
+    try {
+      final ExchangeStatistics statistics = new ExchangeStatistics();
+
+      for (Exchange exchange : completed) {
+        statistics.add(exchange);
+      }
+
+      if (completed.size() > 0) {
+        statistics.record();
+      }
+    }
+    finally {
+      m_threadContext.resumeClock();
+    }
+
+    if (grinderException != null) {
+      throw grinderException;
+    }
+
+    if (ioException != null) {
+      throw ioException;
+    }
+
+    return result;
+  }
+
+  /**
+   * The number of exchanges that have been started but not waited for.
+   *
+   * @return The number of exchanges.
+   */
+  public int getNumberOutstanding() {
+    return m_outstanding.size();
+  }
+
+  private void complete(Exchange exchange)
+    throws GrinderException, IOException {
+    exchange.await();
+    m_outstanding.remove(exchange);
+
+    final IOException exception = exchange.getException();
+
+    if (exception instanceof InterruptedIOException) {
+      throw new TimeoutException(exception);
+    }
+    else if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /**
+   * Accumulates the statistics for one or more exchanges.
+   */
+  private final class ExchangeStatistics {
+    private long m_responseLength;
+    private int m_statusCode;
+    private long m_firstByteTime;
+    private long m_errors;
+    private long m_dnsTime;
+    private long m_connectTime;
+    private long m_connections;
+
+    public void add(Exchange exchange) {
+      final byte[] data = exchange.getData();
+      final int responseLength = data.length;
+      final int statusCode = exchange.getStatusCode();
+
+      final String message =
+        exchange.getURI() + " -> " + statusCode + " " +
+        exchange.getReasonLine() + ", " + responseLength + " bytes";
+
+      final Logger logger = m_scriptContext.getLogger();
+
+      switch (statusCode) {
+      case HttpURLConnection.HTTP_MOVED_PERM:
+      case HttpURLConnection.HTTP_MOVED_TEMP:
+      case 307:
+        logger.info(message +
+                    " [Redirect, ensure the next URL is " +
+                    exchange.getHeader("Location") + "]");
+        break;
+
+      default:
+        logger.info(message);
+        break;
+      }
+
+      m_responseLength += responseLength;
+      m_statusCode = Math.max(m_statusCode, statusCode);
+      m_firstByteTime += exchange.getTimeToFirstByte();
+
+      if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+        ++m_errors;
+      }
+
+      if (exchange.isNewConnection()) {
+        m_dnsTime += exchange.getDNSTime();
+        m_connectTime += exchange.getConnectTime();
+        ++m_connections;
+      }
+    }
+
+    public void record() throws GrinderException {
+      try {
+        final Statistics statistics = m_scriptContext.getStatistics();
+
+        if (!statistics.isTestInProgress()) {
+          return;
+        }
+
+        final StatisticsForTest statisticsForCurrentTest =
+          statistics.getForCurrentTest();
+
+        statisticsForCurrentTest.addLong(
+          StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY, m_responseLength);
+
+        // Content encoding is not supported, so the body is never decoded.
+        statisticsForCurrentTest.addLong(
+          StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
+          m_responseLength);
+
+        statisticsForCurrentTest.setLong(
+          StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_STATUS_KEY, m_statusCode);
+
+        statisticsForCurrentTest.addLong(
+          StatisticsIndexMap.HTTP_PLUGIN_FIRST_BYTE_TIME_KEY, m_firstByteTime);
+
+        if (m_errors > 0) {
+          statisticsForCurrentTest.addLong(
+            StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_ERRORS_KEY, m_errors);
+        }
+
+        if (m_connections > 0) {
+          statisticsForCurrentTest.addLong(
+            StatisticsIndexMap.HTTP_PLUGIN_DNS_TIME_KEY, m_dnsTime);
+
+          statisticsForCurrentTest.addLong(
+            StatisticsIndexMap.HTTP_PLUGIN_CONNECT_TIME_KEY, m_connectTime);
+
+          statisticsForCurrentTest.addLong(
+            StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED,
+            m_connections);
+        }
+      }
+      catch (InvalidContextException e) {
+        throw new PluginException("Failed to set statistic", e);
+      }
+    }
+  }
+
+  /**
+   * Discard the outstanding exchanges. Called at the start of each run.
+   */
+  void discardOutstanding() {
+    m_outstanding.clear();
+  }
+
+  /**
+   * Sets the default headers for subsequent requests.
+   *
+   * @param defaultHeaders The default headers.
+   */
+  public void setDefaultHeaders(NVPair[] defaultHeaders) {
+    m_defaultHeaders = defaultHeaders;
+  }
+
+  /**
+   * Sets the timeout for subsequent requests.
+   *
+   * <p>
+   * Unlike {@link HTTPConnectionWrapper}, the timeout limits the total time
+   * taken by each request, measured from when it is started. Timeouts do not
+   * require additional threads.
+   * </p>
+   *
+   * @param timeout The time in milliseconds. A time of 0 means wait
+   *  indefinitely.
+   */
+  public void setTimeout(int timeout) {
+    m_timeout = timeout;
+  }
+
+  /**
+   * Sets the local address to which sockets for subsequent requests are
+   * bound.
+   *
+   * @param localAddress The local host name or IP address.
+   * @throws URLException If {@code localAddress} could not be resolved.
+   */
+  public void setLocalAddress(String localAddress) throws URLException {
+    try {
+      m_localAddress = InetAddress.getByName(localAddress);
+    }
+    catch (UnknownHostException e) {
+      throw new URLException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Closes idle connections to all servers. Connections are shared by all
+   * worker threads, so this may affect other threads.
+   */
+  public void close() {
+    m_engine.closeIdleConnections();
+  }
+}
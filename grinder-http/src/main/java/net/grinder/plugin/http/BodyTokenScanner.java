@@ -0,0 +1,441 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import net.grinder.util.http.URIParser;
+
+
+/**
+ * Extracts the tokens used by {@link HTTPUtilities} from a response body in
+ * a single traversal.
+ *
+ * <p>
+ * The scanner finds {@code input} elements, hidden {@code input} elements,
+ * and the name-value pairs of {@code href} URIs. It recognises exactly what
+ * the corresponding patterns in
+ * {@link net.grinder.plugin.http.tcpproxyfilter.RegularExpressions} do,
+ * including their quirks, but makes a single pass over the body rather
+ * than running three separate regular expressions. Scanning is incremental:
+ * {@link #scan} stops as soon as it has reported a token.
+ * </p>
+ *
+ * <p>
+ * Hidden input elements are matched as the regular expression does. The
+ * match starts at the first {@code <input} and ends at the first {@code >}
+ * after the first {@code type="hidden"}. It may span several elements.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class BodyTokenScanner {
+
+  /**
+   * Receives tokens from the scanner. For each type of token, tokens are
+   * reported in order of position.
+   */
+  interface Listener {
+
+    /**
+     * An {@code input} element with {@code name} and {@code value}
+     * attributes.
+     *
+     * @param position Position of the element in the body.
+     * @param name The name.
+     * @param value The value.
+     */
+    void input(int position, String name, String value);
+
+    /**
+     * A hidden {@code input} element with {@code name} and {@code value}
+     * attributes.
+     *
+     * @param position Position of the element in the body.
+     * @param name The name.
+     * @param value The value.
+     */
+    void hiddenInput(int position, String name, String value);
+
+    /**
+     * A path parameter or query string name-value pair from an {@code href}
+     * URI.
+     *
+     * @param position Position of the {@code href} attribute in the body.
+     * @param name The name.
+     * @param value The value.
+     */
+    void uriNameValue(int position, String name, String value);
+  }
+
+  private final String m_body;
+  private final int m_length;
+  private final URIParser m_uriParser;
+  private final Listener m_listener;
+
+  private int m_position = 0;
+  private int m_tokens = 0;
+
+  private int m_inputStart = -1;
+
+  private int m_hiddenStart = -1;
+  private int m_hiddenTypeEnd = -1;
+  private int m_hiddenSearchFrom;
+
+  private int m_hrefStart = -1;
+  private int m_hrefValueStart;
+
+  /**
+   * Constructor.
+   *
+   * @param body The body to scan.
+   * @param uriParser Used to parse {@code href} URIs.
+   * @param listener Receives the tokens.
+   */
+  public BodyTokenScanner(String body,
+                          URIParser uriParser,
+                          Listener listener) {
+    m_body = body;
+    m_length = body.length();
+    m_uriParser = uriParser;
+    m_listener = listener;
+  }
+
+  /**
+   * Scan until at least one token has been reported, or the end of the
+   * body is reached.
+   *
+   * @return {@code false} if the end of the body has been reached.
+   */
+  public boolean scan() {
+    final int tokens = m_tokens;
+
+    while (m_position < m_length) {
+      step(m_position++);
+
+      if (m_tokens != tokens) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void step(int i) {
+    final char c = m_body.charAt(i);
+
+    // <\s*input\s+.*?/?>
+    if (m_inputStart >= 0) {
+      if (c == '>') {
+        elementEnd(m_inputStart, i, false);
+        m_inputStart = -1;
+      }
+    }
+    else if (c == '<' && inputPrefixEnd(i) >= 0) {
+      m_inputStart = i;
+    }
+
+    // <\s*input\s+.*?type\s*=\s*["']\s*hidden\s*["'].*?/?>
+    if (m_hiddenStart < 0) {
+      if (c == '<') {
+        final int prefixEnd = inputPrefixEnd(i);
+
+        if (prefixEnd >= 0) {
+          m_hiddenStart = i;
+          m_hiddenSearchFrom = prefixEnd;
+        }
+      }
+    }
+    else if (m_hiddenTypeEnd < 0) {
+      if (i >= m_hiddenSearchFrom && (c == 't' || c == 'T')) {
+        m_hiddenTypeEnd = hiddenTypeEnd(i);
+      }
+    }
+    else if (c == '>' && i >= m_hiddenTypeEnd) {
+      elementEnd(m_hiddenStart, i, true);
+      m_hiddenStart = -1;
+      m_hiddenTypeEnd = -1;
+    }
+
+    // href[ \t]*=[ \t]*['"]([^'"]*)['"]
+    if (m_hrefStart < 0) {
+      if (c == 'h') {
+        final int valueStart = hrefValueStart(i);
+
+        if (valueStart >= 0) {
+          m_hrefStart = i;
+          m_hrefValueStart = valueStart;
+        }
+      }
+    }
+    else if (i >= m_hrefValueStart && (c == '\'' || c == '"')) {
+      hrefEnd(m_hrefStart, m_body.substring(m_hrefValueStart, i));
+      m_hrefStart = -1;
+    }
+  }
+
+  private void elementEnd(int start, int end, boolean hidden) {
+    String name = null;
+    String value = null;
+
+    // Equivalent to AttributeStringParser: find each
+    // (\w+)\s*=\s*['"](.*?)['"], the last value for a name wins.
+    int i = start;
+
+    while (i <= end) {
+      if (!isWordCharacter(m_body.charAt(i))) {
+        ++i;
+        continue;
+      }
+
+      final int nameStart = i;
+
+      do {
+        ++i;
+      }
+      while (i <= end && isWordCharacter(m_body.charAt(i)));
+
+      final int nameEnd = i;
+
+      int j = skipWhitespace(i, end + 1);
+
+      if (j > end || m_body.charAt(j) != '=') {
+        continue;
+      }
+
+      j = skipWhitespace(j + 1, end + 1);
+
+      if (j > end || !isQuote(m_body.charAt(j))) {
+        continue;
+      }
+
+      final int valueStart = ++j;
+
+      while (j <= end &&
+             !isQuote(m_body.charAt(j)) &&
+             !isLineTerminator(m_body.charAt(j))) {
+        ++j;
+      }
+
+      if (j > end || !isQuote(m_body.charAt(j))) {
+        continue;
+      }
+
+      if (nameEnd - nameStart == 4) {
+        if (regionMatches(nameStart, "name")) {
+          name = m_body.substring(valueStart, j);
+        }
+      }
+      else if (nameEnd - nameStart == 5) {
+        if (regionMatches(nameStart, "value")) {
+          value = m_body.substring(valueStart, j);
+        }
+      }
+
+      i = j + 1;
+    }
+
+    if (name != null && value != null) {
+      ++m_tokens;
+
+      if (hidden) {
+        m_listener.hiddenInput(start, name, value);
+      }
+      else {
+        m_listener.input(start, name, value);
+      }
+    }
+  }
+
+  private void hrefEnd(final int position, String uri) {
+    m_uriParser.parse(uri, new URIParser.AbstractParseListener() {
+      public boolean pathParameterNameValue(String name, String value) {
+        ++m_tokens;
+        m_listener.uriNameValue(position, name, value);
+        return true;
+      }
+
+      public boolean queryStringNameValue(String name, String value) {
+        ++m_tokens;
+        m_listener.uriNameValue(position, name, value);
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Match {@code <\s*input\s+}.
+   *
+   * @return The position after the match, or {@code -1}.
+   */
+  private int inputPrefixEnd(int i) {
+    final int j = skipWhitespace(i + 1, m_length);
+
+    if (!regionMatches(j, "input")) {
+      return -1;
+    }
+
+    final int k = skipWhitespace(j + 5, m_length);
+
+    return k > j + 5 ? k : -1;
+  }
+
+  /**
+   * Match {@code type\s*=\s*["']\s*hidden\s*["']}.
+   *
+   * @return The position after the match, or {@code -1}.
+   */
+  private int hiddenTypeEnd(int i) {
+    if (!regionMatches(i, "type")) {
+      return -1;
+    }
+
+    int j = skipWhitespace(i + 4, m_length);
+
+    if (j == m_length || m_body.charAt(j) != '=') {
+      return -1;
+    }
+
+    j = skipWhitespace(j + 1, m_length);
+
+    if (j == m_length || !isQuote(m_body.charAt(j))) {
+      return -1;
+    }
+
+    j = skipWhitespace(j + 1, m_length);
+
+    if (!regionMatches(j, "hidden")) {
+      return -1;
+    }
+
+    j = skipWhitespace(j + 6, m_length);
+
+    if (j == m_length || !isQuote(m_body.charAt(j))) {
+      return -1;
+    }
+
+    return j + 1;
+  }
+
+  /**
+   * Match {@code href[ \t]*=[ \t]*['"]}. Case sensitive.
+   *
+   * @return The position after the match, or {@code -1}.
+   */
+  private int hrefValueStart(int i) {
+    if (!m_body.startsWith("href", i)) {
+      return -1;
+    }
+
+    int j = skipBlanks(i + 4);
+
+    if (j == m_length || m_body.charAt(j) != '=') {
+      return -1;
+    }
+
+    j = skipBlanks(j + 1);
+
+    if (j == m_length || !isQuote(m_body.charAt(j))) {
+      return -1;
+    }
+
+    return j + 1;
+  }
+
+  /**
+   * Case insensitive comparison, for ASCII only. This is what
+   * {@code Pattern.CASE_INSENSITIVE} does.
+   */
+  private boolean regionMatches(int i, String lowerCase) {
+    final int n = lowerCase.length();
+
+    if (i + n > m_length) {
+      return false;
+    }
+
+    for (int j = 0; j < n; ++j) {
+      char c = m_body.charAt(i + j);
+
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      }
+
+      if (c != lowerCase.charAt(j)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private int skipWhitespace(int i, int end) {
+    while (i < end && isWhitespace(m_body.charAt(i))) {
+      ++i;
+    }
+
+    return i;
+  }
+
+  private int skipBlanks(int i) {
+    while (i < m_length) {
+      final char c = m_body.charAt(i);
+
+      if (c != ' ' && c != '\t') {
+        break;
+      }
+
+      ++i;
+    }
+
+    return i;
+  }
+
+  /**
+   * Regular expression {@code \s}.
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' ||
+           c == '\f' || c == '\r';
+  }
+
+  /**
+   * Regular expression {@code \w}.
+   */
+  private static boolean isWordCharacter(char c) {
+    return c >= 'a' && c <= 'z' ||
+           c >= 'A' && c <= 'Z' ||
+           c >= '0' && c <= '9' ||
+           c == '_';
+  }
+
+  /**
+   * Characters not matched by the regular expression {@code .}.
+   */
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' ||
+           c == '\u2028' || c == '\u2029';
+  }
+
+  private static boolean isQuote(char c) {
+    return c == '\'' || c == '"';
+  }
+}
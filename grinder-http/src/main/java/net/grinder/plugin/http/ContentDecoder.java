@@ -0,0 +1,437 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import net.grinder.plugininterface.PluginThreadContext;
+
+
+/**
+ * Decodes {@code gzip} and {@code deflate} encoded response bodies as they
+ * are read.
+ *
+ * <p>
+ * Each worker thread has a decoder, which reuses its inflaters and buffers
+ * for every response. Decoding is done with the thread's clock paused, so
+ * the time it takes is not included in the test time.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class ContentDecoder {
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  // RFC 1952 header flags.
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private enum State {
+    GZIP_HEADER,
+    DEFLATE_HEADER,
+    INFLATE,
+    GZIP_TRAILER,
+    DONE,
+  }
+
+  private final PluginThreadContext m_threadContext;
+  private final byte[] m_buffer = new byte[BUFFER_SIZE];
+  private final CRC32 m_crc = new CRC32();
+
+  private byte[] m_pending = new byte[64];
+  private Inflater m_rawInflater;
+  private Inflater m_zlibInflater;
+
+  /**
+   * Constructor.
+   *
+   * @param threadContext The worker thread's context.
+   */
+  public ContentDecoder(PluginThreadContext threadContext) {
+    m_threadContext = threadContext;
+  }
+
+  /**
+   * Start decoding a response body.
+   *
+   * @param encoding The content encoding, either {@code gzip} or
+   *  {@code deflate}.
+   * @param retain The maximum number of decoded bytes to keep.
+   * @param sink Receives the decoded data, or {@code null}.
+   * @return A stream to which the encoded body should be written. It must
+   *  be closed once all of the body has been written.
+   */
+  public DecodingStream open(String encoding, int retain, OutputStream sink) {
+    return new DecodingStream("gzip".equals(encoding), retain, sink);
+  }
+
+  /**
+   * Release the inflaters.
+   */
+  public void close() {
+    if (m_rawInflater != null) {
+      m_rawInflater.end();
+      m_rawInflater = null;
+    }
+
+    if (m_zlibInflater != null) {
+      m_zlibInflater.end();
+      m_zlibInflater = null;
+    }
+  }
+
+  private Inflater getInflater(boolean raw) {
+    if (raw) {
+      if (m_rawInflater == null) {
+        m_rawInflater = new Inflater(true);
+      }
+
+      m_rawInflater.reset();
+      return m_rawInflater;
+    }
+    else {
+      if (m_zlibInflater == null) {
+        m_zlibInflater = new Inflater(false);
+      }
+
+      m_zlibInflater.reset();
+      return m_zlibInflater;
+    }
+  }
+
+  /**
+   * Parse a gzip member header.
+   *
+   * @return The length of the header, or {@code -1} if more bytes are
+   *  needed.
+   */
+  static int parseGzipHeader(byte[] bytes, int length) throws ZipException {
+    if (length >= 2 &&
+        ((bytes[0] & 0xFF) != 0x1F || (bytes[1] & 0xFF) != 0x8B)) {
+      throw new ZipException("Not in GZIP format");
+    }
+
+    if (length < 10) {
+      return -1;
+    }
+
+    if (bytes[2] != 8) {
+      throw new ZipException("Unsupported compression method");
+    }
+
+    final int flags = bytes[3] & 0xFF;
+    int position = 10;
+
+    if ((flags & FEXTRA) != 0) {
+      if (length < position + 2) {
+        return -1;
+      }
+
+      position +=
+        2 + ((bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8);
+    }
+
+    if ((flags & FNAME) != 0) {
+      position = skipString(bytes, position, length);
+
+      if (position < 0) {
+        return -1;
+      }
+    }
+
+    if ((flags & FCOMMENT) != 0) {
+      position = skipString(bytes, position, length);
+
+      if (position < 0) {
+        return -1;
+      }
+    }
+
+    if ((flags & FHCRC) != 0) {
+      position += 2;
+    }
+
+    return position <= length ? position : -1;
+  }
+
+  private static int skipString(byte[] bytes, int position, int length) {
+    for (int i = position; i < length; ++i) {
+      if (bytes[i] == 0) {
+        return i + 1;
+      }
+    }
+
+    return -1;
+  }
+
+  private static boolean isZlibHeader(byte[] bytes) {
+    final int cmf = bytes[0] & 0xFF;
+    final int flg = bytes[1] & 0xFF;
+
+    return (cmf & 0x0F) == 8 && (cmf << 8 | flg) % 31 == 0;
+  }
+
+  private static long readIntLE(byte[] bytes, int position) {
+    return (bytes[position] & 0xFFL) |
+           (bytes[position + 1] & 0xFFL) << 8 |
+           (bytes[position + 2] & 0xFFL) << 16 |
+           (bytes[position + 3] & 0xFFL) << 24;
+  }
+
+  /**
+   * Accepts the encoded body of one response.
+   */
+  final class DecodingStream extends OutputStream {
+    private final boolean m_gzip;
+    private final int m_retain;
+    private final OutputStream m_sink;
+    private final ByteArrayOutputStream m_retained;
+
+    private State m_state;
+    private int m_pendingLength;
+    private Inflater m_inflater;
+    private boolean m_memberComplete;
+    private long m_memberLength;
+    private long m_encodedLength;
+    private long m_decodedLength;
+
+    private DecodingStream(boolean gzip, int retain, OutputStream sink) {
+      m_gzip = gzip;
+      m_retain = Math.max(retain, 0);
+      m_sink = sink;
+      m_retained = new ByteArrayOutputStream(Math.min(m_retain, 1000));
+      m_state = gzip ? State.GZIP_HEADER : State.DEFLATE_HEADER;
+      m_crc.reset();
+    }
+
+    @Override public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override public void write(byte[] bytes, int offset, int length)
+      throws IOException {
+
+      m_threadContext.pauseClock();
+
+      try {
+        m_encodedLength += length;
+
+        while (length > 0) {
+          final int n = consume(bytes, offset, length);
+          offset += n;
+          length -= n;
+        }
+      }
+      finally {
+        m_threadContext.resumeClock();
+      }
+    }
+
+    /**
+     * Check that the whole body was received.
+     *
+     * @throws EOFException If the body is incomplete.
+     */
+    @Override public void close() throws IOException {
+      final boolean complete =
+        m_encodedLength == 0 ||
+        m_state == State.DONE ||
+        m_state == State.GZIP_HEADER && m_memberComplete;
+
+      if (!complete) {
+        throw new EOFException("Unexpected end of compressed data");
+      }
+    }
+
+    public long getDecodedLength() {
+      return m_decodedLength;
+    }
+
+    /**
+     * The decoded bytes that were kept.
+     *
+     * @return The first {@code retain} bytes of the decoded data.
+     */
+    public byte[] getRetained() {
+      return m_retained.toByteArray();
+    }
+
+    private int consume(byte[] bytes, int offset, int length)
+      throws IOException {
+
+      switch (m_state) {
+        case GZIP_HEADER: {
+          final int previouslyPending = m_pendingLength;
+          append(bytes, offset, length);
+
+          final int headerLength;
+
+          try {
+            headerLength = parseGzipHeader(m_pending, m_pendingLength);
+          }
+          catch (ZipException e) {
+            if (m_memberComplete) {
+              // Ignore trailing garbage, as GZIPInputStream does.
+              m_state = State.DONE;
+              return length;
+            }
+
+            throw e;
+          }
+
+          if (headerLength < 0) {
+            return length;
+          }
+
+          m_pendingLength = 0;
+          m_inflater = getInflater(true);
+          m_crc.reset();
+          m_memberLength = 0;
+          m_memberComplete = false;
+          m_state = State.INFLATE;
+          return headerLength - previouslyPending;
+        }
+
+        case DEFLATE_HEADER: {
+          final int n = Math.min(length, 2 - m_pendingLength);
+          append(bytes, offset, n);
+
+          if (m_pendingLength == 2) {
+            // Some servers send raw deflate data rather than the zlib
+            // format that RFC 2616 requires.
+            m_inflater = getInflater(!isZlibHeader(m_pending));
+            m_state = State.INFLATE;
+            m_pendingLength = 0;
+            inflate(m_pending, 0, 2);
+          }
+
+          return n;
+        }
+
+        case INFLATE:
+          return inflate(bytes, offset, length);
+
+        case GZIP_TRAILER: {
+          final int n = Math.min(length, 8 - m_pendingLength);
+          append(bytes, offset, n);
+
+          if (m_pendingLength == 8) {
+            m_pendingLength = 0;
+
+            if (readIntLE(m_pending, 0) != m_crc.getValue() ||
+                readIntLE(m_pending, 4) != (m_memberLength & 0xFFFFFFFFL)) {
+              throw new ZipException("Corrupt GZIP trailer");
+            }
+
+            // There may be further members.
+            m_memberComplete = true;
+            m_state = State.GZIP_HEADER;
+          }
+
+          return n;
+        }
+
+        default:
+          return length;
+      }
+    }
+
+    private int inflate(byte[] bytes, int offset, int length)
+      throws IOException {
+
+      m_inflater.setInput(bytes, offset, length);
+
+      try {
+        while (true) {
+          final int n = m_inflater.inflate(m_buffer);
+
+          if (n > 0) {
+            output(n);
+          }
+          else if (m_inflater.finished() || m_inflater.needsInput()) {
+            break;
+          }
+          else if (m_inflater.needsDictionary()) {
+            throw new ZipException("Preset dictionaries are not supported");
+          }
+        }
+      }
+      catch (DataFormatException e) {
+        final ZipException zipException = new ZipException(e.getMessage());
+        zipException.initCause(e);
+        throw zipException;
+      }
+
+      if (m_inflater.finished()) {
+        m_state = m_gzip ? State.GZIP_TRAILER : State.DONE;
+        return length - m_inflater.getRemaining();
+      }
+
+      return length;
+    }
+
+    private void output(int n) throws IOException {
+      if (m_gzip) {
+        m_crc.update(m_buffer, 0, n);
+      }
+
+      m_memberLength += n;
+      m_decodedLength += n;
+
+      if (m_sink != null) {
+        m_sink.write(m_buffer, 0, n);
+      }
+
+      final int keep = Math.min(n, m_retain - m_retained.size());
+
+      if (keep > 0) {
+        m_retained.write(m_buffer, 0, keep);
+      }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+      final int required = m_pendingLength + length;
+
+      if (required > m_pending.length) {
+        final byte[] newPending = new byte[Math.max(required,
+                                                    m_pending.length * 2)];
+        System.arraycopy(m_pending, 0, newPending, 0, m_pendingLength);
+        m_pending = newPending;
+      }
+
+      System.arraycopy(bytes, offset, m_pending, m_pendingLength, length);
+      m_pendingLength = required;
+    }
+  }
+}
@@ -0,0 +1,276 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.grinder.util.TimeAuthority;
+import HTTPClient.HTTPConnection;
+import HTTPClient.URI;
+
+
+/**
+ * A bounded pool of idle {@link HTTPConnection}s, used to keep connections
+ * open between runs.
+ *
+ * <p>
+ * Connections are keyed by the scheme, host, and port of the server. A
+ * connection that has been idle for longer than the idle timeout is closed
+ * rather than returned; most servers will have closed their end by then.
+ * When the pool is full, the connection that has been idle longest is
+ * closed to make room. Eviction is lazy, and happens when connections are
+ * checked in or out.
+ * </p>
+ *
+ * <p>
+ * Instances are thread safe, so a pool may be shared by all of the worker
+ * threads in a process. Each thread that uses the pool registers with
+ * {@link #addUser}, and the pool is closed when the last user calls
+ * {@link #removeUser}.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class HTTPConnectionPool {
+
+  private final int m_maximumSize;
+  private final long m_idleTimeout;
+  private final TimeAuthority m_timeAuthority;
+
+  /** Guarded by this. In the order in which they were checked in. */
+  private final Set<Entry> m_entries = new LinkedHashSet<Entry>();
+
+  /** Guarded by this. Each list is in the order of {@link #m_entries}. */
+  private final Map<URI, LinkedList<Entry>> m_entriesByKey =
+    new HashMap<URI, LinkedList<Entry>>();
+
+  /** Guarded by this. */
+  private int m_users;
+
+  /**
+   * Constructor.
+   *
+   * @param maximumSize
+   *          The maximum number of idle connections to hold. If zero, every
+   *          connection that is checked in will be closed.
+   * @param idleTimeout
+   *          Connections that have been idle for longer than this number of
+   *          milliseconds are closed.
+   * @param timeAuthority
+   *          Used to measure idle time.
+   */
+  public HTTPConnectionPool(int maximumSize,
+                            long idleTimeout,
+                            TimeAuthority timeAuthority) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("Negative maximum size");
+    }
+
+    if (idleTimeout < 0) {
+      throw new IllegalArgumentException("Negative idle timeout");
+    }
+
+    m_maximumSize = maximumSize;
+    m_idleTimeout = idleTimeout;
+    m_timeAuthority = timeAuthority;
+  }
+
+  /**
+   * Add an idle connection to the pool.
+   *
+   * @param key
+   *          The scheme, host, and port of the server.
+   * @param connection
+   *          The connection.
+   */
+  public void checkIn(URI key, HTTPConnection connection) {
+    final List<HTTPConnection> evicted = new ArrayList<HTTPConnection>();
+
+    synchronized (this) {
+      final long now = m_timeAuthority.getTimeInMilliseconds();
+
+      evictIdle(now, evicted);
+
+      if (m_maximumSize == 0) {
+        evicted.add(connection);
+      }
+      else {
+        if (m_entries.size() == m_maximumSize) {
+          evicted.add(remove(m_entries.iterator().next()));
+        }
+
+        final Entry entry = new Entry(key, connection, now);
+
+        m_entries.add(entry);
+
+        LinkedList<Entry> entries = m_entriesByKey.get(key);
+
+        if (entries == null) {
+          entries = new LinkedList<Entry>();
+          m_entriesByKey.put(key, entries);
+        }
+
+        entries.addLast(entry);
+      }
+    }
+
+    close(evicted);
+  }
+
+  /**
+   * Remove an idle connection from the pool.
+   *
+   * @param key
+   *          The scheme, host, and port of the server.
+   * @return The connection that was most recently checked in for
+   *         {@code key}, or {@code null} if there is none.
+   */
+  public HTTPConnection checkOut(URI key) {
+    final List<HTTPConnection> evicted = new ArrayList<HTTPConnection>();
+    final HTTPConnection result;
+
+    synchronized (this) {
+      evictIdle(m_timeAuthority.getTimeInMilliseconds(), evicted);
+
+      final LinkedList<Entry> entries = m_entriesByKey.get(key);
+
+      result = entries != null ? remove(entries.getLast()) : null;
+    }
+
+    close(evicted);
+
+    return result;
+  }
+
+  /**
+   * Register a user of the pool.
+   */
+  public synchronized void addUser() {
+    ++m_users;
+  }
+
+  /**
+   * Deregister a user of the pool. When there are no users left, the pool
+   * is closed.
+   */
+  public void removeUser() {
+    final boolean lastUser;
+
+    synchronized (this) {
+      lastUser = --m_users == 0;
+    }
+
+    if (lastUser) {
+      close();
+    }
+  }
+
+  /**
+   * Close all of the connections in the pool.
+   */
+  public void close() {
+    final List<HTTPConnection> evicted = new ArrayList<HTTPConnection>();
+
+    synchronized (this) {
+      while (!m_entries.isEmpty()) {
+        evicted.add(remove(m_entries.iterator().next()));
+      }
+    }
+
+    close(evicted);
+  }
+
+  /**
+   * The number of connections in the pool.
+   *
+   * @return The number of connections.
+   */
+  public synchronized int size() {
+    return m_entries.size();
+  }
+
+  private void evictIdle(long now, List<HTTPConnection> evicted) {
+    final Iterator<Entry> iterator = m_entries.iterator();
+
+    while (iterator.hasNext()) {
+      final Entry entry = iterator.next();
+
+      if (now - entry.m_checkInTime <= m_idleTimeout) {
+        // Entries are in check in order, so the rest are younger.
+        break;
+      }
+
+      iterator.remove();
+      removeFromKeyList(entry);
+      evicted.add(entry.m_connection);
+    }
+  }
+
+  private HTTPConnection remove(Entry entry) {
+    m_entries.remove(entry);
+    removeFromKeyList(entry);
+    return entry.m_connection;
+  }
+
+  private void removeFromKeyList(Entry entry) {
+    final LinkedList<Entry> entries = m_entriesByKey.get(entry.m_key);
+
+    // The entry is either the oldest or the youngest for its key.
+    if (entries.getFirst() == entry) {
+      entries.removeFirst();
+    }
+    else {
+      entries.removeLast();
+    }
+
+    if (entries.isEmpty()) {
+      m_entriesByKey.remove(entry.m_key);
+    }
+  }
+
+  private static void close(List<HTTPConnection> connections) {
+    for (HTTPConnection connection : connections) {
+      connection.stop();
+    }
+  }
+
+  private static final class Entry {
+    private final URI m_key;
+    private final HTTPConnection m_connection;
+    private final long m_checkInTime;
+
+    public Entry(URI key, HTTPConnection connection, long checkInTime) {
+      m_key = key;
+      m_connection = connection;
+      m_checkInTime = checkInTime;
+    }
+  }
+}
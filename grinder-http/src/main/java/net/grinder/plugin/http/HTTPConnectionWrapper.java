@@ -26,9 +26,11 @@ package net.grinder.plugin.http;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
+import net.grinder.plugin.http.http2.HTTP2Transport;
 import net.grinder.util.Sleeper;
 import HTTPClient.CookieModule;
 import HTTPClient.HTTPConnection;
+import HTTPClient.HTTPConnection.BandwidthLimiterFactory;
 import HTTPClient.NVPair;
 
 
@@ -49,6 +51,8 @@ final class HTTPConnectionWrapper implements HTTPPluginConnection {
 
   private final HTTPConnection m_httpConnection;
   private final Sleeper m_slowClientSleeper;
+  private final TrafficShaper m_trafficShaper;
+  private boolean m_keptFromEarlierRun;
 
   static {
     // Load HTTPClient modules dynamically as we don't have public
@@ -69,12 +73,33 @@ final class HTTPConnectionWrapper implements HTTPPluginConnection {
   public HTTPConnectionWrapper(final HTTPConnection httpConnection,
                                final HTTPPluginConnectionDefaults defaults,
                                final Sleeper slowClientSleeper) {
+    this(httpConnection, defaults, slowClientSleeper, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param httpConnection The connection.
+   * @param defaults Connection defaults.
+   * @param slowClientSleeper Sleeper used to limit bandwidth.
+   * @param trafficShaper Shapes the traffic of the worker thread that owns
+   *  the connection, or {@code null}.
+   */
+  public HTTPConnectionWrapper(final HTTPConnection httpConnection,
+                               final HTTPPluginConnectionDefaults defaults,
+                               final Sleeper slowClientSleeper,
+                               final TrafficShaper trafficShaper) {
 
     m_httpConnection = httpConnection;
     m_slowClientSleeper = slowClientSleeper;
+    m_trafficShaper = trafficShaper;
     m_httpConnection.setAllowUserInteraction(false);
     m_httpConnection.setTestConnectionHealthWithBlockingRead(true);
 
+    // HTTPRequest decodes compressed responses itself, with the clock
+    // paused.
+    m_httpConnection.setDeferContentDecoding(true);
+
     setFollowRedirects(defaults.getFollowRedirects());
     setUseCookies(defaults.getUseCookies());
     setUseContentEncoding(defaults.getUseContentEncoding());
@@ -87,12 +112,34 @@ final class HTTPConnectionWrapper implements HTTPPluginConnection {
     setProxyServer(defaults.getProxyHost(), defaults.getProxyPort());
     setLocalAddress(defaults.getLocalAddress());
     setBandwidthLimit(defaults.getBandwidthLimit());
+    setUseHTTP2(defaults.getUseHTTP2());
   }
 
   HTTPConnection getConnection() {
     return m_httpConnection;
   }
 
+  /**
+   * Record that the underlying connection was kept open from an earlier run.
+   */
+  void setKeptFromEarlierRun() {
+    m_keptFromEarlierRun = true;
+  }
+
+  /**
+   * Check whether the underlying connection was kept open from an earlier
+   * run, and clear the flag so that each kept connection is only reported
+   * once.
+   *
+   * @return {@code true} if the connection was kept from an earlier run and
+   *         this is the first time the flag has been cleared.
+   */
+  boolean clearKeptFromEarlierRun() {
+    final boolean result = m_keptFromEarlierRun;
+    m_keptFromEarlierRun = false;
+    return result;
+  }
+
   @Override
   public void setFollowRedirects(final boolean followRedirects) {
 
@@ -162,6 +209,19 @@ final class HTTPConnectionWrapper implements HTTPPluginConnection {
 
   @Override
   public void setProxyServer(final String host, final int port) {
+    // Setting the proxy drops the open socket, so leave a connection that
+    // was kept from an earlier run alone if the proxy is unchanged.
+    final String proxyHost =
+      host == null || host.trim().length() == 0 ?
+        null : host.trim().toLowerCase();
+
+    if (proxyHost == null ?
+        m_httpConnection.getProxyHost() == null :
+        proxyHost.equals(m_httpConnection.getProxyHost()) &&
+        (port <= 0 ? 80 : port) == m_httpConnection.getProxyPort()) {
+      return;
+    }
+
     m_httpConnection.setCurrentProxy(host, port);
   }
 
@@ -182,12 +242,29 @@ final class HTTPConnectionWrapper implements HTTPPluginConnection {
 
   @Override
   public void setBandwidthLimit(final int targetBPS) {
-    if (targetBPS < 1) {
-      m_httpConnection.setBufferGrowthStrategyFactory(null);
+    final BandwidthLimiterFactory factory =
+      targetBPS < 1 ?
+        null :
+        new SlowClientBandwidthLimiterFactory(m_slowClientSleeper, targetBPS);
+
+    if (m_trafficShaper != null) {
+      m_httpConnection.setBufferGrowthStrategyFactory(
+        m_trafficShaper.createBandwidthLimiterFactory(factory));
     }
     else {
-      m_httpConnection.setBufferGrowthStrategyFactory(
-        new SlowClientBandwidthLimiterFactory(m_slowClientSleeper, targetBPS));
+      m_httpConnection.setBufferGrowthStrategyFactory(factory);
+    }
+  }
+
+  @Override
+  public void setUseHTTP2(final boolean useHTTP2) {
+    if (!useHTTP2) {
+      m_httpConnection.setRequestTransport(null);
+    }
+    else if (!(m_httpConnection.getRequestTransport()
+               instanceof HTTP2Transport)) {
+      m_httpConnection.setRequestTransport(
+        new HTTP2Transport());
     }
   }
 
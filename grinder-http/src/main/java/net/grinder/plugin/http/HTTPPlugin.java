@@ -25,12 +25,19 @@
 
 package net.grinder.plugin.http;
 
+import java.io.IOException;
+
 import HTTPClient.CookieModule;
 import HTTPClient.DefaultAuthHandler;
 import HTTPClient.HTTPConnection;
 
 import net.grinder.common.GrinderException;
+import net.grinder.common.GrinderProperties;
+import net.grinder.plugin.http.nio.NIOHTTPEngine;
 import net.grinder.common.SSLContextFactory;
+import net.grinder.plugin.http.dns.Resolver;
+import net.grinder.plugin.http.dns.ResolverFactory;
+import net.grinder.plugin.http.dns.ThreadResolver;
 import net.grinder.plugininterface.GrinderPlugin;
 import net.grinder.plugininterface.PluginException;
 import net.grinder.plugininterface.PluginProcessContext;
@@ -77,11 +84,94 @@ public class HTTPPlugin implements GrinderPlugin {
   private PluginProcessContext m_pluginProcessContext;
   private SSLContextFactory m_sslContextFactory;
   private Sleeper m_slowClientSleeper;
+  private NIOHTTPEngine m_nioHTTPEngine;
+  private String m_connectionReuse;
+  private HTTPConnectionPool m_connectionPool;
+  private ResolverFactory m_resolverFactory;
+  private Resolver m_resolver;
 
   final PluginProcessContext getPluginProcessContext() {
     return m_pluginProcessContext;
   }
 
+  /**
+   * Package scope accessor for the engine used by {@link AsyncHTTPClient}s.
+   * The engine is created on first use.
+   *
+   * @return The engine.
+   * @throws PluginException If the engine could not be created.
+   */
+  final synchronized NIOHTTPEngine getNIOHTTPEngine() throws PluginException {
+    if (m_nioHTTPEngine == null) {
+      final int numberOfThreads =
+        m_pluginProcessContext.getScriptContext().getProperties()
+        .getInt("grinder.http.nio.threads", 1);
+
+      try {
+        m_nioHTTPEngine =
+          new NIOHTTPEngine(numberOfThreads,
+                            m_pluginProcessContext.getTimeAuthority(),
+                            m_pluginProcessContext.getScriptContext()
+                            .getLogger());
+      }
+      catch (IOException e) {
+        throw new PluginException("Could not create NIO HTTP engine", e);
+      }
+    }
+
+    return m_nioHTTPEngine;
+  }
+
+  /**
+   * Package scope accessor for the pool that worker threads share when the
+   * {@code grinder.http.connectionReuse} property is {@code process}. The
+   * pool is created on first use, and is closed when the last thread that
+   * uses it ends.
+   *
+   * @return The pool.
+   */
+  final synchronized HTTPConnectionPool getProcessConnectionPool() {
+    if (m_connectionPool == null) {
+      m_connectionPool =
+        createConnectionPool(
+          m_pluginProcessContext.getScriptContext().getProperties());
+    }
+
+    return m_connectionPool;
+  }
+
+  /**
+   * Create the resolver for a worker thread. The resolver shared by the
+   * worker threads is created on first use.
+   *
+   * @return The resolver.
+   * @throws PluginException If the {@code grinder.http.dns.*} properties
+   *  are invalid.
+   */
+  private synchronized ThreadResolver createThreadResolver()
+    throws PluginException {
+    if (m_resolverFactory == null) {
+      final ResolverFactory resolverFactory =
+        new ResolverFactory(
+          m_pluginProcessContext.getScriptContext().getProperties(),
+          m_pluginProcessContext.getTimeAuthority());
+
+      m_resolver = resolverFactory.createProcessResolver();
+      m_resolverFactory = resolverFactory;
+    }
+
+    return m_resolverFactory.createThreadResolver(m_resolver);
+  }
+
+  private HTTPConnectionPool createConnectionPool(
+    GrinderProperties properties) {
+
+    return new HTTPConnectionPool(
+      properties.getInt("grinder.http.connectionPool.maximumSize", 100),
+      properties.getLong("grinder.http.connectionPool.idleTimeout", 4000),
+      m_pluginProcessContext.getTimeAuthority());
+  }
+
   /**
    * Called by the PluginRegistry when the plug-in is first registered.
    *
@@ -98,6 +188,23 @@ public class HTTPPlugin implements GrinderPlugin {
 
     m_sslContextFactory = scriptContext.getSSLControl();
 
+    m_connectionReuse =
+      scriptContext.getProperties().getProperty(
+        "grinder.http.connectionReuse", "run");
+
+    if ("thread".equals(m_connectionReuse) ||
+        "process".equals(m_connectionReuse)) {
+      // A returning user would resume its SSL sessions too. SSL sessions
+      // are cached by the SSL context, so keep that between runs. Scripts
+      // can still turn this off.
+      scriptContext.getSSLControl().setShareContextBetweenRuns(true);
+    }
+    else if (!"run".equals(m_connectionReuse)) {
+      throw new PluginException(
+        "Unknown value for grinder.http.connectionReuse: '" +
+        m_connectionReuse + "'");
+    }
+
     m_slowClientSleeper =
       new SleeperImplementation(
         m_pluginProcessContext.getTimeAuthority(), null, 1, 0);
@@ -132,6 +239,10 @@ public class HTTPPlugin implements GrinderPlugin {
         "HTTP response length",
         StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY);
 
+      statistics.registerDataLogExpression(
+        "HTTP decoded response length",
+        StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY);
+
       statistics.registerDataLogExpression(
         "HTTP response errors",
         StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_ERRORS_KEY);
@@ -152,6 +263,18 @@ public class HTTPPlugin implements GrinderPlugin {
         "New connections",
         StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED);
 
+      statistics.registerDataLogExpression(
+        "Reused connections",
+        StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_REUSED);
+
+      statistics.registerDataLogExpression(
+        "Full SSL handshakes",
+        StatisticsIndexMap.HTTP_PLUGIN_TLS_FULL_HANDSHAKES);
+
+      statistics.registerDataLogExpression(
+        "Resumed SSL handshakes",
+        StatisticsIndexMap.HTTP_PLUGIN_TLS_RESUMED_HANDSHAKES);
+
       statistics.registerSummaryExpression(
         "Mean response length",
         "(/ " + StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY +
@@ -196,9 +319,54 @@ public class HTTPPlugin implements GrinderPlugin {
   public PluginThreadListener createThreadListener(
     PluginThreadContext threadContext) throws PluginException {
 
-    return new HTTPPluginThreadState(threadContext,
-                                     m_sslContextFactory,
-                                     m_slowClientSleeper,
-                                     m_pluginProcessContext.getTimeAuthority());
+    final Grinder.ScriptContext scriptContext =
+      m_pluginProcessContext.getScriptContext();
+
+    final GrinderProperties properties = scriptContext.getProperties();
+
+    final HTTPConnectionPool connectionPool;
+    final HTTPConnectionPool sslConnectionPool;
+
+    if ("thread".equals(m_connectionReuse)) {
+      connectionPool = createConnectionPool(properties);
+      sslConnectionPool = connectionPool;
+    }
+    else if ("process".equals(m_connectionReuse)) {
+      // Each thread has its own SSL context, and perhaps its own key
+      // store, so SSL connections can't be shared.
+      connectionPool = getProcessConnectionPool();
+      sslConnectionPool = createConnectionPool(properties);
+    }
+    else {
+      connectionPool = null;
+      sslConnectionPool = null;
+    }
+
+    final HTTPPluginThreadState threadState =
+      new HTTPPluginThreadState(
+        threadContext,
+        m_sslContextFactory,
+        m_slowClientSleeper,
+        m_pluginProcessContext.getTimeAuthority(),
+        connectionPool,
+        sslConnectionPool,
+        createThreadResolver());
+
+    final TrafficShaper trafficShaper = threadState.getTrafficShaper();
+
+    try {
+      trafficShaper.setDownloadLimit(
+        properties.getInt("grinder.http.shaping.downloadBPS", 0));
+      trafficShaper.setUploadLimit(
+        properties.getInt("grinder.http.shaping.uploadBPS", 0));
+      trafficShaper.setLatency(
+        properties.getLong("grinder.http.shaping.latency", 0),
+        properties.getLong("grinder.http.shaping.jitter", 0));
+    }
+    catch (IllegalArgumentException e) {
+      throw new PluginException("Invalid traffic shaping property", e);
+    }
+
+    return threadState;
   }
 }
@@ -231,6 +231,28 @@ public interface HTTPPluginConnection {
    */
   void setBandwidthLimit(int targetBPS);
 
+  /**
+   * Set whether requests should be sent using HTTP/2.
+   *
+   * <p>
+   * Only requests to {@code http} URLs use HTTP/2. They use HTTP/2 with prior
+   * knowledge, so the server must support HTTP/2 without an upgrade. The
+   * protocol cannot be negotiated for {@code https} URLs without ALPN, so
+   * they continue to use HTTP/1.1, as do requests made through a proxy.
+   * </p>
+   *
+   * <p>
+   * Requests made through the connection share a single socket, and each
+   * request is sent on a new stream. The statistics recorded for each
+   * request are the same as for HTTP/1.1.
+   * </p>
+   *
+   * <p>Default: {@code false}</p>
+   *
+   * @param useHTTP2 {@code true} => use HTTP/2.
+   */
+  void setUseHTTP2(boolean useHTTP2);
+
   /**
    * Explicitly closes physical connection to the server. A new connection will
    * be created if this {@link HTTPPluginConnection} is used again. You
@@ -51,6 +51,7 @@ final class HTTPPluginConnectionDefaults implements HTTPPluginConnection {
   private boolean m_verifyServerDistinguishedName = false;
   private InetAddress m_localAddress;
   private int m_slowClientTargetBPS;
+  private boolean m_useHTTP2 = false;
 
   @Override
   public synchronized void setFollowRedirects(final boolean followRedirects) {
@@ -165,6 +166,15 @@ final class HTTPPluginConnectionDefaults implements HTTPPluginConnection {
     return m_slowClientTargetBPS;
   }
 
+  @Override
+  public synchronized void setUseHTTP2(final boolean useHTTP2) {
+    m_useHTTP2 = useHTTP2;
+  }
+
+  synchronized boolean getUseHTTP2() {
+    return m_useHTTP2;
+  }
+
   private static final HTTPPluginConnectionDefaults
     s_defaultConnectionDefaults = new HTTPPluginConnectionDefaults();
 
@@ -26,6 +26,7 @@ import HTTPClient.ProtocolNotSuppException;
 import HTTPClient.URI;
 
 import net.grinder.common.GrinderException;
+import net.grinder.plugin.http.dns.ThreadResolver;
 import net.grinder.plugininterface.PluginProcessContext;
 
 
@@ -95,6 +96,65 @@ public final class HTTPPluginControl {
     return getProcessContext().getPluginThreadListener();
   }
 
+  /**
+   * Returns the {@link AsyncHTTPClient} for the calling worker thread.
+   *
+   * <p>The client's settings are initialised from the {@link
+   * #getConnectionDefaults() connection defaults}.</p>
+   *
+   * <p>This method will throw a {@link GrinderException} if not
+   * called from a worker thread.</p>
+   *
+   * @return The asynchronous client.
+   * @exception GrinderException If an error occurs.
+   */
+  public static AsyncHTTPClient getThreadAsyncHTTPClient()
+    throws GrinderException {
+
+    final HTTPPluginThreadState threadState =
+      (HTTPPluginThreadState)getProcessContext().getPluginThreadListener();
+
+    return threadState.getAsyncHTTPClient();
+  }
+
+  /**
+   * Returns the {@link ThreadResolver} for the calling worker thread. This
+   * can be used to override the addresses of hosts for the thread.
+   *
+   * <p>This method will throw a {@link GrinderException} if not
+   * called from a worker thread.</p>
+   *
+   * @return The resolver.
+   * @exception GrinderException If an error occurs.
+   */
+  public static ThreadResolver getThreadResolver() throws GrinderException {
+
+    final HTTPPluginThreadState threadState =
+      (HTTPPluginThreadState)getProcessContext().getPluginThreadListener();
+
+    return threadState.getResolver();
+  }
+
+  /**
+   * Returns the {@link TrafficShaper} for the calling worker thread. This
+   * can be used to change the bandwidth and latency of the thread's
+   * connections.
+   *
+   * <p>This method will throw a {@link GrinderException} if not
+   * called from a worker thread.</p>
+   *
+   * @return The traffic shaper.
+   * @exception GrinderException If an error occurs.
+   */
+  public static TrafficShaper getThreadTrafficShaper()
+    throws GrinderException {
+
+    final HTTPPluginThreadState threadState =
+      (HTTPPluginThreadState)getProcessContext().getPluginThreadListener();
+
+    return threadState.getTrafficShaper();
+  }
+
   /**
    * Provides access to an {@link HTTPUtilities} instance.
    *
@@ -21,12 +21,16 @@
 
 package net.grinder.plugin.http;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
 
 import net.grinder.common.SSLContextFactory;
 import net.grinder.common.SSLContextFactory.SSLContextFactoryException;
 import net.grinder.common.SkeletonThreadLifeCycleListener;
+import net.grinder.plugin.http.dns.SystemResolver;
+import net.grinder.plugin.http.dns.ThreadResolver;
 import net.grinder.plugininterface.PluginException;
 import net.grinder.plugininterface.PluginThreadContext;
 import net.grinder.plugininterface.PluginThreadListener;
@@ -48,6 +52,8 @@ import HTTPClient.URI;
 class HTTPPluginThreadState
   extends SkeletonThreadLifeCycleListener implements PluginThreadListener {
 
+  private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+
   private final PluginThreadContext m_threadContext;
   private final SSLContextFactory m_sslContextFactory;
 
@@ -55,17 +61,71 @@ class HTTPPluginThreadState
     new HashMap<URI, HTTPConnectionWrapper>();
   private HTTPResponse m_lastResponse;
   private final Sleeper m_slowClientSleeper;
-  private final TimeAuthorityAdapter m_timeAuthority;
+  private final TimeAuthority m_timeAuthority;
+  private final TimeAuthorityAdapter m_timeAuthorityAdapter;
+  private final HTTPConnectionPool m_connectionPool;
+  private final HTTPConnectionPool m_sslConnectionPool;
+  private final ThreadResolver m_resolver;
+  private final HostResolverAdapter m_hostResolverAdapter;
+  private final TrafficShaper m_trafficShaper;
+  private AsyncHTTPClient m_asyncHTTPClient;
+  private ContentDecoder m_contentDecoder;
+  private byte[] m_responseBuffer;
 
   HTTPPluginThreadState(final PluginThreadContext threadContext,
                         final SSLContextFactory sslContextFactory,
                         final Sleeper slowClientSleeper,
                         final TimeAuthority timeAuthority)
     throws PluginException {
+    this(threadContext,
+         sslContextFactory,
+         slowClientSleeper,
+         timeAuthority,
+         null,
+         null,
+         new ThreadResolver(new SystemResolver(), false));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param threadContext The plug-in thread context.
+   * @param sslContextFactory Source of SSL contexts for new connections.
+   * @param slowClientSleeper Sleeper used to limit bandwidth.
+   * @param timeAuthority The time authority.
+   * @param connectionPool Pool in which {@code http} connections are kept
+   *  between runs, or {@code null} if connections should be closed at the
+   *  start of each run.
+   * @param sslConnectionPool Pool in which {@code https} connections are
+   *  kept between runs. The SSL context belongs to the thread, so this
+   *  pool must not be shared with other threads. {@code null} if and only
+   *  if {@code connectionPool} is {@code null}.
+   * @param resolver Resolves host names for this thread.
+   * @throws PluginException If the thread state could not be created.
+   */
+  HTTPPluginThreadState(final PluginThreadContext threadContext,
+                        final SSLContextFactory sslContextFactory,
+                        final Sleeper slowClientSleeper,
+                        final TimeAuthority timeAuthority,
+                        final HTTPConnectionPool connectionPool,
+                        final HTTPConnectionPool sslConnectionPool,
+                        final ThreadResolver resolver)
+    throws PluginException {
     m_threadContext = threadContext;
     m_sslContextFactory = sslContextFactory;
     m_slowClientSleeper = slowClientSleeper;
-    m_timeAuthority = new TimeAuthorityAdapter(timeAuthority);
+    m_timeAuthority = timeAuthority;
+    m_timeAuthorityAdapter = new TimeAuthorityAdapter(timeAuthority);
+    m_connectionPool = connectionPool;
+    m_sslConnectionPool = sslConnectionPool;
+
+    if (connectionPool != null) {
+      connectionPool.addUser();
+      sslConnectionPool.addUser();
+    }
+    m_resolver = resolver;
+    m_hostResolverAdapter = new HostResolverAdapter(resolver);
+    m_trafficShaper = new TrafficShaper(slowClientSleeper);
   }
 
   public PluginThreadContext getThreadContext() {
@@ -90,30 +150,111 @@ class HTTPPluginThreadState
     final HTTPPluginConnectionDefaults connectionDefaults =
       HTTPPluginConnectionDefaults.getConnectionDefaults();
 
-    final HTTPConnection httpConnection = new HTTPConnection(uri);
-    httpConnection.setContext(this);
+    final HTTPConnectionPool connectionPool = getConnectionPool(keyURI);
+
+    final HTTPConnection keptConnection =
+      connectionPool != null ? connectionPool.checkOut(keyURI) : null;
+
+    final HTTPConnection httpConnection;
+
+    if (keptConnection != null) {
+      // The connection may have been used by another thread.
+      httpConnection = keptConnection;
+      httpConnection.replaceContext(this);
+    }
+    else {
+      httpConnection = new HTTPConnection(uri);
+      httpConnection.setContext(this);
+    }
 
     httpConnection.setSSLSocketFactory(
       m_sslContextFactory.getSSLContext().getSocketFactory());
 
-    httpConnection.setTimeAuthority(m_timeAuthority);
+    httpConnection.setTimeAuthority(m_timeAuthorityAdapter);
+    httpConnection.setHostResolver(m_hostResolverAdapter);
 
     final HTTPConnectionWrapper newConnectionWrapper =
       new HTTPConnectionWrapper(httpConnection,
                                 connectionDefaults,
-                                m_slowClientSleeper);
+                                m_slowClientSleeper,
+                                m_trafficShaper);
+
+    if (keptConnection != null) {
+      newConnectionWrapper.setKeptFromEarlierRun();
+    }
 
     m_httpConnectionWrappers.put(keyURI, newConnectionWrapper);
 
     return newConnectionWrapper;
   }
 
+  public AsyncHTTPClient getAsyncHTTPClient() throws PluginException {
+    if (m_asyncHTTPClient == null) {
+      final HTTPPlugin plugin = HTTPPlugin.getPlugin();
+
+      m_asyncHTTPClient =
+        new AsyncHTTPClient(
+          plugin.getPluginProcessContext().getScriptContext(),
+          m_threadContext,
+          plugin.getNIOHTTPEngine(),
+          m_timeAuthority,
+          HTTPPluginConnectionDefaults.getConnectionDefaults());
+
+      m_asyncHTTPClient.setResolver(m_resolver);
+    }
+
+    return m_asyncHTTPClient;
+  }
+
   @Override
   public void beginRun() {
     // Discard our cookies.
     CookieModule.discardAllCookies(this);
 
     // Close connections from previous run.
+    closeConnections();
+
+    if (m_asyncHTTPClient != null) {
+      m_asyncHTTPClient.discardOutstanding();
+    }
+  }
+
+  @Override
+  public void endRun() {
+    if (m_connectionPool != null) {
+      // Keep the connections for a later run. The connections are
+      // wrapped afresh when they are checked out, so any changes the
+      // script made to the connection settings do not survive.
+      for (final Map.Entry<URI, HTTPConnectionWrapper> entry :
+        m_httpConnectionWrappers.entrySet()) {
+        getConnectionPool(entry.getKey()).checkIn(
+          entry.getKey(), entry.getValue().getConnection());
+      }
+
+      m_httpConnectionWrappers.clear();
+    }
+  }
+
+  @Override
+  public void endThread() {
+    closeConnections();
+
+    if (m_contentDecoder != null) {
+      m_contentDecoder.close();
+    }
+
+    if (m_connectionPool != null) {
+      m_connectionPool.removeUser();
+      m_sslConnectionPool.removeUser();
+    }
+  }
+
+  private HTTPConnectionPool getConnectionPool(URI keyURI) {
+    return "https".equals(keyURI.getScheme()) ?
+      m_sslConnectionPool : m_connectionPool;
+  }
+
+  private void closeConnections() {
     for (final HTTPConnectionWrapper connection :
       m_httpConnectionWrappers.values()) {
       connection.close();
@@ -122,6 +263,51 @@ class HTTPPluginThreadState
     m_httpConnectionWrappers.clear();
   }
 
+  /**
+   * Return the resolver used for this thread's connections.
+   *
+   * @return The resolver.
+   */
+  public ThreadResolver getResolver() {
+    return m_resolver;
+  }
+
+  /**
+   * Return the traffic shaper for this thread's connections.
+   *
+   * @return The traffic shaper.
+   */
+  public TrafficShaper getTrafficShaper() {
+    return m_trafficShaper;
+  }
+
+  /**
+   * Return a buffer through which response bodies can be streamed. The same
+   * buffer is returned each time, so it must not be retained.
+   *
+   * @return The buffer.
+   */
+  public byte[] getResponseBuffer() {
+    if (m_responseBuffer == null) {
+      m_responseBuffer = new byte[RESPONSE_BUFFER_SIZE];
+    }
+
+    return m_responseBuffer;
+  }
+
+  /**
+   * Return the decoder used for this thread's compressed responses.
+   *
+   * @return The decoder.
+   */
+  ContentDecoder getContentDecoder() {
+    if (m_contentDecoder == null) {
+      m_contentDecoder = new ContentDecoder(m_threadContext);
+    }
+
+    return m_contentDecoder;
+  }
+
   public void setLastResponse(final HTTPResponse lastResponse) {
     m_lastResponse = lastResponse;
   }
@@ -144,5 +330,20 @@ class HTTPPluginThreadState
       return m_timeAuthority.getTimeInMilliseconds();
     }
   }
-}
 
+  private static final class HostResolverAdapter implements
+      HTTPClient.HTTPConnection.HostResolver {
+
+    private final ThreadResolver m_resolver;
+
+    public HostResolverAdapter(final ThreadResolver resolver) {
+      m_resolver = resolver;
+    }
+
+    @Override
+    public InetAddress[] getAllByName(final String host)
+      throws UnknownHostException {
+      return m_resolver.resolve(host);
+    }
+  }
+}
@@ -37,6 +37,8 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -94,6 +96,13 @@ import HTTPClient.URI;
  * you may also want to use {@link #setReadResponseBody} to disable
  * the reading of response bodies, and managed them yourself.</p>
  *
+ * <p>Large response bodies can be read without holding them in memory by
+ * calling {@link #setResponseBodyRetention} to stream the body through a
+ * buffer that is reused by the worker thread. The length of the body is
+ * still recorded, and the body can be checked against an expected length
+ * ({@link #setExpectedResponseLength}) or digest
+ * ({@link #setExpectedResponseDigest}) as it is read.</p>
+ *
  * @author Philip Aston
  */
 public class HTTPRequest {
@@ -114,6 +123,9 @@ public class HTTPRequest {
   private volatile byte[] m_defaultData;
   private volatile NVPair[] m_defaultFormData;
   private volatile boolean m_readResponseBody = true;
+  private volatile int m_responseBodyRetention = -1;
+  private volatile long m_expectedResponseLength = -1;
+  private volatile String[] m_expectedResponseDigest;
 
   /**
    * Creates a new <code>HTTPRequest</code> instance.
@@ -368,6 +380,82 @@ public class HTTPRequest {
     m_readResponseBody = b;
   }
 
+  /**
+   * Return the maximum number of bytes of each response body that will be
+   * retained.
+   *
+   * @return The number of bytes, or {@code -1} if the whole response body
+   *         is retained.
+   * @see #setResponseBodyRetention
+   */
+  public int getResponseBodyRetention() {
+    return m_responseBodyRetention;
+  }
+
+  /**
+   * Set the maximum number of bytes of each response body that will be
+   * retained.
+   *
+   * <p>By default, the whole response body is read into memory, and is
+   * available from {@link HTTPResponse#getData()} and
+   * {@link HTTPResponse#getText()}. If a non-negative value is set, the body
+   * is instead streamed through a buffer that belongs to the worker thread,
+   * and only the first {@code bytes} bytes are kept. The recorded response
+   * length is that of the whole body. Use {@code 0} to discard the body
+   * entirely.</p>
+   *
+   * <p>This setting has no effect if {@link #setReadResponseBody} has been
+   * used to disable the reading of response bodies.</p>
+   *
+   * @param bytes
+   *          The number of bytes to retain, or {@code -1} to retain the
+   *          whole response body.
+   */
+  public void setResponseBodyRetention(int bytes) {
+    if (bytes < -1) {
+      throw new IllegalArgumentException("Invalid retention: " + bytes);
+    }
+
+    m_responseBodyRetention = bytes;
+  }
+
+  /**
+   * Set the expected length of response bodies. If a response body has a
+   * different length, the test will be marked as failed.
+   *
+   * @param length
+   *          The expected length in bytes, or {@code -1} if the length should
+   *          not be checked.
+   */
+  public void setExpectedResponseLength(long length) {
+    m_expectedResponseLength = length;
+  }
+
+  /**
+   * Set the expected digest of response bodies. The digest is calculated
+   * as the body is read. If it does not match, the test will be marked as
+   * failed.
+   *
+   * @param algorithm
+   *          The digest algorithm, for example {@code "MD5"} or
+   *          {@code "SHA-1"}. Use {@code null} to disable the check.
+   * @param digest
+   *          The expected digest, in hexadecimal.
+   * @throws NoSuchAlgorithmException
+   *           If {@code algorithm} is not supported.
+   */
+  public void setExpectedResponseDigest(String algorithm, String digest)
+    throws NoSuchAlgorithmException {
+
+    if (algorithm == null) {
+      m_expectedResponseDigest = null;
+    }
+    else {
+      MessageDigest.getInstance(algorithm);
+      m_expectedResponseDigest = new String[] { algorithm, digest };
+    }
+  }
+
   /**
    * Makes an HTTP <code>DELETE</code> request.
    *
@@ -1262,8 +1350,10 @@ public class HTTPRequest {
       final String path =
         fragment != null ? pathAndQuery + '#' + fragment : pathAndQuery;
 
-      final HTTPConnection connection =
-        threadState.getConnectionWrapper(m_url).getConnection();
+      final HTTPConnectionWrapper connectionWrapper =
+        threadState.getConnectionWrapper(m_url);
+
+      final HTTPConnection connection = connectionWrapper.getConnection();
 
       // This will be different to the time the Test was started if
       // the Test wraps several HTTPRequests.
@@ -1271,6 +1361,10 @@ public class HTTPRequest {
         connection.getTimeAuthority().getTimeInMilliseconds();
 
       final long oldConnections = connection.getConnectionsEstablished();
+      final long oldFullHandshakes = connection.getFullHandshakes();
+      final long oldResumedHandshakes = connection.getResumedHandshakes();
+
+      threadState.getTrafficShaper().addLatency();
 
       final HTTPResponse httpResponse;
 
@@ -1283,17 +1377,65 @@ public class HTTPRequest {
         throw new TimeoutException(e);
       }
 
-      final int responseLength;
+      final long responseLength;
+      final long decodedResponseLength;
+      String validationFailure = null;
 
       if (m_readResponseBody) {
-        // Read the entire response.
-        // With standard HTTPClient, data is null <=> if Content-Length is 0.
-        // We've modified HTTPClient to avoid this.
-        responseLength = httpResponse.getData().length;
+        final int retention = m_responseBodyRetention;
+        final ResponseBodyValidator validator = createValidator();
+        final String contentEncoding =
+          httpResponse.getDeferredContentEncoding();
+
+        if (contentEncoding != null) {
+          // Decode the body as it is read. The decoder stops the clock
+          // whilst it works.
+          final ContentDecoder.DecodingStream decodingStream =
+            threadState.getContentDecoder().open(
+              contentEncoding,
+              retention < 0 ? Integer.MAX_VALUE : retention,
+              validator);
+
+          responseLength =
+            httpResponse.readData(threadState.getResponseBuffer(),
+                                  0,
+                                  decodingStream);
+
+          decodingStream.close();
+
+          decodedResponseLength = decodingStream.getDecodedLength();
+
+          httpResponse.setDecodedData(decodingStream.getRetained(),
+                                      decodedResponseLength);
+
+          if (validator != null) {
+            validationFailure = validator.check(decodedResponseLength);
+          }
+        }
+        else if (retention < 0 && validator == null) {
+          // Read the entire response.
+          // With standard HTTPClient, data is null <=> if Content-Length is 0.
+          // We've modified HTTPClient to avoid this.
+          responseLength = httpResponse.getData().length;
+          decodedResponseLength = responseLength;
+        }
+        else {
+          responseLength =
+            httpResponse.readData(
+              threadState.getResponseBuffer(),
+              retention < 0 ? Integer.MAX_VALUE : retention,
+              validator);
+          decodedResponseLength = responseLength;
+
+          if (validator != null) {
+            validationFailure = validator.check(responseLength);
+          }
+        }
       }
       else {
         httpResponse.getStatusCode();
         responseLength = 0;
+        decodedResponseLength = 0;
       }
 
       // Stop the clock whilst we do potentially expensive result processing.
@@ -1305,6 +1447,12 @@ public class HTTPRequest {
         httpResponse.getTimeToFirstByte() - startTime;
       final boolean newConnection =
           oldConnections != connection.getConnectionsEstablished();
+      final boolean reusedConnection =
+          connectionWrapper.clearKeptFromEarlierRun() && !newConnection;
+      final long fullHandshakes =
+          connection.getFullHandshakes() - oldFullHandshakes;
+      final long resumedHandshakes =
+          connection.getResumedHandshakes() - oldResumedHandshakes;
 
       final int statusCode = httpResponse.getStatusCode();
 
@@ -1329,7 +1477,13 @@ public class HTTPRequest {
         break;
 
       default:
-        logger.info(message);
+        if (validationFailure != null) {
+          logger.error(message + " [Invalid response body, " +
+                       validationFailure + "]");
+        }
+        else {
+          logger.info(message);
+        }
         break;
       }
 
@@ -1345,6 +1499,10 @@ public class HTTPRequest {
           statisticsForCurrentTest.addLong(
             StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY, responseLength);
 
+          statisticsForCurrentTest.addLong(
+            StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
+            decodedResponseLength);
+
           // If many HTTPRequests are wrapped in the same Test, the
           // last one wins.
           statisticsForCurrentTest.setLong(
@@ -1361,6 +1519,10 @@ public class HTTPRequest {
               StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_ERRORS_KEY, 1);
           }
 
+          if (validationFailure != null) {
+            statisticsForCurrentTest.setSuccess(false);
+          }
+
           if (newConnection) {
             statisticsForCurrentTest.addLong(
               StatisticsIndexMap.HTTP_PLUGIN_DNS_TIME_KEY, dnsTime);
@@ -1371,6 +1533,23 @@ public class HTTPRequest {
             statisticsForCurrentTest.addLong(
               StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED, 1);
           }
+
+          if (reusedConnection) {
+            statisticsForCurrentTest.addLong(
+              StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_REUSED, 1);
+          }
+
+          if (fullHandshakes != 0) {
+            statisticsForCurrentTest.addLong(
+              StatisticsIndexMap.HTTP_PLUGIN_TLS_FULL_HANDSHAKES,
+              fullHandshakes);
+          }
+
+          if (resumedHandshakes != 0) {
+            statisticsForCurrentTest.addLong(
+              StatisticsIndexMap.HTTP_PLUGIN_TLS_RESUMED_HANDSHAKES,
+              resumedHandshakes);
+          }
         }
       }
       catch (InvalidContextException e) {
@@ -1385,6 +1564,26 @@ public class HTTPRequest {
       return httpResponse;
     }
 
+    private ResponseBodyValidator createValidator() throws PluginException {
+      final long expectedLength = m_expectedResponseLength;
+      final String[] expectedDigest = m_expectedResponseDigest;
+
+      if (expectedLength < 0 && expectedDigest == null) {
+        return null;
+      }
+
+      try {
+        return expectedDigest != null ?
+          new ResponseBodyValidator(expectedLength,
+                                    expectedDigest[0],
+                                    expectedDigest[1]) :
+          new ResponseBodyValidator(expectedLength, null, null);
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new PluginException("Failed to create digest", e);
+      }
+    }
+
     abstract HTTPResponse doRequest(HTTPConnection connection,
                                     String path,
                                     NVPair[] headers)
@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2011 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -27,15 +27,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.grinder.common.GrinderException;
-import net.grinder.plugin.http.tcpproxyfilter.RegularExpressions;
-import net.grinder.plugin.http.tcpproxyfilter.RegularExpressionsImplementation;
 import net.grinder.plugininterface.PluginProcessContext;
-import net.grinder.util.AttributeStringParser;
-import net.grinder.util.AttributeStringParserImplementation;
 import net.grinder.util.http.URIParser;
 import net.grinder.util.http.URIParserImplementation;
 import HTTPClient.Codecs;
@@ -51,14 +45,9 @@ import HTTPClient.NVPair;
 class HTTPUtilitiesImplementation implements HTTPUtilities {
 
   private final URIParser m_uriParser = new URIParserImplementation();
-  private final RegularExpressions m_regularExpressions =
-    new RegularExpressionsImplementation();
-  private final AttributeStringParser m_attributeStringParser =
-    new AttributeStringParserImplementation();
 
   private final ThreadLocal<ParsedBody> m_parsedBodyThreadLocal =
     new ThreadLocal<ParsedBody>();
-  private final NameValue[] m_emptyNameValues = new NameValue[0];
 
   private final PluginProcessContext m_processContext;
 
@@ -242,15 +231,20 @@ class HTTPUtilitiesImplementation implements HTTPUtilities {
   /**
    * Cache parse results from a HTTPResponse.
    *
+   * <p>The body is scanned lazily, and only as far as is necessary to
+   * answer each query. A single scan finds the tokens for all of the
+   * queries.</p>
+   *
    * <p>Specific to a thread, so no need to synchronise.</p>
    */
-  private final class ParsedBody {
+  private final class ParsedBody implements BodyTokenScanner.Listener {
 
     private final HTTPResponse m_response;
     private final String m_body;
-    private final MatchList m_bodyInputMatchList;
-    private final MatchList m_hiddenInputMatchList;
-    private final MatchList m_bodyURIMatchList;
+    private final BodyTokenScanner m_scanner;
+    private final MatchList m_bodyInputMatchList = new MatchList();
+    private final MatchList m_hiddenInputMatchList = new MatchList();
+    private final MatchList m_bodyURIMatchList = new MatchList();
 
     public ParsedBody(HTTPResponse response) {
       m_response = response;
@@ -263,12 +257,7 @@ class HTTPUtilitiesImplementation implements HTTPUtilities {
         throw new AssertionError(e);
       }
 
-      m_bodyInputMatchList =
-        new InputMatchList(m_regularExpressions.getInputPattern(), m_body);
-      m_hiddenInputMatchList =
-        new InputMatchList(m_regularExpressions.getHiddenInputPattern(),
-                           m_body);
-      m_bodyURIMatchList = new BodyURIMatchList(m_body);
+      m_scanner = new BodyTokenScanner(m_body, m_uriParser, this);
     }
 
     public boolean isValidForResponse(HTTPResponse response) {
@@ -301,23 +290,82 @@ class HTTPUtilitiesImplementation implements HTTPUtilities {
     public List<String> valuesFromBodyURI(String tokenName, String afterText) {
       return m_bodyURIMatchList.getMatchValues(tokenName, afterText);
     }
-  }
 
-  private static final class NameValue {
-    private final String m_name;
-    private final String m_value;
+    public void input(int position, String name, String value) {
+      m_bodyInputMatchList.addMatch(name, new Match(position, value));
+    }
 
-    public NameValue(String name, String value) {
-      m_name = name;
-      m_value = value;
+    public void hiddenInput(int position, String name, String value) {
+      m_hiddenInputMatchList.addMatch(name, new Match(position, value));
     }
 
-    public String getName() {
-      return m_name;
+    public void uriNameValue(int position, String name, String value) {
+      m_bodyURIMatchList.addMatch(name, new Match(position, value));
     }
 
-    public String getValue() {
-      return m_value;
+    private final class MatchList {
+      private final CachedValueMap m_cache = new CachedValueMap();
+
+      public void addMatch(String tokenName, Match match) {
+        m_cache.get(tokenName).addMatch(match);
+      }
+
+      public String getMatchValue(String tokenName, String afterText) {
+        final int startFrom = getStartFrom(afterText);
+
+        if (startFrom == -1) {
+          return "";
+        }
+
+        final Match match = getMatch(m_cache.get(tokenName), startFrom);
+        return match != null ? match.getValue() : "";
+      }
+
+      public List<String> getMatchValues(String tokenName, String afterText) {
+
+        int startFrom = getStartFrom(afterText);
+
+        if (startFrom == -1) {
+          return emptyList();
+        }
+
+        final CachedMatchList cachedValueList = m_cache.get(tokenName);
+
+        final List<String> result = new ArrayList<String>();
+
+        while (true) {
+          final Match match = getMatch(cachedValueList, startFrom);
+
+          if (match == null) {
+            return result;
+          }
+
+          result.add(match.getValue());
+          startFrom = match.getPosition() + 1;
+        }
+      }
+
+      private Match getMatch(CachedMatchList cachedValueList, int startFrom) {
+        do {
+          final Match match = cachedValueList.getMatchFrom(startFrom);
+
+          if (match != null) {
+            return match;
+          }
+
+          // Cache miss, scan more of the body.
+        }
+        while (m_scanner.scan());
+
+        return null;
+      }
+
+      private int getStartFrom(String text) {
+        // afterText parameter is infrequently used, so memoizing this
+        // method would cost more than it saved.
+
+        return text == null ? 0 : m_body.indexOf(text);
+      }
     }
   }
 
@@ -361,13 +409,6 @@ class HTTPUtilitiesImplementation implements HTTPUtilities {
     }
   }
 
-  private interface MatchList {
-
-    String getMatchValue(String tokenName, String afterText);
-
-    List<String> getMatchValues(String tokenName, String afterText);
-  }
-
   private static class CachedValueMap {
     private final Map<String, CachedMatchList> m_map =
       new HashMap<String, CachedMatchList>();
@@ -384,153 +425,4 @@ class HTTPUtilitiesImplementation implements HTTPUtilities {
       return newCachedValueList;
     }
   }
-
-  private abstract static class AbstractMatchList implements MatchList {
-    private final String m_body;
-    private final Matcher m_matcher;
-    private final CachedValueMap m_cache = new CachedValueMap();
-
-    public AbstractMatchList(Pattern pattern, String body) {
-      m_body = body;
-      m_matcher = pattern.matcher(body);
-    }
-
-    public String getMatchValue(String tokenName, String afterText) {
-      final int startFrom = getStartFrom(afterText);
-
-      if (startFrom == -1) {
-        return "";
-      }
-
-      final CachedMatchList cachedValueList = m_cache.get(tokenName);
-
-      final Match match = getMatch(cachedValueList, tokenName, startFrom);
-      return match != null ? match.getValue() : "";
-    }
-
-    public List<String> getMatchValues(String tokenName, String afterText) {
-
-      int startFrom = getStartFrom(afterText);
-
-      if (startFrom == -1) {
-        return emptyList();
-      }
-
-      final CachedMatchList cachedValueList = m_cache.get(tokenName);
-
-      final List<String> result = new ArrayList<String>();
-
-      while (true) {
-        final Match match = getMatch(cachedValueList, tokenName, startFrom);
-
-        if (match == null) {
-          return result;
-        }
-
-        result.add(match.getValue());
-        startFrom = match.getPosition() + 1;
-      }
-    }
-
-    private Match getMatch(CachedMatchList cachedValueList,
-                           String tokenName,
-                           int startFrom) {
-
-      final Match existingMatch = cachedValueList.getMatchFrom(startFrom);
-
-      if (existingMatch != null) {
-        return existingMatch;
-      }
-
-      Match result = null;
-
-      // Cache miss, parse more of the body.
-      while (result == null && m_matcher.find()) {
-        final NameValue[] nameValueArray = parseMatch();
-
-        final int matchPosition = m_matcher.start();
-
-        for (int i = 0; i < nameValueArray.length; ++i) {
-          final String name = nameValueArray[i].getName();
-
-          final Match match = new Match(matchPosition,
-                                        nameValueArray[i].getValue());
-
-          if (name.equals(tokenName)) {
-            cachedValueList.addMatch(match);
-
-            if (result == null && matchPosition >= startFrom) {
-              result = match;
-            }
-          }
-          else {
-            m_cache.get(name).addMatch(match);
-          }
-        }
-      }
-
-      return result;
-    }
-
-    private int getStartFrom(String text) {
-      // afterText parameter is infrequently used, so memoizing this
-      // method would cost more than it saved.
-
-      return text == null ? 0 : m_body.indexOf(text);
-    }
-
-    protected final Matcher getMatcher() {
-      return m_matcher;
-    }
-
-    protected abstract NameValue[] parseMatch();
-  }
-
-  private final class InputMatchList extends AbstractMatchList {
-
-    public InputMatchList(Pattern pattern, String body) {
-      super(pattern, body);
-    }
-
-    protected NameValue[] parseMatch() {
-      final AttributeStringParser.AttributeMap map =
-        m_attributeStringParser.parse(getMatcher().group());
-
-      final String name = map.get("name");
-      final String value = map.get("value");
-
-      if (name != null && value != null) {
-        return new NameValue[] { new NameValue(name, value) };
-      }
-
-      return m_emptyNameValues;
-    }
-  }
-
-  private final class BodyURIMatchList extends AbstractMatchList {
-
-    public BodyURIMatchList(String body) {
-      super(m_regularExpressions.getHyperlinkURIPattern(), body);
-    }
-
-    protected NameValue[] parseMatch() {
-      final List<NameValue> result = new ArrayList<NameValue>();
-
-      final String uri = getMatcher().group(1);
-
-      m_uriParser.parse(uri, new URIParser.AbstractParseListener() {
-        public boolean pathParameterNameValue(String name, String value) {
-          result.add(new NameValue(name, value));
-          return true;
-        }
-
-        public boolean queryStringNameValue(String name, String value) {
-          result.add(new NameValue(name, value));
-          return true;
-        }
-      });
-
-      return result.toArray(new NameValue[result.size()]);
-    }
-  }
 }
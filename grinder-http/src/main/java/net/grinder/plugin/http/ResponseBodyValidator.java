@@ -0,0 +1,126 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Checks a response body against an expected length and digest as it is
+ * streamed, so the body need not be held in memory.
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class ResponseBodyValidator extends OutputStream {
+
+  private final long m_expectedLength;
+  private final MessageDigest m_digest;
+  private final String m_expectedDigest;
+
+  /**
+   * Constructor.
+   *
+   * @param expectedLength
+   *          The expected length, or {@code -1} if the length should not be
+   *          checked.
+   * @param digestAlgorithm
+   *          The digest algorithm, or {@code null} if the digest should not
+   *          be checked.
+   * @param expectedDigest
+   *          The expected digest, in hexadecimal. Case insensitive.
+   * @throws NoSuchAlgorithmException
+   *           If {@code digestAlgorithm} is not supported.
+   */
+  public ResponseBodyValidator(long expectedLength,
+                               String digestAlgorithm,
+                               String expectedDigest)
+    throws NoSuchAlgorithmException {
+
+    m_expectedLength = expectedLength;
+
+    if (digestAlgorithm != null) {
+      m_digest = MessageDigest.getInstance(digestAlgorithm);
+      m_expectedDigest = expectedDigest;
+    }
+    else {
+      m_digest = null;
+      m_expectedDigest = null;
+    }
+  }
+
+  @Override public void write(int b) {
+    if (m_digest != null) {
+      m_digest.update((byte) b);
+    }
+  }
+
+  @Override public void write(byte[] b, int off, int len) {
+    if (m_digest != null) {
+      m_digest.update(b, off, len);
+    }
+  }
+
+  /**
+   * Check the body that has been written.
+   *
+   * @param length The length of the body.
+   * @return A description of the problem, or {@code null} if the body is
+   *         valid.
+   */
+  public String check(long length) {
+    if (m_expectedLength >= 0 && length != m_expectedLength) {
+      return "expected " + m_expectedLength + " bytes";
+    }
+
+    if (m_digest != null) {
+      final String digest = toHex(m_digest.digest());
+
+      if (!digest.equalsIgnoreCase(m_expectedDigest)) {
+        return m_digest.getAlgorithm() + " digest " + digest +
+               " does not match " + m_expectedDigest;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Convert bytes to a lower case hexadecimal string.
+   *
+   * @param bytes The bytes.
+   * @return The string.
+   */
+  static String toHex(byte[] bytes) {
+    final StringBuilder result = new StringBuilder(bytes.length * 2);
+
+    for (byte b : bytes) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16));
+      result.append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return result.toString();
+  }
+}
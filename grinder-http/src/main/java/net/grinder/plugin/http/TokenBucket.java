@@ -0,0 +1,127 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import net.grinder.util.TimeAuthority;
+
+
+/**
+ * Token bucket that limits the rate at which bytes are transferred.
+ *
+ * <p>
+ * Callers reserve bytes before transferring them. A reservation always
+ * succeeds, but may leave the bucket in debt; the returned time is how long
+ * the caller should wait before transferring the bytes. Waiting is left to
+ * the caller so that the bucket can be shared by the connections of a worker
+ * thread without holding a lock while sleeping.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class TokenBucket {
+
+  private final TimeAuthority m_timeAuthority;
+  private final int m_bytesPerSecond;
+  private final int m_capacity;
+
+  private double m_tokens;
+  private long m_lastRefill;
+
+  /**
+   * Constructor.
+   *
+   * @param timeAuthority Time authority.
+   * @param bytesPerSecond The rate at which tokens are added. Must be
+   *  positive.
+   */
+  public TokenBucket(TimeAuthority timeAuthority, int bytesPerSecond) {
+    if (bytesPerSecond < 1) {
+      throw new IllegalArgumentException("Rate must be positive");
+    }
+
+    m_timeAuthority = timeAuthority;
+    m_bytesPerSecond = bytesPerSecond;
+
+    // Allow bursts of about 20 ms worth of data. As with
+    // SlowClientBandwidthLimiterFactory, we can't sleep precisely enough to
+    // make smaller increments worthwhile.
+    m_capacity = Math.max(100, bytesPerSecond / 50);
+
+    m_tokens = m_capacity;
+    m_lastRefill = timeAuthority.getTimeInMilliseconds();
+  }
+
+  /**
+   * The number of bytes that callers should reserve at a time.
+   *
+   * @return The chunk size.
+   */
+  public int getChunkSize() {
+    return m_capacity;
+  }
+
+  public int getBytesPerSecond() {
+    return m_bytesPerSecond;
+  }
+
+  /**
+   * Reserve bytes.
+   *
+   * @param bytes The number of bytes.
+   * @return The time in milliseconds the caller should wait before
+   *  transferring the bytes.
+   */
+  public synchronized long reserve(int bytes) {
+    refill();
+
+    m_tokens -= bytes;
+
+    if (m_tokens >= 0) {
+      return 0;
+    }
+
+    return (long) Math.ceil(-m_tokens * 1000 / m_bytesPerSecond);
+  }
+
+  /**
+   * Return reserved bytes that were not transferred.
+   *
+   * @param bytes The number of bytes.
+   */
+  public synchronized void refund(int bytes) {
+    m_tokens = Math.min(m_capacity, m_tokens + bytes);
+  }
+
+  private void refill() {
+    final long now = m_timeAuthority.getTimeInMilliseconds();
+
+    if (now > m_lastRefill) {
+      m_tokens =
+        Math.min(m_capacity,
+                 m_tokens + (double) (now - m_lastRefill) *
+                            m_bytesPerSecond / 1000);
+      m_lastRefill = now;
+    }
+  }
+}
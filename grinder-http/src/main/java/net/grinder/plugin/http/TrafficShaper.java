@@ -0,0 +1,264 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import net.grinder.util.Sleeper;
+import net.grinder.util.Sleeper.ShutdownException;
+import HTTPClient.HTTPConnection.BandwidthLimiter;
+import HTTPClient.HTTPConnection.BandwidthLimiterFactory;
+import HTTPClient.HTTPConnection.DirectionalBandwidthLimiterFactory;
+
+
+/**
+ * Shapes the traffic of a worker thread to simulate the network link of a
+ * single user.
+ *
+ * <p>
+ * Upload and download bandwidth are limited separately by token buckets
+ * that are shared by all of the thread's connections, so a user that opens
+ * several connections gets no more bandwidth than one that opens a single
+ * connection. A fixed latency, with optional random jitter, can be added to
+ * each request to simulate the round trip time.
+ * </p>
+ *
+ * <p>
+ * Shaping is done by the worker thread as it transfers data; no additional
+ * threads are used. HTTP/2 response bodies are shaped by the thread that
+ * reads the HTTP/2 connection. As with
+ * {@link HTTPPluginConnection#setBandwidthLimit}, only the bytes in HTTP
+ * message bodies are taken into account.
+ * </p>
+ *
+ * <p>
+ * Changes apply to subsequent requests. The shaper for the calling worker
+ * thread can be obtained with {@link HTTPPluginControl#getThreadTrafficShaper}.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class TrafficShaper {
+
+  private static final BandwidthLimiter s_unlimitedBandwidthLimiter =
+    new BandwidthLimiter() {
+      public int maximumBytes(int position) {
+        return Integer.MAX_VALUE;
+      }
+    };
+
+  private final Sleeper m_sleeper;
+
+  private volatile TokenBucket m_downloadBucket;
+  private volatile TokenBucket m_uploadBucket;
+  private volatile long m_latency;
+  private volatile long m_jitter;
+
+  /**
+   * Constructor.
+   *
+   * @param sleeper Sleeper used to delay the worker thread.
+   */
+  TrafficShaper(Sleeper sleeper) {
+    m_sleeper = sleeper;
+  }
+
+  /**
+   * Limit the rate at which response bodies are received.
+   *
+   * @param targetBPS Target bandwidth in bits per second. Set to {@code 0}
+   *  to disable limiting.
+   */
+  public void setDownloadLimit(int targetBPS) {
+    m_downloadBucket = createBucket(targetBPS);
+  }
+
+  /**
+   * Limit the rate at which request bodies are sent.
+   *
+   * @param targetBPS Target bandwidth in bits per second. Set to {@code 0}
+   *  to disable limiting.
+   */
+  public void setUploadLimit(int targetBPS) {
+    m_uploadBucket = createBucket(targetBPS);
+  }
+
+  /**
+   * Add latency to each request.
+   *
+   * <p>
+   * The worker thread waits before sending each request. The wait is drawn
+   * from a normal distribution; values less than zero are treated as zero.
+   * The wait is included in the time for the request.
+   * </p>
+   *
+   * @param latency Mean latency in milliseconds. Set to {@code 0} to
+   *  disable.
+   * @param jitter Standard deviation of the latency in milliseconds.
+   */
+  public void setLatency(long latency, long jitter) {
+    if (latency < 0 || jitter < 0) {
+      throw new IllegalArgumentException(
+        "Latency and jitter must not be negative");
+    }
+
+    m_latency = latency;
+    m_jitter = jitter;
+  }
+
+  /**
+   * Return the download limit.
+   *
+   * @return The limit in bits per second, or {@code 0} if download is not
+   *  limited.
+   */
+  public int getDownloadLimit() {
+    return getLimit(m_downloadBucket);
+  }
+
+  /**
+   * Return the upload limit.
+   *
+   * @return The limit in bits per second, or {@code 0} if upload is not
+   *  limited.
+   */
+  public int getUploadLimit() {
+    return getLimit(m_uploadBucket);
+  }
+
+  public long getLatency() {
+    return m_latency;
+  }
+
+  public long getJitter() {
+    return m_jitter;
+  }
+
+  private TokenBucket createBucket(int targetBPS) {
+    if (targetBPS < 0) {
+      throw new IllegalArgumentException("Limit must not be negative");
+    }
+
+    if (targetBPS == 0) {
+      return null;
+    }
+
+    return new TokenBucket(m_sleeper, Math.max(1, targetBPS / 8));
+  }
+
+  private static int getLimit(TokenBucket bucket) {
+    return bucket != null ? bucket.getBytesPerSecond() * 8 : 0;
+  }
+
+  /**
+   * Wait for the configured latency.
+   */
+  void addLatency() {
+    final long latency = m_latency;
+
+    if (latency > 0) {
+      sleep(latency, m_jitter);
+    }
+  }
+
+  /**
+   * Create a factory for the limiters of a connection.
+   *
+   * @param delegate Factory for the connection's own limiters, or
+   *  {@code null}. The delegate is applied to both directions, before the
+   *  shared limits.
+   * @return The factory.
+   */
+  BandwidthLimiterFactory createBandwidthLimiterFactory(
+    final BandwidthLimiterFactory delegate) {
+
+    return new DirectionalBandwidthLimiterFactory() {
+      public BandwidthLimiter create() {
+        return createLimiter(m_downloadBucket);
+      }
+
+      public BandwidthLimiter createForRequest() {
+        return createLimiter(m_uploadBucket);
+      }
+
+      private BandwidthLimiter createLimiter(TokenBucket bucket) {
+        final BandwidthLimiter delegateLimiter =
+          delegate != null ? delegate.create() : s_unlimitedBandwidthLimiter;
+
+        if (bucket == null) {
+          return delegateLimiter;
+        }
+
+        return new SharedBandwidthLimiter(bucket, delegateLimiter);
+      }
+    };
+  }
+
+  private void sleep(long time, long sigma) {
+    try {
+      m_sleeper.sleepNormal(time, sigma);
+    }
+    catch (ShutdownException e) {
+      // Don't propagate exception - the thread will work out it's shutdown
+      // soon enough.
+    }
+  }
+
+  /**
+   * Limiter for one transfer that takes its allowance from a shared bucket.
+   * The bucket is charged before the bytes are transferred; the part of an
+   * allowance that was not used is refunded on the next call.
+   */
+  private final class SharedBandwidthLimiter implements BandwidthLimiter {
+    private final TokenBucket m_bucket;
+    private final BandwidthLimiter m_delegate;
+
+    private int m_lastPosition;
+    private int m_allowance;
+
+    public SharedBandwidthLimiter(TokenBucket bucket,
+                                  BandwidthLimiter delegate) {
+      m_bucket = bucket;
+      m_delegate = delegate;
+    }
+
+    public int maximumBytes(int position) {
+      final int unused = m_allowance - (position - m_lastPosition);
+
+      if (unused > 0) {
+        m_bucket.refund(unused);
+      }
+
+      final int result =
+        Math.min(m_delegate.maximumBytes(position), m_bucket.getChunkSize());
+
+      final long wait = m_bucket.reserve(result);
+
+      if (wait > 0) {
+        sleep(wait, 0);
+      }
+
+      m_lastPosition = position;
+      m_allowance = result;
+
+      return result;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import net.grinder.util.TimeAuthority;
+
+
+/**
+ * {@link Resolver} that caches the results of a delegate for a fixed time.
+ *
+ * <p>
+ * Unlike the JVM's address cache, the time to live is under the control of
+ * the test, so repeated runs see the same number of lookups. Failed lookups
+ * are not cached.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class CachingResolver implements Resolver {
+
+  private final Resolver m_delegate;
+  private final long m_timeToLive;
+  private final TimeAuthority m_timeAuthority;
+
+  /** Guarded by itself. */
+  private final Map<String, Entry> m_cache = new HashMap<String, Entry>();
+
+  /**
+   * Constructor.
+   *
+   * @param delegate The resolver whose results should be cached.
+   * @param timeToLive How long results are cached, in milliseconds.
+   * @param timeAuthority Time authority.
+   */
+  public CachingResolver(Resolver delegate,
+                         long timeToLive,
+                         TimeAuthority timeAuthority) {
+    if (timeToLive < 0) {
+      throw new IllegalArgumentException("Negative time to live");
+    }
+
+    m_delegate = delegate;
+    m_timeToLive = timeToLive;
+    m_timeAuthority = timeAuthority;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public InetAddress[] resolve(String host)
+    throws UnknownHostException {
+
+    final String key = host.toLowerCase(Locale.ENGLISH);
+
+    synchronized (m_cache) {
+      final Entry entry = m_cache.get(key);
+
+      if (entry != null &&
+          m_timeAuthority.getTimeInMilliseconds() < entry.m_expiryTime) {
+        return entry.m_addresses;
+      }
+    }
+
+    // Resolve without holding the lock. Concurrent misses for the same
+    // host may each call the delegate; the last result wins.
+    final InetAddress[] addresses = m_delegate.resolve(host);
+
+    synchronized (m_cache) {
+      m_cache.put(
+        key,
+        new Entry(addresses,
+                  m_timeAuthority.getTimeInMilliseconds() + m_timeToLive));
+    }
+
+    return addresses;
+  }
+
+  private static final class Entry {
+    private final InetAddress[] m_addresses;
+    private final long m_expiryTime;
+
+    public Entry(InetAddress[] addresses, long expiryTime) {
+      m_addresses = addresses;
+      m_expiryTime = expiryTime;
+    }
+  }
+}
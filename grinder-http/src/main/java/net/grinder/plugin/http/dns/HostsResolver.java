@@ -0,0 +1,76 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * {@link Resolver} that looks up hosts in a fixed map, in the manner of a
+ * hosts file. Other hosts are resolved by a delegate.
+ *
+ * @author Philip Aston
+ */
+public final class HostsResolver implements Resolver {
+
+  private final Map<String, InetAddress[]> m_hosts =
+    new HashMap<String, InetAddress[]>();
+
+  private final Resolver m_delegate;
+
+  /**
+   * Constructor.
+   *
+   * @param hosts Map of host name to addresses. Host names are matched
+   *  without regard to case. The map is copied.
+   * @param delegate Resolver for hosts that are not in the map.
+   */
+  public HostsResolver(Map<String, InetAddress[]> hosts, Resolver delegate) {
+    for (Map.Entry<String, InetAddress[]> entry : hosts.entrySet()) {
+      if (entry.getValue().length == 0) {
+        throw new IllegalArgumentException(
+          "No addresses for " + entry.getKey());
+      }
+
+      m_hosts.put(entry.getKey().toLowerCase(Locale.ENGLISH),
+                  entry.getValue().clone());
+    }
+
+    m_delegate = delegate;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public InetAddress[] resolve(String host)
+    throws UnknownHostException {
+
+    final InetAddress[] addresses =
+      m_hosts.get(host.toLowerCase(Locale.ENGLISH));
+
+    return addresses != null ? addresses : m_delegate.resolve(host);
+  }
+}
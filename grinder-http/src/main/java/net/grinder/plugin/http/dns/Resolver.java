@@ -0,0 +1,51 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+
+/**
+ * Resolves host names to addresses for the HTTP plug-in.
+ *
+ * <p>
+ * Implementations can be plugged in with the
+ * {@code grinder.http.dns.resolver} property. They must have a public
+ * constructor that takes no arguments, and must be thread safe.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public interface Resolver {
+
+  /**
+   * Look up the addresses of a host. Connections are attempted to each
+   * address in turn.
+   *
+   * @param host The host name.
+   * @return The addresses. Must not be empty, and must not be modified by
+   *  the caller.
+   * @throws UnknownHostException If the host could not be resolved.
+   */
+  InetAddress[] resolve(String host) throws UnknownHostException;
+}
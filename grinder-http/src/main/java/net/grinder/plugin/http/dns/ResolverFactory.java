@@ -0,0 +1,188 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.plugininterface.PluginException;
+import net.grinder.util.TimeAuthority;
+
+
+/**
+ * Creates the {@link Resolver} for a worker process from the
+ * {@code grinder.http.dns.*} properties.
+ *
+ * @author Philip Aston
+ */
+public final class ResolverFactory {
+
+  private final GrinderProperties m_properties;
+  private final TimeAuthority m_timeAuthority;
+
+  /**
+   * Constructor.
+   *
+   * @param properties The properties.
+   * @param timeAuthority Time authority.
+   */
+  public ResolverFactory(GrinderProperties properties,
+                         TimeAuthority timeAuthority) {
+    m_properties = properties;
+    m_timeAuthority = timeAuthority;
+  }
+
+  /**
+   * Create a resolver to be shared by the worker threads.
+   *
+   * @return The resolver.
+   * @throws PluginException If the properties are invalid.
+   */
+  public Resolver createProcessResolver() throws PluginException {
+
+    Resolver result = createBaseResolver();
+
+    final long timeToLive =
+      m_properties.getLong("grinder.http.dns.timeToLive", 0);
+
+    if (timeToLive > 0) {
+      result = new CachingResolver(result, timeToLive, m_timeAuthority);
+    }
+
+    final String hosts = m_properties.getProperty("grinder.http.dns.hosts");
+
+    if (hosts != null) {
+      result = new HostsResolver(parseHosts(hosts), result);
+    }
+
+    final String selection =
+      m_properties.getProperty("grinder.http.dns.selection", "first");
+
+    if ("roundRobin".equals(selection)) {
+      result =
+        new SelectingResolver(result,
+                              SelectingResolver.Selection.ROUND_ROBIN,
+                              null);
+    }
+    else if ("random".equals(selection)) {
+      result =
+        new SelectingResolver(result,
+                              SelectingResolver.Selection.RANDOM,
+                              new Random());
+    }
+    else if (!"first".equals(selection)) {
+      throw new PluginException(
+        "Unknown value for grinder.http.dns.selection: '" + selection + "'");
+    }
+
+    return result;
+  }
+
+  /**
+   * Create a resolver for a worker thread.
+   *
+   * @param processResolver The resolver shared by the worker process.
+   * @return The resolver.
+   */
+  public ThreadResolver createThreadResolver(Resolver processResolver) {
+    return new ThreadResolver(
+      processResolver,
+      m_properties.getBoolean("grinder.http.dns.pinPerThread", false));
+  }
+
+  private Resolver createBaseResolver() throws PluginException {
+    final String className =
+      m_properties.getProperty("grinder.http.dns.resolver");
+
+    if (className == null) {
+      return new SystemResolver();
+    }
+
+    try {
+      return Class.forName(className).asSubclass(Resolver.class)
+             .newInstance();
+    }
+    catch (ClassNotFoundException e) {
+      throw new PluginException("Resolver class not found", e);
+    }
+    catch (ClassCastException e) {
+      throw new PluginException(
+        className + " does not implement " + Resolver.class.getName(), e);
+    }
+    catch (InstantiationException e) {
+      throw new PluginException("Could not create resolver", e);
+    }
+    catch (IllegalAccessException e) {
+      throw new PluginException("Could not create resolver", e);
+    }
+  }
+
+  /**
+   * Parse a list of hosts of the form
+   * {@code host=address[,address...] ...}.
+   */
+  private static Map<String, InetAddress[]> parseHosts(String hosts)
+    throws PluginException {
+
+    final Map<String, InetAddress[]> result =
+      new HashMap<String, InetAddress[]>();
+
+    for (String entry : hosts.trim().split("\\s+")) {
+      if (entry.length() == 0) {
+        continue;
+      }
+
+      final int equals = entry.indexOf('=');
+
+      if (equals <= 0 || equals == entry.length() - 1) {
+        throw new PluginException(
+          "Malformed grinder.http.dns.hosts entry: '" + entry + "'");
+      }
+
+      final String[] addresses = entry.substring(equals + 1).split(",", -1);
+      final InetAddress[] resolved = new InetAddress[addresses.length];
+
+      for (int i = 0; i < addresses.length; ++i) {
+        if (addresses[i].length() == 0) {
+          throw new PluginException(
+            "Malformed grinder.http.dns.hosts entry: '" + entry + "'");
+        }
+
+        try {
+          resolved[i] = InetAddress.getByName(addresses[i]);
+        }
+        catch (UnknownHostException e) {
+          throw new PluginException(
+            "Malformed grinder.http.dns.hosts entry: '" + entry + "'", e);
+        }
+      }
+
+      result.put(entry.substring(0, equals), resolved);
+    }
+
+    return result;
+  }
+}
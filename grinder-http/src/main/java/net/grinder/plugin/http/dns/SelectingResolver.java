@@ -0,0 +1,122 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * {@link Resolver} that spreads connections across the addresses of a
+ * host.
+ *
+ * <p>
+ * A connection is made to the first address that accepts it, so the
+ * addresses returned by the delegate are rotated to put the selected
+ * address first. The remaining addresses are kept as fallbacks.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class SelectingResolver implements Resolver {
+
+  /**
+   * How to select an address.
+   */
+  public enum Selection {
+    /** Select each address in turn. */
+    ROUND_ROBIN,
+
+    /** Select an address at random. */
+    RANDOM,
+  }
+
+  private final Resolver m_delegate;
+  private final Selection m_selection;
+  private final Random m_random;
+
+  /** Guarded by itself. */
+  private final Map<String, Integer> m_nextIndex =
+    new HashMap<String, Integer>();
+
+  /**
+   * Constructor.
+   *
+   * @param delegate Resolver that supplies the addresses.
+   * @param selection How to select an address.
+   * @param random Source of random numbers for {@link Selection#RANDOM}.
+   */
+  public SelectingResolver(Resolver delegate,
+                           Selection selection,
+                           Random random) {
+    m_delegate = delegate;
+    m_selection = selection;
+    m_random = random;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public InetAddress[] resolve(String host)
+    throws UnknownHostException {
+
+    final InetAddress[] addresses = m_delegate.resolve(host);
+
+    if (addresses.length < 2) {
+      return addresses;
+    }
+
+    final int selected;
+
+    switch (m_selection) {
+      case ROUND_ROBIN:
+        final String key = host.toLowerCase(Locale.ENGLISH);
+
+        synchronized (m_nextIndex) {
+          final Integer next = m_nextIndex.get(key);
+          selected = next != null ? next % addresses.length : 0;
+          m_nextIndex.put(key, selected + 1);
+        }
+        break;
+
+      case RANDOM:
+        selected = m_random.nextInt(addresses.length);
+        break;
+
+      default:
+        throw new AssertionError(m_selection);
+    }
+
+    final InetAddress[] result = new InetAddress[addresses.length];
+
+    System.arraycopy(addresses, selected, result, 0,
+                     addresses.length - selected);
+    System.arraycopy(addresses, 0, result, addresses.length - selected,
+                     selected);
+
+    return result;
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2011 Philip Aston
+// Copyright (C) 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -19,24 +19,25 @@
 // ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
 // OF THE POSSIBILITY OF SUCH DAMAGE.
 
-package net.grinder.synchronisation.messages;
+package net.grinder.plugin.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 
 /**
- * Barrier group message requesting that a barrier be added.
+ * {@link Resolver} that uses the JVM's name service, and so is subject to
+ * the JVM's address cache.
  *
  * @author Philip Aston
  */
-public class AddBarrierMessage extends AbstractBarrierGroupMessage {
-
-  private static final long serialVersionUID = 1L;
+public final class SystemResolver implements Resolver {
 
   /**
-   * Constructor.
-   *
-   * @param name Barrier name.
+   * {@inheritDoc}
    */
-  public AddBarrierMessage(String name) {
-    super(name);
+  @Override public InetAddress[] resolve(String host)
+    throws UnknownHostException {
+    return InetAddress.getAllByName(host);
   }
 }
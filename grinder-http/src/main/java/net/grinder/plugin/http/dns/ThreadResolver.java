@@ -0,0 +1,142 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * The {@link Resolver} used by a worker thread.
+ *
+ * <p>
+ * Scripts can override the addresses of a host for the calling worker
+ * thread with {@link #setAddresses}. If pinning is enabled, the first
+ * result for each host is kept for the lifetime of the thread, so each
+ * thread talks to a single server even if other threads are spread across
+ * several. Other lookups are passed to a delegate that is shared by the
+ * worker process.
+ * </p>
+ *
+ * @author Philip Aston
+ * @see net.grinder.plugin.http.HTTPPluginControl#getThreadResolver()
+ */
+public final class ThreadResolver implements Resolver {
+
+  private final Resolver m_delegate;
+  private final boolean m_pin;
+
+  /** Guarded by this. */
+  private final Map<String, InetAddress[]> m_overrides =
+    new HashMap<String, InetAddress[]>();
+
+  /** Guarded by this. */
+  private final Map<String, InetAddress[]> m_pinned =
+    new HashMap<String, InetAddress[]>();
+
+  /**
+   * Constructor.
+   *
+   * @param delegate The process resolver.
+   * @param pin {@code true} if the first result for each host should be
+   *  kept for the lifetime of the thread.
+   */
+  public ThreadResolver(Resolver delegate, boolean pin) {
+    m_delegate = delegate;
+    m_pin = pin;
+  }
+
+  /**
+   * Override the addresses of a host for this worker thread. This affects
+   * connections that are opened after the call.
+   *
+   * @param host The host name. Matched without regard to case.
+   * @param addresses The addresses, usually IP address literals. An empty
+   *  array or {@code null} removes the override.
+   * @throws UnknownHostException If an address cannot be resolved.
+   */
+  public void setAddresses(String host, String[] addresses)
+    throws UnknownHostException {
+
+    final String key = host.toLowerCase(Locale.ENGLISH);
+
+    if (addresses == null || addresses.length == 0) {
+      synchronized (this) {
+        m_overrides.remove(key);
+      }
+    }
+    else {
+      final InetAddress[] resolved = new InetAddress[addresses.length];
+
+      for (int i = 0; i < addresses.length; ++i) {
+        resolved[i] = InetAddress.getByName(addresses[i]);
+      }
+
+      synchronized (this) {
+        m_overrides.put(key, resolved);
+      }
+    }
+  }
+
+  /**
+   * Forget the results that have been pinned for this worker thread.
+   */
+  public synchronized void clearPinned() {
+    m_pinned.clear();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override public InetAddress[] resolve(String host)
+    throws UnknownHostException {
+
+    final String key = host.toLowerCase(Locale.ENGLISH);
+
+    synchronized (this) {
+      final InetAddress[] overridden = m_overrides.get(key);
+
+      if (overridden != null) {
+        return overridden;
+      }
+
+      final InetAddress[] pinned = m_pinned.get(key);
+
+      if (pinned != null) {
+        return pinned;
+      }
+    }
+
+    final InetAddress[] addresses = m_delegate.resolve(host);
+
+    if (m_pin) {
+      synchronized (this) {
+        m_pinned.put(key, addresses);
+      }
+    }
+
+    return addresses;
+  }
+}
@@ -0,0 +1,234 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * An HTTP/2 frame (RFC 7540, section 4).
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class Frame {
+
+  static final int DATA = 0x0;
+  static final int HEADERS = 0x1;
+  static final int PRIORITY = 0x2;
+  static final int RST_STREAM = 0x3;
+  static final int SETTINGS = 0x4;
+  static final int PUSH_PROMISE = 0x5;
+  static final int PING = 0x6;
+  static final int GOAWAY = 0x7;
+  static final int WINDOW_UPDATE = 0x8;
+  static final int CONTINUATION = 0x9;
+
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+  static final int HEADER_LENGTH = 9;
+  static final int DEFAULT_MAXIMUM_FRAME_SIZE = 16384;
+  static final int MAXIMUM_FRAME_SIZE = 0xFFFFFF;
+  static final int DEFAULT_WINDOW_SIZE = 65535;
+  static final int MAXIMUM_WINDOW_SIZE = 0x7FFFFFFF;
+
+  static final byte[] CLIENT_PREFACE =
+    "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(HPACKEncoder.CHARSET);
+
+  private final int m_type;
+  private final int m_flags;
+  private final int m_streamID;
+  private final byte[] m_payload;
+
+  private Frame(int type, int flags, int streamID, byte[] payload) {
+    m_type = type;
+    m_flags = flags;
+    m_streamID = streamID;
+    m_payload = payload;
+  }
+
+  /**
+   * Read a frame.
+   *
+   * @param in The stream to read from.
+   * @param maximumFrameSize The largest payload we will accept.
+   * @return The frame.
+   * @throws IOException If the frame could not be read, or is too large.
+   */
+  public static Frame read(DataInputStream in, int maximumFrameSize)
+    throws IOException {
+
+    final int length =
+      (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+    final int type = in.readUnsignedByte();
+    final int flags = in.readUnsignedByte();
+    final int streamID = in.readInt() & 0x7FFFFFFF;
+
+    if (length > maximumFrameSize) {
+      throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR,
+                               "Frame of " + length + " bytes is too large");
+    }
+
+    final byte[] payload = new byte[length];
+    in.readFully(payload);
+
+    return new Frame(type, flags, streamID, payload);
+  }
+
+  /**
+   * Write a frame. The caller should synchronise writes to the stream.
+   *
+   * @param out The stream to write to.
+   * @param type Frame type.
+   * @param flags Frame flags.
+   * @param streamID Stream identifier.
+   * @param payload Buffer containing the payload.
+   * @param offset Offset of the payload.
+   * @param length Length of the payload.
+   * @throws IOException If the frame could not be written.
+   */
+  public static void write(OutputStream out,
+                           int type,
+                           int flags,
+                           int streamID,
+                           byte[] payload,
+                           int offset,
+                           int length) throws IOException {
+    final byte[] header = {
+      (byte) (length >>> 16),
+      (byte) (length >>> 8),
+      (byte) length,
+      (byte) type,
+      (byte) flags,
+      (byte) (streamID >>> 24),
+      (byte) (streamID >>> 16),
+      (byte) (streamID >>> 8),
+      (byte) streamID,
+    };
+
+    out.write(header);
+    out.write(payload, offset, length);
+  }
+
+  /**
+   * Create a {@code SETTINGS} payload.
+   *
+   * @param settings Alternating identifiers and values.
+   * @return The payload.
+   */
+  public static byte[] settings(int... settings) {
+    final byte[] result = new byte[settings.length / 2 * 6];
+
+    for (int i = 0; i < settings.length / 2; ++i) {
+      putShort(result, i * 6, settings[i * 2]);
+      putInt(result, i * 6 + 2, settings[i * 2 + 1]);
+    }
+
+    return result;
+  }
+
+  static void putShort(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) (value >>> 8);
+    buffer[offset + 1] = (byte) value;
+  }
+
+  static void putInt(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) (value >>> 24);
+    buffer[offset + 1] = (byte) (value >>> 16);
+    buffer[offset + 2] = (byte) (value >>> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+
+  static int getInt(byte[] buffer, int offset) {
+    return ((buffer[offset] & 0xFF) << 24) |
+           ((buffer[offset + 1] & 0xFF) << 16) |
+           ((buffer[offset + 2] & 0xFF) << 8) |
+           (buffer[offset + 3] & 0xFF);
+  }
+
+  public int getType() {
+    return m_type;
+  }
+
+  public boolean hasFlag(int flag) {
+    return (m_flags & flag) != 0;
+  }
+
+  public int getStreamID() {
+    return m_streamID;
+  }
+
+  public byte[] getPayload() {
+    return m_payload;
+  }
+
+  /**
+   * The offset of the content of a {@code DATA} or {@code HEADERS} frame,
+   * after the pad length and priority fields.
+   *
+   * @return The offset.
+   */
+  public int getContentOffset() {
+    int result = hasFlag(FLAG_PADDED) ? 1 : 0;
+
+    if (m_type == HEADERS && hasFlag(FLAG_PRIORITY)) {
+      result += 5;
+    }
+
+    return result;
+  }
+
+  /**
+   * The length of the content of a {@code DATA} or {@code HEADERS} frame,
+   * excluding padding.
+   *
+   * @return The length.
+   * @throws HTTP2Exception If the padding is invalid.
+   */
+  public int getContentLength() throws HTTP2Exception {
+    final int padding =
+      hasFlag(FLAG_PADDED) && m_payload.length > 0 ? m_payload[0] & 0xFF : 0;
+
+    final int result = m_payload.length - getContentOffset() - padding;
+
+    if (result < 0) {
+      throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                               "Invalid padding");
+    }
+
+    return result;
+  }
+}
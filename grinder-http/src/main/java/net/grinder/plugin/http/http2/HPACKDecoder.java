@@ -0,0 +1,180 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * HPACK header block decoder (RFC 7541).
+ *
+ * <p>
+ * Every header block received on a connection must be decoded, in order,
+ * to keep the dynamic table synchronised with the peer's encoder.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class HPACKDecoder {
+
+  private final HeaderTable m_table = new HeaderTable();
+
+  private byte[] m_block;
+  private int m_position;
+  private int m_end;
+
+  /**
+   * Decode a header block.
+   *
+   * @param block Buffer containing the header block.
+   * @param offset Offset of the header block.
+   * @param length Length of the header block.
+   * @return The headers.
+   * @throws HTTP2Exception If the header block is invalid.
+   */
+  public List<NVPair> decode(byte[] block, int offset, int length)
+    throws HTTP2Exception {
+
+    m_block = block;
+    m_position = offset;
+    m_end = offset + length;
+
+    final List<NVPair> result = new ArrayList<NVPair>();
+
+    while (m_position < m_end) {
+      final int b = m_block[m_position] & 0xFF;
+
+      if ((b & 0x80) != 0) {
+        // Indexed header field.
+        result.add(m_table.get(readInteger(7)));
+      }
+      else if ((b & 0x40) != 0) {
+        // Literal with incremental indexing.
+        final NVPair header = readLiteral(6);
+        m_table.add(header.getName(), header.getValue());
+        result.add(header);
+      }
+      else if ((b & 0x20) != 0) {
+        // Dynamic table size update.
+        if (!result.isEmpty()) {
+          throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                                   "Table size update after header field");
+        }
+
+        final int size = readInteger(5);
+
+        if (size > HeaderTable.DEFAULT_MAXIMUM_SIZE) {
+          throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                                   "Table size " + size + " too large");
+        }
+
+        m_table.setMaximumSize(size);
+      }
+      else {
+        // Literal without indexing, or never indexed.
+        result.add(readLiteral(4));
+      }
+    }
+
+    m_block = null;
+
+    return result;
+  }
+
+  /**
+   * The dynamic table. For unit tests.
+   *
+   * @return The table.
+   */
+  HeaderTable getTable() {
+    return m_table;
+  }
+
+  private NVPair readLiteral(int prefixBits) throws HTTP2Exception {
+    final int index = readInteger(prefixBits);
+
+    final String name =
+      index == 0 ? readString() : m_table.get(index).getName();
+
+    return new NVPair(name, readString());
+  }
+
+  private int readByte() throws HTTP2Exception {
+    if (m_position >= m_end) {
+      throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                               "Truncated header block");
+    }
+
+    return m_block[m_position++] & 0xFF;
+  }
+
+  private int readInteger(int prefixBits) throws HTTP2Exception {
+    final int mask = (1 << prefixBits) - 1;
+
+    int result = readByte() & mask;
+
+    if (result < mask) {
+      return result;
+    }
+
+    for (int shift = 0; ; shift += 7) {
+      if (shift > 21) {
+        throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                                 "Integer overflow in header block");
+      }
+
+      final int b = readByte();
+      result += (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+  }
+
+  private String readString() throws HTTP2Exception {
+    final boolean huffman =
+      m_position < m_end && (m_block[m_position] & 0x80) != 0;
+    final int length = readInteger(7);
+
+    if (length > m_end - m_position) {
+      throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                               "Truncated header block");
+    }
+
+    final int start = m_position;
+    m_position += length;
+
+    if (huffman) {
+      return new String(Huffman.decode(m_block, start, length),
+                        HPACKEncoder.CHARSET);
+    }
+
+    return new String(m_block, start, length, HPACKEncoder.CHARSET);
+  }
+}
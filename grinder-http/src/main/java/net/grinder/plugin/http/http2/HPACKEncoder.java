@@ -0,0 +1,158 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * HPACK header block encoder (RFC 7541).
+ *
+ * <p>
+ * Literal values are added to the dynamic table, except for credentials,
+ * which are never indexed. Strings are Huffman encoded if that makes them
+ * shorter.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class HPACKEncoder {
+
+  static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  private final HeaderTable m_table = new HeaderTable();
+
+  /** Size update to signal at the start of the next block, or -1. */
+  private int m_pendingSizeUpdate = -1;
+
+  /**
+   * Apply the peer's {@code SETTINGS_HEADER_TABLE_SIZE}. We never use a
+   * table larger than the default.
+   *
+   * @param size The maximum size the peer allows.
+   */
+  public void setMaximumTableSize(int size) {
+    final int newSize = Math.min(size, HeaderTable.DEFAULT_MAXIMUM_SIZE);
+
+    if (newSize != m_table.getMaximumSize()) {
+      m_table.setMaximumSize(newSize);
+      m_pendingSizeUpdate = newSize;
+    }
+  }
+
+  /**
+   * Encode a header list. The names should be lower case.
+   *
+   * @param headers The headers.
+   * @return The header block.
+   */
+  public byte[] encode(List<NVPair> headers) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    if (m_pendingSizeUpdate >= 0) {
+      writeInteger(out, 0x20, 5, m_pendingSizeUpdate);
+      m_pendingSizeUpdate = -1;
+    }
+
+    for (NVPair header : headers) {
+      final String name = header.getName();
+      final String value = header.getValue();
+
+      final int index = m_table.find(name, value);
+
+      if (index > 0) {
+        writeInteger(out, 0x80, 7, index);
+      }
+      else if (isSensitive(name)) {
+        writeInteger(out, 0x10, 4, -index);
+        writeLiteral(out, index, name, value);
+      }
+      else {
+        writeInteger(out, 0x40, 6, -index);
+        writeLiteral(out, index, name, value);
+        m_table.add(name, value);
+      }
+    }
+
+    return out.toByteArray();
+  }
+
+  private static boolean isSensitive(String name) {
+    return "authorization".equals(name) ||
+           "proxy-authorization".equals(name);
+  }
+
+  private static void writeLiteral(ByteArrayOutputStream out,
+                                   int index,
+                                   String name,
+                                   String value) {
+    if (index == 0) {
+      writeString(out, name);
+    }
+
+    writeString(out, value);
+  }
+
+  static void writeInteger(ByteArrayOutputStream out,
+                           int flags,
+                           int prefixBits,
+                           int value) {
+    final int mask = (1 << prefixBits) - 1;
+
+    if (value < mask) {
+      out.write(flags | value);
+      return;
+    }
+
+    out.write(flags | mask);
+
+    int remainder = value - mask;
+
+    while (remainder >= 0x80) {
+      out.write((remainder & 0x7F) | 0x80);
+      remainder >>>= 7;
+    }
+
+    out.write(remainder);
+  }
+
+  static void writeString(ByteArrayOutputStream out, String s) {
+    final byte[] bytes = s.getBytes(CHARSET);
+    final int huffmanLength = Huffman.encodedLength(bytes);
+
+    if (huffmanLength < bytes.length) {
+      writeInteger(out, 0x80, 7, huffmanLength);
+      Huffman.encode(bytes, out);
+    }
+    else {
+      writeInteger(out, 0x00, 7, bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+}
@@ -0,0 +1,856 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.grinder.common.UncheckedInterruptedException;
+import HTTPClient.HTTPConnection.BandwidthLimiter;
+import HTTPClient.HTTPConnection.TimeAuthority;
+import HTTPClient.NVPair;
+
+
+/**
+ * Client side of an HTTP/2 connection (RFC 7540).
+ *
+ * <p>
+ * Each request is sent on its own stream. Streams may be opened by several
+ * threads at the same time. A background thread reads and dispatches
+ * incoming frames. The number of concurrent streams is limited by the
+ * server's {@code SETTINGS_MAX_CONCURRENT_STREAMS}; callers wait for a
+ * stream to become available.
+ * </p>
+ *
+ * <p>
+ * Server push is disabled. Priorities are not used.
+ * </p>
+ *
+ * <p>
+ * Request bodies can be sent through a {@link BandwidthLimiter}, which
+ * delays the sending thread. Response bodies are limited by delaying the
+ * reader thread, so flow control holds back the server as it would for a
+ * slow HTTP/1.1 client.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class HTTP2Connection {
+
+  private static final int LOCAL_INITIAL_WINDOW_SIZE = 1 << 20;
+  private static final int LOCAL_CONNECTION_WINDOW_SIZE = 1 << 24;
+  private static final int MAXIMUM_STREAM_ID = 0x7FFFFFFF;
+
+  private final Socket m_socket;
+  private final DataInputStream m_in;
+  private final OutputStream m_out;
+  private final TimeAuthority m_timeAuthority;
+
+  /** Guarded by m_out. */
+  private final HPACKEncoder m_encoder = new HPACKEncoder();
+
+  /** Only accessed by the reader thread. */
+  private final HPACKDecoder m_decoder = new HPACKDecoder();
+
+  // Guarded by this.
+  private final Map<Integer, HTTP2Stream> m_streams =
+    new HashMap<Integer, HTTP2Stream>();
+  private int m_nextStreamID = 1;
+  private int m_activeStreams;
+  private int m_peerMaximumConcurrentStreams = Integer.MAX_VALUE;
+  private int m_peerInitialWindowSize = Frame.DEFAULT_WINDOW_SIZE;
+  private int m_peerMaximumFrameSize = Frame.DEFAULT_MAXIMUM_FRAME_SIZE;
+  private long m_sendWindow = Frame.DEFAULT_WINDOW_SIZE;
+  private boolean m_receivedResponse;
+  private boolean m_goAway;
+  private IOException m_failure;
+
+  /**
+   * Constructor. Sends the connection preface and starts the reader thread.
+   *
+   * @param socket A connected socket. The connection takes ownership.
+   * @param timeAuthority Time authority used to time responses and
+   *          timeouts.
+   * @throws IOException If the connection preface could not be sent.
+   */
+  public HTTP2Connection(Socket socket,
+                         TimeAuthority timeAuthority) throws IOException {
+    m_socket = socket;
+    m_timeAuthority = timeAuthority;
+
+    m_in = new DataInputStream(
+      new BufferedInputStream(socket.getInputStream()));
+    m_out = new BufferedOutputStream(socket.getOutputStream());
+
+    final byte[] settings =
+      Frame.settings(Frame.SETTINGS_ENABLE_PUSH, 0,
+                     Frame.SETTINGS_INITIAL_WINDOW_SIZE,
+                     LOCAL_INITIAL_WINDOW_SIZE);
+
+    try {
+      synchronized (m_out) {
+        m_out.write(Frame.CLIENT_PREFACE);
+        Frame.write(m_out, Frame.SETTINGS, 0, 0, settings, 0, settings.length);
+        writeWindowUpdate(0,
+          LOCAL_CONNECTION_WINDOW_SIZE - Frame.DEFAULT_WINDOW_SIZE);
+      }
+    }
+    catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+
+    final Thread readerThread =
+      new Thread("HTTP/2 connection reader " + socket.getInetAddress()) {
+        public void run() { readFrames(); }
+      };
+
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  /**
+   * The current limit on the number of concurrent streams.
+   *
+   * @return The server's limit.
+   */
+  public synchronized int getMaximumConcurrentStreams() {
+    return m_peerMaximumConcurrentStreams;
+  }
+
+  /**
+   * The number of streams that are open, or waiting to be opened.
+   *
+   * @return The number of streams.
+   */
+  public synchronized int getActiveStreams() {
+    return m_activeStreams;
+  }
+
+  /**
+   * Whether new streams can be created.
+   *
+   * @return {@code true} if the connection is open and has not been shut
+   *         down by the server.
+   */
+  public synchronized boolean isUsable() {
+    return m_failure == null && !m_goAway && m_nextStreamID < MAXIMUM_STREAM_ID;
+  }
+
+  /**
+   * Send a request on a new stream. Waits until the number of concurrent
+   * streams is below the limit.
+   *
+   * @param headers The request headers, including pseudo-headers. Names
+   *          should be lower case.
+   * @param data The request body, or {@code null}.
+   * @param timeout Time in milliseconds to wait for a stream to become
+   *          available, or for flow control to allow the body to be sent.
+   *          {@code 0} means wait indefinitely.
+   * @return The stream.
+   * @throws InterruptedIOException If the timeout expired. The stream is
+   *           reset.
+   * @throws IOException If the request could not be sent.
+   */
+  public HTTP2Stream newStream(List<NVPair> headers, byte[] data, int timeout)
+    throws IOException {
+    return newStream(headers, data, null, null, timeout);
+  }
+
+  /**
+   * Send a request on a new stream, limiting the bandwidth used for the
+   * request and response bodies.
+   *
+   * @param headers The request headers, including pseudo-headers. Names
+   *          should be lower case.
+   * @param data The request body, or {@code null}.
+   * @param requestLimiter Limits the rate at which the request body is
+   *          sent, or {@code null}.
+   * @param responseLimiter Limits the rate at which the response body is
+   *          received, or {@code null}.
+   * @param timeout Time in milliseconds to wait for a stream to become
+   *          available, or for flow control to allow the body to be sent.
+   *          {@code 0} means wait indefinitely.
+   * @return The stream.
+   * @throws InterruptedIOException If the timeout expired. The stream is
+   *           reset.
+   * @throws IOException If the request could not be sent.
+   */
+  public HTTP2Stream newStream(List<NVPair> headers,
+                               byte[] data,
+                               BandwidthLimiter requestLimiter,
+                               BandwidthLimiter responseLimiter,
+                               int timeout)
+    throws IOException {
+
+    final long deadline =
+      timeout > 0 ? m_timeAuthority.getTimeInMilliseconds() + timeout : 0;
+
+    synchronized (this) {
+      while (true) {
+        checkUsable();
+
+        if (m_activeStreams < getMaximumConcurrentStreams()) {
+          break;
+        }
+
+        waitUntil(deadline, "Timed out waiting for a stream");
+      }
+
+      ++m_activeStreams;
+    }
+
+    final boolean hasData = data != null && data.length > 0;
+    final HTTP2Stream stream;
+
+    synchronized (m_out) {
+      final int maximumFrameSize;
+
+      synchronized (this) {
+        try {
+          checkUsable();
+        }
+        catch (IOException e) {
+          --m_activeStreams;
+          notifyAll();
+          throw e;
+        }
+
+        stream = new HTTP2Stream(this,
+                                 m_nextStreamID,
+                                 m_peerInitialWindowSize,
+                                 responseLimiter);
+        m_streams.put(m_nextStreamID, stream);
+        m_nextStreamID += 2;
+        maximumFrameSize = m_peerMaximumFrameSize;
+      }
+
+      // Header blocks must be sent in the order they are encoded.
+      final byte[] block = m_encoder.encode(headers);
+
+      try {
+        int offset = 0;
+        int type = Frame.HEADERS;
+        int flags = hasData ? 0 : Frame.FLAG_END_STREAM;
+
+        do {
+          final int length = Math.min(block.length - offset, maximumFrameSize);
+
+          if (offset + length == block.length) {
+            flags |= Frame.FLAG_END_HEADERS;
+          }
+
+          Frame.write(m_out, type, flags, stream.getID(), block, offset, length);
+
+          offset += length;
+          type = Frame.CONTINUATION;
+          flags = 0;
+        }
+        while (offset < block.length);
+
+        m_out.flush();
+      }
+      catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+    }
+
+    if (hasData) {
+      boolean sent = false;
+
+      try {
+        sendData(stream, data, requestLimiter, deadline);
+        sent = true;
+      }
+      finally {
+        if (!sent) {
+          // Timed out or interrupted. Reset the stream so the server stops
+          // waiting for the body, and release its slot.
+          cancel(stream);
+        }
+      }
+    }
+
+    return stream;
+  }
+
+  private void sendData(HTTP2Stream stream,
+                        byte[] data,
+                        BandwidthLimiter limiter,
+                        long deadline)
+    throws IOException {
+
+    int offset = 0;
+
+    while (offset < data.length) {
+      // The limiter may sleep, so call it without holding the lock.
+      final int allowance =
+        limiter != null ? limiter.maximumBytes(offset) : Integer.MAX_VALUE;
+
+      final int length;
+
+      synchronized (this) {
+        while (true) {
+          if (stream.isDone()) {
+            // The stream has been reset. The caller will find out when it
+            // waits for the response.
+            return;
+          }
+
+          checkFailure();
+
+          final long window = Math.min(m_sendWindow, stream.getSendWindow());
+
+          if (window > 0) {
+            length = (int) Math.min(Math.min(data.length - offset, window),
+                                    Math.min(m_peerMaximumFrameSize,
+                                             allowance));
+            break;
+          }
+
+          waitUntil(deadline, "Timed out waiting for flow control window");
+        }
+
+        m_sendWindow -= length;
+        stream.adjustSendWindow(-length);
+      }
+
+      final boolean last = offset + length == data.length;
+
+      writeFrame(Frame.DATA,
+                 last ? Frame.FLAG_END_STREAM : 0,
+                 stream.getID(),
+                 data,
+                 offset,
+                 length);
+
+      offset += length;
+    }
+  }
+
+  /**
+   * Close the connection. Streams that are still open fail.
+   */
+  public void close() {
+    try {
+      writeGoAway(HTTP2Exception.NO_ERROR);
+    }
+    catch (IOException e) {
+      // Ignore.
+    }
+
+    fail(new IOException("Connection closed"));
+  }
+
+  /**
+   * Cancel a stream.
+   *
+   * @param stream The stream.
+   */
+  void cancel(HTTP2Stream stream) {
+    resetStream(stream,
+                new HTTP2Exception(HTTP2Exception.CANCEL, "Stream cancelled"));
+  }
+
+  private void checkFailure() throws IOException {
+    assert Thread.holdsLock(this);
+
+    if (m_failure != null) {
+      final IOException e = new IOException("Connection failed");
+      e.initCause(m_failure);
+      throw e;
+    }
+  }
+
+  private void checkUsable() throws IOException {
+    if (m_goAway || m_nextStreamID >= MAXIMUM_STREAM_ID) {
+      throw new HTTP2Exception(HTTP2Exception.REFUSED_STREAM,
+                               "Connection is shutting down");
+    }
+
+    checkFailure();
+  }
+
+  private void waitUntil(long deadline, String message)
+    throws InterruptedIOException {
+
+    assert Thread.holdsLock(this);
+
+    try {
+      if (deadline == 0) {
+        wait();
+      }
+      else {
+        final long remaining =
+          deadline - m_timeAuthority.getTimeInMilliseconds();
+
+        if (remaining <= 0) {
+          throw new InterruptedIOException(message);
+        }
+
+        wait(remaining);
+      }
+    }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+  }
+
+  private void writeFrame(int type,
+                          int flags,
+                          int streamID,
+                          byte[] payload,
+                          int offset,
+                          int length) throws IOException {
+    synchronized (m_out) {
+      try {
+        Frame.write(m_out, type, flags, streamID, payload, offset, length);
+        m_out.flush();
+      }
+      catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+    }
+  }
+
+  private void writeWindowUpdate(int streamID, int increment)
+    throws IOException {
+
+    final byte[] payload = new byte[4];
+    Frame.putInt(payload, 0, increment);
+    writeFrame(Frame.WINDOW_UPDATE, 0, streamID, payload, 0, 4);
+  }
+
+  private void writeGoAway(int errorCode) throws IOException {
+    final byte[] payload = new byte[8];
+    Frame.putInt(payload, 4, errorCode);
+    writeFrame(Frame.GOAWAY, 0, 0, payload, 0, 8);
+  }
+
+  private void resetStream(HTTP2Stream stream, HTTP2Exception exception) {
+    if (closeStream(stream, exception)) {
+      final byte[] payload = new byte[4];
+      Frame.putInt(payload, 0, exception.getErrorCode());
+
+      try {
+        writeFrame(Frame.RST_STREAM, 0, stream.getID(), payload, 0, 4);
+      }
+      catch (IOException e) {
+        // Ignore, the connection has failed.
+      }
+    }
+  }
+
+  /**
+   * Close a stream.
+   *
+   * @return {@code false} if the stream was already closed.
+   */
+  private boolean closeStream(HTTP2Stream stream, IOException exception) {
+    final boolean idleAfterGoAway;
+
+    synchronized (this) {
+      if (m_streams.remove(stream.getID()) == null) {
+        return false;
+      }
+
+      --m_activeStreams;
+      idleAfterGoAway = m_goAway && m_streams.isEmpty();
+      notifyAll();
+    }
+
+    stream.complete(exception);
+
+    if (idleAfterGoAway) {
+      fail(new IOException("Connection shut down by server"));
+    }
+
+    return true;
+  }
+
+  private void fail(IOException exception) {
+    final List<HTTP2Stream> streams;
+    final boolean receivedResponse;
+
+    synchronized (this) {
+      if (m_failure != null) {
+        return;
+      }
+
+      m_failure = exception;
+      streams = new ArrayList<HTTP2Stream>(m_streams.values());
+      receivedResponse = m_receivedResponse;
+      notifyAll();
+    }
+
+    for (HTTP2Stream stream : streams) {
+      if (receivedResponse && !stream.hasResponse()) {
+        // The connection was reused, and failed before this stream received
+        // a response. It was probably closed by the server; allow a retry.
+        final HTTP2Exception e =
+          new HTTP2Exception(HTTP2Exception.REFUSED_STREAM,
+                             "Connection failed before response");
+        e.initCause(exception);
+        closeStream(stream, e);
+      }
+      else {
+        closeStream(stream, exception);
+      }
+    }
+
+    try {
+      m_socket.close();
+    }
+    catch (IOException e) {
+      // Ignore.
+    }
+  }
+
+  private synchronized HTTP2Stream getStream(int id) {
+    return m_streams.get(id);
+  }
+
+  private void readFrames() {
+    try {
+      final Frame settings =
+        Frame.read(m_in, Frame.DEFAULT_MAXIMUM_FRAME_SIZE);
+
+      if (settings.getType() != Frame.SETTINGS ||
+          settings.hasFlag(Frame.FLAG_ACK)) {
+        throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                                 "Server did not send SETTINGS");
+      }
+
+      receiveSettings(settings);
+
+      while (true) {
+        final Frame frame = Frame.read(m_in, Frame.DEFAULT_MAXIMUM_FRAME_SIZE);
+
+        switch (frame.getType()) {
+        case Frame.DATA:
+          receiveData(frame);
+          break;
+
+        case Frame.HEADERS:
+          receiveHeaders(frame);
+          break;
+
+        case Frame.RST_STREAM:
+          receiveReset(frame);
+          break;
+
+        case Frame.SETTINGS:
+          receiveSettings(frame);
+          break;
+
+        case Frame.PUSH_PROMISE:
+          throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                                   "PUSH_PROMISE received, push is disabled");
+
+        case Frame.PING:
+          if (!frame.hasFlag(Frame.FLAG_ACK)) {
+            final byte[] payload = frame.getPayload();
+            writeFrame(Frame.PING, Frame.FLAG_ACK, 0,
+                       payload, 0, payload.length);
+          }
+          break;
+
+        case Frame.GOAWAY:
+          receiveGoAway(frame);
+          break;
+
+        case Frame.WINDOW_UPDATE:
+          receiveWindowUpdate(frame);
+          break;
+
+        case Frame.CONTINUATION:
+          throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                                   "Unexpected CONTINUATION");
+
+        default:
+          // Ignore PRIORITY and unknown frame types.
+          break;
+        }
+      }
+    }
+    catch (HTTP2Exception e) {
+      try {
+        writeGoAway(e.getErrorCode());
+      }
+      catch (IOException e2) {
+        // Ignore.
+      }
+
+      fail(e);
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void receiveData(Frame frame) throws IOException {
+    final int length = frame.getPayload().length;
+
+    if (length > 0) {
+      writeWindowUpdate(0, length);
+    }
+
+    final HTTP2Stream stream = getStream(frame.getStreamID());
+
+    if (stream == null) {
+      return;
+    }
+
+    try {
+      stream.receiveData(frame.getPayload(),
+                         frame.getContentOffset(),
+                         frame.getContentLength());
+    }
+    catch (HTTP2Exception e) {
+      resetStream(stream, e);
+      return;
+    }
+
+    if (frame.hasFlag(Frame.FLAG_END_STREAM)) {
+      streamComplete(stream);
+    }
+    else if (length > 0) {
+      writeWindowUpdate(stream.getID(), length);
+    }
+  }
+
+  private void receiveHeaders(Frame frame) throws IOException {
+    final long time = m_timeAuthority.getTimeInMilliseconds();
+
+    final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    block.write(frame.getPayload(),
+                frame.getContentOffset(),
+                frame.getContentLength());
+
+    Frame last = frame;
+
+    while (!last.hasFlag(Frame.FLAG_END_HEADERS)) {
+      last = Frame.read(m_in, Frame.DEFAULT_MAXIMUM_FRAME_SIZE);
+
+      if (last.getType() != Frame.CONTINUATION ||
+          last.getStreamID() != frame.getStreamID()) {
+        throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                                 "Expected CONTINUATION");
+      }
+
+      block.write(last.getPayload(), 0, last.getPayload().length);
+    }
+
+    // Always decode to keep the dynamic table in step.
+    final byte[] bytes = block.toByteArray();
+    final List<NVPair> headers = m_decoder.decode(bytes, 0, bytes.length);
+
+    final HTTP2Stream stream = getStream(frame.getStreamID());
+
+    if (stream == null) {
+      return;
+    }
+
+    try {
+      stream.receiveHeaders(headers, time);
+    }
+    catch (HTTP2Exception e) {
+      resetStream(stream, e);
+      return;
+    }
+
+    if (frame.hasFlag(Frame.FLAG_END_STREAM)) {
+      streamComplete(stream);
+    }
+  }
+
+  private void streamComplete(HTTP2Stream stream) {
+    synchronized (this) {
+      m_receivedResponse = true;
+    }
+
+    closeStream(stream, null);
+  }
+
+  private void receiveReset(Frame frame) throws IOException {
+    if (frame.getPayload().length != 4) {
+      throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR,
+                               "Invalid RST_STREAM");
+    }
+
+    final HTTP2Stream stream = getStream(frame.getStreamID());
+
+    if (stream != null) {
+      final int errorCode = Frame.getInt(frame.getPayload(), 0);
+
+      closeStream(stream,
+                  new HTTP2Exception(errorCode,
+                                     "Stream reset by server, error code " +
+                                     errorCode));
+    }
+  }
+
+  private void receiveSettings(Frame frame) throws IOException {
+    if (frame.hasFlag(Frame.FLAG_ACK)) {
+      return;
+    }
+
+    final byte[] payload = frame.getPayload();
+
+    if (payload.length % 6 != 0) {
+      throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR,
+                               "Invalid SETTINGS");
+    }
+
+    for (int i = 0; i < payload.length; i += 6) {
+      final int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+      final int value = Frame.getInt(payload, i + 2);
+
+      switch (id) {
+      case Frame.SETTINGS_HEADER_TABLE_SIZE:
+        synchronized (m_out) {
+          m_encoder.setMaximumTableSize(value);
+        }
+        break;
+
+      case Frame.SETTINGS_MAX_CONCURRENT_STREAMS:
+        synchronized (this) {
+          m_peerMaximumConcurrentStreams = value;
+        }
+        break;
+
+      case Frame.SETTINGS_INITIAL_WINDOW_SIZE:
+        if (value < 0) {
+          throw new HTTP2Exception(HTTP2Exception.FLOW_CONTROL_ERROR,
+                                   "Invalid initial window size");
+        }
+
+        synchronized (this) {
+          final int delta = value - m_peerInitialWindowSize;
+          m_peerInitialWindowSize = value;
+
+          for (HTTP2Stream stream : m_streams.values()) {
+            stream.adjustSendWindow(delta);
+          }
+        }
+        break;
+
+      case Frame.SETTINGS_MAX_FRAME_SIZE:
+        if (value < Frame.DEFAULT_MAXIMUM_FRAME_SIZE ||
+            value > Frame.MAXIMUM_FRAME_SIZE) {
+          throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                                   "Invalid maximum frame size");
+        }
+
+        synchronized (this) {
+          m_peerMaximumFrameSize = value;
+        }
+        break;
+
+      default:
+        // Ignore unknown settings.
+        break;
+      }
+    }
+
+    synchronized (this) {
+      notifyAll();
+    }
+
+    writeFrame(Frame.SETTINGS, Frame.FLAG_ACK, 0, payload, 0, 0);
+  }
+
+  private void receiveGoAway(Frame frame) throws IOException {
+    if (frame.getPayload().length < 8) {
+      throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR,
+                               "Invalid GOAWAY");
+    }
+
+    final int lastStreamID =
+      Frame.getInt(frame.getPayload(), 0) & MAXIMUM_STREAM_ID;
+
+    final List<HTTP2Stream> unprocessed = new ArrayList<HTTP2Stream>();
+    final boolean idle;
+
+    synchronized (this) {
+      m_goAway = true;
+
+      for (HTTP2Stream stream : m_streams.values()) {
+        if (stream.getID() > lastStreamID) {
+          unprocessed.add(stream);
+        }
+      }
+
+      idle = m_streams.isEmpty();
+      notifyAll();
+    }
+
+    // The server has not processed these streams, so they can be retried.
+    for (HTTP2Stream stream : unprocessed) {
+      closeStream(stream,
+                  new HTTP2Exception(HTTP2Exception.REFUSED_STREAM,
+                                     "Stream not processed by server"));
+    }
+
+    if (idle) {
+      fail(new IOException("Connection shut down by server"));
+    }
+  }
+
+  private void receiveWindowUpdate(Frame frame) throws IOException {
+    if (frame.getPayload().length != 4) {
+      throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR,
+                               "Invalid WINDOW_UPDATE");
+    }
+
+    final int increment =
+      Frame.getInt(frame.getPayload(), 0) & MAXIMUM_STREAM_ID;
+
+    synchronized (this) {
+      if (frame.getStreamID() == 0) {
+        m_sendWindow += increment;
+      }
+      else {
+        final HTTP2Stream stream = m_streams.get(frame.getStreamID());
+
+        if (stream != null) {
+          stream.adjustSendWindow(increment);
+        }
+      }
+
+      notifyAll();
+    }
+  }
+}
@@ -0,0 +1,255 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.UncheckedInterruptedException;
+import HTTPClient.HTTPConnection.BandwidthLimiter;
+import HTTPClient.NVPair;
+
+
+/**
+ * A request and response exchanged over an {@link HTTP2Connection}.
+ *
+ * @author Philip Aston
+ */
+public final class HTTP2Stream {
+
+  private final HTTP2Connection m_connection;
+  private final int m_id;
+  private final BandwidthLimiter m_responseLimiter;
+
+  private final CountDownLatch m_done = new CountDownLatch(1);
+
+  /** Guarded by the connection. */
+  private long m_sendWindow;
+
+  // Only accessed by the connection's reader thread until done.
+  private final List<NVPair> m_headers = new ArrayList<NVPair>();
+  private final ByteArrayOutputStream m_body = new ByteArrayOutputStream();
+  private int m_statusCode;
+  private long m_firstByteTime;
+  private IOException m_exception;
+
+  HTTP2Stream(HTTP2Connection connection,
+              int id,
+              int sendWindow,
+              BandwidthLimiter responseLimiter) {
+    m_connection = connection;
+    m_id = id;
+    m_sendWindow = sendWindow;
+    m_responseLimiter = responseLimiter;
+  }
+
+  /**
+   * The stream identifier.
+   *
+   * @return The identifier.
+   */
+  public int getID() {
+    return m_id;
+  }
+
+  long getSendWindow() {
+    return m_sendWindow;
+  }
+
+  void adjustSendWindow(long delta) {
+    m_sendWindow += delta;
+  }
+
+  /**
+   * Handle a header block.
+   *
+   * @param headers The headers.
+   * @param time The time the block was received.
+   * @throws HTTP2Exception If the response is malformed.
+   */
+  void receiveHeaders(List<NVPair> headers, long time) throws HTTP2Exception {
+    if (m_firstByteTime == 0) {
+      m_firstByteTime = time;
+    }
+
+    if (m_statusCode != 0) {
+      // Trailers.
+      m_headers.addAll(headers);
+      return;
+    }
+
+    int statusCode = 0;
+
+    for (NVPair header : headers) {
+      if (header.getName().equals(":status")) {
+        try {
+          statusCode = Integer.parseInt(header.getValue());
+        }
+        catch (NumberFormatException e) {
+          break;
+        }
+      }
+      else if (!header.getName().startsWith(":")) {
+        m_headers.add(header);
+      }
+    }
+
+    if (statusCode < 100 || statusCode > 999) {
+      throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                               "Response has no valid :status");
+    }
+
+    if (statusCode < 200) {
+      // Discard interim responses.
+      m_headers.clear();
+    }
+    else {
+      m_statusCode = statusCode;
+    }
+  }
+
+  void receiveData(byte[] bytes, int offset, int length)
+    throws HTTP2Exception {
+
+    if (m_statusCode == 0) {
+      throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR,
+                               "DATA received before HEADERS");
+    }
+
+    if (m_responseLimiter != null) {
+      // Consume the frame in the chunks the limiter allows, as HTTP/1.1
+      // reads from the socket. The reader thread sleeps between chunks.
+      int position = m_body.size();
+      final int end = position + length;
+
+      while (position < end) {
+        position +=
+          Math.min(end - position, m_responseLimiter.maximumBytes(position));
+      }
+    }
+
+    m_body.write(bytes, offset, length);
+  }
+
+  boolean hasResponse() {
+    return m_firstByteTime != 0;
+  }
+
+  void complete(IOException exception) {
+    m_exception = exception;
+    m_done.countDown();
+  }
+
+  /**
+   * Whether the response has been received, or the stream has failed.
+   *
+   * @return {@code true} if the stream is complete.
+   */
+  public boolean isDone() {
+    return m_done.getCount() == 0;
+  }
+
+  /**
+   * Wait for the response. If the response does not arrive in time, or the
+   * thread is interrupted, the stream is cancelled.
+   *
+   * @param timeout Time to wait in milliseconds, or {@code 0} to wait
+   *          indefinitely.
+   * @throws InterruptedIOException If the timeout expired.
+   * @throws IOException If the stream failed.
+   */
+  public void await(int timeout) throws IOException {
+    try {
+      if (timeout == 0) {
+        m_done.await();
+      }
+      else if (!m_done.await(timeout, TimeUnit.MILLISECONDS)) {
+        throw new InterruptedIOException("Read timed out");
+      }
+    }
+    catch (InterruptedException e) {
+      throw new UncheckedInterruptedException(e);
+    }
+    finally {
+      if (!isDone()) {
+        m_connection.cancel(this);
+      }
+    }
+
+    if (m_exception != null) {
+      throw m_exception;
+    }
+  }
+
+  /**
+   * The exception that caused the stream to fail.
+   *
+   * @return The exception, or {@code null}.
+   */
+  public IOException getException() {
+    return m_exception;
+  }
+
+  /**
+   * The response status code. Only valid once the stream is done.
+   *
+   * @return The status code.
+   */
+  public int getStatusCode() {
+    return m_statusCode;
+  }
+
+  /**
+   * The response headers and trailers. Only valid once the stream is done.
+   *
+   * @return The headers, excluding pseudo-headers.
+   */
+  public NVPair[] getHeaders() {
+    return m_headers.toArray(new NVPair[m_headers.size()]);
+  }
+
+  /**
+   * The response body. Only valid once the stream is done.
+   *
+   * @return The body.
+   */
+  public byte[] getData() {
+    return m_body.toByteArray();
+  }
+
+  /**
+   * The time the response headers were received. Only valid once the stream
+   * is done.
+   *
+   * @return The time, in milliseconds according to the connection's time
+   *         authority.
+   */
+  public long getFirstByteTime() {
+    return m_firstByteTime;
+  }
+}
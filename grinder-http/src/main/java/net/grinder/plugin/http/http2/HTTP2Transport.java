@@ -0,0 +1,250 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import HTTPClient.HTTPConnection;
+import HTTPClient.NVPair;
+import HTTPClient.Response;
+import HTTPClient.RoRequest;
+import HTTPClient.URI;
+
+
+/**
+ * Sends the requests of an {@link HTTPConnection} over HTTP/2.
+ *
+ * <p>
+ * The HTTPClient modules (cookies, redirects, authorisation, ...) process
+ * requests and responses as normal. A single HTTP/2 connection is opened on
+ * first use, and shared by all requests made through the
+ * {@code HTTPConnection}. A new connection is opened if the server shuts the
+ * connection down.
+ * </p>
+ *
+ * <p>
+ * Only plain {@code http} URLs use HTTP/2, with prior knowledge (h2c). The
+ * Java SSL API we support does not provide ALPN, so the protocol cannot be
+ * negotiated for {@code https} URLs; they use HTTP/1.1. Requests sent
+ * through a proxy, or with streamed bodies, also use HTTP/1.1.
+ * </p>
+ *
+ * <p>
+ * An {@code HTTPConnection} belongs to a single worker thread, and sends one
+ * request at a time. Each request is sent on a new stream of the shared
+ * connection, so streams are not used concurrently.
+ * </p>
+ *
+ * <p>
+ * The DNS, connection and time to first byte timings are recorded as they
+ * are for HTTP/1.1, so the HTTP plug-in statistics are unchanged. The time
+ * to first byte is measured for each stream.
+ * </p>
+ *
+ * <p>
+ * The connection's bandwidth limiters apply to request and response
+ * bodies. Response bodies are limited by the connection's reader thread.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class HTTP2Transport implements HTTPConnection.RequestTransport {
+
+  /** Connection specific headers that are not allowed in HTTP/2. */
+  private static final Set<String> s_connectionHeaders = new HashSet<String>();
+
+  static {
+    s_connectionHeaders.add("connection");
+    s_connectionHeaders.add("content-length");
+    s_connectionHeaders.add("host");
+    s_connectionHeaders.add("keep-alive");
+    s_connectionHeaders.add("proxy-connection");
+    s_connectionHeaders.add("transfer-encoding");
+    s_connectionHeaders.add("upgrade");
+  }
+
+  /** Guarded by this. */
+  private HTTP2Connection m_connection;
+
+  /**
+   * {@inheritDoc}
+   */
+  public Response sendRequest(HTTPConnection connection,
+                              RoRequest request,
+                              int timeout) throws IOException {
+
+    if (connection.getProxyHost() != null ||
+        !"http".equals(connection.getProtocol())) {
+      return null;
+    }
+
+    final List<NVPair> headers = createRequestHeaders(connection, request);
+
+    for (int attempt = 0; ; ++attempt) {
+      final HTTP2Stream stream;
+
+      try {
+        stream = getConnection(connection, timeout)
+                 .newStream(headers,
+                            request.getData(),
+                            connection.createRequestBandwidthLimiter(),
+                            connection.getBandwidthLimiterFactory().create(),
+                            timeout);
+
+        stream.await(timeout);
+      }
+      catch (HTTP2Exception e) {
+        if (attempt == 0 &&
+            e.getErrorCode() == HTTP2Exception.REFUSED_STREAM) {
+          // The server did not process the request.
+          continue;
+        }
+
+        throw e;
+      }
+
+      final Response response =
+        new Response("HTTP/2",
+                     stream.getStatusCode(),
+                     "",
+                     joinHeaders(stream.getHeaders()),
+                     stream.getData(),
+                     null,
+                     0);
+
+      response.setTtfb(stream.getFirstByteTime());
+
+      return response;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized void stop() {
+    if (m_connection != null) {
+      m_connection.close();
+      m_connection = null;
+    }
+  }
+
+  private synchronized HTTP2Connection getConnection(
+    HTTPConnection connection, int timeout) throws IOException {
+
+    if (m_connection == null || !m_connection.isUsable()) {
+      m_connection =
+        new HTTP2Connection(connection.openSocket(timeout),
+                            connection.getTimeAuthority());
+    }
+
+    return m_connection;
+  }
+
+  static List<NVPair> createRequestHeaders(HTTPConnection connection,
+                                           RoRequest request) {
+
+    final String portSuffix =
+      connection.getPort() != URI.defaultPort(connection.getProtocol()) ?
+      ":" + connection.getPort() : "";
+
+    // A Host header set by the script is used as given, like HTTP/1.1.
+    String authority = connection.getHost() + portSuffix;
+    boolean haveUserAgent = false;
+    boolean haveContentType = false;
+
+    final List<NVPair> headers = new ArrayList<NVPair>();
+
+    for (NVPair header : request.getHeaders()) {
+      final String name = header.getName().trim().toLowerCase();
+      final String value = header.getValue().trim();
+
+      if (name.equals("host")) {
+        authority = value;
+      }
+      else if (name.equals("te")) {
+        if (value.equalsIgnoreCase("trailers")) {
+          headers.add(new NVPair(name, value));
+        }
+      }
+      else if (!s_connectionHeaders.contains(name)) {
+        haveUserAgent |= name.equals("user-agent");
+        haveContentType |= name.equals("content-type");
+        headers.add(new NVPair(name, value));
+      }
+    }
+
+    if (!haveUserAgent) {
+      headers.add(new NVPair("user-agent", HTTPConnection.version));
+    }
+
+    final byte[] data = request.getData();
+
+    if (data != null) {
+      if (!haveContentType) {
+        headers.add(new NVPair("content-type", "application/octet-stream"));
+      }
+
+      headers.add(new NVPair("content-length", Integer.toString(data.length)));
+    }
+
+    final List<NVPair> result = new ArrayList<NVPair>(headers.size() + 4);
+    result.add(new NVPair(":method", request.getMethod()));
+    result.add(new NVPair(":scheme", connection.getProtocol()));
+    result.add(new NVPair(":authority", authority));
+    result.add(new NVPair(":path", request.getRequestURI()));
+    result.addAll(headers);
+
+    return result;
+  }
+
+  /**
+   * HTTPClient responses hold one value per header, so combine repeated
+   * headers as HTTP/1.1 allows.
+   */
+  private static NVPair[] joinHeaders(NVPair[] headers) {
+    final Map<String, String> joined = new LinkedHashMap<String, String>();
+
+    for (NVPair header : headers) {
+      final String existing = joined.get(header.getName());
+
+      joined.put(header.getName(),
+                 existing == null ?
+                 header.getValue() : existing + ", " + header.getValue());
+    }
+
+    final NVPair[] result = new NVPair[joined.size()];
+    int i = 0;
+
+    for (Map.Entry<String, String> entry : joined.entrySet()) {
+      result[i++] = new NVPair(entry.getKey(), entry.getValue());
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,244 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.util.LinkedList;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * HPACK header table. The static table is followed by the dynamic table,
+ * with the most recently added dynamic entry first.
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class HeaderTable {
+
+  /** Default and initial maximum size of the dynamic table. */
+  static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+  private static final String[] STATIC_TABLE = {
+    ":authority", "",
+    ":method", "GET",
+    ":method", "POST",
+    ":path", "/",
+    ":path", "/index.html",
+    ":scheme", "http",
+    ":scheme", "https",
+    ":status", "200",
+    ":status", "204",
+    ":status", "206",
+    ":status", "304",
+    ":status", "400",
+    ":status", "404",
+    ":status", "500",
+    "accept-charset", "",
+    "accept-encoding", "gzip, deflate",
+    "accept-language", "",
+    "accept-ranges", "",
+    "accept", "",
+    "access-control-allow-origin", "",
+    "age", "",
+    "allow", "",
+    "authorization", "",
+    "cache-control", "",
+    "content-disposition", "",
+    "content-encoding", "",
+    "content-language", "",
+    "content-length", "",
+    "content-location", "",
+    "content-range", "",
+    "content-type", "",
+    "cookie", "",
+    "date", "",
+    "etag", "",
+    "expect", "",
+    "expires", "",
+    "from", "",
+    "host", "",
+    "if-match", "",
+    "if-modified-since", "",
+    "if-none-match", "",
+    "if-range", "",
+    "if-unmodified-since", "",
+    "last-modified", "",
+    "link", "",
+    "location", "",
+    "max-forwards", "",
+    "proxy-authenticate", "",
+    "proxy-authorization", "",
+    "range", "",
+    "referer", "",
+    "refresh", "",
+    "retry-after", "",
+    "server", "",
+    "set-cookie", "",
+    "strict-transport-security", "",
+    "transfer-encoding", "",
+    "user-agent", "",
+    "vary", "",
+    "via", "",
+    "www-authenticate", "",
+  };
+
+  static final int STATIC_TABLE_LENGTH = STATIC_TABLE.length / 2;
+
+  /** Size overhead of each entry. */
+  private static final int ENTRY_OVERHEAD = 32;
+
+  private final LinkedList<NVPair> m_dynamicTable = new LinkedList<NVPair>();
+
+  private int m_size;
+  private int m_maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+  /**
+   * Get an entry.
+   *
+   * @param index One based index.
+   * @return The entry.
+   * @throws HTTP2Exception If the index is invalid.
+   */
+  public NVPair get(int index) throws HTTP2Exception {
+    if (index < 1 || index > STATIC_TABLE_LENGTH + m_dynamicTable.size()) {
+      throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                               "Invalid header table index " + index);
+    }
+
+    if (index <= STATIC_TABLE_LENGTH) {
+      return new NVPair(STATIC_TABLE[index * 2 - 2],
+                        STATIC_TABLE[index * 2 - 1]);
+    }
+
+    return m_dynamicTable.get(index - STATIC_TABLE_LENGTH - 1);
+  }
+
+  /**
+   * Find an entry.
+   *
+   * @param name Header name.
+   * @param value Header value.
+   * @return The index of an entry matching both the name and the value; or
+   *         minus the index of an entry matching the name; or {@code 0}.
+   */
+  public int find(String name, String value) {
+    int nameMatch = 0;
+
+    for (int i = 0; i < STATIC_TABLE_LENGTH; ++i) {
+      if (STATIC_TABLE[i * 2].equals(name)) {
+        if (STATIC_TABLE[i * 2 + 1].equals(value)) {
+          return i + 1;
+        }
+
+        if (nameMatch == 0) {
+          nameMatch = -(i + 1);
+        }
+      }
+    }
+
+    int index = STATIC_TABLE_LENGTH;
+
+    for (NVPair entry : m_dynamicTable) {
+      ++index;
+
+      if (entry.getName().equals(name)) {
+        if (entry.getValue().equals(value)) {
+          return index;
+        }
+
+        if (nameMatch == 0) {
+          nameMatch = -index;
+        }
+      }
+    }
+
+    return nameMatch;
+  }
+
+  /**
+   * Add an entry to the dynamic table, evicting older entries as necessary.
+   * An entry larger than the maximum size empties the table.
+   *
+   * @param name Header name.
+   * @param value Header value.
+   */
+  public void add(String name, String value) {
+    final int entrySize = entrySize(name, value);
+
+    evict(m_maximumSize - entrySize);
+
+    if (entrySize <= m_maximumSize) {
+      m_dynamicTable.addFirst(new NVPair(name, value));
+      m_size += entrySize;
+    }
+  }
+
+  /**
+   * Change the maximum size of the dynamic table.
+   *
+   * @param maximumSize The new maximum size.
+   */
+  public void setMaximumSize(int maximumSize) {
+    m_maximumSize = maximumSize;
+    evict(maximumSize);
+  }
+
+  /**
+   * The maximum size of the dynamic table.
+   *
+   * @return The maximum size.
+   */
+  public int getMaximumSize() {
+    return m_maximumSize;
+  }
+
+  /**
+   * The current size of the dynamic table.
+   *
+   * @return The size.
+   */
+  public int getSize() {
+    return m_size;
+  }
+
+  /**
+   * Calculate the size an entry would take in the dynamic table.
+   *
+   * @param name Header name.
+   * @param value Header value.
+   * @return The size.
+   */
+  public static int entrySize(String name, String value) {
+    // Header strings are ISO-8859-1, one byte per character.
+    return name.length() + value.length() + ENTRY_OVERHEAD;
+  }
+
+  private void evict(int targetSize) {
+    while (m_size > targetSize && !m_dynamicTable.isEmpty()) {
+      final NVPair entry = m_dynamicTable.removeLast();
+      m_size -= entrySize(entry.getName(), entry.getValue());
+    }
+  }
+}
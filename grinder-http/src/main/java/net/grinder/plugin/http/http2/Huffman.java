@@ -0,0 +1,207 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.io.ByteArrayOutputStream;
+
+
+/**
+ * The canonical Huffman code used by HPACK (RFC 7541, Appendix B).
+ *
+ * <p>
+ * The code is canonical, so it can be rebuilt from the code lengths alone.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class Huffman {
+
+  private static final int EOS = 256;
+
+  /** Code length for each symbol, indexed by symbol. */
+  private static final byte[] LENGTHS = {
+    13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+    28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+    6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+    5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+    13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+    7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+    15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+    6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+    20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+    24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+    22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+    21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+    26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+    19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+    20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+    26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+    30,
+  };
+
+  /** Code for each symbol, right aligned. */
+  private static final int[] CODES = new int[LENGTHS.length];
+
+  /**
+   * Decoding tree. Each node has two entries, one per bit. Non-negative
+   * entries are the index of the next node; negative entries are
+   * {@code -1 - symbol}.
+   */
+  private static final int[] TREE = new int[LENGTHS.length * 4];
+
+  static {
+    // Assign codes in order of length, then symbol value.
+    int code = 0;
+    int previousLength = 0;
+
+    for (int length = 1; length <= 30; ++length) {
+      for (int symbol = 0; symbol < LENGTHS.length; ++symbol) {
+        if (LENGTHS[symbol] == length) {
+          code <<= length - previousLength;
+          previousLength = length;
+          CODES[symbol] = code++;
+        }
+      }
+    }
+
+    int nodes = 1;
+
+    for (int symbol = 0; symbol < LENGTHS.length; ++symbol) {
+      int node = 0;
+
+      for (int bit = LENGTHS[symbol] - 1; bit > 0; --bit) {
+        final int i = node * 2 + ((CODES[symbol] >>> bit) & 1);
+
+        if (TREE[i] == 0) {
+          TREE[i] = nodes++;
+        }
+
+        node = TREE[i];
+      }
+
+      TREE[node * 2 + (CODES[symbol] & 1)] = -1 - symbol;
+    }
+  }
+
+  private Huffman() {
+  }
+
+  /**
+   * Calculate the length of the encoded form of some bytes.
+   *
+   * @param bytes The bytes.
+   * @return The encoded length in bytes.
+   */
+  public static int encodedLength(byte[] bytes) {
+    long bits = 0;
+
+    for (byte b : bytes) {
+      bits += LENGTHS[b & 0xFF];
+    }
+
+    return (int) ((bits + 7) / 8);
+  }
+
+  /**
+   * Encode some bytes.
+   *
+   * @param bytes The bytes.
+   * @param out Where to write the encoded form.
+   */
+  public static void encode(byte[] bytes, ByteArrayOutputStream out) {
+    long buffer = 0;
+    int bits = 0;
+
+    for (byte b : bytes) {
+      final int symbol = b & 0xFF;
+      final int length = LENGTHS[symbol];
+
+      buffer = (buffer << length) | CODES[symbol];
+      bits += length;
+
+      while (bits >= 8) {
+        bits -= 8;
+        out.write((int) (buffer >>> bits));
+      }
+    }
+
+    if (bits > 0) {
+      // Pad with the most significant bits of EOS, which are all ones.
+      out.write((int) ((buffer << (8 - bits)) | (0xFF >>> bits)));
+    }
+  }
+
+  /**
+   * Decode some bytes.
+   *
+   * @param bytes Buffer containing the encoded form.
+   * @param offset Offset of the encoded form.
+   * @param length Length of the encoded form.
+   * @return The decoded bytes.
+   * @throws HTTP2Exception If the encoded form is invalid.
+   */
+  public static byte[] decode(byte[] bytes, int offset, int length)
+    throws HTTP2Exception {
+
+    final ByteArrayOutputStream result = new ByteArrayOutputStream(length * 2);
+
+    int node = 0;
+    int depth = 0;
+    boolean allOnes = true;
+
+    for (int i = offset; i < offset + length; ++i) {
+      for (int bit = 7; bit >= 0; --bit) {
+        final int b = (bytes[i] >>> bit) & 1;
+        final int next = TREE[node * 2 + b];
+
+        if (next < 0) {
+          final int symbol = -1 - next;
+
+          if (symbol == EOS) {
+            throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                                     "EOS in Huffman encoded string");
+          }
+
+          result.write(symbol);
+          node = 0;
+          depth = 0;
+          allOnes = true;
+        }
+        else {
+          node = next;
+          ++depth;
+          allOnes &= b == 1;
+        }
+      }
+    }
+
+    if (depth > 7 || !allOnes) {
+      throw new HTTP2Exception(HTTP2Exception.COMPRESSION_ERROR,
+                               "Invalid Huffman padding");
+    }
+
+    return result.toByteArray();
+  }
+}
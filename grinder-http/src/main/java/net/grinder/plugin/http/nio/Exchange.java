@@ -0,0 +1,456 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.nio;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import net.grinder.common.UncheckedInterruptedException;
+import HTTPClient.NVPair;
+
+import org.slf4j.Logger;
+
+
+/**
+ * An HTTP request and its response, executed by a {@link NIOHTTPEngine}.
+ *
+ * <p>
+ * The request details are set by the caller before the exchange is
+ * submitted. The response details are filled in by an engine thread, and are
+ * available once {@link #isDone()} returns {@code true}.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class Exchange {
+
+  /**
+   * Callback interface for exchange completion.
+   */
+  public interface Listener {
+
+    /**
+     * Called when the exchange is complete, either successfully or with an
+     * exception.
+     *
+     * <p>
+     * The method is called by an engine thread, which services many other
+     * connections. Implementations should not block. Runtime exceptions are
+     * logged, and otherwise ignored.
+     * </p>
+     *
+     * @param exchange The exchange.
+     */
+    void exchangeComplete(Exchange exchange);
+  }
+
+  private final String m_method;
+  private final InetSocketAddress m_address;
+  private final String m_host;
+  private final String m_path;
+  private final NVPair[] m_headers;
+  private final byte[] m_data;
+
+  private InetAddress m_localAddress;
+  private int m_timeout;
+  private long m_dnsTime;
+  private Listener m_listener;
+
+  private Logger m_logger;
+  private long m_startTime;
+  private long m_connectedTime = -1;
+  private long m_firstByteTime = -1;
+  private boolean m_newConnection;
+
+  private boolean m_done;
+  private int m_statusCode;
+  private String m_reasonLine;
+  private NVPair[] m_responseHeaders = new NVPair[0];
+  private byte[] m_responseData;
+  private IOException m_exception;
+
+  /**
+   * Constructor.
+   *
+   * @param method The request method.
+   * @param address The resolved server address.
+   * @param host Value for the {@code Host} header. Should include the port if
+   *  it is not the default.
+   * @param path The path and query string.
+   * @param headers Request headers. {@code Host} is added if not present.
+   *  {@code Content-Length} is set automatically.
+   * @param data Request body, or {@code null}.
+   */
+  public Exchange(String method,
+                  InetSocketAddress address,
+                  String host,
+                  String path,
+                  NVPair[] headers,
+                  byte[] data) {
+    m_method = method;
+    m_address = address;
+    m_host = host;
+    m_path = path;
+    m_headers = headers;
+    m_data = data;
+  }
+
+  /**
+   * Set the local address to bind new connections to.
+   *
+   * @param localAddress The local address, or {@code null} for the default.
+   */
+  public synchronized void setLocalAddress(InetAddress localAddress) {
+    m_localAddress = localAddress;
+  }
+
+  synchronized InetAddress getLocalAddress() {
+    return m_localAddress;
+  }
+
+  /**
+   * Set a limit on the time the exchange may take.
+   *
+   * @param timeout The timeout in milliseconds, measured from when the
+   *  exchange was submitted. {@code 0} means no limit.
+   */
+  public synchronized void setTimeout(int timeout) {
+    m_timeout = timeout;
+  }
+
+  synchronized int getTimeout() {
+    return m_timeout;
+  }
+
+  /**
+   * Record the time taken to resolve {@link #getAddress() the server address}
+   * before submission. This is added to the connection and first byte times.
+   *
+   * @param dnsTime The time in milliseconds.
+   */
+  public synchronized void setDNSTime(long dnsTime) {
+    m_dnsTime = dnsTime;
+  }
+
+  /**
+   * Set a listener to be notified when the exchange is complete.
+   *
+   * @param listener The listener, or {@code null}.
+   */
+  public synchronized void setListener(Listener listener) {
+    m_listener = listener;
+  }
+
+  public String getMethod() {
+    return m_method;
+  }
+
+  public InetSocketAddress getAddress() {
+    return m_address;
+  }
+
+  public String getHost() {
+    return m_host;
+  }
+
+  public String getPath() {
+    return m_path;
+  }
+
+  NVPair[] getRequestHeaders() {
+    return m_headers;
+  }
+
+  byte[] getRequestData() {
+    return m_data;
+  }
+
+  /**
+   * A description of the request URI, suitable for logging.
+   *
+   * @return The URI.
+   */
+  public String getURI() {
+    return "http://" + m_host + m_path;
+  }
+
+  synchronized void started(long time, Logger logger) {
+    m_startTime = time;
+    m_logger = logger;
+  }
+
+  synchronized long getStartTime() {
+    return m_startTime;
+  }
+
+  synchronized void connected(long time) {
+    m_connectedTime = time;
+    m_newConnection = true;
+  }
+
+  synchronized void firstByte(long time) {
+    if (m_firstByteTime == -1) {
+      m_firstByteTime = time;
+    }
+  }
+
+  void complete(ResponseParser parser) {
+    final Listener listener;
+
+    synchronized (this) {
+      if (m_done) {
+        return;
+      }
+
+      m_statusCode = parser.getStatusCode();
+      m_reasonLine = parser.getReasonLine();
+      m_responseHeaders = parser.getHeaders();
+      m_responseData = parser.getBody();
+      listener = done();
+    }
+
+    notifyListener(listener);
+  }
+
+  void fail(IOException exception) {
+    final Listener listener;
+
+    synchronized (this) {
+      if (m_done) {
+        return;
+      }
+
+      m_exception = exception;
+      listener = done();
+    }
+
+    notifyListener(listener);
+  }
+
+  private Listener done() {
+    m_done = true;
+    notifyAll();
+    return m_listener;
+  }
+
+  private void notifyListener(Listener listener) {
+    if (listener != null) {
+      try {
+        listener.exchangeComplete(this);
+      }
+      catch (RuntimeException e) {
+        // Log and carry on; we must not disrupt the engine thread.
+        final Logger logger;
+
+        synchronized (this) {
+          logger = m_logger;
+        }
+
+        if (logger != null) {
+          logger.error(e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Whether the exchange is complete.
+   *
+   * @return {@code true} if the exchange is complete.
+   */
+  public synchronized boolean isDone() {
+    return m_done;
+  }
+
+  /**
+   * Wait until the exchange is complete.
+   */
+  public synchronized void await() {
+    while (!m_done) {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        throw new UncheckedInterruptedException(e);
+      }
+    }
+  }
+
+  /**
+   * Wait until the exchange is complete, or a timeout expires.
+   *
+   * @param timeout Maximum time to wait in milliseconds.
+   * @return {@code true} if the exchange is complete.
+   */
+  public synchronized boolean await(long timeout) {
+    final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+    while (!m_done) {
+      final long remaining = end - System.nanoTime();
+
+      if (remaining <= 0) {
+        return false;
+      }
+
+      try {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      catch (InterruptedException e) {
+        throw new UncheckedInterruptedException(e);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * The exception that caused the exchange to fail.
+   *
+   * @return The exception, or {@code null} if the exchange succeeded or is
+   *  not complete. Timeouts are reported as a
+   *  {@link java.io.InterruptedIOException}.
+   */
+  public synchronized IOException getException() {
+    return m_exception;
+  }
+
+  public synchronized int getStatusCode() {
+    return m_statusCode;
+  }
+
+  public synchronized String getReasonLine() {
+    return m_reasonLine;
+  }
+
+  public synchronized NVPair[] getHeaders() {
+    return m_responseHeaders;
+  }
+
+  /**
+   * Return the value of the first response header with the given name.
+   *
+   * @param name The header name. Case insensitive.
+   * @return The value, or {@code null} if there is no such header.
+   */
+  public synchronized String getHeader(String name) {
+    for (NVPair header : m_responseHeaders) {
+      if (header.getName().equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * The response body.
+   *
+   * @return The body, or {@code null} if the exchange has not completed
+   *  successfully.
+   */
+  public synchronized byte[] getData() {
+    return m_responseData;
+  }
+
+  /**
+   * The response body as text, decoded using the character set in the
+   * {@code Content-Type} header, or ISO-8859-1.
+   *
+   * @return The text, or {@code null} if the exchange has not completed
+   *  successfully.
+   * @throws UnsupportedEncodingException If the character set is not
+   *  supported.
+   */
+  public synchronized String getText() throws UnsupportedEncodingException {
+    if (m_responseData == null) {
+      return null;
+    }
+
+    String charset = "ISO-8859-1";
+
+    final String contentType = getHeader("Content-Type");
+
+    if (contentType != null) {
+      final int i = contentType.toLowerCase().indexOf("charset=");
+
+      if (i >= 0) {
+        final int end = contentType.indexOf(';', i);
+        charset =
+          contentType.substring(i + 8, end < 0 ? contentType.length() : end)
+          .replace("\"", "").trim();
+      }
+    }
+
+    return new String(m_responseData, charset);
+  }
+
+  /**
+   * The time taken to resolve the server address.
+   *
+   * @return The time in milliseconds.
+   */
+  public synchronized long getDNSTime() {
+    return m_dnsTime;
+  }
+
+  /**
+   * Whether a new connection was established for the exchange.
+   *
+   * @return {@code true} if a new connection was used.
+   */
+  public synchronized boolean isNewConnection() {
+    return m_newConnection;
+  }
+
+  /**
+   * The time taken to resolve the server address and establish a new
+   * connection.
+   *
+   * @return The time in milliseconds, or {@code 0} if an existing connection
+   *  was reused.
+   */
+  public synchronized long getConnectTime() {
+    if (m_connectedTime == -1) {
+      return 0;
+    }
+
+    return m_dnsTime + Math.max(m_connectedTime - m_startTime, 0);
+  }
+
+  /**
+   * The time from the start of the exchange to the receipt of the first byte
+   * of the response. Includes the DNS and connection times.
+   *
+   * @return The time in milliseconds, or {@code 0} if no response was
+   *  received.
+   */
+  public synchronized long getTimeToFirstByte() {
+    if (m_firstByteTime == -1) {
+      return 0;
+    }
+
+    return m_dnsTime + Math.max(m_firstByteTime - m_startTime, 0);
+  }
+}
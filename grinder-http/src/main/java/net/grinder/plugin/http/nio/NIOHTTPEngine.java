@@ -0,0 +1,594 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.util.TimeAuthority;
+import HTTPClient.NVPair;
+
+import org.slf4j.Logger;
+
+
+/**
+ * Non-blocking HTTP/1.1 engine.
+ *
+ * <p>
+ * A small number of event loop threads each run a {@link Selector} and
+ * service many connections, so the number of requests in flight is not
+ * limited by the number of threads. Submitted {@link Exchange}s are spread
+ * over the event loops. Each event loop keeps a pool of idle keep-alive
+ * connections, keyed by server and local address.
+ * </p>
+ *
+ * <p>
+ * Only plain {@code http} connections are supported.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+public final class NIOHTTPEngine {
+
+  private static final long TIMEOUT_CHECK_INTERVAL = 100;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final TimeAuthority m_timeAuthority;
+  private final Logger m_logger;
+  private final EventLoop[] m_eventLoops;
+  private final AtomicInteger m_next = new AtomicInteger();
+
+  private volatile boolean m_shutdown;
+
+  /**
+   * Constructor.
+   *
+   * @param numberOfThreads Number of event loop threads.
+   * @param timeAuthority Time authority used for timing and timeouts.
+   * @param logger Logger. Used to report failures of
+   *  {@link Exchange.Listener}s.
+   * @throws IOException If a selector could not be opened.
+   */
+  public NIOHTTPEngine(int numberOfThreads,
+                       TimeAuthority timeAuthority,
+                       Logger logger)
+    throws IOException {
+
+    if (numberOfThreads < 1) {
+      throw new IllegalArgumentException(
+        "Number of threads must be positive");
+    }
+
+    m_timeAuthority = timeAuthority;
+    m_logger = logger;
+    m_eventLoops = new EventLoop[numberOfThreads];
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      m_eventLoops[i] = new EventLoop(i);
+    }
+
+    for (EventLoop eventLoop : m_eventLoops) {
+      eventLoop.start();
+    }
+  }
+
+  /**
+   * Submit an exchange. Returns immediately; use
+   * {@link Exchange#await()} or an {@link Exchange.Listener} to obtain the
+   * result.
+   *
+   * @param exchange The exchange.
+   */
+  public void submit(Exchange exchange) {
+    exchange.started(m_timeAuthority.getTimeInMilliseconds(), m_logger);
+
+    if (m_shutdown) {
+      exchange.fail(new IOException("Engine has been shut down"));
+      return;
+    }
+
+    final int i = (m_next.getAndIncrement() & Integer.MAX_VALUE) %
+                  m_eventLoops.length;
+
+    m_eventLoops[i].submit(exchange);
+  }
+
+  /**
+   * Close all idle connections. Connections that are in use are unaffected.
+   */
+  public void closeIdleConnections() {
+    for (EventLoop eventLoop : m_eventLoops) {
+      eventLoop.closeIdleConnections();
+    }
+  }
+
+  /**
+   * Shut down the engine. Outstanding exchanges fail.
+   */
+  public void shutdown() {
+    m_shutdown = true;
+
+    for (EventLoop eventLoop : m_eventLoops) {
+      eventLoop.m_selector.wakeup();
+    }
+
+    for (EventLoop eventLoop : m_eventLoops) {
+      try {
+        eventLoop.m_thread.join();
+      }
+      catch (InterruptedException e) {
+        throw new UncheckedInterruptedException(e);
+      }
+    }
+  }
+
+  private static byte[] formatRequest(Exchange exchange) {
+    final StringBuilder head = new StringBuilder();
+
+    head.append(exchange.getMethod()).append(' ');
+    head.append(exchange.getPath()).append(" HTTP/1.1\r\n");
+
+    boolean haveHost = false;
+
+    for (NVPair header : exchange.getRequestHeaders()) {
+      final String name = header.getName();
+
+      if ("Content-Length".equalsIgnoreCase(name)) {
+        continue;
+      }
+
+      haveHost |= "Host".equalsIgnoreCase(name);
+
+      head.append(name).append(": ").append(header.getValue()).append("\r\n");
+    }
+
+    if (!haveHost) {
+      head.append("Host: ").append(exchange.getHost()).append("\r\n");
+    }
+
+    final byte[] data = exchange.getRequestData();
+
+    if (data != null) {
+      head.append("Content-Length: ").append(data.length).append("\r\n");
+    }
+
+    head.append("\r\n");
+
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+    for (int i = 0; i < head.length(); ++i) {
+      result.write(head.charAt(i));
+    }
+
+    if (data != null) {
+      result.write(data, 0, data.length);
+    }
+
+    return result.toByteArray();
+  }
+
+  /**
+   * Identifies connections that may be shared.
+   */
+  private static final class Route {
+    private final InetSocketAddress m_address;
+    private final InetAddress m_localAddress;
+
+    public Route(InetSocketAddress address, InetAddress localAddress) {
+      m_address = address;
+      m_localAddress = localAddress;
+    }
+
+    @Override public int hashCode() {
+      return m_address.hashCode() ^
+        (m_localAddress != null ? m_localAddress.hashCode() : 0);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (o == null || o.getClass() != Route.class) {
+        return false;
+      }
+
+      final Route other = (Route) o;
+
+      return m_address.equals(other.m_address) &&
+        (m_localAddress == null ?
+          other.m_localAddress == null :
+          m_localAddress.equals(other.m_localAddress));
+    }
+  }
+
+  private final class EventLoop implements Runnable {
+    private final Selector m_selector;
+    private final Thread m_thread;
+
+    private final Queue<Exchange> m_submitted =
+      new ConcurrentLinkedQueue<Exchange>();
+
+    private final ByteBuffer m_readBuffer =
+      ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    private final Map<Route, LinkedList<Connection>> m_idleConnections =
+      new HashMap<Route, LinkedList<Connection>>();
+
+    private final Set<Connection> m_activeConnections =
+      new HashSet<Connection>();
+
+    private volatile boolean m_closeIdleConnections;
+
+    private long m_nextTimeoutCheck;
+
+    public EventLoop(int number) throws IOException {
+      m_selector = Selector.open();
+      m_thread = new Thread(this, "NIO HTTP engine " + number);
+      m_thread.setDaemon(true);
+    }
+
+    public void start() {
+      m_thread.start();
+    }
+
+    public void submit(Exchange exchange) {
+      m_submitted.add(exchange);
+      m_selector.wakeup();
+    }
+
+    public void closeIdleConnections() {
+      m_closeIdleConnections = true;
+      m_selector.wakeup();
+    }
+
+    public void run() {
+      try {
+        while (!m_shutdown) {
+          m_selector.select(TIMEOUT_CHECK_INTERVAL);
+
+          final Iterator<SelectionKey> keys =
+            m_selector.selectedKeys().iterator();
+
+          while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+
+            ((Connection) key.attachment()).handle(key);
+          }
+
+          if (m_closeIdleConnections) {
+            m_closeIdleConnections = false;
+
+            for (LinkedList<Connection> connections :
+                 m_idleConnections.values()) {
+              for (Connection connection : connections) {
+                connection.close();
+              }
+            }
+
+            m_idleConnections.clear();
+          }
+
+          Exchange exchange;
+
+          while ((exchange = m_submitted.poll()) != null) {
+            dispatch(exchange, true);
+          }
+
+          checkTimeouts();
+        }
+      }
+      catch (IOException e) {
+        failAll(e);
+      }
+      catch (ClosedSelectorException e) {
+        failAll(new IOException(e.getMessage()));
+      }
+      finally {
+        failAll(new IOException("Engine has been shut down"));
+
+        try {
+          m_selector.close();
+        }
+        catch (IOException e) {
+          // Ignore.
+        }
+      }
+    }
+
+    private void failAll(IOException e) {
+      for (Connection connection :
+           new ArrayList<Connection>(m_activeConnections)) {
+        connection.fail(e);
+      }
+
+      for (LinkedList<Connection> connections : m_idleConnections.values()) {
+        for (Connection connection : connections) {
+          connection.close();
+        }
+      }
+
+      m_idleConnections.clear();
+
+      Exchange exchange;
+
+      while ((exchange = m_submitted.poll()) != null) {
+        exchange.fail(e);
+      }
+    }
+
+    private void checkTimeouts() {
+      final long now = m_timeAuthority.getTimeInMilliseconds();
+
+      if (now < m_nextTimeoutCheck) {
+        return;
+      }
+
+      m_nextTimeoutCheck = now + TIMEOUT_CHECK_INTERVAL;
+
+      for (Connection connection :
+           new ArrayList<Connection>(m_activeConnections)) {
+        connection.checkTimeout(now);
+      }
+    }
+
+    private void dispatch(Exchange exchange, boolean allowReuse) {
+      final Route route =
+        new Route(exchange.getAddress(), exchange.getLocalAddress());
+
+      if (allowReuse) {
+        final LinkedList<Connection> idle = m_idleConnections.get(route);
+
+        while (idle != null && !idle.isEmpty()) {
+          final Connection connection = idle.removeLast();
+
+          if (connection.isOpen()) {
+            connection.start(exchange, true);
+            return;
+          }
+        }
+      }
+
+      try {
+        new Connection(route).start(exchange, false);
+      }
+      catch (IOException e) {
+        exchange.fail(e);
+      }
+    }
+
+    private void makeIdle(Connection connection) {
+      LinkedList<Connection> idle = m_idleConnections.get(connection.m_route);
+
+      if (idle == null) {
+        idle = new LinkedList<Connection>();
+        m_idleConnections.put(connection.m_route, idle);
+      }
+
+      idle.add(connection);
+    }
+
+    private final class Connection {
+      private final Route m_route;
+      private final SocketChannel m_channel;
+      private final SelectionKey m_key;
+      private boolean m_connected;
+
+      private Exchange m_exchange;
+      private boolean m_reused;
+      private ByteBuffer m_request;
+      private ResponseParser m_parser;
+      private long m_deadline;
+
+      public Connection(Route route) throws IOException {
+        m_route = route;
+        m_channel = SocketChannel.open();
+
+        try {
+          m_channel.configureBlocking(false);
+          m_channel.socket().setTcpNoDelay(true);
+
+          // As HTTPClient does, avoid leaving sockets in TIME_WAIT.
+          m_channel.socket().setSoLinger(true, 0);
+
+          if (route.m_localAddress != null) {
+            m_channel.socket().bind(
+              new InetSocketAddress(route.m_localAddress, 0));
+          }
+
+          m_connected = m_channel.connect(route.m_address);
+          m_key = m_channel.register(m_selector, 0, this);
+        }
+        catch (IOException e) {
+          m_channel.close();
+          throw e;
+        }
+      }
+
+      public boolean isOpen() {
+        return m_channel.isOpen();
+      }
+
+      public void start(Exchange exchange, boolean reused) {
+        m_exchange = exchange;
+        m_reused = reused;
+        m_request = ByteBuffer.wrap(formatRequest(exchange));
+        m_parser = new ResponseParser("HEAD".equals(exchange.getMethod()));
+
+        final int timeout = exchange.getTimeout();
+        m_deadline = timeout > 0 ? exchange.getStartTime() + timeout : 0;
+
+        m_activeConnections.add(this);
+
+        if (m_connected) {
+          if (!reused) {
+            exchange.connected(m_timeAuthority.getTimeInMilliseconds());
+          }
+
+          m_key.interestOps(SelectionKey.OP_WRITE);
+        }
+        else {
+          m_key.interestOps(SelectionKey.OP_CONNECT);
+        }
+      }
+
+      public void handle(SelectionKey key) {
+        if (!key.isValid()) {
+          return;
+        }
+
+        if (m_exchange == null) {
+          // Idle connections are only readable if the server has closed
+          // them, or sent unsolicited data.
+          close();
+          return;
+        }
+
+        try {
+          if (key.isConnectable()) {
+            m_channel.finishConnect();
+            m_connected = true;
+            m_exchange.connected(m_timeAuthority.getTimeInMilliseconds());
+            key.interestOps(SelectionKey.OP_WRITE);
+          }
+          else if (key.isWritable()) {
+            m_channel.write(m_request);
+
+            if (!m_request.hasRemaining()) {
+              key.interestOps(SelectionKey.OP_READ);
+            }
+          }
+          else if (key.isReadable()) {
+            read();
+          }
+        }
+        catch (IOException e) {
+          if (m_reused && !m_parser.hasStarted()) {
+            // The server closed the idle connection before it received our
+            // request. Retry once with a new connection.
+            final Exchange exchange = m_exchange;
+            m_activeConnections.remove(this);
+            m_exchange = null;
+            close();
+            dispatch(exchange, false);
+          }
+          else {
+            fail(e);
+          }
+        }
+      }
+
+      private void read() throws IOException {
+        m_readBuffer.clear();
+
+        final int n = m_channel.read(m_readBuffer);
+
+        if (n < 0) {
+          if (m_parser.endOfStream()) {
+            complete(false);
+          }
+          else {
+            throw new IOException("Connection closed by server");
+          }
+
+          return;
+        }
+
+        if (n > 0) {
+          m_exchange.firstByte(m_timeAuthority.getTimeInMilliseconds());
+        }
+
+        m_readBuffer.flip();
+
+        if (m_parser.parse(m_readBuffer)) {
+          complete(m_parser.isKeepAlive() && !m_readBuffer.hasRemaining());
+        }
+      }
+
+      private void complete(boolean keepAlive) {
+        final Exchange exchange = m_exchange;
+        m_activeConnections.remove(this);
+        m_exchange = null;
+        m_request = null;
+
+        if (keepAlive) {
+          m_key.interestOps(SelectionKey.OP_READ);
+          makeIdle(this);
+        }
+        else {
+          close();
+        }
+
+        exchange.complete(m_parser);
+        m_parser = null;
+      }
+
+      public void checkTimeout(long now) {
+        if (m_deadline != 0 && now >= m_deadline) {
+          fail(new SocketTimeoutException("Request timed out"));
+        }
+      }
+
+      public void fail(IOException e) {
+        final Exchange exchange = m_exchange;
+        m_activeConnections.remove(this);
+        m_exchange = null;
+        close();
+
+        if (exchange != null) {
+          exchange.fail(e);
+        }
+      }
+
+      public void close() {
+        m_key.cancel();
+
+        try {
+          m_channel.close();
+        }
+        catch (IOException e) {
+          // Ignore.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,394 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * Incremental HTTP/1.x response parser.
+ *
+ * <p>
+ * Bytes are fed to the parser as they arrive from the network. The parser
+ * handles bodies delimited by {@code Content-Length}, by the chunked transfer
+ * coding, and by the end of the stream. Interim {@code 1xx} responses are
+ * discarded.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class ResponseParser {
+
+  private enum State {
+    STATUS_LINE,
+    HEADERS,
+    BODY,
+    CHUNK_SIZE,
+    CHUNK_DATA,
+    CHUNK_END,
+    TRAILERS,
+    BODY_UNTIL_CLOSE,
+    COMPLETE,
+  }
+
+  private static final int MAXIMUM_LINE_LENGTH = 64 * 1024;
+
+  private final boolean m_noBody;
+
+  private final StringBuilder m_line = new StringBuilder();
+  private final List<NVPair> m_headers = new ArrayList<NVPair>();
+  private final ByteArrayOutputStream m_body = new ByteArrayOutputStream();
+
+  private State m_state = State.STATUS_LINE;
+  private boolean m_started;
+  private String m_version;
+  private int m_statusCode;
+  private String m_reasonLine;
+  private long m_remaining;
+  private boolean m_keepAlive;
+
+  /**
+   * Constructor.
+   *
+   * @param noBody {@code true} if the response will not have a body,
+   *  regardless of its headers. This is the case for responses to
+   *  {@code HEAD} requests.
+   */
+  public ResponseParser(boolean noBody) {
+    m_noBody = noBody;
+  }
+
+  /**
+   * Parse the bytes available in a buffer.
+   *
+   * @param buffer The buffer. Bytes between its position and limit are
+   *  consumed.
+   * @return {@code true} if the response is complete. Any bytes remaining in
+   *  {@code buffer} do not belong to this response.
+   * @throws ProtocolException If the response is malformed.
+   */
+  public boolean parse(ByteBuffer buffer) throws ProtocolException {
+    if (buffer.hasRemaining()) {
+      m_started = true;
+    }
+
+    while (buffer.hasRemaining() && m_state != State.COMPLETE) {
+      switch (m_state) {
+        case STATUS_LINE:
+          if (readLine(buffer)) {
+            parseStatusLine();
+          }
+          break;
+
+        case HEADERS:
+          if (readLine(buffer)) {
+            if (m_line.length() == 0) {
+              endOfHeaders();
+            }
+            else {
+              m_headers.add(parseHeader());
+            }
+          }
+          break;
+
+        case BODY:
+        case CHUNK_DATA:
+          final int n = (int) Math.min(buffer.remaining(), m_remaining);
+          copy(buffer, n);
+          m_remaining -= n;
+
+          if (m_remaining == 0) {
+            m_state = m_state == State.BODY ? State.COMPLETE : State.CHUNK_END;
+          }
+          break;
+
+        case CHUNK_SIZE:
+          if (readLine(buffer)) {
+            m_remaining = parseChunkSize();
+            m_state = m_remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+          }
+          break;
+
+        case CHUNK_END:
+          if (readLine(buffer)) {
+            if (m_line.length() != 0) {
+              throw new ProtocolException("Malformed chunk");
+            }
+
+            m_state = State.CHUNK_SIZE;
+          }
+          break;
+
+        case TRAILERS:
+          if (readLine(buffer)) {
+            if (m_line.length() == 0) {
+              m_state = State.COMPLETE;
+            }
+
+            // Trailers are discarded.
+            m_line.setLength(0);
+          }
+          break;
+
+        case BODY_UNTIL_CLOSE:
+          copy(buffer, buffer.remaining());
+          break;
+
+        default:
+          throw new AssertionError(m_state);
+      }
+    }
+
+    return m_state == State.COMPLETE;
+  }
+
+  /**
+   * Notify the parser that the stream has ended.
+   *
+   * @return {@code true} if the response is complete.
+   */
+  public boolean endOfStream() {
+    if (m_state == State.BODY_UNTIL_CLOSE) {
+      m_state = State.COMPLETE;
+    }
+
+    return m_state == State.COMPLETE;
+  }
+
+  private boolean readLine(ByteBuffer buffer) throws ProtocolException {
+    while (buffer.hasRemaining()) {
+      final char c = (char) (buffer.get() & 0xFF);
+
+      if (c == '\n') {
+        final int length = m_line.length();
+
+        if (length > 0 && m_line.charAt(length - 1) == '\r') {
+          m_line.setLength(length - 1);
+        }
+
+        return true;
+      }
+
+      if (m_line.length() == MAXIMUM_LINE_LENGTH) {
+        throw new ProtocolException("Line too long");
+      }
+
+      m_line.append(c);
+    }
+
+    return false;
+  }
+
+  private void copy(ByteBuffer buffer, int n) {
+    if (buffer.hasArray()) {
+      m_body.write(buffer.array(),
+                   buffer.arrayOffset() + buffer.position(),
+                   n);
+      buffer.position(buffer.position() + n);
+    }
+    else {
+      final byte[] bytes = new byte[n];
+      buffer.get(bytes);
+      m_body.write(bytes, 0, n);
+    }
+  }
+
+  private void parseStatusLine() throws ProtocolException {
+    final String line = m_line.toString();
+    m_line.setLength(0);
+
+    if (line.length() == 0 && m_version == null) {
+      // Tolerate blank lines before the status line.
+      return;
+    }
+
+    final int firstSpace = line.indexOf(' ');
+
+    if (!line.startsWith("HTTP/") || firstSpace < 0) {
+      throw new ProtocolException("Malformed status line: " + line);
+    }
+
+    final int secondSpace = line.indexOf(' ', firstSpace + 1);
+
+    try {
+      m_statusCode =
+        Integer.parseInt(
+          secondSpace < 0 ?
+            line.substring(firstSpace + 1) :
+            line.substring(firstSpace + 1, secondSpace));
+    }
+    catch (NumberFormatException e) {
+      throw new ProtocolException("Malformed status line: " + line);
+    }
+
+    m_version = line.substring(0, firstSpace);
+    m_reasonLine = secondSpace < 0 ? "" : line.substring(secondSpace + 1);
+    m_state = State.HEADERS;
+  }
+
+  private NVPair parseHeader() throws ProtocolException {
+    final String line = m_line.toString();
+    m_line.setLength(0);
+
+    final int colon = line.indexOf(':');
+
+    if (colon <= 0) {
+      throw new ProtocolException("Malformed header: " + line);
+    }
+
+    return new NVPair(line.substring(0, colon).trim(),
+                      line.substring(colon + 1).trim());
+  }
+
+  private long parseChunkSize() throws ProtocolException {
+    final String line = m_line.toString();
+    m_line.setLength(0);
+
+    final int extension = line.indexOf(';');
+
+    try {
+      final long result =
+        Long.parseLong(
+          (extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+
+      if (result < 0) {
+        throw new ProtocolException("Negative chunk size: " + line);
+      }
+
+      return result;
+    }
+    catch (NumberFormatException e) {
+      throw new ProtocolException("Malformed chunk size: " + line);
+    }
+  }
+
+  private void endOfHeaders() throws ProtocolException {
+    m_line.setLength(0);
+
+    if (m_statusCode >= 100 && m_statusCode < 200) {
+      // Discard interim responses.
+      m_headers.clear();
+      m_version = null;
+      m_state = State.STATUS_LINE;
+      return;
+    }
+
+    final String connection = getHeader("Connection");
+
+    if ("HTTP/1.0".equals(m_version)) {
+      m_keepAlive = "keep-alive".equalsIgnoreCase(connection);
+    }
+    else {
+      m_keepAlive = !"close".equalsIgnoreCase(connection);
+    }
+
+    final String transferEncoding = getHeader("Transfer-Encoding");
+    final String contentLength = getHeader("Content-Length");
+
+    if (m_noBody || m_statusCode == 204 || m_statusCode == 304) {
+      m_state = State.COMPLETE;
+    }
+    else if (transferEncoding != null &&
+             !"identity".equalsIgnoreCase(transferEncoding)) {
+      m_state = State.CHUNK_SIZE;
+    }
+    else if (contentLength != null) {
+      try {
+        m_remaining = Long.parseLong(contentLength);
+      }
+      catch (NumberFormatException e) {
+        throw new ProtocolException("Malformed Content-Length: " +
+                                    contentLength);
+      }
+
+      if (m_remaining < 0) {
+        throw new ProtocolException("Negative Content-Length: " +
+                                    contentLength);
+      }
+
+      m_state = m_remaining == 0 ? State.COMPLETE : State.BODY;
+    }
+    else {
+      m_keepAlive = false;
+      m_state = State.BODY_UNTIL_CLOSE;
+    }
+  }
+
+  /**
+   * Whether any bytes of the response have been received.
+   *
+   * @return {@code true} if bytes have been received.
+   */
+  public boolean hasStarted() {
+    return m_started;
+  }
+
+  /**
+   * Whether the connection can be reused for another request. Only valid
+   * once the response is complete.
+   *
+   * @return {@code true} if the connection can be reused.
+   */
+  public boolean isKeepAlive() {
+    return m_keepAlive;
+  }
+
+  public int getStatusCode() {
+    return m_statusCode;
+  }
+
+  public String getReasonLine() {
+    return m_reasonLine;
+  }
+
+  public NVPair[] getHeaders() {
+    return m_headers.toArray(new NVPair[m_headers.size()]);
+  }
+
+  /**
+   * Return the value of the first header with the given name.
+   *
+   * @param name The header name. Case insensitive.
+   * @return The value, or {@code null} if there is no such header.
+   */
+  public String getHeader(String name) {
+    for (NVPair header : m_headers) {
+      if (header.getName().equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+
+    return null;
+  }
+
+  public byte[] getBody() {
+    return m_body.toByteArray();
+  }
+}
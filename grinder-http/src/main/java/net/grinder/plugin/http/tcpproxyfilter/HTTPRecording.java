@@ -68,6 +68,15 @@ public interface HTTPRecording {
    */
   void markLastResponseTime();
 
+  /**
+   * Called when a request and its response are complete. The request may be
+   * written out of memory, so the caller should not alter it further.
+   *
+   * @param request
+   *          The request, as returned by {@link #addRequest}.
+   */
+  void completeRequest(RequestType request);
+
   /**
    * Fill in token reference details, creating the token if necessary.
    *
@@ -27,8 +27,9 @@ import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -38,6 +39,9 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
 import net.grinder.common.GrinderBuild;
 import net.grinder.plugin.http.xml.BaseURIType;
 import net.grinder.plugin.http.xml.CommonHeadersType;
@@ -60,6 +64,8 @@ import net.grinder.util.http.URIParser;
 import org.apache.xmlbeans.XmlObject;
 import org.picocontainer.Disposable;
 import org.slf4j.Logger;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 import HTTPClient.ParseException;
 import HTTPClient.URI;
@@ -72,6 +78,12 @@ import HTTPClient.URI;
  */
 public class HTTPRecordingImplementation implements HTTPRecording, Disposable {
 
+  private static final String DEFAULT_HEADERS_ID = "defaultHeaders";
+
+  private static final Pattern RESOURCE_PATH_PATTERN = Pattern.compile(
+    ".*(?:\\.css|\\.gif|\\.ico|\\.jpe?g|\\.js|\\.png)(?:\\?.*)?$",
+    Pattern.CASE_INSENSITIVE);
+
   private final HTTPRecordingParameters m_parameters;
   private final HttpRecordingDocument m_recordingDocument =
     HttpRecordingDocument.Factory.newInstance();
@@ -256,6 +268,14 @@ public class HTTPRecordingImplementation implements HTTPRecording, Disposable {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void completeRequest(RequestType request) {
+    m_requestList.complete(request);
+  }
+
 
   /**
    * {@inheritDoc}
@@ -294,385 +314,543 @@ public class HTTPRecordingImplementation implements HTTPRecording, Disposable {
 
   /**
    * Called after the component has been stopped.
+   *
+   * <p>
+   * The result processor is passed a {@link Source} that reads the requests
+   * back from the request log as it is consumed, rather than a document
+   * containing the whole recording.
+   * </p>
    */
   public void dispose() {
-    final HttpRecordingDocument result;
+    final RecordingReader reader = m_requestList.createReader();
 
-    synchronized (m_recordingDocument) {
-      result = (HttpRecordingDocument)m_recordingDocument.copy();
+    try {
+      m_resultProcessor.process(new SAXSource(reader, new InputSource()));
     }
+    catch (IOException e) {
+      m_logger.error(e.getMessage(), e);
+    }
+  }
 
-    final HTTPRecordingType httpRecording = result.getHttpRecording();
-    m_requestList.record(httpRecording);
+  /**
+   * Remove default headers.
+   *
+   * @param defaultHeaders Headers to remove.
+   * @param defaultHeadersID
+   * @param headers The headers. Mutated in place.
+   */
+  private static void removeDefaultHeaders(
+        Set<Pair<String, String>> defaultHeaders,
+        String defaultHeadersID,
+        HeadersType headers) {
+
+    final HeaderType[] headersArray = headers.getHeaderArray();
+
+    final List<Integer> defaultHeaderIndexes =
+        new ArrayList<Integer>(defaultHeaders.size());
 
-    final XmlObject[] requestXmlObjects = httpRecording.selectPath(
-        "declare namespace ns=" +
-        "'http://grinder.sourceforge.net/tcpproxy/http/1.0';" +
-        "$this//ns:request");
+    for (int i = headersArray.length - 1; i >= 0; --i) {
+      if (defaultHeaders.contains(Pair.of(headersArray[i].getName(),
+                                          headersArray[i].getValue()))) {
+        defaultHeaderIndexes.add(i);
+      }
+    }
 
-    final List<RequestType> requests =
-        new ArrayList<RequestType>(requestXmlObjects.length);
+    assert defaultHeaderIndexes.size() == defaultHeaders.size();
 
-    for (XmlObject o : requestXmlObjects) {
-      requests.add((RequestType) o);
+    for (int index : defaultHeaderIndexes) {
+      headers.removeHeader(index);
     }
 
-    extractCommonHeaders(requests, httpRecording);
+    headers.setExtends(defaultHeadersID);
+  }
+
+  private final class BaseURLMap {
+    private final Map<String, BaseURIType> m_map =
+      new HashMap<String, BaseURIType>();
+
+    private final IntGenerator m_idGenerator = new IntGenerator();
 
-    // Find default headers that are present in all common headers, or
-    // request headers that don't extend common headers.
+    public BaseURIType getBaseURL(
+      BaseURIType.Scheme.Enum scheme, EndPoint endPoint) {
 
-    final CommonHeadersType[] commonHeaders =
-        httpRecording.getCommonHeadersArray();
+      final String key = scheme.toString() + "://" + endPoint;
 
-    final List<HeadersType> defaultHeaderSources =
-        new ArrayList<HeadersType>(commonHeaders.length);
+      synchronized (m_map) {
+        final BaseURIType existing = m_map.get(key);
 
-    for (HeadersType header : commonHeaders) {
-      defaultHeaderSources.add(header);
-    }
+        if (existing != null) {
+          return existing;
+        }
+
+        final BaseURIType result;
+
+        synchronized (m_recordingDocument) {
+          result = m_recordingDocument.getHttpRecording().addNewBaseUri();
+        }
 
-    for (RequestType request : requests) {
-      final HeadersType headers = request.getHeaders();
+        result.setUriId("url" + m_idGenerator.next());
+        result.setScheme(scheme);
+        result.setHost(endPoint.getHost());
+        result.setPort(endPoint.getPort());
 
-      if (!headers.isSetExtends()) {
-        defaultHeaderSources.add(headers);
+        m_map.put(key, result);
+
+        return result;
       }
     }
+  }
 
-    final Set<Pair<String, String>> defaultHeaders =
-        findSharedHeaders(defaultHeaderSources);
+  /**
+   * Tracks requests until they complete, then appends them to the request
+   * log. Common headers are extracted as each request is recorded, so
+   * {@link #createReader()} need only consider each distinct set of common
+   * headers, rather than every request.
+   */
+  private final class RequestList {
+    private final Map<RequestType, Integer> m_incompleteRequests =
+      new IdentityHashMap<RequestType, Integer>();
 
-    if (defaultHeaders.size() > 0) {
-      final List<CommonHeadersType> newCommonHeaders =
-        new ArrayList<CommonHeadersType>(commonHeaders.length + 1);
+    private final List<RecordedRequest> m_recordedRequests =
+      new ArrayList<RecordedRequest>();
 
-      final CommonHeadersType defaultHeadersXML =
-          CommonHeadersType.Factory.newInstance();
-      defaultHeadersXML.setHeadersId("defaultHeaders");
-      newCommonHeaders.add(defaultHeadersXML);
+    private final Map<List<Pair<String, String>>, CommonHeaders>
+      m_commonHeaders =
+        new HashMap<List<Pair<String, String>>, CommonHeaders>();
 
-      for (Pair<String, String> defaultHeader : defaultHeaders) {
-        final HeaderType header = defaultHeadersXML.addNewHeader();
-        header.setName(defaultHeader.getFirst());
-        header.setValue(defaultHeader.getSecond());
+    // Intersection of the headers of recorded requests that have no common
+    // headers.
+    private Set<Pair<String, String>> m_sharedHeadersOfUnextendedRequests;
+    private int m_numberOfUnextendedRequests;
+
+    private int m_nextSequenceNumber;
+    private RequestLog m_log;
+
+    public RequestType add() {
+      final RequestType request = RequestType.Factory.newInstance();
+
+      synchronized (this) {
+        m_incompleteRequests.put(request, m_nextSequenceNumber++);
       }
 
-      // There can be at most one CommonHeaders that is the same as the
-      // default headers. If we find it, we remove it.
-      String emptyCommonHeadersID = null;
+      return request;
+    }
 
-      for (CommonHeadersType headers : commonHeaders) {
-        removeDefaultHeaders(defaultHeaders,
-                             defaultHeadersXML.getHeadersId(),
-                             headers);
+    public synchronized void complete(RequestType request) {
+      final Integer sequenceNumber = m_incompleteRequests.remove(request);
 
-        if (headers.sizeOfHeaderArray() == 0) {
-          assert emptyCommonHeadersID == null;
-          emptyCommonHeadersID = headers.getHeadersId();
-        }
-        else {
-          newCommonHeaders.add(headers);
-        }
+      if (sequenceNumber == null) {
+        // Already recorded.
+        return;
       }
 
-      httpRecording.setCommonHeadersArray(
-        newCommonHeaders.toArray(
-          new CommonHeadersType[newCommonHeaders.size()]));
+      if (request.getResponse() == null) {
+        m_logger.debug("Skipping due to no response: {}", request);
+        return;
+      }
 
-      for (RequestType request : requests) {
-        final HeadersType headers = request.getHeaders();
+      final long position;
 
-        if (!headers.isSetExtends()) {
-          removeDefaultHeaders(defaultHeaders,
-                               defaultHeadersXML.getHeadersId(),
-                               headers);
-        }
-        else {
-          // Fix up any references to the CommonHeaders that duplicated the
-          // defaultHeaders.
-          if (headers.getExtends().equals(emptyCommonHeadersID)) {
-            headers.setExtends(defaultHeadersXML.getHeadersId());
-          }
+      try {
+        if (m_log == null) {
+          final File file =
+            File.createTempFile("grinder-http-recording", ".log");
+          file.deleteOnExit();
+          m_log = new RequestLog(file);
         }
+
+        position = m_log.append(request);
+      }
+      catch (IOException e) {
+        m_logger.error("Failed to record request", e);
+        return;
       }
-    }
 
-    try {
-      m_resultProcessor.process(result);
-    }
-    catch (IOException e) {
-      m_logger.error(e.getMessage(), e);
-    }
-  }
+      final List<Pair<String, String>> commonHeaders =
+        new ArrayList<Pair<String, String>>();
 
-  private void extractCommonHeaders(List<RequestType> requests,
-                                    HTTPRecordingType httpRecording) {
+      final Set<Pair<String, String>> allHeaders =
+        new HashSet<Pair<String, String>>();
 
-    // Build identity map of Request to (Common, Uncommon) and map containing
-    // the number of times each set of common headers is referenced.
-    final Map<RequestType, Pair<CommonHeadersType, HeadersType>>
-      parsedRequests =
-      new IdentityHashMap<RequestType, Pair<CommonHeadersType, HeadersType>>();
+      for (HeaderType header : request.getHeaders().getHeaderArray()) {
+        final Pair<String, String> nameValue =
+          Pair.of(header.getName(), header.getValue());
 
-    final Map<String, Integer> commonHeadersCountByValue =
-        new HashMap<String, Integer>();
+        allHeaders.add(nameValue);
 
-    final Map<String, CommonHeadersType> uniqueCommonHeaders =
-        new HashMap<String, CommonHeadersType>();
+        if (m_parameters.isCommonHeader(header.getName())) {
+          commonHeaders.add(nameValue);
+        }
+      }
 
-    for (RequestType request : requests) {
-      final CommonHeadersType commonHeaders =
-          CommonHeadersType.Factory.newInstance();
+      final CommonHeaders theCommonHeaders;
 
-      final HeadersType uncommonHeaders = HeadersType.Factory.newInstance();
+      if (commonHeaders.isEmpty()) {
+        theCommonHeaders = null;
 
-      final XmlObject[] children = request.getHeaders().selectPath("./*");
+        if (m_sharedHeadersOfUnextendedRequests == null) {
+          m_sharedHeadersOfUnextendedRequests = allHeaders;
+        }
+        else {
+          m_sharedHeadersOfUnextendedRequests.retainAll(allHeaders);
+        }
 
-      for (int i = 0; i < children.length; ++i) {
-        if (children[i] instanceof HeaderType) {
-          final HeaderType header = (HeaderType)children[i];
+        ++m_numberOfUnextendedRequests;
+      }
+      else {
+        final CommonHeaders existing = m_commonHeaders.get(commonHeaders);
 
-          if (m_parameters.isCommonHeader(header.getName())) {
-            commonHeaders.addNewHeader().set(header);
-          }
-          else {
-            uncommonHeaders.addNewHeader().set(header);
-          }
+        if (existing != null) {
+          existing.addRequest();
+          theCommonHeaders = existing;
         }
         else {
-          uncommonHeaders.addNewAuthorization().set(children[i]);
+          theCommonHeaders = new CommonHeaders(commonHeaders, allHeaders);
+          m_commonHeaders.put(commonHeaders, theCommonHeaders);
         }
       }
 
-      // Key that ignores ID.
-      final String key =
-        Arrays.asList(commonHeaders.getHeaderArray()).toString();
-
-      final CommonHeadersType existing = uniqueCommonHeaders.get(key);
+      m_recordedRequests.add(
+        new RecordedRequest(sequenceNumber, position, theCommonHeaders));
+    }
+
+    /**
+     * Find headers that are present in all common headers that will be
+     * extracted, and in all requests that will not extend common headers.
+     *
+     * @return The default headers. Empty if there are less than two sets of
+     *  headers to consider.
+     */
+    private Set<Pair<String, String>> findDefaultHeaders() {
+      Set<Pair<String, String>> result = null;
+      int numberOfHeaderSets = m_numberOfUnextendedRequests;
+
+      if (m_sharedHeadersOfUnextendedRequests != null) {
+        result =
+          new HashSet<Pair<String, String>>(
+            m_sharedHeadersOfUnextendedRequests);
+      }
 
-      final CommonHeadersType theCommonHeaders;
+      for (CommonHeaders commonHeaders : m_commonHeaders.values()) {
+        if (result == null) {
+          result =
+            new HashSet<Pair<String, String>>(commonHeaders.getSharable());
+        }
+        else {
+          result.retainAll(commonHeaders.getSharable());
+        }
 
-      if (existing != null) {
-        theCommonHeaders = existing;
-      }
-      else {
-        uniqueCommonHeaders.put(key, commonHeaders);
-        theCommonHeaders = commonHeaders;
+        ++numberOfHeaderSets;
       }
 
-      parsedRequests.put(request, Pair.of(theCommonHeaders, uncommonHeaders));
+      if (numberOfHeaderSets < 2) {
+        return emptySet();
+      }
 
-      final Integer count = commonHeadersCountByValue.get(key);
-      final int oldCount = count != null ? count.intValue() : 0;
-      commonHeadersCountByValue.put(key, oldCount + 1);
+      return result;
     }
 
-    // Now extract common headers if more than one request refers to them.
-    final IntGenerator idGenerator = new IntGenerator();
+    public synchronized RecordingReader createReader() {
+      // Requests that have a response but haven't been completed are recorded
+      // as they are.
+      for (RequestType request :
+           new ArrayList<RequestType>(m_incompleteRequests.keySet())) {
+        if (request.getResponse() != null) {
+          complete(request);
+        }
+      }
 
-    for (RequestType request : requests) {
-      final Pair<CommonHeadersType, HeadersType> pair =
-          parsedRequests.get(request);
+      if (m_log != null) {
+        try {
+          m_log.close();
+        }
+        catch (IOException e) {
+          m_logger.error("Failed to write request log", e);
+        }
+      }
 
-      final CommonHeadersType commonHeaders = pair.getFirst();
-      final HeadersType uncommonHeaders = pair.getSecond();
+      m_logger.debug("Recording {} requests", m_recordedRequests.size());
 
-      final String key =
-          Arrays.asList(commonHeaders.getHeaderArray()).toString();
+      final List<RecordedRequest> requests =
+        new ArrayList<RecordedRequest>(m_recordedRequests);
+      Collections.sort(requests);
 
-      if (commonHeaders.sizeOfHeaderArray() > 0 &&
-          commonHeadersCountByValue.get(key).intValue() > 1) {
-        if (commonHeaders.getHeadersId() == null) {
-          commonHeaders.setHeadersId("headers" + idGenerator.next());
+      // Extract common headers if more than one request refers to them.
+      final IntGenerator idGenerator = new IntGenerator();
 
-          httpRecording.addNewCommonHeaders().set(commonHeaders);
-        }
+      final Map<CommonHeaders, String> extendsIDs =
+        new HashMap<CommonHeaders, String>();
 
-        uncommonHeaders.setExtends(commonHeaders.getHeadersId());
+      final List<CommonHeaders> extractedHeaders =
+        new ArrayList<CommonHeaders>();
 
-        request.setHeaders(uncommonHeaders);
+      for (RecordedRequest request : requests) {
+        final CommonHeaders commonHeaders = request.getCommonHeaders();
+
+        if (commonHeaders != null &&
+            commonHeaders.isShared() &&
+            !extendsIDs.containsKey(commonHeaders)) {
+          extendsIDs.put(commonHeaders, "headers" + idGenerator.next());
+          extractedHeaders.add(commonHeaders);
+        }
       }
-    }
-  }
 
-  /**
-   * Find the intersection of (matching name and value) from a set of headers.
-   * If there are less than two sets of headers in headersList, the result
-   * is empty.
-   *
-   * @param headersList
-   *          Headers to search.
-   * @return Shared headers.
-   */
-  private static Set<Pair<String, String>>
-    findSharedHeaders(List<HeadersType> headersList) {
+      final Set<Pair<String, String>> defaultHeaders = findDefaultHeaders();
 
-    if (headersList.size() < 2) {
-      return emptySet();
-    }
+      final List<CommonHeadersType> commonHeadersXML =
+        new ArrayList<CommonHeadersType>(extractedHeaders.size() + 1);
 
-    final HeaderType[] oneHeaders =
-        headersList.remove(headersList.size() - 1).getHeaderArray();
+      if (defaultHeaders.size() > 0) {
+        final CommonHeadersType defaultHeadersXML =
+          CommonHeadersType.Factory.newInstance();
+        defaultHeadersXML.setHeadersId(DEFAULT_HEADERS_ID);
+        commonHeadersXML.add(defaultHeadersXML);
 
-    final Set<Pair<String, String>> sharedHeaders =
-        new HashSet<Pair<String, String>>(oneHeaders.length);
+        for (Pair<String, String> defaultHeader : defaultHeaders) {
+          final HeaderType header = defaultHeadersXML.addNewHeader();
+          header.setName(defaultHeader.getFirst());
+          header.setValue(defaultHeader.getSecond());
+        }
+      }
 
-    for (HeaderType header : oneHeaders) {
-      sharedHeaders.add(Pair.of(header.getName(), header.getValue()));
-    }
+      for (CommonHeaders commonHeaders : extractedHeaders) {
+        final CommonHeadersType headersXML =
+          CommonHeadersType.Factory.newInstance();
+        headersXML.setHeadersId(extendsIDs.get(commonHeaders));
 
-    for (HeadersType headers : headersList) {
-      final HeaderType[] h = headers.getHeaderArray();
+        for (Pair<String, String> commonHeader : commonHeaders.getHeaders()) {
+          if (!defaultHeaders.contains(commonHeader)) {
+            final HeaderType header = headersXML.addNewHeader();
+            header.setName(commonHeader.getFirst());
+            header.setValue(commonHeader.getSecond());
+          }
+        }
 
-      final Set<Pair<String, String>> sharedHeadersCopy =
-          new HashSet<Pair<String, String>>(sharedHeaders);
+        if (defaultHeaders.size() == 0) {
+          commonHeadersXML.add(headersXML);
+        }
+        else if (headersXML.sizeOfHeaderArray() == 0) {
+          // There can be at most one CommonHeaders that is the same as the
+          // default headers. References to it are replaced by references to
+          // the default headers.
+          extendsIDs.put(commonHeaders, DEFAULT_HEADERS_ID);
+        }
+        else {
+          headersXML.setExtends(DEFAULT_HEADERS_ID);
+          commonHeadersXML.add(headersXML);
+        }
+      }
 
-      for (int j = 0; j < h.length; ++j) {
-        final String name = h[j].getName();
-        final String value = h[j].getValue();
+      final HttpRecordingDocument head;
 
-        sharedHeadersCopy.remove(Pair.of(name, value));
+      synchronized (m_recordingDocument) {
+        head = (HttpRecordingDocument)m_recordingDocument.copy();
       }
 
-      sharedHeaders.removeAll(sharedHeadersCopy);
-    }
+      head.getHttpRecording().setCommonHeadersArray(
+        commonHeadersXML.toArray(
+          new CommonHeadersType[commonHeadersXML.size()]));
 
-    return sharedHeaders;
+      return new RecordingReader(head,
+                                 m_log,
+                                 requests,
+                                 extendsIDs,
+                                 defaultHeaders);
+    }
   }
 
   /**
-   * Remove default headers.
-   *
-   * @param defaultHeaders Headers to remove.
-   * @param defaultHeadersID
-   * @param headers The headers. Mutated in place.
+   * A distinct set of common headers.
    */
-  private static void removeDefaultHeaders(
-        Set<Pair<String, String>> defaultHeaders,
-        String defaultHeadersID,
-        HeadersType headers) {
+  private static final class CommonHeaders {
+    private final List<Pair<String, String>> m_headers;
+    private Set<Pair<String, String>> m_firstRequestHeaders;
+    private int m_numberOfRequests = 1;
 
-    final HeaderType[] headersArray = headers.getHeaderArray();
+    public CommonHeaders(List<Pair<String, String>> headers,
+                         Set<Pair<String, String>> firstRequestHeaders) {
+      m_headers = headers;
+      m_firstRequestHeaders = firstRequestHeaders;
+    }
 
-    final List<Integer> defaultHeaderIndexes =
-        new ArrayList<Integer>(defaultHeaders.size());
+    public void addRequest() {
+      ++m_numberOfRequests;
 
-    for (int i = headersArray.length - 1; i >= 0; --i) {
-      if (defaultHeaders.contains(Pair.of(headersArray[i].getName(),
-                                          headersArray[i].getValue()))) {
-        defaultHeaderIndexes.add(i);
-      }
+      // Only needed while the headers aren't shared.
+      m_firstRequestHeaders = null;
     }
 
-    assert defaultHeaderIndexes.size() == defaultHeaders.size();
+    public boolean isShared() {
+      return m_numberOfRequests > 1;
+    }
 
-    for (int index : defaultHeaderIndexes) {
-      headers.removeHeader(index);
+    public List<Pair<String, String>> getHeaders() {
+      return m_headers;
     }
 
-    headers.setExtends(defaultHeadersID);
+    /**
+     * The headers to consider when looking for default headers. If no other
+     * request shares these common headers, they won't be extracted, so we
+     * must consider all of the headers of the request.
+     *
+     * @return The headers.
+     */
+    public Collection<Pair<String, String>> getSharable() {
+      return isShared() ? m_headers : m_firstRequestHeaders;
+    }
   }
 
-  private final class BaseURLMap {
-    private final Map<String, BaseURIType> m_map =
-      new HashMap<String, BaseURIType>();
-
-    private final IntGenerator m_idGenerator = new IntGenerator();
-
-    public BaseURIType getBaseURL(
-      BaseURIType.Scheme.Enum scheme, EndPoint endPoint) {
-
-      final String key = scheme.toString() + "://" + endPoint;
-
-      synchronized (m_map) {
-        final BaseURIType existing = m_map.get(key);
-
-        if (existing != null) {
-          return existing;
-        }
+  /**
+   * Index entry for a request in the request log.
+   */
+  private static final class RecordedRequest
+    implements Comparable<RecordedRequest> {
 
-        final BaseURIType result;
+    private final int m_sequenceNumber;
+    private final long m_position;
+    private final CommonHeaders m_commonHeaders;
 
-        synchronized (m_recordingDocument) {
-          result = m_recordingDocument.getHttpRecording().addNewBaseUri();
-        }
+    public RecordedRequest(int sequenceNumber,
+                           long position,
+                           CommonHeaders commonHeaders) {
+      m_sequenceNumber = sequenceNumber;
+      m_position = position;
+      m_commonHeaders = commonHeaders;
+    }
 
-        result.setUriId("url" + m_idGenerator.next());
-        result.setScheme(scheme);
-        result.setHost(endPoint.getHost());
-        result.setPort(endPoint.getPort());
+    public long getPosition() {
+      return m_position;
+    }
 
-        m_map.put(key, result);
+    public CommonHeaders getCommonHeaders() {
+      return m_commonHeaders;
+    }
 
-        return result;
-      }
+    @Override public int compareTo(RecordedRequest o) {
+      return m_sequenceNumber < o.m_sequenceNumber ? -1 :
+             m_sequenceNumber == o.m_sequenceNumber ? 0 : 1;
     }
   }
 
-  private final class RequestList {
-    private final List<RequestType> m_requests = new ArrayList<RequestType>();
-    private final Pattern m_resourcePathPattern = Pattern.compile(
-      ".*(?:\\.css|\\.gif|\\.ico|\\.jpe?g|\\.js|\\.png)(?:\\?.*)?$",
-      Pattern.CASE_INSENSITIVE);
-
-    public RequestType add() {
-      final RequestType request = RequestType.Factory.newInstance();
-
-      synchronized (m_requests) {
-        m_requests.add(request);
+  /**
+   * Reads the recording, a page at a time, from the request log.
+   */
+  private final class RecordingReader extends HTTPRecordingXMLReader {
+    private final HttpRecordingDocument m_head;
+    private final RequestLog m_log;
+    private final List<RecordedRequest> m_requests;
+    private final Map<CommonHeaders, String> m_extendsIDs;
+    private final Set<Pair<String, String>> m_defaultHeaders;
+
+    public RecordingReader(HttpRecordingDocument head,
+                           RequestLog log,
+                           List<RecordedRequest> requests,
+                           Map<CommonHeaders, String> extendsIDs,
+                           Set<Pair<String, String>> defaultHeaders) {
+      m_head = head;
+      m_log = log;
+      m_requests = requests;
+      m_extendsIDs = extendsIDs;
+      m_defaultHeaders = defaultHeaders;
+    }
+
+    @Override protected void writeParts() throws IOException, SAXException {
+      write(m_head);
+
+      if (m_requests.size() == 0) {
+        return;
       }
 
-      return request;
-    }
-
-    public void record(HTTPRecordingType httpRecording) {
-      synchronized (m_requests) {
-        m_logger.debug("Recording {} requests", m_requests.size());
+      final RequestLog.Reader reader = m_log.openReader();
 
+      try {
         String lastBaseURI = null;
         boolean lastResponseWasRedirect = false;
 
+        HttpRecordingDocument pageDocument = null;
         PageType currentPage = null;
 
-        for (RequestType request : m_requests) {
+        for (RecordedRequest recordedRequest : m_requests) {
+          final RequestType request =
+            reader.read(recordedRequest.getPosition());
+
           final ResponseType response = request.getResponse();
 
-          if (response == null) {
-            m_logger.debug("Skipping due to no response: {}", request);
-            continue;
-          }
+          // Crude but effective pagination heuristics.
+          if (!request.getUri().getExtends().equals(lastBaseURI) ||
+              request.isSetBody() ||
+              !(RESOURCE_PATH_PATTERN.matcher(request.getUri().getUnparsed())
+                   .matches() ||
+                lastResponseWasRedirect) ||
+              currentPage == null) {
 
-          synchronized (m_recordingDocument) {
-            // Crude but effective pagination heuristics.
-            if (!request.getUri().getExtends().equals(lastBaseURI) ||
-                request.isSetBody() ||
-                !(m_resourcePathPattern.matcher(request.getUri().getUnparsed())
-                     .matches() ||
-                  lastResponseWasRedirect) ||
-                currentPage == null) {
-              currentPage = httpRecording.addNewPage();
+            if (pageDocument != null) {
+              write(pageDocument);
             }
 
-            lastBaseURI = request.getUri().getExtends();
+            pageDocument = HttpRecordingDocument.Factory.newInstance();
+            currentPage = pageDocument.addNewHttpRecording().addNewPage();
+          }
 
-            switch (response.getStatusCode()) {
-              case HttpURLConnection.HTTP_MOVED_PERM:
-              case HttpURLConnection.HTTP_MOVED_TEMP:
-              case 307:
-                lastResponseWasRedirect = true;
+          lastBaseURI = request.getUri().getExtends();
 
-                request.setAnnotation(
-                  "Expecting " + response.getStatusCode() +
-                  " '" + response.getReasonPhrase() + "'");
-                break;
-              default:
-                lastResponseWasRedirect = false;
-            }
+          switch (response.getStatusCode()) {
+            case HttpURLConnection.HTTP_MOVED_PERM:
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+            case 307:
+              lastResponseWasRedirect = true;
 
-            currentPage.addNewRequest().set(request);
+              request.setAnnotation(
+                "Expecting " + response.getStatusCode() +
+                " '" + response.getReasonPhrase() + "'");
+              break;
+            default:
+              lastResponseWasRedirect = false;
           }
+
+          setHeaders(recordedRequest, request);
+
+          currentPage.addNewRequest().set(request);
         }
+
+        write(pageDocument);
+      }
+      finally {
+        reader.close();
+      }
+    }
+
+    private void setHeaders(RecordedRequest recordedRequest,
+                            RequestType request) {
+      final String extendsID =
+        m_extendsIDs.get(recordedRequest.getCommonHeaders());
+
+      if (extendsID != null) {
+        final HeadersType uncommonHeaders = HeadersType.Factory.newInstance();
+
+        final XmlObject[] children = request.getHeaders().selectPath("./*");
+
+        for (int i = 0; i < children.length; ++i) {
+          if (children[i] instanceof HeaderType) {
+            final HeaderType header = (HeaderType)children[i];
+
+            if (!m_parameters.isCommonHeader(header.getName())) {
+              uncommonHeaders.addNewHeader().set(header);
+            }
+          }
+          else {
+            uncommonHeaders.addNewAuthorization().set(children[i]);
+          }
+        }
+
+        uncommonHeaders.setExtends(extendsID);
+
+        request.setHeaders(uncommonHeaders);
+      }
+      else if (m_defaultHeaders.size() > 0) {
+        removeDefaultHeaders(m_defaultHeaders,
+                             DEFAULT_HEADERS_ID,
+                             request.getHeaders());
       }
     }
   }
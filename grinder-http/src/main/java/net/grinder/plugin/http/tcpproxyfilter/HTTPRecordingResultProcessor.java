@@ -1,4 +1,4 @@
-// Copyright (C) 2005 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -23,7 +23,7 @@ package net.grinder.plugin.http.tcpproxyfilter;
 
 import java.io.IOException;
 
-import net.grinder.plugin.http.xml.HttpRecordingDocument;
+import javax.xml.transform.Source;
 
 
 /**
@@ -37,8 +37,10 @@ public interface HTTPRecordingResultProcessor {
   /**
    * Produce output.
    *
-   * @param result The result to process.
+   * @param result The result to process. An XML document that conforms to
+   *  the HTTP recording schema. It may be read more than once, and may be
+   *  generated as it is read.
    * @throws IOException If an output error occurred.
    */
-  void process(HttpRecordingDocument result) throws IOException;
+  void process(Source result) throws IOException;
 }
@@ -0,0 +1,250 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.tcpproxyfilter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.grinder.plugin.http.xml.HttpRecordingDocument;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+
+/**
+ * Generates SAX events for an HTTP recording that is assembled from a
+ * sequence of parts.
+ *
+ * <p>
+ * Each part is an {@link HttpRecordingDocument}. The children of the
+ * document elements of the parts are combined under the document element of
+ * the first part, so a large recording can be passed to an XSLT
+ * transformation without building it in memory.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+abstract class HTTPRecordingXMLReader extends XMLFilterImpl {
+
+  private final DefaultHandler2 m_ignoreLexicalEvents = new DefaultHandler2();
+
+  /** Prefixes declared by the document element, keyed by namespace. */
+  private final Map<String, String> m_prefixes = new HashMap<String, String>();
+
+  private String[] m_documentElement;
+  private int m_depth;
+
+  /**
+   * Generate the recording. The input source is ignored.
+   *
+   * @param input Ignored.
+   * @throws IOException If a part could not be read.
+   * @throws SAXException If the content handler failed.
+   */
+  @Override public final void parse(InputSource input)
+    throws IOException, SAXException {
+
+    final ContentHandler handler = getContentHandler();
+
+    m_prefixes.clear();
+    m_documentElement = null;
+    m_depth = 0;
+
+    handler.startDocument();
+
+    writeParts();
+
+    if (m_documentElement != null) {
+      handler.endElement(m_documentElement[0],
+                         m_documentElement[1],
+                         m_documentElement[2]);
+
+      for (String prefix : m_prefixes.values()) {
+        handler.endPrefixMapping(prefix);
+      }
+    }
+
+    handler.endDocument();
+  }
+
+  /**
+   * Generate the recording. The system ID is ignored.
+   *
+   * @param systemId Ignored.
+   * @throws IOException If a part could not be read.
+   * @throws SAXException If the content handler failed.
+   */
+  @Override public final void parse(String systemId)
+    throws IOException, SAXException {
+    parse((InputSource) null);
+  }
+
+  /**
+   * Subclasses should implement this to call {@link #write} for each part,
+   * in order. Elements must be written in the order required by the schema.
+   *
+   * @throws IOException If a part could not be read.
+   * @throws SAXException If the content handler failed.
+   */
+  protected abstract void writeParts() throws IOException, SAXException;
+
+  /**
+   * Write a part.
+   *
+   * @param part The part.
+   * @throws SAXException If the content handler failed.
+   */
+  protected final void write(HttpRecordingDocument part) throws SAXException {
+    part.save(this, m_ignoreLexicalEvents);
+  }
+
+  /**
+   * The document events of each part are not passed on.
+   */
+  @Override public void startDocument() {
+  }
+
+  /**
+   * The document events of each part are not passed on.
+   */
+  @Override public void endDocument() {
+  }
+
+  /**
+   * The locators of each part are not passed on.
+   *
+   * @param locator Ignored.
+   */
+  @Override public void setDocumentLocator(Locator locator) {
+  }
+
+  @Override public void startPrefixMapping(String prefix, String uri)
+    throws SAXException {
+
+    if (m_depth > 0) {
+      super.startPrefixMapping(prefix, uri);
+    }
+    else if (m_documentElement == null) {
+      m_prefixes.put(uri, prefix);
+      super.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  @Override public void endPrefixMapping(String prefix) throws SAXException {
+    if (m_depth > 0) {
+      super.endPrefixMapping(prefix);
+    }
+  }
+
+  @Override public void startElement(String uri,
+                                     String localName,
+                                     String qName,
+                                     Attributes attributes)
+    throws SAXException {
+
+    if (++m_depth == 1 && m_documentElement != null) {
+      return;
+    }
+
+    final AttributesImpl filteredAttributes = new AttributesImpl();
+
+    for (int i = 0; i < attributes.getLength(); ++i) {
+      final String name = attributes.getQName(i);
+
+      if (!name.equals("xmlns") && !name.startsWith("xmlns:")) {
+        filteredAttributes.addAttribute(attributes.getURI(i),
+                                        attributes.getLocalName(i),
+                                        name,
+                                        attributes.getType(i),
+                                        attributes.getValue(i));
+      }
+    }
+
+    if (m_depth == 1) {
+      m_documentElement = new String[] { uri, localName, qName };
+      super.startElement(uri, localName, qName, filteredAttributes);
+    }
+    else {
+      super.startElement(uri,
+                         localName,
+                         qualifiedName(uri, localName, qName),
+                         filteredAttributes);
+    }
+  }
+
+  @Override public void endElement(String uri,
+                                   String localName,
+                                   String qName)
+    throws SAXException {
+
+    if (m_depth-- > 1) {
+      super.endElement(uri, localName, qualifiedName(uri, localName, qName));
+    }
+  }
+
+  @Override public void characters(char[] ch, int start, int length)
+    throws SAXException {
+
+    if (m_depth > 1) {
+      super.characters(ch, start, length);
+    }
+  }
+
+  @Override public void ignorableWhitespace(char[] ch, int start, int length)
+    throws SAXException {
+
+    if (m_depth > 1) {
+      super.ignorableWhitespace(ch, start, length);
+    }
+  }
+
+  @Override public void processingInstruction(String target, String data)
+    throws SAXException {
+
+    if (m_depth > 1) {
+      super.processingInstruction(target, data);
+    }
+  }
+
+  /**
+   * Later parts might use different prefixes to the first part. Qualify
+   * element names using the prefixes declared by the document element.
+   */
+  private String qualifiedName(String uri, String localName, String qName) {
+    final String prefix = m_prefixes.get(uri);
+
+    if (prefix == null) {
+      return qName;
+    }
+
+    return prefix.length() == 0 ? localName : prefix + ":" + localName;
+  }
+}
@@ -29,6 +29,7 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 
 import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -132,6 +133,23 @@ public class ProcessHTTPRecordingWithXSLT implements
    *           If an output error occurred.
    */
   public void process(HttpRecordingDocument result) throws IOException {
+    process(new StAXSource(result.newXMLStreamReader()));
+  }
+
+  /**
+   * Produce output.
+   *
+   * <p>
+   * The result is passed directly to the transformation, so a large recording
+   * need not be parsed into memory first.
+   * </p>
+   *
+   * @param result
+   *          The result to process.
+   * @throws IOException
+   *           If an output error occurred.
+   */
+  public void process(Source result) throws IOException {
 
     try {
       final Transformer transformer = m_transformerFactory
@@ -140,8 +158,7 @@ public class ProcessHTTPRecordingWithXSLT implements
       // One might expect this to be the default, but it's not.
       transformer.setErrorListener(m_transformerFactory.getErrorListener());
 
-      transformer.transform(new StAXSource(result.newXMLStreamReader()),
-                            new StreamResult(m_output));
+      transformer.transform(result, new StreamResult(m_output));
 
       m_output.println();
     }
@@ -0,0 +1,167 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.tcpproxyfilter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.plugin.http.xml.RequestType;
+
+import org.apache.xmlbeans.XmlException;
+
+
+/**
+ * Append-only file of recorded requests.
+ *
+ * <p>
+ * Requests are written as they complete, so the recording does not hold
+ * every request in memory. Each request is stored as a length-prefixed XML
+ * fragment, and can be read back using the position returned by
+ * {@link #append}.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class RequestLog {
+
+  private final File m_file;
+  private DataOutputStream m_output;
+  private long m_length;
+
+  /**
+   * Constructor.
+   *
+   * @param file The file to write. It will be truncated.
+   */
+  public RequestLog(File file) {
+    m_file = file;
+  }
+
+  /**
+   * Append a request to the log.
+   *
+   * @param request The request.
+   * @return The position of the request.
+   * @throws IOException If the request could not be written.
+   */
+  public synchronized long append(RequestType request) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    request.save(bytes);
+
+    if (m_output == null) {
+      m_output =
+        new DataOutputStream(
+          new BufferedOutputStream(
+            new FileOutputStream(m_file, m_length > 0)));
+    }
+
+    final long result = m_length;
+
+    m_output.writeInt(bytes.size());
+    bytes.writeTo(m_output);
+
+    m_length += 4 + bytes.size();
+
+    return result;
+  }
+
+  /**
+   * Write buffered requests to the file, and release the file handle. The
+   * log can be appended to again afterwards.
+   *
+   * @throws IOException If the requests could not be written.
+   */
+  public synchronized void close() throws IOException {
+    if (m_output != null) {
+      try {
+        m_output.close();
+      }
+      finally {
+        m_output = null;
+      }
+    }
+  }
+
+  /**
+   * Open the log for reading. Only requests appended before the last call to
+   * {@link #close()} can be read.
+   *
+   * @return A reader. The caller should close it.
+   * @throws IOException If the file could not be opened.
+   */
+  public Reader openReader() throws IOException {
+    return new Reader(new RandomAccessFile(m_file, "r"));
+  }
+
+  /**
+   * Random access to the requests in a log.
+   */
+  public static final class Reader {
+    private final RandomAccessFile m_file;
+
+    private Reader(RandomAccessFile file) {
+      m_file = file;
+    }
+
+    /**
+     * Read a request.
+     *
+     * @param position The position returned by {@link RequestLog#append}.
+     * @return The request.
+     * @throws IOException If the request could not be read.
+     */
+    public RequestType read(long position) throws IOException {
+      m_file.seek(position);
+
+      final byte[] bytes = new byte[m_file.readInt()];
+      m_file.readFully(bytes);
+
+      try {
+        return RequestType.Factory.parse(new ByteArrayInputStream(bytes));
+      }
+      catch (XmlException e) {
+        throw new IOException("Corrupt request log", e);
+      }
+    }
+
+    /**
+     * Close the reader.
+     */
+    public void close() {
+      try {
+        m_file.close();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+      }
+    }
+  }
+}
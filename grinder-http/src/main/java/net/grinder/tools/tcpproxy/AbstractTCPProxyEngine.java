@@ -33,8 +33,12 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 
@@ -77,6 +81,8 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
   private final ThreadGroup m_streamThreadGroup =
     new ThreadGroup("TCPProxy Stream Handler");
 
+  private final TCPProxyEventLoop m_eventLoop;
+
   /**
    * Constructor.
    *
@@ -126,6 +132,9 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
       m_responseColour = TerminalColour.NONE;
     }
 
+    m_eventLoop =
+      new TCPProxyEventLoop(m_streamThreadGroup, "TCPProxy event loop", logger);
+
     m_serverSocket = m_socketFactory.createServerSocket(localEndPoint, timeout);
   }
 
@@ -159,6 +168,8 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
     for (int i = 0; i < threads.length; ++i) {
       threads[i].stop();
     }
+
+    m_eventLoop.stop();
   }
 
   /**
@@ -193,6 +204,16 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
     return m_streamThreadGroup;
   }
 
+  /**
+   * Allow subclasses to access the event loop that services channel based
+   * connections.
+   *
+   * @return The event loop.
+   */
+  final TCPProxyEventLoop getEventLoop() {
+    return m_eventLoop;
+  }
+
   /**
    * <code>IOException</code> that indicates that an accept has timed out on our
    * server socket, and we have no active threads handling connections.
@@ -342,7 +363,13 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
   }
 
   /**
-   * Launch a pair of threads to handle bi-directional stream communication.
+   * Relay bi-directional stream communication between a pair of sockets,
+   * passing the data through the filters.
+   *
+   * <p>
+   * If both sockets are backed by channels, they are serviced by the event
+   * loop. Otherwise, a pair of threads is launched.
+   * </p>
    *
    * @param localSocket
    *          Local socket.
@@ -355,35 +382,148 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
    * @param targetEndPoint
    *          The remote {@code EndPoint} to be used in the logging and filter
    *          output. This may differ from the {@code remoteSocket}
-   *          binding.   *
+   *          binding.
    * @param isSecure
    *          Whether the connection is secure.
    *
    * @exception IOException
    *              If an I/O error occurs.
    */
-  protected final void launchThreadPair(Socket localSocket,
-                                        Socket remoteSocket,
-                                        EndPoint sourceEndPoint,
-                                        EndPoint targetEndPoint,
-                                        boolean isSecure) throws IOException {
+  protected final void launchRelay(Socket localSocket,
+                                   Socket remoteSocket,
+                                   EndPoint sourceEndPoint,
+                                   EndPoint targetEndPoint,
+                                   boolean isSecure) throws IOException {
 
     final ConnectionDetails connectionDetails =
       new ConnectionDetails(sourceEndPoint, targetEndPoint, isSecure);
 
+    final Queue<String> requestMethods = new ConcurrentLinkedQueue<String>();
+
+    final SocketChannel localChannel = localSocket.getChannel();
+    final SocketChannel remoteChannel = remoteSocket.getChannel();
+
+    if (localChannel != null && remoteChannel != null) {
+      m_eventLoop.execute(new Runnable() {
+          public void run() {
+            relay(localChannel,
+                  remoteChannel,
+                  connectionDetails,
+                  requestMethods);
+          }
+        });
+
+      return;
+    }
+
     new FilteredStreamThread(localSocket.getInputStream(),
                              new OutputStreamFilterTee(
                                  connectionDetails,
                                  remoteSocket.getOutputStream(),
                                  m_requestFilter,
-                                 m_requestColour));
+                                 m_requestColour,
+                                 new HTTPMessageFramer(false,
+                                                       requestMethods)));
 
     new FilteredStreamThread(remoteSocket.getInputStream(),
                              new OutputStreamFilterTee(
                                  connectionDetails.getOtherEnd(),
                                  localSocket.getOutputStream(),
                                  m_responseFilter,
-                                 m_responseColour));
+                                 m_responseColour,
+                                 new HTTPMessageFramer(true,
+                                                       requestMethods)));
+  }
+
+  private void relay(SocketChannel localChannel,
+                     SocketChannel remoteChannel,
+                     ConnectionDetails connectionDetails,
+                     Queue<String> requestMethods) {
+
+    final RelayHandler requestHandler = new RelayHandler();
+    final RelayHandler responseHandler = new RelayHandler();
+
+    final TCPProxyEventLoop.Connection localConnection;
+    final TCPProxyEventLoop.Connection remoteConnection;
+
+    try {
+      localConnection = m_eventLoop.register(localChannel, requestHandler);
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      logIOException(e);
+      Closer.close(localChannel.socket());
+      Closer.close(remoteChannel.socket());
+      return;
+    }
+
+    try {
+      remoteConnection = m_eventLoop.register(remoteChannel, responseHandler);
+    }
+    catch (IOException e) {
+      UncheckedInterruptedException.ioException(e);
+      logIOException(e);
+      Closer.close(remoteChannel.socket());
+      localConnection.close(null);
+      return;
+    }
+
+    requestHandler.setTee(
+      new OutputStreamFilterTee(connectionDetails,
+                                remoteConnection.getOutputStream(),
+                                m_requestFilter,
+                                m_requestColour,
+                                new HTTPMessageFramer(false, requestMethods)));
+
+    responseHandler.setTee(
+      new OutputStreamFilterTee(connectionDetails.getOtherEnd(),
+                                localConnection.getOutputStream(),
+                                m_responseFilter,
+                                m_responseColour,
+                                new HTTPMessageFramer(true, requestMethods)));
+  }
+
+  /**
+   * Passes data read by the event loop from one connection through the
+   * filter to the other connection. The event loop equivalent of a
+   * {@link FilteredStreamThread}.
+   */
+  final class RelayHandler implements TCPProxyEventLoop.Handler {
+
+    private OutputStreamFilterTee m_outputStreamFilterTee;
+
+    /**
+     * Set the tee, and tell the filter that the connection has been opened.
+     * Until this is called, data is discarded.
+     *
+     * @param outputStreamFilterTee The tee.
+     */
+    public void setTee(OutputStreamFilterTee outputStreamFilterTee) {
+      m_outputStreamFilterTee = outputStreamFilterTee;
+      m_outputStreamFilterTee.connectionOpened();
+    }
+
+    public void handle(byte[] buffer, int length) throws IOException {
+      if (m_outputStreamFilterTee != null) {
+        m_outputStreamFilterTee.handle(buffer, length);
+      }
+    }
+
+    public void endOfStream() {
+    }
+
+    public void timedOut() {
+    }
+
+    public void closed(IOException cause) {
+      // Errors reading or writing the channels are the non-blocking
+      // equivalent of the SocketExceptions that FilteredStreamThread
+      // ignores.
+
+      if (m_outputStreamFilterTee != null) {
+        m_outputStreamFilterTee.connectionClosed();
+      }
+    }
   }
 
   /**
@@ -392,11 +532,8 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
    */
   protected final class FilteredStreamThread implements InterruptibleRunnable {
 
-    // For simplicity, the filters take a buffer oriented approach.
-    // This means that they all break at buffer boundaries. Our buffer
-    // is huge, so we shouldn't practically cause a problem, but the
-    // network clearly can by giving us message fragments. I consider
-    // this a bug, we really ought to take a stream oriented approach.
+    // The OutputStreamFilterTee frames the HTTP messages, so the
+    // buffer size does not determine where the filters see breaks.
     private static final int BUFFER_SIZE = 65536;
 
     private final InputStream m_in;
@@ -477,7 +614,8 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
 
     }
     else if (IOException.class.equals(c) && "Stream closed".equals(message) ||
-             e instanceof SocketException) {
+             e instanceof SocketException ||
+             e instanceof ClosedChannelException) {
       // Ignore common exceptions that are due to connections being
       // closed.
       return "";
@@ -504,6 +642,11 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
    * Filter like class that delegates to a user filter and tees the result to an
    * output stream. It is constructed for a particular connection. Also controls
    * output of colour codes to the terminal.
+   *
+   * <p>
+   * If constructed with an {@link HTTPMessageFramer}, the data is framed
+   * before it is passed to the filter.
+   * </p>
    */
   protected final class OutputStreamFilterTee {
 
@@ -515,6 +658,24 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
 
     private final TerminalColour m_colour;
 
+    private final HTTPMessageFramer m_framer;
+
+    private final HTTPMessageFramer.Listener m_segmentListener =
+      new HTTPMessageFramer.Listener() {
+        public void segment(byte[] buffer, int offset, int length)
+          throws IOException {
+
+          if (offset == 0) {
+            filter(buffer, length);
+          }
+          else {
+            final byte[] bytes = new byte[length];
+            System.arraycopy(buffer, offset, bytes, 0, length);
+            filter(bytes, length);
+          }
+        }
+      };
+
     /**
      * Constructor.
      *
@@ -532,11 +693,35 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
                                  OutputStream out,
                                  TCPProxyFilter filter,
                                  TerminalColour colour) {
+      this(connectionDetails, out, filter, colour, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connectionDetails
+     *          Connection details.
+     * @param out
+     *          The output stream.
+     * @param filter
+     *          The user filter.
+     * @param colour
+     *          Terminal control code which sets appropriate colours for this
+     *          stream.
+     * @param framer
+     *          Frames the data for the filter, or {@code null}.
+     */
+    OutputStreamFilterTee(ConnectionDetails connectionDetails,
+                          OutputStream out,
+                          TCPProxyFilter filter,
+                          TerminalColour colour,
+                          HTTPMessageFramer framer) {
 
       m_connectionDetails = connectionDetails;
       m_out = out;
       m_filter = filter;
       m_colour = colour;
+      m_framer = framer;
     }
 
     /**
@@ -568,6 +753,15 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
      *              If an I/O error occurs writing to the output stream.
      */
     public void handle(byte[] buffer, int bytesRead) throws IOException {
+      if (m_framer != null) {
+        m_framer.frame(buffer, bytesRead, m_segmentListener);
+      }
+      else {
+        filter(buffer, bytesRead);
+      }
+    }
+
+    private void filter(byte[] buffer, int bytesRead) throws IOException {
 
       preOutput();
 
@@ -596,6 +790,16 @@ public abstract class AbstractTCPProxyEngine implements TCPProxyEngine {
      */
     public void connectionClosed() {
 
+      if (m_framer != null) {
+        try {
+          m_framer.flush(m_segmentListener);
+        }
+        catch (IOException e) {
+          // Ignore, the output stream is closed below.
+          UncheckedInterruptedException.ioException(e);
+        }
+      }
+
       preOutput();
 
       try {
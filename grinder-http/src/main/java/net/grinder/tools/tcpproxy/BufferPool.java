@@ -0,0 +1,94 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.tools.tcpproxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pool of direct buffers.
+ *
+ * <p>
+ * Direct buffers are expensive to allocate, but can be read from and written
+ * to a channel without the JVM copying them to temporary native memory.
+ * </p>
+ *
+ * <p>Not thread safe. Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class BufferPool {
+
+  private final int m_bufferSize;
+  private final int m_maximumSize;
+  private final List<ByteBuffer> m_buffers = new ArrayList<ByteBuffer>();
+
+  /**
+   * Constructor.
+   *
+   * @param bufferSize The size of each buffer.
+   * @param maximumSize The maximum number of free buffers to keep.
+   */
+  BufferPool(int bufferSize, int maximumSize) {
+    m_bufferSize = bufferSize;
+    m_maximumSize = maximumSize;
+  }
+
+  /**
+   * Obtain a buffer. The buffer is cleared.
+   *
+   * @return The buffer.
+   */
+  public ByteBuffer acquire() {
+    final int size = m_buffers.size();
+
+    if (size > 0) {
+      return m_buffers.remove(size - 1);
+    }
+
+    return ByteBuffer.allocateDirect(m_bufferSize);
+  }
+
+  /**
+   * Return a buffer to the pool.
+   *
+   * @param buffer The buffer.
+   */
+  public void release(ByteBuffer buffer) {
+    if (m_buffers.size() < m_maximumSize) {
+      buffer.clear();
+      m_buffers.add(buffer);
+    }
+  }
+
+  /**
+   * The number of free buffers.
+   *
+   * @return The number of buffers.
+   */
+  public int size() {
+    return m_buffers.size();
+  }
+}
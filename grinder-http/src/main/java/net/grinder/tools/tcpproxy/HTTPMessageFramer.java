@@ -0,0 +1,516 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.tools.tcpproxy;
+
+import java.io.IOException;
+import java.util.Queue;
+
+
+/**
+ * Splits a stream of HTTP messages into segments for the filters.
+ *
+ * <p>
+ * The network is free to fragment a message wherever it likes. A framer
+ * tracks the messages in one direction of a connection, and guarantees that
+ * the start line and headers of each message arrive complete, and at the
+ * start of a segment. If the start of a head has arrived but its end has not,
+ * the framer holds the bytes back until it does. Bodies are passed on as they
+ * arrive, and a new segment is started for each message.
+ * </p>
+ *
+ * <p>
+ * The framer only holds bytes back if they look like the start of an HTTP
+ * message, and never holds more than a head's worth. If it sees something
+ * that isn't HTTP, it passes the rest of the current buffer straight through
+ * and looks for a message at the start of the next buffer. This is the
+ * behaviour filters relied on before messages were framed.
+ * </p>
+ *
+ * <p>
+ * Responses to {@code HEAD} requests have headers that describe a body, but
+ * no body. The request and response framers for a connection share a queue
+ * of request methods so that the response framer can recognise them.
+ * </p>
+ *
+ * <p>Not thread safe. Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class HTTPMessageFramer {
+
+  /**
+   * Callback for the segments.
+   */
+  interface Listener {
+
+    /**
+     * Handle a segment.
+     *
+     * @param buffer Contains the segment. The array is only valid for the
+     *   duration of the call.
+     * @param offset Offset of the segment in {@code buffer}.
+     * @param length Length of the segment.
+     * @throws IOException If the segment could not be handled.
+     */
+    void segment(byte[] buffer, int offset, int length) throws IOException;
+  }
+
+  /** The longest head that will be held back. */
+  static final int MAXIMUM_HEAD_LENGTH = 65536;
+
+  private static final int MAXIMUM_START_LINE_LENGTH = 8192;
+
+  private enum State {
+    START,
+    BODY,
+    CHUNK_SIZE,
+    CHUNK_DATA,
+    CHUNK_END,
+    TRAILERS,
+    UNTIL_CLOSE,
+  }
+
+  private enum StartLine {
+    COMPLETE,
+    INCOMPLETE,
+    INVALID,
+  }
+
+  private final boolean m_response;
+  private final Queue<String> m_requestMethods;
+
+  private State m_state = State.START;
+  private long m_remaining;
+  private boolean m_unsynchronised;
+  private final StringBuilder m_line = new StringBuilder();
+
+  private byte[] m_held = new byte[0];
+
+  /**
+   * Constructor.
+   *
+   * @param response {@code true} if the framer is for responses,
+   *  {@code false} if for requests.
+   * @param requestMethods Queue shared by the request and response framers
+   *  for a connection, or {@code null}.
+   */
+  HTTPMessageFramer(boolean response, Queue<String> requestMethods) {
+    m_response = response;
+    m_requestMethods = requestMethods;
+  }
+
+  /**
+   * Frame the next buffer from the stream.
+   *
+   * @param buffer The buffer.
+   * @param length The number of bytes in {@code buffer}.
+   * @param listener Receives the segments.
+   * @throws IOException If the listener failed.
+   */
+  public void frame(byte[] buffer, int length, Listener listener)
+    throws IOException {
+
+    final byte[] bytes;
+    final int end;
+
+    if (m_held.length > 0) {
+      bytes = new byte[m_held.length + length];
+      System.arraycopy(m_held, 0, bytes, 0, m_held.length);
+      System.arraycopy(buffer, 0, bytes, m_held.length, length);
+      end = bytes.length;
+      m_held = new byte[0];
+    }
+    else {
+      bytes = buffer;
+      end = length;
+    }
+
+    m_unsynchronised = false;
+
+    int segmentStart = 0;
+    int position = 0;
+
+    while (position < end) {
+      switch (m_state) {
+        case START:
+          if (m_unsynchronised) {
+            position = end;
+            break;
+          }
+
+          final StartLine startLine = checkStartLine(bytes, position, end);
+
+          final int headEnd =
+            startLine == StartLine.COMPLETE ?
+              findHeadEnd(bytes, position, end) : -1;
+
+          if (startLine == StartLine.INVALID ||
+              headEnd == -1 && end - position >= MAXIMUM_HEAD_LENGTH) {
+            m_unsynchronised = true;
+            position = end;
+          }
+          else if (headEnd == -1) {
+            // Hold the start of the head back until the rest arrives.
+            if (position > segmentStart) {
+              listener.segment(bytes, segmentStart, position - segmentStart);
+            }
+
+            m_held = new byte[end - position];
+            System.arraycopy(bytes, position, m_held, 0, m_held.length);
+            return;
+          }
+          else {
+            if (position > segmentStart) {
+              listener.segment(bytes, segmentStart, position - segmentStart);
+              segmentStart = position;
+            }
+
+            parseHead(new String(bytes,
+                                 position,
+                                 headEnd - position,
+                                 "ISO8859_1"));
+            position = headEnd;
+          }
+          break;
+
+        case BODY:
+        case CHUNK_DATA:
+          final int n = (int) Math.min(end - position, m_remaining);
+          position += n;
+          m_remaining -= n;
+
+          if (m_remaining == 0) {
+            m_state = m_state == State.BODY ? State.START : State.CHUNK_END;
+          }
+          break;
+
+        case CHUNK_SIZE:
+        case CHUNK_END:
+        case TRAILERS:
+          position = readLine(bytes, position, end);
+
+          if (position < 0) {
+            position = end;
+          }
+          else {
+            endOfLine();
+          }
+          break;
+
+        case UNTIL_CLOSE:
+          position = end;
+          break;
+
+        default:
+          throw new AssertionError(m_state);
+      }
+    }
+
+    if (end > segmentStart) {
+      listener.segment(bytes, segmentStart, end - segmentStart);
+    }
+  }
+
+  /**
+   * Pass on any bytes that have been held back. Call when the stream
+   * ends.
+   *
+   * @param listener Receives the bytes.
+   * @throws IOException If the listener failed.
+   */
+  public void flush(Listener listener) throws IOException {
+    if (m_held.length > 0) {
+      final byte[] held = m_held;
+      m_held = new byte[0];
+      listener.segment(held, 0, held.length);
+    }
+  }
+
+  private StartLine checkStartLine(byte[] bytes, int start, int end) {
+    // Request-Line = Method SP Request-URI SP HTTP-Version CRLF
+    // Status-Line = HTTP-Version SP Status-Code SP Reason-Phrase CRLF
+    final String version = "HTTP/";
+    int field = m_response ? 1 : 0;
+    int fieldLength = 0;
+
+    for (int i = start; i < end; ++i) {
+      final int b = bytes[i] & 0xFF;
+
+      if (i - start >= MAXIMUM_START_LINE_LENGTH) {
+        return StartLine.INVALID;
+      }
+
+      switch (field) {
+        case 0: // Method.
+          if (b == ' ' && fieldLength > 0) {
+            field = 2;
+            fieldLength = 0;
+          }
+          else if (b >= 'A' && b <= 'Z' && fieldLength < 20) {
+            ++fieldLength;
+          }
+          else {
+            return StartLine.INVALID;
+          }
+          break;
+
+        case 1: // Version that starts a response.
+        case 3: // Version that ends a request.
+          if (fieldLength < version.length()) {
+            if (b != version.charAt(fieldLength)) {
+              return StartLine.INVALID;
+            }
+          }
+          else if (b == ' ' && field == 1 && fieldLength > version.length()) {
+            field = 4;
+            fieldLength = 0;
+            break;
+          }
+          else if (b == '\r' && field == 3) {
+            break;
+          }
+          else if (b == '\n' && field == 3) {
+            return StartLine.COMPLETE;
+          }
+          else if (!(b >= '0' && b <= '9' || b == '.')) {
+            return StartLine.INVALID;
+          }
+
+          ++fieldLength;
+          break;
+
+        case 2: // Request-URI.
+          if (b == ' ' && fieldLength > 0) {
+            field = 3;
+            fieldLength = 0;
+          }
+          else if (b <= ' ' || b == 0x7F) {
+            return StartLine.INVALID;
+          }
+          else {
+            ++fieldLength;
+          }
+          break;
+
+        case 4: // Status code and reason phrase.
+          if (b == '\n') {
+            return fieldLength >= 3 ?
+              StartLine.COMPLETE : StartLine.INVALID;
+          }
+          else if (fieldLength < 3 && !(b >= '0' && b <= '9') ||
+                   fieldLength == 3 && b != ' ' && b != '\r') {
+            // The status code is exactly three digits.
+            return StartLine.INVALID;
+          }
+
+          ++fieldLength;
+          break;
+
+        default:
+          throw new AssertionError(field);
+      }
+    }
+
+    return StartLine.INCOMPLETE;
+  }
+
+  private static int findHeadEnd(byte[] bytes, int start, int end) {
+    final int limit = Math.min(end, start + MAXIMUM_HEAD_LENGTH);
+
+    for (int i = start; i < limit; ++i) {
+      if (bytes[i] == '\n') {
+        if (i + 1 < limit && bytes[i + 1] == '\n') {
+          return i + 2;
+        }
+
+        if (i + 2 < limit && bytes[i + 1] == '\r' && bytes[i + 2] == '\n') {
+          return i + 3;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  private void parseHead(String head) {
+    final String[] lines = head.split("\r?\n");
+
+    String contentLength = null;
+    String transferEncoding = null;
+
+    for (int i = 1; i < lines.length; ++i) {
+      final int colon = lines[i].indexOf(':');
+
+      if (colon > 0) {
+        final String name = lines[i].substring(0, colon).trim();
+
+        if ("Content-Length".equalsIgnoreCase(name)) {
+          contentLength = lines[i].substring(colon + 1).trim();
+        }
+        else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+          transferEncoding = lines[i].substring(colon + 1).trim();
+        }
+      }
+    }
+
+    final String startLine = lines[0];
+
+    if (m_response) {
+      // checkStartLine() has validated the status code.
+      final int status =
+        Integer.parseInt(startLine.substring(startLine.indexOf(' ') + 1,
+                                             startLine.indexOf(' ') + 4));
+
+      if (status >= 100 && status < 200 && status != 101) {
+        // Interim response, the real one follows.
+        m_state = State.START;
+        return;
+      }
+
+      final String method =
+        m_requestMethods != null ? m_requestMethods.poll() : null;
+
+      if (status == 101 ||
+          "CONNECT".equals(method) && status >= 200 && status < 300) {
+        m_state = State.UNTIL_CLOSE;
+      }
+      else if ("HEAD".equals(method) || status == 204 || status == 304) {
+        m_state = State.START;
+      }
+      else {
+        bodyState(contentLength, transferEncoding, State.UNTIL_CLOSE);
+      }
+    }
+    else {
+      final String method = startLine.substring(0, startLine.indexOf(' '));
+
+      if (m_requestMethods != null) {
+        m_requestMethods.add(method);
+      }
+
+      if ("CONNECT".equals(method)) {
+        m_state = State.UNTIL_CLOSE;
+      }
+      else {
+        bodyState(contentLength, transferEncoding, State.START);
+      }
+    }
+  }
+
+  private void bodyState(String contentLength,
+                         String transferEncoding,
+                         State noLength) {
+
+    if (transferEncoding != null &&
+        !"identity".equalsIgnoreCase(transferEncoding)) {
+      m_state = State.CHUNK_SIZE;
+    }
+    else if (contentLength != null) {
+      try {
+        m_remaining = Long.parseLong(contentLength);
+      }
+      catch (NumberFormatException e) {
+        m_remaining = -1;
+      }
+
+      if (m_remaining > 0) {
+        m_state = State.BODY;
+      }
+      else if (m_remaining == 0) {
+        m_state = State.START;
+      }
+      else {
+        m_state = State.UNTIL_CLOSE;
+      }
+    }
+    else {
+      m_state = noLength;
+    }
+  }
+
+  /**
+   * Read a line into {@code m_line}.
+   *
+   * @return The position after the line, or -1 if the buffer ended first.
+   */
+  private int readLine(byte[] bytes, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      final char c = (char) (bytes[i] & 0xFF);
+
+      if (c == '\n') {
+        return i + 1;
+      }
+
+      if (c != '\r' && m_line.length() < MAXIMUM_START_LINE_LENGTH) {
+        m_line.append(c);
+      }
+    }
+
+    return -1;
+  }
+
+  private void endOfLine() {
+    final String line = m_line.toString().trim();
+    m_line.setLength(0);
+
+    switch (m_state) {
+      case CHUNK_SIZE:
+        final int extension = line.indexOf(';');
+
+        try {
+          m_remaining =
+            Long.parseLong(extension < 0 ? line : line.substring(0, extension),
+                           16);
+        }
+        catch (NumberFormatException e) {
+          m_remaining = -1;
+        }
+
+        if (m_remaining > 0) {
+          m_state = State.CHUNK_DATA;
+        }
+        else if (m_remaining == 0) {
+          m_state = State.TRAILERS;
+        }
+        else {
+          // Lost track of the chunks.
+          m_state = State.START;
+          m_unsynchronised = true;
+        }
+        break;
+
+      case CHUNK_END:
+        m_state = State.CHUNK_SIZE;
+        break;
+
+      case TRAILERS:
+        if (line.length() == 0) {
+          m_state = State.START;
+        }
+        break;
+
+      default:
+        throw new AssertionError(m_state);
+    }
+  }
+}
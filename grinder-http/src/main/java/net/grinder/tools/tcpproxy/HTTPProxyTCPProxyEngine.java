@@ -27,23 +27,29 @@ package net.grinder.tools.tcpproxy;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.SequenceInputStream;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
+import net.grinder.common.Closer;
 import net.grinder.common.GrinderBuild;
 import net.grinder.common.UncheckedInterruptedException;
 import net.grinder.util.StreamCopier;
@@ -151,10 +157,6 @@ public final class HTTPProxyTCPProxyEngine extends AbstractTCPProxyEngine {
 
     m_delegateSSLEngineThread.start();
 
-    // I've seen pathological messages with huge tracking cookies that are
-    // bigger than 4K. Let's super-size this.
-    final byte[] buffer = new byte[40960];
-
     while (!isStopped()) {
       final Socket localSocket;
 
@@ -168,169 +170,25 @@ public final class HTTPProxyTCPProxyEngine extends AbstractTCPProxyEngine {
       }
 
       try {
-        final BufferedInputStream in =
-          new BufferedInputStream(localSocket.getInputStream(), buffer.length);
-
-        in.mark(buffer.length);
-
-        int time = 0;
-
-        // Read data into buffer until we time out or one of the handlers
-        // matches.
-        while (true) {
-          while (time < s_connectTimeout && in.available() == 0) {
-            sleep(10);
-            time += 10;
-          }
-
-          final boolean timeout = in.available() == 0;
-
-          // Rewind our buffered stream: easier than maintaining a cursor.
-          in.reset();
-
-          final int bytesRead;
-
-          if (in.available() > 0) {
-            bytesRead = in.read(buffer);
-          }
-          else {
-            bytesRead = 0;
-          }
-
-          final String bufferAsString =
-            new String(buffer, 0, bytesRead, "US-ASCII");
-
-          if (timeout) {
-            // Time out without matching a handler.
-            final HTMLElement message = new HTMLElement();
-
-            message.addElement("p").addText(
-              "Failed to determine proxy destination.");
-
-            if (bufferAsString.length() > 0) {
-              final HTMLElement paragraph1 = message.addElement("p");
-              paragraph1.addText(
-                "Do not type TCPProxy address into your browser. ");
-              paragraph1.addText("The browser proxy settings should be set " +
-                                 "to the TCPProxy address (");
-              paragraph1.addElement("code").addText(m_proxyAddress.toString());
-              paragraph1.addText("), and you should type the address of the " +
-                               "target server into the browser.");
-              message.addElement("p").addText(
-                "Text of received message follows:");
-              message.addElement("p").addElement("pre")
-                .addElement("blockquote").addText(bufferAsString);
-            }
-            else {
-              message.addElement("p").addText(
-                "Client opened connection but sent no bytes.");
-            }
-
-            sendHTTPErrorResponse(message, "400 Bad Request",
-                                  localSocket.getOutputStream());
-
-            localSocket.close();
-
-            break;
-          }
-
-          final Matcher httpConnectMatcher =
-              m_httpConnectPattern.matcher(bufferAsString);
-
-          final Matcher httpsConnectMatcher =
-            m_httpsConnectPattern.matcher(bufferAsString);
-
-          if (httpConnectMatcher.find()) {
-            // HTTP proxy request.
-
-            // Reset stream to beginning of request.
-            in.reset();
-
-            new StreamThread(
-              new HTTPProxyStreamDemultiplexer(
-                in, localSocket, EndPoint.clientEndPoint(localSocket)),
-              "HTTPProxyStreamDemultiplexer for " + localSocket,
-              in).start();
-
-            break;
-          }
-          else if (httpsConnectMatcher.find()) {
-            // HTTPS proxy request.
-
-            // When handling HTTPS proxies, we use our plain socket to accept
-            // connections on. We suck the bit we understand off the front and
-            // forward the rest through our proxy engine. The proxy engine
-            // listens for connection attempts (which come from us), then sets
-            // up a thread pair which pushes data back and forth until either
-            // the server closes the connection, or we do (in response to our
-            // client closing the connection). The engine handles multiple
-            // connections by spawning multiple thread pairs.
-
-            // group(2) must be a port number by specification.
-            final EndPoint remoteEndPoint =
-              new EndPoint(httpsConnectMatcher.group(1),
-                           Integer.parseInt(httpsConnectMatcher.group(2)));
-
-            final OutputStream out = localSocket.getOutputStream();
-
-            m_delegateSSLEngine.prepareNewConnection(
-              in,
-              out,
-              EndPoint.clientEndPoint(localSocket),
-              remoteEndPoint);
-
-            // Create a new proxy connection to the proxy engine.
-            // DelegateSSLEngine.run() will accept() the other end of the
-            // connection.
-            final Socket sslProxySocket =
-              getSocketFactory().createClientSocket(
-                m_delegateSSLEngine.getListenEndPoint());
-
-            // Set up a couple of threads to punt everything we receive
-            // over localSocket to sslProxySocket, and vice versa.
-            new StreamThread(
-              new StreamCopier(4096, true)
-                .getInterruptibleRunnable(in, sslProxySocket.getOutputStream()),
-              "Copy to proxy engine for " + remoteEndPoint,
-              in).start();
-
-            new StreamThread(
-              new StreamCopier(4096, true)
-                .getInterruptibleRunnable(sslProxySocket.getInputStream(), out),
-              "Copy from proxy engine for " + remoteEndPoint,
-              sslProxySocket.getInputStream()).start();
-
-            break;
-          }
-
-          if (bytesRead == buffer.length) {
-            while (in.available() > 0) {
-              // Drain.
-              in.read(buffer);
+        // The event loop reads the start of the request to determine where
+        // it should be sent.
+        getEventLoop().execute(new Runnable() {
+            public void run() {
+              try {
+                new ProxyRequestSniffer(localSocket);
+              }
+              catch (IOException e) {
+                UncheckedInterruptedException.ioException(e);
+                logIOException(e);
+                Closer.close(localSocket);
+              }
             }
-
-            final HTMLElement message = new HTMLElement();
-            message.addElement("p").addText(
-              "Buffer overflow - failed to match HTTP message after " +
-              buffer.length + " bytes");
-
-            sendHTTPErrorResponse(message, "400 Bad Request",
-              localSocket.getOutputStream());
-
-            break;
-          }
-        }
+          });
       }
       catch (IOException e) {
         UncheckedInterruptedException.ioException(e);
         logIOException(e);
-
-        try {
-          localSocket.close();
-        }
-        catch (IOException closeException) {
-          throw new AssertionError(closeException);
-        }
+        Closer.close(localSocket);
       }
     }
   }
@@ -373,171 +231,488 @@ public final class HTTPProxyTCPProxyEngine extends AbstractTCPProxyEngine {
   }
 
   /**
-   * Runnable that actively reads from an Input stream, greps every
-   * outgoing packet, and directs appropriately. This is necessary to
-   * support HTTP/1.1 between the browser and TCPProxy.
+   * Handles the start of a new connection from the browser. Data is read
+   * into a buffer until we time out or one of the handlers matches.
    */
-  private final class HTTPProxyStreamDemultiplexer
-    implements InterruptibleRunnable {
+  private final class ProxyRequestSniffer
+    implements TCPProxyEventLoop.Handler {
+
+    // I've seen pathological messages with huge tracking cookies that are
+    // bigger than 4K. Let's super-size this.
+    private final byte[] m_buffer = new byte[40960];
+    private int m_bytesRead;
 
-    private final InputStream m_in;
     private final Socket m_localSocket;
     private final EndPoint m_clientEndPoint;
-    private final Map<String, OutputStreamFilterTee> m_remoteStreamMap =
-      new HashMap<String, OutputStreamFilterTee>();
-    private OutputStreamFilterTee m_lastRemoteStream;
+    private final TCPProxyEventLoop.Connection m_connection;
 
-    HTTPProxyStreamDemultiplexer(InputStream in, Socket localSocket,
-                                 EndPoint clientEndPoint) {
-      m_in = in;
+    private HTTPProxyStreamDemultiplexer m_demultiplexer;
+    private boolean m_discarding;
+
+    public ProxyRequestSniffer(Socket localSocket) throws IOException {
       m_localSocket = localSocket;
-      m_clientEndPoint = clientEndPoint;
+      m_clientEndPoint = EndPoint.clientEndPoint(localSocket);
+      m_connection =
+        getEventLoop().register(localSocket.getChannel(), this);
+      m_connection.setTimeout(s_connectTimeout);
     }
 
-    @Override
-    public void interruptibleRun() {
+    public void handle(byte[] buffer, int length) throws IOException {
+      if (m_demultiplexer != null) {
+        m_demultiplexer.handle(buffer, length);
+        return;
+      }
 
-      // Needs to hold the largest reasonable set of HTTP headers - see
-      // comment in HTTPProxyTCPProxyEngine.run().
-      final byte[] buffer = new byte[40960];
+      if (m_discarding) {
+        return;
+      }
 
-      try {
-        while (true) {
-          // Read a buffer full. We're not as robust as we should be here. We
-          // rely on the World conspiring to place request at start of buffer,
-          // the request headers fitting in our buffer, and the request headers
-          // not being fragmented.
-          final int bytesRead = m_in.read(buffer);
+      final int n = Math.min(length, m_buffer.length - m_bytesRead);
+      System.arraycopy(buffer, 0, m_buffer, m_bytesRead, n);
+      m_bytesRead += n;
 
-          if (bytesRead == -1) {
-            break;
-          }
+      final String bufferAsString =
+        new String(m_buffer, 0, m_bytesRead, "US-ASCII");
 
-          final String bytesReadAsString =
-            new String(buffer, 0, bytesRead, "US-ASCII");
+      final Matcher httpConnectMatcher =
+        m_httpConnectPattern.matcher(bufferAsString);
 
-          final Matcher matcher =
-            m_httpConnectPattern.matcher(bytesReadAsString);
+      final Matcher httpsConnectMatcher =
+        m_httpsConnectPattern.matcher(bufferAsString);
 
-          if (matcher.find()) {
+      if (httpConnectMatcher.find()) {
+        // HTTP proxy request.
+        m_connection.setTimeout(0);
 
-            final String remoteHost = matcher.group(2);
+        m_demultiplexer =
+          new HTTPProxyStreamDemultiplexer(m_connection, m_clientEndPoint);
 
-            int remotePort = 80;
+        m_demultiplexer.handle(m_buffer, m_bytesRead);
 
-            try {
-              remotePort = Integer.parseInt(matcher.group(3));
-            }
-            catch (NumberFormatException e) {
-              // remotePort = 80;
+        if (n < length) {
+          final byte[] rest = new byte[length - n];
+          System.arraycopy(buffer, n, rest, 0, rest.length);
+          m_demultiplexer.handle(rest, rest.length);
+        }
+      }
+      else if (httpsConnectMatcher.find()) {
+        // HTTPS proxy request.
+        m_connection.setTimeout(0);
+
+        // group(2) must be a port number by specification.
+        final EndPoint remoteEndPoint =
+          new EndPoint(httpsConnectMatcher.group(1),
+                       Integer.parseInt(httpsConnectMatcher.group(2)));
+
+        final byte[] bytesRead = new byte[m_bytesRead + length - n];
+        System.arraycopy(m_buffer, 0, bytesRead, 0, m_bytesRead);
+        System.arraycopy(buffer, n, bytesRead, m_bytesRead, length - n);
+
+        // JSSE sockets are blocking, so the rest of the connection is
+        // handled by threads.
+        m_connection.detach(new Runnable() {
+            public void run() {
+              new StreamThread(
+                new HTTPSProxyConnection(m_localSocket,
+                                         bytesRead,
+                                         m_clientEndPoint,
+                                         remoteEndPoint),
+                "HTTPS proxy connection for " + remoteEndPoint,
+                null).start();
             }
+          });
+      }
+      else if (m_bytesRead == m_buffer.length) {
+        final HTMLElement message = new HTMLElement();
+        message.addElement("p").addText(
+          "Buffer overflow - failed to match HTTP message after " +
+          m_buffer.length + " bytes");
 
-            final EndPoint remoteEndPoint =
-              new EndPoint(remoteHost, remotePort);
+        sendHTTPErrorResponse(message, "400 Bad Request",
+                              m_connection.getOutputStream());
 
-            final String key = remoteEndPoint.toString();
+        // Discard anything else the browser sends for a while, so it has a
+        // chance to read our response before we close the connection.
+        m_discarding = true;
+        m_connection.setTimeout(s_connectTimeout);
+      }
+    }
 
-            m_lastRemoteStream = m_remoteStreamMap.get(key);
+    public void endOfStream() throws IOException {
+      if (m_demultiplexer != null) {
+        m_demultiplexer.endOfStream();
+      }
+      else if (!m_discarding) {
+        failedToDetermineDestination();
+      }
+    }
 
-            if (m_lastRemoteStream == null) {
+    public void timedOut() throws IOException {
+      if (!m_discarding) {
+        failedToDetermineDestination();
+      }
 
-              // New connection.
+      m_connection.closeWhenFlushed();
+    }
 
-              final Socket remoteSocket;
-              final TCPProxyFilter requestFilter;
+    public void closed(IOException cause) {
+      if (m_demultiplexer != null) {
+        m_demultiplexer.closed();
+      }
+    }
 
-              if (m_chainedHTTPProxy != null) {
-                // When running through a chained HTTP proxy, we still
-                // create a new thread pair to handle each target
-                // server. This allows us to reuse
-                // FilteredStreamThread and OutputStreamFilterTee to
-                // log the correct connection details. It may also be
-                // beneficial for performance.
-                remoteSocket =
-                  getSocketFactory().createClientSocket(m_chainedHTTPProxy);
+    private void failedToDetermineDestination() throws IOException {
+      m_discarding = true;
+
+      final String bufferAsString =
+        new String(m_buffer, 0, m_bytesRead, "US-ASCII");
+
+      final HTMLElement message = new HTMLElement();
+
+      message.addElement("p").addText(
+        "Failed to determine proxy destination.");
+
+      if (bufferAsString.length() > 0) {
+        final HTMLElement paragraph1 = message.addElement("p");
+        paragraph1.addText(
+          "Do not type TCPProxy address into your browser. ");
+        paragraph1.addText("The browser proxy settings should be set " +
+                           "to the TCPProxy address (");
+        paragraph1.addElement("code").addText(m_proxyAddress.toString());
+        paragraph1.addText("), and you should type the address of the " +
+                         "target server into the browser.");
+        message.addElement("p").addText(
+          "Text of received message follows:");
+        message.addElement("p").addElement("pre")
+          .addElement("blockquote").addText(bufferAsString);
+      }
+      else {
+        message.addElement("p").addText(
+          "Client opened connection but sent no bytes.");
+      }
 
-                requestFilter =
-                  new HTTPMethodAbsoluteURIFilterDecorator(
-                    new HTTPMethodRelativeURIFilterDecorator(
-                      getRequestFilter()), remoteEndPoint);
-              }
-              else {
-                remoteSocket =
-                  getSocketFactory().createClientSocket(remoteEndPoint);
+      sendHTTPErrorResponse(message, "400 Bad Request",
+                            m_connection.getOutputStream());
+    }
+  }
 
-                requestFilter =
-                  new HTTPMethodRelativeURIFilterDecorator(getRequestFilter());
-              }
+  /**
+   * Handles a HTTPS proxy request.
+   *
+   * <p>
+   * When handling HTTPS proxies, we use our plain socket to accept
+   * connections on. We suck the bit we understand off the front and forward
+   * the rest through our proxy engine. The proxy engine listens for
+   * connection attempts (which come from us), then sets up a thread pair
+   * which pushes data back and forth until either the server closes the
+   * connection, or we do (in response to our client closing the connection).
+   * The engine handles multiple connections by spawning multiple thread
+   * pairs.
+   * </p>
+   */
+  private final class HTTPSProxyConnection implements InterruptibleRunnable {
 
-              final ConnectionDetails connectionDetails =
-                new ConnectionDetails(m_clientEndPoint, remoteEndPoint, false);
+    private final Socket m_localSocket;
+    private final byte[] m_bytesRead;
+    private final EndPoint m_clientEndPoint;
+    private final EndPoint m_remoteEndPoint;
 
-              m_lastRemoteStream =
-                new OutputStreamFilterTee(connectionDetails,
-                                          remoteSocket.getOutputStream(),
-                                          requestFilter,
-                                          getRequestColour());
+    HTTPSProxyConnection(Socket localSocket,
+                         byte[] bytesRead,
+                         EndPoint clientEndPoint,
+                         EndPoint remoteEndPoint) {
+      m_localSocket = localSocket;
+      m_bytesRead = bytesRead;
+      m_clientEndPoint = clientEndPoint;
+      m_remoteEndPoint = remoteEndPoint;
+    }
 
-              m_lastRemoteStream.connectionOpened();
+    @Override
+    public void interruptibleRun() {
+      try {
+        // Replay the bytes that the event loop read. Mark the start of the
+        // CONNECT header, then skip over it.
+        final int markLimit = Math.max(m_bytesRead.length, 40960);
 
-              m_remoteStreamMap.put(key, m_lastRemoteStream);
+        final BufferedInputStream in =
+          new BufferedInputStream(
+            new SequenceInputStream(new ByteArrayInputStream(m_bytesRead),
+                                    m_localSocket.getInputStream()),
+            markLimit);
 
-              // Spawn a thread to handle everything coming back from
-              // the remote server.
-              new FilteredStreamThread(
-                remoteSocket.getInputStream(),
-                new OutputStreamFilterTee(connectionDetails.getOtherEnd(),
-                                          m_localSocket.getOutputStream(),
-                                          getResponseFilter(),
-                                          getResponseColour()));
-            }
-          }
-          else if (m_lastRemoteStream == null) {
-            throw new AssertionError("No last stream");
-          }
+        in.mark(markLimit);
+
+        final byte[] connectHeader = new byte[m_bytesRead.length];
+
+        for (int n = 0; n < connectHeader.length; ) {
+          n += in.read(connectHeader, n, connectHeader.length - n);
+        }
+
+        final OutputStream out = m_localSocket.getOutputStream();
+
+        final Socket sslProxySocket;
+
+        // Our connection to the delegate engine must be the next one that it
+        // accepts.
+        synchronized (m_delegateSSLEngine) {
+          m_delegateSSLEngine.prepareNewConnection(in,
+                                                   out,
+                                                   m_clientEndPoint,
+                                                   m_remoteEndPoint);
 
-          // Should do filtering etc.
-          m_lastRemoteStream.handle(buffer, bytesRead);
+          // Create a new proxy connection to the proxy engine.
+          // DelegateSSLEngine.run() will accept() the other end of the
+          // connection.
+          sslProxySocket =
+            getSocketFactory().createClientSocket(
+              m_delegateSSLEngine.getListenEndPoint());
         }
+
+        // Set up a couple of threads to punt everything we receive
+        // over localSocket to sslProxySocket, and vice versa.
+        new StreamThread(
+          new StreamCopier(4096, true)
+            .getInterruptibleRunnable(in, sslProxySocket.getOutputStream()),
+          "Copy to proxy engine for " + m_remoteEndPoint,
+          in).start();
+
+        new StreamThread(
+          new StreamCopier(4096, true)
+            .getInterruptibleRunnable(sslProxySocket.getInputStream(), out),
+          "Copy from proxy engine for " + m_remoteEndPoint,
+          sslProxySocket.getInputStream()).start();
       }
       catch (IOException e) {
-        // Perhaps we should decorate the OutputStreamFilterTee's so
-        // that we can return exceptions as some simple HTTP error
-        // page?
         UncheckedInterruptedException.ioException(e);
-        final String description = logIOException(e);
+        logIOException(e);
+        Closer.close(m_localSocket);
+      }
+    }
+  }
 
-        final HTMLElement message = new HTMLElement();
-        message.addElement("p").addText(description);
+  /**
+   * Greps every outgoing HTTP message, and directs it appropriately. This is
+   * necessary to support HTTP/1.1 between the browser and TCPProxy.
+   *
+   * <p>
+   * The browser's stream is framed so that each segment we see starts with
+   * a complete set of request headers, or continues the previous message.
+   * </p>
+   */
+  private final class HTTPProxyStreamDemultiplexer
+    implements HTTPMessageFramer.Listener {
 
+    private final TCPProxyEventLoop.Connection m_localConnection;
+    private final EndPoint m_clientEndPoint;
+    private final HTTPMessageFramer m_framer =
+      new HTTPMessageFramer(false, null);
+    private final Map<String, RemoteStream> m_remoteStreamMap =
+      new HashMap<String, RemoteStream>();
+    private RemoteStream m_lastRemoteStream;
+    private boolean m_failed;
+
+    HTTPProxyStreamDemultiplexer(TCPProxyEventLoop.Connection localConnection,
+                                 EndPoint clientEndPoint) {
+      m_localConnection = localConnection;
+      m_clientEndPoint = clientEndPoint;
+    }
+
+    public void handle(byte[] buffer, int length) {
+      if (!m_failed) {
         try {
-          // Should probably return other types of status code.
-          sendHTTPErrorResponse(
-            message, "502 Bad Gateway", m_localSocket.getOutputStream());
+          m_framer.frame(buffer, length, this);
         }
-        catch (IOException e2) {
-          // Ignore.
-          UncheckedInterruptedException.ioException(e2);
+        catch (IOException e) {
+          UncheckedInterruptedException.ioException(e);
+          fail(e);
         }
       }
-      finally {
-        // When exiting, close all our outgoing streams. This will
-        // force all the FilteredStreamThreads we've launched to
-        // handle the paired streams to shut down.
-        for (OutputStreamFilterTee s : m_remoteStreamMap.values()) {
-          s.connectionClosed();
-        }
+    }
 
-        // We may not have any FilteredStreamThreads, so ensure the
-        // local socket is closed. The local socket is shutdown on any
-        // error, any browser using us will open up a new connection
-        // for new work.
+    public void endOfStream() {
+      if (!m_failed) {
         try {
-          m_localSocket.close();
+          m_framer.flush(this);
         }
         catch (IOException e) {
-          // Ignore.
           UncheckedInterruptedException.ioException(e);
+          fail(e);
+        }
+      }
+    }
+
+    public void segment(byte[] buffer, int offset, int length)
+      throws IOException {
+
+      final Matcher matcher =
+        m_httpConnectPattern.matcher(
+          new String(buffer, offset, length, "US-ASCII"));
+
+      if (matcher.find()) {
+
+        final String remoteHost = matcher.group(2);
+
+        int remotePort = 80;
+
+        try {
+          remotePort = Integer.parseInt(matcher.group(3));
+        }
+        catch (NumberFormatException e) {
+          // remotePort = 80;
+        }
+
+        final EndPoint remoteEndPoint = new EndPoint(remoteHost, remotePort);
+
+        final String key = remoteEndPoint.toString();
+
+        m_lastRemoteStream = m_remoteStreamMap.get(key);
+
+        if (m_lastRemoteStream == null) {
+          // New connection.
+          m_lastRemoteStream = new RemoteStream(remoteEndPoint);
+          m_remoteStreamMap.put(key, m_lastRemoteStream);
+        }
+
+        m_lastRemoteStream.m_requestMethods.add(matcher.group(1));
+      }
+      else if (m_lastRemoteStream == null) {
+        throw new AssertionError("No last stream");
+      }
+
+      if (offset == 0) {
+        m_lastRemoteStream.m_requestTee.handle(buffer, length);
+      }
+      else {
+        final byte[] bytes = new byte[length];
+        System.arraycopy(buffer, offset, bytes, 0, length);
+        m_lastRemoteStream.m_requestTee.handle(bytes, length);
+      }
+    }
+
+    private void fail(IOException e) {
+      if (m_failed) {
+        return;
+      }
+
+      m_failed = true;
+
+      // Perhaps we should decorate the OutputStreamFilterTee's so
+      // that we can return exceptions as some simple HTTP error
+      // page?
+      final String description = logIOException(e);
+
+      final HTMLElement message = new HTMLElement();
+      message.addElement("p").addText(description);
+
+      try {
+        // Should probably return other types of status code.
+        sendHTTPErrorResponse(
+          message, "502 Bad Gateway", m_localConnection.getOutputStream());
+      }
+      catch (IOException e2) {
+        // Ignore.
+        UncheckedInterruptedException.ioException(e2);
+      }
+
+      // The local connection is shutdown on any error, any browser using us
+      // will open up a new connection for new work.
+      m_localConnection.closeWhenFlushed();
+    }
+
+    public void closed() {
+      // When exiting, close all our outgoing streams. This will
+      // close the connections to the remote servers.
+      for (RemoteStream s : m_remoteStreamMap.values()) {
+        s.m_requestTee.connectionClosed();
+      }
+    }
+
+    /**
+     * The streams for a connection to a remote server.
+     */
+    private final class RemoteStream implements TCPProxyEventLoop.Handler {
+
+      private final EndPoint m_connectEndPoint;
+      private final Queue<String> m_requestMethods =
+        new ConcurrentLinkedQueue<String>();
+      private final TCPProxyEventLoop.Connection m_remoteConnection;
+      private final OutputStreamFilterTee m_requestTee;
+      private final OutputStreamFilterTee m_responseTee;
+
+      RemoteStream(EndPoint remoteEndPoint) throws IOException {
+        final TCPProxyFilter requestFilter;
+
+        if (m_chainedHTTPProxy != null) {
+          // When running through a chained HTTP proxy, we still
+          // create a new connection for each target server. This
+          // allows us to reuse OutputStreamFilterTee to log the
+          // correct connection details. It may also be beneficial
+          // for performance.
+          m_connectEndPoint = m_chainedHTTPProxy;
+
+          requestFilter =
+            new HTTPMethodAbsoluteURIFilterDecorator(
+              new HTTPMethodRelativeURIFilterDecorator(
+                getRequestFilter()), remoteEndPoint);
+        }
+        else {
+          m_connectEndPoint = remoteEndPoint;
+
+          requestFilter =
+            new HTTPMethodRelativeURIFilterDecorator(getRequestFilter());
+        }
+
+        m_remoteConnection =
+          getEventLoop().connect(
+            new InetSocketAddress(m_connectEndPoint.getHost(),
+                                  m_connectEndPoint.getPort()),
+            this);
+
+        final ConnectionDetails connectionDetails =
+          new ConnectionDetails(m_clientEndPoint, remoteEndPoint, false);
+
+        m_requestTee =
+          new OutputStreamFilterTee(connectionDetails,
+                                    m_remoteConnection.getOutputStream(),
+                                    requestFilter,
+                                    getRequestColour());
+
+        m_requestTee.connectionOpened();
+
+        m_responseTee =
+          new OutputStreamFilterTee(connectionDetails.getOtherEnd(),
+                                    m_localConnection.getOutputStream(),
+                                    getResponseFilter(),
+                                    getResponseColour(),
+                                    new HTTPMessageFramer(true,
+                                                          m_requestMethods));
+
+        m_responseTee.connectionOpened();
+      }
+
+      public void handle(byte[] buffer, int length) throws IOException {
+        m_responseTee.handle(buffer, length);
+      }
+
+      public void endOfStream() {
+      }
+
+      public void timedOut() {
+      }
+
+      public void closed(IOException cause) {
+        if (cause instanceof ConnectException &&
+            !m_remoteConnection.isConnected()) {
+          fail(new VerboseConnectException((ConnectException) cause,
+                                           m_connectEndPoint.toString()));
+        }
+        else if (cause != null && !m_remoteConnection.isConnected()) {
+          fail(cause);
+        }
+
+        if (m_responseTee != null) {
+          // Close the browser connection.
+          m_responseTee.connectionClosed();
         }
       }
     }
@@ -686,12 +861,12 @@ public final class HTTPProxyTCPProxyEngine extends AbstractTCPProxyEngine {
                           remoteEndPoint);
 
         try {
-          launchThreadPair(localSocket,
-                           proxySSLContext
-                             .createProxyClientSocket(remoteEndPoint),
-                           clientEndPoint,
-                           remoteEndPoint,
-                           true);
+          launchRelay(localSocket,
+                      proxySSLContext
+                        .createProxyClientSocket(remoteEndPoint),
+                      clientEndPoint,
+                      remoteEndPoint,
+                      true);
 
           // Send a response back to the browser.
           proxySSLContext.sendResponse();
@@ -136,11 +136,11 @@ public final class PortForwarderTCPProxyEngine extends AbstractTCPProxyEngine {
         final Socket remoteSocket =
             getSocketFactory().createClientSocket(targetEndPoint);
 
-        launchThreadPair(localSocket,
-                         remoteSocket,
-                         sourceEndPoint,
-                         targetEndPoint,
-                         m_connectionDetails.isSecure());
+        launchRelay(localSocket,
+                    remoteSocket,
+                    sourceEndPoint,
+                    targetEndPoint,
+                    m_connectionDetails.isSecure());
       }
       catch (IOException e) {
         UncheckedInterruptedException.ioException(e);
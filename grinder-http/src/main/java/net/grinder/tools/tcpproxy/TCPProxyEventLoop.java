@@ -0,0 +1,777 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.tools.tcpproxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+
+import net.grinder.common.UncheckedInterruptedException;
+import net.grinder.util.thread.InterruptibleRunnable;
+import net.grinder.util.thread.InterruptibleRunnableAdapter;
+
+
+/**
+ * Services many TCPProxy connections from a single thread.
+ *
+ * <p>
+ * The event loop thread is started when there is work to do, and exits when
+ * there are no connections left. This allows the engines to continue to use
+ * their stream thread group to determine whether there is any activity.
+ * </p>
+ *
+ * <p>
+ * Apart from {@link #execute}, {@link #stop} and {@link #getConnectionCount},
+ * the methods of this class and of {@link Connection} must only be called
+ * from the event loop thread; that is, from a task passed to
+ * {@link #execute}, or from a {@link Handler} callback.
+ * </p>
+ *
+ * <p>Package scope.</p>
+ *
+ * @author Philip Aston
+ */
+final class TCPProxyEventLoop {
+
+  /**
+   * Callbacks for events on a connection. All callbacks are made from the
+   * event loop thread.
+   */
+  interface Handler {
+
+    /**
+     * Data has been read from the connection.
+     *
+     * @param buffer Contains the data. The array is reused after the call
+     *  returns.
+     * @param length The number of bytes of data.
+     * @throws IOException If the data could not be handled. The connection
+     *  will be closed.
+     */
+    void handle(byte[] buffer, int length) throws IOException;
+
+    /**
+     * The peer has closed its end of the connection. Once this returns, the
+     * connection will be closed as soon as any queued data has been
+     * written.
+     *
+     * @throws IOException If the event could not be handled. The connection
+     *  will be closed.
+     */
+    void endOfStream() throws IOException;
+
+    /**
+     * The connection's timeout has expired.
+     *
+     * @throws IOException If the time out could not be handled. The
+     *  connection will be closed.
+     * @see Connection#setTimeout
+     */
+    void timedOut() throws IOException;
+
+    /**
+     * The connection has been closed. Called exactly once.
+     *
+     * @param cause The problem that caused the connection to be closed, or
+     *  {@code null} if the connection was closed normally or the peer closed
+     *  the connection.
+     */
+    void closed(IOException cause);
+  }
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  // A connection that is slow to accept data pauses the connection
+  // that is writing to it, so we don't buffer an unbounded amount.
+  private static final int HIGH_WATER_MARK = 256 * 1024;
+  private static final int LOW_WATER_MARK = 64 * 1024;
+
+  private final ThreadGroup m_threadGroup;
+  private final String m_name;
+  private final Logger m_logger;
+
+  // Guarded by this.
+  private final List<Runnable> m_tasks = new ArrayList<Runnable>();
+  private Thread m_thread;
+  private Selector m_selector;
+  private boolean m_stopped;
+
+  // Only accessed by the event loop thread.
+  private final BufferPool m_bufferPool = new BufferPool(BUFFER_SIZE, 64);
+  private final byte[] m_readArray = new byte[BUFFER_SIZE];
+  private final Set<Connection> m_connections = new HashSet<Connection>();
+  private final List<Detached> m_detached = new ArrayList<Detached>();
+  private Connection m_current;
+
+  private volatile int m_connectionCount;
+
+  /**
+   * Constructor.
+   *
+   * @param threadGroup Thread group for the event loop thread.
+   * @param name Name for the event loop thread.
+   * @param logger Logger.
+   */
+  TCPProxyEventLoop(ThreadGroup threadGroup, String name, Logger logger) {
+    m_threadGroup = threadGroup;
+    m_name = name;
+    m_logger = logger;
+  }
+
+  /**
+   * Run a task on the event loop thread, starting the thread if necessary.
+   *
+   * @param task The task.
+   * @throws IOException If the event loop has been stopped, or a selector
+   *  could not be opened.
+   */
+  public void execute(Runnable task) throws IOException {
+    synchronized (this) {
+      if (m_stopped) {
+        throw new SocketException("Event loop stopped");
+      }
+
+      m_tasks.add(task);
+
+      if (m_thread == null) {
+        m_selector = Selector.open();
+        m_thread =
+          new Thread(m_threadGroup,
+                     new InterruptibleRunnableAdapter(new Loop(m_selector)),
+                     m_name);
+        m_thread.start();
+      }
+      else {
+        m_selector.wakeup();
+      }
+    }
+  }
+
+  /**
+   * Stop the event loop. All connections are closed. Tasks that have not been
+   * run are discarded.
+   */
+  public void stop() {
+    final Thread thread;
+
+    synchronized (this) {
+      m_stopped = true;
+      thread = m_thread;
+    }
+
+    if (thread != null && thread != Thread.currentThread()) {
+      thread.interrupt();
+
+      try {
+        thread.join();
+      }
+      catch (InterruptedException e) {
+        throw new UncheckedInterruptedException(e);
+      }
+    }
+  }
+
+  /**
+   * The number of open connections.
+   *
+   * @return The number of connections.
+   */
+  public int getConnectionCount() {
+    return m_connectionCount;
+  }
+
+  /**
+   * Register a connected channel.
+   *
+   * @param channel The channel. It will be made non-blocking.
+   * @param handler Receives events for the connection.
+   * @return The connection.
+   * @throws IOException If the channel could not be registered.
+   */
+  public Connection register(SocketChannel channel, Handler handler)
+    throws IOException {
+    return new Connection(channel, handler, true);
+  }
+
+  /**
+   * Start a connection to a remote address. Data can be written to the
+   * connection straight away; it is sent when the connection is established.
+   * If the connection attempt fails, the handler's
+   * {@link Handler#closed(IOException)} method is called with the failure.
+   *
+   * @param address The address.
+   * @param handler Receives events for the connection.
+   * @return The connection.
+   * @throws IOException If the connection could not be started.
+   */
+  public Connection connect(InetSocketAddress address, Handler handler)
+    throws IOException {
+
+    if (address.isUnresolved()) {
+      throw new UnknownHostException(address.getHostName());
+    }
+
+    final SocketChannel channel = SocketChannel.open();
+
+    try {
+      channel.configureBlocking(false);
+
+      return new Connection(channel, handler, channel.connect(address));
+    }
+    catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private Selector selector() {
+    synchronized (this) {
+      return m_selector;
+    }
+  }
+
+  private final class Loop implements InterruptibleRunnable {
+    private final Selector m_loopSelector;
+
+    public Loop(Selector selector) {
+      m_loopSelector = selector;
+    }
+
+    public void interruptibleRun() {
+      try {
+        while (true) {
+          final Runnable[] tasks;
+
+          synchronized (TCPProxyEventLoop.this) {
+            if (m_stopped ||
+                m_tasks.isEmpty() && m_connections.isEmpty()) {
+              m_thread = null;
+              m_selector = null;
+              return;
+            }
+
+            tasks = m_tasks.toArray(new Runnable[m_tasks.size()]);
+            m_tasks.clear();
+          }
+
+          for (Runnable task : tasks) {
+            try {
+              task.run();
+            }
+            catch (RuntimeException e) {
+              // Don't let one bad task stop the loop for every connection.
+              m_logger.error(e.getMessage(), e);
+            }
+          }
+
+          if (m_connections.isEmpty()) {
+            continue;
+          }
+
+          m_loopSelector.select(timeUntilNextDeadline());
+
+          if (Thread.interrupted()) {
+            return;
+          }
+
+          final Iterator<SelectionKey> keys =
+            m_loopSelector.selectedKeys().iterator();
+
+          while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+
+            ((Connection) key.attachment()).handle(key);
+          }
+
+          checkTimeouts();
+
+          if (!m_detached.isEmpty()) {
+            completeDetaches();
+          }
+        }
+      }
+      catch (IOException e) {
+        m_logger.error(e.getMessage(), e);
+      }
+      finally {
+        synchronized (TCPProxyEventLoop.this) {
+          if (m_selector == m_loopSelector) {
+            m_thread = null;
+            m_selector = null;
+          }
+
+          m_tasks.clear();
+        }
+
+        for (Connection connection :
+             new ArrayList<Connection>(m_connections)) {
+          connection.close(null);
+        }
+
+        for (Detached detached : m_detached) {
+          detached.discard();
+        }
+
+        m_detached.clear();
+
+        try {
+          m_loopSelector.close();
+        }
+        catch (IOException e) {
+          // Ignore.
+          UncheckedInterruptedException.ioException(e);
+        }
+      }
+    }
+
+    private long timeUntilNextDeadline() {
+      long result = 0;
+      final long now = System.currentTimeMillis();
+
+      for (Connection connection : m_connections) {
+        if (connection.m_deadline != 0) {
+          final long t = Math.max(1, connection.m_deadline - now);
+
+          if (result == 0 || t < result) {
+            result = t;
+          }
+        }
+      }
+
+      return result;
+    }
+
+    private void completeDetaches() throws IOException {
+      // A channel can't be made blocking until its cancelled key has been
+      // removed from the selector.
+      m_loopSelector.selectNow();
+
+      for (Detached detached : m_detached) {
+        detached.complete();
+      }
+
+      m_detached.clear();
+    }
+
+    private void checkTimeouts() {
+      final long now = System.currentTimeMillis();
+
+      for (Connection connection :
+           new ArrayList<Connection>(m_connections)) {
+        if (connection.m_deadline != 0 && now >= connection.m_deadline) {
+          connection.m_deadline = 0;
+          connection.timedOut();
+        }
+      }
+    }
+  }
+
+  private final class Detached {
+    private final Connection m_connection;
+    private final Runnable m_then;
+
+    public Detached(Connection connection, Runnable then) {
+      m_connection = connection;
+      m_then = then;
+    }
+
+    public void complete() {
+      try {
+        m_connection.m_channel.configureBlocking(true);
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        m_logger.error(e.getMessage(), e);
+        discard();
+        return;
+      }
+
+      m_then.run();
+    }
+
+    public void discard() {
+      try {
+        m_connection.m_channel.close();
+      }
+      catch (IOException e) {
+        // Ignore.
+        UncheckedInterruptedException.ioException(e);
+      }
+    }
+  }
+
+  /**
+   * A connection serviced by the event loop.
+   */
+  final class Connection {
+    private final SocketChannel m_channel;
+    private final SelectionKey m_key;
+    private final Handler m_handler;
+    private final OutputStream m_outputStream = new ConnectionOutputStream();
+
+    private final LinkedList<ByteBuffer> m_pending =
+      new LinkedList<ByteBuffer>();
+    private int m_pendingBytes;
+
+    private final Set<Connection> m_pausedSources = new HashSet<Connection>();
+
+    private boolean m_connected;
+    private boolean m_paused;
+    private boolean m_closing;
+    private boolean m_closed;
+    private long m_deadline;
+
+    private Connection(SocketChannel channel,
+                       Handler handler,
+                       boolean connected) throws IOException {
+      m_channel = channel;
+      m_handler = handler;
+      m_connected = connected;
+
+      m_channel.configureBlocking(false);
+      m_key = m_channel.register(selector(), 0, this);
+
+      m_connections.add(this);
+      m_connectionCount = m_connections.size();
+
+      updateInterest();
+    }
+
+    /**
+     * The connection's socket.
+     *
+     * @return The socket.
+     */
+    public Socket getSocket() {
+      return m_channel.socket();
+    }
+
+    /**
+     * Whether the connection has been established.
+     *
+     * @return {@code true} if the connection has been established.
+     */
+    public boolean isConnected() {
+      return m_connected;
+    }
+
+    /**
+     * A stream that writes to the connection. Writes never block; data that
+     * cannot be written immediately is queued. Closing the stream closes
+     * the connection once the queued data has been written.
+     *
+     * @return The stream.
+     */
+    public OutputStream getOutputStream() {
+      return m_outputStream;
+    }
+
+    /**
+     * Set a timeout. {@link Handler#timedOut} will be called if the timeout
+     * expires.
+     *
+     * @param milliseconds The timeout, or {@code 0} to cancel the timeout.
+     */
+    public void setTimeout(long milliseconds) {
+      m_deadline =
+        milliseconds > 0 ? System.currentTimeMillis() + milliseconds : 0;
+    }
+
+    /**
+     * Stop reading from the connection, and close it once any queued data
+     * has been written.
+     */
+    public void closeWhenFlushed() {
+      if (!m_closed) {
+        m_closing = true;
+
+        if (m_pending.isEmpty()) {
+          close(null);
+        }
+        else {
+          updateInterest();
+        }
+      }
+    }
+
+    /**
+     * Hand the connection over to blocking code. The connection is removed
+     * from the event loop without being closed. Queued data is discarded and
+     * the handler is not told. Once the channel has been made blocking,
+     * {@code then} is run on the event loop thread.
+     *
+     * @param then What to do with the blocking socket.
+     */
+    public void detach(Runnable then) {
+      if (remove()) {
+        m_detached.add(new Detached(this, then));
+      }
+    }
+
+    private void handle(SelectionKey key) {
+      final Connection previous = m_current;
+      m_current = this;
+
+      try {
+        if (!key.isValid()) {
+          return;
+        }
+
+        if (key.isConnectable()) {
+          m_connected = m_channel.finishConnect();
+          updateInterest();
+        }
+        else {
+          if (key.isWritable()) {
+            flush();
+          }
+
+          if (key.isValid() && key.isReadable()) {
+            read();
+          }
+        }
+      }
+      catch (CancelledKeyException e) {
+        // The connection was closed by a handler.
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        close(e);
+      }
+      catch (UncheckedInterruptedException e) {
+        throw e;
+      }
+      catch (RuntimeException e) {
+        m_logger.error(e.getMessage(), e);
+        close(null);
+      }
+      finally {
+        m_current = previous;
+      }
+    }
+
+    private void read() throws IOException {
+      final ByteBuffer buffer = m_bufferPool.acquire();
+
+      try {
+        final int n = m_channel.read(buffer);
+
+        if (n < 0) {
+          m_handler.endOfStream();
+          closeWhenFlushed();
+        }
+        else if (n > 0) {
+          buffer.flip();
+          buffer.get(m_readArray, 0, n);
+          m_handler.handle(m_readArray, n);
+        }
+      }
+      finally {
+        m_bufferPool.release(buffer);
+      }
+    }
+
+    private void timedOut() {
+      final Connection previous = m_current;
+      m_current = this;
+
+      try {
+        m_handler.timedOut();
+      }
+      catch (IOException e) {
+        UncheckedInterruptedException.ioException(e);
+        close(e);
+      }
+      finally {
+        m_current = previous;
+      }
+    }
+
+    private void write(byte[] bytes, int offset, int length)
+      throws IOException {
+
+      if (m_closed || m_closing) {
+        throw new SocketException("Socket closed");
+      }
+
+      int position = offset;
+      final int end = offset + length;
+
+      while (position < end) {
+        ByteBuffer last = m_pending.peekLast();
+
+        if (last == null || last.limit() == last.capacity()) {
+          last = m_bufferPool.acquire();
+          last.flip();
+          m_pending.add(last);
+        }
+
+        // Buffers are queued ready to be drained; append after the limit.
+        final int n = Math.min(end - position, last.capacity() - last.limit());
+        final int mark = last.position();
+        last.position(last.limit());
+        last.limit(last.limit() + n);
+        last.put(bytes, position, n);
+        last.position(mark);
+
+        position += n;
+        m_pendingBytes += n;
+      }
+
+      flush();
+
+      if (m_pendingBytes > HIGH_WATER_MARK &&
+          m_current != null &&
+          m_current != this &&
+          !m_current.m_closed) {
+        // Stop reading from the source until we've caught up.
+        m_current.m_paused = true;
+        m_current.updateInterest();
+        m_pausedSources.add(m_current);
+      }
+    }
+
+    private void flush() throws IOException {
+      if (m_connected && !m_pending.isEmpty()) {
+        final long n =
+          m_channel.write(m_pending.toArray(new ByteBuffer[m_pending.size()]));
+
+        m_pendingBytes -= n;
+
+        while (!m_pending.isEmpty() && !m_pending.peek().hasRemaining()) {
+          m_bufferPool.release(m_pending.remove());
+        }
+      }
+
+      if (m_pendingBytes < LOW_WATER_MARK) {
+        resumeSources();
+      }
+
+      if (m_closing && m_pending.isEmpty()) {
+        close(null);
+      }
+      else {
+        updateInterest();
+      }
+    }
+
+    private void resumeSources() {
+      for (Connection source : m_pausedSources) {
+        source.m_paused = false;
+        source.updateInterest();
+      }
+
+      m_pausedSources.clear();
+    }
+
+    private void updateInterest() {
+      if (!m_key.isValid()) {
+        return;
+      }
+
+      if (!m_connected) {
+        m_key.interestOps(SelectionKey.OP_CONNECT);
+      }
+      else {
+        m_key.interestOps(
+          (m_paused || m_closing ? 0 : SelectionKey.OP_READ) |
+          (m_pending.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      }
+    }
+
+    private boolean remove() {
+      if (m_closed) {
+        return false;
+      }
+
+      m_closed = true;
+      m_key.cancel();
+
+      m_connections.remove(this);
+      m_connectionCount = m_connections.size();
+
+      for (ByteBuffer buffer : m_pending) {
+        m_bufferPool.release(buffer);
+      }
+
+      m_pending.clear();
+      m_pendingBytes = 0;
+
+      resumeSources();
+
+      return true;
+    }
+
+    /**
+     * Close the connection immediately, discarding any queued data.
+     *
+     * @param cause The reason, passed to the handler.
+     */
+    public void close(IOException cause) {
+      if (remove()) {
+        try {
+          m_channel.close();
+        }
+        catch (IOException e) {
+          // Ignore.
+          UncheckedInterruptedException.ioException(e);
+        }
+
+        m_handler.closed(cause);
+      }
+    }
+
+    private final class ConnectionOutputStream extends OutputStream {
+
+      @Override public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override public void write(byte[] b, int off, int len)
+        throws IOException {
+        Connection.this.write(b, off, len);
+      }
+
+      @Override public void close() {
+        closeWhenFlushed();
+      }
+    }
+  }
+}
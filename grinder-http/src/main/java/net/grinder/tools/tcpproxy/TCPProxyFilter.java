@@ -50,6 +50,14 @@ import net.grinder.common.GrinderException;
  * identify a connection.
  * </p>
  *
+ * <p>
+ * Where the TCPProxy recognises HTTP traffic, each buffer passed to
+ * {@link #handle} either begins with a complete HTTP message head, or
+ * continues the body of the previous message. Filters for plain connections
+ * are called from a single event loop thread shared by all connections, so
+ * should not block.
+ * </p>
+ *
  * @author Philip Aston
  * @author Bertrand Ave
  */
@@ -1,5 +1,5 @@
 // Copyright (C) 2000 Phil Dawes
-// Copyright (C) 2000, 2001, 2002, 2003 Philip Aston
+// Copyright (C) 2000 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -25,14 +25,22 @@ package net.grinder.tools.tcpproxy;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-
+import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 
 /**
  * {@link TCPProxySocketFactory} for plain connections.
  *
+ * <p>
+ * The sockets are backed by channels so that the engines can service them
+ * with a {@link TCPProxyEventLoop}.
+ * </p>
+ *
  * @author Philip Aston
  */
 final class TCPProxySocketFactoryImplementation
@@ -49,9 +57,18 @@ final class TCPProxySocketFactoryImplementation
   public ServerSocket createServerSocket(EndPoint localEndPoint, int timeout)
     throws IOException {
 
-    final ServerSocket socket =
-      new ServerSocket(localEndPoint.getPort(), 50,
-                       InetAddress.getByName(localEndPoint.getHost()));
+    final ServerSocket socket = ServerSocketChannel.open().socket();
+
+    try {
+      socket.bind(
+        new InetSocketAddress(InetAddress.getByName(localEndPoint.getHost()),
+                              localEndPoint.getPort()),
+        50);
+    }
+    catch (IOException e) {
+      socket.close();
+      throw e;
+    }
 
     socket.setSoTimeout(timeout);
 
@@ -68,8 +85,15 @@ final class TCPProxySocketFactoryImplementation
   public Socket createClientSocket(EndPoint remoteEndPoint)
     throws IOException {
 
+    final InetSocketAddress address =
+      new InetSocketAddress(remoteEndPoint.getHost(), remoteEndPoint.getPort());
+
+    if (address.isUnresolved()) {
+      throw new UnknownHostException(remoteEndPoint.getHost());
+    }
+
     try {
-      return new Socket(remoteEndPoint.getHost(), remoteEndPoint.getPort());
+      return SocketChannel.open(address).socket();
     }
     catch (ConnectException e) {
       throw new VerboseConnectException(e, remoteEndPoint.toString());
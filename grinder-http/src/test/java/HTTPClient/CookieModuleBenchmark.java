@@ -0,0 +1,180 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package HTTPClient;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * JMH micro-benchmark comparing the {@link CookieStore} that
+ * {@link CookieModule} uses to find the cookies for a request with the
+ * <code>Hashtable</code> scan it previously performed.
+ *
+ * <p>
+ * The cookie jar is spread across a number of hosts and paths, a tenth of
+ * which match the request. {@link #hashtableScan} reproduces the previous
+ * <code>CookieModule.requestHandler()</code> logic.
+ * {@link #storeAfterChange} replaces a cookie before each lookup, so the
+ * store must recalculate the header each time.
+ * </p>
+ *
+ * <p>
+ * This is not a unit test. After <code>mvn test-compile</code>, run it
+ * with:
+ * </p>
+ *
+ * <pre>
+ * java -cp <em>test classpath</em> org.openjdk.jmh.Main \
+ *   CookieModuleBenchmark
+ * </pre>
+ *
+ * @author Philip Aston
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CookieModuleBenchmark {
+
+  @Param({ "10", "100", "1000" })
+  public int cookies;
+
+  private final Hashtable<Cookie, Cookie> m_hashtable =
+    new Hashtable<Cookie, Cookie>();
+  private final CookieStore m_store = new CookieStore();
+
+  private Request[] m_requests;
+  private int m_next;
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < cookies; ++i) {
+      final String domain =
+        i % 10 == 0 ? ".example.com" : "host" + i % 10 + ".example.org";
+      final String path = i % 3 == 0 ? "/" : "/app" + i % 4;
+
+      final Cookie cookie =
+        new Cookie("cookie" + i, "value" + i, domain, path, null, false);
+
+      m_hashtable.put(cookie, cookie);
+      m_store.put(cookie);
+    }
+
+    final HTTPConnection connection = new HTTPConnection("www.example.com");
+
+    m_requests = new Request[] {
+      new Request(connection, "GET", "/", null, null, null, false),
+      new Request(connection, "GET", "/app1/page?x=1", null, null, null,
+                  false),
+      new Request(connection, "GET", "/app2/image.png", null, null, null,
+                  false),
+    };
+  }
+
+  private Request nextRequest() {
+    m_next = (m_next + 1) % m_requests.length;
+    return m_requests[m_next];
+  }
+
+  @Benchmark
+  public Object hashtableScan() {
+    final Request req = nextRequest();
+
+    final Vector<String> names = new Vector<String>();
+    final Vector<Integer> lens = new Vector<Integer>();
+    int version = 0;
+
+    synchronized (m_hashtable) {
+      final Enumeration<Cookie> list = m_hashtable.elements();
+
+      while (list.hasMoreElements()) {
+        final Cookie cookie = list.nextElement();
+
+        if (cookie.hasExpired()) {
+          continue;
+        }
+
+        if (cookie.sendWith(req)) {
+          final int len = cookie.getPath().length();
+          int idx;
+
+          for (idx = 0; idx < lens.size(); idx++) {
+            if (lens.elementAt(idx).intValue() < len) {
+              break;
+            }
+          }
+
+          names.insertElementAt(cookie.toExternalForm(), idx);
+          lens.insertElementAt(new Integer(len), idx);
+
+          if (cookie instanceof Cookie2) {
+            version = Math.max(version, ((Cookie2) cookie).getVersion());
+          }
+        }
+      }
+    }
+
+    if (names.isEmpty()) {
+      return null;
+    }
+
+    final StringBuffer value = new StringBuffer();
+
+    if (version > 0) {
+      value.append("$Version=\"" + version + "\"; ");
+    }
+
+    value.append(names.elementAt(0));
+
+    for (int idx = 1; idx < names.size(); idx++) {
+      value.append("; ");
+      value.append(names.elementAt(idx));
+    }
+
+    return value.toString();
+  }
+
+  @Benchmark
+  public Object store() {
+    return m_store.getHeader(nextRequest(), null);
+  }
+
+  @Benchmark
+  public Object storeAfterChange() {
+    m_store.put(new Cookie("changing", Integer.toString(m_next),
+                           ".example.com", "/", null, false));
+
+    return m_store.getHeader(nextRequest(), null);
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package HTTPClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for our modifications to {@link CookieModule}.
+ *
+ * @author Philip Aston
+ */
+public class TestCookieModule {
+
+  private final Object m_context = new Object();
+
+  @After public void tearDown() {
+    CookieModule.discardAllCookies(m_context);
+  }
+
+  private Request request(String uri, NVPair[] headers) {
+    final HTTPConnection connection = new HTTPConnection("www.example.com");
+    connection.setContext(m_context);
+
+    return new Request(connection, "GET", uri, headers, null, null, false);
+  }
+
+  @Test public void testRequestHandler() throws Exception {
+    final CookieModule module = new CookieModule();
+
+    final Request request =
+      request("/", new NVPair[] { new NVPair("Cookie", "old=0"),
+                                  new NVPair("Accept", "*/*"), });
+
+    assertEquals(HTTPClientModule.REQ_CONTINUE,
+                 module.requestHandler(request, null));
+    assertEquals(1, request.getHeaders().length);
+    assertEquals("Accept", request.getHeaders()[0].getName());
+
+    final Cookie cookie =
+      new Cookie("a", "1", "www.example.com", "/", null, false);
+    CookieModule.addCookie(cookie, m_context);
+    CookieModule.addCookie(
+      new Cookie("b", "2", "www.example.com", "/x", null, false), m_context);
+
+    module.requestHandler(request, null);
+
+    final NVPair[] headers = request.getHeaders();
+    assertEquals(3, headers.length);
+    assertEquals("Cookie", headers[1].getName());
+    assertEquals("a=1", headers[1].getValue());
+    assertEquals("Cookie2", headers[2].getName());
+    assertEquals("$Version=\"1\"", headers[2].getValue());
+
+    final Request request2 = request("/x/y", new NVPair[0]);
+    module.requestHandler(request2, null);
+    assertEquals("b=2; a=1", request2.getHeaders()[0].getValue());
+
+    assertEquals(2, CookieModule.listAllCookies(m_context).length);
+
+    CookieModule.removeCookie(cookie, m_context);
+    final Cookie[] cookies = CookieModule.listAllCookies(m_context);
+    assertEquals(1, cookies.length);
+    assertEquals("b", cookies[0].getName());
+
+    CookieModule.discardAllCookies(m_context);
+    final Request request3 = request("/x/y", new NVPair[0]);
+    module.requestHandler(request3, null);
+    assertEquals(0, request3.getHeaders().length);
+  }
+
+  @Test public void testListAllCookies() throws Exception {
+    final Cookie cookie =
+      new Cookie("a", "1", "www.example.com", "/", null, false);
+    CookieModule.addCookie(cookie, m_context);
+
+    boolean found = false;
+
+    for (Cookie c : CookieModule.listAllCookies()) {
+      if (c == cookie) {
+        found = true;
+      }
+    }
+
+    assertTrue(found);
+    assertSame(cookie, CookieModule.listAllCookies(m_context)[0]);
+  }
+}
@@ -0,0 +1,208 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package HTTPClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link CookieStore}.
+ *
+ * @author Philip Aston
+ */
+public class TestCookieStore {
+
+  private final CookieStore m_store = new CookieStore();
+
+  private static Request request(String protocol, String host, String uri)
+    throws Exception {
+    return new Request(new HTTPConnection(protocol, host, -1),
+                       "GET", uri, new NVPair[0], null, null, false);
+  }
+
+  private static Request request(String uri) throws Exception {
+    return request("http", "www.example.com", uri);
+  }
+
+  private String headerValue(Request request) {
+    final CookieStore.Header header = m_store.getHeader(request, null);
+    return header == null ? null : header.getValue();
+  }
+
+  @Test public void testEmptyStore() throws Exception {
+    assertEquals(0, m_store.size());
+    assertNull(m_store.getHeader(request("/"), null));
+  }
+
+  @Test public void testPutGetRemove() throws Exception {
+    final Cookie c1 =
+      new Cookie("a", "1", "www.example.com", "/", null, false);
+    final Cookie c2 =
+      new Cookie("a", "2", "www.example.com", "/", null, false);
+
+    assertNull(m_store.put(c1));
+    assertSame(c1, m_store.get(c2));
+    assertSame(c1, m_store.put(c2));
+    assertSame(c2, m_store.get(c1));
+    assertEquals(1, m_store.size());
+    assertEquals("a=2", headerValue(request("/")));
+
+    assertSame(c2, m_store.remove(c1));
+    assertNull(m_store.remove(c1));
+    assertEquals(0, m_store.getCookies().length);
+    assertNull(headerValue(request("/")));
+  }
+
+  @Test public void testDomainMatching() throws Exception {
+    m_store.put(new Cookie("host", "1", "www.example.com", "/", null, false));
+    m_store.put(new Cookie("domain", "2", ".example.com", "/", null, false));
+    m_store.put(new Cookie("other", "3", "other.com", "/", null, false));
+    m_store.put(new Cookie("local", "4", "server", "/", null, false));
+
+    assertEquals("host=1; domain=2", headerValue(request("/")));
+    assertEquals("domain=2",
+                 headerValue(request("http", "foo.example.com", "/")));
+    assertNull(headerValue(request("http", "example.com", "/")));
+    assertEquals("other=3", headerValue(request("http", "other.com", "/")));
+    assertEquals("local=4", headerValue(request("http", "server", "/")));
+  }
+
+  @Test public void testPathMatchingAndOrder() throws Exception {
+    m_store.put(new Cookie("root", "1", "www.example.com", "/", null, false));
+    m_store.put(
+      new Cookie("deep", "2", ".example.com", "/app/x", null, false));
+    m_store.put(new Cookie("app", "3", "www.example.com", "/app", null, false));
+    m_store.put(new Cookie("root2", "4", ".example.com", "/", null, false));
+
+    assertEquals("root=1; root2=4", headerValue(request("/")));
+    assertEquals("app=3; root=1; root2=4",
+                 headerValue(request("/app/y?q=/app/x")));
+    assertEquals("deep=2; app=3; root=1; root2=4",
+                 headerValue(request("/app/x/z;jsessionid=1")));
+  }
+
+  @Test public void testSecure() throws Exception {
+    m_store.put(new Cookie("s", "1", "www.example.com", "/", null, true));
+    m_store.put(new Cookie("i", "2", "www.example.com", "/", null, false));
+
+    assertEquals("i=2", headerValue(request("/")));
+    assertEquals("s=1; i=2",
+                 headerValue(request("https", "www.example.com", "/")));
+  }
+
+  @Test public void testCaching() throws Exception {
+    m_store.put(new Cookie("a", "1", "www.example.com", "/", null, false));
+
+    final CookieStore.Header h1 = m_store.getHeader(request("/x"), null);
+    assertSame(h1, m_store.getHeader(request("/x"), null));
+    assertNotSame(h1, m_store.getHeader(request("/y"), null));
+
+    m_store.put(new Cookie("a", "2", "www.example.com", "/", null, false));
+
+    final CookieStore.Header h2 = m_store.getHeader(request("/x"), null);
+    assertNotSame(h1, h2);
+    assertEquals("a=2", h2.getValue());
+
+    m_store.put(new Cookie("b", "3", "www.example.com", "/", null, false));
+    assertEquals("a=2; b=3", headerValue(request("/x")));
+
+    m_store.clear();
+    assertNull(headerValue(request("/x")));
+  }
+
+  @Test public void testExpiry() throws Exception {
+    final Date soon = new Date(System.currentTimeMillis() + 50);
+    final Date later = new Date(System.currentTimeMillis() + 100000);
+
+    m_store.put(new Cookie("a", "1", "www.example.com", "/", soon, false));
+    m_store.put(new Cookie("b", "2", "www.example.com", "/", later, false));
+
+    assertEquals("a=1; b=2", headerValue(request("/")));
+
+    Thread.sleep(100);
+
+    assertEquals("b=2", headerValue(request("/")));
+    assertEquals(1, m_store.size());
+
+    m_store.put(new Cookie("c", "3", "www.example.com", "/", new Date(0),
+                           false));
+    assertEquals("b=2", headerValue(request("/")));
+    assertEquals(1, m_store.size());
+  }
+
+  @Test public void testCookie2() throws Exception {
+    m_store.put(new Cookie("a", "1", "www.example.com", "/", null, false));
+    m_store.put(new Cookie2("b", "2", "www.example.com", null, "/", null,
+                            false, false, null, null));
+
+    final CookieStore.Header header = m_store.getHeader(request("/"), null);
+    assertEquals(1, header.getVersion());
+    assertEquals("$Version=\"1\"; a=1; b=2; $Path=/; " +
+                 "$Domain=www.example.com",
+                 header.getValue());
+
+    m_store.put(new Cookie2("c", "3", "www.example.com", new int[] { 81 },
+                            "/", null, false, false, null, null));
+
+    // A port list makes the result depend on the port, so it isn't cached.
+    final Request request = request("/");
+    final CookieStore.Header header2 = m_store.getHeader(request, null);
+    assertEquals(header.getValue(), header2.getValue());
+    assertNotSame(header2, m_store.getHeader(request, null));
+
+    final Request request81 =
+      new Request(new HTTPConnection("http", "www.example.com", 81),
+                  "GET", "/", new NVPair[0], null, null, false);
+
+    assertEquals(header.getValue() + "; c=3; $Path=/; " +
+                 "$Domain=www.example.com; $Port=\"81\"",
+                 m_store.getHeader(request81, null).getValue());
+  }
+
+  @Test public void testPolicyHandler() throws Exception {
+    m_store.put(new Cookie("a", "1", "www.example.com", "/", null, false));
+    m_store.put(new Cookie("b", "2", "www.example.com", "/", null, false));
+
+    final CookiePolicyHandler handler = new CookiePolicyHandler() {
+        public boolean acceptCookie(Cookie cookie, RoRequest req,
+                                    RoResponse resp) {
+          return true;
+        }
+
+        public boolean sendCookie(Cookie cookie, RoRequest req) {
+          return !cookie.getName().equals("a");
+        }
+      };
+
+    assertEquals("a=1; b=2", headerValue(request("/")));
+    assertEquals("b=2", m_store.getHeader(request("/"), handler).getValue());
+    assertEquals("a=1; b=2", headerValue(request("/")));
+  }
+}
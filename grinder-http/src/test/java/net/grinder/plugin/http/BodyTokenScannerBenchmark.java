@@ -0,0 +1,191 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.grinder.plugin.http.tcpproxyfilter.RegularExpressions;
+import net.grinder.plugin.http.tcpproxyfilter.RegularExpressionsImplementation;
+import net.grinder.util.AttributeStringParser;
+import net.grinder.util.AttributeStringParserImplementation;
+import net.grinder.util.http.URIParser;
+import net.grinder.util.http.URIParserImplementation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * JMH micro-benchmark comparing {@link BodyTokenScanner} with the regular
+ * expressions that {@link HTTPUtilitiesImplementation} previously used to
+ * extract tokens from a response body.
+ *
+ * <p>
+ * The page is synthetic HTML with a form and a number of links every
+ * kilobyte or so. The <code>...All</code> benchmarks extract every token
+ * from the page. {@link #regularExpressionsHiddenInputs} runs only the
+ * hidden input expression, which is the least work the previous
+ * implementation did to find the last hidden input on a page.
+ * </p>
+ *
+ * <p>
+ * This is not a unit test. After <code>mvn test-compile</code>, run it
+ * with:
+ * </p>
+ *
+ * <pre>
+ * java -cp <em>test classpath</em> org.openjdk.jmh.Main \
+ *   BodyTokenScannerBenchmark
+ * </pre>
+ *
+ * @author Philip Aston
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BodyTokenScannerBenchmark {
+
+  @Param({ "10", "100", "1000" })
+  public int kilobytes;
+
+  private final RegularExpressions m_regularExpressions =
+    new RegularExpressionsImplementation();
+  private final AttributeStringParser m_attributeStringParser =
+    new AttributeStringParserImplementation();
+  private final URIParser m_uriParser = new URIParserImplementation();
+
+  private String m_body;
+
+  private static final class Collector implements BodyTokenScanner.Listener {
+    private final List<String> m_values = new ArrayList<String>();
+
+    public void input(int position, String name, String value) {
+      m_values.add(value);
+    }
+
+    public void hiddenInput(int position, String name, String value) {
+      m_values.add(value);
+    }
+
+    public void uriNameValue(int position, String name, String value) {
+      m_values.add(value);
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(0);
+    final StringBuilder body = new StringBuilder("<html><body>\n");
+
+    for (int i = 0; body.length() < kilobytes * 1024; ++i) {
+      body.append("<div class=\"row\"><p>Lorem ipsum dolor sit amet, ");
+      body.append("consectetur adipiscing elit, sed do eiusmod tempor ");
+      body.append("incididunt ut labore et dolore magna aliqua.</p>\n");
+      body.append("<a href=\"/catalogue/item;jsessionid=").append(i);
+      body.append("?id=").append(random.nextInt()).append("&amp;page=");
+      body.append(i).append("\">Item ").append(i).append("</a>\n");
+      body.append("<img src=\"/images/").append(i).append(".png\"/>\n");
+      body.append("<form action=\"/submit\" method=\"post\">\n");
+      body.append("<input type=\"hidden\" name=\"token").append(i);
+      body.append("\" value=\"").append(random.nextLong()).append("\"/>\n");
+      body.append("<input type=\"text\" name=\"quantity\" value=\"1\">\n");
+      body.append("</form></div>\n");
+    }
+
+    m_body = body.append("</body></html>\n").toString();
+  }
+
+  private List<String> regularExpressionMatches(Pattern pattern,
+                                                List<String> result) {
+    final Matcher matcher = pattern.matcher(m_body);
+
+    while (matcher.find()) {
+      final AttributeStringParser.AttributeMap map =
+        m_attributeStringParser.parse(matcher.group());
+
+      if (map.get("name") != null && map.get("value") != null) {
+        result.add(map.get("value"));
+      }
+    }
+
+    return result;
+  }
+
+  @Benchmark
+  public Object regularExpressionsAll() {
+    final List<String> result = new ArrayList<String>();
+
+    regularExpressionMatches(m_regularExpressions.getInputPattern(), result);
+    regularExpressionMatches(m_regularExpressions.getHiddenInputPattern(),
+                             result);
+
+    final Matcher matcher =
+      m_regularExpressions.getHyperlinkURIPattern().matcher(m_body);
+
+    while (matcher.find()) {
+      m_uriParser.parse(matcher.group(1),
+                        new URIParser.AbstractParseListener() {
+          public boolean pathParameterNameValue(String name, String value) {
+            result.add(value);
+            return true;
+          }
+
+          public boolean queryStringNameValue(String name, String value) {
+            result.add(value);
+            return true;
+          }
+        });
+    }
+
+    return result;
+  }
+
+  @Benchmark
+  public Object scannerAll() {
+    final Collector collector = new Collector();
+    final BodyTokenScanner scanner =
+      new BodyTokenScanner(m_body, m_uriParser, collector);
+
+    while (scanner.scan()) {
+    }
+
+    return collector.m_values;
+  }
+
+  @Benchmark
+  public Object regularExpressionsHiddenInputs() {
+    return
+      regularExpressionMatches(m_regularExpressions.getHiddenInputPattern(),
+                               new ArrayList<String>());
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2004 - 2010 Philip Aston
+// Copyright (C) 2004 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -63,6 +63,7 @@ class HTTPRequestHandler extends Assert implements Runnable {
   private String m_lastRequestHeaders;
   private byte[] m_lastRequestBody;
   private String m_body;
+  private byte[] m_bodyBytes;
   private AtomicBoolean m_started = new AtomicBoolean();
 
   private long m_responseDelay = 0;
@@ -240,6 +241,11 @@ class HTTPRequestHandler extends Assert implements Runnable {
         }
 
         out.write(response.toString().getBytes());
+
+        if (m_bodyBytes != null) {
+          out.write(m_bodyBytes);
+        }
+
         out.flush();
 
         localSocket.close();
@@ -281,6 +287,12 @@ class HTTPRequestHandler extends Assert implements Runnable {
 
   public void setBody(String body) {
     m_body = body;
+    m_bodyBytes = null;
+  }
+
+  public void setBodyBytes(byte[] body) {
+    m_body = null;
+    m_bodyBytes = body;
   }
 
   public void setResponseDelay(long responseDelay) {
@@ -0,0 +1,374 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+
+import net.grinder.plugin.http.nio.Exchange;
+import net.grinder.plugin.http.nio.NIOHTTPEngine;
+import net.grinder.plugininterface.PluginThreadContext;
+import net.grinder.script.Grinder.ScriptContext;
+import net.grinder.script.Statistics;
+import net.grinder.script.Statistics.StatisticsForTest;
+import net.grinder.statistics.StatisticsIndexMap;
+import net.grinder.testutility.CallData;
+import net.grinder.testutility.RandomStubFactory;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * Unit tests for {@link AsyncHTTPClient}.
+ *
+ * @author Philip Aston
+ */
+public class TestAsyncHTTPClient {
+
+  private final RandomStubFactory<ScriptContext> m_scriptContextStubFactory =
+    RandomStubFactory.create(ScriptContext.class);
+
+  private final RandomStubFactory<Statistics> m_statisticsStubFactory =
+    RandomStubFactory.create(Statistics.class);
+
+  private final RandomStubFactory<StatisticsForTest>
+    m_statisticsForTestStubFactory =
+      RandomStubFactory.create(StatisticsForTest.class);
+
+  private final RandomStubFactory<PluginThreadContext>
+    m_threadContextStubFactory =
+      RandomStubFactory.create(PluginThreadContext.class);
+
+  private final RandomStubFactory<Logger> m_loggerStubFactory =
+    RandomStubFactory.create(Logger.class);
+
+  private HTTPRequestHandler m_handler;
+  private NIOHTTPEngine m_engine;
+  private AsyncHTTPClient m_client;
+
+  @Before public void setUp() throws Exception {
+    m_scriptContextStubFactory.setResult("getStatistics",
+                                         m_statisticsStubFactory.getStub());
+    m_scriptContextStubFactory.setResult("getLogger",
+                                         m_loggerStubFactory.getStub());
+    m_statisticsStubFactory.setResult("isTestInProgress", Boolean.TRUE);
+    m_statisticsStubFactory.setResult("getForCurrentTest",
+                                      m_statisticsForTestStubFactory.getStub());
+
+    m_handler = new HTTPRequestHandler();
+    m_handler.start();
+
+    m_engine = new NIOHTTPEngine(1,
+                                 new StandardTimeAuthority(),
+                                 m_loggerStubFactory.getStub());
+
+    m_client =
+      new AsyncHTTPClient(m_scriptContextStubFactory.getStub(),
+                          m_threadContextStubFactory.getStub(),
+                          m_engine,
+                          new StandardTimeAuthority(),
+                          HTTPPluginConnectionDefaults.getConnectionDefaults());
+  }
+
+  @After public void tearDown() throws Exception {
+    m_engine.shutdown();
+    m_handler.shutdown();
+  }
+
+  private void assertTiming(String key) {
+    final CallData callData =
+      m_statisticsForTestStubFactory.assertSuccess("addLong",
+                                                   String.class,
+                                                   Long.class);
+    assertEquals(key, callData.getParameters()[0]);
+    assertTrue((Long) callData.getParameters()[1] >= 0);
+  }
+
+  @Test public void testGET() throws Exception {
+    m_handler.setBody("hello");
+
+    final Exchange exchange = m_client.GET(m_handler.getURL() + "/foo");
+    assertEquals(1, m_client.getNumberOutstanding());
+
+    assertSame(exchange, m_client.await(exchange));
+    assertEquals(0, m_client.getNumberOutstanding());
+
+    assertEquals("GET /foo HTTP/1.1", m_handler.getRequestFirstHeader());
+    m_handler.assertRequestContainsHeader(
+      "Host: " + m_handler.getURL().substring(7));
+
+    assertEquals(200, exchange.getStatusCode());
+    assertEquals("hello", exchange.getText());
+
+    m_threadContextStubFactory.assertSuccess("pauseClock");
+    m_threadContextStubFactory.assertSuccess("resumeClock");
+    m_threadContextStubFactory.assertNoMoreCalls();
+
+    final String message =
+      (String) m_loggerStubFactory.assertSuccess("info", String.class)
+      .getParameters()[0];
+    assertTrue(message.endsWith("/foo -> 200 OK, 5 bytes"));
+
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY, 5L);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong",
+      StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
+      5L);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "setLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_STATUS_KEY, 200L);
+    assertTiming(StatisticsIndexMap.HTTP_PLUGIN_FIRST_BYTE_TIME_KEY);
+    assertTiming(StatisticsIndexMap.HTTP_PLUGIN_DNS_TIME_KEY);
+    assertTiming(StatisticsIndexMap.HTTP_PLUGIN_CONNECT_TIME_KEY);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong", StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED, 1L);
+    m_statisticsForTestStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testAwaitAll() throws Exception {
+    m_handler.shutdown();
+
+    m_handler = new HTTPRequestHandler() {
+        protected void writeHeaders(StringBuffer response) {
+          response.append("HTTP/1.0 404 Not Found\r\n");
+        }
+      };
+
+    m_handler.start();
+
+    final Exchange[] exchanges = {
+      m_client.GET(m_handler.getURL() + "/1"),
+      m_client.GET(m_handler.getURL() + "/2"),
+      m_client.GET(m_handler.getURL() + "/3"),
+    };
+
+    final List<Exchange> result = m_client.awaitAll();
+
+    assertArrayEquals(exchanges, result.toArray());
+    assertEquals(0, m_client.getNumberOutstanding());
+
+    for (Exchange exchange : result) {
+      assertEquals(404, exchange.getStatusCode());
+    }
+
+    // One sample for all of the exchanges.
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY, 0L);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong",
+      StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
+      0L);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "setLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_STATUS_KEY, 404L);
+    assertTiming(StatisticsIndexMap.HTTP_PLUGIN_FIRST_BYTE_TIME_KEY);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_ERRORS_KEY, 3L);
+    assertTiming(StatisticsIndexMap.HTTP_PLUGIN_DNS_TIME_KEY);
+    assertTiming(StatisticsIndexMap.HTTP_PLUGIN_CONNECT_TIME_KEY);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong", StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED, 3L);
+    m_statisticsForTestStubFactory.assertNoMoreCalls();
+
+    m_threadContextStubFactory.assertSuccess("pauseClock");
+    m_threadContextStubFactory.assertSuccess("resumeClock");
+    m_threadContextStubFactory.assertNoMoreCalls();
+
+    assertEquals(0, m_client.awaitAll().size());
+    m_statisticsForTestStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testAwaitAllConcurrentExchanges() throws Exception {
+    final HTTPRequestHandler notFoundHandler = new HTTPRequestHandler() {
+        protected void writeHeaders(StringBuffer response) {
+          response.append("HTTP/1.0 404 Not Found\r\n");
+        }
+      };
+
+    notFoundHandler.start();
+
+    try {
+      // The responses are delayed so that both exchanges are outstanding
+      // at the same time, and use separate connections.
+      m_handler.setBody("hello");
+      m_handler.setResponseDelay(200);
+
+      final Exchange exchange1 = m_client.GET(m_handler.getURL() + "/1");
+      final Exchange exchange2 = m_client.GET(m_handler.getURL() + "/2");
+      final Exchange exchange3 = m_client.GET(notFoundHandler.getURL());
+      assertEquals(3, m_client.getNumberOutstanding());
+
+      assertFalse(exchange1.isDone());
+      assertFalse(exchange2.isDone());
+
+      final List<Exchange> result = m_client.awaitAll();
+      assertArrayEquals(new Exchange[] { exchange1, exchange2, exchange3 },
+                        result.toArray());
+
+      assertEquals("hello", exchange1.getText());
+      assertEquals("hello", exchange2.getText());
+      assertEquals(404, exchange3.getStatusCode());
+
+      m_statisticsForTestStubFactory.assertSuccess(
+        "addLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY, 10L);
+      m_statisticsForTestStubFactory.assertSuccess(
+        "addLong",
+        StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
+        10L);
+
+      // The highest status code.
+      m_statisticsForTestStubFactory.assertSuccess(
+        "setLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_STATUS_KEY, 404L);
+
+      final Object[] firstByteTime =
+        m_statisticsForTestStubFactory.assertSuccess(
+          "addLong", String.class, Long.class).getParameters();
+
+      assertEquals(StatisticsIndexMap.HTTP_PLUGIN_FIRST_BYTE_TIME_KEY,
+                   firstByteTime[0]);
+      assertEquals(exchange1.getTimeToFirstByte() +
+                   exchange2.getTimeToFirstByte() +
+                   exchange3.getTimeToFirstByte(),
+                   firstByteTime[1]);
+
+      m_statisticsForTestStubFactory.assertSuccess(
+        "addLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_ERRORS_KEY, 1L);
+      assertTiming(StatisticsIndexMap.HTTP_PLUGIN_DNS_TIME_KEY);
+      assertTiming(StatisticsIndexMap.HTTP_PLUGIN_CONNECT_TIME_KEY);
+      m_statisticsForTestStubFactory.assertSuccess(
+        "addLong", StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED, 3L);
+      m_statisticsForTestStubFactory.assertNoMoreCalls();
+    }
+    finally {
+      notFoundHandler.shutdown();
+    }
+  }
+
+  @Test public void testPOSTAndHeaders() throws Exception {
+    m_client.setDefaultHeaders(new NVPair[] {
+        new NVPair("A", "1"),
+        new NVPair("B", "2"),
+    });
+
+    final byte[] data = { 1, 2, 3 };
+
+    m_client.await(m_client.POST(m_handler.getURL(),
+                                 data,
+                                 new NVPair[] { new NVPair("B", "3") }));
+
+    assertEquals("POST / HTTP/1.1", m_handler.getRequestFirstHeader());
+    m_handler.assertRequestContainsHeader("A: 1");
+    m_handler.assertRequestContainsHeader("B: 3");
+    m_handler.assertRequestDoesNotContainHeader("B: 2");
+    m_handler.assertRequestContainsHeader("Content-Length: 3");
+    assertArrayEquals(data, m_handler.getLastRequestBody());
+  }
+
+  @Test public void testNoTestInProgress() throws Exception {
+    m_statisticsStubFactory.setResult("isTestInProgress", Boolean.FALSE);
+
+    m_client.await(m_client.GET(m_handler.getURL()));
+
+    m_statisticsForTestStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testTimeout() throws Exception {
+    m_handler.setResponseDelay(2000);
+    m_client.setTimeout(100);
+
+    final Exchange exchange = m_client.GET(m_handler.getURL());
+
+    try {
+      m_client.await(exchange);
+      fail("Expected TimeoutException");
+    }
+    catch (TimeoutException e) {
+    }
+
+    assertEquals(0, m_client.getNumberOutstanding());
+    m_statisticsForTestStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testFailure() throws Exception {
+    final ServerSocket serverSocket = new ServerSocket(0);
+    final int port = serverSocket.getLocalPort();
+    serverSocket.close();
+
+    m_client.GET("http://localhost:" + port);
+    m_client.GET(m_handler.getURL());
+    assertEquals(2, m_client.getNumberOutstanding());
+
+    try {
+      m_client.awaitAll();
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+
+    // The successful exchange is still processed.
+    assertEquals(0, m_client.getNumberOutstanding());
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong", StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY, 0L);
+    m_statisticsForTestStubFactory.assertSuccess(
+      "addLong",
+      StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
+      0L);
+
+    m_client.GET(m_handler.getURL());
+    m_client.discardOutstanding();
+    assertEquals(0, m_client.getNumberOutstanding());
+  }
+
+  @Test public void testUnsupported() throws Exception {
+    try {
+      m_client.GET("https://localhost");
+      fail("Expected URLException");
+    }
+    catch (URLException e) {
+    }
+
+    m_client.setLocalAddress("localhost");
+    m_client.close();
+
+    try {
+      m_client.setLocalAddress("not a host name");
+      fail("Expected URLException");
+    }
+    catch (URLException e) {
+    }
+
+    assertFalse(m_client.getNumberOutstanding() > 0);
+  }
+}
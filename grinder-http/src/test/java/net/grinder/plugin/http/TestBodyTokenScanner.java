@@ -0,0 +1,262 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.grinder.plugin.http.tcpproxyfilter.RegularExpressions;
+import net.grinder.plugin.http.tcpproxyfilter.RegularExpressionsImplementation;
+import net.grinder.util.AttributeStringParser;
+import net.grinder.util.AttributeStringParserImplementation;
+import net.grinder.util.http.URIParser;
+import net.grinder.util.http.URIParserImplementation;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link BodyTokenScanner}.
+ *
+ * @author Philip Aston
+ */
+public class TestBodyTokenScanner {
+
+  private static final URIParser s_uriParser = new URIParserImplementation();
+
+  private static final class Tokens implements BodyTokenScanner.Listener {
+    final List<String> m_inputs = new ArrayList<String>();
+    final List<String> m_hiddenInputs = new ArrayList<String>();
+    final List<String> m_uriNameValues = new ArrayList<String>();
+
+    public void input(int position, String name, String value) {
+      m_inputs.add(position + ":" + name + "=" + value);
+    }
+
+    public void hiddenInput(int position, String name, String value) {
+      m_hiddenInputs.add(position + ":" + name + "=" + value);
+    }
+
+    public void uriNameValue(int position, String name, String value) {
+      m_uriNameValues.add(position + ":" + name + "=" + value);
+    }
+
+    @Override public boolean equals(Object o) {
+      final Tokens other = (Tokens) o;
+      return m_inputs.equals(other.m_inputs) &&
+             m_hiddenInputs.equals(other.m_hiddenInputs) &&
+             m_uriNameValues.equals(other.m_uriNameValues);
+    }
+
+    @Override public int hashCode() {
+      return m_inputs.hashCode();
+    }
+
+    @Override public String toString() {
+      return m_inputs + " " + m_hiddenInputs + " " + m_uriNameValues;
+    }
+  }
+
+  private static Tokens scan(String body) {
+    final Tokens result = new Tokens();
+    final BodyTokenScanner scanner =
+      new BodyTokenScanner(body, s_uriParser, result);
+
+    while (scanner.scan()) {
+    }
+
+    return result;
+  }
+
+  /**
+   * The regular expression implementation that the scanner replaces.
+   */
+  static Tokens regularExpressionScan(String body) {
+    final RegularExpressions regularExpressions =
+      new RegularExpressionsImplementation();
+    final AttributeStringParser attributeStringParser =
+      new AttributeStringParserImplementation();
+
+    final Tokens result = new Tokens();
+
+    for (Pattern pattern : asList(regularExpressions.getInputPattern(),
+                                  regularExpressions.getHiddenInputPattern())) {
+      final Matcher matcher = pattern.matcher(body);
+
+      while (matcher.find()) {
+        final AttributeStringParser.AttributeMap map =
+          attributeStringParser.parse(matcher.group());
+
+        final String name = map.get("name");
+        final String value = map.get("value");
+
+        if (name != null && value != null) {
+          if (pattern == regularExpressions.getInputPattern()) {
+            result.input(matcher.start(), name, value);
+          }
+          else {
+            result.hiddenInput(matcher.start(), name, value);
+          }
+        }
+      }
+    }
+
+    final Matcher matcher =
+      regularExpressions.getHyperlinkURIPattern().matcher(body);
+
+    while (matcher.find()) {
+      final int position = matcher.start();
+
+      s_uriParser.parse(matcher.group(1),
+                        new URIParser.AbstractParseListener() {
+        public boolean pathParameterNameValue(String name, String value) {
+          result.uriNameValue(position, name, value);
+          return true;
+        }
+
+        public boolean queryStringNameValue(String name, String value) {
+          result.uriNameValue(position, name, value);
+          return true;
+        }
+      });
+    }
+
+    return result;
+  }
+
+  private static void assertScan(String body) {
+    assertEquals(body, regularExpressionScan(body), scan(body));
+  }
+
+  @Test public void testInputs() throws Exception {
+    final Tokens tokens =
+      scan("<body><INPUT name='foo' value=\"bah\">" +
+           "<input value='x' NAME='y' name='z'/>" +
+           "<input name='nope'><inputname='a' value='b'>" +
+           "< \n input\tname = 'c' value= 'd' ></body>");
+
+    assertEquals(asList("6:foo=bah", "36:z=x", "116:c=d"), tokens.m_inputs);
+    assertEquals(asList(), tokens.m_hiddenInputs);
+  }
+
+  @Test public void testHiddenInputs() throws Exception {
+    final Tokens tokens =
+      scan("<input type='hidden' name='a' value='1'>" +
+           "<input type=\" HIDDEN \" name='b' value='2'/>" +
+           "<input name='c' value='3'>");
+
+    assertEquals(asList("0:a=1", "40:b=2"), tokens.m_hiddenInputs);
+    assertEquals(asList("0:a=1", "40:b=2", "83:c=3"), tokens.m_inputs);
+
+    // As with the regular expression, a hidden input can span a
+    // preceding element.
+    final Tokens spanning =
+      scan("<input name='foo' value='blah'>foo</input>" +
+           "<input type='hidden' name='foo' value='bah'>");
+
+    assertEquals(asList("0:foo=bah"), spanning.m_hiddenInputs);
+  }
+
+  @Test public void testURIs() throws Exception {
+    final Tokens tokens =
+      scan("<a href='/foo;x=1?y=2&amp;z=3'>a</a>" +
+           "<a HREF='/?q=1'>b</a><a href = \"?q=2\">c</a>" +
+           "<a href='/unterminated");
+
+    assertEquals(asList("3:x=1", "3:y=2", "3:z=3", "60:q=2"),
+                 tokens.m_uriNameValues);
+  }
+
+  @Test public void testEdgeCases() throws Exception {
+    assertScan("");
+    assertScan("<");
+    assertScan("<input");
+    assertScan("<input ");
+    assertScan("<input name='a' value='b'");
+    assertScan("<input type='hidden' name='a' value='b'");
+    assertScan("<input name='a\nb' value='c' name='d'>");
+    assertScan("<input name='a' value='b c' value='d\u0085'>");
+    assertScan("<input a b='c' = name='d' value='e' x=>");
+    assertScan("<input name='a\" value='b'>");
+    assertScan("<input datatype='hidden' name='a' value='b'>");
+    assertScan("<input <input name='a' value='b'> type='hidden'>");
+    assertScan("href='a?b=c' href=\"d?e=f\" href='g?h=i");
+    assertScan("hhref='?a=b'href=  '?c=d'");
+    assertScan("<input name=<input name='x' value='y'>'>");
+  }
+
+  @Test public void testAgainstRegularExpressions() throws Exception {
+    final String[] fragments = {
+      "<", ">", "/>", " ", "\t", "\n", "'", "\"", "=", "<input ", "< INPUT\n",
+      "<inputx ", "type", "type=", "'hidden'", "\"hidden\"", " hidden ",
+      "type='hidden'", "name", "name=", "'foo'", "\"bah\"", "value",
+      "value='1'", "VALUE=\"2\"", "href", "href=", "href='", "/a?b=c",
+      "&d=e", ";f=g", "?", "x", "é", " ",
+    };
+
+    final Random random = new Random(99);
+
+    for (int i = 0; i < 5000; ++i) {
+      final StringBuilder body = new StringBuilder();
+      final int n = random.nextInt(40);
+
+      for (int j = 0; j < n; ++j) {
+        body.append(fragments[random.nextInt(fragments.length)]);
+      }
+
+      assertScan(body.toString());
+    }
+  }
+
+  @Test public void testIncremental() throws Exception {
+    final Tokens tokens = new Tokens();
+
+    final BodyTokenScanner scanner =
+      new BodyTokenScanner("<input name='a' value='1'>" +
+                           "<a href='?b=2&c=3'>" +
+                           "<input type='hidden' name='d' value='4'>",
+                           s_uriParser,
+                           tokens);
+
+    assertEquals(true, scanner.scan());
+    assertEquals(asList("0:a=1"), tokens.m_inputs);
+    assertEquals(0, tokens.m_uriNameValues.size());
+
+    assertEquals(true, scanner.scan());
+    assertEquals(asList("29:b=2", "29:c=3"), tokens.m_uriNameValues);
+    assertEquals(0, tokens.m_hiddenInputs.size());
+
+    // The hidden input match starts at the first input element.
+    assertEquals(true, scanner.scan());
+    assertEquals(asList("0:d=4"), tokens.m_hiddenInputs);
+    assertEquals(2, tokens.m_inputs.size());
+
+    assertEquals(false, scanner.scan());
+    assertEquals(false, scanner.scan());
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import net.grinder.plugininterface.PluginThreadContext;
+import net.grinder.testutility.RandomStubFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ContentDecoder}.
+ *
+ * @author Philip Aston
+ */
+public class TestContentDecoder {
+
+  private final RandomStubFactory<PluginThreadContext>
+    m_threadContextStubFactory =
+      RandomStubFactory.create(PluginThreadContext.class);
+
+  private final ContentDecoder m_decoder =
+    new ContentDecoder(m_threadContextStubFactory.getStub());
+
+  private byte[] m_data;
+
+  @Before public void setUp() {
+    // Compressible, but not trivially so.
+    final Random random = new Random(99);
+    m_data = new byte[100000];
+
+    for (int i = 0; i < m_data.length; ++i) {
+      m_data[i] = (byte) ('a' + random.nextInt(8));
+    }
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final GZIPOutputStream out = new GZIPOutputStream(result);
+    out.write(data);
+    out.close();
+    return result.toByteArray();
+  }
+
+  private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final DeflaterOutputStream out =
+      new DeflaterOutputStream(result, new Deflater(9, raw));
+    out.write(data);
+    out.close();
+    return result.toByteArray();
+  }
+
+  private static byte[] concatenate(byte[] a, byte[] b) {
+    final byte[] result = new byte[a.length + b.length];
+    System.arraycopy(a, 0, result, 0, a.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  private byte[] decode(String encoding, byte[] encoded, int chunkSize)
+    throws IOException {
+
+    final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+    final ContentDecoder.DecodingStream stream =
+      m_decoder.open(encoding, 0, sink);
+
+    for (int i = 0; i < encoded.length; i += chunkSize) {
+      stream.write(encoded, i, Math.min(chunkSize, encoded.length - i));
+    }
+
+    stream.close();
+
+    assertEquals(sink.size(), stream.getDecodedLength());
+
+    return sink.toByteArray();
+  }
+
+  @Test public void testGzip() throws Exception {
+    final byte[] encoded = gzip(m_data);
+
+    for (int chunkSize : new int[] { 1, 7, 1000, encoded.length }) {
+      assertArrayEquals(m_data, decode("gzip", encoded, chunkSize));
+    }
+  }
+
+  @Test public void testGzipHeaderFields() throws Exception {
+    final byte[] encoded = gzip(m_data);
+
+    // Set FEXTRA, FNAME, and FCOMMENT.
+    final byte[] header = {
+      0x1F, (byte) 0x8B, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, 0,
+      3, 0, 'x', 'y', 'z',
+      'f', 'o', 'o', 0,
+      'b', 'a', 'r', 0,
+    };
+
+    final byte[] body = new byte[encoded.length - 10];
+    System.arraycopy(encoded, 10, body, 0, body.length);
+    final byte[] withFields = concatenate(header, body);
+
+    assertArrayEquals(m_data, decode("gzip", withFields, 1));
+    assertArrayEquals(m_data, decode("gzip", withFields, 5000));
+  }
+
+  @Test public void testGzipMembers() throws Exception {
+    final byte[] encoded = concatenate(gzip(m_data), gzip(m_data));
+
+    final byte[] decoded = decode("gzip", encoded, 3000);
+    assertArrayEquals(concatenate(m_data, m_data), decoded);
+
+    // Trailing garbage is ignored.
+    assertArrayEquals(
+      m_data,
+      decode("gzip", concatenate(gzip(m_data), new byte[] { 1, 2, 3 }), 50));
+  }
+
+  @Test public void testDeflate() throws Exception {
+    for (boolean raw : new boolean[] { false, true }) {
+      final byte[] encoded = deflate(m_data, raw);
+
+      for (int chunkSize : new int[] { 1, 1000, encoded.length }) {
+        assertArrayEquals(m_data, decode("deflate", encoded, chunkSize));
+      }
+    }
+  }
+
+  @Test public void testRetention() throws Exception {
+    final byte[] encoded = gzip(m_data);
+
+    final ContentDecoder.DecodingStream stream =
+      m_decoder.open("gzip", 10, null);
+    stream.write(encoded);
+    stream.close();
+
+    assertEquals(m_data.length, stream.getDecodedLength());
+
+    final byte[] expected = new byte[10];
+    System.arraycopy(m_data, 0, expected, 0, 10);
+    assertArrayEquals(expected, stream.getRetained());
+  }
+
+  @Test public void testEmpty() throws Exception {
+    assertEquals(0, decode("gzip", new byte[0], 1).length);
+    assertEquals(0, decode("deflate", new byte[0], 1).length);
+  }
+
+  @Test public void testTruncated() throws Exception {
+    for (String encoding : new String[] { "gzip", "deflate" }) {
+      final byte[] encoded =
+        "gzip".equals(encoding) ? gzip(m_data) : deflate(m_data, false);
+
+      final ContentDecoder.DecodingStream stream =
+        m_decoder.open(encoding, 0, null);
+      stream.write(encoded, 0, encoded.length - 5);
+
+      try {
+        stream.close();
+        fail("Expected EOFException");
+      }
+      catch (EOFException e) {
+      }
+    }
+  }
+
+  @Test public void testCorrupt() throws Exception {
+    final byte[] encoded = gzip(m_data);
+    encoded[encoded.length - 6] ^= 1;
+
+    try {
+      decode("gzip", encoded, 100);
+      fail("Expected ZipException");
+    }
+    catch (ZipException e) {
+    }
+
+    try {
+      decode("gzip", new byte[] { 1, 2, 3 }, 100);
+      fail("Expected ZipException");
+    }
+    catch (ZipException e) {
+    }
+
+    try {
+      decode("deflate", new byte[] { 0x78, (byte) 0x9C, -1, -1, -1 }, 100);
+      fail("Expected ZipException");
+    }
+    catch (ZipException e) {
+    }
+  }
+
+  @Test public void testClockIsPaused() throws Exception {
+    final byte[] encoded = gzip(m_data);
+
+    final ContentDecoder.DecodingStream stream =
+      m_decoder.open("gzip", 0, null);
+    stream.write(encoded);
+
+    m_threadContextStubFactory.assertSuccess("pauseClock");
+    m_threadContextStubFactory.assertSuccess("resumeClock");
+    m_threadContextStubFactory.assertNoMoreCalls();
+
+    stream.close();
+    m_threadContextStubFactory.assertNoMoreCalls();
+  }
+
+  @Test public void testReuse() throws Exception {
+    final byte[] encoded = gzip(m_data);
+
+    assertArrayEquals(m_data, decode("gzip", encoded, 4096));
+    assertArrayEquals(m_data, decode("deflate", deflate(m_data, false), 4096));
+    assertArrayEquals(m_data, decode("gzip", encoded, 4096));
+
+    m_decoder.close();
+
+    // The inflaters are recreated.
+    assertArrayEquals(m_data, decode("gzip", encoded, 4096));
+    m_decoder.close();
+  }
+}
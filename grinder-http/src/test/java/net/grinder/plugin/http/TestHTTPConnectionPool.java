@@ -0,0 +1,197 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.grinder.util.TimeAuthority;
+
+import org.junit.Test;
+
+import HTTPClient.HTTPConnection;
+import HTTPClient.URI;
+
+
+/**
+ * Unit tests for {@link HTTPConnectionPool}.
+ *
+ * @author Philip Aston
+ */
+public class TestHTTPConnectionPool {
+
+  private final List<HTTPConnection> m_stopped =
+    new ArrayList<HTTPConnection>();
+
+  private long m_time = 1000;
+
+  private final TimeAuthority m_timeAuthority = new TimeAuthority() {
+      public long getTimeInMilliseconds() {
+        return m_time;
+      }
+
+      public long getTimeInNanoseconds() {
+        return m_time * 1000000;
+      }
+    };
+
+  private HTTPConnection createConnection(URI uri) throws Exception {
+    return new HTTPConnection(uri) {
+      @Override public void stop() {
+        m_stopped.add(this);
+        super.stop();
+      }
+    };
+  }
+
+  @Test public void testConstruction() throws Exception {
+    try {
+      new HTTPConnectionPool(-1, 10, m_timeAuthority);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+
+    try {
+      new HTTPConnectionPool(10, -1, m_timeAuthority);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test public void testCheckInAndCheckOut() throws Exception {
+    final HTTPConnectionPool pool =
+      new HTTPConnectionPool(10, 100, m_timeAuthority);
+
+    final URI a = new URI("http://a:80");
+    final URI b = new URI("https://b:443");
+
+    assertNull(pool.checkOut(a));
+
+    final HTTPConnection a1 = createConnection(a);
+    final HTTPConnection a2 = createConnection(a);
+    final HTTPConnection b1 = createConnection(b);
+
+    pool.checkIn(a, a1);
+    pool.checkIn(b, b1);
+    pool.checkIn(a, a2);
+    assertEquals(3, pool.size());
+
+    // Most recently used first.
+    assertSame(a2, pool.checkOut(a));
+    assertSame(a1, pool.checkOut(a));
+    assertNull(pool.checkOut(a));
+
+    assertSame(b1, pool.checkOut(new URI("https://b:443")));
+    assertEquals(0, pool.size());
+
+    assertEquals(0, m_stopped.size());
+  }
+
+  @Test public void testIdleTimeout() throws Exception {
+    final HTTPConnectionPool pool =
+      new HTTPConnectionPool(10, 100, m_timeAuthority);
+
+    final URI a = new URI("http://a:80");
+    final URI b = new URI("http://b:80");
+
+    final HTTPConnection a1 = createConnection(a);
+    final HTTPConnection b1 = createConnection(b);
+    final HTTPConnection a2 = createConnection(a);
+
+    pool.checkIn(a, a1);
+    m_time += 50;
+    pool.checkIn(b, b1);
+    m_time += 50;
+    pool.checkIn(a, a2);
+
+    m_time += 1;
+    assertSame(b1, pool.checkOut(b));
+    assertEquals(1, m_stopped.size());
+    assertSame(a1, m_stopped.get(0));
+
+    m_time += 100;
+    assertNull(pool.checkOut(a));
+    assertEquals(2, m_stopped.size());
+    assertSame(a2, m_stopped.get(1));
+    assertEquals(0, pool.size());
+  }
+
+  @Test public void testMaximumSize() throws Exception {
+    final HTTPConnectionPool pool =
+      new HTTPConnectionPool(2, 100, m_timeAuthority);
+
+    final URI a = new URI("http://a:80");
+    final URI b = new URI("http://b:80");
+
+    final HTTPConnection a1 = createConnection(a);
+    final HTTPConnection a2 = createConnection(a);
+    final HTTPConnection b1 = createConnection(b);
+
+    pool.checkIn(a, a1);
+    pool.checkIn(a, a2);
+    pool.checkIn(b, b1);
+
+    assertEquals(2, pool.size());
+    assertEquals(1, m_stopped.size());
+    assertSame(a1, m_stopped.get(0));
+
+    assertSame(a2, pool.checkOut(a));
+    assertNull(pool.checkOut(a));
+
+    final HTTPConnectionPool emptyPool =
+      new HTTPConnectionPool(0, 100, m_timeAuthority);
+
+    emptyPool.checkIn(a, a2);
+    assertEquals(0, emptyPool.size());
+    assertEquals(2, m_stopped.size());
+    assertSame(a2, m_stopped.get(1));
+  }
+
+  @Test public void testClose() throws Exception {
+    final HTTPConnectionPool pool =
+      new HTTPConnectionPool(10, 100, m_timeAuthority);
+
+    final URI a = new URI("http://a:80");
+
+    final HTTPConnection a1 = createConnection(a);
+    final HTTPConnection a2 = createConnection(a);
+
+    pool.checkIn(a, a1);
+    pool.checkIn(a, a2);
+
+    pool.close();
+
+    assertEquals(0, pool.size());
+    assertEquals(2, m_stopped.size());
+    assertNull(pool.checkOut(a));
+
+    pool.close();
+    assertEquals(2, m_stopped.size());
+  }
+}
@@ -1,4 +1,4 @@
-// Copyright (C) 2008 - 2011 Philip Aston
+// Copyright (C) 2008 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import junit.framework.TestCase;
+import net.grinder.plugin.http.http2.HTTP2Transport;
 import net.grinder.testutility.RandomStubFactory;
 import net.grinder.util.BlockingClassLoader;
 import net.grinder.util.Sleeper;
@@ -128,6 +129,16 @@ public class TestHTTPConnectionWrapper extends TestCase {
     wrapper.setBandwidthLimit(0);
     assertSame(defaultBWLimiterFactory,
       connection.getBandwithLimiterFactoryForTest());
+
+    assertNull(connection.getRequestTransport());
+    defaults.setUseHTTP2(true);
+    new HTTPConnectionWrapper(connection, defaults, sleeper);
+    final HTTP2Transport transport =
+      (HTTP2Transport) connection.getRequestTransport();
+    wrapper.setUseHTTP2(true);
+    assertSame(transport, connection.getRequestTransport());
+    wrapper.setUseHTTP2(false);
+    assertNull(connection.getRequestTransport());
   }
 
   private void assertModule(HTTPConnection connection,
@@ -22,6 +22,7 @@
 package net.grinder.plugin.http;
 
 import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -29,12 +30,15 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.net.URLClassLoader;
 import java.util.Collections;
 
 import net.grinder.common.GrinderException;
+import net.grinder.common.GrinderProperties;
 import net.grinder.plugininterface.GrinderPlugin;
 import net.grinder.plugininterface.PluginException;
 import net.grinder.plugininterface.PluginProcessContext;
@@ -42,8 +46,12 @@ import net.grinder.plugininterface.PluginRegistry;
 import net.grinder.plugininterface.PluginThreadContext;
 import net.grinder.plugininterface.PluginThreadListener;
 import net.grinder.script.Grinder.ScriptContext;
+import net.grinder.script.SSLControl;
 import net.grinder.script.Statistics;
 import net.grinder.util.BlockingClassLoader;
+import net.grinder.util.StandardTimeAuthority;
+import HTTPClient.HTTPConnection;
+import HTTPClient.URI;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -61,12 +69,19 @@ public class TestHTTPPlugin {
   @Mock private PluginProcessContext m_pluginProcessContext;
   @Mock private ScriptContext m_scriptContext;
   @Mock private Statistics m_statistics;
+  @Mock private SSLControl m_sslControl;
+
+  private final GrinderProperties m_properties = new GrinderProperties();
 
   @Before public void setUp() {
     MockitoAnnotations.initMocks(this);
 
     when(m_pluginProcessContext.getScriptContext()).thenReturn(m_scriptContext);
     when(m_scriptContext.getStatistics()).thenReturn(m_statistics);
+    when(m_scriptContext.getProperties()).thenReturn(m_properties);
+    when(m_scriptContext.getSSLControl()).thenReturn(m_sslControl);
+    when(m_pluginProcessContext.getTimeAuthority())
+      .thenReturn(new StandardTimeAuthority());
   }
 
   @Test public void testInitialiseWithBadHTTPClient() throws Exception {
@@ -131,4 +146,101 @@ public class TestHTTPPlugin {
 
     assertNotNull(threadListener);
   }
+
+  @Test public void testCreateThreadListenerWithConnectionReuse()
+    throws Exception {
+
+    final PluginThreadContext
+      pluginThreadContext = mock(PluginThreadContext.class);
+
+    final HTTPPlugin plugin = new HTTPPlugin();
+    plugin.initialize(m_pluginProcessContext);
+
+    plugin.createThreadListener(pluginThreadContext);
+    verifyNoMoreInteractions(m_sslControl);
+
+    m_properties.setProperty("grinder.http.connectionReuse", "thread");
+
+    final HTTPPlugin plugin2 = new HTTPPlugin();
+    plugin2.initialize(m_pluginProcessContext);
+    verify(m_sslControl).setShareContextBetweenRuns(true);
+
+    assertNotNull(plugin2.createThreadListener(pluginThreadContext));
+    assertNotNull(plugin2.createThreadListener(pluginThreadContext));
+    verifyNoMoreInteractions(m_sslControl);
+
+    m_properties.setProperty("grinder.http.connectionReuse", "process");
+
+    final HTTPPlugin plugin3 = new HTTPPlugin();
+    plugin3.initialize(m_pluginProcessContext);
+
+    final PluginThreadListener listener1 =
+      plugin3.createThreadListener(pluginThreadContext);
+    final PluginThreadListener listener2 =
+      plugin3.createThreadListener(pluginThreadContext);
+
+    final HTTPConnectionPool pool = plugin3.getProcessConnectionPool();
+    assertNotNull(pool);
+    assertSame(pool, plugin3.getProcessConnectionPool());
+
+    pool.checkIn(new URI("http://blah.com"),
+                 new HTTPConnection("blah.com", 80));
+
+    // The pool is closed when the last thread using it ends.
+    listener1.endThread();
+    assertEquals(1, pool.size());
+    listener2.endThread();
+    assertEquals(0, pool.size());
+
+    m_properties.setProperty("grinder.http.connectionReuse", "foo");
+
+    try {
+      new HTTPPlugin().initialize(m_pluginProcessContext);
+      fail("Expected PluginException");
+    }
+    catch (PluginException e) {
+    }
+  }
+
+  @Test public void testCreateThreadListenerWithTrafficShaping()
+    throws Exception {
+
+    final HTTPPlugin plugin = new HTTPPlugin();
+
+    plugin.initialize(m_pluginProcessContext);
+
+    final PluginThreadContext
+      pluginThreadContext = mock(PluginThreadContext.class);
+
+    final TrafficShaper defaultShaper =
+      ((HTTPPluginThreadState)
+        plugin.createThreadListener(pluginThreadContext)).getTrafficShaper();
+
+    assertEquals(0, defaultShaper.getDownloadLimit());
+    assertEquals(0, defaultShaper.getUploadLimit());
+    assertEquals(0, defaultShaper.getLatency());
+
+    m_properties.setProperty("grinder.http.shaping.downloadBPS", "64000");
+    m_properties.setProperty("grinder.http.shaping.uploadBPS", "16000");
+    m_properties.setProperty("grinder.http.shaping.latency", "80");
+    m_properties.setProperty("grinder.http.shaping.jitter", "10");
+
+    final TrafficShaper shaper =
+      ((HTTPPluginThreadState)
+        plugin.createThreadListener(pluginThreadContext)).getTrafficShaper();
+
+    assertEquals(64000, shaper.getDownloadLimit());
+    assertEquals(16000, shaper.getUploadLimit());
+    assertEquals(80, shaper.getLatency());
+    assertEquals(10, shaper.getJitter());
+
+    m_properties.setProperty("grinder.http.shaping.latency", "-1");
+
+    try {
+      plugin.createThreadListener(pluginThreadContext);
+      fail("Expected PluginException");
+    }
+    catch (PluginException e) {
+    }
+  }
 }
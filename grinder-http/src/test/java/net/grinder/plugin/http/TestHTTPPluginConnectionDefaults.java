@@ -1,4 +1,4 @@
-// Copyright (C) 2008 Philip Aston
+// Copyright (C) 2008 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -94,6 +94,10 @@ public class TestHTTPPluginConnectionDefaults extends TestCase {
     defaults.setBandwidthLimit(99);
     assertEquals(99, defaults.getBandwidthLimit());
 
+    assertFalse(defaults.getUseHTTP2());
+    defaults.setUseHTTP2(true);
+    assertTrue(defaults.getUseHTTP2());
+
     // Cover no-op.
     defaults.close();
   }
@@ -28,6 +28,7 @@ import static org.mockito.Mockito.RETURNS_MOCKS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import net.grinder.common.GrinderException;
+import net.grinder.common.GrinderProperties;
 import net.grinder.plugininterface.GrinderPlugin;
 import net.grinder.plugininterface.PluginProcessContext;
 import net.grinder.plugininterface.PluginRegistry;
@@ -61,6 +62,7 @@ public class TestHTTPPluginControl {
     when(pluginProcessContext.getPluginThreadListener())
       .thenReturn(threadState);
     when(pluginProcessContext.getScriptContext()).thenReturn(scriptContext);
+    when(scriptContext.getProperties()).thenReturn(new GrinderProperties());
 
     new PluginRegistry() {
       { setInstance(this); }
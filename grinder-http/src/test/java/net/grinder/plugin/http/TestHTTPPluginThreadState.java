@@ -21,13 +21,20 @@
 
 package net.grinder.plugin.http;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import net.grinder.common.SSLContextFactory;
+import net.grinder.plugin.http.dns.SystemResolver;
+import net.grinder.plugin.http.dns.ThreadResolver;
 import net.grinder.plugininterface.PluginThreadContext;
 import net.grinder.util.InsecureSSLContextFactory;
 import net.grinder.util.Sleeper;
+import net.grinder.util.StandardTimeAuthority;
+import net.grinder.util.TimeAuthority;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -53,6 +60,9 @@ public class TestHTTPPluginThreadState {
 
   @Mock private Sleeper m_sleeper;
 
+  private final ThreadResolver m_resolver =
+    new ThreadResolver(new SystemResolver(), false);
+
   @Before
   public void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
@@ -109,6 +119,157 @@ public class TestHTTPPluginThreadState {
     pluginThreadState.beginShutdown();
   }
 
+  @Test
+  public void testConnectionReuse() throws Exception {
+    final TimeAuthority timeAuthority = new StandardTimeAuthority();
+
+    final HTTPConnectionPool pool =
+      new HTTPConnectionPool(10, 60000, timeAuthority);
+    final HTTPConnectionPool sslPool =
+      new HTTPConnectionPool(10, 60000, timeAuthority);
+
+    final HTTPPluginThreadState pluginThreadState =
+      new HTTPPluginThreadState(m_threadContext,
+                                m_sslContextFactory,
+                                m_sleeper,
+                                timeAuthority,
+                                pool,
+                                sslPool,
+                                m_resolver);
+
+    pluginThreadState.beginThread();
+    pluginThreadState.beginRun();
+
+    final HTTPConnectionWrapper wrapper1 =
+      pluginThreadState.getConnectionWrapper(new URI("http://blah.com"));
+
+    assertFalse(wrapper1.clearKeptFromEarlierRun());
+
+    final HTTPConnectionWrapper sslWrapper =
+      pluginThreadState.getConnectionWrapper(new URI("https://blah.com"));
+
+    pluginThreadState.endRun();
+
+    assertEquals(1, pool.size());
+    assertEquals(1, sslPool.size());
+
+    pluginThreadState.beginRun();
+
+    final HTTPConnectionWrapper wrapper2 =
+      pluginThreadState.getConnectionWrapper(new URI("http://blah.com/lah"));
+
+    assertNotSame(wrapper1, wrapper2);
+    assertSame(wrapper1.getConnection(), wrapper2.getConnection());
+    assertEquals(0, pool.size());
+    assertTrue(wrapper2.clearKeptFromEarlierRun());
+    assertFalse(wrapper2.clearKeptFromEarlierRun());
+
+    pluginThreadState.endRun();
+
+    // Another thread sharing the pool for http connections.
+    final HTTPConnectionPool sslPool2 =
+      new HTTPConnectionPool(10, 60000, timeAuthority);
+
+    final HTTPPluginThreadState pluginThreadState2 =
+      new HTTPPluginThreadState(m_threadContext,
+                                m_sslContextFactory,
+                                m_sleeper,
+                                timeAuthority,
+                                pool,
+                                sslPool2,
+                                m_resolver);
+
+    pluginThreadState2.beginThread();
+    pluginThreadState2.beginRun();
+
+    final HTTPConnectionWrapper wrapper3 =
+      pluginThreadState2.getConnectionWrapper(new URI("http://blah.com"));
+
+    assertSame(wrapper1.getConnection(), wrapper3.getConnection());
+    assertSame(pluginThreadState2, wrapper3.getConnection().getContext());
+
+    // SSL connections are not shared with other threads.
+    final HTTPConnectionWrapper sslWrapper2 =
+      pluginThreadState2.getConnectionWrapper(new URI("https://blah.com"));
+
+    assertNotSame(sslWrapper.getConnection(), sslWrapper2.getConnection());
+    assertFalse(sslWrapper2.clearKeptFromEarlierRun());
+    assertEquals(1, sslPool.size());
+
+    pluginThreadState2.endRun();
+    pluginThreadState2.endThread();
+
+    assertEquals(1, pool.size());
+    assertEquals(0, sslPool2.size());
+
+    pluginThreadState.endThread();
+
+    assertEquals(0, pool.size());
+    assertEquals(0, sslPool.size());
+  }
+
+  @Test public void testResolver() throws Exception {
+    final HTTPRequestHandler handler = new HTTPRequestHandler();
+    handler.start();
+
+    try {
+      final HTTPPluginThreadState pluginThreadState =
+        new HTTPPluginThreadState(m_threadContext,
+                                  m_sslContextFactory,
+                                  m_sleeper,
+                                  new StandardTimeAuthority(),
+                                  null,
+                                  null,
+                                  m_resolver);
+
+      assertSame(m_resolver, pluginThreadState.getResolver());
+
+      m_resolver.setAddresses("test.invalid", new String[] { "127.0.0.1" });
+
+      final int port = new URI(handler.getURL()).getPort();
+
+      final HTTPConnection connection =
+        pluginThreadState.getConnectionWrapper(
+          new URI("http://test.invalid:" + port)).getConnection();
+
+      assertEquals(200, connection.Get("/").getStatusCode());
+    }
+    finally {
+      handler.shutdown();
+    }
+  }
+
+  @Test public void testTrafficShaper() throws Exception {
+    final HTTPRequestHandler handler = new HTTPRequestHandler();
+    handler.start();
+
+    try {
+      final HTTPPluginThreadState pluginThreadState =
+        new HTTPPluginThreadState(m_threadContext,
+                                  m_sslContextFactory,
+                                  m_sleeper,
+                                  new StandardTimeAuthority());
+
+      final TrafficShaper trafficShaper = pluginThreadState.getTrafficShaper();
+      assertNotNull(trafficShaper);
+      assertSame(trafficShaper, pluginThreadState.getTrafficShaper());
+
+      trafficShaper.setDownloadLimit(8000);
+      trafficShaper.setUploadLimit(8000);
+
+      final HTTPConnection connection =
+        pluginThreadState.getConnectionWrapper(new URI(handler.getURL()))
+        .getConnection();
+
+      assertEquals(200, connection.Get("/").getStatusCode());
+      assertEquals(200,
+                   connection.Post("/", new byte[1000]).getStatusCode());
+    }
+    finally {
+      handler.shutdown();
+    }
+  }
+
   @Test public void testSetResponse() throws Exception {
     final HTTPRequestHandler handler = new HTTPRequestHandler();
     handler.start();
@@ -34,6 +34,7 @@ import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -41,18 +42,27 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
 import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 import net.grinder.common.GrinderException;
+import net.grinder.common.GrinderProperties;
 import net.grinder.common.SSLContextFactory;
 import net.grinder.engine.process.dcr.DCRContextImplementation;
 import net.grinder.plugininterface.GrinderPlugin;
 import net.grinder.plugininterface.PluginException;
 import net.grinder.plugininterface.PluginProcessContext;
 import net.grinder.plugininterface.PluginRegistry;
+import net.grinder.plugin.http.dns.SystemResolver;
+import net.grinder.plugin.http.dns.ThreadResolver;
 import net.grinder.plugininterface.PluginThreadContext;
 import net.grinder.script.Grinder.ScriptContext;
 import net.grinder.script.InvalidContextException;
@@ -76,10 +86,12 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.slf4j.Logger;
 
+import HTTPClient.HTTPConnection;
 import HTTPClient.HTTPResponse;
 import HTTPClient.HttpURLConnection;
 import HTTPClient.NVPair;
 import HTTPClient.ParseException;
+import HTTPClient.URI;
 
 
 /**
@@ -118,6 +130,7 @@ public class TestHTTPRequest {
 
     when(m_scriptContext.getStatistics()).thenReturn(m_statistics);
     when(m_scriptContext.getLogger()).thenReturn(m_logger);
+    when(m_scriptContext.getProperties()).thenReturn(new GrinderProperties());
 
     when(m_pluginProcessContext.getPluginThreadListener())
       .thenReturn(threadState);
@@ -995,6 +1008,140 @@ public class TestHTTPRequest {
     assertEquals("", response.getText());
   }
 
+  /**
+   * A server that answers every request on a connection with a short
+   * response, and keeps the connection open.
+   */
+  private static ServerSocket startKeepAliveServer() throws Exception {
+    final ServerSocket serverSocket = new ServerSocket(0);
+
+    final Thread thread = new Thread("Keep alive server") {
+        @Override public void run() {
+          try {
+            while (true) {
+              final Socket socket = serverSocket.accept();
+
+              final Thread connectionThread = new Thread() {
+                  @Override public void run() {
+                    try {
+                      serveKeepAlive(socket);
+                    }
+                    catch (final Exception e) {
+                      // Connection closed.
+                    }
+                  }
+                };
+
+              connectionThread.setDaemon(true);
+              connectionThread.start();
+            }
+          }
+          catch (final Exception e) {
+            // Server socket closed.
+          }
+        }
+      };
+
+    thread.setDaemon(true);
+    thread.start();
+
+    return serverSocket;
+  }
+
+  private static void serveKeepAlive(Socket socket) throws Exception {
+    final InputStream in = socket.getInputStream();
+    final OutputStream out = socket.getOutputStream();
+
+    int matched = 0;
+    int c;
+
+    while ((c = in.read()) != -1) {
+      matched = (c == (matched % 2 == 0 ? '\r' : '\n')) ?
+        matched + 1 : (c == '\r' ? 1 : 0);
+
+      if (matched == 4) {
+        out.write(
+          "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes());
+        out.flush();
+        matched = 0;
+      }
+    }
+
+    socket.close();
+  }
+
+  @Test public void testConnectionReuseStatistics() throws Exception {
+    final ServerSocket server = startKeepAliveServer();
+
+    try {
+      final TimeAuthority timeAuthority = new StandardTimeAuthority();
+      final HTTPConnectionPool pool =
+        new HTTPConnectionPool(10, 60000, timeAuthority);
+
+      final HTTPPluginThreadState threadState =
+        new HTTPPluginThreadState(m_threadContext,
+                                  m_sslContextFactory,
+                                  null,
+                                  timeAuthority,
+                                  pool,
+                                  pool,
+                                  new ThreadResolver(new SystemResolver(),
+                                                     false));
+
+      when(m_pluginProcessContext.getPluginThreadListener())
+        .thenReturn(threadState);
+
+      when(m_statistics.isTestInProgress()).thenReturn(true);
+      when(m_statistics.getForCurrentTest()).thenReturn(m_statisticsForTest);
+
+      final String url = "http://localhost:" + server.getLocalPort();
+
+      // Count each new socket as a full SSL handshake, as it would be for
+      // an https connection.
+      pool.checkIn(new URI(url),
+                   new HTTPConnection(new URI(url)) {
+                     @Override public long getFullHandshakes() {
+                       return getConnectionsEstablished();
+                     }
+                   });
+
+      final HTTPRequest request = new HTTPRequest();
+
+      threadState.beginRun();
+      assertEquals(200, request.GET(url).getStatusCode());
+      threadState.endRun();
+
+      verify(m_statisticsForTest)
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED, 1);
+      verify(m_statisticsForTest)
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_TLS_FULL_HANDSHAKES, 1);
+      verify(m_statisticsForTest, never())
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_REUSED, 1);
+
+      reset(m_statisticsForTest);
+
+      // The next run uses the same socket, so there is no handshake.
+      threadState.beginRun();
+      assertEquals(200, request.GET(url).getStatusCode());
+      threadState.endRun();
+
+      verify(m_statisticsForTest)
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_REUSED, 1);
+      verify(m_statisticsForTest, never())
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_CONNECTIONS_ESTABLISHED, 1);
+      verify(m_statisticsForTest, never())
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_TLS_FULL_HANDSHAKES, 1);
+      verify(m_statisticsForTest, never())
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_TLS_RESUMED_HANDSHAKES, 1);
+
+      threadState.endThread();
+      assertEquals(0, pool.size());
+    }
+    finally {
+      server.close();
+    }
+  }
+
   @Test public void testSetReadResponseBody() throws Exception {
 
     final ListTimeAuthority timeAuthority =
@@ -1058,6 +1205,141 @@ public class TestHTTPRequest {
     }
   }
 
+  @Test public void testResponseBodyRetention() throws Exception {
+    when(m_statistics.isTestInProgress()).thenReturn(true);
+    when(m_statistics.getForCurrentTest()).thenReturn(m_statisticsForTest);
+
+    final HTTPRequest request = new HTTPRequest();
+    assertEquals(-1, request.getResponseBodyRetention());
+
+    try {
+      request.setResponseBodyRetention(-2);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (final IllegalArgumentException e) {
+    }
+
+    request.setResponseBodyRetention(10);
+    assertEquals(10, request.getResponseBodyRetention());
+
+    final String bodyText = "Out of the blue and into the black\n";
+    m_handler.setBody(bodyText);
+
+    final HTTPResponse response = request.GET(m_handler.getURL());
+    assertEquals(200, response.getStatusCode());
+    assertEquals(bodyText.substring(0, 10), response.getText());
+
+    verify(m_statisticsForTest)
+      .addLong(StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY,
+               bodyText.length());
+
+    request.setResponseBodyRetention(0);
+
+    final HTTPResponse response2 = request.GET(m_handler.getURL());
+    assertEquals(0, response2.getData().length);
+
+    verify(m_statisticsForTest, times(2))
+      .addLong(StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY,
+               bodyText.length());
+    verify(m_statisticsForTest, times(0)).setSuccess(false);
+  }
+
+  @Test public void testExpectedResponseBody() throws Exception {
+    when(m_statistics.isTestInProgress()).thenReturn(true);
+    when(m_statistics.getForCurrentTest()).thenReturn(m_statisticsForTest);
+
+    final String bodyText = "Rust never sleeps\n";
+    m_handler.setBody(bodyText);
+
+    final HTTPRequest request = new HTTPRequest();
+    request.setExpectedResponseLength(bodyText.length());
+    request.setExpectedResponseDigest("MD5",
+                                      TestResponseBodyValidator.md5(bodyText));
+
+    final HTTPResponse response = request.GET(m_handler.getURL());
+    assertEquals(bodyText, response.getText());
+    verify(m_statisticsForTest, times(0)).setSuccess(false);
+
+    request.setExpectedResponseLength(-1);
+    request.setExpectedResponseDigest("SHA-1",
+                                      TestResponseBodyValidator.md5(bodyText));
+
+    request.GET(m_handler.getURL());
+    verify(m_statisticsForTest).setSuccess(false);
+    verify(m_logger).error(m_stringCaptor.capture());
+    assertContains(m_stringCaptor.getValue(), "SHA-1 digest");
+
+    request.setExpectedResponseDigest(null, null);
+    request.setExpectedResponseLength(1);
+
+    request.GET(m_handler.getURL());
+    verify(m_statisticsForTest, times(2)).setSuccess(false);
+
+    try {
+      request.setExpectedResponseDigest("foo", "");
+      fail("Expected NoSuchAlgorithmException");
+    }
+    catch (final NoSuchAlgorithmException e) {
+    }
+  }
+
+  @Test public void testContentEncoding() throws Exception {
+    when(m_statistics.isTestInProgress()).thenReturn(true);
+    when(m_statistics.getForCurrentTest()).thenReturn(m_statisticsForTest);
+
+    final StringBuilder text = new StringBuilder();
+
+    for (int i = 0; i < 1000; ++i) {
+      text.append("Hey hey, my my\n");
+    }
+
+    final String bodyText = text.toString();
+
+    final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    final GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream);
+    gzipStream.write(bodyText.getBytes());
+    gzipStream.close();
+    final byte[] compressed = byteStream.toByteArray();
+
+    m_handler.addHeader("Content-Encoding", "gzip");
+    m_handler.setBodyBytes(compressed);
+
+    HTTPPluginControl.getConnectionDefaults().setUseContentEncoding(true);
+
+    try {
+      final HTTPRequest request = new HTTPRequest();
+      request.setExpectedResponseLength(bodyText.length());
+
+      final HTTPResponse response = request.GET(m_handler.getURL());
+      assertEquals(bodyText, response.getText());
+      assertNull(response.getHeader("Content-Encoding"));
+
+      verify(m_statisticsForTest)
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_RESPONSE_LENGTH_KEY,
+                 compressed.length);
+      verify(m_statisticsForTest)
+        .addLong(StatisticsIndexMap.HTTP_PLUGIN_DECODED_RESPONSE_LENGTH_KEY,
+                 bodyText.length());
+      verify(m_statisticsForTest, times(0)).setSuccess(false);
+
+      // The clock is stopped whilst the body is decoded, and for the
+      // response processing.
+      verify(m_threadContext, times(2)).pauseClock();
+      verify(m_threadContext, times(2)).resumeClock();
+
+      request.setResponseBodyRetention(4);
+      assertEquals("Hey ", request.GET(m_handler.getURL()).getText());
+
+      // The decoded body is validated.
+      request.setExpectedResponseLength(compressed.length);
+      request.GET(m_handler.getURL());
+      verify(m_statisticsForTest).setSuccess(false);
+    }
+    finally {
+      HTTPPluginControl.getConnectionDefaults().setUseContentEncoding(false);
+    }
+  }
+
   @Test public void testWithBadStatistics() throws Exception {
 
     when(m_statistics.isTestInProgress()).thenReturn(true);
@@ -1250,5 +1532,10 @@ public class TestHTTPRequest {
     public long getTimeInMilliseconds() {
       return m_times[++m_last];
     }
+
+    @Override
+    public long getTimeInNanoseconds() {
+      return getTimeInMilliseconds() * 1000000;
+    }
   }
 }
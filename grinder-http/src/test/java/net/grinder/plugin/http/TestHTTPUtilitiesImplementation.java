@@ -29,6 +29,7 @@ import static org.junit.Assert.assertSame;
 import static org.mockito.Answers.RETURNS_MOCKS;
 import static org.mockito.Mockito.when;
 import net.grinder.common.GrinderException;
+import net.grinder.common.GrinderProperties;
 import net.grinder.common.SSLContextFactory;
 import net.grinder.plugininterface.GrinderPlugin;
 import net.grinder.plugininterface.PluginProcessContext;
@@ -77,6 +78,7 @@ public class TestHTTPUtilitiesImplementation {
                                 timeAuthority);
 
     when(m_scriptContext.getStatistics()).thenReturn(m_statistics);
+    when(m_scriptContext.getProperties()).thenReturn(new GrinderProperties());
 
     when(m_pluginProcessContext.getPluginThreadListener())
       .thenReturn(threadState);
@@ -0,0 +1,171 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import HTTPClient.HTTPConnection;
+import HTTPClient.HTTPResponse;
+
+
+/**
+ * Unit tests for {@link ResponseBodyValidator}, and the streaming of
+ * response bodies it supports.
+ *
+ * @author Philip Aston
+ */
+public class TestResponseBodyValidator {
+
+  private static final String BODY =
+    "All the ducks are swimming in the water\nFal de ral de ral do\n";
+
+  private HTTPRequestHandler m_handler;
+
+  static String md5(String s) throws Exception {
+    return ResponseBodyValidator.toHex(
+      MessageDigest.getInstance("MD5").digest(s.getBytes("ISO-8859-1")));
+  }
+
+  @Before public void setUp() throws Exception {
+    m_handler = new HTTPRequestHandler();
+    m_handler.setBody(BODY);
+    m_handler.start();
+  }
+
+  @After public void tearDown() throws Exception {
+    m_handler.shutdown();
+  }
+
+  @Test public void testCheck() throws Exception {
+    final byte[] bytes = BODY.getBytes("ISO-8859-1");
+
+    final ResponseBodyValidator noChecks =
+      new ResponseBodyValidator(-1, null, null);
+    noChecks.write(bytes);
+    assertNull(noChecks.check(123));
+
+    final ResponseBodyValidator length =
+      new ResponseBodyValidator(bytes.length, null, null);
+    assertNull(length.check(bytes.length));
+    assertEquals("expected " + bytes.length + " bytes",
+                 length.check(bytes.length - 1));
+
+    final String digest = md5(BODY);
+
+    final ResponseBodyValidator good =
+      new ResponseBodyValidator(-1, "MD5", digest.toUpperCase());
+    good.write(bytes, 0, 10);
+    good.write(bytes[10]);
+    good.write(bytes, 11, bytes.length - 11);
+    assertNull(good.check(bytes.length));
+
+    final ResponseBodyValidator bad =
+      new ResponseBodyValidator(bytes.length, "MD5", digest);
+    bad.write(bytes, 1, bytes.length - 1);
+    assertTrue(bad.check(bytes.length).startsWith("MD5 digest "));
+
+    try {
+      new ResponseBodyValidator(-1, "foo", digest);
+      fail("Expected NoSuchAlgorithmException");
+    }
+    catch (NoSuchAlgorithmException e) {
+    }
+  }
+
+  private HTTPResponse get() throws Exception {
+    final HTTPConnection connection = new HTTPConnection(
+      new HTTPClient.URI(m_handler.getURL()));
+
+    return connection.Get("/");
+  }
+
+  @Test public void testToHex() throws Exception {
+    assertEquals("", ResponseBodyValidator.toHex(new byte[0]));
+    assertEquals("00017f80ff",
+                 ResponseBodyValidator.toHex(
+                   new byte[] { 0, 1, 127, -128, -1 }));
+    assertEquals("d41d8cd98f00b204e9800998ecf8427e", md5(""));
+  }
+
+  @Test public void testReadData() throws Exception {
+    final byte[] buffer = new byte[7];
+    final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+    final HTTPResponse response = get();
+    assertEquals(BODY.length(), response.readData(buffer, 5, sink));
+    assertEquals(BODY, sink.toString("ISO-8859-1"));
+    assertEquals(BODY.substring(0, 5), response.getText());
+
+    // Subsequent reads use the retained data.
+    sink.reset();
+    assertEquals(BODY.length(), response.readData(buffer, 5, sink));
+    assertEquals(BODY.substring(0, 5), sink.toString("ISO-8859-1"));
+  }
+
+  @Test public void testReadDataWithContentLength() throws Exception {
+    m_handler.addHeader("Content-Length", Integer.toString(BODY.length()));
+
+    final ResponseBodyValidator validator =
+      new ResponseBodyValidator(BODY.length(), "SHA-1", "");
+
+    final HTTPResponse response = get();
+    final long length =
+      response.readData(new byte[3], Integer.MAX_VALUE, validator);
+
+    assertEquals(BODY.length(), length);
+    assertTrue(validator.check(length).startsWith("SHA-1 digest "));
+    assertEquals(BODY, response.getText());
+  }
+
+  @Test public void testReadDataAfterGetData() throws Exception {
+    final HTTPResponse response = get();
+    assertEquals(BODY, response.getText());
+
+    final ResponseBodyValidator validator =
+      new ResponseBodyValidator(BODY.length(),
+                                "MD5",
+                                md5(BODY));
+
+    final long length = response.readData(new byte[3], 0, validator);
+    assertEquals(BODY.length(), length);
+    assertNull(validator.check(length));
+  }
+
+  @Test public void testReadDataNoBody() throws Exception {
+    m_handler.setBody(null);
+
+    final HTTPResponse response = get();
+    assertEquals(0, response.readData(new byte[10], 10, null));
+    assertEquals(0, response.getData().length);
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import net.grinder.util.TimeAuthority;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link TokenBucket}.
+ *
+ * @author Philip Aston
+ */
+public class TestTokenBucket {
+
+  private long m_time = 1000;
+
+  private final TimeAuthority m_timeAuthority = new TimeAuthority() {
+      public long getTimeInMilliseconds() {
+        return m_time;
+      }
+
+      public long getTimeInNanoseconds() {
+        return m_time * 1000000;
+      }
+    };
+
+  @Test public void testReserve() throws Exception {
+    final TokenBucket bucket = new TokenBucket(m_timeAuthority, 10000);
+    assertEquals(200, bucket.getChunkSize());
+    assertEquals(10000, bucket.getBytesPerSecond());
+
+    // The bucket starts full.
+    assertEquals(0, bucket.reserve(200));
+
+    // 100 bytes take 10 ms.
+    assertEquals(10, bucket.reserve(100));
+    assertEquals(30, bucket.reserve(200));
+
+    m_time += 30;
+    assertEquals(0, bucket.reserve(0));
+    assertEquals(20, bucket.reserve(200));
+
+    // Tokens do not accumulate beyond the capacity.
+    m_time += 10000;
+    assertEquals(0, bucket.reserve(200));
+    assertEquals(1, bucket.reserve(1));
+  }
+
+  @Test public void testRefund() throws Exception {
+    final TokenBucket bucket = new TokenBucket(m_timeAuthority, 10000);
+
+    assertEquals(20, bucket.reserve(400));
+    bucket.refund(200);
+    assertEquals(10, bucket.reserve(100));
+
+    // Refunds do not fill the bucket beyond its capacity.
+    bucket.refund(1000);
+    assertEquals(0, bucket.reserve(200));
+    assertEquals(10, bucket.reserve(100));
+  }
+
+  @Test public void testSmallRates() throws Exception {
+    final TokenBucket bucket = new TokenBucket(m_timeAuthority, 1);
+    assertEquals(100, bucket.getChunkSize());
+    assertEquals(0, bucket.reserve(100));
+    assertEquals(1000, bucket.reserve(1));
+
+    try {
+      new TokenBucket(m_timeAuthority, 0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+}
@@ -0,0 +1,179 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.grinder.util.Sleeper;
+import HTTPClient.HTTPConnection.BandwidthLimiter;
+import HTTPClient.HTTPConnection.BandwidthLimiterFactory;
+import HTTPClient.HTTPConnection.DirectionalBandwidthLimiterFactory;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link TrafficShaper}.
+ *
+ * @author Philip Aston
+ */
+public class TestTrafficShaper {
+
+  private long m_time = 1000;
+  private final List<String> m_sleeps = new ArrayList<String>();
+
+  private final Sleeper m_sleeper = new Sleeper() {
+      public long getTimeInMilliseconds() {
+        return m_time;
+      }
+
+      public long getTimeInNanoseconds() {
+        return m_time * 1000000;
+      }
+
+      public void shutdown() {
+      }
+
+      public void sleepNormal(long meanTime) {
+        sleepNormal(meanTime, meanTime / 10);
+      }
+
+      public void sleepNormal(long meanTime, long sigma) {
+        m_sleeps.add(meanTime + "/" + sigma);
+        m_time += meanTime;
+      }
+
+      public void sleepFlat(long maximumTime) {
+        fail("Unexpected sleepFlat");
+      }
+    };
+
+  @Test public void testDefaults() throws Exception {
+    final TrafficShaper shaper = new TrafficShaper(m_sleeper);
+
+    assertEquals(0, shaper.getDownloadLimit());
+    assertEquals(0, shaper.getUploadLimit());
+    assertEquals(0, shaper.getLatency());
+    assertEquals(0, shaper.getJitter());
+
+    shaper.addLatency();
+
+    final DirectionalBandwidthLimiterFactory factory =
+      (DirectionalBandwidthLimiterFactory)
+      shaper.createBandwidthLimiterFactory(null);
+
+    assertEquals(Integer.MAX_VALUE, factory.create().maximumBytes(0));
+    assertEquals(Integer.MAX_VALUE,
+                 factory.createForRequest().maximumBytes(0));
+    assertEquals(0, m_sleeps.size());
+  }
+
+  @Test public void testLatency() throws Exception {
+    final TrafficShaper shaper = new TrafficShaper(m_sleeper);
+
+    shaper.setLatency(50, 5);
+    assertEquals(50, shaper.getLatency());
+    assertEquals(5, shaper.getJitter());
+
+    shaper.addLatency();
+    assertEquals("[50/5]", m_sleeps.toString());
+
+    try {
+      shaper.setLatency(-1, 0);
+      fail("Expected IllegalArgumentException");
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test public void testSharedDownloadLimit() throws Exception {
+    final TrafficShaper shaper = new TrafficShaper(m_sleeper);
+
+    // 8000 bits per second, 1000 bytes per second, 100 byte chunks.
+    shaper.setDownloadLimit(8000);
+    assertEquals(8000, shaper.getDownloadLimit());
+    assertEquals(0, shaper.getUploadLimit());
+
+    final DirectionalBandwidthLimiterFactory factory1 =
+      (DirectionalBandwidthLimiterFactory)
+      shaper.createBandwidthLimiterFactory(null);
+    final BandwidthLimiterFactory factory2 =
+      shaper.createBandwidthLimiterFactory(null);
+
+    assertEquals(Integer.MAX_VALUE,
+                 factory1.createForRequest().maximumBytes(0));
+
+    final BandwidthLimiter limiter1 = factory1.create();
+    final BandwidthLimiter limiter2 = factory2.create();
+
+    assertEquals(100, limiter1.maximumBytes(0));
+    assertEquals(0, m_sleeps.size());
+
+    // The second connection shares the bucket.
+    assertEquals(100, limiter2.maximumBytes(0));
+    assertEquals("[100/0]", m_sleeps.toString());
+
+    // Only 40 of the 100 bytes were used; the rest are refunded.
+    assertEquals(100, limiter1.maximumBytes(40));
+    assertEquals("[100/0, 40/0]", m_sleeps.toString());
+
+    // Sleeps are done outside of any lock, so the total time reflects the
+    // rate over both connections.
+    assertEquals(1140, m_time);
+  }
+
+  @Test public void testDelegate() throws Exception {
+    final TrafficShaper shaper = new TrafficShaper(m_sleeper);
+
+    final BandwidthLimiter delegateLimiter = new BandwidthLimiter() {
+        public int maximumBytes(int position) {
+          return 10;
+        }
+      };
+
+    final BandwidthLimiterFactory delegate = new BandwidthLimiterFactory() {
+        public BandwidthLimiter create() {
+          return delegateLimiter;
+        }
+      };
+
+    final DirectionalBandwidthLimiterFactory factory =
+      (DirectionalBandwidthLimiterFactory)
+      shaper.createBandwidthLimiterFactory(delegate);
+
+    assertSame(delegateLimiter, factory.create());
+    assertSame(delegateLimiter, factory.createForRequest());
+
+    shaper.setUploadLimit(8000);
+    assertTrue(factory.createForRequest() != delegateLimiter);
+    assertEquals(10, factory.createForRequest().maximumBytes(0));
+
+    shaper.setUploadLimit(0);
+    assertSame(delegateLimiter, factory.createForRequest());
+  }
+}
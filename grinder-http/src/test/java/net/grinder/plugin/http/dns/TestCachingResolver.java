@@ -0,0 +1,114 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import net.grinder.util.TimeAuthority;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link CachingResolver}.
+ *
+ * @author Philip Aston
+ */
+public class TestCachingResolver {
+
+  private long m_time = 1000;
+  private int m_lookups;
+
+  private final TimeAuthority m_timeAuthority = new TimeAuthority() {
+      public long getTimeInMilliseconds() {
+        return m_time;
+      }
+
+      public long getTimeInNanoseconds() {
+        return m_time * 1000000;
+      }
+    };
+
+  private final Resolver m_delegate = new Resolver() {
+      public InetAddress[] resolve(String host) throws UnknownHostException {
+        ++m_lookups;
+
+        if (host.startsWith("bad")) {
+          throw new UnknownHostException(host);
+        }
+
+        return new InetAddress[] {
+          InetAddress.getByName("10.0.0." + m_lookups),
+        };
+      }
+    };
+
+  @Test public void testCaching() throws Exception {
+    final CachingResolver resolver =
+      new CachingResolver(m_delegate, 100, m_timeAuthority);
+
+    final InetAddress[] a1 = resolver.resolve("a.com");
+    assertEquals(1, m_lookups);
+
+    m_time += 99;
+    assertSame(a1, resolver.resolve("a.com"));
+    assertSame(a1, resolver.resolve("A.com"));
+    assertEquals(1, m_lookups);
+
+    final InetAddress[] b1 = resolver.resolve("b.com");
+    assertEquals(2, m_lookups);
+
+    m_time += 1;
+    final InetAddress[] a2 = resolver.resolve("a.com");
+    assertEquals(3, m_lookups);
+    assertEquals("10.0.0.3", a2[0].getHostAddress());
+
+    assertSame(b1, resolver.resolve("b.com"));
+    assertEquals(3, m_lookups);
+  }
+
+  @Test public void testFailuresAreNotCached() throws Exception {
+    final CachingResolver resolver =
+      new CachingResolver(m_delegate, 100, m_timeAuthority);
+
+    for (int i = 0; i < 2; ++i) {
+      try {
+        resolver.resolve("bad.com");
+        fail("Expected UnknownHostException");
+      }
+      catch (UnknownHostException e) {
+      }
+    }
+
+    assertEquals(2, m_lookups);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNegativeTimeToLive() throws Exception {
+    new CachingResolver(m_delegate, -1, m_timeAuthority);
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link HostsResolver}.
+ *
+ * @author Philip Aston
+ */
+public class TestHostsResolver {
+
+  @Test public void testResolve() throws Exception {
+    final InetAddress[] delegated = {
+      InetAddress.getByName("10.0.0.9"),
+    };
+
+    final Resolver delegate = new Resolver() {
+        public InetAddress[] resolve(String host) {
+          return delegated;
+        }
+      };
+
+    final Map<String, InetAddress[]> hosts =
+      new HashMap<String, InetAddress[]>();
+
+    hosts.put("Server.Example.com",
+              new InetAddress[] { InetAddress.getByName("10.0.0.1") });
+
+    final HostsResolver resolver = new HostsResolver(hosts, delegate);
+
+    // The map is copied.
+    hosts.clear();
+
+    assertEquals("10.0.0.1",
+                 resolver.resolve("server.example.COM")[0].getHostAddress());
+    assertSame(delegated, resolver.resolve("other.example.com"));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testNoAddresses() throws Exception {
+    final Map<String, InetAddress[]> hosts =
+      new HashMap<String, InetAddress[]>();
+
+    hosts.put("foo", new InetAddress[0]);
+
+    new HostsResolver(hosts, new SystemResolver());
+  }
+}
@@ -0,0 +1,170 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import net.grinder.common.GrinderProperties;
+import net.grinder.plugininterface.PluginException;
+import net.grinder.util.StandardTimeAuthority;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ResolverFactory}.
+ *
+ * @author Philip Aston
+ */
+public class TestResolverFactory {
+
+  private final GrinderProperties m_properties = new GrinderProperties();
+
+  private final ResolverFactory m_factory =
+    new ResolverFactory(m_properties, new StandardTimeAuthority());
+
+  /**
+   * Custom resolver, used via the {@code grinder.http.dns.resolver}
+   * property.
+   */
+  public static final class MyResolver implements Resolver {
+    private static int s_lookups;
+
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+      ++s_lookups;
+      return new InetAddress[] {
+        InetAddress.getByName("10.9.0.1"),
+        InetAddress.getByName("10.9.0.2"),
+      };
+    }
+  }
+
+  @Test public void testDefault() throws Exception {
+    assertTrue(m_factory.createProcessResolver() instanceof SystemResolver);
+  }
+
+  @Test public void testHosts() throws Exception {
+    m_properties.setProperty(
+      "grinder.http.dns.hosts",
+      " www.example.com=10.0.0.1,10.0.0.2\tapi.example.com=10.0.0.3 ");
+
+    final Resolver resolver = m_factory.createProcessResolver();
+
+    final InetAddress[] www = resolver.resolve("WWW.example.com");
+    assertEquals(2, www.length);
+    assertEquals("10.0.0.1", www[0].getHostAddress());
+    assertEquals("10.0.0.2", www[1].getHostAddress());
+    assertEquals("10.0.0.3",
+                 resolver.resolve("api.example.com")[0].getHostAddress());
+    assertEquals("127.0.0.1",
+                 resolver.resolve("127.0.0.1")[0].getHostAddress());
+  }
+
+  @Test public void testBadHosts() throws Exception {
+    final String[] bad = { "foo", "=10.0.0.1", "foo=", "foo=10.0.0.1,", };
+
+    for (String hosts : bad) {
+      m_properties.setProperty("grinder.http.dns.hosts", hosts);
+
+      try {
+        m_factory.createProcessResolver();
+        fail("Expected PluginException for " + hosts);
+      }
+      catch (PluginException e) {
+      }
+    }
+  }
+
+  @Test public void testCustomResolverWithCacheAndSelection()
+    throws Exception {
+
+    m_properties.setProperty("grinder.http.dns.resolver",
+                             MyResolver.class.getName());
+    m_properties.setProperty("grinder.http.dns.timeToLive", "60000");
+    m_properties.setProperty("grinder.http.dns.selection", "roundRobin");
+
+    final Resolver resolver = m_factory.createProcessResolver();
+
+    final int lookups = MyResolver.s_lookups;
+
+    assertEquals("10.9.0.1", resolver.resolve("x")[0].getHostAddress());
+    assertEquals("10.9.0.2", resolver.resolve("x")[0].getHostAddress());
+    assertEquals("10.9.0.1", resolver.resolve("x")[0].getHostAddress());
+
+    assertEquals(lookups + 1, MyResolver.s_lookups);
+
+    m_properties.setProperty("grinder.http.dns.selection", "random");
+    m_factory.createProcessResolver();
+  }
+
+  @Test public void testBadProperties() throws Exception {
+    m_properties.setProperty("grinder.http.dns.selection", "foo");
+
+    try {
+      m_factory.createProcessResolver();
+      fail("Expected PluginException");
+    }
+    catch (PluginException e) {
+    }
+
+    m_properties.remove("grinder.http.dns.selection");
+
+    m_properties.setProperty("grinder.http.dns.resolver", "no.such.Class");
+
+    try {
+      m_factory.createProcessResolver();
+      fail("Expected PluginException");
+    }
+    catch (PluginException e) {
+    }
+
+    m_properties.setProperty("grinder.http.dns.resolver",
+                             String.class.getName());
+
+    try {
+      m_factory.createProcessResolver();
+      fail("Expected PluginException");
+    }
+    catch (PluginException e) {
+    }
+  }
+
+  @Test public void testCreateThreadResolver() throws Exception {
+    final Resolver processResolver = new MyResolver();
+
+    final ThreadResolver unpinned =
+      m_factory.createThreadResolver(processResolver);
+    assertTrue(unpinned.resolve("x") != unpinned.resolve("x"));
+
+    m_properties.setProperty("grinder.http.dns.pinPerThread", "true");
+
+    final ThreadResolver pinned =
+      m_factory.createThreadResolver(processResolver);
+    assertSame(pinned.resolve("x"), pinned.resolve("x"));
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link SelectingResolver}.
+ *
+ * @author Philip Aston
+ */
+public class TestSelectingResolver {
+
+  private static final InetAddress[] s_addresses;
+  private static final InetAddress[] s_single;
+
+  static {
+    try {
+      s_addresses = new InetAddress[] {
+        InetAddress.getByName("10.0.0.1"),
+        InetAddress.getByName("10.0.0.2"),
+        InetAddress.getByName("10.0.0.3"),
+      };
+
+      s_single = new InetAddress[] { InetAddress.getByName("10.0.1.1"), };
+    }
+    catch (Exception e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final Resolver m_delegate = new Resolver() {
+      public InetAddress[] resolve(String host) {
+        return host.equals("single.com") ? s_single : s_addresses;
+      }
+    };
+
+  @Test public void testRoundRobin() throws Exception {
+    final SelectingResolver resolver =
+      new SelectingResolver(m_delegate,
+                            SelectingResolver.Selection.ROUND_ROBIN,
+                            null);
+
+    assertArrayEquals(s_addresses, resolver.resolve("a.com"));
+
+    assertArrayEquals(
+      new InetAddress[] { s_addresses[1], s_addresses[2], s_addresses[0] },
+      resolver.resolve("a.com"));
+
+    // Each host has its own sequence.
+    assertArrayEquals(s_addresses, resolver.resolve("b.com"));
+
+    assertArrayEquals(
+      new InetAddress[] { s_addresses[2], s_addresses[0], s_addresses[1] },
+      resolver.resolve("A.com"));
+
+    assertArrayEquals(s_addresses, resolver.resolve("a.com"));
+
+    assertSame(s_single, resolver.resolve("single.com"));
+
+    // The delegate's result is not modified.
+    assertEquals("10.0.0.1", s_addresses[0].getHostAddress());
+  }
+
+  @Test public void testRandom() throws Exception {
+    final SelectingResolver resolver =
+      new SelectingResolver(m_delegate,
+                            SelectingResolver.Selection.RANDOM,
+                            new Random(1));
+
+    final Set<InetAddress> selected = new HashSet<InetAddress>();
+
+    for (int i = 0; i < 100; ++i) {
+      final InetAddress[] result = resolver.resolve("a.com");
+      assertEquals(3, result.length);
+      assertEquals(3, new HashSet<InetAddress>(Arrays.asList(result)).size());
+      selected.add(result[0]);
+    }
+
+    assertEquals(3, selected.size());
+  }
+}
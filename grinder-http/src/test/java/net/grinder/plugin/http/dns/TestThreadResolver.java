@@ -0,0 +1,99 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ThreadResolver}.
+ *
+ * @author Philip Aston
+ */
+public class TestThreadResolver {
+
+  private int m_lookups;
+
+  private final Resolver m_delegate = new Resolver() {
+      public InetAddress[] resolve(String host) throws UnknownHostException {
+        ++m_lookups;
+
+        return new InetAddress[] {
+          InetAddress.getByName("10.0.0." + m_lookups),
+        };
+      }
+    };
+
+  @Test public void testWithoutPinning() throws Exception {
+    final ThreadResolver resolver = new ThreadResolver(m_delegate, false);
+
+    final InetAddress[] a1 = resolver.resolve("a.com");
+    final InetAddress[] a2 = resolver.resolve("a.com");
+
+    assertNotSame(a1, a2);
+    assertEquals(2, m_lookups);
+  }
+
+  @Test public void testPinning() throws Exception {
+    final ThreadResolver resolver = new ThreadResolver(m_delegate, true);
+
+    final InetAddress[] a1 = resolver.resolve("a.com");
+    assertSame(a1, resolver.resolve("A.COM"));
+
+    final InetAddress[] b1 = resolver.resolve("b.com");
+    assertNotSame(a1, b1);
+    assertEquals(2, m_lookups);
+
+    resolver.clearPinned();
+
+    assertNotSame(a1, resolver.resolve("a.com"));
+    assertEquals(3, m_lookups);
+  }
+
+  @Test public void testOverrides() throws Exception {
+    final ThreadResolver resolver = new ThreadResolver(m_delegate, true);
+
+    resolver.resolve("a.com");
+
+    resolver.setAddresses("A.com", new String[] { "10.1.0.1", "10.1.0.2" });
+
+    final InetAddress[] overridden = resolver.resolve("a.com");
+    assertEquals(2, overridden.length);
+    assertEquals("10.1.0.1", overridden[0].getHostAddress());
+    assertEquals("10.1.0.2", overridden[1].getHostAddress());
+    assertEquals(1, m_lookups);
+
+    resolver.setAddresses("a.com", null);
+    assertEquals("10.0.0.1", resolver.resolve("a.com")[0].getHostAddress());
+
+    resolver.setAddresses("b.com", new String[] { "10.1.0.3" });
+    resolver.setAddresses("b.com", new String[0]);
+    assertEquals("10.0.0.2", resolver.resolve("b.com")[0].getHostAddress());
+  }
+}
@@ -0,0 +1,381 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * Minimal in-process HTTP/2 server for unit tests.
+ *
+ * <p>
+ * Each request is answered by a separate thread, after an optional delay, so
+ * streams are processed concurrently. The response describes the request in
+ * its headers. The body is the request path, or a number of bytes given by
+ * the {@code x-response-size} request header.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class HTTP2TestServer implements Runnable {
+
+  private final ServerSocket m_serverSocket = new ServerSocket(0);
+  private final AtomicInteger m_connections = new AtomicInteger();
+  private final AtomicInteger m_openStreams = new AtomicInteger();
+  private final AtomicInteger m_maximumOpenStreams = new AtomicInteger();
+  private final AtomicInteger m_resets = new AtomicInteger();
+  private final List<Socket> m_sockets =
+    Collections.synchronizedList(new ArrayList<Socket>());
+
+  private volatile List<NVPair> m_lastRequestHeaders;
+  private volatile long m_responseDelay;
+  private volatile int m_maximumConcurrentStreams;
+  private volatile int m_initialWindowSize = -1;
+  private volatile int m_goAwayAfter;
+
+  public HTTP2TestServer() throws IOException {
+    final Thread thread = new Thread(this, "HTTP/2 test server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public int getPort() {
+    return m_serverSocket.getLocalPort();
+  }
+
+  public int getNumberOfConnections() {
+    return m_connections.get();
+  }
+
+  public int getMaximumOpenStreams() {
+    return m_maximumOpenStreams.get();
+  }
+
+  public int getNumberOfResets() {
+    return m_resets.get();
+  }
+
+  public String getLastRequestHeader(String name) {
+    for (NVPair header : m_lastRequestHeaders) {
+      if (header.getName().equals(name)) {
+        return header.getValue();
+      }
+    }
+
+    return null;
+  }
+
+  public void setResponseDelay(long responseDelay) {
+    m_responseDelay = responseDelay;
+  }
+
+  /**
+   * Advertise {@code SETTINGS_MAX_CONCURRENT_STREAMS} to new connections.
+   */
+  public void setMaximumConcurrentStreams(int maximumConcurrentStreams) {
+    m_maximumConcurrentStreams = maximumConcurrentStreams;
+  }
+
+  /**
+   * Advertise {@code SETTINGS_INITIAL_WINDOW_SIZE} to new connections.
+   */
+  public void setInitialWindowSize(int initialWindowSize) {
+    m_initialWindowSize = initialWindowSize;
+  }
+
+  /**
+   * Send {@code GOAWAY} after this many responses on each connection.
+   */
+  public void setGoAwayAfter(int goAwayAfter) {
+    m_goAwayAfter = goAwayAfter;
+  }
+
+  public Socket connect() throws IOException {
+    return new Socket(m_serverSocket.getInetAddress(), getPort());
+  }
+
+  public void closeConnections() throws IOException {
+    synchronized (m_sockets) {
+      for (Socket socket : m_sockets) {
+        socket.close();
+      }
+    }
+  }
+
+  public void shutdown() throws IOException {
+    m_serverSocket.close();
+    closeConnections();
+  }
+
+  public void run() {
+    try {
+      while (true) {
+        final Socket socket = m_serverSocket.accept();
+        m_connections.incrementAndGet();
+        m_sockets.add(socket);
+
+        final Thread thread = new Thread("HTTP/2 test connection") {
+            public void run() {
+              try {
+                new Connection(socket).run();
+              }
+              catch (IOException e) {
+                // Connection closed.
+              }
+              finally {
+                try {
+                  socket.close();
+                }
+                catch (IOException e) {
+                  // Ignore.
+                }
+              }
+            }
+          };
+
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+    catch (IOException e) {
+      // Shut down.
+    }
+  }
+
+  private final class Connection {
+    private final DataInputStream m_in;
+    private final OutputStream m_out;
+    private final HPACKDecoder m_decoder = new HPACKDecoder();
+    private final HPACKEncoder m_encoder = new HPACKEncoder();
+    private final Map<Integer, List<NVPair>> m_headers =
+      new HashMap<Integer, List<NVPair>>();
+    private final Map<Integer, ByteArrayOutputStream> m_bodies =
+      new HashMap<Integer, ByteArrayOutputStream>();
+    private int m_responses;
+
+    public Connection(Socket socket) throws IOException {
+      m_in = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+      m_out = socket.getOutputStream();
+    }
+
+    public void run() throws IOException {
+      final byte[] preface = new byte[Frame.CLIENT_PREFACE.length];
+      m_in.readFully(preface);
+
+      if (!Arrays.equals(Frame.CLIENT_PREFACE, preface)) {
+        throw new IOException("Bad preface");
+      }
+
+      final int maximumConcurrentStreams = m_maximumConcurrentStreams;
+      final int initialWindowSize = m_initialWindowSize;
+
+      final ByteArrayOutputStream settings = new ByteArrayOutputStream();
+
+      if (maximumConcurrentStreams > 0) {
+        settings.write(
+          Frame.settings(Frame.SETTINGS_MAX_CONCURRENT_STREAMS,
+                         maximumConcurrentStreams));
+      }
+
+      if (initialWindowSize >= 0) {
+        settings.write(
+          Frame.settings(Frame.SETTINGS_INITIAL_WINDOW_SIZE,
+                         initialWindowSize));
+      }
+
+      write(Frame.SETTINGS, 0, 0, settings.toByteArray());
+
+      while (true) {
+        final Frame frame = Frame.read(m_in, Frame.DEFAULT_MAXIMUM_FRAME_SIZE);
+        final int id = frame.getStreamID();
+
+        switch (frame.getType()) {
+        case Frame.SETTINGS:
+          if (!frame.hasFlag(Frame.FLAG_ACK)) {
+            write(Frame.SETTINGS, Frame.FLAG_ACK, 0, new byte[0]);
+          }
+          break;
+
+        case Frame.HEADERS:
+          final ByteArrayOutputStream block = new ByteArrayOutputStream();
+          block.write(frame.getPayload(),
+                      frame.getContentOffset(),
+                      frame.getContentLength());
+
+          Frame last = frame;
+
+          while (!last.hasFlag(Frame.FLAG_END_HEADERS)) {
+            last = Frame.read(m_in, Frame.DEFAULT_MAXIMUM_FRAME_SIZE);
+            block.write(last.getPayload(), 0, last.getPayload().length);
+          }
+
+          final byte[] bytes = block.toByteArray();
+          m_headers.put(id, m_decoder.decode(bytes, 0, bytes.length));
+          m_bodies.put(id, new ByteArrayOutputStream());
+
+          if (frame.hasFlag(Frame.FLAG_END_STREAM)) {
+            dispatch(id);
+          }
+          break;
+
+        case Frame.DATA:
+          final int length = frame.getPayload().length;
+          m_bodies.get(id).write(frame.getPayload(),
+                                 frame.getContentOffset(),
+                                 frame.getContentLength());
+
+          final byte[] increment = new byte[4];
+          Frame.putInt(increment, 0, length);
+          write(Frame.WINDOW_UPDATE, 0, 0, increment);
+
+          if (frame.hasFlag(Frame.FLAG_END_STREAM)) {
+            dispatch(id);
+          }
+          else {
+            write(Frame.WINDOW_UPDATE, 0, id, increment);
+          }
+          break;
+
+        case Frame.RST_STREAM:
+          m_resets.incrementAndGet();
+          break;
+
+        case Frame.GOAWAY:
+          return;
+
+        default:
+          break;
+        }
+      }
+    }
+
+    private void dispatch(final int id) {
+      final List<NVPair> headers = m_headers.remove(id);
+      final int requestLength = m_bodies.remove(id).size();
+      m_lastRequestHeaders = headers;
+
+      final int open = m_openStreams.incrementAndGet();
+
+      synchronized (m_maximumOpenStreams) {
+        if (open > m_maximumOpenStreams.get()) {
+          m_maximumOpenStreams.set(open);
+        }
+      }
+
+      final Thread thread = new Thread("HTTP/2 test stream " + id) {
+          public void run() {
+            try {
+              Thread.sleep(m_responseDelay);
+              respond(id, headers, requestLength);
+            }
+            catch (Exception e) {
+              // Connection closed.
+            }
+          }
+        };
+
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void respond(int id, List<NVPair> requestHeaders, int requestLength)
+      throws IOException {
+
+      String path = null;
+      int size = -1;
+
+      for (NVPair header : requestHeaders) {
+        if (header.getName().equals(":path")) {
+          path = header.getValue();
+        }
+        else if (header.getName().equals("x-response-size")) {
+          size = Integer.parseInt(header.getValue());
+        }
+      }
+
+      final byte[] body =
+        size >= 0 ? new byte[size] : path.getBytes(HPACKEncoder.CHARSET);
+
+      final List<NVPair> headers = new ArrayList<NVPair>();
+      headers.add(new NVPair(":status", "200"));
+      headers.add(new NVPair("content-type", "text/plain"));
+      headers.add(new NVPair("x-path", path));
+      headers.add(new NVPair("x-request-length",
+                             Integer.toString(requestLength)));
+      headers.add(new NVPair("x-header", "one"));
+      headers.add(new NVPair("x-header", "two"));
+
+      m_openStreams.decrementAndGet();
+
+      synchronized (m_out) {
+        final byte[] block = m_encoder.encode(headers);
+        write(Frame.HEADERS, Frame.FLAG_END_HEADERS, id, block);
+
+        int offset = 0;
+
+        do {
+          final int length =
+            Math.min(body.length - offset, Frame.DEFAULT_MAXIMUM_FRAME_SIZE);
+          offset += length;
+
+          Frame.write(m_out, Frame.DATA,
+                      offset == body.length ? Frame.FLAG_END_STREAM : 0,
+                      id, body, offset - length, length);
+        }
+        while (offset < body.length);
+
+        m_out.flush();
+
+        if (++m_responses == m_goAwayAfter) {
+          final byte[] goAway = new byte[8];
+          Frame.putInt(goAway, 0, id);
+          write(Frame.GOAWAY, 0, 0, goAway);
+        }
+      }
+    }
+
+    private void write(int type, int flags, int id, byte[] payload)
+      throws IOException {
+      synchronized (m_out) {
+        Frame.write(m_out, type, flags, id, payload, 0, payload.length);
+        m_out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,293 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * Unit tests for {@link HPACKEncoder}, {@link HPACKDecoder},
+ * {@link HeaderTable}, and {@link Huffman}. The expected values are the
+ * examples from RFC 7541, Appendix C.
+ *
+ * @author Philip Aston
+ */
+public class TestHPACK {
+
+  private static byte[] hex(String s) {
+    final String digits = s.replace(" ", "");
+    final byte[] result = new byte[digits.length() / 2];
+
+    for (int i = 0; i < result.length; ++i) {
+      result[i] =
+        (byte) Integer.parseInt(digits.substring(i * 2, i * 2 + 2), 16);
+    }
+
+    return result;
+  }
+
+  private static byte[] huffman(String s) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Huffman.encode(s.getBytes(HPACKEncoder.CHARSET), out);
+    return out.toByteArray();
+  }
+
+  private static List<NVPair> headers(String... namesAndValues) {
+    final NVPair[] result = new NVPair[namesAndValues.length / 2];
+
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = new NVPair(namesAndValues[i * 2], namesAndValues[i * 2 + 1]);
+    }
+
+    return Arrays.asList(result);
+  }
+
+  private static void assertHeaders(List<NVPair> expected,
+                                    List<NVPair> actual) {
+    assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getName(), actual.get(i).getName());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+    }
+  }
+
+  @Test public void testIntegers() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    // C.1.1 - C.1.3
+    HPACKEncoder.writeInteger(out, 0, 5, 10);
+    HPACKEncoder.writeInteger(out, 0, 5, 1337);
+    HPACKEncoder.writeInteger(out, 0, 8, 42);
+
+    assertArrayEquals(hex("0a 1f9a0a 2a"), out.toByteArray());
+  }
+
+  @Test public void testHuffman() throws Exception {
+    final String[] strings = {
+      "www.example.com", "no-cache", "custom-key", "custom-value",
+      "302", "private", "Mon, 21 Oct 2013 20:13:21 GMT",
+      "https://www.example.com",
+    };
+
+    final String[] encoded = {
+      "f1e3c2e5f23a6ba0ab90f4ff",
+      "a8eb10649cbf",
+      "25a849e95ba97d7f",
+      "25a849e95bb8e8b4bf",
+      "6402",
+      "aec3771a4b",
+      "d07abe941054d444a8200595040b8166e082a62d1bff",
+      "9d29ad171863c78f0b97c8e9ae82ae43d3",
+    };
+
+    for (int i = 0; i < strings.length; ++i) {
+      final byte[] expected = hex(encoded[i]);
+
+      assertArrayEquals(expected, huffman(strings[i]));
+      assertEquals(expected.length,
+                   Huffman.encodedLength(
+                     strings[i].getBytes(HPACKEncoder.CHARSET)));
+      assertEquals(strings[i],
+                   new String(Huffman.decode(expected, 0, expected.length),
+                              HPACKEncoder.CHARSET));
+    }
+
+    // Round trip every octet.
+    final byte[] all = new byte[256];
+
+    for (int i = 0; i < all.length; ++i) {
+      all[i] = (byte) i;
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Huffman.encode(all, out);
+    final byte[] allEncoded = out.toByteArray();
+
+    assertArrayEquals(all, Huffman.decode(allEncoded, 0, allEncoded.length));
+  }
+
+  @Test public void testBadHuffman() throws Exception {
+    // Padding longer than seven bits.
+    final byte[] longPadding = hex("1fff");
+
+    // Padding that is not a prefix of EOS.
+    final byte[] badPadding = hex("00");
+
+    // EOS.
+    final byte[] eos = hex("ffffffff");
+
+    for (byte[] bytes : new byte[][] { longPadding, badPadding, eos }) {
+      try {
+        Huffman.decode(bytes, 0, bytes.length);
+        fail("Expected HTTP2Exception");
+      }
+      catch (HTTP2Exception e) {
+        assertEquals(HTTP2Exception.COMPRESSION_ERROR, e.getErrorCode());
+      }
+    }
+  }
+
+  @Test public void testRequestsWithHuffman() throws Exception {
+    // C.4.1 - C.4.3
+    final List<NVPair> request1 =
+      headers(":method", "GET",
+              ":scheme", "http",
+              ":path", "/",
+              ":authority", "www.example.com");
+
+    final List<NVPair> request2 =
+      headers(":method", "GET",
+              ":scheme", "http",
+              ":path", "/",
+              ":authority", "www.example.com",
+              "cache-control", "no-cache");
+
+    final List<NVPair> request3 =
+      headers(":method", "GET",
+              ":scheme", "https",
+              ":path", "/index.html",
+              ":authority", "www.example.com",
+              "custom-key", "custom-value");
+
+    final byte[] block1 = hex("828684418cf1e3c2e5f23a6ba0ab90f4ff");
+    final byte[] block2 = hex("828684be5886a8eb10649cbf");
+    final byte[] block3 =
+      hex("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf");
+
+    final HPACKEncoder encoder = new HPACKEncoder();
+    assertArrayEquals(block1, encoder.encode(request1));
+    assertArrayEquals(block2, encoder.encode(request2));
+    assertArrayEquals(block3, encoder.encode(request3));
+
+    final HPACKDecoder decoder = new HPACKDecoder();
+    assertHeaders(request1, decoder.decode(block1, 0, block1.length));
+    assertEquals(57, decoder.getTable().getSize());
+    assertHeaders(request2, decoder.decode(block2, 0, block2.length));
+    assertEquals(110, decoder.getTable().getSize());
+    assertHeaders(request3, decoder.decode(block3, 0, block3.length));
+    assertEquals(164, decoder.getTable().getSize());
+  }
+
+  @Test public void testDecodeLiterals() throws Exception {
+    // C.2.1 Literal with indexing, new name.
+    final byte[] withIndexing =
+      hex("400a637573746f6d2d6b65790d637573746f6d2d686561646572");
+
+    // C.2.2 Literal without indexing, indexed name.
+    final byte[] withoutIndexing = hex("040c2f73616d706c652f70617468");
+
+    // C.2.3 Literal never indexed, new name.
+    final byte[] neverIndexed = hex("100870617373776f726406736563726574");
+
+    final HPACKDecoder decoder = new HPACKDecoder();
+
+    assertHeaders(headers("custom-key", "custom-header"),
+                  decoder.decode(withIndexing, 0, withIndexing.length));
+    assertEquals(55, decoder.getTable().getSize());
+
+    assertHeaders(headers(":path", "/sample/path"),
+                  decoder.decode(withoutIndexing, 0, withoutIndexing.length));
+    assertHeaders(headers("password", "secret"),
+                  decoder.decode(neverIndexed, 0, neverIndexed.length));
+    assertEquals(55, decoder.getTable().getSize());
+
+    // Dynamic table index.
+    final byte[] indexed = hex("be");
+    assertHeaders(headers("custom-key", "custom-header"),
+                  decoder.decode(indexed, 0, indexed.length));
+
+    // Table size update evicts.
+    final byte[] sizeUpdate = hex("20");
+    assertEquals(0, decoder.decode(sizeUpdate, 0, 1).size());
+    assertEquals(0, decoder.getTable().getSize());
+  }
+
+  @Test public void testEncoderNeverIndexesCredentials() throws Exception {
+    final HPACKEncoder encoder = new HPACKEncoder();
+    final HPACKDecoder decoder = new HPACKDecoder();
+
+    final List<NVPair> headers = headers("authorization", "Basic Zm9vOmJhcg==");
+
+    final byte[] block = encoder.encode(headers);
+    assertEquals(0x10, block[0] & 0xF0);
+    assertHeaders(headers, decoder.decode(block, 0, block.length));
+    assertEquals(0, decoder.getTable().getSize());
+  }
+
+  @Test public void testEncoderTableSize() throws Exception {
+    final HPACKEncoder encoder = new HPACKEncoder();
+    final HPACKDecoder decoder = new HPACKDecoder();
+
+    encoder.setMaximumTableSize(100);
+    final List<NVPair> headers = headers("x-a", "1", "x-b", "2", "x-c", "3");
+
+    final byte[] block = encoder.encode(headers);
+    assertEquals(0x3f, block[0] & 0xFF);
+    assertHeaders(headers, decoder.decode(block, 0, block.length));
+    assertEquals(100, decoder.getTable().getMaximumSize());
+    assertEquals(2 * (32 + 4), decoder.getTable().getSize());
+
+    // Settings larger than the default are ignored.
+    encoder.setMaximumTableSize(100000);
+    final byte[] block2 = encoder.encode(headers);
+    assertEquals(0x3f, block2[0] & 0xFF);
+    decoder.decode(block2, 0, block2.length);
+    assertEquals(HeaderTable.DEFAULT_MAXIMUM_SIZE,
+                 decoder.getTable().getMaximumSize());
+  }
+
+  @Test public void testBadBlocks() throws Exception {
+    final String[] blocks = {
+      "80",           // Index 0.
+      "ff00",         // Index beyond table.
+      "41",           // Truncated.
+      "4085",         // Truncated string.
+      "82 20",        // Size update after header.
+      "3fe21f",       // Size update too large.
+      "ffffffffff0f", // Integer overflow.
+    };
+
+    for (String block : blocks) {
+      final byte[] bytes = hex(block);
+
+      try {
+        new HPACKDecoder().decode(bytes, 0, bytes.length);
+        fail("Expected HTTP2Exception for " + block);
+      }
+      catch (HTTP2Exception e) {
+        assertEquals(HTTP2Exception.COMPRESSION_ERROR, e.getErrorCode());
+      }
+    }
+  }
+}
@@ -0,0 +1,360 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import HTTPClient.HTTPConnection.TimeAuthority;
+import HTTPClient.NVPair;
+
+
+/**
+ * Unit tests for {@link HTTP2Connection}.
+ *
+ * @author Philip Aston
+ */
+public class TestHTTP2Connection {
+
+  private final TimeAuthority m_timeAuthority = new TimeAuthority() {
+      public long getTimeInMilliseconds() {
+        return System.currentTimeMillis();
+      }
+    };
+
+  private HTTP2TestServer m_server;
+
+  @Before public void setUp() throws Exception {
+    m_server = new HTTP2TestServer();
+  }
+
+  @After public void tearDown() throws Exception {
+    m_server.shutdown();
+  }
+
+  private HTTP2Connection connect() throws IOException {
+    return new HTTP2Connection(m_server.connect(), m_timeAuthority);
+  }
+
+  private static List<NVPair> headers(String method,
+                                      String path,
+                                      String... others) {
+    final List<NVPair> result = new ArrayList<NVPair>();
+    result.add(new NVPair(":method", method));
+    result.add(new NVPair(":scheme", "http"));
+    result.add(new NVPair(":authority", "localhost"));
+    result.add(new NVPair(":path", path));
+
+    for (int i = 0; i < others.length; i += 2) {
+      result.add(new NVPair(others[i], others[i + 1]));
+    }
+
+    return result;
+  }
+
+  private static String getHeader(HTTP2Stream stream, String name) {
+    String result = null;
+
+    for (NVPair header : stream.getHeaders()) {
+      if (header.getName().equals(name)) {
+        result = result == null ?
+          header.getValue() : result + "|" + header.getValue();
+      }
+    }
+
+    return result;
+  }
+
+  @Test public void testGet() throws Exception {
+    final HTTP2Connection connection = connect();
+
+    final long start = m_timeAuthority.getTimeInMilliseconds();
+
+    for (int i = 0; i < 3; ++i) {
+      final HTTP2Stream stream =
+        connection.newStream(headers("GET", "/hello" + i), null, 0);
+
+      assertEquals(1 + i * 2, stream.getID());
+
+      stream.await(0);
+
+      assertTrue(stream.isDone());
+      assertNull(stream.getException());
+      assertEquals(200, stream.getStatusCode());
+      assertEquals("/hello" + i, new String(stream.getData()));
+      assertEquals("/hello" + i, getHeader(stream, "x-path"));
+      assertEquals("0", getHeader(stream, "x-request-length"));
+      assertEquals("one|two", getHeader(stream, "x-header"));
+      assertNull(getHeader(stream, ":status"));
+      assertTrue(stream.getFirstByteTime() >= start);
+    }
+
+    assertEquals("GET", m_server.getLastRequestHeader(":method"));
+    assertEquals("localhost", m_server.getLastRequestHeader(":authority"));
+    assertEquals(1, m_server.getNumberOfConnections());
+    assertEquals(0, connection.getActiveStreams());
+    assertTrue(connection.isUsable());
+
+    connection.close();
+
+    assertFalse(connection.isUsable());
+
+    try {
+      connection.newStream(headers("GET", "/"), null, 0);
+      fail("Expected IOException");
+    }
+    catch (IOException e) {
+    }
+  }
+
+  @Test public void testFlowControl() throws Exception {
+    final HTTP2Connection connection = connect();
+
+    // Larger than the server's initial windows.
+    final byte[] data = new byte[200000];
+
+    final HTTP2Stream post =
+      connection.newStream(headers("POST", "/upload"), data, 5000);
+    post.await(5000);
+
+    assertEquals("200000", getHeader(post, "x-request-length"));
+
+    final HTTP2Stream get =
+      connection.newStream(
+        headers("GET", "/download", "x-response-size", "300000"), null, 0);
+    get.await(5000);
+
+    assertEquals(300000, get.getData().length);
+
+    connection.close();
+  }
+
+  @Test public void testContinuation() throws Exception {
+    final HTTP2Connection connection = connect();
+
+    final StringBuilder value = new StringBuilder();
+
+    for (int i = 0; i < 40000; ++i) {
+      value.append((char) ('a' + i % 26));
+    }
+
+    final HTTP2Stream stream =
+      connection.newStream(headers("GET", "/big", "x-big", value.toString()),
+                           null,
+                           0);
+    stream.await(5000);
+
+    assertEquals(200, stream.getStatusCode());
+    assertEquals(value.toString(), m_server.getLastRequestHeader("x-big"));
+
+    connection.close();
+  }
+
+  private void runConcurrently(final HTTP2Connection connection,
+                               int numberOfThreads) throws Exception {
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    final List<Throwable> failures = new ArrayList<Throwable>();
+
+    for (int i = 0; i < numberOfThreads; ++i) {
+      final String path = "/" + i;
+
+      final Thread thread = new Thread() {
+          public void run() {
+            try {
+              final HTTP2Stream stream =
+                connection.newStream(headers("GET", path), null, 5000);
+              stream.await(5000);
+              assertEquals(path, new String(stream.getData()));
+            }
+            catch (Throwable e) {
+              synchronized (failures) {
+                failures.add(e);
+              }
+            }
+          }
+        };
+
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(failures.toString(), 0, failures.size());
+  }
+
+  @Test public void testServerStreamLimit() throws Exception {
+    m_server.setMaximumConcurrentStreams(1);
+    m_server.setResponseDelay(50);
+
+    final HTTP2Connection connection = connect();
+
+    // Make sure we have the server's settings.
+    connection.newStream(headers("GET", "/"), null, 0).await(0);
+    assertEquals(1, connection.getMaximumConcurrentStreams());
+
+    runConcurrently(connection, 4);
+
+    assertEquals(1, m_server.getMaximumOpenStreams());
+
+    connection.close();
+  }
+
+  @Test public void testTimeout() throws Exception {
+    m_server.setMaximumConcurrentStreams(1);
+
+    final HTTP2Connection connection = connect();
+
+    // Make sure we have the server's settings.
+    connection.newStream(headers("GET", "/"), null, 0).await(0);
+    assertEquals(1, connection.getMaximumConcurrentStreams());
+
+    m_server.setResponseDelay(500);
+
+    final HTTP2Stream stream =
+      connection.newStream(headers("GET", "/slow"), null, 0);
+
+    try {
+      stream.await(50);
+      fail("Expected InterruptedIOException");
+    }
+    catch (InterruptedIOException e) {
+    }
+
+    assertEquals(0, connection.getActiveStreams());
+    assertTrue(stream.isDone());
+
+    // The stream limit is reached while we wait for the next response.
+    final HTTP2Stream stream2 =
+      connection.newStream(headers("GET", "/slow"), null, 0);
+
+    try {
+      connection.newStream(headers("GET", "/slow"), null, 50);
+      fail("Expected InterruptedIOException");
+    }
+    catch (InterruptedIOException e) {
+    }
+
+    stream2.await(5000);
+    assertEquals(200, stream2.getStatusCode());
+    assertTrue(connection.isUsable());
+    assertEquals(1, m_server.getNumberOfResets());
+
+    connection.close();
+  }
+
+  @Test public void testSendDataTimeout() throws Exception {
+    // The server does not allow any data to be sent.
+    m_server.setInitialWindowSize(0);
+
+    final HTTP2Connection connection = connect();
+
+    connection.newStream(headers("GET", "/"), null, 0).await(0);
+
+    try {
+      connection.newStream(headers("POST", "/upload"), new byte[10], 50);
+      fail("Expected InterruptedIOException");
+    }
+    catch (InterruptedIOException e) {
+    }
+
+    assertEquals(0, connection.getActiveStreams());
+
+    for (int i = 0; i < 100 && m_server.getNumberOfResets() == 0; ++i) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, m_server.getNumberOfResets());
+    assertTrue(connection.isUsable());
+
+    connection.close();
+  }
+
+  @Test public void testGoAway() throws Exception {
+    m_server.setGoAwayAfter(1);
+
+    final HTTP2Connection connection = connect();
+
+    connection.newStream(headers("GET", "/"), null, 0).await(0);
+
+    for (int i = 0; i < 100 && connection.isUsable(); ++i) {
+      Thread.sleep(10);
+    }
+
+    assertFalse(connection.isUsable());
+
+    try {
+      connection.newStream(headers("GET", "/"), null, 0);
+      fail("Expected HTTP2Exception");
+    }
+    catch (HTTP2Exception e) {
+      assertEquals(HTTP2Exception.REFUSED_STREAM, e.getErrorCode());
+    }
+  }
+
+  @Test public void testConnectionFailure() throws Exception {
+    m_server.setResponseDelay(5000);
+
+    final HTTP2Connection connection = connect();
+
+    final HTTP2Stream stream =
+      connection.newStream(headers("GET", "/"), null, 0);
+
+    // Wait for the server to receive the request.
+    for (int i = 0; i < 100 && m_server.getMaximumOpenStreams() == 0; ++i) {
+      Thread.sleep(10);
+    }
+
+    m_server.closeConnections();
+
+    try {
+      stream.await(5000);
+      fail("Expected IOException");
+    }
+    catch (InterruptedIOException e) {
+      fail("Unexpected timeout");
+    }
+    catch (IOException e) {
+      // The connection had not been used, so we can't retry.
+      assertFalse(e instanceof HTTP2Exception);
+    }
+
+    assertFalse(connection.isUsable());
+    assertEquals(0, connection.getActiveStreams());
+  }
+}
@@ -0,0 +1,243 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.plugin.http.http2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import HTTPClient.HTTPConnection;
+import HTTPClient.HTTPConnection.BandwidthLimiter;
+import HTTPClient.HTTPConnection.DirectionalBandwidthLimiterFactory;
+import HTTPClient.HTTPResponse;
+import HTTPClient.NVPair;
+
+
+/**
+ * Unit tests for {@link HTTP2Transport}.
+ *
+ * @author Philip Aston
+ */
+public class TestHTTP2Transport {
+
+  private HTTP2TestServer m_server;
+  private HTTPConnection m_connection;
+  private HTTP2Transport m_transport;
+
+  @Before public void setUp() throws Exception {
+    m_server = new HTTP2TestServer();
+    m_connection = new HTTPConnection("localhost", m_server.getPort());
+    m_transport = new HTTP2Transport();
+    m_connection.setRequestTransport(m_transport);
+  }
+
+  @After public void tearDown() throws Exception {
+    m_connection.stop();
+    m_server.shutdown();
+  }
+
+  @Test public void testGetAndPost() throws Exception {
+    assertSame(m_transport, m_connection.getRequestTransport());
+
+    final long start =
+      m_connection.getTimeAuthority().getTimeInMilliseconds();
+
+    final HTTPResponse response = m_connection.Get("/foo?x=1");
+
+    assertEquals(200, response.getStatusCode());
+    assertEquals("HTTP/2", response.getVersion());
+    assertEquals("/foo?x=1", new String(response.getData()));
+    assertEquals("text/plain", response.getHeader("Content-Type"));
+    assertEquals("one, two", response.getHeader("X-Header"));
+    assertTrue(response.getTimeToFirstByte() >= start);
+
+    assertEquals("GET", m_server.getLastRequestHeader(":method"));
+    assertEquals("http", m_server.getLastRequestHeader(":scheme"));
+    assertEquals("localhost:" + m_server.getPort(),
+                 m_server.getLastRequestHeader(":authority"));
+    assertEquals(HTTPConnection.version,
+                 m_server.getLastRequestHeader("user-agent"));
+    assertNull(m_server.getLastRequestHeader("connection"));
+    assertNull(m_server.getLastRequestHeader("host"));
+
+    final HTTPResponse response2 =
+      m_connection.Post("/bar",
+                        "hello world".getBytes(),
+                        new NVPair[] {
+                          new NVPair("Content-Type", "text/plain"),
+                          new NVPair("Connection", "close"),
+                        });
+
+    assertEquals("11", response2.getHeader("x-request-length"));
+    assertEquals("POST", m_server.getLastRequestHeader(":method"));
+    assertEquals("text/plain", m_server.getLastRequestHeader("content-type"));
+    assertEquals("11", m_server.getLastRequestHeader("content-length"));
+    assertNull(m_server.getLastRequestHeader("connection"));
+
+    // One connection, recorded as for HTTP/1.1.
+    assertEquals(1, m_server.getNumberOfConnections());
+    assertEquals(1, m_connection.getConnectionsEstablished());
+    assertTrue(m_connection.getConnectTime() >= m_connection.getDnsTime());
+  }
+
+  @Test public void testStop() throws Exception {
+    m_connection.Get("/").getData();
+    m_connection.stop();
+    m_connection.Get("/").getData();
+
+    assertEquals(2, m_server.getNumberOfConnections());
+    assertEquals(2, m_connection.getConnectionsEstablished());
+
+    m_connection.setRequestTransport(null);
+    assertNull(m_connection.getRequestTransport());
+  }
+
+  @Test public void testRetryAfterGoAway() throws Exception {
+    m_server.setGoAwayAfter(1);
+
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(200, m_connection.Get("/" + i).getStatusCode());
+    }
+
+    assertEquals(3, m_server.getNumberOfConnections());
+  }
+
+  @Test public void testConcurrentRequests() throws Exception {
+    m_server.setResponseDelay(100);
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    final List<Throwable> failures = new ArrayList<Throwable>();
+
+    for (int i = 0; i < 9; ++i) {
+      final String path = "/" + i;
+
+      final Thread thread = new Thread() {
+          public void run() {
+            try {
+              final HTTPResponse response = m_connection.Get(path);
+              assertEquals(path, new String(response.getData()));
+            }
+            catch (Throwable e) {
+              synchronized (failures) {
+                failures.add(e);
+              }
+            }
+          }
+        };
+
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(failures.toString(), 0, failures.size());
+    assertEquals(1, m_server.getNumberOfConnections());
+  }
+
+  @Test public void testBandwidthLimiter() throws Exception {
+    final List<Integer> requestPositions = new ArrayList<Integer>();
+    final List<Integer> responsePositions = new ArrayList<Integer>();
+
+    m_connection.setBufferGrowthStrategyFactory(
+      new DirectionalBandwidthLimiterFactory() {
+        public BandwidthLimiter create() {
+          return new RecordingBandwidthLimiter(responsePositions, 3);
+        }
+
+        public BandwidthLimiter createForRequest() {
+          return new RecordingBandwidthLimiter(requestPositions, 4);
+        }
+      });
+
+    final HTTPResponse response =
+      m_connection.Post("/limited", "hello world".getBytes());
+
+    assertEquals("11", response.getHeader("x-request-length"));
+    assertEquals("/limited", new String(response.getData()));
+
+    assertEquals(Arrays.asList(0, 4, 8), requestPositions);
+    assertEquals(Arrays.asList(0, 3, 6), responsePositions);
+  }
+
+  private static final class RecordingBandwidthLimiter
+    implements BandwidthLimiter {
+
+    private final List<Integer> m_positions;
+    private final int m_maximumBytes;
+
+    public RecordingBandwidthLimiter(List<Integer> positions,
+                                     int maximumBytes) {
+      m_positions = positions;
+      m_maximumBytes = maximumBytes;
+    }
+
+    public int maximumBytes(int position) {
+      synchronized (m_positions) {
+        m_positions.add(position);
+      }
+
+      return m_maximumBytes;
+    }
+  }
+
+  @Test public void testHostHeader() throws Exception {
+    m_connection.Get("/", (String) null,
+                     new NVPair[] { new NVPair("Host", "example.com") })
+      .getData();
+
+    assertEquals("example.com", m_server.getLastRequestHeader(":authority"));
+    assertNull(m_server.getLastRequestHeader("host"));
+
+    m_connection.Get("/", (String) null,
+                     new NVPair[] { new NVPair("Host", "example.com:99") })
+      .getData();
+
+    assertEquals("example.com:99",
+                 m_server.getLastRequestHeader(":authority"));
+  }
+
+  @Test public void testProxyUsesHTTP11() throws Exception {
+    final HTTPConnection proxied = new HTTPConnection("localhost", 80);
+    proxied.setCurrentProxy("localhost", 1234);
+
+    assertNull(m_transport.sendRequest(proxied, null, 0));
+  }
+
+  @Test public void testHTTPSUsesHTTP11() throws Exception {
+    final HTTPConnection https = new HTTPConnection("https", "localhost", 443);
+
+    assertNull(m_transport.sendRequest(https, null, 0));
+  }
+}
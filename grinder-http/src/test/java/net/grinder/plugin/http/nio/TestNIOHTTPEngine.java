@@ -0,0 +1,433 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.grinder.util.StandardTimeAuthority;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import HTTPClient.NVPair;
+
+
+/**
+ * Unit tests for {@link NIOHTTPEngine}.
+ *
+ * @author Philip Aston
+ */
+public class TestNIOHTTPEngine {
+
+  private Server m_server;
+  private Logger m_logger;
+  private NIOHTTPEngine m_engine;
+
+  @Before public void setUp() throws Exception {
+    m_server = new Server();
+    m_logger = mock(Logger.class);
+    m_engine =
+      new NIOHTTPEngine(1, new StandardTimeAuthority(), m_logger);
+  }
+
+  @After public void tearDown() throws Exception {
+    m_engine.shutdown();
+    m_server.shutdown();
+  }
+
+  private Exchange exchange(String method, String path, byte[] data) {
+    return new Exchange(method,
+                        m_server.getAddress(),
+                        "localhost",
+                        path,
+                        new NVPair[] { new NVPair("X-Test", "1") },
+                        data);
+  }
+
+  @Test public void testGetAndPost() throws Exception {
+    final Exchange get = exchange("GET", "/foo?bar", null);
+    m_engine.submit(get);
+    get.await();
+
+    assertNull(get.getException());
+    assertEquals(200, get.getStatusCode());
+    assertEquals("OK", get.getReasonLine());
+    assertEquals("GET /foo?bar", get.getText());
+    assertEquals("text/plain; charset=UTF-8", get.getHeader("content-type"));
+    assertTrue(get.isNewConnection());
+    assertTrue(get.getTimeToFirstByte() >= get.getConnectTime());
+    assertTrue(m_server.getLastRequest().contains("Host: localhost\r\n"));
+    assertTrue(m_server.getLastRequest().contains("X-Test: 1\r\n"));
+    assertFalse(m_server.getLastRequest().contains("Content-Length"));
+
+    final Exchange post = exchange("POST", "/", "hello".getBytes());
+    m_engine.submit(post);
+    assertTrue(post.await(10000));
+
+    assertEquals("POST /hello", post.getText());
+    assertTrue(m_server.getLastRequest().contains("Content-Length: 5\r\n"));
+
+    // The connection was reused.
+    assertFalse(post.isNewConnection());
+    assertEquals(0, post.getConnectTime());
+    assertEquals(1, m_server.getNumberOfConnections());
+
+    final Exchange head = exchange("HEAD", "/", null);
+    m_engine.submit(head);
+    head.await();
+    assertEquals(200, head.getStatusCode());
+    assertEquals(0, head.getData().length);
+  }
+
+  @Test public void testManyInFlight() throws Exception {
+    m_server.setResponseDelay(200);
+
+    final int n = 100;
+    final List<Exchange> exchanges = new ArrayList<Exchange>();
+
+    final long start = System.currentTimeMillis();
+
+    for (int i = 0; i < n; ++i) {
+      final Exchange exchange = exchange("GET", "/" + i, null);
+      exchanges.add(exchange);
+      m_engine.submit(exchange);
+    }
+
+    for (int i = 0; i < n; ++i) {
+      final Exchange exchange = exchanges.get(i);
+      exchange.await();
+      assertNull(exchange.getException());
+      assertEquals("GET /" + i, exchange.getText());
+    }
+
+    // One engine thread serviced all of the requests concurrently.
+    assertTrue(System.currentTimeMillis() - start < n * 200 / 4);
+    assertEquals(n, m_server.getNumberOfConnections());
+  }
+
+  @Test public void testListener() throws Exception {
+    final AtomicReference<Exchange> completed = new AtomicReference<Exchange>();
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    final Exchange exchange = exchange("GET", "/", null);
+
+    exchange.setListener(new Exchange.Listener() {
+        public void exchangeComplete(Exchange e) {
+          completed.set(e);
+          latch.countDown();
+          throw new RuntimeException("Should be logged");
+        }
+      });
+
+    m_engine.submit(exchange);
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertSame(exchange, completed.get());
+    assertTrue(exchange.isDone());
+
+    // The engine is still working.
+    final Exchange exchange2 = exchange("GET", "/", null);
+    m_engine.submit(exchange2);
+    exchange2.await();
+    assertNull(exchange2.getException());
+
+    verify(m_logger).error(eq("Should be logged"),
+                           isA(RuntimeException.class));
+  }
+
+  @Test public void testTimeout() throws Exception {
+    m_server.setResponseDelay(2000);
+
+    final Exchange exchange = exchange("GET", "/", null);
+    exchange.setTimeout(100);
+    m_engine.submit(exchange);
+
+    assertTrue(exchange.await(1000));
+    assertTrue(exchange.getException() instanceof InterruptedIOException);
+    assertNull(exchange.getData());
+  }
+
+  @Test public void testServerClosesConnections() throws Exception {
+    m_server.setCloseAfterResponse(true);
+
+    for (int i = 0; i < 3; ++i) {
+      final Exchange exchange = exchange("GET", "/", null);
+      m_engine.submit(exchange);
+      exchange.await();
+      assertNull(exchange.getException());
+      assertTrue(exchange.isNewConnection());
+    }
+
+    assertEquals(3, m_server.getNumberOfConnections());
+  }
+
+  @Test public void testStaleConnectionRetried() throws Exception {
+    final Exchange exchange = exchange("GET", "/", null);
+    m_engine.submit(exchange);
+    exchange.await();
+
+    // The server closes the idle connection as the next request arrives.
+    m_server.setDropReusedConnections(true);
+
+    final Exchange exchange2 = exchange("GET", "/2", null);
+    m_engine.submit(exchange2);
+    exchange2.await();
+
+    assertNull(exchange2.getException());
+    assertEquals("GET /2", exchange2.getText());
+    assertTrue(exchange2.isNewConnection());
+    assertEquals(2, m_server.getNumberOfConnections());
+  }
+
+  @Test public void testConnectionRefused() throws Exception {
+    final ServerSocket serverSocket = new ServerSocket(0);
+    final int port = serverSocket.getLocalPort();
+    serverSocket.close();
+
+    final Exchange exchange =
+      new Exchange("GET",
+                   new InetSocketAddress(InetAddress.getLocalHost(), port),
+                   "localhost",
+                   "/",
+                   new NVPair[0],
+                   null);
+
+    m_engine.submit(exchange);
+    exchange.await();
+
+    assertTrue(exchange.getException() != null);
+  }
+
+  @Test public void testCloseIdleConnections() throws Exception {
+    final Exchange exchange = exchange("GET", "/", null);
+    m_engine.submit(exchange);
+    exchange.await();
+
+    m_engine.closeIdleConnections();
+
+    final Exchange exchange2 = exchange("GET", "/", null);
+    m_engine.submit(exchange2);
+    exchange2.await();
+    assertTrue(exchange2.isNewConnection());
+  }
+
+  @Test public void testShutdown() throws Exception {
+    m_server.setResponseDelay(5000);
+
+    final Exchange exchange = exchange("GET", "/", null);
+    m_engine.submit(exchange);
+
+    m_engine.shutdown();
+
+    assertTrue(exchange.isDone());
+    assertTrue(exchange.getException() != null);
+
+    final Exchange exchange2 = exchange("GET", "/", null);
+    m_engine.submit(exchange2);
+    assertTrue(exchange2.isDone());
+    assertTrue(exchange2.getException() != null);
+  }
+
+  /**
+   * Simple HTTP/1.1 server that supports keep-alive and echoes the request
+   * line and body.
+   */
+  private static final class Server implements Runnable {
+    private final ServerSocket m_serverSocket = new ServerSocket(0);
+    private final AtomicInteger m_connections = new AtomicInteger();
+    private final List<Socket> m_sockets =
+      Collections.synchronizedList(new ArrayList<Socket>());
+
+    private volatile String m_lastRequest;
+    private volatile long m_responseDelay;
+    private volatile boolean m_closeAfterResponse;
+    private volatile boolean m_dropReusedConnections;
+
+    public Server() throws IOException {
+      final Thread thread = new Thread(this, "Test server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    public InetSocketAddress getAddress() {
+      return new InetSocketAddress(m_serverSocket.getInetAddress(),
+                                   m_serverSocket.getLocalPort());
+    }
+
+    public int getNumberOfConnections() {
+      return m_connections.get();
+    }
+
+    public String getLastRequest() {
+      return m_lastRequest;
+    }
+
+    public void setResponseDelay(long responseDelay) {
+      m_responseDelay = responseDelay;
+    }
+
+    public void setCloseAfterResponse(boolean closeAfterResponse) {
+      m_closeAfterResponse = closeAfterResponse;
+    }
+
+    public void setDropReusedConnections(boolean dropReusedConnections) {
+      m_dropReusedConnections = dropReusedConnections;
+    }
+
+    public void shutdown() throws IOException {
+      m_serverSocket.close();
+
+      synchronized (m_sockets) {
+        for (Socket socket : m_sockets) {
+          socket.close();
+        }
+      }
+    }
+
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = m_serverSocket.accept();
+          m_connections.incrementAndGet();
+          m_sockets.add(socket);
+
+          final Thread thread = new Thread("Test connection") {
+              public void run() {
+                try {
+                  serve(socket);
+                }
+                catch (IOException e) {
+                  // Connection closed.
+                }
+                catch (InterruptedException e) {
+                  // Exit.
+                }
+              }
+            };
+
+          thread.setDaemon(true);
+          thread.start();
+        }
+      }
+      catch (IOException e) {
+        // Server socket closed.
+      }
+    }
+
+    private void serve(Socket socket)
+      throws IOException, InterruptedException {
+
+      final InputStream in = socket.getInputStream();
+      final OutputStream out = socket.getOutputStream();
+
+      for (int requests = 0; true; ++requests) {
+        final StringBuilder head = new StringBuilder();
+
+        while (head.indexOf("\r\n\r\n") < 0) {
+          final int b = in.read();
+
+          if (b == -1) {
+            socket.close();
+            return;
+          }
+
+          head.append((char) b);
+        }
+
+        if (requests > 0 && m_dropReusedConnections) {
+          socket.close();
+          return;
+        }
+
+        m_lastRequest = head.toString();
+
+        final String requestLine =
+          m_lastRequest.substring(0, m_lastRequest.indexOf(' ',
+            m_lastRequest.indexOf(' ') + 1));
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(requestLine.getBytes("US-ASCII"));
+
+        final int i = m_lastRequest.indexOf("Content-Length: ");
+
+        if (i >= 0) {
+          final int length =
+            Integer.parseInt(m_lastRequest.substring(
+              i + 16, m_lastRequest.indexOf('\r', i)));
+
+          for (int j = 0; j < length; ++j) {
+            body.write(in.read());
+          }
+        }
+
+        Thread.sleep(m_responseDelay);
+
+        final String method =
+          requestLine.substring(0, requestLine.indexOf(' '));
+
+        out.write(("HTTP/1.1 200 OK\r\n" +
+                   "Content-Type: text/plain; charset=UTF-8\r\n" +
+                   "Content-Length: " + body.size() + "\r\n" +
+                   (m_closeAfterResponse ? "Connection: close\r\n" : "") +
+                   "\r\n").getBytes("US-ASCII"));
+
+        if (!"HEAD".equals(method)) {
+          body.writeTo(out);
+        }
+
+        out.flush();
+
+        if (m_closeAfterResponse) {
+          socket.close();
+          return;
+        }
+      }
+    }
+  }
+}
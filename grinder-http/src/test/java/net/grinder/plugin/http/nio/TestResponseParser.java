@@ -0,0 +1,233 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ResponseParser}.
+ *
+ * @author Philip Aston
+ */
+public class TestResponseParser {
+
+  private static ByteBuffer bytes(String s) throws Exception {
+    return ByteBuffer.wrap(s.getBytes("ISO-8859-1"));
+  }
+
+  /**
+   * Feed a response to a parser one byte at a time.
+   */
+  private static boolean parseSlowly(ResponseParser parser, String s)
+    throws Exception {
+
+    final ByteBuffer buffer = bytes(s);
+    boolean result = false;
+
+    for (int i = 0; i < buffer.capacity(); ++i) {
+      assertFalse(result);
+      buffer.limit(i + 1);
+      result = parser.parse(buffer);
+    }
+
+    return result;
+  }
+
+  @Test public void testContentLength() throws Exception {
+    final String response =
+      "HTTP/1.1 200 OK\r\n" +
+      "Content-Type: text/plain\r\n" +
+      "content-length: 5\r\n" +
+      "\r\n" +
+      "hello";
+
+    final ResponseParser parser = new ResponseParser(false);
+    assertFalse(parser.hasStarted());
+
+    assertTrue(parseSlowly(parser, response));
+
+    assertTrue(parser.hasStarted());
+    assertEquals(200, parser.getStatusCode());
+    assertEquals("OK", parser.getReasonLine());
+    assertEquals(2, parser.getHeaders().length);
+    assertEquals("text/plain", parser.getHeader("content-type"));
+    assertNull(parser.getHeader("foo"));
+    assertArrayEquals("hello".getBytes(), parser.getBody());
+    assertTrue(parser.isKeepAlive());
+
+    final ResponseParser parser2 = new ResponseParser(false);
+    final ByteBuffer buffer = bytes(response + "HTTP/1.1 ...");
+    assertTrue(parser2.parse(buffer));
+    assertEquals(12, buffer.remaining());
+    assertArrayEquals("hello".getBytes(), parser2.getBody());
+  }
+
+  @Test public void testChunked() throws Exception {
+    final String response =
+      "HTTP/1.1 404 Not Found\n" +
+      "Transfer-Encoding: chunked\n" +
+      "\n" +
+      "3;foo=bar\r\n" +
+      "abc\r\n" +
+      "A\r\n" +
+      "0123456789\r\n" +
+      "0\r\n" +
+      "Trailer: x\r\n" +
+      "\r\n";
+
+    final ResponseParser parser = new ResponseParser(false);
+    assertTrue(parseSlowly(parser, response));
+
+    assertEquals(404, parser.getStatusCode());
+    assertEquals("Not Found", parser.getReasonLine());
+    assertArrayEquals("abc0123456789".getBytes(), parser.getBody());
+    assertTrue(parser.isKeepAlive());
+
+    final ResponseParser parser2 = new ResponseParser(false);
+    assertTrue(parser2.parse(bytes(response)));
+    assertArrayEquals("abc0123456789".getBytes(), parser2.getBody());
+  }
+
+  @Test public void testUntilClose() throws Exception {
+    final ResponseParser parser = new ResponseParser(false);
+
+    assertFalse(parser.endOfStream());
+
+    assertFalse(parser.parse(bytes("HTTP/1.1 200\r\n\r\nsome")));
+    assertFalse(parser.parse(bytes(" data")));
+    assertTrue(parser.endOfStream());
+
+    assertEquals(200, parser.getStatusCode());
+    assertEquals("", parser.getReasonLine());
+    assertArrayEquals("some data".getBytes(), parser.getBody());
+    assertFalse(parser.isKeepAlive());
+  }
+
+  @Test public void testNoBody() throws Exception {
+    final ResponseParser head = new ResponseParser(true);
+    assertTrue(head.parse(bytes("HTTP/1.1 200 OK\r\n" +
+                                "Content-Length: 10\r\n\r\n")));
+    assertEquals(0, head.getBody().length);
+
+    final ResponseParser notModified = new ResponseParser(false);
+    assertTrue(notModified.parse(bytes("HTTP/1.1 304 Not Modified\r\n\r\n")));
+
+    final ResponseParser empty = new ResponseParser(false);
+    assertTrue(empty.parse(bytes("HTTP/1.1 200 OK\r\n" +
+                                 "Content-Length: 0\r\n\r\n")));
+  }
+
+  @Test public void testInterimResponse() throws Exception {
+    final ResponseParser parser = new ResponseParser(false);
+
+    assertTrue(parser.parse(bytes("HTTP/1.1 100 Continue\r\n" +
+                                  "Foo: bar\r\n\r\n" +
+                                  "HTTP/1.1 201 Created\r\n" +
+                                  "Content-Length: 1\r\n\r\nx")));
+
+    assertEquals(201, parser.getStatusCode());
+    assertEquals(1, parser.getHeaders().length);
+    assertNull(parser.getHeader("Foo"));
+  }
+
+  @Test public void testKeepAlive() throws Exception {
+    final String[][] cases = {
+      { "HTTP/1.1", "", "true" },
+      { "HTTP/1.1", "Connection: close\r\n", "false" },
+      { "HTTP/1.1", "Connection: Close\r\n", "false" },
+      { "HTTP/1.0", "", "false" },
+      { "HTTP/1.0", "Connection: Keep-Alive\r\n", "true" },
+    };
+
+    for (String[] c : cases) {
+      final ResponseParser parser = new ResponseParser(false);
+
+      assertTrue(parser.parse(bytes(c[0] + " 200 OK\r\n" + c[1] +
+                                    "Content-Length: 0\r\n\r\n")));
+
+      assertEquals(c[0] + c[1],
+                   Boolean.valueOf(c[2]).booleanValue(),
+                   parser.isKeepAlive());
+    }
+  }
+
+  @Test public void testMalformed() throws Exception {
+    final String[] responses = {
+      "FTP/1.1 200 OK\r\n",
+      "HTTP/1.1\r\n",
+      "HTTP/1.1 abc OK\r\n",
+      "HTTP/1.1 200 OK\r\nNoColon\r\n",
+      "HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\n",
+      "HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n",
+      "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nxyz\r\n",
+      "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n1\r\nab\r\n",
+    };
+
+    for (String response : responses) {
+      try {
+        new ResponseParser(false).parse(bytes(response));
+        fail("Expected ProtocolException for " + response);
+      }
+      catch (ProtocolException e) {
+      }
+    }
+
+    final StringBuilder longLine = new StringBuilder("HTTP/1.1 200 ");
+
+    while (longLine.length() <= 64 * 1024) {
+      longLine.append("xxxxxxxxxxxxxxxx");
+    }
+
+    try {
+      new ResponseParser(false).parse(bytes(longLine.toString()));
+      fail("Expected ProtocolException");
+    }
+    catch (ProtocolException e) {
+    }
+  }
+
+  @Test public void testIncomplete() throws Exception {
+    final ResponseParser parser = new ResponseParser(false);
+
+    assertFalse(parser.parse(bytes("HTTP/1.1 200 OK\r\n" +
+                                   "Content-Length: 10\r\n\r\nabc")));
+    assertFalse(parser.endOfStream());
+
+    final ResponseParser direct = new ResponseParser(false);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+    buffer.put(bytes("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nab"));
+    buffer.flip();
+    assertTrue(direct.parse(buffer));
+    assertArrayEquals("ab".getBytes(), direct.getBody());
+  }
+}
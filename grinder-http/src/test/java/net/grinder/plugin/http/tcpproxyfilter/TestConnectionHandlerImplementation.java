@@ -140,6 +140,8 @@ public class TestConnectionHandlerImplementation
     verify(m_httpRecording).markLastResponseTime();
 
     handler.requestFinished();
+
+    verify(m_httpRecording).completeRequest(request);
   }
 
   @Test public void testAuthorization() throws Exception {
@@ -38,6 +38,10 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import java.io.File;
 import java.io.IOException;
 
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+
 import net.grinder.plugin.http.xml.BasicAuthorizationHeaderType;
 import net.grinder.plugin.http.xml.CommonHeadersType;
 import net.grinder.plugin.http.xml.HTTPRecordingType;
@@ -78,7 +82,7 @@ public class TestHTTPRecordingImplementation {
 
   @Mock private HTTPRecordingResultProcessor m_resultProcessor;
   @Mock private Logger m_logger;
-  @Captor private ArgumentCaptor<HttpRecordingDocument> m_recordingCaptor;
+  @Captor private ArgumentCaptor<Source> m_recordingCaptor;
 
   private final RegularExpressions m_regularExpressions =
     new RegularExpressionsImplementation();
@@ -114,9 +118,9 @@ public class TestHTTPRecordingImplementation {
     verify(m_resultProcessor, times(2)).process(m_recordingCaptor.capture());
 
     final HttpRecordingDocument recording =
-        m_recordingCaptor.getAllValues().get(0);
+        toDocument(m_recordingCaptor.getAllValues().get(0));
     final HttpRecordingDocument recording2 =
-        m_recordingCaptor.getAllValues().get(1);
+        toDocument(m_recordingCaptor.getAllValues().get(1));
 
     XMLBeansUtilities.validate(recording);
     XMLBeansUtilities.validate(recording2);
@@ -133,7 +137,7 @@ public class TestHTTPRecordingImplementation {
 
     final IOException exception = new IOException("Eat me");
     doThrow(exception)
-    .when(m_resultProcessor).process(isA(HttpRecordingDocument.class));
+    .when(m_resultProcessor).process(isA(Source.class));
 
     m_httpRecording.dispose();
 
@@ -203,7 +207,8 @@ public class TestHTTPRecordingImplementation {
 
     verify(m_resultProcessor).process(m_recordingCaptor.capture());
 
-    final HttpRecordingDocument recording = m_recordingCaptor.getValue();
+    final HttpRecordingDocument recording =
+      toDocument(m_recordingCaptor.getValue());
 
     XMLBeansUtilities.validate(recording);
 
@@ -350,7 +355,7 @@ public class TestHTTPRecordingImplementation {
     verify(m_resultProcessor).process(m_recordingCaptor.capture());
 
     final HTTPRecordingType recording =
-      m_recordingCaptor.getValue().getHttpRecording();
+      toDocument(m_recordingCaptor.getValue()).getHttpRecording();
 
     // Default, plus 2 sets.
     assertEquals(3, recording.getCommonHeadersArray().length);
@@ -412,7 +417,7 @@ public class TestHTTPRecordingImplementation {
     verify(m_resultProcessor).process(m_recordingCaptor.capture());
 
     final HTTPRecordingType recording =
-      m_recordingCaptor.getValue().getHttpRecording();
+      toDocument(m_recordingCaptor.getValue()).getHttpRecording();
 
     assertEquals(0, recording.getCommonHeadersArray().length);
 
@@ -445,7 +450,7 @@ public class TestHTTPRecordingImplementation {
     verify(m_resultProcessor).process(m_recordingCaptor.capture());
 
     final HTTPRecordingType recording =
-      m_recordingCaptor.getValue().getHttpRecording();
+      toDocument(m_recordingCaptor.getValue()).getHttpRecording();
 
     assertEquals(0, recording.getCommonHeadersArray().length);
   }
@@ -473,7 +478,7 @@ public class TestHTTPRecordingImplementation {
     verify(m_resultProcessor).process(m_recordingCaptor.capture());
 
     final HTTPRecordingType recording =
-      m_recordingCaptor.getValue().getHttpRecording();
+      toDocument(m_recordingCaptor.getValue()).getHttpRecording();
 
     assertEquals(1, recording.getCommonHeadersArray().length);
 
@@ -483,6 +488,53 @@ public class TestHTTPRecordingImplementation {
     assertEquals(1, headers.sizeOfHeaderArray());
   }
 
+  @Test public void testCompleteRequest() throws Exception {
+    final RequestType request1 =
+      m_httpRecording.addRequest(m_connectionDetails1, "GET", "/one");
+    request1.addNewResponse();
+
+    final RequestType request2 =
+      m_httpRecording.addRequest(m_connectionDetails1, "GET", "/two");
+    request2.addNewResponse();
+
+    final RequestType request3 =
+      m_httpRecording.addRequest(m_connectionDetails1, "GET", "/three");
+
+    // Requests can complete in any order.
+    m_httpRecording.completeRequest(request2);
+    m_httpRecording.completeRequest(request1);
+
+    // Ignored because it doesn't have a response.
+    m_httpRecording.completeRequest(request3);
+    request3.addNewResponse();
+
+    // Completed requests have been written to the log.
+    request1.setDescription("Changed");
+    m_httpRecording.completeRequest(request1);
+
+    m_httpRecording.dispose();
+
+    verify(m_resultProcessor).process(m_recordingCaptor.capture());
+
+    final HttpRecordingDocument recording =
+      toDocument(m_recordingCaptor.getValue());
+
+    XMLBeansUtilities.validate(recording);
+
+    final PageType[] pages = recording.getHttpRecording().getPageArray();
+    assertEquals(2, pages.length);
+    assertEquals("GET one", pages[0].getRequestArray(0).getDescription());
+    assertEquals("GET two", pages[1].getRequestArray(0).getDescription());
+  }
+
+  private static HttpRecordingDocument toDocument(Source source)
+    throws Exception {
+
+    final DOMResult result = new DOMResult();
+    TransformerFactory.newInstance().newTransformer().transform(source, result);
+    return HttpRecordingDocument.Factory.parse(result.getNode());
+  }
+
   @Test public void testCreateBodyDataFileName() throws Exception {
 
     final File file1 = m_httpRecording.createBodyDataFileName();
@@ -1,4 +1,4 @@
-// Copyright (C) 2005 - 2011 Philip Aston
+// Copyright (C) 2005 - 2012 Philip Aston
 // All rights reserved.
 //
 // This file is part of The Grinder software distribution. Refer to
@@ -31,9 +31,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Calendar;
 
+import javax.xml.transform.stream.StreamSource;
+
 import net.grinder.plugin.http.tcpproxyfilter.ProcessHTTPRecordingWithXSLT.BuiltInStyleSheet;
 import net.grinder.plugin.http.tcpproxyfilter.ProcessHTTPRecordingWithXSLT.StyleSheetFile;
 import net.grinder.plugin.http.xml.HTTPRecordingType;
@@ -102,6 +105,37 @@ public class TestProcessHTTPRecordingWithXSLT
     verifyNoMoreInteractions(m_logger);
   }
 
+  @Test public void testWithStreamSource() throws Exception {
+
+    final File identityStyleSheetFile =
+      new File(getDirectory(), "identity.xsl");
+
+    new StreamCopier(4096, true).copy(
+      getClass().getResourceAsStream("resources/identity.xsl"),
+      new FileOutputStream(identityStyleSheetFile));
+
+    final ProcessHTTPRecordingWithXSLT processor =
+      new ProcessHTTPRecordingWithXSLT(
+        new StyleSheetFile(identityStyleSheetFile), m_out, m_logger);
+
+    final String document =
+      "<http-recording " +
+      "xmlns='http://grinder.sourceforge.net/tcpproxy/http/1.0'>" +
+      "<metadata><version>blah</version></metadata>" +
+      "</http-recording>";
+
+    processor.process(new StreamSource(new StringReader(document)));
+
+    AssertUtilities.assertContainsPattern(m_stringOut.toString(),
+      "<http-recording .*?>\\s*" +
+      "<metadata>\\s*" +
+      "<version>blah</version>\\s*" +
+      "</metadata>\\s*" +
+      "</http-recording>\\s*$");
+
+    verifyNoMoreInteractions(m_logger);
+  }
+
   @Test public void testWithStandardTransform() throws Exception {
     final ProcessHTTPRecordingWithXSLT processor =
       new ProcessHTTPRecordingWithXSLT(m_out, m_logger);
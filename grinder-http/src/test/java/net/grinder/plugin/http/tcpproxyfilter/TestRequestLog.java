@@ -0,0 +1,79 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package net.grinder.plugin.http.tcpproxyfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.grinder.plugin.http.xml.RequestType;
+import net.grinder.testutility.AbstractJUnit4FileTestCase;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link RequestLog}.
+ *
+ * @author Philip Aston
+ */
+public class TestRequestLog extends AbstractJUnit4FileTestCase {
+
+  private static RequestType createRequest(String description) {
+    final RequestType result = RequestType.Factory.newInstance();
+    result.setDescription(description);
+    result.addNewResponse().setStatusCode(200);
+    return result;
+  }
+
+  @Test public void testAppendAndRead() throws Exception {
+    final File file = new File(getDirectory(), "requests.log");
+    final RequestLog log = new RequestLog(file);
+
+    final long position1 = log.append(createRequest("one"));
+    final long position2 = log.append(createRequest("two"));
+    assertTrue(position2 > position1);
+
+    log.close();
+    log.close();
+
+    final RequestLog.Reader reader = log.openReader();
+
+    assertEquals("two", reader.read(position2).getDescription());
+    assertEquals("one", reader.read(position1).getDescription());
+    assertEquals(200, reader.read(position1).getResponse().getStatusCode());
+
+    reader.close();
+
+    // We can append after closing.
+    final long position3 = log.append(createRequest("three"));
+    log.close();
+
+    final RequestLog.Reader reader2 = log.openReader();
+
+    assertEquals("three", reader2.read(position3).getDescription());
+    assertEquals("one", reader2.read(position1).getDescription());
+
+    reader2.close();
+  }
+}
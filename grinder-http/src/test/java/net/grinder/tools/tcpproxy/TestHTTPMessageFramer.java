@@ -0,0 +1,216 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.tools.tcpproxy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link HTTPMessageFramer}.
+ *
+ * @author Philip Aston
+ */
+public class TestHTTPMessageFramer {
+
+  private final List<String> m_segments = new ArrayList<String>();
+
+  private final HTTPMessageFramer.Listener m_listener =
+    new HTTPMessageFramer.Listener() {
+      public void segment(byte[] buffer, int offset, int length)
+        throws IOException {
+        m_segments.add(new String(buffer, offset, length, "ISO-8859-1"));
+      }
+    };
+
+  private void frame(HTTPMessageFramer framer, String... buffers)
+    throws Exception {
+
+    for (String buffer : buffers) {
+      final byte[] bytes = buffer.getBytes("ISO-8859-1");
+      framer.frame(bytes, bytes.length, m_listener);
+    }
+  }
+
+  private void assertSegments(String... expected) {
+    assertEquals(Arrays.asList(expected), m_segments);
+    m_segments.clear();
+  }
+
+  @Test public void testFragmentedHead() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(false, null);
+
+    frame(framer, "GET /foo HT", "TP/1.1\r\nHost: x\r\n", "\r\n");
+
+    assertSegments("GET /foo HTTP/1.1\r\nHost: x\r\n\r\n");
+
+    frame(framer, "G");
+    assertSegments();
+
+    frame(framer, "ET / HTTP/1.0\r\n\r\n");
+    assertSegments("GET / HTTP/1.0\r\n\r\n");
+  }
+
+  @Test public void testPipelinedRequests() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(false, null);
+
+    frame(framer,
+          "POST /a HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc" +
+          "GET /b HTTP/1.1\r\n\r\nGET /c HTT",
+          "P/1.1\r\n\r\n");
+
+    assertSegments("POST /a HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc",
+                   "GET /b HTTP/1.1\r\n\r\n",
+                   "GET /c HTTP/1.1\r\n\r\n");
+  }
+
+  @Test public void testBodyIsNotHeld() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(false, null);
+
+    // The body happens to look like the start of a request line.
+    frame(framer,
+          "POST /a HTTP/1.1\r\nContent-Length: 8\r\n\r\nGET ",
+          "/a H",
+          "GET /b HTTP/1.1\r\n\r\n");
+
+    assertSegments("POST /a HTTP/1.1\r\nContent-Length: 8\r\n\r\nGET ",
+                   "/a H",
+                   "GET /b HTTP/1.1\r\n\r\n");
+  }
+
+  @Test public void testChunkedBody() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(true, null);
+
+    frame(framer,
+          "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhel",
+          "lo\r\n3;x=y\r\nabc\r\n0\r\nTrailer: t\r\n\r\nHTTP/1.1 204 ",
+          "No Content\r\n\r\n");
+
+    assertSegments(
+      "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhel",
+      "lo\r\n3;x=y\r\nabc\r\n0\r\nTrailer: t\r\n\r\n",
+      "HTTP/1.1 204 No Content\r\n\r\n");
+  }
+
+  @Test public void testResponsesToHEAD() throws Exception {
+    final Queue<String> methods = new LinkedList<String>();
+    final HTTPMessageFramer requests = new HTTPMessageFramer(false, methods);
+    final HTTPMessageFramer responses = new HTTPMessageFramer(true, methods);
+
+    frame(requests, "HEAD / HTTP/1.1\r\n\r\nGET / HTTP/1.1\r\n\r\n");
+    assertSegments("HEAD / HTTP/1.1\r\n\r\n", "GET / HTTP/1.1\r\n\r\n");
+
+    frame(responses,
+          "HTTP/1.1 100 Continue\r\n\r\n" +
+          "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n" +
+          "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n",
+          "OK");
+
+    assertSegments("HTTP/1.1 100 Continue\r\n\r\n",
+                   "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n",
+                   "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n",
+                   "OK");
+
+    assertEquals(0, methods.size());
+  }
+
+  @Test public void testBodyUntilClose() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(true, null);
+
+    frame(framer, "HTTP/1.0 200 OK\r\n\r\nHTTP", "/1.0 200 OK\r\n\r\n");
+
+    assertSegments("HTTP/1.0 200 OK\r\n\r\nHTTP", "/1.0 200 OK\r\n\r\n");
+  }
+
+  @Test public void testNotHTTP() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(false, null);
+
+    frame(framer,
+          "This is some stuff\r\n",
+          "GET",
+          "ÿþ");
+
+    assertSegments("This is some stuff\r\n", "GETÿþ");
+
+    // Not a response.
+    final HTTPMessageFramer responses = new HTTPMessageFramer(true, null);
+
+    frame(responses, "GET / HTTP/1.1\r\n", "\r\n");
+    assertSegments("GET / HTTP/1.1\r\n", "\r\n");
+  }
+
+  @Test public void testInvalidStatusCode() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(true, null);
+
+    frame(framer,
+          "HTTP/1.1 200x OK\r\nContent-Length: 10\r\n\r\n",
+          "HTTP/1.1 2000\r\n\r\n",
+          "HTTP/1.1 200\r\nContent-Length: 2\r\n\r\nhi");
+
+    // Not HTTP, so passed straight through.
+    assertSegments("HTTP/1.1 200x OK\r\nContent-Length: 10\r\n\r\n",
+                   "HTTP/1.1 2000\r\n\r\n",
+                   "HTTP/1.1 200\r\nContent-Length: 2\r\n\r\nhi");
+
+    frame(framer, "HTTP/1.1 204 No Content\r\n\r\n");
+    assertSegments("HTTP/1.1 204 No Content\r\n\r\n");
+  }
+
+  @Test public void testFlush() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(false, null);
+
+    framer.flush(m_listener);
+    assertSegments();
+
+    frame(framer, "GET / HTTP/1.1\r\nHost: x");
+    assertSegments();
+
+    framer.flush(m_listener);
+    assertSegments("GET / HTTP/1.1\r\nHost: x");
+  }
+
+  @Test public void testHugeHead() throws Exception {
+    final HTTPMessageFramer framer = new HTTPMessageFramer(false, null);
+
+    final StringBuilder cookie = new StringBuilder("Cookie: ");
+
+    for (int i = 0; i < HTTPMessageFramer.MAXIMUM_HEAD_LENGTH; ++i) {
+      cookie.append('x');
+    }
+
+    frame(framer, "GET / HTTP/1.1\r\n", cookie.toString());
+
+    // Gave up waiting for the end of the head.
+    assertEquals(1, m_segments.size());
+    assertEquals(HTTPMessageFramer.MAXIMUM_HEAD_LENGTH + 24,
+                 m_segments.get(0).length());
+  }
+}
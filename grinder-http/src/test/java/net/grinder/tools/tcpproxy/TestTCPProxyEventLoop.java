@@ -0,0 +1,373 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package net.grinder.tools.tcpproxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+
+/**
+ * Unit tests for {@link TCPProxyEventLoop}.
+ *
+ * @author Philip Aston
+ */
+public class TestTCPProxyEventLoop {
+
+  private final ThreadGroup m_threadGroup = new ThreadGroup("test");
+
+  private final Logger m_logger = mock(Logger.class);
+
+  private final TCPProxyEventLoop m_eventLoop =
+    new TCPProxyEventLoop(m_threadGroup, "test", m_logger);
+
+  private ServerSocketChannel m_serverChannel;
+
+  @Before public void setUp() throws Exception {
+    m_serverChannel = ServerSocketChannel.open();
+    m_serverChannel.socket().bind(new InetSocketAddress("localhost", 0));
+  }
+
+  @After public void tearDown() throws Exception {
+    m_eventLoop.stop();
+    m_serverChannel.close();
+  }
+
+  private Socket connect() throws IOException {
+    return new Socket("localhost", m_serverChannel.socket().getLocalPort());
+  }
+
+  private void register(final SocketChannel channel,
+                        final RecordingHandler handler) throws Exception {
+    m_eventLoop.execute(new Runnable() {
+        public void run() {
+          try {
+            handler.m_connection = m_eventLoop.register(channel, handler);
+          }
+          catch (IOException e) {
+            fail(e.getMessage());
+          }
+        }
+      });
+  }
+
+  private static byte[] readFully(InputStream in, int length)
+    throws IOException {
+
+    final byte[] result = new byte[length];
+
+    for (int n = 0; n < length; ) {
+      final int r = in.read(result, n, length - n);
+      assertTrue(r > 0);
+      n += r;
+    }
+
+    return result;
+  }
+
+  private void waitForLoopToExit() throws InterruptedException {
+    for (int i = 0; i < 100 && m_threadGroup.activeCount() > 0; ++i) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(0, m_threadGroup.activeCount());
+  }
+
+  @Test public void testEcho() throws Exception {
+    final Socket client = connect();
+
+    final RecordingHandler handler = new RecordingHandler(true);
+    register(m_serverChannel.accept(), handler);
+
+    client.getOutputStream().write("Hello world".getBytes());
+    assertArrayEquals("Hello world".getBytes(),
+                      readFully(client.getInputStream(), 11));
+
+    assertEquals(1, m_eventLoop.getConnectionCount());
+
+    client.shutdownOutput();
+
+    assertEquals("end", handler.next());
+    assertEquals("closed null", handler.next());
+    assertEquals(-1, client.getInputStream().read());
+
+    client.close();
+
+    waitForLoopToExit();
+    assertEquals(0, m_eventLoop.getConnectionCount());
+    assertNull(handler.m_events.poll(50, TimeUnit.MILLISECONDS));
+  }
+
+  @Test public void testTaskFailure() throws Exception {
+    final Socket client = connect();
+
+    final RecordingHandler handler = new RecordingHandler(true);
+    register(m_serverChannel.accept(), handler);
+
+    client.getOutputStream().write("Hello".getBytes());
+    assertArrayEquals("Hello".getBytes(),
+                      readFully(client.getInputStream(), 5));
+
+    final RuntimeException exception = new RuntimeException("bad task");
+
+    final CountDownLatch nextTaskRun = new CountDownLatch(1);
+
+    m_eventLoop.execute(new Runnable() {
+        public void run() {
+          throw exception;
+        }
+      });
+
+    m_eventLoop.execute(new Runnable() {
+        public void run() {
+          nextTaskRun.countDown();
+        }
+      });
+
+    assertTrue(nextTaskRun.await(5, TimeUnit.SECONDS));
+
+    // The loop carries on, and the connection is still open.
+    client.getOutputStream().write("world".getBytes());
+    assertArrayEquals("world".getBytes(),
+                      readFully(client.getInputStream(), 5));
+
+    verify(m_logger).error("bad task", exception);
+    assertEquals(1, m_eventLoop.getConnectionCount());
+
+    client.close();
+  }
+
+  @Test public void testQueuedWrites() throws Exception {
+    final Socket client = connect();
+
+    final RecordingHandler handler = new RecordingHandler(false);
+    register(m_serverChannel.accept(), handler);
+
+    final byte[] data = new byte[2 * 1024 * 1024];
+
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) i;
+    }
+
+    // The client isn't reading, so most of this will be queued.
+    m_eventLoop.execute(new Runnable() {
+        public void run() {
+          try {
+            handler.m_connection.getOutputStream().write(data);
+            handler.m_connection.getOutputStream().close();
+          }
+          catch (IOException e) {
+            fail(e.getMessage());
+          }
+        }
+      });
+
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    int n;
+
+    while ((n = client.getInputStream().read(buffer)) != -1) {
+      received.write(buffer, 0, n);
+    }
+
+    assertArrayEquals(data, received.toByteArray());
+    assertEquals("closed null", handler.next());
+
+    client.close();
+  }
+
+  @Test public void testConnect() throws Exception {
+    final RecordingHandler handler = new RecordingHandler(false);
+
+    m_eventLoop.execute(new Runnable() {
+        public void run() {
+          try {
+            handler.m_connection =
+              m_eventLoop.connect(
+                (InetSocketAddress) m_serverChannel.socket()
+                  .getLocalSocketAddress(),
+                handler);
+
+            // Queued until the connection is established.
+            handler.m_connection.getOutputStream().write(1);
+          }
+          catch (IOException e) {
+            fail(e.getMessage());
+          }
+        }
+      });
+
+    final Socket accepted = m_serverChannel.accept().socket();
+    assertEquals(1, accepted.getInputStream().read());
+    accepted.close();
+
+    assertEquals("end", handler.next());
+    assertEquals("closed null", handler.next());
+
+    final ServerSocket unused = new ServerSocket(0);
+    final int freePort = unused.getLocalPort();
+    unused.close();
+
+    final RecordingHandler handler2 = new RecordingHandler(false);
+
+    m_eventLoop.execute(new Runnable() {
+        public void run() {
+          try {
+            m_eventLoop.connect(new InetSocketAddress("localhost", freePort),
+                                handler2);
+          }
+          catch (IOException e) {
+            fail(e.getMessage());
+          }
+        }
+      });
+
+    assertEquals("closed " + ConnectException.class.getName(),
+                 handler2.next());
+  }
+
+  @Test public void testTimeOut() throws Exception {
+    final Socket client = connect();
+
+    final RecordingHandler handler = new RecordingHandler(false);
+
+    m_eventLoop.execute(new Runnable() {
+        public void run() {
+          try {
+            handler.m_connection =
+              m_eventLoop.register(m_serverChannel.accept(), handler);
+            handler.m_connection.setTimeout(10);
+          }
+          catch (IOException e) {
+            fail(e.getMessage());
+          }
+        }
+      });
+
+    assertEquals("timed out", handler.next());
+
+    client.close();
+
+    assertEquals("end", handler.next());
+    assertEquals("closed null", handler.next());
+  }
+
+  @Test public void testStop() throws Exception {
+    final Socket client = connect();
+
+    final RecordingHandler handler = new RecordingHandler(false);
+    register(m_serverChannel.accept(), handler);
+
+    client.getOutputStream().write(99);
+    assertEquals("handle 1", handler.next());
+
+    m_eventLoop.stop();
+
+    assertEquals("closed null", handler.next());
+    assertEquals(0, m_threadGroup.activeCount());
+    assertEquals(-1, client.getInputStream().read());
+
+    try {
+      m_eventLoop.execute(new Runnable() { public void run() { } });
+      fail("Expected SocketException");
+    }
+    catch (SocketException e) {
+    }
+
+    // Stopping again does nothing.
+    m_eventLoop.stop();
+
+    client.close();
+  }
+
+  private static final class RecordingHandler
+    implements TCPProxyEventLoop.Handler {
+
+    private final BlockingQueue<String> m_events =
+      new LinkedBlockingQueue<String>();
+
+    private final boolean m_echo;
+
+    private volatile TCPProxyEventLoop.Connection m_connection;
+
+    public RecordingHandler(boolean echo) {
+      m_echo = echo;
+    }
+
+    public String next() throws InterruptedException {
+      final String result = m_events.poll(5, TimeUnit.SECONDS);
+
+      if (result == null) {
+        fail("No event");
+      }
+
+      return result;
+    }
+
+    public void handle(byte[] buffer, int length) throws IOException {
+      if (m_echo) {
+        m_connection.getOutputStream().write(buffer, 0, length);
+      }
+      else {
+        m_events.add("handle " + length);
+      }
+    }
+
+    public void endOfStream() {
+      m_events.add("end");
+    }
+
+    public void timedOut() {
+      m_events.add("timed out");
+    }
+
+    public void closed(IOException cause) {
+      m_events.add("closed " +
+                   (cause != null ? cause.getClass().getName() : null));
+    }
+  }
+}
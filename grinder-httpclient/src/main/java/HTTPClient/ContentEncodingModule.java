@@ -166,6 +166,20 @@ class ContentEncodingModule implements HTTPClientModule
 	    return;
 
 	String encoding = ((HttpHeaderElement) pce.firstElement()).getName();
+	/** ++GRINDER MODIFICATION **/
+	if (req.getConnection().getDeferContentDecoding()  &&
+	    (encoding.equalsIgnoreCase("gzip")  ||
+	     encoding.equalsIgnoreCase("x-gzip")  ||
+	     encoding.equalsIgnoreCase("deflate")))
+	{
+	    Log.write(Log.MODS, "CEM:   deferring '" + encoding + "' decoding");
+	    resp.deferredContentEncoding =
+		encoding.equalsIgnoreCase("deflate") ? "deflate" : "gzip";
+	    pce.removeElementAt(pce.size()-1);
+	    resp.deleteHeader("Content-length");
+	}
+	else
+	/** --GRINDER MODIFICATION **/
 	if (encoding.equalsIgnoreCase("gzip")  ||
 	    encoding.equalsIgnoreCase("x-gzip"))
 	{
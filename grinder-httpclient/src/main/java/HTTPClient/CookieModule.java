@@ -103,6 +103,9 @@ import java.awt.event.WindowAdapter;
 public class CookieModule implements HTTPClientModule
 {
     /** the list of known cookies */
+    /** ++GRINDER MODIFICATION **/
+    // The values are CookieStores rather than Hashtables. Use getStore().
+    /** --GRINDER MODIFICATION **/
     private static Hashtable cookie_cntxt_list = new Hashtable();
 
     /** the file to use for persistent cookie storage */
@@ -156,8 +159,14 @@ public class CookieModule implements HTTPClientModule
 	    {
 		ObjectInputStream ois =
 		    new ObjectInputStream(new FileInputStream(cookie_jar));
-		cookie_cntxt_list.put(HTTPConnection.getDefaultContext(),
-				      (Hashtable) ois.readObject());
+		/** ++GRINDER MODIFICATION **/
+//		cookie_cntxt_list.put(HTTPConnection.getDefaultContext(),
+//				      (Hashtable) ois.readObject());
+		CookieStore store = getStore(HTTPConnection.getDefaultContext());
+		Enumeration e = ((Hashtable) ois.readObject()).elements();
+		while (e.hasMoreElements())
+		    store.put((Cookie) e.nextElement());
+		/** --GRINDER MODIFICATION **/
 		ois.close();
 	    }
 	}
@@ -186,15 +195,14 @@ public class CookieModule implements HTTPClientModule
 //		    cookie_list.put(cookie, cookie);
 //	    }
         Hashtable cookie_list = new Hashtable();
-        Enumeration e = Util.getList(cookie_cntxt_list,
-                        HTTPConnection.getDefaultContext())
-                   .elements();
+        Cookie[] cookies =
+            getStore(HTTPConnection.getDefaultContext()).getCookies();
 
         // discard cookies which are not to be kept across sessions
 
-        while (e.hasMoreElements())
+        for (int idx=0; idx<cookies.length; idx++)
         {
-        Cookie cookie = (Cookie) e.nextElement();
+        Cookie cookie = cookies[idx];
         if (!cookie.discard())
             cookie_list.put(cookie, cookie);
         }
@@ -267,6 +275,30 @@ public class CookieModule implements HTTPClientModule
     }
 
 
+    /** ++GRINDER MODIFICATION **/
+    /**
+     * Get the cookie store for a context, creating it if necessary.
+     *
+     * @param context the context Object
+     * @return the store
+     */
+    private static CookieStore getStore(Object context)
+    {
+	synchronized (cookie_cntxt_list)
+	{
+	    CookieStore store = (CookieStore) cookie_cntxt_list.get(context);
+	    if (store == null)
+	    {
+		store = new CookieStore();
+		cookie_cntxt_list.put(context, store);
+	    }
+
+	    return store;
+	}
+    }
+    /** --GRINDER MODIFICATION **/
+
+
     // Constructors
 
     CookieModule()
@@ -308,76 +340,111 @@ public class CookieModule implements HTTPClientModule
 
 	// Now set any new cookie headers
 
-	Hashtable cookie_list =
-	    Util.getList(cookie_cntxt_list, req.getConnection().getContext());
-	if (cookie_list.size() == 0)
-	    return REQ_CONTINUE;	// no need to create a lot of objects
-
-	Vector  names   = new Vector();
-	Vector  lens    = new Vector();
-	int     version = 0;
-
-	synchronized (cookie_list)
-	{
-	    Enumeration list = cookie_list.elements();
-	    Vector remove_list = null;
-
-	    while (list.hasMoreElements())
-	    {
-		Cookie cookie = (Cookie) list.nextElement();
-
-		if (cookie.hasExpired())
-		{
-		    Log.write(Log.COOKI, "CookM: cookie has expired and is " +
-					 "being removed: " + cookie);
-		    if (remove_list == null)  remove_list = new Vector();
-		    remove_list.addElement(cookie);
-		    continue;
-		}
-
-		if (cookie.sendWith(req)  &&  (cookie_handler == null  ||
-		    cookie_handler.sendCookie(cookie, req)))
-		{
-		    int len = cookie.getPath().length();
-		    int idx;
-
-		    // insert in correct position
-		    for (idx=0; idx<lens.size(); idx++)
-			if (((Integer) lens.elementAt(idx)).intValue() < len)
-			    break;
-
-		    names.insertElementAt(cookie.toExternalForm(), idx);
-		    lens.insertElementAt(new Integer(len), idx);
-
-		    if (cookie instanceof Cookie2)
-			version = Math.max(version, ((Cookie2) cookie).getVersion());
-		}
-	    }
+	/** ++GRINDER MODIFICATION **/
+//	Hashtable cookie_list =
+//	    Util.getList(cookie_cntxt_list, req.getConnection().getContext());
+//	if (cookie_list.size() == 0)
+//	    return REQ_CONTINUE;	// no need to create a lot of objects
+//
+//	Vector  names   = new Vector();
+//	Vector  lens    = new Vector();
+//	int     version = 0;
+//
+//	synchronized (cookie_list)
+//	{
+//	    Enumeration list = cookie_list.elements();
+//	    Vector remove_list = null;
+//
+//	    while (list.hasMoreElements())
+//	    {
+//		Cookie cookie = (Cookie) list.nextElement();
+//
+//		if (cookie.hasExpired())
+//		{
+//		    Log.write(Log.COOKI, "CookM: cookie has expired and is " +
+//					 "being removed: " + cookie);
+//		    if (remove_list == null)  remove_list = new Vector();
+//		    remove_list.addElement(cookie);
+//		    continue;
+//		}
+//
+//		if (cookie.sendWith(req)  &&  (cookie_handler == null  ||
+//		    cookie_handler.sendCookie(cookie, req)))
+//		{
+//		    int len = cookie.getPath().length();
+//		    int idx;
+//
+//		    // insert in correct position
+//		    for (idx=0; idx<lens.size(); idx++)
+//			if (((Integer) lens.elementAt(idx)).intValue() < len)
+//			    break;
+//
+//		    names.insertElementAt(cookie.toExternalForm(), idx);
+//		    lens.insertElementAt(new Integer(len), idx);
+//
+//		    if (cookie instanceof Cookie2)
+//			version = Math.max(version, ((Cookie2) cookie).getVersion());
+//		}
+//	    }
+//
+//	    // remove any marked cookies
+//	    // Note: we can't do this during the enumeration!
+//	    if (remove_list != null)
+//	    {
+//		for (int idx=0; idx<remove_list.size(); idx++)
+//		    cookie_list.remove(remove_list.elementAt(idx));
+//	    }
+//	}
+//
+//	if (!names.isEmpty())
+//	{
+//	    StringBuffer value = new StringBuffer();
+//
+//	    if (version > 0)
+//		value.append("$Version=\"" + version + "\"; ");
+//
+//	    value.append((String) names.elementAt(0));
+//	    for (int idx=1; idx<names.size(); idx++)
+//	    {
+//		value.append("; ");
+//		value.append((String) names.elementAt(idx));
+//	    }
+//	    hdrs = Util.resizeArray(hdrs, hdrs.length+1);
+//	    hdrs[hdrs.length-1] = new NVPair("Cookie", value.toString());
+//
+//	    // add Cookie2 header if necessary
+//	    if (version != 1)	// we currently know about version 1 only
+//	    {
+//		int idx;
+//		for (idx=0; idx<hdrs.length; idx++)
+//		    if (hdrs[idx].getName().equalsIgnoreCase("Cookie2"))
+//			break;
+//		if (idx == hdrs.length)
+//		{
+//		    hdrs = Util.resizeArray(hdrs, hdrs.length+1);
+//		    hdrs[hdrs.length-1] =
+//				    new NVPair("Cookie2", "$Version=\"1\"");
+//		}
+//	    }
+//
+//	    req.setHeaders(hdrs);
+//
+//	    Log.write(Log.COOKI, "CookM: Sending cookies '" + value + "'");
+//	}
+	// Look the header up in the indexed store, rather than scanning every
+	// cookie and building the header for each request.
+	CookieStore store = getStore(req.getConnection().getContext());
+	if (store.size() == 0)
+	    return REQ_CONTINUE;
 
-	    // remove any marked cookies
-	    // Note: we can't do this during the enumeration!
-	    if (remove_list != null)
-	    {
-		for (int idx=0; idx<remove_list.size(); idx++)
-		    cookie_list.remove(remove_list.elementAt(idx));
-	    }
-	}
+	CookieStore.Header header = store.getHeader(req, cookie_handler);
 
-	if (!names.isEmpty())
+	if (header != null)
 	{
-	    StringBuffer value = new StringBuffer();
-
-	    if (version > 0)
-		value.append("$Version=\"" + version + "\"; ");
+	    int version = header.getVersion();
 
-	    value.append((String) names.elementAt(0));
-	    for (int idx=1; idx<names.size(); idx++)
-	    {
-		value.append("; ");
-		value.append((String) names.elementAt(idx));
-	    }
 	    hdrs = Util.resizeArray(hdrs, hdrs.length+1);
-	    hdrs[hdrs.length-1] = new NVPair("Cookie", value.toString());
+	    hdrs[hdrs.length-1] = new NVPair("Cookie", header.getValue());
 
 	    // add Cookie2 header if necessary
 	    if (version != 1)	// we currently know about version 1 only
@@ -396,8 +463,11 @@ public class CookieModule implements HTTPClientModule
 
 	    req.setHeaders(hdrs);
 
-	    Log.write(Log.COOKI, "CookM: Sending cookies '" + value + "'");
+	    if (Log.isEnabled(Log.COOKI))
+		Log.write(Log.COOKI, "CookM: Sending cookies '" +
+				     header.getValue() + "'");
 	}
+	/** --GRINDER MODIFICATION **/
 
 	return REQ_CONTINUE;
     }
@@ -479,13 +549,34 @@ public class CookieModule implements HTTPClientModule
 		Log.write(Log.COOKI, "CookM: Cookie " + idx + ": " + cookies[idx]);
 	}
 
-	Hashtable cookie_list =
-	    Util.getList(cookie_cntxt_list, req.getConnection().getContext());
+	/** ++GRINDER MODIFICATION **/
+//	Hashtable cookie_list =
+//	    Util.getList(cookie_cntxt_list, req.getConnection().getContext());
+//	synchronized (cookie_list)
+//	{
+//	    for (int idx=0; idx<cookies.length; idx++)
+//	    {
+//		Cookie cookie = (Cookie) cookie_list.get(cookies[idx]);
+//		if (cookie != null  &&  cookies[idx].hasExpired())
+//		{
+//		    Log.write(Log.COOKI, "CookM: cookie has expired and is " +
+//					 "being removed: " + cookie);
+//		    cookie_list.remove(cookie);		// expired, so remove
+//		}
+//		else if (!cookies[idx].hasExpired())	// new or replaced
+//		{
+//		    if (cookie_handler == null  ||
+//			cookie_handler.acceptCookie(cookies[idx], req, resp))
+//			cookie_list.put(cookies[idx], cookies[idx]);
+//		}
+//	    }
+//	}
+	CookieStore cookie_list = getStore(req.getConnection().getContext());
 	synchronized (cookie_list)
 	{
 	    for (int idx=0; idx<cookies.length; idx++)
 	    {
-		Cookie cookie = (Cookie) cookie_list.get(cookies[idx]);
+		Cookie cookie = cookie_list.get(cookies[idx]);
 		if (cookie != null  &&  cookies[idx].hasExpired())
 		{
 		    Log.write(Log.COOKI, "CookM: cookie has expired and is " +
@@ -496,10 +587,11 @@ public class CookieModule implements HTTPClientModule
 		{
 		    if (cookie_handler == null  ||
 			cookie_handler.acceptCookie(cookies[idx], req, resp))
-			cookie_list.put(cookies[idx], cookies[idx]);
+			cookie_list.put(cookies[idx]);
 		}
 	    }
 	}
+	/** --GRINDER MODIFICATION **/
     }
 
 
@@ -534,26 +626,44 @@ public class CookieModule implements HTTPClientModule
      */
     public static Cookie[] listAllCookies()
     {
+	/** ++GRINDER MODIFICATION **/
+//	synchronized (cookie_cntxt_list)
+//	{
+//	    Cookie[] cookies = new Cookie[0];
+//	    int idx = 0;
+//
+//	    Enumeration cntxt_list = cookie_cntxt_list.elements();
+//	    while (cntxt_list.hasMoreElements())
+//	    {
+//		Hashtable cntxt = (Hashtable) cntxt_list.nextElement();
+//		synchronized (cntxt)
+//		{
+//		    cookies = Util.resizeArray(cookies, idx+cntxt.size());
+//		    Enumeration cookie_list = cntxt.elements();
+//		    while (cookie_list.hasMoreElements())
+//			cookies[idx++] = (Cookie) cookie_list.nextElement();
+//		}
+//	    }
+//
+//	    return cookies;
+//	}
 	synchronized (cookie_cntxt_list)
 	{
 	    Cookie[] cookies = new Cookie[0];
-	    int idx = 0;
 
 	    Enumeration cntxt_list = cookie_cntxt_list.elements();
 	    while (cntxt_list.hasMoreElements())
 	    {
-		Hashtable cntxt = (Hashtable) cntxt_list.nextElement();
-		synchronized (cntxt)
-		{
-		    cookies = Util.resizeArray(cookies, idx+cntxt.size());
-		    Enumeration cookie_list = cntxt.elements();
-		    while (cookie_list.hasMoreElements())
-			cookies[idx++] = (Cookie) cookie_list.nextElement();
-		}
+		Cookie[] cntxt =
+		    ((CookieStore) cntxt_list.nextElement()).getCookies();
+		int idx = cookies.length;
+		cookies = Util.resizeArray(cookies, idx+cntxt.length);
+		System.arraycopy(cntxt, 0, cookies, idx, cntxt.length);
 	    }
 
 	    return cookies;
 	}
+	/** --GRINDER MODIFICATION **/
     }
 
 
@@ -566,24 +676,27 @@ public class CookieModule implements HTTPClientModule
      */
     public static Cookie[] listAllCookies(Object context)
     {
-	Hashtable cookie_list = Util.getList(cookie_cntxt_list, context);
-
-	synchronized (cookie_list)
-	{
-	    Cookie[] cookies = new Cookie[cookie_list.size()];
-	    int idx = 0;
-
-	    /** ++GRINDER MODIFICATION **/
-//	    Enumeration enum = cookie_list.elements();
-//	    while (enum.hasMoreElements())
-//		cookies[idx++] = (Cookie) enum.nextElement();
-        Enumeration e = cookie_list.elements();
-        while (e.hasMoreElements())
-        cookies[idx++] = (Cookie) e.nextElement();
-        /** --GRINDER MODIFICATION **/
-        
-	    return cookies;
-	}
+	/** ++GRINDER MODIFICATION **/
+//	Hashtable cookie_list = Util.getList(cookie_cntxt_list, context);
+//
+//	synchronized (cookie_list)
+//	{
+//	    Cookie[] cookies = new Cookie[cookie_list.size()];
+//	    int idx = 0;
+//
+//	    /** ++GRINDER MODIFICATION **/
+////	    Enumeration enum = cookie_list.elements();
+////	    while (enum.hasMoreElements())
+////		cookies[idx++] = (Cookie) enum.nextElement();
+//        Enumeration e = cookie_list.elements();
+//        while (e.hasMoreElements())
+//        cookies[idx++] = (Cookie) e.nextElement();
+//        /** --GRINDER MODIFICATION **/
+//        
+//	    return cookies;
+//	}
+	return getStore(context).getCookies();
+	/** --GRINDER MODIFICATION **/
     }
 
 
@@ -597,9 +710,12 @@ public class CookieModule implements HTTPClientModule
      */
     public static void addCookie(Cookie cookie)
     {
-	Hashtable cookie_list =
-	    Util.getList(cookie_cntxt_list, HTTPConnection.getDefaultContext());
-	cookie_list.put(cookie, cookie);
+	/** ++GRINDER MODIFICATION **/
+//	Hashtable cookie_list =
+//	    Util.getList(cookie_cntxt_list, HTTPConnection.getDefaultContext());
+//	cookie_list.put(cookie, cookie);
+	getStore(HTTPConnection.getDefaultContext()).put(cookie);
+	/** --GRINDER MODIFICATION **/
     }
 
 
@@ -615,8 +731,11 @@ public class CookieModule implements HTTPClientModule
      */
     public static void addCookie(Cookie cookie, Object context)
     {
-	Hashtable cookie_list = Util.getList(cookie_cntxt_list, context);
-	cookie_list.put(cookie, cookie);
+	/** ++GRINDER MODIFICATION **/
+//	Hashtable cookie_list = Util.getList(cookie_cntxt_list, context);
+//	cookie_list.put(cookie, cookie);
+	getStore(context).put(cookie);
+	/** --GRINDER MODIFICATION **/
     }
 
 
@@ -630,9 +749,12 @@ public class CookieModule implements HTTPClientModule
      */
     public static void removeCookie(Cookie cookie)
     {
-	Hashtable cookie_list =
-	    Util.getList(cookie_cntxt_list, HTTPConnection.getDefaultContext());
-	cookie_list.remove(cookie);
+	/** ++GRINDER MODIFICATION **/
+//	Hashtable cookie_list =
+//	    Util.getList(cookie_cntxt_list, HTTPConnection.getDefaultContext());
+//	cookie_list.remove(cookie);
+	getStore(HTTPConnection.getDefaultContext()).remove(cookie);
+	/** --GRINDER MODIFICATION **/
     }
 
 
@@ -647,8 +769,11 @@ public class CookieModule implements HTTPClientModule
      */
     public static void removeCookie(Cookie cookie, Object context)
     {
-	Hashtable cookie_list = Util.getList(cookie_cntxt_list, context);
-	cookie_list.remove(cookie);
+	/** ++GRINDER MODIFICATION **/
+//	Hashtable cookie_list = Util.getList(cookie_cntxt_list, context);
+//	cookie_list.remove(cookie);
+	getStore(context).remove(cookie);
+	/** --GRINDER MODIFICATION **/
     }
 
 
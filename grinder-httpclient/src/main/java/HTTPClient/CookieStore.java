@@ -0,0 +1,418 @@
+// Copyright (C) 2012 Philip Aston
+// All rights reserved.
+//
+// This file is part of The Grinder software distribution. Refer to
+// the file LICENSE which is part of The Grinder distribution for
+// licensing details. The Grinder distribution is available on the
+// Internet at http://grinder.sourceforge.net/
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+// FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+// COPYRIGHT HOLDERS OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+// INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+// HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+// STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+// OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package HTTPClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The cookies for a single context, indexed by domain and path.
+ *
+ * <p>
+ * {@link CookieModule} previously kept each context's cookies in a
+ * <code>Hashtable</code> and scanned the whole table for every request,
+ * creating a new header string each time. A store groups the cookies into
+ * buckets of the same domain and path. For each effective host, it keeps the
+ * buckets whose domain matches, in the order in which cookies are sent. The
+ * <code>Cookie</code> header value for a host and request path is calculated
+ * once, and reused until a cookie is added, replaced, removed, or expires.
+ * </p>
+ *
+ * <p>
+ * Header values are not cached if a cookie policy handler is installed, or
+ * if a matching {@link Cookie2} carries a port list, since the result then
+ * depends on more than the host and path.
+ * </p>
+ *
+ * <p>
+ * This class was added for The Grinder. Package scope.
+ * </p>
+ *
+ * @author Philip Aston
+ */
+final class CookieStore {
+
+  /**
+   * Bound on the number of request paths for which header values are cached
+   * for each host.
+   */
+  private static final int MAXIMUM_CACHED_PATHS = 256;
+
+  /** No cookies are to be sent. */
+  private static final Header NO_COOKIES = new Header(null, 0);
+
+  private final Map<Cookie, Cookie> m_cookies = new HashMap<Cookie, Cookie>();
+
+  private final Map<String, List<PathBucket>> m_domains =
+    new LinkedHashMap<String, List<PathBucket>>();
+
+  private final Map<String, HostView> m_hosts =
+    new HashMap<String, HostView>();
+
+  private long m_nextExpiry = Long.MAX_VALUE;
+
+  /**
+   * The value of a <code>Cookie</code> header.
+   */
+  static final class Header {
+    private final String m_value;
+    private final int m_version;
+
+    Header(String value, int version) {
+      m_value = value;
+      m_version = version;
+    }
+
+    /**
+     * The header value, including the <code>$Version</code> attribute if
+     * required.
+     *
+     * @return The value.
+     */
+    public String getValue() {
+      return m_value;
+    }
+
+    /**
+     * The highest version of the cookies in the header.
+     *
+     * @return The version. <code>0</code> if there are only Netscape
+     *  cookies.
+     */
+    public int getVersion() {
+      return m_version;
+    }
+  }
+
+  /**
+   * The cookies with a particular domain and path, in insertion order.
+   */
+  private static final class PathBucket {
+    private final String m_path;
+    private final Map<Cookie, Cookie> m_cookies =
+      new LinkedHashMap<Cookie, Cookie>();
+
+    PathBucket(String path) {
+      m_path = path;
+    }
+  }
+
+  /**
+   * The buckets that match an effective host, ordered by decreasing path
+   * length, and the header values calculated from them.
+   */
+  private static final class HostView {
+    private final List<PathBucket> m_buckets;
+    private final Map<String, Header> m_headers =
+      new HashMap<String, Header>();
+    private final Map<String, Header> m_secureHeaders =
+      new HashMap<String, Header>();
+
+    HostView(List<PathBucket> buckets) {
+      m_buckets = buckets;
+    }
+  }
+
+  /**
+   * Add a cookie, replacing any equal cookie.
+   *
+   * @param cookie The cookie.
+   * @return The cookie that was replaced, or <code>null</code>.
+   */
+  public synchronized Cookie put(Cookie cookie) {
+    final Cookie old = m_cookies.put(cookie, cookie);
+
+    List<PathBucket> buckets = m_domains.get(cookie.domain);
+
+    if (buckets == null) {
+      buckets = new ArrayList<PathBucket>();
+      m_domains.put(cookie.domain, buckets);
+    }
+
+    PathBucket bucket = null;
+
+    for (PathBucket b : buckets) {
+      if (b.m_path.equals(cookie.path)) {
+        bucket = b;
+        break;
+      }
+    }
+
+    if (bucket == null) {
+      bucket = new PathBucket(cookie.path);
+      buckets.add(bucket);
+    }
+
+    // Cookie.equals() ignores the value, so replace the map key too.
+    bucket.m_cookies.remove(cookie);
+    bucket.m_cookies.put(cookie, cookie);
+
+    if (cookie.expires != null) {
+      m_nextExpiry = Math.min(m_nextExpiry, cookie.expires.getTime());
+    }
+
+    m_hosts.clear();
+
+    return old;
+  }
+
+  /**
+   * Look up a cookie.
+   *
+   * @param cookie A cookie with the same name, domain, and path.
+   * @return The stored cookie, or <code>null</code>.
+   */
+  public synchronized Cookie get(Cookie cookie) {
+    return m_cookies.get(cookie);
+  }
+
+  /**
+   * Remove a cookie.
+   *
+   * @param cookie A cookie with the same name, domain, and path.
+   * @return The cookie that was removed, or <code>null</code>.
+   */
+  public synchronized Cookie remove(Cookie cookie) {
+    final Cookie old = m_cookies.remove(cookie);
+
+    if (old != null) {
+      final List<PathBucket> buckets = m_domains.get(old.domain);
+
+      for (int i = 0; i < buckets.size(); ++i) {
+        final PathBucket bucket = buckets.get(i);
+
+        if (bucket.m_path.equals(old.path)) {
+          bucket.m_cookies.remove(old);
+
+          if (bucket.m_cookies.isEmpty()) {
+            buckets.remove(i);
+          }
+
+          break;
+        }
+      }
+
+      if (buckets.isEmpty()) {
+        m_domains.remove(old.domain);
+      }
+
+      m_hosts.clear();
+    }
+
+    return old;
+  }
+
+  /**
+   * Remove every cookie.
+   */
+  public synchronized void clear() {
+    m_cookies.clear();
+    m_domains.clear();
+    m_hosts.clear();
+    m_nextExpiry = Long.MAX_VALUE;
+  }
+
+  /**
+   * The number of cookies.
+   *
+   * @return The number of cookies.
+   */
+  public synchronized int size() {
+    return m_cookies.size();
+  }
+
+  /**
+   * Return all of the cookies.
+   *
+   * @return The cookies.
+   */
+  public synchronized Cookie[] getCookies() {
+    return m_cookies.values().toArray(new Cookie[m_cookies.size()]);
+  }
+
+  /**
+   * Calculate the <code>Cookie</code> header value for a request. Expired
+   * cookies are removed from the store.
+   *
+   * @param req The request.
+   * @param handler The cookie policy handler, or <code>null</code>.
+   * @return The header, or <code>null</code> if no cookies should be sent.
+   */
+  public synchronized Header getHeader(RoRequest req,
+                                       CookiePolicyHandler handler) {
+    if (m_nextExpiry <= System.currentTimeMillis()) {
+      removeExpiredCookies();
+    }
+
+    if (m_cookies.isEmpty()) {
+      return null;
+    }
+
+    final HTTPConnection connection = req.getConnection();
+
+    final String host = connection.getHost();
+    final String effectiveHost =
+      host.indexOf('.') == -1 ? host + ".local" : host;
+
+    HostView view = m_hosts.get(effectiveHost);
+
+    if (view == null) {
+      view = new HostView(matchingBuckets(effectiveHost));
+      m_hosts.put(effectiveHost, view);
+    }
+
+    final String protocol = connection.getProtocol();
+    final boolean secure =
+      protocol.equals("https") || protocol.equals("shttp");
+
+    final String path = Util.getPath(req.getRequestURI());
+
+    final Map<String, Header> headers =
+      secure ? view.m_secureHeaders : view.m_headers;
+
+    Header result = handler == null ? headers.get(path) : null;
+
+    if (result == null) {
+      final boolean[] cacheable = { handler == null };
+
+      result = calculateHeader(view.m_buckets, path, secure, req, handler,
+                               cacheable);
+
+      if (cacheable[0]) {
+        if (headers.size() == MAXIMUM_CACHED_PATHS) {
+          headers.clear();
+        }
+
+        headers.put(path, result);
+      }
+    }
+
+    return result == NO_COOKIES ? null : result;
+  }
+
+  private List<PathBucket> matchingBuckets(String effectiveHost) {
+    final List<PathBucket> result = new ArrayList<PathBucket>();
+
+    for (Map.Entry<String, List<PathBucket>> entry : m_domains.entrySet()) {
+      final String domain = entry.getKey();
+
+      if (domain.charAt(0) == '.' && effectiveHost.endsWith(domain) ||
+          domain.charAt(0) != '.' && effectiveHost.equals(domain)) {
+        result.addAll(entry.getValue());
+      }
+    }
+
+    // Longest paths first. The sort is stable, so buckets of the same
+    // length stay in the order in which their domains and paths were first
+    // stored.
+    Collections.sort(result, new Comparator<PathBucket>() {
+        public int compare(PathBucket a, PathBucket b) {
+          return b.m_path.length() - a.m_path.length();
+        }
+      });
+
+    return result;
+  }
+
+  private static Header calculateHeader(List<PathBucket> buckets,
+                                        String path,
+                                        boolean secure,
+                                        RoRequest req,
+                                        CookiePolicyHandler handler,
+                                        boolean[] cacheable) {
+    final StringBuilder value = new StringBuilder();
+    int version = 0;
+
+    for (PathBucket bucket : buckets) {
+      if (!path.startsWith(bucket.m_path)) {
+        continue;
+      }
+
+      for (Cookie cookie : bucket.m_cookies.values()) {
+        if (cookie.secure && !secure) {
+          continue;
+        }
+
+        if (cookie instanceof Cookie2 && ((Cookie2) cookie).port_set) {
+          cacheable[0] = false;
+
+          if (!cookie.sendWith(req)) {
+            continue;
+          }
+        }
+
+        if (handler != null && !handler.sendCookie(cookie, req)) {
+          continue;
+        }
+
+        if (value.length() > 0) {
+          value.append("; ");
+        }
+
+        value.append(cookie.toExternalForm());
+
+        if (cookie instanceof Cookie2) {
+          version = Math.max(version, ((Cookie2) cookie).getVersion());
+        }
+      }
+    }
+
+    if (value.length() == 0) {
+      return NO_COOKIES;
+    }
+
+    if (version > 0) {
+      value.insert(0, "$Version=\"" + version + "\"; ");
+    }
+
+    return new Header(value.toString(), version);
+  }
+
+  private void removeExpiredCookies() {
+    final List<Cookie> expired = new ArrayList<Cookie>();
+    long nextExpiry = Long.MAX_VALUE;
+
+    for (Cookie cookie : m_cookies.values()) {
+      if (cookie.hasExpired()) {
+        Log.write(Log.COOKI, "CookM: cookie has expired and is " +
+                             "being removed: " + cookie);
+        expired.add(cookie);
+      }
+      else if (cookie.expires != null) {
+        nextExpiry = Math.min(nextExpiry, cookie.expires.getTime());
+      }
+    }
+
+    for (Cookie cookie : expired) {
+      remove(cookie);
+    }
+
+    m_nextExpiry = nextExpiry;
+  }
+}
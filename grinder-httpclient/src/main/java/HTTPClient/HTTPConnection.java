@@ -314,6 +314,10 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
     private        AtomicLong          con_time = new AtomicLong();
     private        AtomicLong          connectionsEstablished = new AtomicLong();
 
+    /** hack to count full and resumed SSL handshakes */
+    private        AtomicLong          fullHandshakes = new AtomicLong();
+    private        AtomicLong          resumedHandshakes = new AtomicLong();
+
     public interface TimeAuthority {
       long getTimeInMilliseconds();
     }
@@ -334,6 +338,92 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
     public TimeAuthority getTimeAuthority() {
       return timeAuthority;
     }
+
+    /**
+     * Resolves host names to addresses.
+     */
+    public interface HostResolver {
+      /**
+       * Look up the addresses of a host. Connections are attempted to
+       * each address in turn.
+       *
+       * @param host the host name.
+       * @return the addresses. Must not be empty.
+       * @exception UnknownHostException if the host cannot be resolved.
+       */
+      InetAddress[] getAllByName(String host) throws UnknownHostException;
+    }
+
+    private static HostResolver standardHostResolver =
+      new HostResolver() {
+        public InetAddress[] getAllByName(String host)
+          throws UnknownHostException {
+          return InetAddress.getAllByName(host);
+        }
+      };
+
+    private HostResolver hostResolver = standardHostResolver;
+
+    /**
+     * Set the resolver used to look up the addresses of the server.
+     *
+     * @param hostResolver the resolver, or null to use the JVM's
+     *                     resolver.
+     */
+    public void setHostResolver(HostResolver hostResolver) {
+      this.hostResolver =
+        hostResolver != null ? hostResolver : standardHostResolver;
+    }
+
+    public HostResolver getHostResolver() {
+      return hostResolver;
+    }
+
+    /**
+     * Alternative transport for requests, e.g. HTTP/2.
+     */
+    public interface RequestTransport {
+
+      /**
+       * Send a request.
+       *
+       * @param connection The connection.
+       * @param request The request.
+       * @param timeout The timeout to use for establishing a connection and
+       *   reading the response headers.
+       * @return The complete response, or {@code null} if the request
+       *   should be sent using HTTP/1.1.
+       * @exception IOException If the request could not be sent.
+       */
+      Response sendRequest(HTTPConnection connection,
+                           RoRequest request,
+                           int timeout) throws IOException;
+
+      /**
+       * Close any connections held by the transport.
+       */
+      void stop();
+    }
+
+    private volatile RequestTransport requestTransport;
+
+    /**
+     * Set an alternative transport for requests.
+     *
+     * @param transport The transport, or {@code null} to use HTTP/1.1.
+     */
+    public void setRequestTransport(RequestTransport transport) {
+      final RequestTransport old = requestTransport;
+      requestTransport = transport;
+
+      if (old != null && old != transport) {
+        old.stop();
+      }
+    }
+
+    public RequestTransport getRequestTransport() {
+      return requestTransport;
+    }
     /** --GRINDER MODIFICATION **/
 
     /** the default timeout to use for new connections */
@@ -1542,6 +1632,13 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
 				(StreamDemultiplexor) DemuxList.enumerate();
 	     demux != null; demux = (StreamDemultiplexor) DemuxList.next())
 	    demux.abort();
+
+	/** ++GRINDER MODIFICATION **/
+	final RequestTransport transport = requestTransport;
+
+	if (transport != null)
+	    transport.stop();
+	/** --GRINDER MODIFICATION **/
     }
 
     /**
@@ -2106,6 +2203,26 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
 	Context = context;
     }
 
+    /** ++GRINDER MODIFICATION **/
+    /**
+     * Replaces the context. Unlike {@link #setContext(Object)}, this may
+     * be called after the context has been set. It allows an idle
+     * connection to be handed from one owner to another, e.g. between
+     * worker threads. It must not be called while a request is in
+     * progress.
+     *
+     * @param context the new context; must be non-null
+     * @exception IllegalArgumentException if <var>context</var> is null
+     */
+    public void replaceContext(Object context)
+    {
+	if (context == null)
+	    throw new IllegalArgumentException("Context must be non-null");
+
+	Context = context;
+    }
+    /** --GRINDER MODIFICATION **/
+
 
     /**
      * Returns the current context.
@@ -2934,6 +3051,30 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
     final InetAddress getLocalAddress() {
       return LocalAddr;
     }
+
+    private boolean defer_content_decoding = false;
+
+    /**
+     * Whether the ContentEncodingModule should leave gzip and deflate
+     * encoded response bodies for the application to decode. If set,
+     * the encoding is available from {@link
+     * HTTPResponse#getDeferredContentEncoding()}, and the application
+     * should supply the decoded data with {@link
+     * HTTPResponse#setDecodedData(byte[])}. Responses that the
+     * application does not decode are decoded when their data is first
+     * read.
+     *
+     * @param b <code>true</code> to defer decoding.
+     */
+    public final void setDeferContentDecoding(boolean b)
+    {
+        defer_content_decoding = b;
+    }
+
+    public final boolean getDeferContentDecoding()
+    {
+        return defer_content_decoding;
+    }
     /** --GRINDER MODIFICATION **/
 
     /**
@@ -2953,6 +3094,17 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
     Response sendRequest(Request req, int con_timeout)
 		throws IOException, ModuleException
     {
+	/** ++GRINDER MODIFICATION **/
+	final RequestTransport transport = requestTransport;
+
+	if (transport != null  &&  req.getStream() == null)
+	{
+	    Response resp = transport.sendRequest(this, req, con_timeout);
+	    if (resp != null)
+		return resp;
+	}
+	/** --GRINDER MODIFICATION **/
+
 	ByteArrayOutputStream hdr_buf = new ByteArrayOutputStream(600);
 	Response              resp = null;
 	boolean		      keep_alive;
@@ -3111,6 +3263,7 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
 
 			sslSocket.setEnabledCipherSuites(getSSLCipherSuites());
 			sslSocket.setEnabledProtocols(getSSLProtocols());
+			handshake(sslSocket);
 
 			if (getCheckCertificates()) {
                         /** --GRINDER MODIFICATION **/
@@ -3336,7 +3489,7 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
       throws IOException {
 
       final BandwidthLimiter bandwidthLimiter =
-        getBandwidthLimiterFactory().create();
+        createRequestBandwidthLimiter();
 
       int position = 0;
 
@@ -3393,8 +3546,9 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
 	              getTimeAuthority().getTimeInMilliseconds();
                 /** --GRINDER MODIFICATION **/
 		// try all A records
-		InetAddress[] addr_list = InetAddress.getAllByName(actual_host);
                 /** ++GRINDER MODIFICATION **/
+		InetAddress[] addr_list = hostResolver.getAllByName(actual_host);
+
                 // capture time for DNS Lookup
                 DNS_time.set(
                   Math.max(getTimeAuthority().getTimeInMilliseconds() -
@@ -3466,6 +3620,91 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
     public long getConnectionsEstablished(){
       return connectionsEstablished.get();
     }
+
+    /**
+     * The number of full SSL handshakes performed by this connection.
+     *
+     * @return the number of handshakes.
+     */
+    public long getFullHandshakes(){
+      return fullHandshakes.get();
+    }
+
+    /**
+     * The number of SSL handshakes performed by this connection that
+     * resumed a session cached by the SSL socket factory.
+     *
+     * @return the number of handshakes.
+     */
+    public long getResumedHandshakes(){
+      return resumedHandshakes.get();
+    }
+
+    /**
+     * Perform the SSL handshake, and record whether it resumed an
+     * earlier session. A resumed session was created before the
+     * handshake started.
+     *
+     * @param sslSocket the socket.
+     * @exception IOException if the handshake failed.
+     */
+    private void handshake(SSLSocket sslSocket) throws IOException
+    {
+	final long startTime = System.currentTimeMillis();
+
+	sslSocket.startHandshake();
+
+	if (sslSocket.getSession().getCreationTime() < startTime)
+	    resumedHandshakes.incrementAndGet();
+	else
+	    fullHandshakes.incrementAndGet();
+    }
+
+    /**
+     * Open a new socket to the server for use by a
+     * {@link RequestTransport}. The DNS and connect times are recorded
+     * as for other connections. HTTPS sockets have completed the SSL
+     * handshake. Proxies are not supported.
+     *
+     * @param con_timeout the timeout to use when establishing the
+     *                    connection.
+     * @return the socket.
+     * @exception IOException if the socket could not be opened.
+     */
+    public Socket openSocket(int con_timeout) throws IOException
+    {
+	Socket sock = getSocket(con_timeout);
+
+	try
+	{
+	    sock.setSoTimeout(con_timeout);
+	    sock.setTcpNoDelay(true);
+
+	    if (Protocol == HTTPS)
+	    {
+		sock = sslFactory.createSocket(sock, Host, Port, true);
+
+		final SSLSocket sslSocket = (SSLSocket)sock;
+
+		sslSocket.setEnabledCipherSuites(getSSLCipherSuites());
+		sslSocket.setEnabledProtocols(getSSLProtocols());
+		handshake(sslSocket);
+
+		if (getCheckCertificates())
+		    checkCert(sslSocket.getSession().getPeerCertificateChain()[0],
+			      Host);
+	    }
+
+	    sock.setSoTimeout(0);
+	}
+	catch (IOException ioe)
+	{
+	    sock.close();
+	    throw ioe;
+	}
+
+	return sock;
+    }
     /** --GRINDER-MODIFICATION++ */
 
     /**
@@ -4070,8 +4309,10 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
             /** --GRINDER MODIFICATION **/
 
 		    // try all A records
-		    InetAddress[] addr_list = InetAddress.getAllByName(actual_host);
                     /** ++GRINDER MODIFICATION **/
+		    InetAddress[] addr_list =
+		      hostResolver.getAllByName(actual_host);
+
                     // capture time for DNS Lookup
                     DNS_time.set(
                        Math.max(getTimeAuthority().getTimeInMilliseconds()
@@ -4191,6 +4432,15 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
       BandwidthLimiter create();
     }
 
+    /**
+     * A {@link BandwidthLimiterFactory} that limits request data separately
+     * from response data. {@link #create()} is used for response data.
+     */
+    public static interface DirectionalBandwidthLimiterFactory
+      extends BandwidthLimiterFactory {
+      BandwidthLimiter createForRequest();
+    }
+
     private static BandwidthLimiterFactory
       s_defaultBandwidthLimiterFactory =
         new DefaultBandwidthLimiterFactory();
@@ -4207,10 +4457,23 @@ public class HTTPConnection implements GlobalConstants, HTTPClientModuleConstant
       }
     }
 
-    BandwidthLimiterFactory getBandwidthLimiterFactory() {
+    public BandwidthLimiterFactory getBandwidthLimiterFactory() {
       return m_bandwidthLimiterFactory;
     }
 
+    /**
+     * Create a limiter for sending a request body.
+     *
+     * @return The limiter.
+     */
+    public BandwidthLimiter createRequestBandwidthLimiter() {
+      final BandwidthLimiterFactory factory = m_bandwidthLimiterFactory;
+
+      return factory instanceof DirectionalBandwidthLimiterFactory ?
+        ((DirectionalBandwidthLimiterFactory) factory).createForRequest() :
+        factory.create();
+    }
+
     private static final class UnlimitedBandwidthLimiter
       implements BandwidthLimiter {
 
@@ -40,9 +40,13 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 
 
@@ -121,6 +125,12 @@ public class HTTPResponse implements HTTPClientModuleConstants
     /** ++GRINDER MODIFICATION **/
     /** The time to first byte */
     private long         ttfb;
+
+    /** The length of streamed data, or -1 if the data was not streamed. */
+    private long         streamedLength = -1;
+
+    /** The content encoding left for the application to decode, if any. */
+    private String       deferredContentEncoding = null;
     /** --GRINDER MODIFICATION **/
 
     // Constructors
@@ -526,11 +536,134 @@ public class HTTPResponse implements HTTPClientModuleConstants
 	    }
 
 	    inp_stream.close();
+
+	    /** ++GRINDER MODIFICATION **/
+	    if (deferredContentEncoding != null  &&  Data.length > 0)
+	    {
+		// Nobody decoded the data as it was read, so do it now.
+		final InputStream decoding =
+		    decodingStream(new ByteArrayInputStream(Data));
+		final ByteArrayOutputStream decoded =
+		    new ByteArrayOutputStream(Data.length * 4);
+		final byte[] buffer = new byte[4096];
+		int rcvd;
+
+		while ((rcvd = decoding.read(buffer)) != -1)
+		    decoded.write(buffer, 0, rcvd);
+
+		Data = decoded.toByteArray();
+	    }
+
+	    deferredContentEncoding = null;
+	    /** --GRINDER MODIFICATION **/
 	}
 
 	return Data;
     }
 
+    /** ++GRINDER MODIFICATION **/
+    /**
+     * Reads the response data through a caller supplied buffer, rather than
+     * accumulating all of it in memory. Each block of data is passed to
+     * <var>sink</var> as it is read. At most <var>retain</var> bytes are
+     * kept; these are subsequently returned by {@link #getData()
+     * getData()} and {@link #getInputStream() getInputStream()}.
+     *
+     * <P>If the data has already been read, the data held in memory is
+     * passed to the sink.
+     *
+     * @param buffer the buffer to read into. It may be reused by the caller
+     *               for other responses.
+     * @param retain the maximum number of bytes to keep.
+     * @param sink   receives the data as it is read, or <code>null</code>.
+     * @return the length of the data.
+     * @exception IOException If any io exception occured while reading
+     *			      the data, or if thrown by <var>sink</var>
+     * @exception ModuleException if any module encounters an exception.
+     */
+    public synchronized long readData(byte[] buffer,
+				      int retain,
+				      OutputStream sink)
+	throws IOException, ModuleException
+    {
+	if (!initialized)  handleResponse();
+
+	if (Data == null)
+	{
+	    try
+		{ streamResponseData(inp_stream, buffer, retain, sink); }
+	    catch (InterruptedIOException ie)		// don't intercept
+		{ throw ie; }
+	    catch (IOException ioe)
+	    {
+		Log.write(Log.RESP, "HResp: (\"" + method + " " +
+				    OriginalURI.getPathAndQuery() + "\")");
+		Log.write(Log.RESP, "       ", ioe);
+
+		try { inp_stream.close(); } catch (Exception e) { }
+		throw ioe;
+	    }
+
+	    inp_stream.close();
+	}
+	else if (sink != null)
+	    sink.write(Data);
+
+	return streamedLength >= 0 ? streamedLength : Data.length;
+    }
+
+    /**
+     * The content encoding of the response data if the
+     * ContentEncodingModule left it for the application to decode. See
+     * {@link HTTPConnection#setDeferContentDecoding(boolean)}.
+     *
+     * <P>{@link #readData(byte[], int, OutputStream) readData()} passes
+     * the encoded data to its sink. {@link #getData() getData()} and
+     * {@link #getInputStream() getInputStream()} decode the data unless
+     * the application has called {@link #setDecodedData(byte[], long)
+     * setDecodedData()}.
+     *
+     * @return <code>gzip</code>, <code>deflate</code>, or
+     *         <code>null</code> if the data does not need decoding.
+     * @exception IOException If any exception occurs on the socket.
+     * @exception ModuleException if any module encounters an exception.
+     */
+    public synchronized String getDeferredContentEncoding()
+	throws IOException, ModuleException
+    {
+	if (!initialized)  handleResponse();
+
+	return deferredContentEncoding;
+    }
+
+    /**
+     * Supply the decoded response data, after the encoded data has been
+     * read with {@link #readData(byte[], int, OutputStream) readData()}.
+     *
+     * @param data   the decoded data, or a prefix of it. This is
+     *               subsequently returned by {@link #getData()
+     *               getData()}.
+     * @param length the length of the decoded data.
+     */
+    public synchronized void setDecodedData(byte[] data, long length)
+    {
+	Data = data;
+	streamedLength = length;
+	deferredContentEncoding = null;
+    }
+
+    private InputStream decodingStream(InputStream inp) throws IOException
+    {
+	final String encoding = deferredContentEncoding;
+	deferredContentEncoding = null;
+
+	if ("gzip".equals(encoding))
+	    return new GZIPInputStream(inp);
+
+	return new InflaterInputStream(inp);
+    }
+    /** --GRINDER MODIFICATION **/
+
     /**
      * Reads all the response data into a buffer and turns it into a string
      * using the appropriate character converter. Since this uses {@link
@@ -581,6 +714,11 @@ public class HTTPResponse implements HTTPClientModuleConstants
     {
 	if (!initialized)  handleResponse();
 
+	/** ++GRINDER MODIFICATION **/
+	if (Data == null  &&  deferredContentEncoding != null)
+	    inp_stream = decodingStream(inp_stream);
+	/** --GRINDER MODIFICATION **/
+
 	if (Data == null)
 	    return inp_stream;
 	else
@@ -837,6 +975,9 @@ public class HTTPResponse implements HTTPClientModuleConstants
 	this.Data          = resp.Data;
 	this.retry         = resp.retry;
 	this.ttfb          = resp.getTtfb();
+	/** ++GRINDER MODIFICATION **/
+	this.deferredContentEncoding = resp.deferredContentEncoding;
+	/** --GRINDER MODIFICATION **/
 	initialized        = true;
     }
 
@@ -1033,6 +1174,75 @@ public class HTTPResponse implements HTTPClientModuleConstants
       }
 
 
+    /** ++GRINDER MODIFICATION **/
+    /**
+     * Reads the response data received, passing it to a sink and keeping
+     * only a prefix. Does not return until either Content-Length bytes
+     * have been read or EOF is reached.
+     */
+    private void streamResponseData(InputStream inp,
+				    byte[] buffer,
+				    int retain,
+				    OutputStream sink)
+	throws IOException, ModuleException
+    {
+      final ByteArrayOutputStream retained =
+        new ByteArrayOutputStream(Math.min(Math.max(retain, 0), 1000));
+
+      long total = 0;
+
+      try {
+        if (ContentLength != 0) {
+          final HTTPConnection.BandwidthLimiter bandwidthLimiter =
+            request.getConnection().getBandwidthLimiterFactory().create();
+
+          final boolean fixedSize = getHeader("Content-Length") != null;
+
+          while (!fixedSize || total < ContentLength) {
+            int maximumBytes =
+              Math.min(buffer.length,
+                       bandwidthLimiter.maximumBytes(
+                         (int) Math.min(total, Integer.MAX_VALUE)));
+
+            if (fixedSize) {
+              maximumBytes =
+                (int) Math.min(maximumBytes, ContentLength - total);
+            }
+
+            final int rcvd = inp.read(buffer, 0, maximumBytes);
+
+            if (rcvd == -1) {
+              break;
+            }
+
+            if (sink != null) {
+              sink.write(buffer, 0, rcvd);
+            }
+
+            final int keep = (int) Math.min(rcvd, retain - total);
+
+            if (keep > 0) {
+              retained.write(buffer, 0, keep);
+            }
+
+            total += rcvd;
+          }
+        }
+      }
+      finally {
+        Data = retained.toByteArray();
+        streamedLength = total;
+
+        try {
+          inp.close();
+        }
+        catch (IOException ioe) {
+        }
+      }
+    }
+    /** --GRINDER MODIFICATION **/
+
+
     int getTimeout()
     {
 	return timeout;
@@ -362,6 +362,7 @@ class RedirectionModule implements HTTPClientModule
             mvd.setTestConnectionHealthWithBlockingRead(
               req.getConnection().getTestConnectionHealthWithBlockingRead());
 		    mvd.setTimeAuthority(req.getConnection().getTimeAuthority());
+		    mvd.setHostResolver(req.getConnection().getHostResolver());
             /* --GRINDER MODIFICATION */
 
 			new_con = true;
@@ -84,6 +84,11 @@ public final class Response implements RoResponse, GlobalConstants, Cloneable
     /** our response input stream from the stream demux */
     private RespInputStream  resp_inp_stream = null;
 
+    /** ++GRINDER MODIFICATION **/
+    /** the content encoding left for the application to decode, if any */
+    String deferredContentEncoding = null;
+    /** --GRINDER MODIFICATION **/
+
     /** the method used in the request */
     private String       method;
 
@@ -1033,6 +1038,16 @@ public final class Response implements RoResponse, GlobalConstants, Cloneable
     public long getTtfb(){
 	    return ttfb;
     }
+
+    /**
+     * Set the time the first byte of the response was received. For use
+     * by a {@link HTTPConnection.RequestTransport}.
+     *
+     * @param ttfb the time in milliseconds.
+     */
+    public void setTtfb(long ttfb){
+	    this.ttfb = ttfb;
+    }
     /** --GRINDER MODIFICATION **/
     boolean trailers_read = false;
 